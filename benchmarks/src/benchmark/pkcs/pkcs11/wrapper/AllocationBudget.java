@@ -0,0 +1,464 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package benchmark.pkcs.pkcs11.wrapper;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Slot;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.AESSecretKey;
+import iaik.pkcs.pkcs11.objects.Data;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.objects.Object;
+import iaik.pkcs.pkcs11.objects.RSAPrivateKey;
+import iaik.pkcs.pkcs11.objects.RSAPublicKey;
+import iaik.pkcs.pkcs11.parameters.InitializationVectorParameters;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Vector;
+
+/**
+ * Measures the bytes the Java layer allocates per call of the hot paths of
+ * Session and per Object.getInstance for each object class, and compares them
+ * to a budget. It counts the allocations of the calling thread with the
+ * allocated-bytes counter of com.sun.management.ThreadMXBean; this includes the
+ * arrays the native wrapper creates, but not the memory of the module.
+ * <p>
+ * Unlike the JMH benchmarks, this is a regression check. It exits with status 1
+ * if an operation allocates more than its budget; thus, a build can run it
+ * after a change of the Java layer. The budget file is a properties file that
+ * maps the operation names to the maximum number of bytes per call; e.g.
+ * allocation-budgets.properties in the benchmarks directory. Operations without
+ * a budget are only reported. Without a budget file, it prints the measured
+ * values in the format of a budget file.
+ * <p>
+ * It does not need JMH. It is configured with the system properties of the
+ * benchmarks (pkcs11.module, pkcs11.wrapper, pkcs11.slot and pkcs11.pin) and
+ * creates the same session objects as BenchmarkModule. The numbers depend on
+ * the module, because the wrapper allocates the results of the module; e.g. the
+ * signature and the attribute values. The budgets in the benchmarks directory
+ * are for the mock module in src/native/mock.
+ */
+public class AllocationBudget {
+
+	/**
+	 * The number of calls before the measurement; for the JIT compiler to
+	 * optimize the code and for lazy initialization to finish.
+	 */
+	public static final int WARMUP_ITERATIONS = Integer.getInteger("pkcs11.allocation.warmup", 5000)
+	    .intValue();
+
+	/**
+	 * The number of measured calls of each operation.
+	 */
+	public static final int MEASURED_ITERATIONS = Integer.getInteger("pkcs11.allocation.iterations", 10000)
+	    .intValue();
+
+	/**
+	 * The size of the data for sign, encrypt and digestUpdate.
+	 */
+	public static final int PAYLOAD_SIZE = 1024;
+
+	/**
+	 * The label of the data object that setUp creates.
+	 */
+	public static final String DATA_OBJECT_LABEL = "pkcs11wrapper benchmark";
+
+	/**
+	 * The object classes for Object.getInstance.
+	 */
+	public static final Long[] OBJECT_CLASSES = { Object.ObjectClass.DATA,
+	    Object.ObjectClass.SECRET_KEY, Object.ObjectClass.PUBLIC_KEY, Object.ObjectClass.PRIVATE_KEY,
+	    Object.ObjectClass.CERTIFICATE };
+
+	/**
+	 * The names of OBJECT_CLASSES in the operation names.
+	 */
+	public static final String[] OBJECT_CLASS_NAMES = { "DATA", "SECRET_KEY", "PUBLIC_KEY",
+	    "PRIVATE_KEY", "CERTIFICATE" };
+
+	/**
+	 * An operation to measure.
+	 */
+	protected static abstract class Operation {
+
+		protected String name_;
+
+		protected Operation(String name) {
+			name_ = name;
+		}
+
+		public String getName() {
+			return name_;
+		}
+
+		public abstract void run()
+		    throws TokenException;
+
+		/**
+		 * Called after the measured calls; e.g. to finish a multi-part operation.
+		 */
+		public void finish()
+		    throws TokenException
+		{
+		}
+
+	}
+
+	protected Module module_;
+
+	protected Session session_;
+
+	protected AESSecretKey secretKey_;
+
+	protected RSAPrivateKey privateKey_;
+
+	protected com.sun.management.ThreadMXBean threadBean_;
+
+	protected byte[] payload_;
+
+	public static void main(String[] args)
+	    throws IOException, TokenException
+	{
+		if (System.getProperty("pkcs11.module") == null) {
+			printUsage();
+			throw new IllegalArgumentException("Missing system property pkcs11.module!");
+		}
+		Properties budgets = null;
+		if (args.length > 0) {
+			budgets = new Properties();
+			InputStream budgetStream = new FileInputStream(args[0]);
+			try {
+				budgets.load(budgetStream);
+			} finally {
+				budgetStream.close();
+			}
+		}
+
+		AllocationBudget check = new AllocationBudget();
+		boolean passed;
+		check.setUp();
+		try {
+			passed = check.run(budgets);
+		} finally {
+			check.tearDown();
+		}
+		if (!passed) {
+			System.out.println("Allocation budget exceeded.");
+			System.exit(1);
+		}
+	}
+
+	public static void printUsage() {
+		System.out.println("Usage: java -Dpkcs11.module=<PKCS#11 module> [-Dpkcs11.wrapper=<wrapper library>]"
+		    + " [-Dpkcs11.slot=<slot index>] [-Dpkcs11.pin=<user PIN>]"
+		    + " [-Dpkcs11.allocation.warmup=<calls>] [-Dpkcs11.allocation.iterations=<calls>]"
+		    + " AllocationBudget [<budget file>]");
+		System.out.println(" e.g.: java -Dpkcs11.module=libmockpkcs11.so AllocationBudget"
+		    + " allocation-budgets.properties");
+	}
+
+	public void setUp()
+	    throws IOException, TokenException
+	{
+		java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean)
+		    || !((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()) {
+			throw new UnsupportedOperationException("This VM does not count allocated bytes per thread.");
+		}
+		threadBean_ = (com.sun.management.ThreadMXBean) threadBean;
+		threadBean_.setThreadAllocatedMemoryEnabled(true);
+
+		String modulePath = System.getProperty("pkcs11.module");
+		String wrapperPath = System.getProperty("pkcs11.wrapper");
+		module_ = (wrapperPath != null) ? Module.getInstance(modulePath, wrapperPath) : Module
+		    .getInstance(modulePath);
+		module_.initialize(null);
+
+		Slot[] slots = module_.getSlotList(Module.SlotRequirement.TOKEN_PRESENT);
+		int slotIndex = Integer.parseInt(System.getProperty("pkcs11.slot", "0"));
+		if (slotIndex >= slots.length) {
+			throw new IllegalStateException("There is no token in slot " + slotIndex + ".");
+		}
+		session_ = slots[slotIndex].getToken().openSession(Token.SessionType.SERIAL_SESSION,
+		    Token.SessionReadWriteBehavior.RW_SESSION, null, null);
+		String pin = System.getProperty("pkcs11.pin");
+		if (pin != null) {
+			session_.login(Session.UserType.USER, pin.toCharArray());
+		}
+		createObjects();
+		payload_ = new byte[PAYLOAD_SIZE];
+		new Random(PAYLOAD_SIZE).nextBytes(payload_);
+	}
+
+	/**
+	 * Create the session objects to work with: an AES key, an RSA key pair and
+	 * a data object; the same as BenchmarkModule creates.
+	 */
+	protected void createObjects()
+	    throws TokenException
+	{
+		AESSecretKey secretKeyTemplate = new AESSecretKey();
+		secretKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+		secretKeyTemplate.getValueLen().setLongValue(new Long(16));
+		secretKeyTemplate.getEncrypt().setBooleanValue(Boolean.TRUE);
+		secretKeyTemplate.getDecrypt().setBooleanValue(Boolean.TRUE);
+		secretKey_ = (AESSecretKey) session_.generateKey(Mechanism
+		    .get(PKCS11Constants.CKM_AES_KEY_GEN), secretKeyTemplate);
+
+		RSAPublicKey publicKeyTemplate = new RSAPublicKey();
+		RSAPrivateKey privateKeyTemplate = new RSAPrivateKey();
+		publicKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+		publicKeyTemplate.getModulusBits().setLongValue(new Long(2048));
+		publicKeyTemplate.getPublicExponent().setByteArrayValue(new byte[] { 0x01, 0x00, 0x01 });
+		publicKeyTemplate.getVerify().setBooleanValue(Boolean.TRUE);
+		privateKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+		privateKeyTemplate.getSign().setBooleanValue(Boolean.TRUE);
+		KeyPair keyPair = session_.generateKeyPair(Mechanism
+		    .get(PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN), publicKeyTemplate, privateKeyTemplate);
+		privateKey_ = (RSAPrivateKey) keyPair.getPrivateKey();
+
+		Data dataTemplate = new Data();
+		dataTemplate.getToken().setBooleanValue(Boolean.FALSE);
+		dataTemplate.getLabel().setCharArrayValue(DATA_OBJECT_LABEL.toCharArray());
+		dataTemplate.getValue().setByteArrayValue(new byte[256]);
+		session_.createObject(dataTemplate);
+	}
+
+	public void tearDown()
+	    throws TokenException
+	{
+		if (session_ != null) {
+			// this also destroys all session objects created in setUp
+			session_.closeSession();
+		}
+		if (module_ != null) {
+			module_.finalize(null);
+		}
+	}
+
+	/**
+	 * Measure all operations and compare them to the budgets.
+	 *
+	 * @param budgets The budgets in bytes per call or null to print the
+	 *                measured values as budget file.
+	 * @return False, if an operation exceeded its budget.
+	 */
+	public boolean run(Properties budgets)
+	    throws TokenException
+	{
+		Vector operations = createOperations();
+		long overhead = measureOverhead();
+		boolean passed = true;
+
+		if (budgets == null) {
+			System.out.println("# bytes allocated per call");
+		}
+		for (int i = 0; i < operations.size(); i++) {
+			Operation operation = (Operation) operations.elementAt(i);
+			long bytesPerCall = measure(operation, overhead);
+			if (budgets == null) {
+				System.out.println(operation.getName() + "=" + bytesPerCall);
+				continue;
+			}
+			String budget = budgets.getProperty(operation.getName());
+			String result;
+			if (budget == null) {
+				result = "no budget";
+			} else if (bytesPerCall > Long.parseLong(budget.trim())) {
+				result = "FAILED, budget " + budget.trim();
+				passed = false;
+			} else {
+				result = "ok, budget " + budget.trim();
+			}
+			System.out.println(operation.getName() + ": " + bytesPerCall + " bytes/call, " + result);
+		}
+
+		return passed;
+	}
+
+	/**
+	 * Measure the bytes per call of an operation.
+	 *
+	 * @param operation The operation.
+	 * @param overhead The bytes the measurement itself allocates.
+	 * @return The bytes per call rounded up.
+	 */
+	protected long measure(Operation operation, long overhead)
+	    throws TokenException
+	{
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			operation.run();
+		}
+		operation.finish();
+
+		long threadId = Thread.currentThread().getId();
+		long bytesBefore = threadBean_.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+			operation.run();
+		}
+		long bytesAfter = threadBean_.getThreadAllocatedBytes(threadId);
+		operation.finish();
+		long bytes = Math.max(bytesAfter - bytesBefore - overhead, 0L);
+
+		return (bytes + MEASURED_ITERATIONS - 1) / MEASURED_ITERATIONS;
+	}
+
+	/**
+	 * Measure the bytes that reading the counter allocates.
+	 *
+	 * @return The bytes of one measurement without any calls.
+	 */
+	protected long measureOverhead() {
+		long threadId = Thread.currentThread().getId();
+		long overhead = Long.MAX_VALUE;
+		// the first calls may initialize the management classes
+		for (int i = 0; i < 10; i++) {
+			long bytesBefore = threadBean_.getThreadAllocatedBytes(threadId);
+			long bytesAfter = threadBean_.getThreadAllocatedBytes(threadId);
+			overhead = Math.min(overhead, bytesAfter - bytesBefore);
+		}
+
+		return overhead;
+	}
+
+	/**
+	 * Create the operations to measure: sign, encrypt, digestUpdate and
+	 * findObjects of Session and Object.getInstance for each object class that
+	 * the token has.
+	 *
+	 * @return The operations.
+	 */
+	protected Vector createOperations()
+	    throws TokenException
+	{
+		Vector operations = new Vector();
+		final Mechanism signatureMechanism = Mechanism.get(PKCS11Constants.CKM_SHA256_RSA_PKCS);
+		final Mechanism encryptionMechanism = Mechanism.get(PKCS11Constants.CKM_AES_CBC_PAD);
+		encryptionMechanism.setParameters(new InitializationVectorParameters(new byte[16]));
+		final Mechanism digestMechanism = Mechanism.get(PKCS11Constants.CKM_SHA256);
+
+		operations.addElement(new Operation("Session.sign") {
+			public void run()
+			    throws TokenException
+			{
+				session_.signInit(signatureMechanism, privateKey_);
+				session_.sign(payload_);
+			}
+		});
+		operations.addElement(new Operation("Session.encrypt") {
+			public void run()
+			    throws TokenException
+			{
+				session_.encryptInit(encryptionMechanism, secretKey_);
+				session_.encrypt(payload_);
+			}
+		});
+		operations.addElement(new Operation("Session.digestUpdate") {
+			protected boolean active_;
+
+			public void run()
+			    throws TokenException
+			{
+				if (!active_) {
+					session_.digestInit(digestMechanism);
+					active_ = true;
+				}
+				session_.digestUpdate(payload_);
+			}
+
+			public void finish()
+			    throws TokenException
+			{
+				if (active_) {
+					session_.digestFinal();
+					active_ = false;
+				}
+			}
+		});
+
+		final Data searchTemplate = new Data();
+		searchTemplate.getLabel().setCharArrayValue(DATA_OBJECT_LABEL.toCharArray());
+		operations.addElement(new Operation("Session.findObjects") {
+			public void run()
+			    throws TokenException
+			{
+				session_.findObjectsInit(searchTemplate);
+				session_.findObjects(16);
+				session_.findObjectsFinal();
+			}
+		});
+
+		for (int i = 0; i < OBJECT_CLASSES.length; i++) {
+			Object classTemplate = new Object();
+			classTemplate.getObjectClass().setLongValue(OBJECT_CLASSES[i]);
+			session_.findObjectsInit(classTemplate);
+			Object[] objects = session_.findObjects(1);
+			session_.findObjectsFinal();
+			if (objects.length == 0) {
+				System.out.println("Object.getInstance." + OBJECT_CLASS_NAMES[i]
+				    + ": skipped, no object of this class on the token");
+				continue;
+			}
+			final long objectHandle = objects[0].getObjectHandle();
+			operations.addElement(new Operation("Object.getInstance." + OBJECT_CLASS_NAMES[i]) {
+				public void run()
+				    throws TokenException
+				{
+					Object.getInstance(session_, objectHandle);
+				}
+			});
+		}
+
+		return operations;
+	}
+
+}
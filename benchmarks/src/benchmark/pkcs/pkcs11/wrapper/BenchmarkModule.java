@@ -0,0 +1,207 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package benchmark.pkcs.pkcs11.wrapper;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Slot;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.AESSecretKey;
+import iaik.pkcs.pkcs11.objects.Data;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.objects.RSAPrivateKey;
+import iaik.pkcs.pkcs11.objects.RSAPublicKey;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The module shared by all benchmark threads. It loads and initializes the
+ * module, logs in and creates the keys and objects the benchmarks work with.
+ * All of them are session objects of a setup session that stays open until the
+ * benchmark ends; thus, the benchmarks do not leave anything on the token.
+ * It is configured with these system properties:
+ * <ul>
+ *   <li>pkcs11.module - the PKCS#11 module to benchmark (required)</li>
+ *   <li>pkcs11.wrapper - the path of the native wrapper library, if it is not
+ *       in the library path</li>
+ *   <li>pkcs11.slot - the index of the slot with token, default 0</li>
+ *   <li>pkcs11.pin - the user PIN, if the token requires a login</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+public class BenchmarkModule {
+
+	/**
+	 * The names of the system properties that configure the module.
+	 */
+	public static final String[] PROPERTIES = { "pkcs11.module", "pkcs11.wrapper", "pkcs11.slot",
+	    "pkcs11.pin" };
+
+	/**
+	 * The label of the data object that setUp creates.
+	 */
+	public static final String DATA_OBJECT_LABEL = "pkcs11wrapper benchmark";
+
+	protected Module module_;
+
+	protected Token token_;
+
+	protected Session setupSession_;
+
+	protected AESSecretKey secretKey_;
+
+	protected RSAPublicKey publicKey_;
+
+	protected RSAPrivateKey privateKey_;
+
+	protected Data dataObject_;
+
+	@Setup
+	public void setUp()
+	    throws IOException, TokenException
+	{
+		String modulePath = System.getProperty("pkcs11.module");
+		if (modulePath == null) {
+			throw new IllegalStateException("Set the system property pkcs11.module to the PKCS#11 module to benchmark.");
+		}
+		String wrapperPath = System.getProperty("pkcs11.wrapper");
+		module_ = (wrapperPath != null) ? Module.getInstance(modulePath, wrapperPath) : Module
+		    .getInstance(modulePath);
+		module_.initialize(null);
+
+		Slot[] slots = module_.getSlotList(Module.SlotRequirement.TOKEN_PRESENT);
+		int slotIndex = Integer.parseInt(System.getProperty("pkcs11.slot", "0"));
+		if (slotIndex >= slots.length) {
+			throw new IllegalStateException("There is no token in slot " + slotIndex + ".");
+		}
+		token_ = slots[slotIndex].getToken();
+
+		setupSession_ = openSession();
+		String pin = System.getProperty("pkcs11.pin");
+		if (pin != null) {
+			setupSession_.login(Session.UserType.USER, pin.toCharArray());
+		}
+
+		AESSecretKey secretKeyTemplate = new AESSecretKey();
+		secretKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+		secretKeyTemplate.getValueLen().setLongValue(new Long(16));
+		secretKeyTemplate.getEncrypt().setBooleanValue(Boolean.TRUE);
+		secretKeyTemplate.getDecrypt().setBooleanValue(Boolean.TRUE);
+		secretKey_ = (AESSecretKey) setupSession_.generateKey(Mechanism
+		    .get(PKCS11Constants.CKM_AES_KEY_GEN), secretKeyTemplate);
+
+		RSAPublicKey publicKeyTemplate = new RSAPublicKey();
+		RSAPrivateKey privateKeyTemplate = new RSAPrivateKey();
+		publicKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+		publicKeyTemplate.getModulusBits().setLongValue(new Long(2048));
+		publicKeyTemplate.getPublicExponent().setByteArrayValue(new byte[] { 0x01, 0x00, 0x01 });
+		publicKeyTemplate.getVerify().setBooleanValue(Boolean.TRUE);
+		privateKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+		privateKeyTemplate.getSign().setBooleanValue(Boolean.TRUE);
+		KeyPair keyPair = setupSession_.generateKeyPair(Mechanism
+		    .get(PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN), publicKeyTemplate, privateKeyTemplate);
+		publicKey_ = (RSAPublicKey) keyPair.getPublicKey();
+		privateKey_ = (RSAPrivateKey) keyPair.getPrivateKey();
+
+		Data dataTemplate = new Data();
+		dataTemplate.getToken().setBooleanValue(Boolean.FALSE);
+		dataTemplate.getLabel().setCharArrayValue(DATA_OBJECT_LABEL.toCharArray());
+		dataTemplate.getValue().setByteArrayValue(new byte[256]);
+		dataObject_ = (Data) setupSession_.createObject(dataTemplate);
+	}
+
+	@TearDown
+	public void tearDown()
+	    throws TokenException
+	{
+		if (setupSession_ != null) {
+			// this also destroys all session objects created in setUp
+			setupSession_.closeSession();
+		}
+		if (module_ != null) {
+			module_.finalize(null);
+		}
+	}
+
+	/**
+	 * Open a new read-write session with the token of this module.
+	 *
+	 * @return The new session.
+	 * @exception TokenException If opening the session failed.
+	 */
+	public Session openSession()
+	    throws TokenException
+	{
+		return token_.openSession(Token.SessionType.SERIAL_SESSION,
+		    Token.SessionReadWriteBehavior.RW_SESSION, null, null);
+	}
+
+	public Module getModule() {
+		return module_;
+	}
+
+	public AESSecretKey getSecretKey() {
+		return secretKey_;
+	}
+
+	public RSAPublicKey getPublicKey() {
+		return publicKey_;
+	}
+
+	public RSAPrivateKey getPrivateKey() {
+		return privateKey_;
+	}
+
+	public Data getDataObject() {
+		return dataObject_;
+	}
+
+}
@@ -0,0 +1,108 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package benchmark.pkcs.pkcs11.wrapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of this package with 1, 2, 4, ... up to the given number
+ * of threads. It reports throughput and average time, and the allocation rate
+ * of the GC profiler. The pkcs11.* system properties of this VM are passed to
+ * the forked benchmark VMs; see BenchmarkModule.
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args)
+	    throws RunnerException
+	{
+		if (System.getProperty("pkcs11.module") == null) {
+			printUsage();
+			throw new IllegalArgumentException("Missing system property pkcs11.module!");
+		}
+		int maxThreads = (args.length > 0) ? Integer.parseInt(args[0]) : Runtime.getRuntime()
+		    .availableProcessors();
+		String include = (args.length > 1) ? args[1] : BenchmarkRunner.class.getPackage()
+		    .getName() + ".*Benchmark";
+
+		List jvmArguments = new ArrayList();
+		for (int i = 0; i < BenchmarkModule.PROPERTIES.length; i++) {
+			String value = System.getProperty(BenchmarkModule.PROPERTIES[i]);
+			if (value != null) {
+				jvmArguments.add("-D" + BenchmarkModule.PROPERTIES[i] + "=" + value);
+			}
+		}
+		String wrapperPath = System.getProperty("java.library.path");
+		if (wrapperPath != null) {
+			jvmArguments.add("-Djava.library.path=" + wrapperPath);
+		}
+
+		for (int threads = 1;; threads = Math.min(2 * threads, maxThreads)) {
+			ChainedOptionsBuilder options = new OptionsBuilder().include(include)
+			    .mode(Mode.Throughput).mode(Mode.AverageTime).timeUnit(TimeUnit.MICROSECONDS)
+			    .threads(threads).forks(1).warmupIterations(3).measurementIterations(5)
+			    .addProfiler(GCProfiler.class)
+			    .jvmArgsAppend((String[]) jvmArguments.toArray(new String[jvmArguments.size()]));
+			new Runner(options.build()).run();
+			if (threads >= maxThreads) {
+				break;
+			}
+		}
+	}
+
+	public static void printUsage() {
+		System.out.println("Usage: java -Dpkcs11.module=<PKCS#11 module> [-Dpkcs11.wrapper=<wrapper library>]"
+		    + " [-Dpkcs11.slot=<slot index>] [-Dpkcs11.pin=<user PIN>]"
+		    + " BenchmarkRunner [<max threads> [<benchmark regexp>]]");
+		System.out.println(" e.g.: java -Dpkcs11.module=pk2priv.dll BenchmarkRunner 8 CryptoBenchmark.sign");
+	}
+
+}
@@ -0,0 +1,212 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package benchmark.pkcs.pkcs11.wrapper;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.parameters.InitializationVectorParameters;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks the cryptographic operations of Session at different payload
+ * sizes; both, the single-part operations and the update/final paths. Each
+ * benchmark thread works with its own session. The multi-part benchmarks feed
+ * the payload in chunks of CHUNK_SIZE bytes.
+ */
+@State(Scope.Thread)
+public class CryptoBenchmark {
+
+	/**
+	 * The size of the parts for the update methods.
+	 */
+	public static final int CHUNK_SIZE = 1024;
+
+	@Param({ "16", "1024", "16384" })
+	public int payloadSize;
+
+	protected BenchmarkModule module_;
+
+	protected Session session_;
+
+	protected Mechanism signatureMechanism_;
+
+	protected Mechanism encryptionMechanism_;
+
+	protected Mechanism digestMechanism_;
+
+	protected byte[] payload_;
+
+	protected byte[][] chunks_;
+
+	protected byte[] signature_;
+
+	protected byte[] cipherText_;
+
+	@Setup
+	public void setUp(BenchmarkModule module)
+	    throws TokenException
+	{
+		module_ = module;
+		session_ = module.openSession();
+
+		signatureMechanism_ = Mechanism.get(PKCS11Constants.CKM_SHA256_RSA_PKCS);
+		encryptionMechanism_ = Mechanism.get(PKCS11Constants.CKM_AES_CBC_PAD);
+		encryptionMechanism_.setParameters(new InitializationVectorParameters(new byte[16]));
+		digestMechanism_ = Mechanism.get(PKCS11Constants.CKM_SHA256);
+
+		payload_ = new byte[payloadSize];
+		new Random(payloadSize).nextBytes(payload_);
+		int chunkCount = (payloadSize + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		chunks_ = new byte[chunkCount][];
+		for (int i = 0; i < chunkCount; i++) {
+			int offset = i * CHUNK_SIZE;
+			chunks_[i] = new byte[Math.min(CHUNK_SIZE, payloadSize - offset)];
+			System.arraycopy(payload_, offset, chunks_[i], 0, chunks_[i].length);
+		}
+
+		signature_ = sign();
+		cipherText_ = encrypt();
+	}
+
+	@TearDown
+	public void tearDown()
+	    throws TokenException
+	{
+		session_.closeSession();
+	}
+
+	@Benchmark
+	public byte[] sign()
+	    throws TokenException
+	{
+		session_.signInit(signatureMechanism_, module_.getPrivateKey());
+		return session_.sign(payload_);
+	}
+
+	@Benchmark
+	public byte[] signUpdateFinal()
+	    throws TokenException
+	{
+		session_.signInit(signatureMechanism_, module_.getPrivateKey());
+		for (int i = 0; i < chunks_.length; i++) {
+			session_.signUpdate(chunks_[i]);
+		}
+		return session_.signFinal();
+	}
+
+	@Benchmark
+	public void verify()
+	    throws TokenException
+	{
+		session_.verifyInit(signatureMechanism_, module_.getPublicKey());
+		session_.verify(payload_, signature_);
+	}
+
+	@Benchmark
+	public void verifyUpdateFinal()
+	    throws TokenException
+	{
+		session_.verifyInit(signatureMechanism_, module_.getPublicKey());
+		for (int i = 0; i < chunks_.length; i++) {
+			session_.verifyUpdate(chunks_[i]);
+		}
+		session_.verifyFinal(signature_);
+	}
+
+	@Benchmark
+	public byte[] encrypt()
+	    throws TokenException
+	{
+		session_.encryptInit(encryptionMechanism_, module_.getSecretKey());
+		return session_.encrypt(payload_);
+	}
+
+	@Benchmark
+	public byte[] encryptUpdateFinal()
+	    throws TokenException
+	{
+		session_.encryptInit(encryptionMechanism_, module_.getSecretKey());
+		for (int i = 0; i < chunks_.length; i++) {
+			session_.encryptUpdate(chunks_[i]);
+		}
+		return session_.encryptFinal();
+	}
+
+	@Benchmark
+	public byte[] decrypt()
+	    throws TokenException
+	{
+		session_.decryptInit(encryptionMechanism_, module_.getSecretKey());
+		return session_.decrypt(cipherText_);
+	}
+
+	@Benchmark
+	public byte[] digest()
+	    throws TokenException
+	{
+		session_.digestInit(digestMechanism_);
+		return session_.digest(payload_);
+	}
+
+	@Benchmark
+	public byte[] digestUpdateFinal()
+	    throws TokenException
+	{
+		session_.digestInit(digestMechanism_);
+		for (int i = 0; i < chunks_.length; i++) {
+			session_.digestUpdate(chunks_[i]);
+		}
+		return session_.digestFinal();
+	}
+
+}
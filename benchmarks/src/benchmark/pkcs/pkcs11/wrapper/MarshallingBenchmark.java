@@ -0,0 +1,145 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package benchmark.pkcs.pkcs11.wrapper;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.AESSecretKey;
+import iaik.pkcs.pkcs11.objects.Object;
+import iaik.pkcs.pkcs11.parameters.InitializationVectorParameters;
+import iaik.pkcs.pkcs11.parameters.Parameters;
+import iaik.pkcs.pkcs11.parameters.RSAPkcsOaepParameters;
+import iaik.pkcs.pkcs11.parameters.RSAPkcsParameters;
+import iaik.pkcs.pkcs11.wrapper.CK_ATTRIBUTE;
+import iaik.pkcs.pkcs11.wrapper.CK_MECHANISM;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks the conversion of mechanisms, parameters and templates to their
+ * Cryptoki representations. Most benchmarks only measure the Java side; the
+ * benchmark encryptInitFinal adds the JNI conversion of a mechanism with
+ * parameters and the shortest possible operation in the module.
+ */
+@State(Scope.Thread)
+public class MarshallingBenchmark {
+
+	protected Session session_;
+
+	protected AESSecretKey secretKey_;
+
+	protected Mechanism encryptionMechanism_;
+
+	protected RSAPkcsOaepParameters oaepParameters_;
+
+	protected AESSecretKey template_;
+
+	@Setup
+	public void setUp(BenchmarkModule module)
+	    throws TokenException
+	{
+		session_ = module.openSession();
+		secretKey_ = module.getSecretKey();
+
+		encryptionMechanism_ = Mechanism.get(PKCS11Constants.CKM_AES_CBC_PAD);
+		encryptionMechanism_.setParameters(new InitializationVectorParameters(new byte[16]));
+		oaepParameters_ = new RSAPkcsOaepParameters(Mechanism.get(PKCS11Constants.CKM_SHA_1),
+		    RSAPkcsParameters.MessageGenerationFunctionType.SHA1,
+		    RSAPkcsOaepParameters.SourceType.EMPTY, null);
+
+		template_ = new AESSecretKey();
+		template_.getToken().setBooleanValue(Boolean.FALSE);
+		template_.getValueLen().setLongValue(new Long(16));
+		template_.getLabel().setCharArrayValue("pkcs11wrapper benchmark".toCharArray());
+		template_.getEncrypt().setBooleanValue(Boolean.TRUE);
+		template_.getDecrypt().setBooleanValue(Boolean.TRUE);
+	}
+
+	@TearDown
+	public void tearDown()
+	    throws TokenException
+	{
+		session_.closeSession();
+	}
+
+	@Benchmark
+	public Mechanism mechanismGet() {
+		return Mechanism.get(PKCS11Constants.CKM_SHA256_RSA_PKCS);
+	}
+
+	@Benchmark
+	public CK_MECHANISM ckMechanism() {
+		CK_MECHANISM ckMechanism = new CK_MECHANISM();
+		ckMechanism.mechanism = encryptionMechanism_.getMechanismCode();
+		Parameters parameters = encryptionMechanism_.getParameters();
+		ckMechanism.pParameter = (parameters != null) ? parameters.getPKCS11ParamsObject() : null;
+		return ckMechanism;
+	}
+
+	@Benchmark
+	public java.lang.Object oaepParameters() {
+		return oaepParameters_.getPKCS11ParamsObject();
+	}
+
+	@Benchmark
+	public CK_ATTRIBUTE[] template()
+	    throws TokenException
+	{
+		return Object.getSetAttributes(template_);
+	}
+
+	@Benchmark
+	public byte[] encryptInitFinal()
+	    throws TokenException
+	{
+		session_.encryptInit(encryptionMechanism_, secretKey_);
+		return session_.encryptFinal();
+	}
+
+}
@@ -0,0 +1,174 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package benchmark.pkcs.pkcs11.wrapper;
+
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.Object;
+import iaik.pkcs.pkcs11.wrapper.CK_ATTRIBUTE;
+import iaik.pkcs.pkcs11.wrapper.PKCS11;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks finding and reading objects for each object class. These are the
+ * attribute-heavy paths of the wrapper: the high-level methods convert every
+ * attribute of the object's class between Java and Cryptoki types, while
+ * rawGetAttributeValue reads a small fixed template with the low-level
+ * interface. The BenchmarkModule creates a data object, a secret key and a key
+ * pair; certificates must already be on the token.
+ */
+@State(Scope.Thread)
+public class ObjectBenchmark {
+
+	@Param({ "DATA", "SECRET_KEY", "PUBLIC_KEY", "PRIVATE_KEY", "CERTIFICATE" })
+	public String objectClass;
+
+	protected Session session_;
+
+	protected PKCS11 pkcs11Module_;
+
+	protected Object searchTemplate_;
+
+	protected Object object_;
+
+	protected CK_ATTRIBUTE[] attributeTemplate_;
+
+	@Setup
+	public void setUp(BenchmarkModule module)
+	    throws TokenException
+	{
+		session_ = module.openSession();
+		pkcs11Module_ = module.getModule().getPKCS11Module();
+
+		searchTemplate_ = new Object();
+		searchTemplate_.getObjectClass().setLongValue(getObjectClassCode(objectClass));
+
+		Object[] objects = findObjects();
+		if (objects.length == 0) {
+			throw new IllegalStateException("There is no object of class " + objectClass
+			    + " on the token.");
+		}
+		object_ = objects[0];
+
+		long[] attributeTypes = { PKCS11Constants.CKA_CLASS, PKCS11Constants.CKA_TOKEN,
+		    PKCS11Constants.CKA_PRIVATE, PKCS11Constants.CKA_LABEL };
+		attributeTemplate_ = new CK_ATTRIBUTE[attributeTypes.length];
+		for (int i = 0; i < attributeTypes.length; i++) {
+			attributeTemplate_[i] = new CK_ATTRIBUTE();
+			attributeTemplate_[i].type = attributeTypes[i];
+		}
+	}
+
+	@TearDown
+	public void tearDown()
+	    throws TokenException
+	{
+		session_.closeSession();
+	}
+
+	@Benchmark
+	public Object[] findObjects()
+	    throws TokenException
+	{
+		session_.findObjectsInit(searchTemplate_);
+		Object[] objects = session_.findObjects(16);
+		session_.findObjectsFinal();
+		return objects;
+	}
+
+	@Benchmark
+	public Object getInstance()
+	    throws TokenException
+	{
+		return Object.getInstance(session_, object_.getObjectHandle());
+	}
+
+	@Benchmark
+	public Object getAttributeValues()
+	    throws TokenException
+	{
+		return session_.getAttributeValues(object_);
+	}
+
+	@Benchmark
+	public CK_ATTRIBUTE[] rawGetAttributeValue()
+	    throws TokenException
+	{
+		for (int i = 0; i < attributeTemplate_.length; i++) {
+			attributeTemplate_[i].pValue = null;
+		}
+		pkcs11Module_.C_GetAttributeValue(session_.getSessionHandle(), object_.getObjectHandle(),
+		    attributeTemplate_, false);
+		return attributeTemplate_;
+	}
+
+	/**
+	 * Get the object class for the given name.
+	 *
+	 * @param name The name of the object class as in Object.ObjectClass; e.g. "DATA".
+	 * @return The object class.
+	 */
+	protected static Long getObjectClassCode(String name) {
+		if (name.equals("DATA")) {
+			return Object.ObjectClass.DATA;
+		} else if (name.equals("SECRET_KEY")) {
+			return Object.ObjectClass.SECRET_KEY;
+		} else if (name.equals("PUBLIC_KEY")) {
+			return Object.ObjectClass.PUBLIC_KEY;
+		} else if (name.equals("PRIVATE_KEY")) {
+			return Object.ObjectClass.PRIVATE_KEY;
+		} else if (name.equals("CERTIFICATE")) {
+			return Object.ObjectClass.CERTIFICATE;
+		} else {
+			throw new IllegalArgumentException("Unknown object class: " + name);
+		}
+	}
+
+}
@@ -0,0 +1,158 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import java.io.IOException;
+
+import iaik.pkcs.pkcs11.Info;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Slot;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.GenericSecretKey;
+import iaik.pkcs.pkcs11.objects.Object;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+
+/**
+ * This demo program runs one pass through the calls that need JNI and resource
+ * metadata when the wrapper is compiled to a native executable; e.g. with
+ * GraalVM native-image and the configuration in
+ * META-INF/native-image/iaik.pkcs11/pkcs11wrapper. It initializes the module,
+ * reads the module, slot and token info, the mechanism list, logs in, generates
+ * a session key, reads its attributes back, computes a digest and a MAC and
+ * finally provokes an error to check that the error messages are available.
+ * It prints OK and exits with 0 if all steps pass and exits with 1 otherwise.
+ * It is meant to be run against the mock module in src/native/mock, e.g.
+ * <pre>
+ * native-image -cp classes demo.pkcs.pkcs11.wrapper.basics.NativeImageSmokeTest smoketest
+ * ./smoketest /path/to/libmockpkcs11.so /path/to/libpkcs11wrapper.so 1234
+ * </pre>
+ */
+public class NativeImageSmokeTest {
+
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			printUsage();
+			System.exit(1);
+		}
+
+		try {
+			run(args[0], args[1], args[2].toCharArray());
+			System.out.println("OK");
+			System.exit(0);
+		} catch (Throwable ex) {
+			System.out.println("FAILED");
+			ex.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	static void run(String modulePath, String wrapperPath, char[] pin)
+	    throws IOException, TokenException
+	{
+		Module pkcs11Module = Module.getInstance(modulePath, wrapperPath);
+		pkcs11Module.initialize(null);
+		try {
+			Info info = pkcs11Module.getInfo();
+			System.out.println(info.getManufacturerID() + " " + info.getLibraryVersion());
+
+			Slot[] slots = pkcs11Module.getSlotList(Module.SlotRequirement.TOKEN_PRESENT);
+			if (slots.length == 0) {
+				throw new IllegalStateException("No slot with a token present");
+			}
+			System.out.println(slots[0].getSlotInfo().getSlotDescription());
+			Token token = slots[0].getToken();
+			System.out.println(token.getTokenInfo().getLabel());
+			Mechanism[] mechanisms = token.getMechanismList();
+			System.out.println(mechanisms.length + " mechanisms");
+
+			Session session = token.openSession(Token.SessionType.SERIAL_SESSION,
+			    Token.SessionReadWriteBehavior.RW_SESSION, null, null);
+			try {
+				session.login(Session.UserType.USER, pin);
+
+				GenericSecretKey template = new GenericSecretKey();
+				template.getValueLen().setLongValue(new Long(32));
+				template.getToken().setBooleanValue(Boolean.FALSE);
+				template.getSign().setBooleanValue(Boolean.TRUE);
+				Object key = session.generateKey(
+				    Mechanism.get(PKCS11Constants.CKM_GENERIC_SECRET_KEY_GEN), template);
+				GenericSecretKey readKey = (GenericSecretKey) session.getAttributeValues(key);
+				System.out.println("key length " + readKey.getValueLen());
+
+				byte[] data = "native-image".getBytes();
+				session.digestInit(Mechanism.get(PKCS11Constants.CKM_SHA256));
+				System.out.println("digest " + session.digest(data).length + " bytes");
+				session.signInit(Mechanism.get(PKCS11Constants.CKM_SHA256_HMAC),
+				    (GenericSecretKey) key);
+				System.out.println("mac " + session.sign(data).length + " bytes");
+
+				try {
+					session.login(Session.UserType.USER, pin);
+					throw new IllegalStateException("Second login did not fail");
+				} catch (PKCS11Exception ex) {
+					if (ex.getErrorCode() != PKCS11Constants.CKR_USER_ALREADY_LOGGED_IN
+					    || !"CKR_USER_ALREADY_LOGGED_IN".equals(ex.getMessage())) {
+						throw ex;
+					}
+					System.out.println("expected " + ex.getMessage());
+				}
+
+				session.logout();
+			} finally {
+				session.closeSession();
+			}
+		} finally {
+			pkcs11Module.finalize(null);
+		}
+	}
+
+	public static void printUsage() {
+		System.out.println("Usage: NativeImageSmokeTest <PKCS#11 module> <PKCS#11 wrapper library> <user PIN>");
+		System.out.println(" e.g.: NativeImageSmokeTest libmockpkcs11.so libpkcs11wrapper.so 1234");
+		System.out.println("The given modules and libraries must be on the library path or be given with a full path.");
+	}
+
+}
@@ -0,0 +1,956 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package demo.pkcs.pkcs11.wrapper.performance;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Slot;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.AESSecretKey;
+import iaik.pkcs.pkcs11.objects.ECDSAPrivateKey;
+import iaik.pkcs.pkcs11.objects.ECDSAPublicKey;
+import iaik.pkcs.pkcs11.objects.Key;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.objects.RSAPrivateKey;
+import iaik.pkcs.pkcs11.objects.RSAPublicKey;
+import iaik.pkcs.pkcs11.parameters.InitializationVectorParameters;
+import iaik.pkcs.pkcs11.wrapper.LatencyHistogram;
+import iaik.pkcs.pkcs11.wrapper.PKCS11;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Connector;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+import iaik.pkcs.pkcs11.wrapper.RecordingPKCS11;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.Random;
+import java.util.StringTokenizer;
+import java.util.concurrent.locks.LockSupport;
+
+import demo.pkcs.pkcs11.wrapper.util.Util;
+
+/**
+ * This program generates load on a token to measure its throughput and latency;
+ * e.g. for capacity planning of an HSM or to compare versions of the wrapper.
+ * Several threads run a weighted mix of sign, verify, encrypt, decrypt and
+ * digest operations on a pool of sessions for a given time. The threads share
+ * the sessions round-robin; a thread locks a session for the duration of an
+ * operation.
+ * <p>
+ * By default, the load is closed-loop; i.e. each thread starts the next
+ * operation as soon as the last one finished. With a target rate, the load is
+ * open-loop; i.e. the threads start the operations at fixed intervals, no
+ * matter how long the operations take. In this mode, the latency is measured
+ * from the time the operation should have started; thus, a stalled token shows
+ * in the latency of all the operations that queue up behind it, and not only in
+ * the one that stalled.
+ * <p>
+ * At the end, the program prints the throughput and the latency percentiles of
+ * each operation in microseconds. It creates the keys as session objects in a
+ * setup session; thus, it does not leave any objects on the token.
+ * <p>
+ * With the record option, the program writes a trace of all calls to the
+ * module, which ReplayTrace can replay later; e.g. against another version of
+ * the module.
+ *
+ * @version 1.0
+ */
+public class LoadGenerator {
+
+	/**
+	 * The names of the operations as used in the -operations option.
+	 */
+	public static final String[] OPERATION_NAMES = { "sign", "verify", "encrypt", "decrypt", "digest" };
+
+	/**
+	 * The index of the sign operation in OPERATION_NAMES.
+	 */
+	public static final int SIGN = 0;
+
+	/**
+	 * The index of the verify operation in OPERATION_NAMES.
+	 */
+	public static final int VERIFY = 1;
+
+	/**
+	 * The index of the encrypt operation in OPERATION_NAMES.
+	 */
+	public static final int ENCRYPT = 2;
+
+	/**
+	 * The index of the decrypt operation in OPERATION_NAMES.
+	 */
+	public static final int DECRYPT = 3;
+
+	/**
+	 * The index of the digest operation in OPERATION_NAMES.
+	 */
+	public static final int DIGEST = 4;
+
+	/**
+	 * The names of the options that take a value.
+	 */
+	protected static final String[] VALUE_OPTIONS = { "wrapper", "slot", "pin", "threads", "sessions",
+	    "operations", "keytype", "keysize", "mechanism", "digest", "payload", "duration", "warmup", "rate",
+	    "record" };
+
+	/**
+	 * The DER encoded object identifiers of the curves P-256, P-384 and P-521.
+	 */
+	protected static final byte[][] CURVE_OIDS = {
+	    { 0x06, 0x08, 0x2A, (byte) 0x86, 0x48, (byte) 0xCE, 0x3D, 0x03, 0x01, 0x07 },
+	    { 0x06, 0x05, 0x2B, (byte) 0x81, 0x04, 0x00, 0x22 },
+	    { 0x06, 0x05, 0x2B, (byte) 0x81, 0x04, 0x00, 0x23 } };
+
+	/**
+	 * The options and their values as given on the command line.
+	 */
+	protected Hashtable options_ = new Hashtable();
+
+	/**
+	 * The weights of the operations; the index is the operation.
+	 */
+	protected int[] weights_ = new int[OPERATION_NAMES.length];
+
+	/**
+	 * The sum of the weights.
+	 */
+	protected int totalWeight_;
+
+	protected Module module_;
+
+	/**
+	 * The decorator that records the calls, if the record option is set.
+	 */
+	protected RecordingPKCS11 recorder_;
+
+	protected Token token_;
+
+	protected Session setupSession_;
+
+	protected Session[] sessions_;
+
+	/**
+	 * The key for sign and encrypt; the private key of a key pair.
+	 */
+	protected Key privateKey_;
+
+	/**
+	 * The key for verify and decrypt; the public key of a key pair.
+	 */
+	protected Key publicKey_;
+
+	/**
+	 * The mechanism for sign and verify; null, if the key type cannot sign.
+	 */
+	protected Mechanism signatureMechanism_;
+
+	/**
+	 * The mechanism for encrypt and decrypt; null, if the key type cannot
+	 * encrypt.
+	 */
+	protected Mechanism cipherMechanism_;
+
+	protected Mechanism digestMechanism_;
+
+	protected byte[] payload_;
+
+	/**
+	 * A signature of the payload for the verify operations.
+	 */
+	protected byte[] signature_;
+
+	/**
+	 * The encrypted payload for the decrypt operations.
+	 */
+	protected byte[] encryptedPayload_;
+
+	/**
+	 * A thread that runs operations until the end time and records their
+	 * latencies.
+	 *
+	 * @version 1.0
+	 * @invariants (histograms_ <> null)
+	 */
+	protected class Worker extends Thread {
+
+		/**
+		 * The index of this thread.
+		 */
+		protected int index_;
+
+		/**
+		 * The number of threads.
+		 */
+		protected int threadCount_;
+
+		/**
+		 * The interval between the intended start times of the operations in
+		 * nanoseconds; 0 for a closed-loop load.
+		 */
+		protected long interval_;
+
+		/**
+		 * The start time of the measurement; operations before are warmup.
+		 */
+		protected long measureStartTime_;
+
+		/**
+		 * The time to stop.
+		 */
+		protected long endTime_;
+
+		/**
+		 * The latencies of the measured operations; the index is the operation.
+		 */
+		protected LatencyHistogram[] histograms_ = new LatencyHistogram[OPERATION_NAMES.length];
+
+		/**
+		 * The number of failed operations after the warmup; the index is the
+		 * operation.
+		 */
+		protected long[] errorCounts_ = new long[OPERATION_NAMES.length];
+
+		/**
+		 * The error code of the last failure.
+		 */
+		protected long lastErrorCode_ = -1L;
+
+		/**
+		 * The number of completed operations including the warmup. Only this
+		 * thread writes it; the main thread reads it for the progress output.
+		 */
+		protected volatile long completedCount_;
+
+		/**
+		 * The intended start time of the next operation in open-loop mode.
+		 */
+		protected long nextStartTime_;
+
+		protected Worker(int index,
+		                 int threadCount,
+		                 long startTime,
+		                 long interval,
+		                 long measureStartTime,
+		                 long endTime)
+		{
+			super("LoadGenerator-" + index);
+			index_ = index;
+			threadCount_ = threadCount;
+			interval_ = interval;
+			measureStartTime_ = measureStartTime;
+			endTime_ = endTime;
+			for (int i = 0; i < histograms_.length; i++) {
+				histograms_[i] = new LatencyHistogram();
+			}
+			// spread the start times of the threads over one interval
+			nextStartTime_ = startTime + (interval * index) / threadCount;
+		}
+
+		public void run() {
+			Random random = new Random(index_);
+			long iteration = 0;
+			while (true) {
+				long startTime;
+				if (interval_ > 0) {
+					startTime = nextStartTime_;
+					nextStartTime_ += interval_;
+					long now;
+					while ((now = System.nanoTime()) < startTime) {
+						LockSupport.parkNanos(startTime - now);
+					}
+					if (startTime >= endTime_) {
+						break;
+					}
+				} else {
+					startTime = System.nanoTime();
+					if (startTime >= endTime_) {
+						break;
+					}
+				}
+				int operation = selectOperation(random);
+				// with at least as many sessions as threads, no two threads share a session
+				Session session = sessions_[(int) ((index_ + iteration * threadCount_) % sessions_.length)];
+				boolean failed = false;
+				try {
+					synchronized (session) {
+						runOperation(session, operation);
+					}
+				} catch (TokenException ex) {
+					failed = true;
+					if (ex instanceof PKCS11Exception) {
+						lastErrorCode_ = ((PKCS11Exception) ex).getErrorCode();
+					}
+				}
+				long endTime = System.nanoTime();
+				if (startTime >= measureStartTime_) {
+					if (failed) {
+						errorCounts_[operation]++;
+					} else {
+						histograms_[operation].recordValue(endTime - startTime);
+					}
+				}
+				iteration++;
+				completedCount_ = iteration;
+			}
+		}
+
+	}
+
+	/**
+	 * Usage: LoadGenerator &lt;PKCS#11 module&gt; [options], see printUsage().
+	 */
+	public static void main(String[] args)
+	    throws IOException, TokenException, InterruptedException
+	{
+		if (args.length < 1) {
+			printUsage();
+			throw new IOException("Missing argument!");
+		}
+		LoadGenerator generator = new LoadGenerator();
+		generator.parseOptions(args);
+		generator.setUp();
+		try {
+			generator.run();
+		} finally {
+			generator.tearDown();
+		}
+	}
+
+	protected static void printUsage() {
+		System.out.println("LoadGenerator <PKCS#11 module> [options]");
+		System.out.println("options:");
+		System.out.println("  -wrapper <path>        path of the native wrapper library");
+		System.out.println("  -slot <index>          index of the slot with token, default 0");
+		System.out.println("  -pin <pin>             user PIN, if the token requires a login");
+		System.out.println("  -threads <n>           number of threads, default 1");
+		System.out.println("  -sessions <n>          number of sessions, default the number of threads");
+		System.out.println("  -operations <mix>      weighted operations, default sign");
+		System.out.println("                         e.g. sign:3,verify:1 or encrypt,decrypt");
+		System.out.println("                         operations: sign, verify, encrypt, decrypt, digest");
+		System.out.println("  -keytype <type>        rsa, ec or aes, default rsa");
+		System.out.println("  -keysize <bits>        default 2048 for rsa, 256 for ec, 128 for aes");
+		System.out.println("  -mechanism <name>      mechanism for the operations of the key, default");
+		System.out.println("                         CKM_SHA256_RSA_PKCS/CKM_RSA_PKCS for rsa,");
+		System.out.println("                         CKM_ECDSA for ec and CKM_AES_CBC_PAD for aes");
+		System.out.println("  -digest <name>         mechanism for digest, default CKM_SHA256");
+		System.out.println("  -payload <bytes>       size of the data, default 32");
+		System.out.println("  -duration <seconds>    measurement time, default 10");
+		System.out.println("  -warmup <seconds>      time before the measurement, default 2");
+		System.out.println("  -rate <ops/s>          target rate of all threads for an open-loop load,");
+		System.out.println("                         default 0 for a closed-loop load");
+		System.out.println("  -histogram             print the full percentile distribution");
+		System.out.println("  -record <file>         write a trace of all calls for ReplayTrace");
+		System.out.println("e.g.: LoadGenerator libsofthsm2.so -pin 1234 -threads 8 -operations sign:9,verify:1");
+	}
+
+	/**
+	 * Parse the command line options.
+	 *
+	 * @param args The command line arguments.
+	 * @exception IOException If an option is unknown or misses its value.
+	 * @preconditions (args <> null) and (args.length >= 1)
+	 * @postconditions
+	 */
+	protected void parseOptions(String[] args)
+	    throws IOException
+	{
+		options_.put("module", args[0]);
+		options_.put("slot", "0");
+		options_.put("threads", "1");
+		options_.put("operations", "sign");
+		options_.put("keytype", "rsa");
+		options_.put("digest", "CKM_SHA256");
+		options_.put("payload", "32");
+		options_.put("duration", "10");
+		options_.put("warmup", "2");
+		options_.put("rate", "0");
+		for (int i = 1; i < args.length; i++) {
+			if (!args[i].startsWith("-")) {
+				printUsage();
+				throw new IOException("Unexpected argument: " + args[i]);
+			}
+			String name = args[i].substring(1);
+			if (name.equals("histogram")) {
+				options_.put(name, "true");
+			} else if (Arrays.asList(VALUE_OPTIONS).contains(name)) {
+				if (i + 1 >= args.length) {
+					throw new IOException("Missing value of option: " + args[i]);
+				}
+				options_.put(name, args[++i]);
+			} else {
+				printUsage();
+				throw new IOException("Unknown option: " + args[i]);
+			}
+		}
+		if (!options_.containsKey("sessions")) {
+			options_.put("sessions", options_.get("threads"));
+		}
+
+		StringTokenizer tokenizer = new StringTokenizer((String) options_.get("operations"), ",");
+		while (tokenizer.hasMoreTokens()) {
+			String token = tokenizer.nextToken().trim();
+			int separatorIndex = token.indexOf(':');
+			String operationName = (separatorIndex >= 0) ? token.substring(0, separatorIndex) : token;
+			int weight = (separatorIndex >= 0) ? Integer.parseInt(token.substring(separatorIndex + 1)) : 1;
+			int operation = -1;
+			for (int i = 0; i < OPERATION_NAMES.length; i++) {
+				if (OPERATION_NAMES[i].equals(operationName)) {
+					operation = i;
+				}
+			}
+			if (operation < 0 || weight < 0) {
+				throw new IOException("Invalid operation: " + token);
+			}
+			weights_[operation] += weight;
+			totalWeight_ += weight;
+		}
+		if (totalWeight_ <= 0) {
+			throw new IOException("No operations to run.");
+		}
+	}
+
+	/**
+	 * Load the module, open the sessions and create the keys, the signature and
+	 * the encrypted data the operations need.
+	 *
+	 * @exception IOException If loading the module fails.
+	 * @exception TokenException If a token operation fails.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected void setUp()
+	    throws IOException, TokenException
+	{
+		String modulePath = (String) options_.get("module");
+		String wrapperPath = (String) options_.get("wrapper");
+		System.out.println("load and initialize module: " + modulePath);
+		String tracePath = (String) options_.get("record");
+		if (tracePath != null) {
+			PKCS11 pkcs11 = (wrapperPath != null) ? PKCS11Connector.connectToPKCS11Module(modulePath,
+			    wrapperPath) : PKCS11Connector.connectToPKCS11Module(modulePath);
+			recorder_ = new RecordingPKCS11(pkcs11, new FileOutputStream(tracePath));
+			module_ = Module.getInstance(recorder_);
+		} else {
+			module_ = (wrapperPath != null) ? Module.getInstance(modulePath, wrapperPath) : Module
+			    .getInstance(modulePath);
+		}
+		module_.initialize(null);
+
+		Slot[] slots = module_.getSlotList(Module.SlotRequirement.TOKEN_PRESENT);
+		int slotIndex = getIntOption("slot");
+		if (slotIndex >= slots.length) {
+			throw new TokenException("There is no token in slot " + slotIndex + ".");
+		}
+		token_ = slots[slotIndex].getToken();
+		System.out.println("token: " + token_.getTokenInfo().getLabel().trim());
+
+		setupSession_ = token_.openSession(Token.SessionType.SERIAL_SESSION,
+		    Token.SessionReadWriteBehavior.RW_SESSION, null, null);
+		String pin = (String) options_.get("pin");
+		if (pin != null) {
+			setupSession_.login(Session.UserType.USER, pin.toCharArray());
+		}
+		sessions_ = new Session[getIntOption("sessions")];
+		for (int i = 0; i < sessions_.length; i++) {
+			sessions_[i] = token_.openSession(Token.SessionType.SERIAL_SESSION,
+			    Token.SessionReadWriteBehavior.RO_SESSION, null, null);
+		}
+
+		payload_ = new byte[getIntOption("payload")];
+		new Random(0).nextBytes(payload_);
+		digestMechanism_ = getMechanism("digest", null);
+		createKeys();
+		if (weights_[VERIFY] > 0) {
+			checkMechanism(signatureMechanism_, "verify");
+			setupSession_.signInit(signatureMechanism_, privateKey_);
+			signature_ = setupSession_.sign(payload_);
+		}
+		if (weights_[DECRYPT] > 0) {
+			checkMechanism(cipherMechanism_, "decrypt");
+			setupSession_.encryptInit(cipherMechanism_, publicKey_);
+			encryptedPayload_ = setupSession_.encrypt(payload_);
+		}
+		if (weights_[SIGN] > 0) {
+			checkMechanism(signatureMechanism_, "sign");
+		}
+		if (weights_[ENCRYPT] > 0) {
+			checkMechanism(cipherMechanism_, "encrypt");
+		}
+	}
+
+	/**
+	 * Create the session keys of the given key type and select the default
+	 * mechanisms.
+	 *
+	 * @exception IOException If the key type or a mechanism is unknown.
+	 * @exception TokenException If generating the keys fails.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected void createKeys()
+	    throws IOException, TokenException
+	{
+		String keyType = (String) options_.get("keytype");
+		System.out.println("generating " + keyType + " key");
+		if (keyType.equals("rsa")) {
+			RSAPublicKey publicKeyTemplate = new RSAPublicKey();
+			RSAPrivateKey privateKeyTemplate = new RSAPrivateKey();
+			publicKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+			publicKeyTemplate.getModulusBits().setLongValue(new Long(getIntOption("keysize", 2048)));
+			publicKeyTemplate.getPublicExponent().setByteArrayValue(new byte[] { 0x01, 0x00, 0x01 });
+			publicKeyTemplate.getVerify().setBooleanValue(Boolean.TRUE);
+			publicKeyTemplate.getEncrypt().setBooleanValue(Boolean.TRUE);
+			privateKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+			privateKeyTemplate.getSign().setBooleanValue(Boolean.TRUE);
+			privateKeyTemplate.getDecrypt().setBooleanValue(Boolean.TRUE);
+			KeyPair keyPair = setupSession_.generateKeyPair(Mechanism
+			    .get(PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN), publicKeyTemplate, privateKeyTemplate);
+			privateKey_ = keyPair.getPrivateKey();
+			publicKey_ = keyPair.getPublicKey();
+			signatureMechanism_ = getMechanism("mechanism", "CKM_SHA256_RSA_PKCS");
+			cipherMechanism_ = getMechanism("mechanism", "CKM_RSA_PKCS");
+		} else if (keyType.equals("ec")) {
+			int keySize = getIntOption("keysize", 256);
+			int curveIndex = (keySize == 256) ? 0 : (keySize == 384) ? 1 : (keySize == 521) ? 2 : -1;
+			if (curveIndex < 0) {
+				throw new IOException("Unsupported EC key size: " + keySize);
+			}
+			ECDSAPublicKey publicKeyTemplate = new ECDSAPublicKey();
+			ECDSAPrivateKey privateKeyTemplate = new ECDSAPrivateKey();
+			publicKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+			publicKeyTemplate.getEcdsaParams().setByteArrayValue(CURVE_OIDS[curveIndex]);
+			publicKeyTemplate.getVerify().setBooleanValue(Boolean.TRUE);
+			privateKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+			privateKeyTemplate.getSign().setBooleanValue(Boolean.TRUE);
+			KeyPair keyPair = setupSession_.generateKeyPair(Mechanism
+			    .get(PKCS11Constants.CKM_EC_KEY_PAIR_GEN), publicKeyTemplate, privateKeyTemplate);
+			privateKey_ = keyPair.getPrivateKey();
+			publicKey_ = keyPair.getPublicKey();
+			signatureMechanism_ = getMechanism("mechanism", "CKM_ECDSA");
+		} else if (keyType.equals("aes")) {
+			AESSecretKey secretKeyTemplate = new AESSecretKey();
+			secretKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+			secretKeyTemplate.getValueLen().setLongValue(new Long(getIntOption("keysize", 128) / 8));
+			secretKeyTemplate.getEncrypt().setBooleanValue(Boolean.TRUE);
+			secretKeyTemplate.getDecrypt().setBooleanValue(Boolean.TRUE);
+			privateKey_ = (Key) setupSession_.generateKey(Mechanism.get(PKCS11Constants.CKM_AES_KEY_GEN),
+			    secretKeyTemplate);
+			publicKey_ = privateKey_;
+			cipherMechanism_ = getMechanism("mechanism", "CKM_AES_CBC_PAD");
+			long cipherMechanismCode = cipherMechanism_.getMechanismCode();
+			if (cipherMechanismCode == PKCS11Constants.CKM_AES_CBC
+			    || cipherMechanismCode == PKCS11Constants.CKM_AES_CBC_PAD) {
+				cipherMechanism_.setParameters(new InitializationVectorParameters(new byte[16]));
+			}
+		} else {
+			throw new IOException("Unknown key type: " + keyType);
+		}
+	}
+
+	/**
+	 * Run the threads for the warmup and the measurement time, print the
+	 * progress every second and the results at the end.
+	 *
+	 * @exception InterruptedException If the main thread is interrupted.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected void run()
+	    throws InterruptedException
+	{
+		int threadCount = getIntOption("threads");
+		long rate = Long.parseLong((String) options_.get("rate"));
+		long interval = (rate > 0) ? (1000000000L * threadCount) / rate : 0L;
+		long warmupNanos = getIntOption("warmup") * 1000000000L;
+		long durationNanos = getIntOption("duration") * 1000000000L;
+		long startTime = System.nanoTime();
+		long measureStartTime = startTime + warmupNanos;
+		long endTime = measureStartTime + durationNanos;
+
+		System.out.println("running " + threadCount + " threads on " + sessions_.length + " sessions, "
+		    + ((rate > 0) ? "open-loop at " + rate + " ops/s" : "closed-loop") + ", warmup "
+		    + options_.get("warmup") + " s, duration " + options_.get("duration") + " s");
+		Worker[] workers = new Worker[threadCount];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Worker(i, threadCount, startTime, interval, measureStartTime, endTime);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+
+		long lastCount = 0;
+		for (int second = 1; System.nanoTime() < endTime; second++) {
+			long now = System.nanoTime();
+			long nextReport = startTime + second * 1000000000L;
+			if (nextReport > now) {
+				Thread.sleep((nextReport - now) / 1000000L, (int) ((nextReport - now) % 1000000L));
+			}
+			long count = 0;
+			for (int i = 0; i < workers.length; i++) {
+				count += workers[i].completedCount_;
+			}
+			System.out.println(second + " s" + ((nextReport <= measureStartTime) ? " (warmup)" : "")
+			    + ": " + (count - lastCount) + " ops/s");
+			lastCount = count;
+		}
+		for (int i = 0; i < workers.length; i++) {
+			workers[i].join();
+		}
+
+		printResults(workers, durationNanos);
+	}
+
+	/**
+	 * Print the throughput and the latency histograms of the measured
+	 * operations.
+	 *
+	 * @param workers The finished worker threads.
+	 * @param durationNanos The measurement time in nanoseconds.
+	 * @preconditions (workers <> null)
+	 * @postconditions
+	 */
+	protected void printResults(Worker[] workers, long durationNanos) {
+		double seconds = durationNanos / 1000000000.0;
+		LatencyHistogram total = new LatencyHistogram();
+		long totalErrors = 0;
+		long lastErrorCode = -1L;
+		System.out
+		    .println("################################################################################");
+		for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+			if (weights_[operation] == 0) {
+				continue;
+			}
+			LatencyHistogram histogram = new LatencyHistogram();
+			long errors = 0;
+			for (int i = 0; i < workers.length; i++) {
+				histogram.add(workers[i].histograms_[operation]);
+				errors += workers[i].errorCounts_[operation];
+				if (workers[i].lastErrorCode_ >= 0) {
+					lastErrorCode = workers[i].lastErrorCode_;
+				}
+			}
+			total.add(histogram);
+			totalErrors += errors;
+			System.out.println(OPERATION_NAMES[operation] + ": "
+			    + format(histogram.getTotalCount() / seconds) + " ops/s, " + errors
+			    + " errors, latency in us:");
+			printSummary(histogram, System.out);
+		}
+		System.out
+		    .println("________________________________________________________________________________");
+		System.out.println("total: " + format(total.getTotalCount() / seconds) + " ops/s, "
+		    + totalErrors + " errors" + ((lastErrorCode >= 0) ? " (last: 0x"
+		    + Long.toHexString(lastErrorCode).toUpperCase() + ")" : "") + ", latency in us:");
+		printSummary(total, System.out);
+		if (options_.containsKey("histogram")) {
+			System.out.println();
+			printPercentileDistribution(total, System.out);
+		}
+		System.out
+		    .println("################################################################################");
+	}
+
+	/**
+	 * Close the sessions and finalize the module. Closing the setup session
+	 * destroys the keys.
+	 *
+	 * @exception IOException If closing the trace fails.
+	 * @exception TokenException If closing fails.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected void tearDown()
+	    throws IOException, TokenException
+	{
+		if (sessions_ != null) {
+			for (int i = 0; i < sessions_.length; i++) {
+				if (sessions_[i] != null) {
+					sessions_[i].closeSession();
+				}
+			}
+		}
+		if (setupSession_ != null) {
+			setupSession_.closeSession();
+		}
+		if (module_ != null) {
+			module_.finalize(null);
+		}
+		if (recorder_ != null) {
+			recorder_.close();
+		}
+	}
+
+	/**
+	 * Select an operation according to the weights.
+	 *
+	 * @param random The random generator of the calling thread.
+	 * @return The operation.
+	 * @preconditions (random <> null)
+	 * @postconditions (result >= 0) and (result < OPERATION_NAMES.length)
+	 */
+	protected int selectOperation(Random random) {
+		int value = random.nextInt(totalWeight_);
+		for (int i = 0; i < weights_.length; i++) {
+			value -= weights_[i];
+			if (value < 0) {
+				return i;
+			}
+		}
+
+		return weights_.length - 1;
+	}
+
+	/**
+	 * Run one operation with the given session.
+	 *
+	 * @param session The session.
+	 * @param operation The operation.
+	 * @exception TokenException If the operation fails.
+	 * @preconditions (session <> null)
+	 * @postconditions
+	 */
+	protected void runOperation(Session session, int operation)
+	    throws TokenException
+	{
+		switch (operation) {
+		case SIGN:
+			session.signInit(signatureMechanism_, privateKey_);
+			session.sign(payload_);
+			break;
+		case VERIFY:
+			session.verifyInit(signatureMechanism_, publicKey_);
+			session.verify(payload_, signature_);
+			break;
+		case ENCRYPT:
+			session.encryptInit(cipherMechanism_, publicKey_);
+			session.encrypt(payload_);
+			break;
+		case DECRYPT:
+			session.decryptInit(cipherMechanism_, privateKey_);
+			session.decrypt(encryptedPayload_);
+			break;
+		default:
+			session.digestInit(digestMechanism_);
+			session.digest(payload_);
+			break;
+		}
+	}
+
+	/**
+	 * Get the mechanism of an option.
+	 *
+	 * @param option The name of the option.
+	 * @param defaultName The name of the mechanism, if the option is not set.
+	 * @return The mechanism or null, if the option is not set and there is no
+	 *         default.
+	 * @exception IOException If the mechanism name is unknown.
+	 * @preconditions (option <> null)
+	 * @postconditions
+	 */
+	protected Mechanism getMechanism(String option, String defaultName)
+	    throws IOException
+	{
+		String name = (String) options_.get(option);
+		if (name == null) {
+			name = defaultName;
+		}
+		if (name == null) {
+			return null;
+		}
+		Long mechanismCode = Util.mechanismCodeToString(name);
+		if (mechanismCode == null) {
+			throw new IOException("Unknown mechanism: " + name);
+		}
+
+		return Mechanism.get(mechanismCode.longValue());
+	}
+
+	/**
+	 * Check, if the key type supports an operation.
+	 *
+	 * @param mechanism The mechanism for the operation.
+	 * @param operationName The name of the operation.
+	 * @exception TokenException If the mechanism is null.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected void checkMechanism(Mechanism mechanism, String operationName)
+	    throws TokenException
+	{
+		if (mechanism == null) {
+			throw new TokenException("Key type " + options_.get("keytype") + " does not support "
+			    + operationName + ".");
+		}
+	}
+
+	/**
+	 * Print the count, the mean and the values at the usual percentiles from
+	 * p50 to p99.99 in microseconds.
+	 *
+	 * @param histogram The histogram.
+	 * @param output The stream to print to.
+	 * @preconditions (histogram <> null)
+	 *                and (output <> null)
+	 * @postconditions
+	 */
+	protected static void printSummary(LatencyHistogram histogram, PrintStream output) {
+		output.println("  count: " + histogram.getTotalCount() + ", min: "
+		    + format(histogram.getMinValue() / 1000.0) + ", mean: " + format(histogram.getMean() / 1000.0)
+		    + ", max: " + format(histogram.getMaxValue() / 1000.0));
+		output.println("  p50: " + format(histogram.getValueAtPercentile(50.0) / 1000.0) + ", p90: "
+		    + format(histogram.getValueAtPercentile(90.0) / 1000.0) + ", p99: "
+		    + format(histogram.getValueAtPercentile(99.0) / 1000.0) + ", p99.9: "
+		    + format(histogram.getValueAtPercentile(99.9) / 1000.0) + ", p99.99: "
+		    + format(histogram.getValueAtPercentile(99.99) / 1000.0));
+	}
+
+	/**
+	 * Print the percentile distribution in microseconds in the format of the
+	 * HdrHistogram, which its tools can plot. The percentiles get closer towards
+	 * 100 percent; there are five steps for each halving of the distance to 100
+	 * percent.
+	 *
+	 * @param histogram The histogram.
+	 * @param output The stream to print to.
+	 * @preconditions (histogram <> null)
+	 *                and (output <> null)
+	 * @postconditions
+	 */
+	protected static void printPercentileDistribution(LatencyHistogram histogram, PrintStream output) {
+		long totalCount = histogram.getTotalCount();
+		output.println("       Value     Percentile TotalCount 1/(1-Percentile)");
+		output.println();
+		for (double percentile = 0.0; totalCount > 0;) {
+			long count = Math.max((long) Math.ceil(percentile / 100.0 * totalCount), 1L);
+			if (count >= totalCount) {
+				break;
+			}
+			printPercentileLine(output, histogram.getValueAtPercentile(percentile), percentile, count);
+			double halfDistance = Math.pow(2.0,
+			    Math.floor(Math.log(100.0 / (100.0 - percentile)) / Math.log(2.0)) + 1.0);
+			percentile += 100.0 / (5.0 * halfDistance);
+		}
+		if (totalCount > 0) {
+			printPercentileLine(output, histogram.getMaxValue(), 100.0, totalCount);
+		}
+		output.println("#[Mean    = " + format(histogram.getMean() / 1000.0) + ", Max   = "
+		    + format(histogram.getMaxValue() / 1000.0) + "]");
+		output.println("#[Total count    = " + totalCount + "]");
+	}
+
+	/**
+	 * Print a line of the percentile distribution.
+	 *
+	 * @param output The stream to print to.
+	 * @param value The value in nanoseconds.
+	 * @param percentile The percentile.
+	 * @param count The number of values up to this percentile.
+	 * @preconditions (output <> null)
+	 * @postconditions
+	 */
+	protected static void printPercentileLine(PrintStream output, long value, double percentile, long count) {
+		String inverse = (percentile < 100.0) ? format(1.0 / (1.0 - percentile / 100.0)) : "";
+		output.println(pad(format(value / 1000.0), 12) + pad(format(percentile / 100.0, 6), 15)
+		    + pad(Long.toString(count), 11) + pad(inverse, 15));
+	}
+
+	/**
+	 * Format a number with three decimal places.
+	 *
+	 * @param value The number.
+	 * @return The formatted number.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected static String format(double value) {
+		return format(value, 3);
+	}
+
+	/**
+	 * Format a number with the given number of decimal places.
+	 *
+	 * @param value The number.
+	 * @param decimals The number of decimal places.
+	 * @return The formatted number.
+	 * @preconditions (decimals >= 0)
+	 * @postconditions (result <> null)
+	 */
+	protected static String format(double value, int decimals) {
+		return String.format(java.util.Locale.US, "%." + decimals + "f", new Object[] { new Double(value) });
+	}
+
+	/**
+	 * Pad a string with leading blanks.
+	 *
+	 * @param string The string.
+	 * @param length The minimum length.
+	 * @return The padded string.
+	 * @preconditions (string <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected static String pad(String string, int length) {
+		StringBuffer buffer = new StringBuffer(length);
+		for (int i = string.length(); i < length; i++) {
+			buffer.append(' ');
+		}
+		buffer.append(string);
+
+		return buffer.toString();
+	}
+
+	protected int getIntOption(String name) {
+		return Integer.parseInt((String) options_.get(name));
+	}
+
+	protected int getIntOption(String name, int defaultValue) {
+		String value = (String) options_.get(name);
+
+		return (value != null) ? Integer.parseInt(value) : defaultValue;
+	}
+
+}
@@ -0,0 +1,211 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package demo.pkcs.pkcs11.wrapper.performance;
+
+import iaik.pkcs.pkcs11.wrapper.InstrumentingPKCS11;
+import iaik.pkcs.pkcs11.wrapper.PKCS11;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Connector;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Replayer;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Trace;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Hashtable;
+
+/**
+ * This program replays a trace of PKCS#11 calls, which RecordingPKCS11 wrote;
+ * e.g. with the record option of the LoadGenerator. It replays the calls
+ * against the given module with the recorded inter-arrival times, or faster,
+ * and prints the throughput, the latency percentiles in microseconds and the
+ * statistics of each function. A different number of mismatches of the return
+ * values between two runs hints at a functional change.
+ * Without a module, the program prints the records of the trace.
+ *
+ * @version 1.0
+ */
+public class ReplayTrace {
+
+	/**
+	 * The names of the options that take a value.
+	 */
+	protected static final String[] VALUE_OPTIONS = { "wrapper", "pin", "sopin", "speed" };
+
+	/**
+	 * Usage: ReplayTrace &lt;trace file&gt; [&lt;PKCS#11 module&gt;] [options], see
+	 * printUsage().
+	 */
+	public static void main(String[] args)
+	    throws IOException, InterruptedException
+	{
+		if (args.length < 1) {
+			printUsage();
+			throw new IOException("Missing argument!");
+		}
+		Hashtable options = parseOptions(args);
+		String tracePath = (String) options.get("trace");
+		String modulePath = (String) options.get("module");
+		InputStream traceStream = new FileInputStream(tracePath);
+		try {
+			if (modulePath == null) {
+				printTrace(traceStream);
+				return;
+			}
+			String wrapperPath = (String) options.get("wrapper");
+			PKCS11 pkcs11 = (wrapperPath != null) ? PKCS11Connector.connectToPKCS11Module(modulePath,
+			    wrapperPath) : PKCS11Connector.connectToPKCS11Module(modulePath);
+			InstrumentingPKCS11 instrumentedPKCS11 = new InstrumentingPKCS11(pkcs11);
+			PKCS11Replayer replayer = new PKCS11Replayer(instrumentedPKCS11);
+			String pin = (String) options.get("pin");
+			String soPin = (String) options.get("sopin");
+			replayer.setPins((pin != null) ? pin.toCharArray() : null,
+			    (soPin != null) ? soPin.toCharArray() : null);
+			replayer.setSpeed(options.containsKey("fast") ? 0.0 : Double
+			    .parseDouble((String) options.get("speed")));
+
+			System.out.println("replay " + tracePath + " against " + modulePath);
+			replayer.replay(traceStream);
+
+			double seconds = replayer.getElapsedTime() / 1000000000.0;
+			System.out.println("calls: " + replayer.getCallCount() + ", mismatches: "
+			    + replayer.getMismatchCount() + ", skipped: " + replayer.getSkippedCount()
+			    + ", time [s]: " + LoadGenerator.format(seconds) + ", calls/s: "
+			    + LoadGenerator.format(replayer.getCallCount() / seconds));
+			System.out.println("latency [us]:");
+			LoadGenerator.printSummary(replayer.getLatencyHistogram(), System.out);
+			if (replayer.getScheduleLagHistogram().getTotalCount() > 0) {
+				System.out.println("schedule lag [us]:");
+				LoadGenerator.printSummary(replayer.getScheduleLagHistogram(), System.out);
+			}
+			InstrumentingPKCS11.CallStatistics[] statistics = instrumentedPKCS11.getStatistics();
+			for (int i = 0; i < statistics.length; i++) {
+				System.out.println(statistics[i]);
+			}
+			if (options.containsKey("histogram")) {
+				System.out.println();
+				LoadGenerator.printPercentileDistribution(replayer.getLatencyHistogram(), System.out);
+			}
+		} finally {
+			traceStream.close();
+		}
+	}
+
+	protected static void printUsage() {
+		System.out.println("ReplayTrace <trace file> [<PKCS#11 module>] [options]");
+		System.out.println("prints the trace, if no module is given");
+		System.out.println("options:");
+		System.out.println("  -wrapper <path>        path of the native wrapper library");
+		System.out.println("  -pin <pin>             user PIN for the recorded logins");
+		System.out.println("  -sopin <pin>           security officer PIN for the recorded logins");
+		System.out.println("  -speed <factor>        speed relative to the recording, default 1.0");
+		System.out.println("  -fast                  replay as fast as possible");
+		System.out.println("  -histogram             print the full percentile distribution");
+		System.out.println("e.g.: ReplayTrace load.trace libsofthsm2.so -pin 1234 -speed 2");
+	}
+
+	/**
+	 * Parse the command line options.
+	 *
+	 * @param args The command line arguments.
+	 * @return The options by name; the trace file as "trace" and the module
+	 *         as "module".
+	 * @exception IOException If an option is unknown or misses its value.
+	 * @preconditions (args <> null) and (args.length >= 1)
+	 * @postconditions (result <> null)
+	 */
+	protected static Hashtable parseOptions(String[] args)
+	    throws IOException
+	{
+		Hashtable options = new Hashtable();
+		options.put("trace", args[0]);
+		options.put("speed", "1.0");
+		int i = 1;
+		if ((i < args.length) && !args[i].startsWith("-")) {
+			options.put("module", args[i++]);
+		}
+		for (; i < args.length; i++) {
+			if (!args[i].startsWith("-")) {
+				printUsage();
+				throw new IOException("Unexpected argument: " + args[i]);
+			}
+			String name = args[i].substring(1);
+			if (name.equals("fast") || name.equals("histogram")) {
+				options.put(name, "true");
+			} else if (Arrays.asList(VALUE_OPTIONS).contains(name)) {
+				if (i + 1 >= args.length) {
+					throw new IOException("Missing value of option: " + args[i]);
+				}
+				options.put(name, args[++i]);
+			} else {
+				printUsage();
+				throw new IOException("Unknown option: " + args[i]);
+			}
+		}
+
+		return options;
+	}
+
+	/**
+	 * Print the records of the given trace, one per line.
+	 *
+	 * @param traceStream The stream to read the trace from.
+	 * @exception IOException If reading the trace fails.
+	 * @preconditions (traceStream <> null)
+	 * @postconditions
+	 */
+	protected static void printTrace(InputStream traceStream)
+	    throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(traceStream));
+		long startTime = PKCS11Trace.readHeader(in);
+		System.out.println("trace started at " + new java.util.Date(startTime));
+		PKCS11Trace.Record record;
+		while ((record = PKCS11Trace.readRecord(in)) != null) {
+			System.out.println(record);
+		}
+	}
+
+}
@@ -0,0 +1,812 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.wrapper;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * This class converts the objects of this package to native PKCS#11
+ * structures in memory segments and back for ForeignPKCS11. The conversions
+ * are these of the native part of PKCS11Implementation. The layouts of the
+ * structures are computed like a C compiler does; i.e. with natural alignment,
+ * and packed to one byte on Windows as pkcs11.h demands for this platform.
+ *
+ * @see ForeignPKCS11
+ * @invariants
+ */
+public class ForeignMarshaller {
+
+	/**
+	 * True, if the structures of pkcs11.h are packed to one byte on this
+	 * platform. This is the case on Windows.
+	 */
+	public static final boolean PACKED = System.getProperty("os.name", "").startsWith("Windows");
+
+	/**
+	 * The size of a pointer in bytes.
+	 */
+	public static final long POINTER_SIZE = ValueLayout.ADDRESS.byteSize();
+
+	/**
+	 * The size of a CK_ULONG in bytes. This is an unsigned long, which has
+	 * 4 bytes on Windows and the size of a pointer on other platforms.
+	 */
+	public static final long ULONG_SIZE = PACKED ? 4L : POINTER_SIZE;
+
+	/**
+	 * The layout of a CK_ULONG as argument or return value of a function.
+	 */
+	public static final ValueLayout ULONG = (ULONG_SIZE == 8L) ? (ValueLayout) ValueLayout.JAVA_LONG
+	    : (ValueLayout) ValueLayout.JAVA_INT;
+
+	/**
+	 * The CK_ULONG value of CK_UNAVAILABLE_INFORMATION, which is ~0.
+	 */
+	public static final long UNAVAILABLE_INFORMATION = (ULONG_SIZE == 8L) ? -1L : 0xFFFFFFFFL;
+
+	/**
+	 * The offsets of the fields of CK_INFO and its size as last element.
+	 */
+	public static final long[] INFO = layout(new long[] { 2, 32, ULONG_SIZE, 32, 2 },
+	    new long[] { 1, 1, ULONG_SIZE, 1, 1 });
+
+	/**
+	 * The offsets of the fields of CK_SLOT_INFO and its size as last element.
+	 */
+	public static final long[] SLOT_INFO = layout(new long[] { 64, 32, ULONG_SIZE, 2, 2 },
+	    new long[] { 1, 1, ULONG_SIZE, 1, 1 });
+
+	/**
+	 * The offsets of the fields of CK_TOKEN_INFO and its size as last element.
+	 */
+	public static final long[] TOKEN_INFO = layout(new long[] { 32, 32, 16, 16, ULONG_SIZE,
+	    ULONG_SIZE, ULONG_SIZE, ULONG_SIZE, ULONG_SIZE, ULONG_SIZE, ULONG_SIZE, ULONG_SIZE,
+	    ULONG_SIZE, ULONG_SIZE, ULONG_SIZE, 2, 2, 16 }, new long[] { 1, 1, 1, 1, ULONG_SIZE,
+	    ULONG_SIZE, ULONG_SIZE, ULONG_SIZE, ULONG_SIZE, ULONG_SIZE, ULONG_SIZE, ULONG_SIZE,
+	    ULONG_SIZE, ULONG_SIZE, ULONG_SIZE, 1, 1, 1 });
+
+	/**
+	 * The offsets of the fields of CK_SESSION_INFO and its size as last element.
+	 */
+	public static final long[] SESSION_INFO = layout(new long[] { ULONG_SIZE, ULONG_SIZE,
+	    ULONG_SIZE, ULONG_SIZE }, new long[] { ULONG_SIZE, ULONG_SIZE, ULONG_SIZE, ULONG_SIZE });
+
+	/**
+	 * The offsets of the fields of CK_MECHANISM_INFO and its size as last
+	 * element.
+	 */
+	public static final long[] MECHANISM_INFO = layout(new long[] { ULONG_SIZE, ULONG_SIZE,
+	    ULONG_SIZE }, new long[] { ULONG_SIZE, ULONG_SIZE, ULONG_SIZE });
+
+	/**
+	 * The offsets of the fields of CK_ATTRIBUTE (type, pValue, ulValueLen) and
+	 * its size as last element.
+	 */
+	public static final long[] ATTRIBUTE = layout(new long[] { ULONG_SIZE, POINTER_SIZE,
+	    ULONG_SIZE }, new long[] { ULONG_SIZE, POINTER_SIZE, ULONG_SIZE });
+
+	/**
+	 * The offsets of the fields of CK_MECHANISM (mechanism, pParameter,
+	 * ulParameterLen) and its size as last element.
+	 */
+	public static final long[] MECHANISM = ATTRIBUTE;
+
+	/**
+	 * The offsets of the fields of CK_C_INITIALIZE_ARGS and its size as last
+	 * element.
+	 */
+	public static final long[] INITIALIZE_ARGS = layout(new long[] { POINTER_SIZE, POINTER_SIZE,
+	    POINTER_SIZE, POINTER_SIZE, ULONG_SIZE, POINTER_SIZE }, new long[] { POINTER_SIZE,
+	    POINTER_SIZE, POINTER_SIZE, POINTER_SIZE, ULONG_SIZE, POINTER_SIZE });
+
+	/**
+	 * The offsets of the fields of CK_RSA_PKCS_PSS_PARAMS and its size as last
+	 * element.
+	 */
+	public static final long[] RSA_PKCS_PSS_PARAMS = MECHANISM_INFO;
+
+	/**
+	 * The offsets of the fields of CK_RSA_PKCS_OAEP_PARAMS (hashAlg, mgf,
+	 * source, pSourceData, ulSourceDataLen) and its size as last element.
+	 */
+	public static final long[] RSA_PKCS_OAEP_PARAMS = layout(new long[] { ULONG_SIZE,
+	    ULONG_SIZE, ULONG_SIZE, POINTER_SIZE, ULONG_SIZE }, new long[] { ULONG_SIZE, ULONG_SIZE,
+	    ULONG_SIZE, POINTER_SIZE, ULONG_SIZE });
+
+	/**
+	 * The offsets of the fields of CK_ECDH1_DERIVE_PARAMS (kdf,
+	 * ulSharedDataLen, pSharedData, ulPublicDataLen, pPublicData) and its size as
+	 * last element.
+	 */
+	public static final long[] ECDH1_DERIVE_PARAMS = layout(new long[] { ULONG_SIZE,
+	    ULONG_SIZE, POINTER_SIZE, ULONG_SIZE, POINTER_SIZE }, new long[] { ULONG_SIZE,
+	    ULONG_SIZE, POINTER_SIZE, ULONG_SIZE, POINTER_SIZE });
+
+	/**
+	 * The offsets of the fields of CK_KEY_DERIVATION_STRING_DATA (pData, ulLen)
+	 * and its size as last element.
+	 */
+	public static final long[] KEY_DERIVATION_STRING_DATA = layout(new long[] { POINTER_SIZE,
+	    ULONG_SIZE }, new long[] { POINTER_SIZE, ULONG_SIZE });
+
+	/**
+	 * Empty constructor for internal use only.
+	 *
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected ForeignMarshaller() { /* left empty intentionally */
+	}
+
+	/**
+	 * Computes the offsets of the fields of a structure.
+	 *
+	 * @param sizes The sizes of the fields in bytes.
+	 * @param alignments The natural alignments of the fields.
+	 * @return The offsets of the fields and the size of the structure
+	 *         including its trailing padding as last element.
+	 * @preconditions (sizes <> null)
+	 *                and (alignments <> null)
+	 *                and (sizes.length == alignments.length)
+	 * @postconditions (result <> null)
+	 *                 and (result.length == sizes.length + 1)
+	 */
+	public static long[] layout(long[] sizes, long[] alignments) {
+		long[] offsets = new long[sizes.length + 1];
+		long offset = 0L;
+		long structureAlignment = 1L;
+		for (int i = 0; i < sizes.length; i++) {
+			long alignment = PACKED ? 1L : alignments[i];
+			offset = align(offset, alignment);
+			offsets[i] = offset;
+			offset += sizes[i];
+			structureAlignment = Math.max(structureAlignment, alignment);
+		}
+		offsets[sizes.length] = align(offset, structureAlignment);
+
+		return offsets;
+	}
+
+	/**
+	 * Rounds the offset up to the next multiple of the alignment.
+	 *
+	 * @param offset The offset.
+	 * @param alignment The alignment; a power of two.
+	 * @return The aligned offset.
+	 * @preconditions (offset >= 0)
+	 *                and (alignment > 0)
+	 * @postconditions
+	 */
+	public static long align(long offset, long alignment) {
+		return (offset + alignment - 1L) & ~(alignment - 1L);
+	}
+
+	/**
+	 * Reads a CK_ULONG from the segment.
+	 *
+	 * @param segment The segment.
+	 * @param offset The offset of the value in the segment.
+	 * @return The unsigned value.
+	 * @preconditions (segment <> null)
+	 * @postconditions
+	 */
+	public static long getULong(MemorySegment segment, long offset) {
+		return (ULONG_SIZE == 8L) ? segment.get(ValueLayout.JAVA_LONG_UNALIGNED, offset)
+		    : segment.get(ValueLayout.JAVA_INT_UNALIGNED, offset) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Writes a CK_ULONG to the segment.
+	 *
+	 * @param segment The segment.
+	 * @param offset The offset of the value in the segment.
+	 * @param value The value.
+	 * @preconditions (segment <> null)
+	 * @postconditions
+	 */
+	public static void setULong(MemorySegment segment, long offset, long value) {
+		if (ULONG_SIZE == 8L) {
+			segment.set(ValueLayout.JAVA_LONG_UNALIGNED, offset, value);
+		} else {
+			segment.set(ValueLayout.JAVA_INT_UNALIGNED, offset, (int) value);
+		}
+	}
+
+	/**
+	 * Reads a pointer from the segment.
+	 *
+	 * @param segment The segment.
+	 * @param offset The offset of the pointer in the segment.
+	 * @return The pointer as segment of length zero.
+	 * @preconditions (segment <> null)
+	 * @postconditions (result <> null)
+	 */
+	public static MemorySegment getPointer(MemorySegment segment, long offset) {
+		return segment.get(ValueLayout.ADDRESS_UNALIGNED, offset);
+	}
+
+	/**
+	 * Writes a pointer to the segment.
+	 *
+	 * @param segment The segment.
+	 * @param offset The offset of the pointer in the segment.
+	 * @param pointer The pointer; MemorySegment.NULL for NULL_PTR.
+	 * @preconditions (segment <> null)
+	 *                and (pointer <> null)
+	 * @postconditions
+	 */
+	public static void setPointer(MemorySegment segment, long offset, MemorySegment pointer) {
+		segment.set(ValueLayout.ADDRESS_UNALIGNED, offset, pointer);
+	}
+
+	/**
+	 * Allocates a CK_ULONG with the given value.
+	 *
+	 * @param arena The arena to allocate from.
+	 * @param value The value.
+	 * @return The segment of the CK_ULONG.
+	 * @preconditions (arena <> null)
+	 * @postconditions (result <> null)
+	 */
+	public static MemorySegment toULong(Arena arena, long value) {
+		MemorySegment segment = arena.allocate(ULONG_SIZE, ULONG_SIZE);
+		setULong(segment, 0L, value);
+
+		return segment;
+	}
+
+	/**
+	 * Allocates a copy of the byte array.
+	 *
+	 * @param arena The arena to allocate from.
+	 * @param array The array or null.
+	 * @return The segment with the copy; MemorySegment.NULL, if the array is
+	 *         null.
+	 * @preconditions (arena <> null)
+	 * @postconditions (result <> null)
+	 */
+	public static MemorySegment toSegment(Arena arena, byte[] array) {
+		MemorySegment segment;
+		if (array == null) {
+			segment = MemorySegment.NULL;
+		} else {
+			segment = arena.allocate(array.length, 1L);
+			MemorySegment.copy(array, 0, segment, ValueLayout.JAVA_BYTE, 0L, array.length);
+		}
+
+		return segment;
+	}
+
+	/**
+	 * Allocates an array of CK_ULONG with the values of the given array.
+	 *
+	 * @param arena The arena to allocate from.
+	 * @param array The values.
+	 * @return The segment of the CK_ULONG array.
+	 * @preconditions (arena <> null)
+	 *                and (array <> null)
+	 * @postconditions (result <> null)
+	 */
+	public static MemorySegment toULongArray(Arena arena, long[] array) {
+		MemorySegment segment = arena.allocate(array.length * ULONG_SIZE, ULONG_SIZE);
+		for (int i = 0; i < array.length; i++) {
+			setULong(segment, i * ULONG_SIZE, array[i]);
+		}
+
+		return segment;
+	}
+
+	/**
+	 * Copies bytes of the segment to a new byte array.
+	 *
+	 * @param segment The segment.
+	 * @param offset The offset of the first byte.
+	 * @param length The number of bytes.
+	 * @return The new byte array.
+	 * @preconditions (segment <> null)
+	 * @postconditions (result <> null)
+	 */
+	public static byte[] toByteArray(MemorySegment segment, long offset, long length) {
+		byte[] array = new byte[(int) length];
+		MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, offset, array, 0, array.length);
+
+		return array;
+	}
+
+	/**
+	 * Copies an array of CK_ULONG of the segment to a new long array.
+	 *
+	 * @param segment The segment.
+	 * @param count The number of elements.
+	 * @return The new long array.
+	 * @preconditions (segment <> null)
+	 * @postconditions (result <> null)
+	 */
+	public static long[] toLongArray(MemorySegment segment, long count) {
+		long[] array = new long[(int) count];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = getULong(segment, i * ULONG_SIZE);
+		}
+
+		return array;
+	}
+
+	/**
+	 * Converts the chars to bytes. With UTF-8, this method encodes the chars;
+	 * without, it takes the lower byte of each char like the native part of
+	 * PKCS11Implementation.
+	 *
+	 * @param chars The chars.
+	 * @param useUtf8 True, to encode the chars with UTF-8.
+	 * @return The bytes.
+	 * @preconditions (chars <> null)
+	 * @postconditions (result <> null)
+	 */
+	public static byte[] toBytes(char[] chars, boolean useUtf8) {
+		byte[] bytes;
+		if (useUtf8) {
+			try {
+				bytes = PKCS11UTIL.utf8Encoder(chars);
+			} catch (UnsupportedEncodingException ex) {
+				throw new PKCS11RuntimeException("UTF-8 is not supported", ex);
+			}
+		} else {
+			bytes = new byte[chars.length];
+			for (int i = 0; i < chars.length; i++) {
+				bytes[i] = (byte) chars[i];
+			}
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Converts bytes of the segment to chars; the inverse of toBytes.
+	 *
+	 * @param segment The segment.
+	 * @param offset The offset of the first byte.
+	 * @param length The number of bytes.
+	 * @param useUtf8 True, to decode the bytes with UTF-8.
+	 * @return The chars.
+	 * @preconditions (segment <> null)
+	 * @postconditions (result <> null)
+	 */
+	public static char[] toChars(MemorySegment segment, long offset, long length, boolean useUtf8)
+	{
+		byte[] bytes = toByteArray(segment, offset, length);
+		char[] chars;
+		if (useUtf8) {
+			try {
+				chars = PKCS11UTIL.utf8Decoder(bytes);
+			} catch (UnsupportedEncodingException ex) {
+				throw new PKCS11RuntimeException("UTF-8 is not supported", ex);
+			}
+		} else {
+			chars = new char[bytes.length];
+			for (int i = 0; i < bytes.length; i++) {
+				chars[i] = (char) (bytes[i] & 0xFF);
+			}
+		}
+
+		return chars;
+	}
+
+	/**
+	 * Reads a CK_VERSION of the segment.
+	 *
+	 * @param segment The segment.
+	 * @param offset The offset of the version.
+	 * @return The version.
+	 * @preconditions (segment <> null)
+	 * @postconditions (result <> null)
+	 */
+	public static CK_VERSION toVersion(MemorySegment segment, long offset) {
+		CK_VERSION version = new CK_VERSION();
+		version.major = segment.get(ValueLayout.JAVA_BYTE, offset);
+		version.minor = segment.get(ValueLayout.JAVA_BYTE, offset + 1L);
+
+		return version;
+	}
+
+	/**
+	 * Converts a CK_INFO.
+	 *
+	 * @param segment The segment of the CK_INFO.
+	 * @return The info.
+	 * @preconditions (segment <> null)
+	 * @postconditions (result <> null)
+	 */
+	public static CK_INFO toInfo(MemorySegment segment) {
+		CK_INFO info = new CK_INFO();
+		info.cryptokiVersion = toVersion(segment, INFO[0]);
+		info.manufacturerID = toChars(segment, INFO[1], 32L, true);
+		info.flags = getULong(segment, INFO[2]);
+		info.libraryDescription = toChars(segment, INFO[3], 32L, true);
+		info.libraryVersion = toVersion(segment, INFO[4]);
+
+		return info;
+	}
+
+	/**
+	 * Converts a CK_SLOT_INFO.
+	 *
+	 * @param segment The segment of the CK_SLOT_INFO.
+	 * @return The slot info.
+	 * @preconditions (segment <> null)
+	 * @postconditions (result <> null)
+	 */
+	public static CK_SLOT_INFO toSlotInfo(MemorySegment segment) {
+		CK_SLOT_INFO info = new CK_SLOT_INFO();
+		info.slotDescription = toChars(segment, SLOT_INFO[0], 64L, true);
+		info.manufacturerID = toChars(segment, SLOT_INFO[1], 32L, true);
+		info.flags = getULong(segment, SLOT_INFO[2]);
+		info.hardwareVersion = toVersion(segment, SLOT_INFO[3]);
+		info.firmwareVersion = toVersion(segment, SLOT_INFO[4]);
+
+		return info;
+	}
+
+	/**
+	 * Converts a CK_TOKEN_INFO.
+	 *
+	 * @param segment The segment of the CK_TOKEN_INFO.
+	 * @return The token info.
+	 * @preconditions (segment <> null)
+	 * @postconditions (result <> null)
+	 */
+	public static CK_TOKEN_INFO toTokenInfo(MemorySegment segment) {
+		CK_TOKEN_INFO info = new CK_TOKEN_INFO();
+		info.label = toChars(segment, TOKEN_INFO[0], 32L, true);
+		info.manufacturerID = toChars(segment, TOKEN_INFO[1], 32L, true);
+		info.model = toChars(segment, TOKEN_INFO[2], 16L, true);
+		info.serialNumber = toChars(segment, TOKEN_INFO[3], 16L, false);
+		info.flags = getULong(segment, TOKEN_INFO[4]);
+		info.ulMaxSessionCount = getULong(segment, TOKEN_INFO[5]);
+		info.ulSessionCount = getULong(segment, TOKEN_INFO[6]);
+		info.ulMaxRwSessionCount = getULong(segment, TOKEN_INFO[7]);
+		info.ulRwSessionCount = getULong(segment, TOKEN_INFO[8]);
+		info.ulMaxPinLen = getULong(segment, TOKEN_INFO[9]);
+		info.ulMinPinLen = getULong(segment, TOKEN_INFO[10]);
+		info.ulTotalPublicMemory = getULong(segment, TOKEN_INFO[11]);
+		info.ulFreePublicMemory = getULong(segment, TOKEN_INFO[12]);
+		info.ulTotalPrivateMemory = getULong(segment, TOKEN_INFO[13]);
+		info.ulFreePrivateMemory = getULong(segment, TOKEN_INFO[14]);
+		info.hardwareVersion = toVersion(segment, TOKEN_INFO[15]);
+		info.firmwareVersion = toVersion(segment, TOKEN_INFO[16]);
+		info.utcTime = toChars(segment, TOKEN_INFO[17], 16L, false);
+
+		return info;
+	}
+
+	/**
+	 * Converts a CK_SESSION_INFO.
+	 *
+	 * @param segment The segment of the CK_SESSION_INFO.
+	 * @return The session info.
+	 * @preconditions (segment <> null)
+	 * @postconditions (result <> null)
+	 */
+	public static CK_SESSION_INFO toSessionInfo(MemorySegment segment) {
+		CK_SESSION_INFO info = new CK_SESSION_INFO();
+		info.slotID = getULong(segment, SESSION_INFO[0]);
+		info.state = getULong(segment, SESSION_INFO[1]);
+		info.flags = getULong(segment, SESSION_INFO[2]);
+		info.ulDeviceError = getULong(segment, SESSION_INFO[3]);
+
+		return info;
+	}
+
+	/**
+	 * Converts a CK_MECHANISM_INFO.
+	 *
+	 * @param segment The segment of the CK_MECHANISM_INFO.
+	 * @return The mechanism info.
+	 * @preconditions (segment <> null)
+	 * @postconditions (result <> null)
+	 */
+	public static CK_MECHANISM_INFO toMechanismInfo(MemorySegment segment) {
+		CK_MECHANISM_INFO info = new CK_MECHANISM_INFO();
+		info.ulMinKeySize = getULong(segment, MECHANISM_INFO[0]);
+		info.ulMaxKeySize = getULong(segment, MECHANISM_INFO[1]);
+		info.flags = getULong(segment, MECHANISM_INFO[2]);
+
+		return info;
+	}
+
+	/**
+	 * Allocates a CK_ATTRIBUTE array with the types and values of the template.
+	 *
+	 * @param arena The arena to allocate from.
+	 * @param template The template or null.
+	 * @param useUtf8 True, to encode char arrays with UTF-8.
+	 * @return The segment of the array; MemorySegment.NULL, if the template is
+	 *         null or empty.
+	 * @preconditions (arena <> null)
+	 * @postconditions (result <> null)
+	 */
+	public static MemorySegment toAttributes(Arena arena, CK_ATTRIBUTE[] template, boolean useUtf8)
+	{
+		if (template == null || template.length == 0) {
+			return MemorySegment.NULL;
+		}
+
+		long size = ATTRIBUTE[3];
+		MemorySegment attributes = arena.allocate(template.length * size, POINTER_SIZE);
+		for (int i = 0; i < template.length; i++) {
+			MemorySegment value = toValue(arena, template[i].pValue, useUtf8);
+			setULong(attributes, i * size + ATTRIBUTE[0], template[i].type);
+			setPointer(attributes, i * size + ATTRIBUTE[1], value);
+			setULong(attributes, i * size + ATTRIBUTE[2], value.byteSize());
+		}
+
+		return attributes;
+	}
+
+	/**
+	 * Allocates the native value of an attribute. The supported classes are
+	 * these of the native part of PKCS11Implementation.
+	 *
+	 * @param arena The arena to allocate from.
+	 * @param value The value or null.
+	 * @param useUtf8 True, to encode char arrays with UTF-8.
+	 * @return The segment of the value, which has the length of the value;
+	 *         MemorySegment.NULL, if the value is null.
+	 * @exception PKCS11RuntimeException If the class of the value is not
+	 *                                   supported.
+	 * @preconditions (arena <> null)
+	 * @postconditions (result <> null)
+	 */
+	public static MemorySegment toValue(Arena arena, Object value, boolean useUtf8) {
+		MemorySegment segment;
+		if (value == null) {
+			segment = MemorySegment.NULL;
+		} else if (value instanceof Long) {
+			segment = toULong(arena, ((Long) value).longValue());
+		} else if (value instanceof Boolean) {
+			segment = toSegment(arena, new byte[] { ((Boolean) value).booleanValue() ? (byte) 1
+			    : (byte) 0 });
+		} else if (value instanceof byte[]) {
+			segment = toSegment(arena, (byte[]) value);
+		} else if (value instanceof char[]) {
+			segment = toSegment(arena, toBytes((char[]) value, useUtf8));
+		} else if (value instanceof Byte) {
+			segment = toSegment(arena, new byte[] { ((Byte) value).byteValue() });
+		} else if (value instanceof CK_DATE) {
+			CK_DATE date = (CK_DATE) value;
+			byte[] bytes = new byte[8];
+			System.arraycopy(toBytes(date.year, false), 0, bytes, 0, 4);
+			System.arraycopy(toBytes(date.month, false), 0, bytes, 4, 2);
+			System.arraycopy(toBytes(date.day, false), 0, bytes, 6, 2);
+			segment = toSegment(arena, bytes);
+		} else if (value instanceof Character) {
+			segment = toSegment(arena, new byte[] { (byte) ((Character) value).charValue() });
+		} else if (value instanceof Integer) {
+			segment = toULong(arena, ((Integer) value).intValue());
+		} else if (value instanceof boolean[]) {
+			boolean[] booleans = (boolean[]) value;
+			byte[] bytes = new byte[booleans.length];
+			for (int i = 0; i < booleans.length; i++) {
+				bytes[i] = booleans[i] ? (byte) 1 : (byte) 0;
+			}
+			segment = toSegment(arena, bytes);
+		} else if (value instanceof int[]) {
+			int[] ints = (int[]) value;
+			long[] longs = new long[ints.length];
+			for (int i = 0; i < ints.length; i++) {
+				longs[i] = ints[i];
+			}
+			segment = toULongArray(arena, longs);
+		} else if (value instanceof long[]) {
+			segment = toULongArray(arena, (long[]) value);
+		} else if (value instanceof String) {
+			segment = toSegment(arena, toBytes(((String) value).toCharArray(), true));
+		} else {
+			throw new PKCS11RuntimeException(
+			    "Java object of this class cannot be converted to native PKCS#11 type: "
+			        + value.getClass().getName());
+		}
+
+		return segment;
+	}
+
+	/**
+	 * Converts the native value of an attribute to the Java object, which the
+	 * native part of PKCS11Implementation returns for the attribute type.
+	 * Attribute arrays; i.e. CKA_WRAP_TEMPLATE and CKA_UNWRAP_TEMPLATE, are
+	 * converted by the caller.
+	 *
+	 * @param type The attribute type.
+	 * @param value The segment of the value.
+	 * @param length The length of the value.
+	 * @param useUtf8 True, to decode char arrays with UTF-8.
+	 * @return The value; null, if the length is zero.
+	 * @preconditions (value <> null)
+	 * @postconditions
+	 */
+	public static Object toAttributeValue(long type, MemorySegment value, long length,
+	                                      boolean useUtf8)
+	{
+		if (length <= 0L) {
+			return null;
+		}
+
+		Object object;
+		if (type == PKCS11Constants.CKA_CLASS || type == PKCS11Constants.CKA_KEY_TYPE
+		    || type == PKCS11Constants.CKA_CERTIFICATE_TYPE
+		    || type == PKCS11Constants.CKA_HW_FEATURE_TYPE
+		    || type == PKCS11Constants.CKA_MODULUS_BITS
+		    || type == PKCS11Constants.CKA_VALUE_BITS || type == PKCS11Constants.CKA_VALUE_LEN
+		    || type == PKCS11Constants.CKA_KEY_GEN_MECHANISM
+		    || type == PKCS11Constants.CKA_PRIME_BITS
+		    || type == PKCS11Constants.CKA_SUB_PRIME_BITS
+		    || type == PKCS11Constants.CKA_CERTIFICATE_CATEGORY
+		    || type == PKCS11Constants.CKA_JAVA_MIDP_SECURITY_DOMAIN
+		    || type == PKCS11Constants.CKA_AUTH_PIN_FLAGS) {
+			object = Long.valueOf(getULong(value, 0L));
+		} else if (type == PKCS11Constants.CKA_RESET_ON_INIT
+		    || type == PKCS11Constants.CKA_HAS_RESET || type == PKCS11Constants.CKA_TOKEN
+		    || type == PKCS11Constants.CKA_PRIVATE || type == PKCS11Constants.CKA_MODIFIABLE
+		    || type == PKCS11Constants.CKA_DERIVE || type == PKCS11Constants.CKA_LOCAL
+		    || type == PKCS11Constants.CKA_ENCRYPT || type == PKCS11Constants.CKA_VERIFY
+		    || type == PKCS11Constants.CKA_VERIFY_RECOVER || type == PKCS11Constants.CKA_WRAP
+		    || type == PKCS11Constants.CKA_SENSITIVE
+		    || type == PKCS11Constants.CKA_SECONDARY_AUTH
+		    || type == PKCS11Constants.CKA_DECRYPT || type == PKCS11Constants.CKA_SIGN
+		    || type == PKCS11Constants.CKA_SIGN_RECOVER || type == PKCS11Constants.CKA_UNWRAP
+		    || type == PKCS11Constants.CKA_EXTRACTABLE
+		    || type == PKCS11Constants.CKA_ALWAYS_SENSITIVE
+		    || type == PKCS11Constants.CKA_NEVER_EXTRACTABLE
+		    || type == PKCS11Constants.CKA_TRUSTED
+		    || type == PKCS11Constants.CKA_WRAP_WITH_TRUSTED
+		    || type == PKCS11Constants.CKA_ALWAYS_AUTHENTICATE) {
+			object = Boolean.valueOf(value.get(ValueLayout.JAVA_BYTE, 0L) == 1);
+		} else if (type == PKCS11Constants.CKA_LABEL || type == PKCS11Constants.CKA_APPLICATION
+		    || type == PKCS11Constants.CKA_URL) {
+			object = toChars(value, 0L, length, useUtf8);
+		} else if (type == PKCS11Constants.CKA_START_DATE
+		    || type == PKCS11Constants.CKA_END_DATE) {
+			CK_DATE date = new CK_DATE();
+			date.year = toChars(value, 0L, 4L, false);
+			date.month = toChars(value, 4L, 2L, false);
+			date.day = toChars(value, 6L, 2L, false);
+			object = date;
+		} else if (type == PKCS11Constants.CKA_ALLOWED_MECHANISMS) {
+			object = toLongArray(value, length / ULONG_SIZE);
+		} else {
+			object = toByteArray(value, 0L, length);
+		}
+
+		return object;
+	}
+
+	/**
+	 * Allocates a CK_MECHANISM with its parameter.
+	 *
+	 * @param arena The arena to allocate from.
+	 * @param mechanism The mechanism.
+	 * @return The segment of the CK_MECHANISM.
+	 * @exception PKCS11RuntimeException If the class of the parameter is not
+	 *                                   supported.
+	 * @preconditions (arena <> null)
+	 *                and (mechanism <> null)
+	 * @postconditions (result <> null)
+	 */
+	public static MemorySegment toMechanism(Arena arena, CK_MECHANISM mechanism) {
+		MemorySegment segment = arena.allocate(MECHANISM[3], POINTER_SIZE);
+		MemorySegment parameter = toParameter(arena, mechanism.pParameter);
+		setULong(segment, MECHANISM[0], mechanism.mechanism);
+		setPointer(segment, MECHANISM[1], parameter);
+		setULong(segment, MECHANISM[2], parameter.byteSize());
+
+		return segment;
+	}
+
+	/**
+	 * Allocates a mechanism parameter. This method supports the parameters
+	 * of the common mechanisms: byte arrays (e.g. initialization vectors), Long,
+	 * CK_VERSION, CK_RSA_PKCS_PSS_PARAMS, CK_RSA_PKCS_OAEP_PARAMS,
+	 * CK_ECDH1_DERIVE_PARAMS and CK_KEY_DERIVATION_STRING_DATA.
+	 *
+	 * @param arena The arena to allocate from.
+	 * @param parameter The parameter or null.
+	 * @return The segment of the parameter, which has the length of the
+	 *         parameter; MemorySegment.NULL, if the parameter is null.
+	 * @exception PKCS11RuntimeException If the class of the parameter is not
+	 *                                   supported.
+	 * @preconditions (arena <> null)
+	 * @postconditions (result <> null)
+	 */
+	public static MemorySegment toParameter(Arena arena, Object parameter) {
+		MemorySegment segment;
+		if (parameter == null) {
+			segment = MemorySegment.NULL;
+		} else if (parameter instanceof byte[]) {
+			segment = toSegment(arena, (byte[]) parameter);
+		} else if (parameter instanceof Long) {
+			segment = toULong(arena, ((Long) parameter).longValue());
+		} else if (parameter instanceof CK_VERSION) {
+			CK_VERSION version = (CK_VERSION) parameter;
+			segment = toSegment(arena, new byte[] { version.major, version.minor });
+		} else if (parameter instanceof CK_RSA_PKCS_PSS_PARAMS) {
+			CK_RSA_PKCS_PSS_PARAMS params = (CK_RSA_PKCS_PSS_PARAMS) parameter;
+			segment = arena.allocate(RSA_PKCS_PSS_PARAMS[3], ULONG_SIZE);
+			setULong(segment, RSA_PKCS_PSS_PARAMS[0], params.hashAlg);
+			setULong(segment, RSA_PKCS_PSS_PARAMS[1], params.mgf);
+			setULong(segment, RSA_PKCS_PSS_PARAMS[2], params.sLen);
+		} else if (parameter instanceof CK_RSA_PKCS_OAEP_PARAMS) {
+			CK_RSA_PKCS_OAEP_PARAMS params = (CK_RSA_PKCS_OAEP_PARAMS) parameter;
+			MemorySegment sourceData = toSegment(arena, params.pSourceData);
+			segment = arena.allocate(RSA_PKCS_OAEP_PARAMS[5], POINTER_SIZE);
+			setULong(segment, RSA_PKCS_OAEP_PARAMS[0], params.hashAlg);
+			setULong(segment, RSA_PKCS_OAEP_PARAMS[1], params.mgf);
+			setULong(segment, RSA_PKCS_OAEP_PARAMS[2], params.source);
+			setPointer(segment, RSA_PKCS_OAEP_PARAMS[3], sourceData);
+			setULong(segment, RSA_PKCS_OAEP_PARAMS[4], sourceData.byteSize());
+		} else if (parameter instanceof CK_ECDH1_DERIVE_PARAMS) {
+			CK_ECDH1_DERIVE_PARAMS params = (CK_ECDH1_DERIVE_PARAMS) parameter;
+			MemorySegment sharedData = toSegment(arena, params.pSharedData);
+			MemorySegment publicData = toSegment(arena, params.pPublicData);
+			segment = arena.allocate(ECDH1_DERIVE_PARAMS[5], POINTER_SIZE);
+			setULong(segment, ECDH1_DERIVE_PARAMS[0], params.kdf);
+			setULong(segment, ECDH1_DERIVE_PARAMS[1], sharedData.byteSize());
+			setPointer(segment, ECDH1_DERIVE_PARAMS[2], sharedData);
+			setULong(segment, ECDH1_DERIVE_PARAMS[3], publicData.byteSize());
+			setPointer(segment, ECDH1_DERIVE_PARAMS[4], publicData);
+		} else if (parameter instanceof CK_KEY_DERIVATION_STRING_DATA) {
+			CK_KEY_DERIVATION_STRING_DATA params = (CK_KEY_DERIVATION_STRING_DATA) parameter;
+			MemorySegment data = toSegment(arena, params.pData);
+			segment = arena.allocate(KEY_DERIVATION_STRING_DATA[2], POINTER_SIZE);
+			setPointer(segment, KEY_DERIVATION_STRING_DATA[0], data);
+			setULong(segment, KEY_DERIVATION_STRING_DATA[1], data.byteSize());
+		} else {
+			throw new PKCS11RuntimeException("The mechanism parameter class "
+			    + parameter.getClass().getName() + " is not supported by ForeignPKCS11.");
+		}
+
+		return segment;
+	}
+
+}
@@ -0,0 +1,2140 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.wrapper;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class implements the PKCS11 interface with the foreign function and
+ * memory API of Java 22 (java.lang.foreign) instead of the native
+ * pkcs11wrapper library. It loads the PKCS#11 module with a SymbolLookup, gets
+ * its function list with C_GetFunctionList and calls the functions through
+ * downcall handles. The arguments are converted in confined arenas, which are
+ * freed when a call returns; see ForeignMarshaller. Callbacks of the module,
+ * i.e. CK_NOTIFY and the mutex functions of CK_C_INITIALIZE_ARGS, are upcall
+ * stubs.
+ * <p>
+ * An application gets an instance with
+ * PKCS11Connector.connectToForeignPKCS11Module; the other methods of
+ * PKCS11Connector keep using PKCS11Implementation. There is no platform
+ * specific binary to build, and the JIT sees the
+ * whole call path down to the module. The application should run with
+ * --enable-native-access=ALL-UNNAMED to avoid the warnings about restricted
+ * methods.
+ * <p>
+ * The differences to PKCS11Implementation are:
+ * <ul>
+ * <li> The mechanism parameters are limited to these, which
+ *      ForeignMarshaller.toParameter supports. Other parameters cause a
+ *      PKCS11RuntimeException.</li>
+ * <li> If CK_C_INITIALIZE_ARGS.useNativeMutexes is set, this class passes the
+ *      flag CKF_OS_LOCKING_OK instead of mutex functions of the wrapper; i.e.
+ *      the module uses its own locking of the operating system.</li>
+ * </ul>
+ *
+ * @see PKCS11Connector
+ * @see ForeignMarshaller
+ * @invariants (pkcs11ModulePath_ <> null)
+ *             and (arena_ <> null)
+ */
+public class ForeignPKCS11 implements PKCS11 {
+
+	/**
+	 * The indices of the functions in CK_FUNCTION_LIST.
+	 */
+	protected static final int C_INITIALIZE = 0;
+	protected static final int C_FINALIZE = 1;
+	protected static final int C_GET_INFO = 2;
+	protected static final int C_GET_FUNCTION_LIST = 3;
+	protected static final int C_GET_SLOT_LIST = 4;
+	protected static final int C_GET_SLOT_INFO = 5;
+	protected static final int C_GET_TOKEN_INFO = 6;
+	protected static final int C_GET_MECHANISM_LIST = 7;
+	protected static final int C_GET_MECHANISM_INFO = 8;
+	protected static final int C_INIT_TOKEN = 9;
+	protected static final int C_INIT_PIN = 10;
+	protected static final int C_SET_PIN = 11;
+	protected static final int C_OPEN_SESSION = 12;
+	protected static final int C_CLOSE_SESSION = 13;
+	protected static final int C_CLOSE_ALL_SESSIONS = 14;
+	protected static final int C_GET_SESSION_INFO = 15;
+	protected static final int C_GET_OPERATION_STATE = 16;
+	protected static final int C_SET_OPERATION_STATE = 17;
+	protected static final int C_LOGIN = 18;
+	protected static final int C_LOGOUT = 19;
+	protected static final int C_CREATE_OBJECT = 20;
+	protected static final int C_COPY_OBJECT = 21;
+	protected static final int C_DESTROY_OBJECT = 22;
+	protected static final int C_GET_OBJECT_SIZE = 23;
+	protected static final int C_GET_ATTRIBUTE_VALUE = 24;
+	protected static final int C_SET_ATTRIBUTE_VALUE = 25;
+	protected static final int C_FIND_OBJECTS_INIT = 26;
+	protected static final int C_FIND_OBJECTS = 27;
+	protected static final int C_FIND_OBJECTS_FINAL = 28;
+	protected static final int C_ENCRYPT_INIT = 29;
+	protected static final int C_ENCRYPT = 30;
+	protected static final int C_ENCRYPT_UPDATE = 31;
+	protected static final int C_ENCRYPT_FINAL = 32;
+	protected static final int C_DECRYPT_INIT = 33;
+	protected static final int C_DECRYPT = 34;
+	protected static final int C_DECRYPT_UPDATE = 35;
+	protected static final int C_DECRYPT_FINAL = 36;
+	protected static final int C_DIGEST_INIT = 37;
+	protected static final int C_DIGEST = 38;
+	protected static final int C_DIGEST_UPDATE = 39;
+	protected static final int C_DIGEST_KEY = 40;
+	protected static final int C_DIGEST_FINAL = 41;
+	protected static final int C_SIGN_INIT = 42;
+	protected static final int C_SIGN = 43;
+	protected static final int C_SIGN_UPDATE = 44;
+	protected static final int C_SIGN_FINAL = 45;
+	protected static final int C_SIGN_RECOVER_INIT = 46;
+	protected static final int C_SIGN_RECOVER = 47;
+	protected static final int C_VERIFY_INIT = 48;
+	protected static final int C_VERIFY = 49;
+	protected static final int C_VERIFY_UPDATE = 50;
+	protected static final int C_VERIFY_FINAL = 51;
+	protected static final int C_VERIFY_RECOVER_INIT = 52;
+	protected static final int C_VERIFY_RECOVER = 53;
+	protected static final int C_DIGEST_ENCRYPT_UPDATE = 54;
+	protected static final int C_DECRYPT_DIGEST_UPDATE = 55;
+	protected static final int C_SIGN_ENCRYPT_UPDATE = 56;
+	protected static final int C_DECRYPT_VERIFY_UPDATE = 57;
+	protected static final int C_GENERATE_KEY = 58;
+	protected static final int C_GENERATE_KEY_PAIR = 59;
+	protected static final int C_WRAP_KEY = 60;
+	protected static final int C_UNWRAP_KEY = 61;
+	protected static final int C_DERIVE_KEY = 62;
+	protected static final int C_SEED_RANDOM = 63;
+	protected static final int C_GENERATE_RANDOM = 64;
+	protected static final int C_GET_FUNCTION_STATUS = 65;
+	protected static final int C_CANCEL_FUNCTION = 66;
+	protected static final int C_WAIT_FOR_SLOT_EVENT = 67;
+
+	/**
+	 * The argument types of the functions in the order of CK_FUNCTION_LIST;
+	 * U for CK_ULONG, P for a pointer and B for CK_BBOOL. All functions return
+	 * a CK_RV.
+	 */
+	protected static final String[] SIGNATURES = {
+	    "P", "P", "P", "P", "BPP", "UP", "UP", "UPP", "UUP", "UPUP", "UPU", "UPUPU", "UUPPP", "U",
+	    "U", "UP", "UPP", "UPUUU", "UUPU", "U", "UPUP", "UUPUP", "UU", "UUP", "UUPU", "UUPU",
+	    "UPU", "UPUP", "U", "UPU", "UPUPP", "UPUPP", "UPP", "UPU", "UPUPP", "UPUPP", "UPP", "UP",
+	    "UPUPP", "UPU", "UU", "UPP", "UPU", "UPUPP", "UPU", "UPP", "UPU", "UPUPP", "UPU", "UPUPU",
+	    "UPU", "UPU", "UPU", "UPUPP", "UPUPP", "UPUPP", "UPUPP", "UPUPP", "UPPUP", "UPPUPUPP",
+	    "UPUUPP", "UPUPUPUP", "UPUPUP", "UPU", "UPU", "U", "U", "UPP" };
+
+	/**
+	 * The offsets of the function pointers in CK_FUNCTION_LIST. The first
+	 * field is the CK_VERSION.
+	 */
+	protected static final long[] FUNCTION_LIST;
+
+	/**
+	 * The size of the first output buffer of functions like C_Sign. It fits
+	 * most results; larger results need a second call.
+	 */
+	protected static final int OUTPUT_BUFFER_SIZE = 512;
+
+	/**
+	 * The linker for the C ABI of this platform.
+	 */
+	protected static final Linker LINKER = Linker.nativeLinker();
+
+	static {
+		long[] sizes = new long[SIGNATURES.length + 1];
+		long[] alignments = new long[SIGNATURES.length + 1];
+		sizes[0] = 2L;
+		alignments[0] = 1L;
+		for (int i = 1; i < sizes.length; i++) {
+			sizes[i] = ForeignMarshaller.POINTER_SIZE;
+			alignments[i] = ForeignMarshaller.POINTER_SIZE;
+		}
+		FUNCTION_LIST = ForeignMarshaller.layout(sizes, alignments);
+	}
+
+	/**
+	 * This class holds the callback of a session with its application object.
+	 *
+	 * @invariants (notify_ <> null)
+	 */
+	protected static class NotifyCallback {
+
+		/**
+		 * The callback of the application.
+		 */
+		protected CK_NOTIFY notify_;
+
+		/**
+		 * The application object, which the module passes to the callback.
+		 */
+		protected Object application_;
+
+		/**
+		 * The ID of the slot of the session.
+		 */
+		protected long slotID_;
+
+		/**
+		 * Creates a new callback entry.
+		 *
+		 * @param notify The callback.
+		 * @param application The application object or null.
+		 * @param slotID The ID of the slot of the session.
+		 * @preconditions (notify <> null)
+		 * @postconditions
+		 */
+		protected NotifyCallback(CK_NOTIFY notify, Object application, long slotID) {
+			notify_ = notify;
+			application_ = application;
+			slotID_ = slotID;
+		}
+
+	}
+
+	/**
+	 * The path of the PKCS#11 module as given to the constructor.
+	 */
+	protected String pkcs11ModulePath_;
+
+	/**
+	 * The shared arena of the module library and the upcall stubs. Closing it
+	 * unloads the library.
+	 */
+	protected Arena arena_;
+
+	/**
+	 * The downcall handles of the functions in the order of CK_FUNCTION_LIST;
+	 * null after finalize.
+	 */
+	protected volatile MethodHandle[] functions_;
+
+	/**
+	 * The address of the CK_FUNCTION_LIST of the module.
+	 */
+	protected long functionListAddress_;
+
+	/**
+	 * The upcall stub of the CK_NOTIFY callbacks of all sessions.
+	 */
+	protected MemorySegment notifyStub_;
+
+	/**
+	 * The upcall stubs of CreateMutex, DestroyMutex, LockMutex and UnlockMutex.
+	 */
+	protected MemorySegment[] mutexStubs_;
+
+	/**
+	 * The mutex callbacks of the application, set by C_Initialize.
+	 */
+	protected CK_CREATEMUTEX createMutex_;
+	protected CK_DESTROYMUTEX destroyMutex_;
+	protected CK_LOCKMUTEX lockMutex_;
+	protected CK_UNLOCKMUTEX unlockMutex_;
+
+	/**
+	 * The mutex objects of the application. The keys (Long) are the handles,
+	 * which the module gets as mutex pointers.
+	 */
+	protected Hashtable mutexes_;
+
+	/**
+	 * The NotifyCallback entries. The keys (Long) are the handles, which the
+	 * module gets as pApplication of C_OpenSession.
+	 */
+	protected Hashtable notifyCallbacks_;
+
+	/**
+	 * The handles of the NotifyCallback entries (Long) of the sessions. The
+	 * keys are the session handles (Long).
+	 */
+	protected Hashtable sessionNotifyCallbacks_;
+
+	/**
+	 * The source of the handles of mutexes and NotifyCallback entries.
+	 */
+	protected AtomicLong nextHandle_;
+
+	/**
+	 * Connects to the PKCS#11 module.
+	 *
+	 * @param pkcs11ModulePath The path to the module or the name of the
+	 *                         library, which the system searches in its library
+	 *                         path.
+	 * @exception IOException If loading the module or getting its function
+	 *                        list fails.
+	 * @preconditions (pkcs11ModulePath <> null)
+	 * @postconditions
+	 */
+	public ForeignPKCS11(String pkcs11ModulePath)
+	    throws IOException
+	{
+		pkcs11ModulePath_ = pkcs11ModulePath;
+		mutexes_ = new Hashtable();
+		notifyCallbacks_ = new Hashtable();
+		sessionNotifyCallbacks_ = new Hashtable();
+		nextHandle_ = new AtomicLong();
+		arena_ = Arena.ofShared();
+		try {
+			SymbolLookup library = SymbolLookup.libraryLookup(pkcs11ModulePath, arena_);
+			MemorySegment getFunctionList = (MemorySegment) library.find("C_GetFunctionList")
+			    .orElse(MemorySegment.NULL);
+			if (getFunctionList.address() == 0L) {
+				throw new IOException("The module " + pkcs11ModulePath
+				    + " has no function C_GetFunctionList");
+			}
+			MemorySegment ppFunctionList = arena_.allocate(ValueLayout.ADDRESS);
+			long rv = (long) downcall(getFunctionList, "P").invokeExact(ppFunctionList);
+			if (result(rv) != PKCS11Constants.CKR_OK) {
+				throw new IOException("C_GetFunctionList of the module " + pkcs11ModulePath
+				    + " failed: " + PKCS11Exception.getInstance(result(rv)).getMessage());
+			}
+			MemorySegment functionList = ForeignMarshaller.getPointer(ppFunctionList, 0L)
+			    .reinterpret(FUNCTION_LIST[SIGNATURES.length + 1]);
+			functionListAddress_ = functionList.address();
+
+			MethodHandle[] functions = new MethodHandle[SIGNATURES.length];
+			for (int i = 0; i < functions.length; i++) {
+				functions[i] = downcall(ForeignMarshaller.getPointer(functionList,
+				    FUNCTION_LIST[i + 1]), SIGNATURES[i]);
+			}
+			functions_ = functions;
+
+			notifyStub_ = upcall("notifyCallback", "UUP");
+			mutexStubs_ = new MemorySegment[] { upcall("createMutex", "P"),
+			    upcall("destroyMutex", "P"), upcall("lockMutex", "P"), upcall("unlockMutex", "P") };
+		} catch (IOException ex) {
+			arena_.close();
+			throw ex;
+		} catch (Throwable thr) {
+			arena_.close();
+			throw new IOException("Connecting to the module " + pkcs11ModulePath + " failed: "
+			    + thr.toString());
+		}
+	}
+
+	/**
+	 * Creates the downcall handle of a function. The handle takes long for
+	 * CK_ULONG, MemorySegment for pointers and byte for CK_BBOOL and returns
+	 * the CK_RV as long on all platforms. If the pointer of the function is
+	 * NULL, the handle returns CKR_FUNCTION_NOT_SUPPORTED.
+	 *
+	 * @param function The pointer to the function.
+	 * @param signature The argument types; see SIGNATURES.
+	 * @return The method handle.
+	 * @preconditions (function <> null)
+	 *                and (signature <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected static MethodHandle downcall(MemorySegment function, String signature) {
+		MemoryLayout[] argumentLayouts = new MemoryLayout[signature.length()];
+		Class[] argumentTypes = new Class[signature.length()];
+		for (int i = 0; i < argumentTypes.length; i++) {
+			switch (signature.charAt(i)) {
+				case 'U':
+					argumentLayouts[i] = ForeignMarshaller.ULONG;
+					argumentTypes[i] = long.class;
+					break;
+				case 'B':
+					argumentLayouts[i] = ValueLayout.JAVA_BYTE;
+					argumentTypes[i] = byte.class;
+					break;
+				default:
+					argumentLayouts[i] = ValueLayout.ADDRESS;
+					argumentTypes[i] = MemorySegment.class;
+			}
+		}
+
+		MethodHandle handle;
+		if (function.address() == 0L) {
+			handle = MethodHandles.dropArguments(MethodHandles.constant(long.class,
+			    Long.valueOf(PKCS11Constants.CKR_FUNCTION_NOT_SUPPORTED)), 0, argumentTypes);
+		} else {
+			handle = MethodHandles.explicitCastArguments(LINKER.downcallHandle(function,
+			    FunctionDescriptor.of(ForeignMarshaller.ULONG, argumentLayouts)), MethodType
+			    .methodType(long.class, argumentTypes));
+		}
+
+		return handle;
+	}
+
+	/**
+	 * Creates an upcall stub, which calls a method of this object. The method
+	 * takes long for CK_ULONG and MemorySegment for pointers and returns the
+	 * CK_RV as long. The stub lives as long as the arena of this object.
+	 *
+	 * @param methodName The name of the method.
+	 * @param signature The argument types; see SIGNATURES.
+	 * @return The function pointer of the stub.
+	 * @exception ReflectiveOperationException If there is no such method.
+	 * @preconditions (methodName <> null)
+	 *                and (signature <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected MemorySegment upcall(String methodName, String signature)
+	    throws ReflectiveOperationException
+	{
+		MemoryLayout[] argumentLayouts = new MemoryLayout[signature.length()];
+		Class[] argumentTypes = new Class[signature.length()];
+		for (int i = 0; i < argumentTypes.length; i++) {
+			if (signature.charAt(i) == 'U') {
+				argumentLayouts[i] = ForeignMarshaller.ULONG;
+				argumentTypes[i] = long.class;
+			} else {
+				argumentLayouts[i] = ValueLayout.ADDRESS;
+				argumentTypes[i] = MemorySegment.class;
+			}
+		}
+		FunctionDescriptor descriptor = FunctionDescriptor.of(ForeignMarshaller.ULONG,
+		    argumentLayouts);
+		MethodHandle target = MethodHandles.lookup().findVirtual(ForeignPKCS11.class, methodName,
+		    MethodType.methodType(long.class, argumentTypes)).bindTo(this);
+
+		return LINKER.upcallStub(MethodHandles.explicitCastArguments(target, descriptor
+		    .toMethodType()), descriptor, arena_);
+	}
+
+	/**
+	 * Returns the address of the CK_FUNCTION_LIST of the module.
+	 *
+	 * @return The address of the function list.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public long getFunctionListAddress() {
+		return functionListAddress_;
+	}
+
+	/**
+	 * Returns the path of the module as given to the constructor.
+	 *
+	 * @return The path of the module.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	public String getPkcs11ModulePath() {
+		return pkcs11ModulePath_;
+	}
+
+	/* *****************************************************************************
+	 * General-purpose
+	 ******************************************************************************/
+
+	/**
+	 * @see PKCS11#C_Initialize(Object, boolean)
+	 */
+	public void C_Initialize(Object pInitArgs, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment initArgs = MemorySegment.NULL;
+			if (pInitArgs instanceof CK_C_INITIALIZE_ARGS) {
+				CK_C_INITIALIZE_ARGS args = (CK_C_INITIALIZE_ARGS) pInitArgs;
+				long[] layout = ForeignMarshaller.INITIALIZE_ARGS;
+				long flags = args.flags;
+				initArgs = arena.allocate(layout[6], ForeignMarshaller.POINTER_SIZE);
+				if (args.useNativeMutexes) {
+					flags |= PKCS11Constants.CKF_OS_LOCKING_OK;
+				} else {
+					createMutex_ = args.CreateMutex;
+					destroyMutex_ = args.DestroyMutex;
+					lockMutex_ = args.LockMutex;
+					unlockMutex_ = args.UnlockMutex;
+					Object[] callbacks = { createMutex_, destroyMutex_, lockMutex_, unlockMutex_ };
+					for (int i = 0; i < callbacks.length; i++) {
+						if (callbacks[i] != null) {
+							ForeignMarshaller.setPointer(initArgs, layout[i], mutexStubs_[i]);
+						}
+					}
+				}
+				ForeignMarshaller.setULong(initArgs, layout[4], flags);
+			}
+			check(invoke(C_INITIALIZE, initArgs));
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_Finalize(Object)
+	 */
+	public void C_Finalize(Object pReserved)
+	    throws PKCS11Exception
+	{
+		check(invoke(C_FINALIZE, MemorySegment.NULL));
+	}
+
+	/**
+	 * @see PKCS11#C_GetInfo()
+	 */
+	public CK_INFO C_GetInfo()
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment info = arena.allocate(ForeignMarshaller.INFO[5],
+			    ForeignMarshaller.ULONG_SIZE);
+			check(invoke(C_GET_INFO, info));
+			return ForeignMarshaller.toInfo(info);
+		}
+	}
+
+	/* *****************************************************************************
+	 * Slot and token management
+	 ******************************************************************************/
+
+	/**
+	 * @see PKCS11#C_GetSlotList(boolean)
+	 */
+	public long[] C_GetSlotList(boolean tokenPresent)
+	    throws PKCS11Exception
+	{
+		byte present = tokenPresent ? (byte) 1 : (byte) 0;
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment count = newULong(arena);
+			MemorySegment slots;
+			long rv;
+			do {
+				check(invoke(C_GET_SLOT_LIST, present, MemorySegment.NULL, count));
+				slots = newULongArray(arena, ForeignMarshaller.getULong(count, 0L));
+				rv = invoke(C_GET_SLOT_LIST, present, slots, count);
+			} while (rv == PKCS11Constants.CKR_BUFFER_TOO_SMALL);
+			check(rv);
+			return ForeignMarshaller.toLongArray(slots, ForeignMarshaller.getULong(count, 0L));
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_GetSlotInfo(long)
+	 */
+	public CK_SLOT_INFO C_GetSlotInfo(long slotID)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment info = arena.allocate(ForeignMarshaller.SLOT_INFO[5],
+			    ForeignMarshaller.ULONG_SIZE);
+			check(invoke(C_GET_SLOT_INFO, slotID, info));
+			return ForeignMarshaller.toSlotInfo(info);
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_GetTokenInfo(long)
+	 */
+	public CK_TOKEN_INFO C_GetTokenInfo(long slotID)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment info = arena.allocate(ForeignMarshaller.TOKEN_INFO[18],
+			    ForeignMarshaller.ULONG_SIZE);
+			check(invoke(C_GET_TOKEN_INFO, slotID, info));
+			return ForeignMarshaller.toTokenInfo(info);
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_GetMechanismList(long)
+	 */
+	public long[] C_GetMechanismList(long slotID)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment count = newULong(arena);
+			MemorySegment mechanisms;
+			long rv;
+			do {
+				check(invoke(C_GET_MECHANISM_LIST, slotID, MemorySegment.NULL, count));
+				mechanisms = newULongArray(arena, ForeignMarshaller.getULong(count, 0L));
+				rv = invoke(C_GET_MECHANISM_LIST, slotID, mechanisms, count);
+			} while (rv == PKCS11Constants.CKR_BUFFER_TOO_SMALL);
+			check(rv);
+			return ForeignMarshaller.toLongArray(mechanisms, ForeignMarshaller.getULong(count, 0L));
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_GetMechanismInfo(long, long)
+	 */
+	public CK_MECHANISM_INFO C_GetMechanismInfo(long slotID, long type)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment info = arena.allocate(ForeignMarshaller.MECHANISM_INFO[3],
+			    ForeignMarshaller.ULONG_SIZE);
+			check(invoke(C_GET_MECHANISM_INFO, slotID, type, info));
+			return ForeignMarshaller.toMechanismInfo(info);
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_InitToken(long, char[], char[], boolean)
+	 */
+	public void C_InitToken(long slotID, char[] pPin, char[] pLabel, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment pin = toSegment(arena, pPin, useUtf8);
+			MemorySegment label = toSegment(arena, pLabel, useUtf8);
+			check(invoke(C_INIT_TOKEN, slotID, pin, pin.byteSize(), label));
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_InitPIN(long, char[], boolean)
+	 */
+	public void C_InitPIN(long hSession, char[] pPin, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment pin = toSegment(arena, pPin, useUtf8);
+			check(invoke(C_INIT_PIN, hSession, pin, pin.byteSize()));
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_SetPIN(long, char[], char[], boolean)
+	 */
+	public void C_SetPIN(long hSession, char[] pOldPin, char[] pNewPin, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment oldPin = toSegment(arena, pOldPin, useUtf8);
+			MemorySegment newPin = toSegment(arena, pNewPin, useUtf8);
+			check(invoke(C_SET_PIN, hSession, oldPin, oldPin.byteSize(), newPin, newPin
+			    .byteSize()));
+		}
+	}
+
+	/* *****************************************************************************
+	 * Session management
+	 ******************************************************************************/
+
+	/**
+	 * @see PKCS11#C_OpenSession(long, long, Object, CK_NOTIFY)
+	 */
+	public long C_OpenSession(long slotID, long flags, Object pApplication, CK_NOTIFY Notify)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment phSession = newULong(arena);
+			MemorySegment application = MemorySegment.NULL;
+			MemorySegment notify = MemorySegment.NULL;
+			Long callbackHandle = null;
+			if (Notify != null) {
+				callbackHandle = Long.valueOf(nextHandle_.incrementAndGet());
+				notifyCallbacks_.put(callbackHandle, new NotifyCallback(Notify, pApplication,
+				    slotID));
+				application = MemorySegment.ofAddress(callbackHandle.longValue());
+				notify = notifyStub_;
+			}
+			long rv = invoke(C_OPEN_SESSION, slotID, flags, application, notify, phSession);
+			if (rv != PKCS11Constants.CKR_OK && callbackHandle != null) {
+				notifyCallbacks_.remove(callbackHandle);
+			}
+			check(rv);
+			long hSession = ForeignMarshaller.getULong(phSession, 0L);
+			if (callbackHandle != null) {
+				sessionNotifyCallbacks_.put(Long.valueOf(hSession), callbackHandle);
+			}
+			return hSession;
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_CloseSession(long)
+	 */
+	public void C_CloseSession(long hSession)
+	    throws PKCS11Exception
+	{
+		check(invoke(C_CLOSE_SESSION, hSession));
+		Object callbackHandle = sessionNotifyCallbacks_.remove(Long.valueOf(hSession));
+		if (callbackHandle != null) {
+			notifyCallbacks_.remove(callbackHandle);
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_CloseAllSessions(long)
+	 */
+	public void C_CloseAllSessions(long slotID)
+	    throws PKCS11Exception
+	{
+		check(invoke(C_CLOSE_ALL_SESSIONS, slotID));
+		synchronized (sessionNotifyCallbacks_) {
+			Enumeration sessionHandles = sessionNotifyCallbacks_.keys();
+			while (sessionHandles.hasMoreElements()) {
+				Object sessionHandle = sessionHandles.nextElement();
+				Object callbackHandle = sessionNotifyCallbacks_.get(sessionHandle);
+				NotifyCallback callback = (NotifyCallback) notifyCallbacks_.get(callbackHandle);
+				if (callback == null || callback.slotID_ == slotID) {
+					sessionNotifyCallbacks_.remove(sessionHandle);
+					notifyCallbacks_.remove(callbackHandle);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_GetSessionInfo(long)
+	 */
+	public CK_SESSION_INFO C_GetSessionInfo(long hSession)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment info = arena.allocate(ForeignMarshaller.SESSION_INFO[4],
+			    ForeignMarshaller.ULONG_SIZE);
+			check(invoke(C_GET_SESSION_INFO, hSession, info));
+			return ForeignMarshaller.toSessionInfo(info);
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_GetOperationState(long)
+	 */
+	public byte[] C_GetOperationState(long hSession)
+	    throws PKCS11Exception
+	{
+		return finish(C_GET_OPERATION_STATE, hSession);
+	}
+
+	/**
+	 * @see PKCS11#C_SetOperationState(long, byte[], long, long)
+	 */
+	public void C_SetOperationState(long hSession,
+	                                byte[] pOperationState,
+	                                long hEncryptionKey,
+	                                long hAuthenticationKey)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment state = ForeignMarshaller.toSegment(arena, pOperationState);
+			check(invoke(C_SET_OPERATION_STATE, hSession, state, state.byteSize(),
+			    hEncryptionKey, hAuthenticationKey));
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_Login(long, long, char[], boolean)
+	 */
+	public void C_Login(long hSession, long userType, char[] pPin, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment pin = toSegment(arena, pPin, useUtf8);
+			check(invoke(C_LOGIN, hSession, userType, pin, pin.byteSize()));
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_Logout(long)
+	 */
+	public void C_Logout(long hSession)
+	    throws PKCS11Exception
+	{
+		check(invoke(C_LOGOUT, hSession));
+	}
+
+	/* *****************************************************************************
+	 * Object management
+	 ******************************************************************************/
+
+	/**
+	 * @see PKCS11#C_CreateObject(long, CK_ATTRIBUTE[], boolean)
+	 */
+	public long C_CreateObject(long hSession, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment template = ForeignMarshaller.toAttributes(arena, pTemplate, useUtf8);
+			MemorySegment phObject = newULong(arena);
+			check(invoke(C_CREATE_OBJECT, hSession, template, length(pTemplate), phObject));
+			return ForeignMarshaller.getULong(phObject, 0L);
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_CopyObject(long, long, CK_ATTRIBUTE[], boolean)
+	 */
+	public long C_CopyObject(long hSession, long hObject, CK_ATTRIBUTE[] pTemplate,
+	                         boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment template = ForeignMarshaller.toAttributes(arena, pTemplate, useUtf8);
+			MemorySegment phNewObject = newULong(arena);
+			check(invoke(C_COPY_OBJECT, hSession, hObject, template, length(pTemplate),
+			    phNewObject));
+			return ForeignMarshaller.getULong(phNewObject, 0L);
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_DestroyObject(long, long)
+	 */
+	public void C_DestroyObject(long hSession, long hObject)
+	    throws PKCS11Exception
+	{
+		check(invoke(C_DESTROY_OBJECT, hSession, hObject));
+	}
+
+	/**
+	 * @see PKCS11#C_GetObjectSize(long, long)
+	 */
+	public long C_GetObjectSize(long hSession, long hObject)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment size = newULong(arena);
+			check(invoke(C_GET_OBJECT_SIZE, hSession, hObject, size));
+			return ForeignMarshaller.getULong(size, 0L);
+		}
+	}
+
+	/**
+	 * Gets the attribute values in up to three calls: the first gets the
+	 * lengths, the second the values and the lengths of the attributes in
+	 * attribute arrays like CKA_WRAP_TEMPLATE, and the third the values in these
+	 * arrays.
+	 *
+	 * @see PKCS11#C_GetAttributeValue(long, long, CK_ATTRIBUTE[], boolean)
+	 */
+	public void C_GetAttributeValue(long hSession, long hObject, CK_ATTRIBUTE[] pTemplate,
+	                                boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		int count = length(pTemplate);
+		long size = ForeignMarshaller.ATTRIBUTE[3];
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment template = arena.allocate(Math.max(count, 1) * size,
+			    ForeignMarshaller.POINTER_SIZE);
+			for (int i = 0; i < count; i++) {
+				ForeignMarshaller.setULong(template, i * size + ForeignMarshaller.ATTRIBUTE[0],
+				    pTemplate[i].type);
+			}
+			check(invoke(C_GET_ATTRIBUTE_VALUE, hSession, hObject, template, (long) count));
+
+			boolean nested = false;
+			for (int i = 0; i < count; i++) {
+				allocateValue(arena, template, i * size);
+				nested |= isAttributeArray(pTemplate[i].type);
+			}
+			check(invoke(C_GET_ATTRIBUTE_VALUE, hSession, hObject, template, (long) count));
+
+			if (nested) {
+				for (int i = 0; i < count; i++) {
+					MemorySegment array = getValue(template, i * size);
+					if (isAttributeArray(pTemplate[i].type) && array.byteSize() > 0L) {
+						for (long offset = 0L; offset + size <= array.byteSize(); offset += size) {
+							allocateValue(arena, array, offset);
+						}
+					}
+				}
+				check(invoke(C_GET_ATTRIBUTE_VALUE, hSession, hObject, template, (long) count));
+			}
+
+			for (int i = 0; i < count; i++) {
+				pTemplate[i].pValue = toAttributeValue(template, i * size, useUtf8);
+			}
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_SetAttributeValue(long, long, CK_ATTRIBUTE[], boolean)
+	 */
+	public void C_SetAttributeValue(long hSession, long hObject, CK_ATTRIBUTE[] pTemplate,
+	                                boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment template = ForeignMarshaller.toAttributes(arena, pTemplate, useUtf8);
+			check(invoke(C_SET_ATTRIBUTE_VALUE, hSession, hObject, template, (long) length(pTemplate)));
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_FindObjectsInit(long, CK_ATTRIBUTE[], boolean)
+	 */
+	public void C_FindObjectsInit(long hSession, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment template = ForeignMarshaller.toAttributes(arena, pTemplate, useUtf8);
+			check(invoke(C_FIND_OBJECTS_INIT, hSession, template, (long) length(pTemplate)));
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_FindObjects(long, long)
+	 */
+	public long[] C_FindObjects(long hSession, long ulMaxObjectCount)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment objects = newULongArray(arena, ulMaxObjectCount);
+			MemorySegment count = newULong(arena);
+			check(invoke(C_FIND_OBJECTS, hSession, objects, ulMaxObjectCount, count));
+			return ForeignMarshaller.toLongArray(objects, ForeignMarshaller.getULong(count, 0L));
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_FindObjectsFinal(long)
+	 */
+	public void C_FindObjectsFinal(long hSession)
+	    throws PKCS11Exception
+	{
+		check(invoke(C_FIND_OBJECTS_FINAL, hSession));
+	}
+
+	/* *****************************************************************************
+	 * Encryption and decryption
+	 ******************************************************************************/
+
+	/**
+	 * @see PKCS11#C_EncryptInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_EncryptInit(long hSession, CK_MECHANISM pMechanism, long hKey,
+	                          boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		initialize(C_ENCRYPT_INIT, hSession, pMechanism, hKey);
+	}
+
+	/**
+	 * @see PKCS11#C_Encrypt(long, byte[])
+	 */
+	public byte[] C_Encrypt(long hSession, byte[] pData)
+	    throws PKCS11Exception
+	{
+		return process(C_ENCRYPT, hSession, pData);
+	}
+
+	/**
+	 * @see PKCS11#C_EncryptUpdate(long, byte[])
+	 */
+	public byte[] C_EncryptUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		return process(C_ENCRYPT_UPDATE, hSession, pPart);
+	}
+
+	/**
+	 * @see PKCS11#C_EncryptFinal(long)
+	 */
+	public byte[] C_EncryptFinal(long hSession)
+	    throws PKCS11Exception
+	{
+		return finish(C_ENCRYPT_FINAL, hSession);
+	}
+
+	/**
+	 * @see PKCS11#C_DecryptInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_DecryptInit(long hSession, CK_MECHANISM pMechanism, long hKey,
+	                          boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		initialize(C_DECRYPT_INIT, hSession, pMechanism, hKey);
+	}
+
+	/**
+	 * @see PKCS11#C_Decrypt(long, byte[])
+	 */
+	public byte[] C_Decrypt(long hSession, byte[] pEncryptedData)
+	    throws PKCS11Exception
+	{
+		return process(C_DECRYPT, hSession, pEncryptedData);
+	}
+
+	/**
+	 * @see PKCS11#C_DecryptUpdate(long, byte[])
+	 */
+	public byte[] C_DecryptUpdate(long hSession, byte[] pEncryptedPart)
+	    throws PKCS11Exception
+	{
+		return process(C_DECRYPT_UPDATE, hSession, pEncryptedPart);
+	}
+
+	/**
+	 * @see PKCS11#C_DecryptFinal(long)
+	 */
+	public byte[] C_DecryptFinal(long hSession)
+	    throws PKCS11Exception
+	{
+		return finish(C_DECRYPT_FINAL, hSession);
+	}
+
+	/* *****************************************************************************
+	 * Message digesting
+	 ******************************************************************************/
+
+	/**
+	 * @see PKCS11#C_DigestInit(long, CK_MECHANISM, boolean)
+	 */
+	public void C_DigestInit(long hSession, CK_MECHANISM pMechanism, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			check(invoke(C_DIGEST_INIT, hSession, ForeignMarshaller.toMechanism(arena,
+			    pMechanism)));
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_Digest(long, byte[])
+	 */
+	public byte[] C_Digest(long hSession, byte[] data)
+	    throws PKCS11Exception
+	{
+		return process(C_DIGEST, hSession, data);
+	}
+
+	/**
+	 * @see PKCS11#C_DigestUpdate(long, byte[])
+	 */
+	public void C_DigestUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		update(C_DIGEST_UPDATE, hSession, pPart);
+	}
+
+	/**
+	 * @see PKCS11#C_DigestKey(long, long)
+	 */
+	public void C_DigestKey(long hSession, long hKey)
+	    throws PKCS11Exception
+	{
+		check(invoke(C_DIGEST_KEY, hSession, hKey));
+	}
+
+	/**
+	 * @see PKCS11#C_DigestFinal(long)
+	 */
+	public byte[] C_DigestFinal(long hSession)
+	    throws PKCS11Exception
+	{
+		return finish(C_DIGEST_FINAL, hSession);
+	}
+
+	/* *****************************************************************************
+	 * Signing and MACing
+	 ******************************************************************************/
+
+	/**
+	 * @see PKCS11#C_SignInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_SignInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		initialize(C_SIGN_INIT, hSession, pMechanism, hKey);
+	}
+
+	/**
+	 * @see PKCS11#C_Sign(long, byte[])
+	 */
+	public byte[] C_Sign(long hSession, byte[] pData)
+	    throws PKCS11Exception
+	{
+		return process(C_SIGN, hSession, pData);
+	}
+
+	/**
+	 * @see PKCS11#C_SignUpdate(long, byte[])
+	 */
+	public void C_SignUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		update(C_SIGN_UPDATE, hSession, pPart);
+	}
+
+	/**
+	 * @see PKCS11#C_SignFinal(long)
+	 */
+	public byte[] C_SignFinal(long hSession)
+	    throws PKCS11Exception
+	{
+		return finish(C_SIGN_FINAL, hSession);
+	}
+
+	/**
+	 * @see PKCS11#C_SignRecoverInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_SignRecoverInit(long hSession, CK_MECHANISM pMechanism, long hKey,
+	                              boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		initialize(C_SIGN_RECOVER_INIT, hSession, pMechanism, hKey);
+	}
+
+	/**
+	 * @see PKCS11#C_SignRecover(long, byte[])
+	 */
+	public byte[] C_SignRecover(long hSession, byte[] pData)
+	    throws PKCS11Exception
+	{
+		return process(C_SIGN_RECOVER, hSession, pData);
+	}
+
+	/* *****************************************************************************
+	 * Verifying signatures and MACs
+	 ******************************************************************************/
+
+	/**
+	 * @see PKCS11#C_VerifyInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_VerifyInit(long hSession, CK_MECHANISM pMechanism, long hKey,
+	                         boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		initialize(C_VERIFY_INIT, hSession, pMechanism, hKey);
+	}
+
+	/**
+	 * @see PKCS11#C_Verify(long, byte[], byte[])
+	 */
+	public void C_Verify(long hSession, byte[] pData, byte[] pSignature)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment data = ForeignMarshaller.toSegment(arena, pData);
+			MemorySegment signature = ForeignMarshaller.toSegment(arena, pSignature);
+			check(invoke(C_VERIFY, hSession, data, data.byteSize(), signature, signature
+			    .byteSize()));
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_VerifyUpdate(long, byte[])
+	 */
+	public void C_VerifyUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		update(C_VERIFY_UPDATE, hSession, pPart);
+	}
+
+	/**
+	 * @see PKCS11#C_VerifyFinal(long, byte[])
+	 */
+	public void C_VerifyFinal(long hSession, byte[] pSignature)
+	    throws PKCS11Exception
+	{
+		update(C_VERIFY_FINAL, hSession, pSignature);
+	}
+
+	/**
+	 * @see PKCS11#C_VerifyRecoverInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_VerifyRecoverInit(long hSession, CK_MECHANISM pMechanism, long hKey,
+	                                boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		initialize(C_VERIFY_RECOVER_INIT, hSession, pMechanism, hKey);
+	}
+
+	/**
+	 * @see PKCS11#C_VerifyRecover(long, byte[])
+	 */
+	public byte[] C_VerifyRecover(long hSession, byte[] pSignature)
+	    throws PKCS11Exception
+	{
+		return process(C_VERIFY_RECOVER, hSession, pSignature);
+	}
+
+	/* *****************************************************************************
+	 * Dual-function cryptographic operations
+	 ******************************************************************************/
+
+	/**
+	 * @see PKCS11#C_DigestEncryptUpdate(long, byte[])
+	 */
+	public byte[] C_DigestEncryptUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		return process(C_DIGEST_ENCRYPT_UPDATE, hSession, pPart);
+	}
+
+	/**
+	 * @see PKCS11#C_DecryptDigestUpdate(long, byte[])
+	 */
+	public byte[] C_DecryptDigestUpdate(long hSession, byte[] pEncryptedPart)
+	    throws PKCS11Exception
+	{
+		return process(C_DECRYPT_DIGEST_UPDATE, hSession, pEncryptedPart);
+	}
+
+	/**
+	 * @see PKCS11#C_SignEncryptUpdate(long, byte[])
+	 */
+	public byte[] C_SignEncryptUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		return process(C_SIGN_ENCRYPT_UPDATE, hSession, pPart);
+	}
+
+	/**
+	 * @see PKCS11#C_DecryptVerifyUpdate(long, byte[])
+	 */
+	public byte[] C_DecryptVerifyUpdate(long hSession, byte[] pEncryptedPart)
+	    throws PKCS11Exception
+	{
+		return process(C_DECRYPT_VERIFY_UPDATE, hSession, pEncryptedPart);
+	}
+
+	/* *****************************************************************************
+	 * Key management
+	 ******************************************************************************/
+
+	/**
+	 * @see PKCS11#C_GenerateKey(long, CK_MECHANISM, CK_ATTRIBUTE[], boolean)
+	 */
+	public long C_GenerateKey(long hSession,
+	                          CK_MECHANISM pMechanism,
+	                          CK_ATTRIBUTE[] pTemplate,
+	                          boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment mechanism = ForeignMarshaller.toMechanism(arena, pMechanism);
+			MemorySegment template = ForeignMarshaller.toAttributes(arena, pTemplate, useUtf8);
+			MemorySegment phKey = newULong(arena);
+			check(invoke(C_GENERATE_KEY, hSession, mechanism, template, (long) length(pTemplate),
+			    phKey));
+			return ForeignMarshaller.getULong(phKey, 0L);
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_GenerateKeyPair(long, CK_MECHANISM, CK_ATTRIBUTE[],
+	 *      CK_ATTRIBUTE[], boolean)
+	 */
+	public long[] C_GenerateKeyPair(long hSession,
+	                                CK_MECHANISM pMechanism,
+	                                CK_ATTRIBUTE[] pPublicKeyTemplate,
+	                                CK_ATTRIBUTE[] pPrivateKeyTemplate,
+	                                boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment mechanism = ForeignMarshaller.toMechanism(arena, pMechanism);
+			MemorySegment publicKeyTemplate = ForeignMarshaller.toAttributes(arena,
+			    pPublicKeyTemplate, useUtf8);
+			MemorySegment privateKeyTemplate = ForeignMarshaller.toAttributes(arena,
+			    pPrivateKeyTemplate, useUtf8);
+			MemorySegment phPublicKey = newULong(arena);
+			MemorySegment phPrivateKey = newULong(arena);
+			check(invoke(C_GENERATE_KEY_PAIR, hSession, mechanism, publicKeyTemplate,
+			    (long) length(pPublicKeyTemplate), privateKeyTemplate,
+			    (long) length(pPrivateKeyTemplate), phPublicKey, phPrivateKey));
+			return new long[] { ForeignMarshaller.getULong(phPublicKey, 0L),
+			    ForeignMarshaller.getULong(phPrivateKey, 0L) };
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_WrapKey(long, CK_MECHANISM, long, long, boolean)
+	 */
+	public byte[] C_WrapKey(long hSession,
+	                        CK_MECHANISM pMechanism,
+	                        long hWrappingKey,
+	                        long hKey,
+	                        boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment mechanism = ForeignMarshaller.toMechanism(arena, pMechanism);
+			MemorySegment wrappedKey = arena.allocate(OUTPUT_BUFFER_SIZE, 1L);
+			MemorySegment wrappedKeyLength = ForeignMarshaller.toULong(arena, wrappedKey
+			    .byteSize());
+			long rv = invoke(C_WRAP_KEY, hSession, mechanism, hWrappingKey, hKey, wrappedKey,
+			    wrappedKeyLength);
+			if (rv == PKCS11Constants.CKR_BUFFER_TOO_SMALL) {
+				wrappedKey = arena.allocate(ForeignMarshaller.getULong(wrappedKeyLength, 0L), 1L);
+				rv = invoke(C_WRAP_KEY, hSession, mechanism, hWrappingKey, hKey, wrappedKey,
+				    wrappedKeyLength);
+			}
+			check(rv);
+			return ForeignMarshaller.toByteArray(wrappedKey, 0L, ForeignMarshaller.getULong(
+			    wrappedKeyLength, 0L));
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_UnwrapKey(long, CK_MECHANISM, long, byte[], CK_ATTRIBUTE[],
+	 *      boolean)
+	 */
+	public long C_UnwrapKey(long hSession,
+	                        CK_MECHANISM pMechanism,
+	                        long hUnwrappingKey,
+	                        byte[] pWrappedKey,
+	                        CK_ATTRIBUTE[] pTemplate,
+	                        boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment mechanism = ForeignMarshaller.toMechanism(arena, pMechanism);
+			MemorySegment wrappedKey = ForeignMarshaller.toSegment(arena, pWrappedKey);
+			MemorySegment template = ForeignMarshaller.toAttributes(arena, pTemplate, useUtf8);
+			MemorySegment phKey = newULong(arena);
+			check(invoke(C_UNWRAP_KEY, hSession, mechanism, hUnwrappingKey, wrappedKey,
+			    wrappedKey.byteSize(), template, (long) length(pTemplate), phKey));
+			return ForeignMarshaller.getULong(phKey, 0L);
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_DeriveKey(long, CK_MECHANISM, long, CK_ATTRIBUTE[], boolean)
+	 */
+	public long C_DeriveKey(long hSession,
+	                        CK_MECHANISM pMechanism,
+	                        long hBaseKey,
+	                        CK_ATTRIBUTE[] pTemplate,
+	                        boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment mechanism = ForeignMarshaller.toMechanism(arena, pMechanism);
+			MemorySegment template = ForeignMarshaller.toAttributes(arena, pTemplate, useUtf8);
+			MemorySegment phKey = newULong(arena);
+			check(invoke(C_DERIVE_KEY, hSession, mechanism, hBaseKey, template,
+			    (long) length(pTemplate), phKey));
+			return ForeignMarshaller.getULong(phKey, 0L);
+		}
+	}
+
+	/* *****************************************************************************
+	 * Random number generation
+	 ******************************************************************************/
+
+	/**
+	 * @see PKCS11#C_SeedRandom(long, byte[])
+	 */
+	public void C_SeedRandom(long hSession, byte[] pSeed)
+	    throws PKCS11Exception
+	{
+		update(C_SEED_RANDOM, hSession, pSeed);
+	}
+
+	/**
+	 * @see PKCS11#C_GenerateRandom(long, byte[])
+	 */
+	public void C_GenerateRandom(long hSession, byte[] randomData)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment random = arena.allocate(randomData.length, 1L);
+			check(invoke(C_GENERATE_RANDOM, hSession, random, random.byteSize()));
+			MemorySegment.copy(random, ValueLayout.JAVA_BYTE, 0L, randomData, 0, randomData.length);
+		}
+	}
+
+	/* *****************************************************************************
+	 * Parallel function management
+	 ******************************************************************************/
+
+	/**
+	 * @see PKCS11#C_GetFunctionStatus(long)
+	 */
+	public void C_GetFunctionStatus(long hSession)
+	    throws PKCS11Exception
+	{
+		check(invoke(C_GET_FUNCTION_STATUS, hSession));
+	}
+
+	/**
+	 * @see PKCS11#C_CancelFunction(long)
+	 */
+	public void C_CancelFunction(long hSession)
+	    throws PKCS11Exception
+	{
+		check(invoke(C_CANCEL_FUNCTION, hSession));
+	}
+
+	/* *****************************************************************************
+	 * Functions added in for Cryptoki Version 2.01 or later
+	 ******************************************************************************/
+
+	/**
+	 * @see PKCS11#C_WaitForSlotEvent(long, Object)
+	 */
+	public long C_WaitForSlotEvent(long flags, Object pReserved)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment slot = newULong(arena);
+			check(invoke(C_WAIT_FOR_SLOT_EVENT, flags, slot, MemorySegment.NULL));
+			return ForeignMarshaller.getULong(slot, 0L);
+		}
+	}
+
+	/**
+	 * Unloads the module. The application must not use this object
+	 * afterwards; further calls throw a PKCS11RuntimeException.
+	 *
+	 * @exception Throwable If finalization fails.
+	 */
+	public synchronized void finalize()
+	    throws Throwable
+	{
+		MethodHandle[] functions = functions_;
+		if (functions != null) {
+			functions_ = null;
+			try {
+				arena_.close();
+			} catch (IllegalStateException ex) {
+				// a call of another thread is still in the module
+				functions_ = functions;
+				throw new PKCS11RuntimeException("The module is still in use", ex);
+			}
+			notifyCallbacks_.clear();
+			sessionNotifyCallbacks_.clear();
+			mutexes_.clear();
+		}
+	}
+
+	/* *****************************************************************************
+	 * Callbacks
+	 ******************************************************************************/
+
+	/**
+	 * The target of the CK_NOTIFY upcall stub. It calls the NotifyCallback,
+	 * which pApplication identifies.
+	 *
+	 * @param hSession The session handle.
+	 * @param event The event.
+	 * @param pApplication The handle of the NotifyCallback entry.
+	 * @return The CK_RV for the module.
+	 * @preconditions (pApplication <> null)
+	 * @postconditions
+	 */
+	protected long notifyCallback(long hSession, long event, MemorySegment pApplication) {
+		try {
+			NotifyCallback callback = (NotifyCallback) notifyCallbacks_.get(Long
+			    .valueOf(pApplication.address()));
+			if (callback != null) {
+				callback.notify_.CK_NOTIFY(hSession, event, callback.application_);
+			}
+			return PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			return ex.getErrorCode();
+		} catch (Throwable thr) {
+			return PKCS11Constants.CKR_GENERAL_ERROR;
+		}
+	}
+
+	/**
+	 * The target of the CreateMutex upcall stub.
+	 *
+	 * @param ppMutex The pointer to the location for the new mutex.
+	 * @return The CK_RV for the module.
+	 * @preconditions (ppMutex <> null)
+	 * @postconditions
+	 */
+	protected long createMutex(MemorySegment ppMutex) {
+		try {
+			Object mutex = createMutex_.CK_CREATEMUTEX();
+			Long mutexHandle = Long.valueOf(nextHandle_.incrementAndGet());
+			mutexes_.put(mutexHandle, mutex);
+			ForeignMarshaller.setPointer(ppMutex.reinterpret(ForeignMarshaller.POINTER_SIZE), 0L,
+			    MemorySegment.ofAddress(mutexHandle.longValue()));
+			return PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			return ex.getErrorCode();
+		} catch (Throwable thr) {
+			return PKCS11Constants.CKR_GENERAL_ERROR;
+		}
+	}
+
+	/**
+	 * The target of the DestroyMutex upcall stub.
+	 *
+	 * @param pMutex The mutex.
+	 * @return The CK_RV for the module.
+	 * @preconditions (pMutex <> null)
+	 * @postconditions
+	 */
+	protected long destroyMutex(MemorySegment pMutex) {
+		try {
+			Object mutex = mutexes_.remove(Long.valueOf(pMutex.address()));
+			if (mutex == null) {
+				return PKCS11Constants.CKR_MUTEX_BAD;
+			}
+			destroyMutex_.CK_DESTROYMUTEX(mutex);
+			return PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			return ex.getErrorCode();
+		} catch (Throwable thr) {
+			return PKCS11Constants.CKR_GENERAL_ERROR;
+		}
+	}
+
+	/**
+	 * The target of the LockMutex upcall stub.
+	 *
+	 * @param pMutex The mutex.
+	 * @return The CK_RV for the module.
+	 * @preconditions (pMutex <> null)
+	 * @postconditions
+	 */
+	protected long lockMutex(MemorySegment pMutex) {
+		try {
+			Object mutex = mutexes_.get(Long.valueOf(pMutex.address()));
+			if (mutex == null) {
+				return PKCS11Constants.CKR_MUTEX_BAD;
+			}
+			lockMutex_.CK_LOCKMUTEX(mutex);
+			return PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			return ex.getErrorCode();
+		} catch (Throwable thr) {
+			return PKCS11Constants.CKR_GENERAL_ERROR;
+		}
+	}
+
+	/**
+	 * The target of the UnlockMutex upcall stub.
+	 *
+	 * @param pMutex The mutex.
+	 * @return The CK_RV for the module.
+	 * @preconditions (pMutex <> null)
+	 * @postconditions
+	 */
+	protected long unlockMutex(MemorySegment pMutex) {
+		try {
+			Object mutex = mutexes_.get(Long.valueOf(pMutex.address()));
+			if (mutex == null) {
+				return PKCS11Constants.CKR_MUTEX_BAD;
+			}
+			unlockMutex_.CK_UNLOCKMUTEX(mutex);
+			return PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			return ex.getErrorCode();
+		} catch (Throwable thr) {
+			return PKCS11Constants.CKR_GENERAL_ERROR;
+		}
+	}
+
+	/* *****************************************************************************
+	 * Helper methods
+	 ******************************************************************************/
+
+	/**
+	 * Calls an initialization function like C_SignInit.
+	 *
+	 * @param function The index of the function.
+	 * @param hSession The session handle.
+	 * @param pMechanism The mechanism.
+	 * @param hKey The key handle.
+	 * @exception PKCS11Exception If the function fails.
+	 * @preconditions (pMechanism <> null)
+	 * @postconditions
+	 */
+	protected void initialize(int function, long hSession, CK_MECHANISM pMechanism, long hKey)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			check(invoke(function, hSession, ForeignMarshaller.toMechanism(arena, pMechanism),
+			    hKey));
+		}
+	}
+
+	/**
+	 * Calls a function like C_SignUpdate, which takes input and returns no
+	 * output.
+	 *
+	 * @param function The index of the function.
+	 * @param hSession The session handle.
+	 * @param input The input or null.
+	 * @exception PKCS11Exception If the function fails.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected void update(int function, long hSession, byte[] input)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment in = ForeignMarshaller.toSegment(arena, input);
+			check(invoke(function, hSession, in, in.byteSize()));
+		}
+	}
+
+	/**
+	 * Calls a function like C_Sign, which takes input and returns output. The
+	 * first call uses a buffer, which is large enough for most results; only
+	 * if it is too small, there is a second call with a buffer of the required
+	 * size. Some modules abort the operation, if the buffer is too small, so
+	 * this method does not query the length first.
+	 *
+	 * @param function The index of the function.
+	 * @param hSession The session handle.
+	 * @param input The input or null.
+	 * @return The output.
+	 * @exception PKCS11Exception If the function fails.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected byte[] process(int function, long hSession, byte[] input)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment in = ForeignMarshaller.toSegment(arena, input);
+			MemorySegment out = arena.allocate(Math.max(OUTPUT_BUFFER_SIZE, in.byteSize() + 64L),
+			    1L);
+			MemorySegment outLength = ForeignMarshaller.toULong(arena, out.byteSize());
+			long rv = invoke(function, hSession, in, in.byteSize(), out, outLength);
+			if (rv == PKCS11Constants.CKR_BUFFER_TOO_SMALL) {
+				out = arena.allocate(ForeignMarshaller.getULong(outLength, 0L), 1L);
+				rv = invoke(function, hSession, in, in.byteSize(), out, outLength);
+			}
+			check(rv);
+			return ForeignMarshaller.toByteArray(out, 0L, ForeignMarshaller.getULong(outLength,
+			    0L));
+		}
+	}
+
+	/**
+	 * Calls a function like C_SignFinal, which returns output. It uses the
+	 * buffers like process.
+	 *
+	 * @param function The index of the function.
+	 * @param hSession The session handle.
+	 * @return The output.
+	 * @exception PKCS11Exception If the function fails.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected byte[] finish(int function, long hSession)
+	    throws PKCS11Exception
+	{
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment out = arena.allocate(OUTPUT_BUFFER_SIZE, 1L);
+			MemorySegment outLength = ForeignMarshaller.toULong(arena, out.byteSize());
+			long rv = invoke(function, hSession, out, outLength);
+			if (rv == PKCS11Constants.CKR_BUFFER_TOO_SMALL) {
+				out = arena.allocate(ForeignMarshaller.getULong(outLength, 0L), 1L);
+				rv = invoke(function, hSession, out, outLength);
+			}
+			check(rv);
+			return ForeignMarshaller.toByteArray(out, 0L, ForeignMarshaller.getULong(outLength,
+			    0L));
+		}
+	}
+
+	/**
+	 * Allocates a buffer for the value of a CK_ATTRIBUTE, which has no value
+	 * yet, and sets its pValue. The length is the ulValueLen of the attribute.
+	 *
+	 * @param arena The arena to allocate from.
+	 * @param attributes The CK_ATTRIBUTE array.
+	 * @param offset The offset of the attribute in the array.
+	 * @preconditions (arena <> null)
+	 *                and (attributes <> null)
+	 * @postconditions
+	 */
+	protected static void allocateValue(Arena arena, MemorySegment attributes, long offset) {
+		long length = ForeignMarshaller.getULong(attributes, offset
+		    + ForeignMarshaller.ATTRIBUTE[2]);
+		if (length != ForeignMarshaller.UNAVAILABLE_INFORMATION && length > 0L
+		    && ForeignMarshaller.getPointer(attributes, offset + ForeignMarshaller.ATTRIBUTE[1])
+		        .address() == 0L) {
+			ForeignMarshaller.setPointer(attributes, offset + ForeignMarshaller.ATTRIBUTE[1],
+			    arena.allocate(length, ForeignMarshaller.POINTER_SIZE));
+		}
+	}
+
+	/**
+	 * Returns the value of a CK_ATTRIBUTE with the length of the value.
+	 *
+	 * @param attributes The CK_ATTRIBUTE array.
+	 * @param offset The offset of the attribute in the array.
+	 * @return The value; a segment of length zero, if the attribute has no
+	 *         value.
+	 * @preconditions (attributes <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected static MemorySegment getValue(MemorySegment attributes, long offset) {
+		MemorySegment value = ForeignMarshaller.getPointer(attributes, offset
+		    + ForeignMarshaller.ATTRIBUTE[1]);
+		long length = ForeignMarshaller.getULong(attributes, offset
+		    + ForeignMarshaller.ATTRIBUTE[2]);
+		if (value.address() == 0L || length == ForeignMarshaller.UNAVAILABLE_INFORMATION) {
+			length = 0L;
+		}
+
+		return value.reinterpret(length);
+	}
+
+	/**
+	 * Converts the value of a CK_ATTRIBUTE to the Java object, which the
+	 * native part of PKCS11Implementation returns. Attribute arrays become
+	 * CK_ATTRIBUTE[].
+	 *
+	 * @param attributes The CK_ATTRIBUTE array.
+	 * @param offset The offset of the attribute in the array.
+	 * @param useUtf8 True, to decode char arrays with UTF-8.
+	 * @return The value or null.
+	 * @preconditions (attributes <> null)
+	 * @postconditions
+	 */
+	protected static Object toAttributeValue(MemorySegment attributes, long offset,
+	                                         boolean useUtf8)
+	{
+		long type = ForeignMarshaller.getULong(attributes, offset + ForeignMarshaller.ATTRIBUTE[0]);
+		MemorySegment value = getValue(attributes, offset);
+		Object object;
+		if (isAttributeArray(type) && value.byteSize() > 0L) {
+			long size = ForeignMarshaller.ATTRIBUTE[3];
+			CK_ATTRIBUTE[] template = new CK_ATTRIBUTE[(int) (value.byteSize() / size)];
+			for (int i = 0; i < template.length; i++) {
+				template[i] = new CK_ATTRIBUTE();
+				template[i].type = ForeignMarshaller.getULong(value, i * size
+				    + ForeignMarshaller.ATTRIBUTE[0]);
+				template[i].pValue = toAttributeValue(value, i * size, useUtf8);
+			}
+			object = template;
+		} else {
+			object = ForeignMarshaller.toAttributeValue(type, value, value.byteSize(), useUtf8);
+		}
+
+		return object;
+	}
+
+	/**
+	 * Checks, if the attribute type is an array of attributes; i.e.
+	 * CKA_WRAP_TEMPLATE or CKA_UNWRAP_TEMPLATE.
+	 *
+	 * @param type The attribute type.
+	 * @return True, if the type is an attribute array.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected static boolean isAttributeArray(long type) {
+		return type == PKCS11Constants.CKA_WRAP_TEMPLATE
+		    || type == PKCS11Constants.CKA_UNWRAP_TEMPLATE;
+	}
+
+	/**
+	 * Allocates the chars as bytes.
+	 *
+	 * @param arena The arena to allocate from.
+	 * @param chars The chars or null.
+	 * @param useUtf8 True, to encode the chars with UTF-8.
+	 * @return The segment of the bytes; MemorySegment.NULL, if the chars are
+	 *         null.
+	 * @preconditions (arena <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected static MemorySegment toSegment(Arena arena, char[] chars, boolean useUtf8) {
+		return (chars != null) ? ForeignMarshaller.toSegment(arena, ForeignMarshaller.toBytes(
+		    chars, useUtf8)) : MemorySegment.NULL;
+	}
+
+	/**
+	 * Allocates a CK_ULONG for an output argument.
+	 *
+	 * @param arena The arena to allocate from.
+	 * @return The segment of the CK_ULONG.
+	 * @preconditions (arena <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected static MemorySegment newULong(Arena arena) {
+		return arena.allocate(ForeignMarshaller.ULONG_SIZE, ForeignMarshaller.ULONG_SIZE);
+	}
+
+	/**
+	 * Allocates an array of CK_ULONG for an output argument.
+	 *
+	 * @param arena The arena to allocate from.
+	 * @param count The number of elements.
+	 * @return The segment of the array.
+	 * @preconditions (arena <> null)
+	 *                and (count >= 0)
+	 * @postconditions (result <> null)
+	 */
+	protected static MemorySegment newULongArray(Arena arena, long count) {
+		return arena.allocate(count * ForeignMarshaller.ULONG_SIZE, ForeignMarshaller.ULONG_SIZE);
+	}
+
+	/**
+	 * Returns the length of the template.
+	 *
+	 * @param template The template or null.
+	 * @return The number of attributes; 0, if the template is null.
+	 * @preconditions
+	 * @postconditions (result >= 0)
+	 */
+	protected static int length(CK_ATTRIBUTE[] template) {
+		return (template != null) ? template.length : 0;
+	}
+
+	/**
+	 * Throws the PKCS11Exception of the return value, if it is not CKR_OK.
+	 *
+	 * @param rv The return value of a function.
+	 * @exception PKCS11Exception If the return value is not CKR_OK.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected static void check(long rv)
+	    throws PKCS11Exception
+	{
+		if (rv != PKCS11Constants.CKR_OK) {
+			throw PKCS11Exception.getInstance(rv);
+		}
+	}
+
+	/**
+	 * Makes the CK_RV of a downcall unsigned. On platforms with a CK_ULONG of
+	 * 4 bytes, the handle sign extends it to long.
+	 *
+	 * @param rv The value of the downcall.
+	 * @return The unsigned CK_RV.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected static long result(long rv) {
+		return (ForeignMarshaller.ULONG_SIZE == 8L) ? rv : rv & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Returns the handle of a function.
+	 *
+	 * @param function The index of the function.
+	 * @return The method handle.
+	 * @exception PKCS11RuntimeException If the module is unloaded.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected MethodHandle getFunction(int function) {
+		MethodHandle[] functions = functions_;
+		if (functions == null) {
+			throw new PKCS11RuntimeException("This object is not connected to a module.");
+		}
+
+		return functions[function];
+	}
+
+	/**
+	 * Converts a throwable of a downcall to an unchecked exception. Errors are
+	 * thrown as they are.
+	 *
+	 * @param thr The throwable.
+	 * @return The exception to throw.
+	 * @preconditions (thr <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected static RuntimeException invocationFailed(Throwable thr) {
+		if (thr instanceof Error) {
+			throw (Error) thr;
+		}
+
+		return (thr instanceof RuntimeException) ? (RuntimeException) thr
+		    : new PKCS11RuntimeException((Exception) thr);
+	}
+
+	/*
+	 * The invoke methods call the downcall handles of the functions. There is one
+	 * for each set of argument types, because invokeExact needs the exact types
+	 * at the call site.
+	 */
+
+	/**
+	 * Invokes a function with the arguments (CK_VOID_PTR).
+	 */
+	protected long invoke(int function, MemorySegment a) {
+		try {
+			return result((long) getFunction(function).invokeExact(a));
+		} catch (Throwable thr) {
+			throw invocationFailed(thr);
+		}
+	}
+
+	/**
+	 * Invokes a function with the arguments (CK_BBOOL, CK_VOID_PTR,
+	 * CK_VOID_PTR).
+	 */
+	protected long invoke(int function, byte a, MemorySegment b, MemorySegment c) {
+		try {
+			return result((long) getFunction(function).invokeExact(a, b, c));
+		} catch (Throwable thr) {
+			throw invocationFailed(thr);
+		}
+	}
+
+	/**
+	 * Invokes a function with the arguments (CK_ULONG).
+	 */
+	protected long invoke(int function, long a) {
+		try {
+			return result((long) getFunction(function).invokeExact(a));
+		} catch (Throwable thr) {
+			throw invocationFailed(thr);
+		}
+	}
+
+	/**
+	 * Invokes a function with the arguments (CK_ULONG, CK_ULONG).
+	 */
+	protected long invoke(int function, long a, long b) {
+		try {
+			return result((long) getFunction(function).invokeExact(a, b));
+		} catch (Throwable thr) {
+			throw invocationFailed(thr);
+		}
+	}
+
+	/**
+	 * Invokes a function with the arguments (CK_ULONG, CK_VOID_PTR).
+	 */
+	protected long invoke(int function, long a, MemorySegment b) {
+		try {
+			return result((long) getFunction(function).invokeExact(a, b));
+		} catch (Throwable thr) {
+			throw invocationFailed(thr);
+		}
+	}
+
+	/**
+	 * Invokes a function with the arguments (CK_ULONG, CK_VOID_PTR,
+	 * CK_VOID_PTR).
+	 */
+	protected long invoke(int function, long a, MemorySegment b, MemorySegment c) {
+		try {
+			return result((long) getFunction(function).invokeExact(a, b, c));
+		} catch (Throwable thr) {
+			throw invocationFailed(thr);
+		}
+	}
+
+	/**
+	 * Invokes a function with the arguments (CK_ULONG, CK_ULONG, CK_VOID_PTR).
+	 */
+	protected long invoke(int function, long a, long b, MemorySegment c) {
+		try {
+			return result((long) getFunction(function).invokeExact(a, b, c));
+		} catch (Throwable thr) {
+			throw invocationFailed(thr);
+		}
+	}
+
+	/**
+	 * Invokes a function with the arguments (CK_ULONG, CK_VOID_PTR, CK_ULONG).
+	 */
+	protected long invoke(int function, long a, MemorySegment b, long c) {
+		try {
+			return result((long) getFunction(function).invokeExact(a, b, c));
+		} catch (Throwable thr) {
+			throw invocationFailed(thr);
+		}
+	}
+
+	/**
+	 * Invokes a function with the arguments (CK_ULONG, CK_VOID_PTR, CK_ULONG,
+	 * CK_VOID_PTR).
+	 */
+	protected long invoke(int function, long a, MemorySegment b, long c, MemorySegment d) {
+		try {
+			return result((long) getFunction(function).invokeExact(a, b, c, d));
+		} catch (Throwable thr) {
+			throw invocationFailed(thr);
+		}
+	}
+
+	/**
+	 * Invokes a function with the arguments (CK_ULONG, CK_ULONG, CK_VOID_PTR,
+	 * CK_ULONG).
+	 */
+	protected long invoke(int function, long a, long b, MemorySegment c, long d) {
+		try {
+			return result((long) getFunction(function).invokeExact(a, b, c, d));
+		} catch (Throwable thr) {
+			throw invocationFailed(thr);
+		}
+	}
+
+	/**
+	 * Invokes a function with the arguments (CK_ULONG, CK_VOID_PTR, CK_ULONG,
+	 * CK_VOID_PTR, CK_ULONG).
+	 */
+	protected long invoke(int function, long a, MemorySegment b, long c, MemorySegment d, long e)
+	{
+		try {
+			return result((long) getFunction(function).invokeExact(a, b, c, d, e));
+		} catch (Throwable thr) {
+			throw invocationFailed(thr);
+		}
+	}
+
+	/**
+	 * Invokes a function with the arguments (CK_ULONG, CK_VOID_PTR, CK_ULONG,
+	 * CK_VOID_PTR, CK_VOID_PTR).
+	 */
+	protected long invoke(int function, long a, MemorySegment b, long c, MemorySegment d,
+	                      MemorySegment e)
+	{
+		try {
+			return result((long) getFunction(function).invokeExact(a, b, c, d, e));
+		} catch (Throwable thr) {
+			throw invocationFailed(thr);
+		}
+	}
+
+	/**
+	 * Invokes a function with the arguments (CK_ULONG, CK_ULONG, CK_VOID_PTR,
+	 * CK_VOID_PTR, CK_VOID_PTR).
+	 */
+	protected long invoke(int function, long a, long b, MemorySegment c, MemorySegment d,
+	                      MemorySegment e)
+	{
+		try {
+			return result((long) getFunction(function).invokeExact(a, b, c, d, e));
+		} catch (Throwable thr) {
+			throw invocationFailed(thr);
+		}
+	}
+
+	/**
+	 * Invokes a function with the arguments (CK_ULONG, CK_VOID_PTR, CK_ULONG,
+	 * CK_ULONG, CK_ULONG).
+	 */
+	protected long invoke(int function, long a, MemorySegment b, long c, long d, long e) {
+		try {
+			return result((long) getFunction(function).invokeExact(a, b, c, d, e));
+		} catch (Throwable thr) {
+			throw invocationFailed(thr);
+		}
+	}
+
+	/**
+	 * Invokes a function with the arguments (CK_ULONG, CK_ULONG, CK_VOID_PTR,
+	 * CK_ULONG, CK_VOID_PTR).
+	 */
+	protected long invoke(int function, long a, long b, MemorySegment c, long d, MemorySegment e)
+	{
+		try {
+			return result((long) getFunction(function).invokeExact(a, b, c, d, e));
+		} catch (Throwable thr) {
+			throw invocationFailed(thr);
+		}
+	}
+
+	/**
+	 * Invokes a function with the arguments (CK_ULONG, CK_VOID_PTR, CK_VOID_PTR,
+	 * CK_ULONG, CK_VOID_PTR).
+	 */
+	protected long invoke(int function, long a, MemorySegment b, MemorySegment c, long d,
+	                      MemorySegment e)
+	{
+		try {
+			return result((long) getFunction(function).invokeExact(a, b, c, d, e));
+		} catch (Throwable thr) {
+			throw invocationFailed(thr);
+		}
+	}
+
+	/**
+	 * Invokes a function with the arguments (CK_ULONG, CK_VOID_PTR, CK_ULONG,
+	 * CK_ULONG, CK_VOID_PTR, CK_VOID_PTR).
+	 */
+	protected long invoke(int function, long a, MemorySegment b, long c, long d,
+	                      MemorySegment e, MemorySegment f)
+	{
+		try {
+			return result((long) getFunction(function).invokeExact(a, b, c, d, e, f));
+		} catch (Throwable thr) {
+			throw invocationFailed(thr);
+		}
+	}
+
+	/**
+	 * Invokes a function with the arguments (CK_ULONG, CK_VOID_PTR, CK_ULONG,
+	 * CK_VOID_PTR, CK_ULONG, CK_VOID_PTR).
+	 */
+	protected long invoke(int function, long a, MemorySegment b, long c, MemorySegment d,
+	                      long e, MemorySegment f)
+	{
+		try {
+			return result((long) getFunction(function).invokeExact(a, b, c, d, e, f));
+		} catch (Throwable thr) {
+			throw invocationFailed(thr);
+		}
+	}
+
+	/**
+	 * Invokes a function with the arguments (CK_ULONG, CK_VOID_PTR, CK_VOID_PTR,
+	 * CK_ULONG, CK_VOID_PTR, CK_ULONG, CK_VOID_PTR, CK_VOID_PTR).
+	 */
+	protected long invoke(int function, long a, MemorySegment b, MemorySegment c, long d,
+	                      MemorySegment e, long f, MemorySegment g, MemorySegment h)
+	{
+		try {
+			return result((long) getFunction(function).invokeExact(a, b, c, d, e, f, g, h));
+		} catch (Throwable thr) {
+			throw invocationFailed(thr);
+		}
+	}
+
+	/**
+	 * Invokes a function with the arguments (CK_ULONG, CK_VOID_PTR, CK_ULONG,
+	 * CK_VOID_PTR, CK_ULONG, CK_VOID_PTR, CK_ULONG, CK_VOID_PTR).
+	 */
+	protected long invoke(int function, long a, MemorySegment b, long c, MemorySegment d,
+	                      long e, MemorySegment f, long g, MemorySegment h)
+	{
+		try {
+			return result((long) getFunction(function).invokeExact(a, b, c, d, e, f, g, h));
+		} catch (Throwable thr) {
+			throw invocationFailed(thr);
+		}
+	}
+
+}
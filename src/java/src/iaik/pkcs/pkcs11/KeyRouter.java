@@ -0,0 +1,669 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11;
+
+import iaik.pkcs.pkcs11.objects.Key;
+import iaik.pkcs.pkcs11.wrapper.Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+
+import java.util.Hashtable;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A key router distributes operations with one logical key over several
+ * tokens which hold a replica of this key; e.g. several partitions of one or
+ * more network HSMs, which appear as different slots, maybe even in different
+ * modules. The logical key is identified by its CKA_ID (and optionally further
+ * attributes, like the object class) given as key template. The router finds
+ * the key on every token of its schedulers and sends each operation to the
+ * replica with the lowest load or the lowest expected latency. The latency of
+ * each replica is tracked as exponentially weighted moving average (EWMA).
+ * A replica that fails with a device error gets ejected for some time; the
+ * operation is then repeated with the next best replica. The key handles are
+ * taken from the key cache of each scheduler; thus, they get resolved again
+ * after the scheduler recovered its token.
+ * Register the router and the schedulers with a SlotEventMonitor; if the token
+ * of a scheduler gets removed or inserted, the router drops the resolved
+ * replicas and finds them again on the next operation.
+ * <pre><code>
+ *   KeyRouter router = new KeyRouter(new SessionScheduler[] { scheduler1, scheduler2 },
+ *       KeyRouter.RoutingPolicy.LOWEST_LATENCY);
+ *   RSAPrivateKey keyTemplate = new RSAPrivateKey();
+ *   keyTemplate.getId().setByteArrayValue(keyId);
+ *
+ *   byte[] signature = (byte[]) router.execute(keyTemplate, "interactive",
+ *       new KeyRouter.KeyOperation() {
+ *         public java.lang.Object execute(Session session, Key key) throws TokenException {
+ *           session.signInit(Mechanism.getShared(PKCS11Constants.CKM_SHA256_RSA_PKCS), key);
+ *           return session.sign(data);
+ *         }
+ *       });
+ *   monitor.addListener(router);
+ * </code></pre>
+ * All schedulers must be set up and logged in by the application as required.
+ *
+ * @see iaik.pkcs.pkcs11.SessionScheduler
+ * @see iaik.pkcs.pkcs11.SlotEventMonitor
+ * @version 1.0
+ * @invariants (schedulers_ <> null)
+ */
+public class KeyRouter implements SlotEventMonitor.SlotEventListener {
+
+	/**
+	 * This interface defines the policies for choosing a replica.
+	 *
+	 * @version 1.0
+	 * @invariants
+	 */
+	public interface RoutingPolicy {
+
+		/**
+		 * Choose the replica with the fewest operations in progress. Ties are
+		 * resolved by the lower average latency.
+		 */
+		public static int LEAST_LOADED = 0;
+
+		/**
+		 * Choose the replica with the lowest expected latency; i.e. the average
+		 * latency multiplied by the number of operations in progress plus one.
+		 */
+		public static int LOWEST_LATENCY = 1;
+
+	}
+
+	/**
+	 * An operation with a key which the router executes on one replica.
+	 *
+	 * @version 1.0
+	 * @invariants
+	 */
+	public interface KeyOperation {
+
+		/**
+		 * Execute this operation with the given session and key replica. The
+		 * router may call this method again with another replica, if it fails
+		 * with a device error.
+		 *
+		 * @param session The session to use.
+		 * @param key The replica of the key on the token of the session.
+		 * @return The result of the operation. May be null.
+		 * @exception TokenException If the operation fails.
+		 * @preconditions (session <> null) and (key <> null)
+		 * @postconditions
+		 */
+		public java.lang.Object execute(Session session, Key key)
+		    throws TokenException;
+
+	}
+
+	/**
+	 * One replica of a logical key on a certain token.
+	 *
+	 * @version 1.0
+	 * @invariants (scheduler_ <> null) and (key_ <> null)
+	 */
+	public static class Replica {
+
+		/**
+		 * The scheduler of the token holding this replica.
+		 */
+		protected SessionScheduler scheduler_;
+
+		/**
+		 * The key object on the token as last resolved by the scheduler.
+		 */
+		protected volatile Key key_;
+
+		/**
+		 * The number of operations currently in progress.
+		 */
+		protected AtomicInteger inFlight_;
+
+		/**
+		 * The average latency in nanoseconds; negative if not yet measured.
+		 */
+		protected double averageLatency_;
+
+		/**
+		 * The time in milliseconds until which this replica is ejected.
+		 */
+		protected volatile long ejectedUntil_;
+
+		/**
+		 * The number of device errors since the last successful operation.
+		 */
+		protected int consecutiveFailures_;
+
+		/**
+		 * Create a new replica.
+		 *
+		 * @param scheduler The scheduler of the token holding the key.
+		 * @param key The key object on this token.
+		 * @preconditions (scheduler <> null) and (key <> null)
+		 * @postconditions
+		 */
+		protected Replica(SessionScheduler scheduler, Key key) {
+			scheduler_ = scheduler;
+			key_ = key;
+			inFlight_ = new AtomicInteger();
+			averageLatency_ = -1.0;
+		}
+
+		/**
+		 * Get the scheduler of the token holding this replica.
+		 *
+		 * @return The scheduler.
+		 * @preconditions
+		 * @postconditions (result <> null)
+		 */
+		public SessionScheduler getScheduler() {
+			return scheduler_;
+		}
+
+		/**
+		 * Get the key object of this replica.
+		 *
+		 * @return The key object.
+		 * @preconditions
+		 * @postconditions (result <> null)
+		 */
+		public Key getKey() {
+			return key_;
+		}
+
+		/**
+		 * Get the number of operations currently in progress with this replica.
+		 *
+		 * @return The number of operations in progress.
+		 * @preconditions
+		 * @postconditions (result >= 0)
+		 */
+		public int getInFlight() {
+			return inFlight_.get();
+		}
+
+		/**
+		 * Get the exponentially weighted moving average of the latency of this
+		 * replica in nanoseconds.
+		 *
+		 * @return The average latency, or 0 if not yet measured.
+		 * @preconditions
+		 * @postconditions (result >= 0)
+		 */
+		public synchronized double getAverageLatency() {
+			return (averageLatency_ < 0.0) ? 0.0 : averageLatency_;
+		}
+
+		/**
+		 * Check, if this replica is currently ejected because of device errors.
+		 *
+		 * @return True, if this replica is ejected. False, otherwise.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public boolean isEjected() {
+			return System.currentTimeMillis() < ejectedUntil_;
+		}
+
+		/**
+		 * Update the average latency with a new sample.
+		 *
+		 * @param latency The latency of the last operation in nanoseconds.
+		 * @param alpha The weight of the new sample.
+		 * @preconditions
+		 * @postconditions
+		 */
+		protected synchronized void recordSuccess(long latency, double alpha) {
+			averageLatency_ = (averageLatency_ < 0.0) ? latency
+			    : (alpha * latency + (1.0 - alpha) * averageLatency_);
+			consecutiveFailures_ = 0;
+		}
+
+		/**
+		 * Eject this replica after a device error. The ejection time doubles
+		 * with each consecutive failure up to 32 times the base time.
+		 *
+		 * @param ejectionMillis The base ejection time in milliseconds.
+		 * @preconditions
+		 * @postconditions
+		 */
+		protected synchronized void recordFailure(long ejectionMillis) {
+			consecutiveFailures_++;
+			long factor = 1L << Math.min(consecutiveFailures_ - 1, 5);
+			ejectedUntil_ = System.currentTimeMillis() + factor * ejectionMillis;
+		}
+
+		/**
+		 * Returns the string representation of this object.
+		 *
+		 * @return the string representation of this object
+		 */
+		public String toString() {
+			StringBuffer buffer = new StringBuffer();
+
+			buffer.append("Key Handle: ");
+			buffer.append(key_.getObjectHandle());
+			buffer.append(Constants.NEWLINE);
+			buffer.append("In Flight: ");
+			buffer.append(getInFlight());
+			buffer.append(Constants.NEWLINE);
+			buffer.append("Average Latency [us]: ");
+			buffer.append(getAverageLatency() / 1000.0);
+			buffer.append(Constants.NEWLINE);
+			buffer.append("Ejected: ");
+			buffer.append(isEjected());
+			buffer.append(Constants.NEWLINE);
+			buffer.append(scheduler_.getToken().toString());
+
+			return buffer.toString();
+		}
+
+	}
+
+	/**
+	 * The schedulers of the tokens to route to.
+	 */
+	protected SessionScheduler[] schedulers_;
+
+	/**
+	 * The routing policy; one of the RoutingPolicy constants.
+	 */
+	protected int routingPolicy_;
+
+	/**
+	 * The weight of a new sample in the moving average of the latency.
+	 */
+	protected double ewmaAlpha_ = 0.2;
+
+	/**
+	 * The base time in milliseconds a replica is ejected after a device error.
+	 */
+	protected long ejectionMillis_ = 5000L;
+
+	/**
+	 * The resolved replicas, keyed by the routing key of the key template.
+	 */
+	protected Hashtable routes_;
+
+	/**
+	 * Create a new router for the tokens of the given schedulers.
+	 *
+	 * @param schedulers The schedulers of all tokens that may hold replicas.
+	 * @param routingPolicy RoutingPolicy.LEAST_LOADED or
+	 *                      RoutingPolicy.LOWEST_LATENCY.
+	 * @preconditions (schedulers <> null)
+	 * @postconditions
+	 */
+	public KeyRouter(SessionScheduler[] schedulers, int routingPolicy) {
+		if (schedulers == null) {
+			throw new NullPointerException("Argument \"schedulers\" must not be null.");
+		}
+		if ((routingPolicy != RoutingPolicy.LEAST_LOADED)
+		    && (routingPolicy != RoutingPolicy.LOWEST_LATENCY)) {
+			throw new IllegalArgumentException("Unknown routing policy: " + routingPolicy);
+		}
+		schedulers_ = (SessionScheduler[]) schedulers.clone();
+		routingPolicy_ = routingPolicy;
+		routes_ = new Hashtable();
+	}
+
+	/**
+	 * Set the weight of a new latency sample in the moving average. Higher
+	 * values adapt faster to changes, lower values smooth out outliers.
+	 *
+	 * @param alpha The weight in the range from 0.0 (exclusive) to 1.0.
+	 * @preconditions (alpha > 0.0) and (alpha <= 1.0)
+	 * @postconditions
+	 */
+	public void setEwmaAlpha(double alpha) {
+		if ((alpha <= 0.0) || (alpha > 1.0)) {
+			throw new IllegalArgumentException("Argument \"alpha\" must be in (0, 1].");
+		}
+		ewmaAlpha_ = alpha;
+	}
+
+	/**
+	 * Set the base time for which a replica is ejected after a device error.
+	 * The time doubles with each consecutive error.
+	 *
+	 * @param ejectionMillis The base ejection time in milliseconds.
+	 * @preconditions (ejectionMillis >= 0)
+	 * @postconditions
+	 */
+	public void setEjectionMillis(long ejectionMillis) {
+		if (ejectionMillis < 0L) {
+			throw new IllegalArgumentException("Argument \"ejectionMillis\" must not be negative.");
+		}
+		ejectionMillis_ = ejectionMillis;
+	}
+
+	/**
+	 * Find the replicas of the key identified by the given template on all
+	 * tokens and store them in the routing table. Any previously resolved
+	 * replicas of this key are replaced.
+	 *
+	 * @param keyTemplate The template identifying the key. It must contain the
+	 *                    CKA_ID and should contain the object class.
+	 * @return The found replicas. May be empty but not null.
+	 * @exception TokenException If searching fails on all tokens.
+	 * @preconditions (keyTemplate <> null)
+	 * @postconditions (result <> null)
+	 */
+	public Replica[] resolveKey(Key keyTemplate)
+	    throws TokenException
+	{
+		String routingKey = SessionScheduler.getRoutingKey(keyTemplate);
+		Vector replicas = new Vector(schedulers_.length);
+		TokenException lastException = null;
+
+		for (int i = 0; i < schedulers_.length; i++) {
+			SessionScheduler scheduler = schedulers_[i];
+			SessionScheduler.PriorityClass[] priorityClasses = scheduler.getPriorityClasses();
+			if (priorityClasses.length == 0) {
+				throw new IllegalStateException("Scheduler has no priority class: " + scheduler);
+			}
+			Session session;
+			try {
+				session = scheduler.acquireSession(priorityClasses[0]);
+			} catch (TokenException ex) {
+				lastException = ex;
+				continue;
+			}
+			try {
+				Key key = scheduler.getKey(session, keyTemplate);
+				if (key != null) {
+					replicas.addElement(new Replica(scheduler, key));
+				}
+			} catch (TokenException ex) {
+				lastException = ex;
+			} finally {
+				scheduler.releaseSession(session);
+			}
+		}
+		if (replicas.isEmpty() && (lastException != null)) {
+			throw lastException;
+		}
+
+		Replica[] replicaArray = new Replica[replicas.size()];
+		replicas.copyInto(replicaArray);
+		routes_.put(routingKey, replicaArray);
+
+		return replicaArray;
+	}
+
+	/**
+	 * Get the replicas of the given key. Resolves the key, if this has not
+	 * been done yet.
+	 *
+	 * @param keyTemplate The template identifying the key.
+	 * @return The replicas of the key. May be empty but not null.
+	 * @exception TokenException If resolving the key fails.
+	 * @preconditions (keyTemplate <> null)
+	 * @postconditions (result <> null)
+	 */
+	public Replica[] getReplicas(Key keyTemplate)
+	    throws TokenException
+	{
+		Replica[] replicas = (Replica[]) routes_.get(SessionScheduler.getRoutingKey(keyTemplate));
+
+		return (replicas != null) ? replicas : resolveKey(keyTemplate);
+	}
+
+	/**
+	 * Choose the best replica which is not excluded. Ejected replicas are only
+	 * chosen if all others are ejected too; in this case, the one with the
+	 * shortest remaining ejection time.
+	 *
+	 * @param replicas The candidates.
+	 * @param excluded Marks the candidates that already failed for this call.
+	 * @return The chosen replica, or null if all are excluded.
+	 * @preconditions (replicas <> null) and (excluded <> null)
+	 * @postconditions
+	 */
+	protected Replica chooseReplica(Replica[] replicas, boolean[] excluded) {
+		long now = System.currentTimeMillis();
+		Replica best = null;
+		double bestScore = Double.MAX_VALUE;
+		Replica leastEjected = null;
+
+		for (int i = 0; i < replicas.length; i++) {
+			if (excluded[i]) {
+				continue;
+			}
+			Replica replica = replicas[i];
+			if (now < replica.ejectedUntil_) {
+				if ((leastEjected == null) || (replica.ejectedUntil_ < leastEjected.ejectedUntil_)) {
+					leastEjected = replica;
+				}
+				continue;
+			}
+			int inFlight = replica.getInFlight();
+			double latency = replica.getAverageLatency();
+			double score;
+			if (routingPolicy_ == RoutingPolicy.LEAST_LOADED) {
+				// the latency in seconds is always less than one for a sane token
+				score = inFlight + Math.min(latency / 1.0e9, 0.999);
+			} else {
+				score = (latency + 1.0) * (inFlight + 1);
+			}
+			if (score < bestScore) {
+				best = replica;
+				bestScore = score;
+			}
+		}
+
+		return (best != null) ? best : leastEjected;
+	}
+
+	/**
+	 * Execute the given operation with one replica of the given key. The
+	 * operation runs with the given priority class of the scheduler of the
+	 * chosen replica. If the operation fails with a device error, the replica
+	 * gets ejected and the operation is repeated with the next best replica.
+	 *
+	 * @param keyTemplate The template identifying the key.
+	 * @param priorityClassName The name of the priority class to use.
+	 * @param operation The operation to execute.
+	 * @return The result of the operation.
+	 * @exception TokenException If there is no replica of the key or if the
+	 *                           operation fails on all replicas.
+	 * @preconditions (keyTemplate <> null) and (priorityClassName <> null)
+	 *                and (operation <> null)
+	 * @postconditions
+	 */
+	public java.lang.Object execute(final Key keyTemplate,
+	                                String priorityClassName,
+	                                final KeyOperation operation)
+	    throws TokenException
+	{
+		if (operation == null) {
+			throw new NullPointerException("Argument \"operation\" must not be null.");
+		}
+		Replica[] replicas = getReplicas(keyTemplate);
+		if (replicas.length == 0) {
+			throw new TokenException("No replica found for key "
+			    + SessionScheduler.getRoutingKey(keyTemplate));
+		}
+		boolean[] excluded = new boolean[replicas.length];
+		TokenException lastException = null;
+
+		for (int attempt = 0; attempt < replicas.length; attempt++) {
+			final Replica replica = chooseReplica(replicas, excluded);
+			if (replica == null) {
+				break;
+			}
+			for (int i = 0; i < replicas.length; i++) {
+				if (replicas[i] == replica) {
+					excluded[i] = true;
+				}
+			}
+			SessionScheduler.PriorityClass priorityClass = replica.scheduler_
+			    .getPriorityClass(priorityClassName);
+			if (priorityClass == null) {
+				throw new IllegalArgumentException("Unknown priority class: " + priorityClassName);
+			}
+
+			replica.inFlight_.incrementAndGet();
+			long start = System.nanoTime();
+			try {
+				java.lang.Object result = replica.scheduler_.execute(priorityClass,
+				    new SessionScheduler.Operation() {
+					    public java.lang.Object execute(Session session)
+					        throws TokenException
+					    {
+						    Key key = replica.scheduler_.getKey(session, keyTemplate);
+						    if (key == null) {
+							    throw new PKCS11Exception(PKCS11Constants.CKR_KEY_HANDLE_INVALID);
+						    }
+						    replica.key_ = key;
+						    return operation.execute(session, key);
+					    }
+				    });
+				replica.recordSuccess(System.nanoTime() - start, ewmaAlpha_);
+				return result;
+			} catch (TokenException ex) {
+				if (!isDeviceError(ex)) {
+					replica.recordSuccess(System.nanoTime() - start, ewmaAlpha_);
+					throw ex;
+				}
+				replica.recordFailure(ejectionMillis_);
+				lastException = ex;
+			} finally {
+				replica.inFlight_.decrementAndGet();
+			}
+		}
+
+		throw lastException;
+	}
+
+	/**
+	 * Drops the resolved replicas, if a token was inserted into the slot of
+	 * one of the schedulers; i.e. the token was replaced.
+	 *
+	 * @param slot The slot of the event.
+	 * @preconditions (slot <> null)
+	 * @postconditions
+	 */
+	public void tokenInserted(Slot slot) {
+		dropRoutes(slot);
+	}
+
+	/**
+	 * Drops the resolved replicas, if the token of one of the schedulers was
+	 * removed.
+	 *
+	 * @param slot The slot of the event.
+	 * @preconditions (slot <> null)
+	 * @postconditions
+	 */
+	public void tokenRemoved(Slot slot) {
+		dropRoutes(slot);
+	}
+
+	/**
+	 * Drop the resolved replicas of all keys, if one of the schedulers is for
+	 * the given slot. A new token may hold replicas of keys which had none on
+	 * the old one; thus, all keys get resolved again on their next operation.
+	 * Operations in progress finish with their replica.
+	 *
+	 * @param slot The slot of the event.
+	 * @preconditions (slot <> null)
+	 * @postconditions
+	 */
+	protected void dropRoutes(Slot slot) {
+		for (int i = 0; i < schedulers_.length; i++) {
+			if (slot.equals(schedulers_[i].getToken().getSlot())) {
+				routes_.clear();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Check, if the given exception signals a problem with the token or the
+	 * device rather than with the operation itself.
+	 *
+	 * @param exception The exception to check.
+	 * @return True, if the exception signals a device error. False, otherwise.
+	 * @preconditions (exception <> null)
+	 * @postconditions
+	 */
+	protected static boolean isDeviceError(TokenException exception) {
+		long errorCode = SessionScheduler.getErrorCode(exception);
+
+		return (errorCode == PKCS11Constants.CKR_GENERAL_ERROR)
+		    || (errorCode == PKCS11Constants.CKR_DEVICE_ERROR)
+		    || (errorCode == PKCS11Constants.CKR_DEVICE_MEMORY)
+		    || (errorCode == PKCS11Constants.CKR_DEVICE_REMOVED)
+		    || (errorCode == PKCS11Constants.CKR_TOKEN_NOT_PRESENT)
+		    || (errorCode == PKCS11Constants.CKR_TOKEN_NOT_RECOGNIZED)
+		    || (errorCode == PKCS11Constants.CKR_SESSION_CLOSED)
+		    || (errorCode == PKCS11Constants.CKR_SESSION_HANDLE_INVALID)
+		    || (errorCode == PKCS11Constants.CKR_KEY_HANDLE_INVALID)
+		    || (errorCode == PKCS11Constants.CKR_OBJECT_HANDLE_INVALID);
+	}
+
+	/**
+	 * Returns the string representation of this object.
+	 *
+	 * @return the string representation of this object
+	 */
+	public String toString() {
+		StringBuffer buffer = new StringBuffer();
+
+		buffer.append("Tokens: ");
+		buffer.append(schedulers_.length);
+		buffer.append(Constants.NEWLINE);
+		buffer.append("Routing Policy: ");
+		buffer.append((routingPolicy_ == RoutingPolicy.LEAST_LOADED) ? "least loaded"
+		    : "lowest latency");
+		buffer.append(Constants.NEWLINE);
+		buffer.append("Resolved Keys: ");
+		buffer.append(routes_.size());
+
+		return buffer.toString();
+	}
+
+}
@@ -47,9 +47,20 @@ import iaik.pkcs.pkcs11.wrapper.Constants;
 import iaik.pkcs.pkcs11.wrapper.Functions;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 /**
  * Objects of this class represent a mechansim as defined in PKCS#11. There are
  * constants defined for all mechanisms that PKCS#11 version 2.11 defines.
+ * <p>
+ * Mechanism.get creates a new object that the application may parameterize.
+ * For mechanisms without parameters, Mechanism.getShared returns a shared,
+ * immutable instance per mechanism code and does not create an object per
+ * call; e.g.
+ * <pre><code>
+ *   session.signInit(Mechanism.getShared(PKCS11Constants.CKM_SHA256_RSA_PKCS), key);
+ * </code></pre>
  *
  * @author <a href="mailto:Karl.Scheibelhofer@iaik.at"> Karl Scheibelhofer </a>
  * @version 1.0
@@ -1351,6 +1362,25 @@ public class Mechanism implements Cloneable {
 	public static final Mechanism VENDOR_DEFINED = new Mechanism(
 	    PKCS11Constants.CKM_VENDOR_DEFINED);
 
+	/**
+	 * Mechanism codes below this value are kept in sharedMechanisms_. It covers
+	 * all mechanisms of PKCS#11 v2.20.
+	 */
+	protected static final int SHARED_MECHANISMS_TABLE_SIZE = 0x2100;
+
+	/**
+	 * The shared mechanisms with codes below SHARED_MECHANISMS_TABLE_SIZE; the
+	 * index is the mechanism code.
+	 */
+	protected static final AtomicReferenceArray sharedMechanisms_ = new AtomicReferenceArray(
+	    SHARED_MECHANISMS_TABLE_SIZE);
+
+	/**
+	 * The shared mechanisms with other codes; e.g. vendor-defined mechanisms.
+	 * Maps the mechanism codes as Long to the Mechanism objects.
+	 */
+	protected static final ConcurrentHashMap otherSharedMechanisms_ = new ConcurrentHashMap();
+
 	/**
 	 * The code of the machanism as defined in PKCS11Constants (or pkcs11t.h
 	 * likewise).
@@ -1362,6 +1392,12 @@ public class Mechanism implements Cloneable {
 	 */
 	protected Parameters parameters_;
 
+	/**
+	 * True, if this is a shared instance of getShared; its parameters cannot be
+	 * set.
+	 */
+	protected boolean immutable_;
+
 	/**
 	 * Constructor taking just the mechansim code as defined in PKCS11Constants.
 	 *
@@ -1384,17 +1420,74 @@ public class Mechanism implements Cloneable {
 	}
 
 	/**
-	 * Makes a clone of this object.
+	 * Gets the shared instance of the mechanism with the given code. The
+	 * instance has no parameters and is immutable; i.e. setParameters throws
+	 * an exception. Thus, it is safe to use it in several threads at the same
+	 * time. Use get or clone for a mechanism that needs parameters.
+	 * The lookup does not lock and does not create objects after the first
+	 * call for a mechanism code.
+	 *
+	 * @param pkcs11MechanismCode The mechanism code; e.g.
+	 *                            PKCS11Constants.CKM_SHA256_RSA_PKCS.
+	 * @return The shared mechanism.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 *                 and (result.getParameters() == null)
+	 *                 and (result.isImmutable())
+	 */
+	public static Mechanism getShared(long pkcs11MechanismCode) {
+		Mechanism mechanism;
+
+		if ((pkcs11MechanismCode >= 0L)
+		    && (pkcs11MechanismCode < SHARED_MECHANISMS_TABLE_SIZE)) {
+			int index = (int) pkcs11MechanismCode;
+			mechanism = (Mechanism) sharedMechanisms_.get(index);
+			if (mechanism == null) {
+				sharedMechanisms_.compareAndSet(index, null, newSharedMechanism(pkcs11MechanismCode));
+				mechanism = (Mechanism) sharedMechanisms_.get(index);
+			}
+		} else {
+			Long key = new Long(pkcs11MechanismCode);
+			mechanism = (Mechanism) otherSharedMechanisms_.get(key);
+			if (mechanism == null) {
+				otherSharedMechanisms_.putIfAbsent(key, newSharedMechanism(pkcs11MechanismCode));
+				mechanism = (Mechanism) otherSharedMechanisms_.get(key);
+			}
+		}
+
+		return mechanism;
+	}
+
+	/**
+	 * Create a new immutable mechanism for getShared.
+	 *
+	 * @param pkcs11MechanismCode The mechanism code.
+	 * @return The new immutable mechanism.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected static Mechanism newSharedMechanism(long pkcs11MechanismCode) {
+		Mechanism mechanism = new Mechanism(pkcs11MechanismCode);
+		mechanism.immutable_ = true;
+
+		return mechanism;
+	}
+
+	/**
+	 * Makes a clone of this object. The clone of a shared mechanism is not
+	 * immutable; i.e. the application can set its parameters.
 	 *
 	 * @return A shallow clone of this object.
 	 * @preconditions
 	 * @postconditions (result <> null)
+	 *                 and (!result.isImmutable())
 	 */
 	public Object clone() {
 		Mechanism clone = null;
 
 		try {
 			clone = (Mechanism) super.clone();
+			clone.immutable_ = false;
 		} catch (CloneNotSupportedException ex) {
 			// this must not happen according to Java specifications
 		}
@@ -1626,13 +1719,34 @@ public class Mechanism implements Cloneable {
 	 * Set the parameters for this mechanism.
 	 *
 	 * @param parameters The mechanism parameters to set.
-	 * @preconditions
+	 * @exception UnsupportedOperationException If this is a shared mechanism
+	 *                                          from getShared.
+	 * @preconditions (!isImmutable())
 	 * @postconditions
 	 */
-	public void setParameters(Parameters parameters) {
+	public void setParameters(Parameters parameters)
+	    throws UnsupportedOperationException
+	{
+		if (immutable_) {
+			throw new UnsupportedOperationException(
+			    "Shared mechanisms are immutable, use Mechanism.get or clone: "
+			        + getName());
+		}
 		parameters_ = parameters;
 	}
 
+	/**
+	 * Check, if this is a shared mechanism from getShared, which has no
+	 * parameters and cannot be changed.
+	 *
+	 * @return True, if this mechanism is immutable.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public boolean isImmutable() {
+		return immutable_;
+	}
+
 	/**
 	 * Get the code of this mechanism as defined in PKCS11Constants (of pkcs11t.h
 	 * likewise).
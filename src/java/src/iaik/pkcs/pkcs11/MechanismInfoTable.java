@@ -0,0 +1,476 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11;
+
+import iaik.pkcs.pkcs11.wrapper.CK_MECHANISM_INFO;
+import iaik.pkcs.pkcs11.wrapper.Constants;
+import iaik.pkcs.pkcs11.wrapper.Functions;
+import iaik.pkcs.pkcs11.wrapper.PKCS11;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Implementation;
+
+/**
+ * An immutable table of the mechanisms that a token supports together with
+ * their key sizes and flags. The table keeps the values in primitive arrays
+ * and finds a mechanism by its code with a small hash table in constant time
+ * without creating objects; thus, an application can check the capabilities
+ * of the token for each request; e.g.
+ * <pre><code>
+ *   MechanismInfoTable mechanisms = token.getMechanismInfoTable();
+ *   if (!mechanisms.isSupported(PKCS11Constants.CKM_RSA_PKCS, PKCS11Constants.CKF_SIGN, 2048L)) {
+ *     ... // route the request to another token
+ *   }
+ * </code></pre>
+ * If the module is a PKCS11Implementation, the table is read with a single
+ * call to the native part, which calls C_GetMechanismList and
+ * C_GetMechanismInfo for each mechanism. Otherwise, e.g. for a decorated
+ * module, it is read with the individual calls.
+ * If C_GetMechanismInfo fails for a mechanism, the table still lists the
+ * mechanism, but its information is not available; see isAvailable(int).
+ * getMechanismInfo throws the error of the module for this mechanism only.
+ *
+ * @see iaik.pkcs.pkcs11.Token#getMechanismInfoTable()
+ * @see iaik.pkcs.pkcs11.wrapper.PKCS11Implementation#getMechanismInfoTable(long)
+ * @version 1.0
+ * @invariants (mechanismCodes_ <> null)
+ *             and (minKeySizes_.length == mechanismCodes_.length)
+ *             and (maxKeySizes_.length == mechanismCodes_.length)
+ *             and (flags_.length == mechanismCodes_.length)
+ *             and (errorCodes_.length == mechanismCodes_.length)
+ */
+public class MechanismInfoTable {
+
+	/**
+	 * The codes of the mechanisms in the order of C_GetMechanismList.
+	 */
+	protected long[] mechanismCodes_;
+
+	/**
+	 * The minimum key sizes; the index is the index of the mechanism.
+	 */
+	protected long[] minKeySizes_;
+
+	/**
+	 * The maximum key sizes; the index is the index of the mechanism.
+	 */
+	protected long[] maxKeySizes_;
+
+	/**
+	 * The flags; the index is the index of the mechanism.
+	 */
+	protected long[] flags_;
+
+	/**
+	 * The return values of C_GetMechanismInfo; the index is the index of the
+	 * mechanism. CKR_OK, if the information of the mechanism is available.
+	 */
+	protected long[] errorCodes_;
+
+	/**
+	 * The hash table; an element holds the index of a mechanism plus one, or
+	 * 0 if it is empty. Its length is a power of two.
+	 */
+	protected int[] hashTable_;
+
+	/**
+	 * The value of System.currentTimeMillis() when the table was read.
+	 */
+	protected long creationTime_;
+
+	/**
+	 * Create a new table from the result of
+	 * PKCS11Implementation.getMechanismInfoTable.
+	 *
+	 * @param table Five elements per mechanism: the mechanism code, the
+	 *              minimum key size, the maximum key size, the flags and the
+	 *              return value of C_GetMechanismInfo.
+	 * @preconditions (table <> null) and (table.length % 5 == 0)
+	 * @postconditions
+	 */
+	public MechanismInfoTable(long[] table) {
+		if (table == null) {
+			throw new NullPointerException("Argument \"table\" must not be null.");
+		}
+		int size = table.length / 5;
+		mechanismCodes_ = new long[size];
+		minKeySizes_ = new long[size];
+		maxKeySizes_ = new long[size];
+		flags_ = new long[size];
+		errorCodes_ = new long[size];
+		for (int i = 0; i < size; i++) {
+			mechanismCodes_[i] = table[5 * i];
+			minKeySizes_[i] = table[5 * i + 1];
+			maxKeySizes_[i] = table[5 * i + 2];
+			flags_[i] = table[5 * i + 3];
+			errorCodes_[i] = table[5 * i + 4];
+		}
+
+		int capacity = 4;
+		while (capacity < 2 * size) {
+			capacity <<= 1;
+		}
+		hashTable_ = new int[capacity];
+		for (int i = 0; i < size; i++) {
+			int position = hash(mechanismCodes_[i]) & (capacity - 1);
+			while (hashTable_[position] != 0) {
+				if (mechanismCodes_[hashTable_[position] - 1] == mechanismCodes_[i]) {
+					break; // a module that lists a mechanism twice
+				}
+				position = (position + 1) & (capacity - 1);
+			}
+			if (hashTable_[position] == 0) {
+				hashTable_[position] = i + 1;
+			}
+		}
+		creationTime_ = System.currentTimeMillis();
+	}
+
+	/**
+	 * Read the table of the token in the given slot.
+	 *
+	 * @param pkcs11Module The module.
+	 * @param slotID The ID of the slot of the token.
+	 * @return The table of the mechanisms of the token.
+	 * @exception PKCS11Exception If reading the list of mechanisms fails.
+	 * @preconditions (pkcs11Module <> null)
+	 * @postconditions (result <> null)
+	 */
+	public static MechanismInfoTable read(PKCS11 pkcs11Module, long slotID)
+	    throws PKCS11Exception
+	{
+		if (pkcs11Module instanceof PKCS11Implementation) {
+			return new MechanismInfoTable(((PKCS11Implementation) pkcs11Module)
+			    .getMechanismInfoTable(slotID));
+		}
+
+		long[] mechanismCodes = pkcs11Module.C_GetMechanismList(slotID);
+		long[] table = new long[5 * mechanismCodes.length];
+		for (int i = 0; i < mechanismCodes.length; i++) {
+			table[5 * i] = mechanismCodes[i];
+			try {
+				CK_MECHANISM_INFO ckMechanismInfo = pkcs11Module.C_GetMechanismInfo(slotID,
+				    mechanismCodes[i]);
+				table[5 * i + 1] = ckMechanismInfo.ulMinKeySize;
+				table[5 * i + 2] = ckMechanismInfo.ulMaxKeySize;
+				table[5 * i + 3] = ckMechanismInfo.flags;
+			} catch (PKCS11Exception ex) {
+				table[5 * i + 4] = ex.getErrorCode();
+			}
+		}
+
+		return new MechanismInfoTable(table);
+	}
+
+	/**
+	 * Spread the bits of a mechanism code for the hash table. Vendor-defined
+	 * mechanisms differ in the low bits only, like the standard mechanisms.
+	 *
+	 * @param mechanismCode The mechanism code.
+	 * @return The hash of the code.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected static int hash(long mechanismCode) {
+		int hash = (int) (mechanismCode ^ (mechanismCode >>> 32));
+
+		return (hash * 0x9E3779B9) ^ (hash >>> 16);
+	}
+
+	/**
+	 * Get the number of mechanisms.
+	 *
+	 * @return The number of mechanisms.
+	 * @preconditions
+	 * @postconditions (result >= 0)
+	 */
+	public int size() {
+		return mechanismCodes_.length;
+	}
+
+	/**
+	 * Get the index of the given mechanism in this table.
+	 *
+	 * @param mechanismCode The code of the mechanism; e.g.
+	 *                      PKCS11Constants.CKM_RSA_PKCS.
+	 * @return The index of the mechanism, or -1 if the token does not support
+	 *         it.
+	 * @preconditions
+	 * @postconditions (result >= -1) and (result < size())
+	 */
+	public int indexOf(long mechanismCode) {
+		int mask = hashTable_.length - 1;
+		int position = hash(mechanismCode) & mask;
+		int entry;
+		while ((entry = hashTable_[position]) != 0) {
+			if (mechanismCodes_[entry - 1] == mechanismCode) {
+				return entry - 1;
+			}
+			position = (position + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Check, if the token supports the given mechanism.
+	 *
+	 * @param mechanismCode The code of the mechanism.
+	 * @return True, if the token supports the mechanism.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public boolean isSupported(long mechanismCode) {
+		return indexOf(mechanismCode) >= 0;
+	}
+
+	/**
+	 * Check, if the token supports the given mechanism for all the given
+	 * functions.
+	 *
+	 * @param mechanismCode The code of the mechanism.
+	 * @param requiredFlags The required flags; e.g.
+	 *                      PKCS11Constants.CKF_SIGN.
+	 * @return True, if the token supports the mechanism, its information is
+	 *         available and it has all the required flags.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public boolean isSupported(long mechanismCode, long requiredFlags) {
+		int index = indexOf(mechanismCode);
+
+		return (index >= 0) && (errorCodes_[index] == PKCS11Constants.CKR_OK)
+		    && ((flags_[index] & requiredFlags) == requiredFlags);
+	}
+
+	/**
+	 * Check, if the token supports the given mechanism for all the given
+	 * functions and the given key size. The unit of the key size depends on
+	 * the mechanism; see PKCS#11. If the module states 0 as minimum and
+	 * maximum key size, e.g. for digest mechanisms, any key size is accepted.
+	 *
+	 * @param mechanismCode The code of the mechanism.
+	 * @param requiredFlags The required flags; e.g.
+	 *                      PKCS11Constants.CKF_SIGN.
+	 * @param keySize The key size.
+	 * @return True, if the token supports the mechanism, its information is
+	 *         available, it has all the required flags and the key size is in
+	 *         its range.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public boolean isSupported(long mechanismCode, long requiredFlags, long keySize) {
+		int index = indexOf(mechanismCode);
+		if ((index < 0) || (errorCodes_[index] != PKCS11Constants.CKR_OK)
+		    || ((flags_[index] & requiredFlags) != requiredFlags)) {
+			return false;
+		}
+		long minKeySize = minKeySizes_[index];
+		long maxKeySize = maxKeySizes_[index];
+
+		return ((minKeySize == 0L) && (maxKeySize == 0L))
+		    || ((keySize >= minKeySize) && (keySize <= maxKeySize));
+	}
+
+	/**
+	 * Get the code of the mechanism at the given index.
+	 *
+	 * @param index The index of the mechanism.
+	 * @return The mechanism code.
+	 * @preconditions (index >= 0) and (index < size())
+	 * @postconditions
+	 */
+	public long getMechanismCode(int index) {
+		return mechanismCodes_[index];
+	}
+
+	/**
+	 * Check, if the information of the mechanism at the given index is
+	 * available; i.e. C_GetMechanismInfo succeeded for it. If not, its key
+	 * sizes and flags are 0.
+	 *
+	 * @param index The index of the mechanism.
+	 * @return True, if the information is available.
+	 * @preconditions (index >= 0) and (index < size())
+	 * @postconditions
+	 */
+	public boolean isAvailable(int index) {
+		return errorCodes_[index] == PKCS11Constants.CKR_OK;
+	}
+
+	/**
+	 * Get the return value of C_GetMechanismInfo for the mechanism at the
+	 * given index.
+	 *
+	 * @param index The index of the mechanism.
+	 * @return CKR_OK, if the information is available; otherwise, the error
+	 *         code of the module.
+	 * @preconditions (index >= 0) and (index < size())
+	 * @postconditions
+	 */
+	public long getErrorCode(int index) {
+		return errorCodes_[index];
+	}
+
+	/**
+	 * Get the minimum key size of the mechanism at the given index.
+	 *
+	 * @param index The index of the mechanism.
+	 * @return The minimum key size.
+	 * @preconditions (index >= 0) and (index < size())
+	 * @postconditions
+	 */
+	public long getMinKeySize(int index) {
+		return minKeySizes_[index];
+	}
+
+	/**
+	 * Get the maximum key size of the mechanism at the given index.
+	 *
+	 * @param index The index of the mechanism.
+	 * @return The maximum key size.
+	 * @preconditions (index >= 0) and (index < size())
+	 * @postconditions
+	 */
+	public long getMaxKeySize(int index) {
+		return maxKeySizes_[index];
+	}
+
+	/**
+	 * Get the flags of the mechanism at the given index; e.g.
+	 * PKCS11Constants.CKF_SIGN.
+	 *
+	 * @param index The index of the mechanism.
+	 * @return The flags.
+	 * @preconditions (index >= 0) and (index < size())
+	 * @postconditions
+	 */
+	public long getFlags(int index) {
+		return flags_[index];
+	}
+
+	/**
+	 * Get the codes of all mechanisms in the order of C_GetMechanismList.
+	 *
+	 * @return A copy of the mechanism codes.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	public long[] getMechanismCodes() {
+		return (long[]) mechanismCodes_.clone();
+	}
+
+	/**
+	 * Get the information about the given mechanism as a new object.
+	 *
+	 * @param mechanismCode The code of the mechanism.
+	 * @return The information, or null if the token does not support the
+	 *         mechanism.
+	 * @exception PKCS11Exception If C_GetMechanismInfo failed for this
+	 *                            mechanism when the table was read.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public MechanismInfo getMechanismInfo(long mechanismCode)
+	    throws PKCS11Exception
+	{
+		int index = indexOf(mechanismCode);
+		if (index < 0) {
+			return null;
+		}
+		if (errorCodes_[index] != PKCS11Constants.CKR_OK) {
+			throw new PKCS11Exception(errorCodes_[index]);
+		}
+		MechanismInfo mechanismInfo = new MechanismInfo();
+		mechanismInfo.minKeySize_ = minKeySizes_[index];
+		mechanismInfo.maxKeySize_ = maxKeySizes_[index];
+		mechanismInfo.flags_ = flags_[index];
+
+		return mechanismInfo;
+	}
+
+	/**
+	 * Get the time when this table was read.
+	 *
+	 * @return The value of System.currentTimeMillis() at the creation.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public long getCreationTime() {
+		return creationTime_;
+	}
+
+	/**
+	 * Returns the string representation of this object; one line per
+	 * mechanism.
+	 *
+	 * @return the string representation of this object
+	 */
+	public String toString() {
+		StringBuffer buffer = new StringBuffer();
+
+		buffer.append("Mechanisms: ");
+		buffer.append(mechanismCodes_.length);
+		for (int i = 0; i < mechanismCodes_.length; i++) {
+			buffer.append(Constants.NEWLINE);
+			buffer.append(Constants.INDENT);
+			buffer.append(Functions.mechanismCodeToString(mechanismCodes_[i]));
+			if (errorCodes_[i] != PKCS11Constants.CKR_OK) {
+				String errorCodeName = PKCS11Exception.getErrorCodeName(errorCodes_[i]);
+				buffer.append(": not available, ");
+				buffer.append((errorCodeName != null) ? errorCodeName
+				    : "0x" + Functions.toFullHexString((int) errorCodes_[i]));
+				continue;
+			}
+			buffer.append(": key size ");
+			buffer.append(minKeySizes_[i]);
+			buffer.append(" - ");
+			buffer.append(maxKeySizes_[i]);
+			buffer.append(", flags 0x");
+			buffer.append(Functions.toFullHexString((int) flags_[i]));
+		}
+
+		return buffer.toString();
+	}
+
+}
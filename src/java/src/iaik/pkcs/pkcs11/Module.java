@@ -52,8 +52,13 @@ import iaik.pkcs.pkcs11.wrapper.PKCS11;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Connector;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Implementation;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Objects of this class represent a PKCS#11 module. The application should
@@ -80,6 +85,17 @@ import java.io.IOException;
  * </code></pre>
  * Instead of <code>cryptoki.dll</code>, the application will use the name of
  * the PKCS#11 module of the installed crypto hardware.
+ * If several components of an application use the same PKCS#11 module, they
+ * can share one initialized instance instead.
+ * <pre><code>
+ *      Module pkcs11Module = Module.getShared("cryptoki.dll", null, new DefaultInitializeArgs());
+ *
+ *      // ... work with the module
+ *
+ *      pkcs11Module.release();
+ * </code></pre>
+ * The module gets finalized and disconnected when the last component released
+ * it.
  * After the application initialized the module, it can get a list of all
  * available slots. A slot is an object that represents a physical or logical
  * device that can accept a cryptographic token; for instance, the card slot of
@@ -92,7 +108,12 @@ import java.io.IOException;
  * Slot[] slotsWithToken = pkcs11Module.getSlotList(Module.SlotRequirement.TOKEN_PRESENT);
  * </code></pre>
  * to get a list of all those slots in which there is a currently a token
- * present.
+ * present. To read the information of all slots and tokens at once, e.g. at
+ * the startup of a service, the application can use
+ * <pre><code>
+ * TokenInventory inventory = TokenInventory.discover(pkcs11Module, Module.SlotRequirement.TOKEN_PRESENT, 16);
+ * </code></pre>
+ * which does it concurrently for all slots.
  * <p>
  * To wait for the insertion of a token, the application can use the 
  * <code>waitForSlotEvent</code> method. For example, the method call
@@ -102,10 +123,13 @@ import java.io.IOException;
  * will block until an event for any slot of this module occurred. Usually such
  * an event is the insertion of a token. However, the application should check
  * if the event occurred in the slot of interest and if there is really a token
- * present in the slot. 
+ * present in the slot. A SlotEventMonitor does this in a background thread
+ * and informs listeners about inserted and removed tokens.
  *
  * @see iaik.pkcs.pkcs11.Info
  * @see iaik.pkcs.pkcs11.Slot
+ * @see iaik.pkcs.pkcs11.TokenInventory
+ * @see iaik.pkcs.pkcs11.SlotEventMonitor
  * @author <a href="mailto:Karl.Scheibelhofer@iaik.at"> Karl Scheibelhofer </a>
  * @version 1.0
  * @invariants (pkcs11Module_ <> null)
@@ -163,6 +187,110 @@ public class Module {
 	 */
 	protected PKCS11 pkcs11Module_;
 
+	/**
+	 * The tables of the supported mechanisms of the tokens. The key is the slot
+	 * ID as Long, the value is the MechanismInfoTable. All Token objects of a
+	 * slot share the table.
+	 */
+	protected Hashtable mechanismInfoTables_;
+
+	/**
+	 * A cached info object with the time when it expires.
+	 *
+	 * @version 1.0
+	 * @invariants (info_ <> null)
+	 */
+	protected static class CachedInfo {
+
+		/**
+		 * The cached TokenInfo or SessionInfo.
+		 */
+		protected Object info_;
+
+		/**
+		 * The time in milliseconds after which the info must be read again.
+		 */
+		protected long expiryTime_;
+
+		/**
+		 * Create a new cached info.
+		 *
+		 * @param info The info to cache.
+		 * @param expiryTime The time in milliseconds when it expires.
+		 * @preconditions (info <> null)
+		 * @postconditions
+		 */
+		protected CachedInfo(Object info, long expiryTime) {
+			info_ = info;
+			expiryTime_ = expiryTime;
+		}
+
+	}
+
+	/**
+	 * The time in milliseconds for which getTokenInfo of a Token returns the
+	 * cached token info. Zero disables the cache.
+	 */
+	protected volatile long tokenInfoTimeToLive_;
+
+	/**
+	 * The time in milliseconds for which getSessionInfo of a Session returns
+	 * the cached session info. Zero disables the cache.
+	 */
+	protected volatile long sessionInfoTimeToLive_;
+
+	/**
+	 * The cached token infos. The key is the slot ID as Long, the value is a
+	 * CachedInfo with a TokenInfo.
+	 */
+	protected Hashtable tokenInfos_;
+
+	/**
+	 * The cached session infos. The key is the session handle as Long, the
+	 * value is a CachedInfo with a SessionInfo.
+	 */
+	protected Hashtable sessionInfos_;
+
+	/**
+	 * The generation of the cached infos. Each invalidation increments it
+	 * before it removes the infos. A thread that read an info puts it into the
+	 * cache only if the generation did not change since it started reading;
+	 * thus, an info read before an invalidation does not get cached after it.
+	 */
+	protected AtomicLong infoGeneration_;
+
+	/**
+	 * The shared modules of this process. The key is the canonical path of the
+	 * PKCS#11 module, or its name, if it is searched in the library path; the
+	 * value is the Module. Access is synchronized on this table.
+	 */
+	protected static Hashtable sharedModules_ = new Hashtable();
+
+	/**
+	 * The key of this module in sharedModules_, or null if this module is not
+	 * shared.
+	 */
+	protected String sharedModuleKey_;
+
+	/**
+	 * The number of users of this shared module which did not release it yet.
+	 */
+	protected int referenceCount_;
+
+	/**
+	 * True, if getShared initialized this shared module; false, if it was
+	 * already initialized before. Only in the first case, the last release
+	 * finalizes the module.
+	 */
+	protected boolean sharedModuleInitialized_;
+
+	/**
+	 * The address of the function list of the native module, if this module is
+	 * shared and uses a PKCS11Implementation; 0 otherwise. It identifies the
+	 * loaded library, even if it was loaded by different names.
+	 */
+	protected long functionListAddress_;
+
 	/**
 	 * Create a new module that uses the given PKCS11 interface to interact with
 	 * the token.
@@ -176,6 +304,10 @@ public class Module {
 			throw new NullPointerException("Argument \"pkcs11Module\" must not be null.");
 		}
 		pkcs11Module_ = pkcs11Module;
+		mechanismInfoTables_ = new Hashtable();
+		tokenInfos_ = new Hashtable();
+		sessionInfos_ = new Hashtable();
+		infoGeneration_ = new AtomicLong();
 	}
 
 	/**
@@ -226,6 +358,235 @@ public class Module {
 		return new Module(pkcs11Module);
 	}
 
+	/**
+	 * Get an instance of this class for the given PKCS11 interface object; e.g.
+	 * an InstrumentingPKCS11 or a RecordingPKCS11 that decorates the connection
+	 * to the module, or a SoftwarePKCS11 that runs without a native module.
+	 *
+	 * @param pkcs11Module The interface object to access the PKCS#11 module.
+	 * @return An instance of Module that uses the given interface object.
+	 * @preconditions (pkcs11Module <> null)
+	 * @postconditions
+	 * @see iaik.pkcs.pkcs11.wrapper.PKCS11Connector#connectToInstrumentedPKCS11Module(String)
+	 * @see iaik.pkcs.pkcs11.wrapper.RecordingPKCS11
+	 * @see iaik.pkcs.pkcs11.wrapper.SoftwarePKCS11
+	 */
+	public static Module getInstance(PKCS11 pkcs11Module) {
+		return new Module(pkcs11Module);
+	}
+
+	/**
+	 * Get the shared and initialized instance for the given PKCS#11 module.
+	 * This is the same as getShared(pkcs11ModuleName, null,
+	 * new DefaultInitializeArgs()).
+	 *
+	 * @param pkcs11ModuleName The name of the module; e.g. "slbck.dll".
+	 * @return The shared instance of Module for the given PKCS#11 module.
+	 * @exception IOException If connecting to the named module fails.
+	 * @exception TokenException If initializing the module fails.
+	 * @preconditions (pkcs11ModuleName <> null)
+	 * @postconditions (result <> null)
+	 *                 and (result.isShared())
+	 * @see #getShared(String, String, InitializeArgs)
+	 */
+	public static Module getShared(String pkcs11ModuleName)
+	    throws IOException, TokenException
+	{
+		return getShared(pkcs11ModuleName, null, new DefaultInitializeArgs());
+	}
+
+	/**
+	 * Get the shared and initialized instance for the given PKCS#11 module.
+	 * There is at most one shared instance per loaded library in the process;
+	 * e.g. "libfoo.so" and "/usr/lib/libfoo.so" get the same instance, if the
+	 * system loads the first from the second path. The first call connects to
+	 * the module and initializes it with
+	 * the given arguments; a module that is already initialized, e.g. by
+	 * another part of the application, is accepted as it is. Further calls
+	 * return the same instance and ignore the wrapper path and the arguments.
+	 * Each call must be paired with a call to release; the last release
+	 * finalizes the module and disconnects from it.
+	 *
+	 * @param pkcs11ModuleName The name of the module; e.g. "slbck.dll".
+	 * @param pkcs11WrapperPath The absolute path to the PKCS#11-wrapper native
+	 *                          library, or null to use the default.
+	 * @param initArgs The initialization arguments for the module. May be null.
+	 * @return The shared instance of Module for the given PKCS#11 module.
+	 * @exception IOException If connecting to the named module fails.
+	 * @exception TokenException If initializing the module fails.
+	 * @preconditions (pkcs11ModuleName <> null)
+	 * @postconditions (result <> null)
+	 *                 and (result.isShared())
+	 */
+	public static Module getShared(String pkcs11ModuleName, String pkcs11WrapperPath,
+	                               InitializeArgs initArgs)
+	    throws IOException, TokenException
+	{
+		if (pkcs11ModuleName == null) {
+			throw new NullPointerException("Argument \"pkcs11ModuleName\" must not be null.");
+		}
+		String key = getSharedModuleKey(pkcs11ModuleName);
+
+		synchronized (sharedModules_) {
+			Module module = (Module) sharedModules_.get(key);
+			if (module == null) {
+				module = (pkcs11WrapperPath != null) ? getInstance(pkcs11ModuleName,
+				    pkcs11WrapperPath) : getInstance(pkcs11ModuleName);
+				if (module.pkcs11Module_ instanceof PKCS11Implementation) {
+					module.functionListAddress_ = ((PKCS11Implementation) module.pkcs11Module_)
+					    .getFunctionListAddress();
+				}
+				Module sharedModule = getSharedModule(module.functionListAddress_);
+				if (sharedModule != null) {
+					// the same library is already shared under another name
+					module.disconnect();
+					module = sharedModule;
+				} else {
+					try {
+						module.initialize(initArgs);
+						module.sharedModuleInitialized_ = true;
+					} catch (PKCS11Exception ex) {
+						if (ex.getErrorCode() != PKCS11Constants.CKR_CRYPTOKI_ALREADY_INITIALIZED) {
+							try {
+								module.disconnect();
+							} catch (TokenException disconnectException) {
+								// throw the exception of the initialization
+							}
+							throw ex;
+						}
+					}
+					module.sharedModuleKey_ = key;
+					sharedModules_.put(key, module);
+				}
+			}
+			module.referenceCount_++;
+
+			return module;
+		}
+	}
+
+	/**
+	 * Get the key of the given module name in sharedModules_; i.e. the
+	 * canonical path, if the module name is a path of an existing file, or the
+	 * name itself, if the module is searched in the library path.
+	 *
+	 * @param pkcs11ModuleName The name of the module.
+	 * @return The key for sharedModules_.
+	 * @preconditions (pkcs11ModuleName <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected static String getSharedModuleKey(String pkcs11ModuleName) {
+		File moduleFile = new File(pkcs11ModuleName);
+		if (moduleFile.isFile()) {
+			try {
+				return moduleFile.getCanonicalPath();
+			} catch (IOException ex) {
+				// use the absolute path
+				return moduleFile.getAbsolutePath();
+			}
+		}
+
+		return pkcs11ModuleName;
+	}
+
+	/**
+	 * Get the shared module with the given function list address; i.e. the
+	 * shared module of the same loaded library. The caller must hold the lock
+	 * of sharedModules_.
+	 *
+	 * @param functionListAddress The address of the function list of the
+	 *                            native module, or 0 if it is not known.
+	 * @return The shared module, or null if there is none.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected static Module getSharedModule(long functionListAddress) {
+		if (functionListAddress != 0L) {
+			Enumeration modules = sharedModules_.elements();
+			while (modules.hasMoreElements()) {
+				Module module = (Module) modules.nextElement();
+				if (module.functionListAddress_ == functionListAddress) {
+					return module;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Releases this shared module. If this was the last user of the module, it
+	 * gets finalized, if getShared initialized it, and disconnected. It is
+	 * removed from the shared modules in any case; i.e. a later call to
+	 * getShared connects and initializes the module again.
+	 * The application must not use this object after releasing it.
+	 *
+	 * @exception TokenException If finalizing or disconnecting the module fails.
+	 * @preconditions (isShared())
+	 * @postconditions
+	 */
+	public void release()
+	    throws TokenException
+	{
+		synchronized (sharedModules_) {
+			if (sharedModuleKey_ == null) {
+				throw new IllegalStateException("This module is not shared or already released.");
+			}
+			if (--referenceCount_ > 0) {
+				return;
+			}
+			sharedModules_.remove(sharedModuleKey_);
+			sharedModuleKey_ = null;
+			try {
+				if (sharedModuleInitialized_) {
+					pkcs11Module_.C_Finalize(null);
+					mechanismInfoTables_.clear();
+					invalidateInfos();
+				}
+			} finally {
+				disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Check, if this module is a shared module that was not released by all its
+	 * users yet.
+	 *
+	 * @return True, if this module was returned by getShared and is still in use.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public boolean isShared() {
+		synchronized (sharedModules_) {
+			return sharedModuleKey_ != null;
+		}
+	}
+
+	/**
+	 * Disconnect from the PKCS#11 module; i.e. clean up the native part of the
+	 * wrapper for this module.
+	 *
+	 * @exception TokenException If disconnecting fails.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected void disconnect()
+	    throws TokenException
+	{
+		try {
+			pkcs11Module_.finalize();
+		} catch (TokenException ex) {
+			throw ex;
+		} catch (Exception ex) {
+			throw new TokenException(ex);
+		} catch (Error ex) {
+			throw ex;
+		} catch (Throwable thr) {
+			throw new TokenException(thr.toString());
+		}
+	}
+
 	/**
 	 * Gets information about the module; i.e. the PKCS#11 module behind.
 	 *
@@ -260,7 +621,10 @@ public class Module {
 			InitializeArgs castedInitArgs = initArgs;
 			final MutexHandler mutexHandler = castedInitArgs.getMutexHandler();
 			wrapperInitArgs = new CK_C_INITIALIZE_ARGS();
-			if (mutexHandler != null) {
+			if (mutexHandler instanceof NativeMutexHandler) {
+				// the wrapper passes mutexes of the platform, no callbacks into Java
+				wrapperInitArgs.useNativeMutexes = true;
+			} else if (mutexHandler != null) {
 				wrapperInitArgs.CreateMutex = new CK_CREATEMUTEX() {
 					public Object CK_CREATEMUTEX()
 					    throws PKCS11Exception
@@ -315,16 +679,24 @@ public class Module {
 	 * which is the reserved Java method called by the garbage collector.
 	 * This method calls the <code>C_Finalize(Object)</code> method of the
 	 * underlying PKCS11 module.
+	 * A shared module must not be finalized with this method; it must be
+	 * released with release instead.
 	 *
 	 * @param args Must be null in version 2.x of PKCS#11.
 	 * @exception TokenException If finalization fails.
 	 * @preconditions (args == null)
+	 *                and (!isShared())
 	 * @postconditions
 	 */
 	public void finalize(Object args)
 	    throws TokenException
 	{
+		if (isShared()) {
+			throw new IllegalStateException("A shared module must be released instead of finalized.");
+		}
 		pkcs11Module_.C_Finalize(args);
+		mechanismInfoTables_.clear();
+		invalidateInfos();
 	}
 
 	/**
@@ -375,9 +747,368 @@ public class Module {
 	{
 		long flags = (dontBlock) ? PKCS11Constants.CKF_DONT_BLOCK : 0L;
 		long slotID = pkcs11Module_.C_WaitForSlotEvent(flags, reserved);
+		slotChanged(slotID);
 
 		return new Slot(this, slotID);
 	}
+
+	/**
+	 * Drop all cached information about the token in the given slot, because
+	 * the token may have been removed or replaced.
+	 *
+	 * @param slotID The ID of the slot.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected void slotChanged(long slotID) {
+		mechanismInfoTables_.remove(new Long(slotID));
+		invalidateInfos(slotID);
+	}
+
+	/**
+	 * Get the table of the supported mechanisms of the token in the given slot.
+	 * This method reads the table only on the first call for the slot, and
+	 * after the table was invalidated by a slot event or by finalize(Object).
+	 *
+	 * @param slotID The ID of the slot.
+	 * @return The table of the supported mechanisms.
+	 * @exception TokenException If reading the table fails.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected MechanismInfoTable getMechanismInfoTable(long slotID)
+	    throws TokenException
+	{
+		MechanismInfoTable mechanismInfoTable = (MechanismInfoTable) mechanismInfoTables_
+		    .get(new Long(slotID));
+		if (mechanismInfoTable == null) {
+			mechanismInfoTable = refreshMechanismInfoTable(slotID);
+		}
+
+		return mechanismInfoTable;
+	}
+
+	/**
+	 * Read the table of the supported mechanisms of the token in the given slot
+	 * from the module and replace the cached table.
+	 *
+	 * @param slotID The ID of the slot.
+	 * @return The new table of the supported mechanisms.
+	 * @exception TokenException If reading the table fails.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected MechanismInfoTable refreshMechanismInfoTable(long slotID)
+	    throws TokenException
+	{
+		MechanismInfoTable mechanismInfoTable = MechanismInfoTable.read(pkcs11Module_,
+		    slotID);
+		mechanismInfoTables_.put(new Long(slotID), mechanismInfoTable);
+
+		return mechanismInfoTable;
+	}
+
+	/**
+	 * Set the time for which Token.getTokenInfo returns a cached token info
+	 * instead of calling the module. Health checks and pool validators, which
+	 * call getTokenInfo often, should use a time of some seconds. The cache of
+	 * a slot gets invalidated early by slot events, by logins and logouts, by
+	 * opening and closing sessions and by exceptions that indicate a change of
+	 * the state; see invalidateInfos(long, TokenException).
+	 *
+	 * @param timeToLive The time in milliseconds. Zero (the default) disables
+	 *                   the cache.
+	 * @preconditions (timeToLive >= 0)
+	 * @postconditions
+	 */
+	public void setTokenInfoTimeToLive(long timeToLive) {
+		if (timeToLive < 0) {
+			throw new IllegalArgumentException("Argument \"timeToLive\" must not be negative.");
+		}
+		tokenInfoTimeToLive_ = timeToLive;
+		invalidateInfos();
+	}
+
+	/**
+	 * Get the time for which Token.getTokenInfo returns a cached token info.
+	 *
+	 * @return The time in milliseconds. Zero, if the cache is disabled.
+	 * @preconditions
+	 * @postconditions (result >= 0)
+	 */
+	public long getTokenInfoTimeToLive() {
+		return tokenInfoTimeToLive_;
+	}
+
+	/**
+	 * Set the time for which Session.getSessionInfo returns a cached session
+	 * info instead of calling the module. The cache gets invalidated early
+	 * like the cache of the token infos.
+	 *
+	 * @param timeToLive The time in milliseconds. Zero (the default) disables
+	 *                   the cache.
+	 * @preconditions (timeToLive >= 0)
+	 * @postconditions
+	 */
+	public void setSessionInfoTimeToLive(long timeToLive) {
+		if (timeToLive < 0) {
+			throw new IllegalArgumentException("Argument \"timeToLive\" must not be negative.");
+		}
+		sessionInfoTimeToLive_ = timeToLive;
+		invalidateInfos();
+	}
+
+	/**
+	 * Get the time for which Session.getSessionInfo returns a cached session
+	 * info.
+	 *
+	 * @return The time in milliseconds. Zero, if the cache is disabled.
+	 * @preconditions
+	 * @postconditions (result >= 0)
+	 */
+	public long getSessionInfoTimeToLive() {
+		return sessionInfoTimeToLive_;
+	}
+
+	/**
+	 * Get the info of the token in the given slot. This method returns the
+	 * cached info, if it did not expire yet; otherwise, it reads the info.
+	 *
+	 * @param slotID The ID of the slot.
+	 * @return The token info.
+	 * @exception TokenException If reading the info fails.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected TokenInfo getTokenInfo(long slotID)
+	    throws TokenException
+	{
+		if (tokenInfoTimeToLive_ > 0) {
+			CachedInfo cachedInfo = (CachedInfo) tokenInfos_.get(new Long(slotID));
+			if ((cachedInfo != null) && (System.currentTimeMillis() < cachedInfo.expiryTime_)) {
+				return (TokenInfo) cachedInfo.info_;
+			}
+		}
+
+		return refreshTokenInfo(slotID);
+	}
+
+	/**
+	 * Read the info of the token in the given slot from the module and replace
+	 * the cached info.
+	 *
+	 * @param slotID The ID of the slot.
+	 * @return The new token info.
+	 * @exception TokenException If reading the info fails.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected TokenInfo refreshTokenInfo(long slotID)
+	    throws TokenException
+	{
+		long generation = infoGeneration_.get();
+		TokenInfo tokenInfo;
+		try {
+			tokenInfo = new TokenInfo(pkcs11Module_.C_GetTokenInfo(slotID));
+		} catch (TokenException ex) {
+			invalidateInfos(slotID, ex);
+			throw ex;
+		}
+		cacheTokenInfo(slotID, tokenInfo, generation);
+
+		return tokenInfo;
+	}
+
+	/**
+	 * Read only the flags and counters of the token in the given slot, like the
+	 * session counts and the free memory, and update the cached info with them.
+	 * If there is no cached info, this method reads the complete info.
+	 *
+	 * @param slotID The ID of the slot.
+	 * @return The updated token info.
+	 * @exception TokenException If reading the info fails.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected TokenInfo refreshTokenInfoCounters(long slotID)
+	    throws TokenException
+	{
+		long generation = infoGeneration_.get();
+		CachedInfo cachedInfo = (CachedInfo) tokenInfos_.get(new Long(slotID));
+		if (cachedInfo == null) {
+			return refreshTokenInfo(slotID);
+		}
+		TokenInfo tokenInfo;
+		try {
+			tokenInfo = ((TokenInfo) cachedInfo.info_).copyWithCounters(TokenInfo.readCounters(
+			    pkcs11Module_, slotID));
+		} catch (TokenException ex) {
+			invalidateInfos(slotID, ex);
+			throw ex;
+		}
+		cacheTokenInfo(slotID, tokenInfo, generation);
+
+		return tokenInfo;
+	}
+
+	/**
+	 * Put the given token info into the cache, if the cache is enabled and no
+	 * invalidation happened since the info was read.
+	 *
+	 * @param slotID The ID of the slot.
+	 * @param tokenInfo The token info.
+	 * @param generation The value of infoGeneration_ before the info was read.
+	 * @preconditions (tokenInfo <> null)
+	 * @postconditions
+	 */
+	protected void cacheTokenInfo(long slotID, TokenInfo tokenInfo, long generation) {
+		long timeToLive = tokenInfoTimeToLive_;
+		if (timeToLive > 0) {
+			// an invalidation increments the generation before it clears the table
+			synchronized (tokenInfos_) {
+				if (infoGeneration_.get() == generation) {
+					tokenInfos_.put(new Long(slotID), new CachedInfo(tokenInfo, System
+					    .currentTimeMillis() + timeToLive));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the info of the session with the given handle. This method returns
+	 * the cached info, if it did not expire yet; otherwise, it reads the info.
+	 *
+	 * @param sessionHandle The handle of the session.
+	 * @return The session info.
+	 * @exception TokenException If reading the info fails.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected SessionInfo getSessionInfo(long sessionHandle)
+	    throws TokenException
+	{
+		long timeToLive = sessionInfoTimeToLive_;
+		if (timeToLive > 0) {
+			Long key = new Long(sessionHandle);
+			CachedInfo cachedInfo = (CachedInfo) sessionInfos_.get(key);
+			long now = System.currentTimeMillis();
+			if ((cachedInfo != null) && (now < cachedInfo.expiryTime_)) {
+				return (SessionInfo) cachedInfo.info_;
+			}
+			long generation = infoGeneration_.get();
+			SessionInfo sessionInfo = readSessionInfo(sessionHandle);
+			synchronized (sessionInfos_) {
+				if (infoGeneration_.get() == generation) {
+					sessionInfos_.put(key, new CachedInfo(sessionInfo, now + timeToLive));
+				}
+			}
+
+			return sessionInfo;
+		}
+
+		return readSessionInfo(sessionHandle);
+	}
+
+	/**
+	 * Read the info of the session with the given handle from the module.
+	 *
+	 * @param sessionHandle The handle of the session.
+	 * @return The session info.
+	 * @exception TokenException If reading the info fails.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected SessionInfo readSessionInfo(long sessionHandle)
+	    throws TokenException
+	{
+		try {
+			return new SessionInfo(pkcs11Module_.C_GetSessionInfo(sessionHandle));
+		} catch (TokenException ex) {
+			if (isStateChange(ex)) {
+				invalidateInfos();
+			} else {
+				sessionInfos_.remove(new Long(sessionHandle));
+			}
+			throw ex;
+		}
+	}
+
+	/**
+	 * Invalidate the cached token info of the given slot and all cached session
+	 * infos; e.g. after a login or logout, which changes the state of all
+	 * sessions with the token.
+	 *
+	 * @param slotID The ID of the slot.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public void invalidateInfos(long slotID) {
+		infoGeneration_.incrementAndGet();
+		tokenInfos_.remove(new Long(slotID));
+		sessionInfos_.clear();
+	}
+
+	/**
+	 * Invalidate the cached infos of the given slot, if the given exception
+	 * indicates a change of the state of the token or its sessions; e.g.
+	 * CKR_SESSION_CLOSED, CKR_USER_NOT_LOGGED_IN or CKR_DEVICE_REMOVED.
+	 * Applications that handle such exceptions themselves can call this method
+	 * to keep the caches consistent.
+	 *
+	 * @param slotID The ID of the slot.
+	 * @param exception The exception of a failed call.
+	 * @return True, if the infos were invalidated.
+	 * @preconditions (exception <> null)
+	 * @postconditions
+	 */
+	public boolean invalidateInfos(long slotID, TokenException exception) {
+		boolean stateChange = isStateChange(exception);
+		if (stateChange) {
+			invalidateInfos(slotID);
+		}
+
+		return stateChange;
+	}
+
+	/**
+	 * Invalidate all cached token and session infos of this module.
+	 *
+	 * @preconditions
+	 * @postconditions
+	 */
+	public void invalidateInfos() {
+		infoGeneration_.incrementAndGet();
+		tokenInfos_.clear();
+		sessionInfos_.clear();
+	}
+
+	/**
+	 * Check, if the given exception indicates that the state of a token or its
+	 * sessions has changed.
+	 *
+	 * @param exception The exception of a failed call.
+	 * @return True, if the error code of the exception indicates a change.
+	 * @preconditions (exception <> null)
+	 * @postconditions
+	 */
+	protected static boolean isStateChange(TokenException exception) {
+		if (!(exception instanceof PKCS11Exception)) {
+			return false;
+		}
+		long errorCode = ((PKCS11Exception) exception).getErrorCode();
+
+		return (errorCode == PKCS11Constants.CKR_SESSION_CLOSED)
+		    || (errorCode == PKCS11Constants.CKR_SESSION_HANDLE_INVALID)
+		    || (errorCode == PKCS11Constants.CKR_USER_NOT_LOGGED_IN)
+		    || (errorCode == PKCS11Constants.CKR_USER_ALREADY_LOGGED_IN)
+		    || (errorCode == PKCS11Constants.CKR_PIN_INCORRECT)
+		    || (errorCode == PKCS11Constants.CKR_PIN_LOCKED)
+		    || (errorCode == PKCS11Constants.CKR_PIN_EXPIRED)
+		    || (errorCode == PKCS11Constants.CKR_DEVICE_REMOVED)
+		    || (errorCode == PKCS11Constants.CKR_DEVICE_ERROR)
+		    || (errorCode == PKCS11Constants.CKR_TOKEN_NOT_PRESENT)
+		    || (errorCode == PKCS11Constants.CKR_TOKEN_NOT_RECOGNIZED);
+	}
 	
 	/**
 	 * Gets the PKCS#11 module of the wrapper package behind this object.
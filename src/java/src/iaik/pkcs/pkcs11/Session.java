@@ -53,7 +53,6 @@ import iaik.pkcs.pkcs11.parameters.SSL3KeyMaterialParameters;
 import iaik.pkcs.pkcs11.parameters.SSL3MasterKeyDeriveParameters;
 import iaik.pkcs.pkcs11.wrapper.CK_ATTRIBUTE;
 import iaik.pkcs.pkcs11.wrapper.CK_MECHANISM;
-import iaik.pkcs.pkcs11.wrapper.CK_SESSION_INFO;
 import iaik.pkcs.pkcs11.wrapper.CK_SSL3_KEY_MAT_PARAMS;
 import iaik.pkcs.pkcs11.wrapper.CK_SSL3_MASTER_KEY_DERIVE_PARAMS;
 import iaik.pkcs.pkcs11.wrapper.Constants;
@@ -237,7 +236,12 @@ public class Session {
 	public void initPIN(char[] pin)
 	    throws TokenException
 	{
-		pkcs11Module_.C_InitPIN(sessionHandle_, pin, useUtf8Encoding_);
+		try {
+			pkcs11Module_.C_InitPIN(sessionHandle_, pin, useUtf8Encoding_);
+		} finally {
+			// the flags of the token and the state of all sessions may have changed
+			module_.invalidateInfos(token_.getSlot().getSlotID());
+		}
 	}
 
 	/**
@@ -256,7 +260,12 @@ public class Session {
 	public void setPIN(char[] oldPin, char[] newPin)
 	    throws TokenException
 	{
-		pkcs11Module_.C_SetPIN(sessionHandle_, oldPin, newPin, useUtf8Encoding_);
+		try {
+			pkcs11Module_.C_SetPIN(sessionHandle_, oldPin, newPin, useUtf8Encoding_);
+		} finally {
+			// the flags of the token and the state of all sessions may have changed
+			module_.invalidateInfos(token_.getSlot().getSlotID());
+		}
 	}
 
 	/**
@@ -270,7 +279,11 @@ public class Session {
 	public void closeSession()
 	    throws TokenException
 	{
-		pkcs11Module_.C_CloseSession(sessionHandle_);
+		try {
+			pkcs11Module_.C_CloseSession(sessionHandle_);
+		} finally {
+			module_.invalidateInfos(token_.getSlot().getSlotID());
+		}
 	}
 
 	/**
@@ -321,7 +334,9 @@ public class Session {
 	}
 
 	/**
-	 * Get information about this session.
+	 * Get information about this session. If the module caches session infos,
+	 * this method may return a cached snapshot; see
+	 * Module.setSessionInfoTimeToLive.
 	 * 
 	 * @return An object providing information about this session.
 	 * @exception TokenException
@@ -332,9 +347,7 @@ public class Session {
 	public SessionInfo getSessionInfo()
 	    throws TokenException
 	{
-		CK_SESSION_INFO ckSessionInfo = pkcs11Module_.C_GetSessionInfo(sessionHandle_);
-
-		return new SessionInfo(ckSessionInfo);
+		return module_.getSessionInfo(sessionHandle_);
 	}
 
 	/**
@@ -435,7 +448,12 @@ public class Session {
 	{
 		long lUserType = (userType == UserType.SO) ? PKCS11Constants.CKU_SO
 		    : PKCS11Constants.CKU_USER;
-		pkcs11Module_.C_Login(sessionHandle_, lUserType, pin, useUtf8Encoding_);
+		try {
+			pkcs11Module_.C_Login(sessionHandle_, lUserType, pin, useUtf8Encoding_);
+		} finally {
+			// the flags of the token and the state of all sessions may have changed
+			module_.invalidateInfos(token_.getSlot().getSlotID());
+		}
 	}
 
 	/**
@@ -449,7 +467,12 @@ public class Session {
 	public void logout()
 	    throws TokenException
 	{
-		pkcs11Module_.C_Logout(sessionHandle_);
+		try {
+			pkcs11Module_.C_Logout(sessionHandle_);
+		} finally {
+			// the flags of the token and the state of all sessions may have changed
+			module_.invalidateInfos(token_.getSlot().getSlotID());
+		}
 	}
 
 	/**
@@ -0,0 +1,1111 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11;
+
+import iaik.pkcs.pkcs11.objects.Key;
+import iaik.pkcs.pkcs11.objects.Object;
+import iaik.pkcs.pkcs11.wrapper.Constants;
+import iaik.pkcs.pkcs11.wrapper.Functions;
+import iaik.pkcs.pkcs11.wrapper.LatencyHistogram;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.Vector;
+
+/**
+ * A session scheduler shares a fixed number of sessions of one token between
+ * several classes of operations. Each class gets a weight, and whenever a
+ * session becomes free, the scheduler hands it to the waiting class which
+ * consumed the smallest amount of session time relative to its weight
+ * (stride scheduling). Thus, a long running batch of key generations or bulk
+ * encryptions cannot starve latency-sensitive operations like signing; it only
+ * gets its weighted share of the token's capacity as long as others are
+ * waiting, and all of it when the token is idle otherwise.
+ * For each class, the scheduler records the queueing time and the total
+ * latency (queueing plus execution) in histograms, which allow to verify the
+ * isolation.
+ * <pre><code>
+ *   SessionScheduler scheduler = new SessionScheduler(token, 4,
+ *       Token.SessionReadWriteBehavior.RO_SESSION);
+ *   SessionScheduler.PriorityClass interactive = scheduler.addPriorityClass("interactive", 8);
+ *   SessionScheduler.PriorityClass batch = scheduler.addPriorityClass("batch", 1);
+ *
+ *   byte[] signature = (byte[]) scheduler.execute(interactive,
+ *       new SessionScheduler.Operation() {
+ *         public java.lang.Object execute(Session session) throws TokenException {
+ *           session.signInit(Mechanism.getShared(PKCS11Constants.CKM_SHA256_RSA_PKCS), key);
+ *           return session.sign(data);
+ *         }
+ *       });
+ *   long p99 = interactive.getLatencyHistogram().getValueAtPercentile(99.0);
+ * </code></pre>
+ * Applications which need a session for a longer sequence of calls can use
+ * <code>acquireSession</code> and <code>releaseSession</code> directly.
+ * <p>
+ * The scheduler also recovers from a reset of the token or a reconnect of a
+ * network HSM. If an operation fails with an error which signals that the
+ * session, the token or an object handle is no longer valid (e.g.
+ * CKR_SESSION_HANDLE_INVALID, CKR_DEVICE_REMOVED or CKR_OBJECT_HANDLE_INVALID),
+ * the scheduler reopens the affected sessions, logs in again with the
+ * credentials given to <code>setLogin</code> and forgets the cached key
+ * handles. Operations which implement <code>IdempotentOperation</code> are
+ * then retried transparently until the recovery timeout expires. Such
+ * operations should get their keys through <code>getKey</code>, which
+ * resolves the key again by its template after a recovery.
+ * Registered at a SlotEventMonitor, the scheduler starts the recovery as soon
+ * as the token gets removed or replaced, instead of at the next failure.
+ *
+ * @see iaik.pkcs.pkcs11.Token
+ * @see iaik.pkcs.pkcs11.Session
+ * @see iaik.pkcs.pkcs11.wrapper.LatencyHistogram
+ * @see iaik.pkcs.pkcs11.SlotEventMonitor
+ * @version 1.0
+ * @invariants (token_ <> null)
+ */
+public class SessionScheduler implements SlotEventMonitor.SlotEventListener {
+
+	/**
+	 * An operation executed by the scheduler on one of its sessions.
+	 *
+	 * @version 1.0
+	 * @invariants
+	 */
+	public interface Operation {
+
+		/**
+		 * Execute this operation using the given session. The session is
+		 * exclusively used by this operation until this method returns.
+		 *
+		 * @param session The session to use.
+		 * @return The result of the operation. May be null.
+		 * @exception TokenException If the operation fails.
+		 * @preconditions (session <> null)
+		 * @postconditions
+		 */
+		public java.lang.Object execute(Session session)
+		    throws TokenException;
+
+	}
+
+	/**
+	 * An operation which can safely be executed again if it failed because
+	 * the session or the token became invalid; e.g. signing, verifying,
+	 * encrypting or decrypting data in one step. The scheduler retries such
+	 * operations after recovering the session.
+	 *
+	 * @version 1.0
+	 * @invariants
+	 */
+	public interface IdempotentOperation extends Operation {
+		// marker interface
+	}
+
+	/**
+	 * This interface defines what must be recovered after a failure. The
+	 * scheduler maps the error code of the failure to one of these constants.
+	 *
+	 * @version 1.0
+	 * @invariants
+	 */
+	public interface Recovery {
+
+		/**
+		 * The failure does not require any recovery.
+		 */
+		public static int NONE = 0;
+
+		/**
+		 * The cached object handles are invalid; e.g. CKR_OBJECT_HANDLE_INVALID.
+		 */
+		public static int KEYS = 1;
+
+		/**
+		 * The session is invalid or not logged in; e.g.
+		 * CKR_SESSION_HANDLE_INVALID.
+		 */
+		public static int SESSION = 2;
+
+		/**
+		 * The token has been reset or removed; e.g. CKR_DEVICE_REMOVED. All
+		 * sessions and object handles are invalid.
+		 */
+		public static int TOKEN = 3;
+
+	}
+
+	/**
+	 * A class of operations that share the sessions of the scheduler with
+	 * a certain weight.
+	 *
+	 * @version 1.0
+	 * @invariants (name_ <> null) and (weight_ > 0)
+	 */
+	public static class PriorityClass {
+
+		/**
+		 * The name of this class.
+		 */
+		protected String name_;
+
+		/**
+		 * The weight of this class.
+		 */
+		protected int weight_;
+
+		/**
+		 * The virtual time of this class; i.e. the session time in nanoseconds
+		 * consumed by this class divided by its weight.
+		 */
+		protected long pass_;
+
+		/**
+		 * The waiters of this class in FIFO order.
+		 */
+		protected Vector waiters_;
+
+		/**
+		 * The time between requesting and getting a session.
+		 */
+		protected LatencyHistogram waitHistogram_;
+
+		/**
+		 * The time between requesting and releasing a session.
+		 */
+		protected LatencyHistogram latencyHistogram_;
+
+		/**
+		 * Create a new priority class.
+		 *
+		 * @param name The name of this class.
+		 * @param weight The weight of this class.
+		 * @preconditions (name <> null) and (weight > 0)
+		 * @postconditions
+		 */
+		protected PriorityClass(String name, int weight) {
+			if (name == null) {
+				throw new NullPointerException("Argument \"name\" must not be null.");
+			}
+			if (weight <= 0) {
+				throw new IllegalArgumentException("Argument \"weight\" must be positive.");
+			}
+			name_ = name;
+			weight_ = weight;
+			waiters_ = new Vector();
+			waitHistogram_ = new LatencyHistogram();
+			latencyHistogram_ = new LatencyHistogram();
+		}
+
+		/**
+		 * Get the name of this class.
+		 *
+		 * @return The name of this class.
+		 * @preconditions
+		 * @postconditions (result <> null)
+		 */
+		public String getName() {
+			return name_;
+		}
+
+		/**
+		 * Get the weight of this class.
+		 *
+		 * @return The weight of this class.
+		 * @preconditions
+		 * @postconditions (result > 0)
+		 */
+		public int getWeight() {
+			return weight_;
+		}
+
+		/**
+		 * Get the histogram of the time in nanoseconds which requests of this
+		 * class waited for a session.
+		 *
+		 * @return The histogram of the waiting times.
+		 * @preconditions
+		 * @postconditions (result <> null)
+		 */
+		public LatencyHistogram getWaitHistogram() {
+			return waitHistogram_;
+		}
+
+		/**
+		 * Get the histogram of the time in nanoseconds between requesting and
+		 * releasing a session; i.e. waiting plus execution time.
+		 *
+		 * @return The histogram of the total latencies.
+		 * @preconditions
+		 * @postconditions (result <> null)
+		 */
+		public LatencyHistogram getLatencyHistogram() {
+			return latencyHistogram_;
+		}
+
+		/**
+		 * Returns the string representation of this object.
+		 *
+		 * @return the string representation of this object
+		 */
+		public String toString() {
+			StringBuffer buffer = new StringBuffer();
+
+			buffer.append("Priority Class: ");
+			buffer.append(name_);
+			buffer.append(Constants.NEWLINE);
+			buffer.append("Weight: ");
+			buffer.append(weight_);
+			buffer.append(Constants.NEWLINE);
+			buffer.append("Latency: ");
+			buffer.append(Constants.NEWLINE);
+			buffer.append(latencyHistogram_.toString());
+
+			return buffer.toString();
+		}
+
+	}
+
+	/**
+	 * A request for a session, which is waiting or has been served.
+	 *
+	 * @version 1.0
+	 * @invariants (priorityClass_ <> null)
+	 */
+	protected static class Lease {
+
+		/**
+		 * The class of this request.
+		 */
+		protected PriorityClass priorityClass_;
+
+		/**
+		 * The time when the session was requested.
+		 */
+		protected long requestTime_;
+
+		/**
+		 * The time when the session was handed out.
+		 */
+		protected long grantTime_;
+
+		/**
+		 * The session handed out; null while still waiting.
+		 */
+		protected Session session_;
+
+		/**
+		 * True, if the request has been cancelled because the scheduler was
+		 * closed.
+		 */
+		protected boolean cancelled_;
+
+		/**
+		 * Create a new lease for the given class.
+		 *
+		 * @param priorityClass The class of the request.
+		 * @preconditions (priorityClass <> null)
+		 * @postconditions
+		 */
+		protected Lease(PriorityClass priorityClass) {
+			priorityClass_ = priorityClass;
+			requestTime_ = System.nanoTime();
+		}
+
+	}
+
+	/**
+	 * The token of the sessions.
+	 */
+	protected Token token_;
+
+	/**
+	 * All sessions opened by this scheduler.
+	 */
+	protected Session[] sessions_;
+
+	/**
+	 * The read/write behavior of the sessions.
+	 */
+	protected boolean rwSession_;
+
+	/**
+	 * The generation in which each session was opened, keyed by the session
+	 * object. A session from an older generation than generation_ gets reopened
+	 * before it is handed out.
+	 */
+	protected IdentityHashMap sessionGenerations_;
+
+	/**
+	 * The current generation of the sessions. It is incremented each time the
+	 * token has to be recovered as a whole.
+	 */
+	protected long generation_;
+
+	/**
+	 * The user type for logging in sessions after a recovery.
+	 */
+	protected boolean userType_;
+
+	/**
+	 * The PIN for logging in sessions after a recovery; null, if no login is
+	 * required or the token has a protected authentication path.
+	 */
+	protected char[] pin_;
+
+	/**
+	 * True, if the sessions must be logged in after opening them.
+	 */
+	protected boolean loginRequired_;
+
+	/**
+	 * The resolved keys, keyed by the routing key of their template.
+	 */
+	protected Hashtable keys_;
+
+	/**
+	 * The time in milliseconds after the first failure, after which the
+	 * scheduler gives up retrying an idempotent operation.
+	 */
+	protected long recoveryTimeoutMillis_ = 30000L;
+
+	/**
+	 * The sessions which are currently not in use.
+	 */
+	protected Vector idleSessions_;
+
+	/**
+	 * The leases of the sessions currently in use, keyed by the session
+	 * object; the handle of a session may change during recovery.
+	 */
+	protected IdentityHashMap activeLeases_;
+
+	/**
+	 * The registered priority classes.
+	 */
+	protected Vector priorityClasses_;
+
+	/**
+	 * The virtual time of the scheduler; i.e. the pass of the class which got
+	 * the last session. Classes which become active again start at this time
+	 * to avoid that idle classes gather credit.
+	 */
+	protected long virtualTime_;
+
+	/**
+	 * True, if this scheduler has been closed.
+	 */
+	protected boolean closed_;
+
+	/**
+	 * Create a new scheduler that opens the given number of serial sessions
+	 * with the token.
+	 *
+	 * @param token The token to open the sessions with.
+	 * @param sessionCount The number of sessions to open.
+	 * @param rwSession Token.SessionReadWriteBehavior.RO_SESSION or
+	 *                  Token.SessionReadWriteBehavior.RW_SESSION.
+	 * @exception TokenException If opening the sessions fails.
+	 * @preconditions (token <> null) and (sessionCount > 0)
+	 * @postconditions
+	 */
+	public SessionScheduler(Token token, int sessionCount, boolean rwSession)
+	    throws TokenException
+	{
+		if (token == null) {
+			throw new NullPointerException("Argument \"token\" must not be null.");
+		}
+		if (sessionCount <= 0) {
+			throw new IllegalArgumentException("Argument \"sessionCount\" must be positive.");
+		}
+		token_ = token;
+		rwSession_ = rwSession;
+		sessions_ = new Session[sessionCount];
+		idleSessions_ = new Vector(sessionCount);
+		activeLeases_ = new IdentityHashMap(sessionCount);
+		sessionGenerations_ = new IdentityHashMap(sessionCount);
+		keys_ = new Hashtable();
+		priorityClasses_ = new Vector();
+		try {
+			for (int i = 0; i < sessionCount; i++) {
+				sessions_[i] = token.openSession(Token.SessionType.SERIAL_SESSION, rwSession,
+				    null, null);
+				sessionGenerations_.put(sessions_[i], new Long(generation_));
+				idleSessions_.addElement(sessions_[i]);
+			}
+		} catch (TokenException ex) {
+			for (int i = 0; i < sessionCount && sessions_[i] != null; i++) {
+				try {
+					sessions_[i].closeSession();
+				} catch (TokenException ex2) {
+					// ignore, we report the original exception
+				}
+			}
+			throw ex;
+		}
+	}
+
+	/**
+	 * Set the credentials for logging in the sessions of this scheduler. The
+	 * scheduler logs in the sessions now and again whenever it had to reopen
+	 * them. Since all sessions of an application share the login state, one
+	 * login normally suffices, but reopened sessions after a token reset need
+	 * a new one. The application should call this method before it starts
+	 * executing operations.
+	 *
+	 * @param userType Session.UserType.SO or Session.UserType.USER.
+	 * @param pin The PIN. May be null, if the token has a protected
+	 *            authentication path.
+	 * @exception TokenException If logging in fails.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public void setLogin(boolean userType, char[] pin)
+	    throws TokenException
+	{
+		synchronized (this) {
+			userType_ = userType;
+			pin_ = (pin != null) ? (char[]) pin.clone() : null;
+			loginRequired_ = true;
+		}
+		login(sessions_[0]);
+	}
+
+	/**
+	 * Set the time after which the scheduler gives up recovering and retrying
+	 * an idempotent operation. The time counts from the first failure of the
+	 * operation.
+	 *
+	 * @param recoveryTimeoutMillis The timeout in milliseconds. 0 disables
+	 *                              retrying.
+	 * @preconditions (recoveryTimeoutMillis >= 0)
+	 * @postconditions
+	 */
+	public void setRecoveryTimeout(long recoveryTimeoutMillis) {
+		if (recoveryTimeoutMillis < 0L) {
+			throw new IllegalArgumentException("Argument \"recoveryTimeoutMillis\" must not be negative.");
+		}
+		recoveryTimeoutMillis_ = recoveryTimeoutMillis;
+	}
+
+	/**
+	 * Register a new priority class with this scheduler. The share of session
+	 * time a class gets while others are waiting is proportional to its weight.
+	 *
+	 * @param name The name of the class; e.g. "interactive" or "batch".
+	 * @param weight The weight of the class.
+	 * @return The new priority class.
+	 * @preconditions (name <> null) and (weight > 0)
+	 * @postconditions (result <> null)
+	 */
+	public synchronized PriorityClass addPriorityClass(String name, int weight) {
+		PriorityClass priorityClass = new PriorityClass(name, weight);
+		priorityClass.pass_ = virtualTime_;
+		priorityClasses_.addElement(priorityClass);
+
+		return priorityClass;
+	}
+
+	/**
+	 * Get the registered priority class with the given name.
+	 *
+	 * @param name The name of the class.
+	 * @return The priority class, or null if there is no class with this name.
+	 * @preconditions (name <> null)
+	 * @postconditions
+	 */
+	public synchronized PriorityClass getPriorityClass(String name) {
+		for (int i = 0; i < priorityClasses_.size(); i++) {
+			PriorityClass priorityClass = (PriorityClass) priorityClasses_.elementAt(i);
+			if (priorityClass.name_.equals(name)) {
+				return priorityClass;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Get all registered priority classes.
+	 *
+	 * @return The registered priority classes.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	public synchronized PriorityClass[] getPriorityClasses() {
+		PriorityClass[] priorityClasses = new PriorityClass[priorityClasses_.size()];
+		priorityClasses_.copyInto(priorityClasses);
+
+		return priorityClasses;
+	}
+
+	/**
+	 * Get the token of this scheduler.
+	 *
+	 * @return The token.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	public Token getToken() {
+		return token_;
+	}
+
+	/**
+	 * Get all sessions of this scheduler; e.g. to log in the user once. Notice
+	 * that the sessions must not be used directly for operations while the
+	 * scheduler hands them out.
+	 *
+	 * @return The sessions of this scheduler.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	public Session[] getSessions() {
+		return (Session[]) sessions_.clone();
+	}
+
+	/**
+	 * Get a session for the given class. Blocks until a session is available
+	 * and it is the turn of this class. The application must give the session
+	 * back by calling <code>releaseSession</code>.
+	 *
+	 * @param priorityClass The class of the operation.
+	 * @return The session, which may be used exclusively until it is released.
+	 * @exception TokenException If the scheduler has been closed or if the
+	 *                           calling thread has been interrupted while
+	 *                           waiting.
+	 * @preconditions (priorityClass <> null)
+	 * @postconditions (result <> null)
+	 */
+	public Session acquireSession(PriorityClass priorityClass)
+	    throws TokenException
+	{
+		if (priorityClass == null) {
+			throw new NullPointerException("Argument \"priorityClass\" must not be null.");
+		}
+		Lease lease = new Lease(priorityClass);
+
+		synchronized (this) {
+			if (closed_) {
+				throw new TokenException("The session scheduler has been closed.");
+			}
+			if (priorityClass.waiters_.isEmpty()) {
+				// the class becomes active, it must not profit from being idle
+				priorityClass.pass_ = Math.max(priorityClass.pass_, virtualTime_);
+			}
+			priorityClass.waiters_.addElement(lease);
+			dispatch();
+		}
+
+		InterruptedException interruption = null;
+		synchronized (lease) {
+			try {
+				while ((lease.session_ == null) && !lease.cancelled_) {
+					lease.wait();
+				}
+			} catch (InterruptedException ex) {
+				interruption = ex;
+			}
+		}
+		if (interruption != null) {
+			Session grantedSession = null;
+			synchronized (this) {
+				if (!priorityClass.waiters_.removeElement(lease)) {
+					// a session may have been granted meanwhile
+					grantedSession = lease.session_;
+				}
+			}
+			if (grantedSession != null) {
+				releaseSession(grantedSession);
+			}
+			Thread.currentThread().interrupt();
+			throw new TokenException("Interrupted while waiting for a session.", interruption);
+		}
+		if (lease.cancelled_) {
+			throw new TokenException("The session scheduler has been closed.");
+		}
+		priorityClass.waitHistogram_.recordValue(lease.grantTime_ - lease.requestTime_);
+
+		Session session = lease.session_;
+		if (isStale(session)) {
+			try {
+				reopenSession(session);
+			} catch (TokenException ex) {
+				releaseSession(session);
+				throw ex;
+			}
+		}
+
+		return session;
+	}
+
+	/**
+	 * Give back a session obtained from <code>acquireSession</code>. The
+	 * session time is charged to the class that acquired the session.
+	 *
+	 * @param session The session to release.
+	 * @preconditions (session <> null)
+	 * @postconditions
+	 */
+	public void releaseSession(Session session) {
+		if (session == null) {
+			throw new NullPointerException("Argument \"session\" must not be null.");
+		}
+		long releaseTime = System.nanoTime();
+		Lease lease;
+
+		synchronized (this) {
+			lease = (Lease) activeLeases_.remove(session);
+			if (lease == null) {
+				throw new IllegalArgumentException("The session is not in use by this scheduler.");
+			}
+			PriorityClass priorityClass = lease.priorityClass_;
+			priorityClass.pass_ += Math.max(1L, releaseTime - lease.grantTime_)
+			    / priorityClass.weight_;
+			idleSessions_.addElement(session);
+			dispatch();
+		}
+		lease.priorityClass_.latencyHistogram_.recordValue(releaseTime - lease.requestTime_);
+	}
+
+	/**
+	 * Execute the given operation with a session as soon as it is the turn of
+	 * the given class. The session is released after the operation, also if it
+	 * fails.
+	 *
+	 * @param priorityClass The class of the operation.
+	 * @param operation The operation to execute.
+	 * @return The result of the operation.
+	 * @exception TokenException If getting a session or executing the operation
+	 *                           fails.
+	 * @preconditions (priorityClass <> null) and (operation <> null)
+	 * @postconditions
+	 */
+	public java.lang.Object execute(PriorityClass priorityClass, Operation operation)
+	    throws TokenException
+	{
+		if (operation == null) {
+			throw new NullPointerException("Argument \"operation\" must not be null.");
+		}
+		long deadline = 0L;
+		int attempt = 0;
+
+		while (true) {
+			Session session = null;
+			try {
+				session = acquireSession(priorityClass);
+				return operation.execute(session);
+			} catch (TokenException ex) {
+				int recovery = getRecovery(ex);
+				if (recovery == Recovery.NONE) {
+					throw ex;
+				}
+				markForRecovery(session, recovery);
+				if (!(operation instanceof IdempotentOperation)) {
+					throw ex;
+				}
+				long now = System.currentTimeMillis();
+				if (deadline == 0L) {
+					deadline = now + recoveryTimeoutMillis_;
+				}
+				if (now >= deadline) {
+					throw ex;
+				}
+				if (attempt > 0) {
+					// the token may need some time to come back; wait at most one second
+					long delay = Math.min(25L << Math.min(attempt, 6), 1000L);
+					try {
+						Thread.sleep(Math.min(delay, deadline - now));
+					} catch (InterruptedException ex2) {
+						Thread.currentThread().interrupt();
+						throw ex;
+					}
+				}
+				attempt++;
+			} finally {
+				if (session != null) {
+					releaseSession(session);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the key matching the given template; e.g. a private key template
+	 * with the CKA_ID set. The key is searched with the given session only the
+	 * first time and after a recovery; otherwise, the cached key is returned.
+	 * Operations should call this method each time instead of holding keys
+	 * across calls, because object handles may change when the token gets
+	 * reset.
+	 *
+	 * @param session The session to search with; i.e. the session passed to
+	 *                the operation.
+	 * @param keyTemplate The template identifying the key. It must contain the
+	 *                    CKA_ID and should contain the object class.
+	 * @return The key, or null if there is no such key on the token.
+	 * @exception TokenException If searching for the key fails.
+	 * @preconditions (session <> null) and (keyTemplate <> null)
+	 * @postconditions
+	 */
+	public Key getKey(Session session, Key keyTemplate)
+	    throws TokenException
+	{
+		String routingKey = getRoutingKey(keyTemplate);
+		Key key = (Key) keys_.get(routingKey);
+		if (key == null) {
+			session.findObjectsInit(keyTemplate);
+			try {
+				Object[] foundObjects = session.findObjects(1);
+				if ((foundObjects.length > 0) && (foundObjects[0] instanceof Key)) {
+					key = (Key) foundObjects[0];
+					keys_.put(routingKey, key);
+				}
+			} finally {
+				session.findObjectsFinal();
+			}
+		}
+
+		return key;
+	}
+
+	/**
+	 * Get the key that identifies keys with the given template in the cache;
+	 * i.e. the object class and the CKA_ID.
+	 *
+	 * @param keyTemplate The key template.
+	 * @return The routing key.
+	 * @preconditions (keyTemplate <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected static String getRoutingKey(Key keyTemplate) {
+		byte[] id = keyTemplate.getId().getByteArrayValue();
+		if (id == null) {
+			throw new IllegalArgumentException("The key template must contain a CKA_ID.");
+		}
+		Long objectClass = keyTemplate.getObjectClass().getLongValue();
+
+		return ((objectClass != null) ? Functions.toHexString(objectClass.longValue()) : "*")
+		    + ":" + Functions.toHexString(id);
+	}
+
+	/**
+	 * Get the PKCS#11 error code of the given exception or of the exception
+	 * it encapsulates.
+	 *
+	 * @param exception The exception.
+	 * @return The error code, or -1 if there is no PKCS11Exception.
+	 * @preconditions (exception <> null)
+	 * @postconditions
+	 */
+	protected static long getErrorCode(TokenException exception) {
+		Exception cause = exception;
+		if (!(cause instanceof PKCS11Exception)) {
+			cause = exception.getEncapsulatedException();
+		}
+
+		return (cause instanceof PKCS11Exception) ? ((PKCS11Exception) cause).getErrorCode()
+		    : -1L;
+	}
+
+	/**
+	 * Determine what must be recovered after the given failure.
+	 *
+	 * @param exception The exception of the failure.
+	 * @return One of the constants defined in Recovery.
+	 * @preconditions (exception <> null)
+	 * @postconditions
+	 */
+	protected static int getRecovery(TokenException exception) {
+		long errorCode = getErrorCode(exception);
+		int recovery;
+
+		if ((errorCode == PKCS11Constants.CKR_OBJECT_HANDLE_INVALID)
+		    || (errorCode == PKCS11Constants.CKR_KEY_HANDLE_INVALID)) {
+			recovery = Recovery.KEYS;
+		} else if ((errorCode == PKCS11Constants.CKR_SESSION_HANDLE_INVALID)
+		    || (errorCode == PKCS11Constants.CKR_SESSION_CLOSED)
+		    || (errorCode == PKCS11Constants.CKR_USER_NOT_LOGGED_IN)) {
+			recovery = Recovery.SESSION;
+		} else if ((errorCode == PKCS11Constants.CKR_DEVICE_REMOVED)
+		    || (errorCode == PKCS11Constants.CKR_DEVICE_ERROR)
+		    || (errorCode == PKCS11Constants.CKR_TOKEN_NOT_PRESENT)
+		    || (errorCode == PKCS11Constants.CKR_TOKEN_NOT_RECOGNIZED)) {
+			recovery = Recovery.TOKEN;
+		} else {
+			recovery = Recovery.NONE;
+		}
+
+		return recovery;
+	}
+
+	/**
+	 * Mark the given session or all sessions for recovery.
+	 *
+	 * @param session The session that failed. May be null, if the failure
+	 *                occurred while getting a session.
+	 * @param recovery One of the constants defined in Recovery.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected synchronized void markForRecovery(Session session, int recovery) {
+		if (recovery >= Recovery.KEYS) {
+			keys_.clear();
+		}
+		if ((recovery == Recovery.SESSION) && (session != null)) {
+			sessionGenerations_.put(session, new Long(-1L));
+		}
+		if (recovery >= Recovery.SESSION) {
+			// cached token and session infos of the module are out of date
+			token_.getSlot().getModule().invalidateInfos(token_.getSlot().getSlotID());
+		}
+		if (recovery == Recovery.TOKEN) {
+			generation_++;
+		}
+	}
+
+	/**
+	 * Marks all sessions and keys for recovery, if a token was inserted into
+	 * the slot of this scheduler; i.e. the token was replaced.
+	 *
+	 * @param slot The slot of the event.
+	 * @preconditions (slot <> null)
+	 * @postconditions
+	 */
+	public void tokenInserted(Slot slot) {
+		if (slot.equals(token_.getSlot())) {
+			markForRecovery(null, Recovery.TOKEN);
+		}
+	}
+
+	/**
+	 * Marks all sessions and keys for recovery, if the token of this scheduler
+	 * was removed.
+	 *
+	 * @param slot The slot of the event.
+	 * @preconditions (slot <> null)
+	 * @postconditions
+	 */
+	public void tokenRemoved(Slot slot) {
+		if (slot.equals(token_.getSlot())) {
+			markForRecovery(null, Recovery.TOKEN);
+		}
+	}
+
+	/**
+	 * Check, if the given session must be reopened before it can be used.
+	 *
+	 * @param session The session.
+	 * @return True, if the session is from an older generation.
+	 * @preconditions (session <> null)
+	 * @postconditions
+	 */
+	protected synchronized boolean isStale(Session session) {
+		Long sessionGeneration = (Long) sessionGenerations_.get(session);
+
+		return (sessionGeneration == null) || (sessionGeneration.longValue() < generation_);
+	}
+
+	/**
+	 * Reopen the given session and log it in again, if required. The session
+	 * object keeps its identity; only its handle changes. The calling thread
+	 * must have acquired the session.
+	 *
+	 * @param session The session to reopen.
+	 * @exception TokenException If opening or logging in the session fails.
+	 * @preconditions (session <> null)
+	 * @postconditions
+	 */
+	protected void reopenSession(Session session)
+	    throws TokenException
+	{
+		long generation;
+		synchronized (this) {
+			generation = generation_;
+		}
+		try {
+			session.closeSession();
+		} catch (TokenException ex) {
+			// the old handle is most likely invalid already
+		}
+		Session newSession = token_.openSession(Token.SessionType.SERIAL_SESSION, rwSession_,
+		    null, null);
+		session.sessionHandle_ = newSession.sessionHandle_;
+		login(session);
+		synchronized (this) {
+			sessionGenerations_.put(session, new Long(generation));
+		}
+	}
+
+	/**
+	 * Log in the given session with the credentials given to
+	 * <code>setLogin</code>. Does nothing, if no login is required or if the
+	 * user is already logged in.
+	 *
+	 * @param session The session to log in.
+	 * @exception TokenException If logging in fails.
+	 * @preconditions (session <> null)
+	 * @postconditions
+	 */
+	protected void login(Session session)
+	    throws TokenException
+	{
+		boolean userType;
+		char[] pin;
+		synchronized (this) {
+			if (!loginRequired_) {
+				return;
+			}
+			userType = userType_;
+			pin = pin_;
+		}
+		try {
+			session.login(userType, pin);
+		} catch (PKCS11Exception ex) {
+			if (ex.getErrorCode() != PKCS11Constants.CKR_USER_ALREADY_LOGGED_IN) {
+				throw ex;
+			}
+		}
+	}
+
+	/**
+	 * Hands out idle sessions to the waiting classes. The class with the lowest
+	 * pass gets the next session. Must be called while holding the lock of this
+	 * object.
+	 *
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected void dispatch() {
+		while (!idleSessions_.isEmpty()) {
+			PriorityClass nextClass = null;
+			for (int i = 0; i < priorityClasses_.size(); i++) {
+				PriorityClass priorityClass = (PriorityClass) priorityClasses_.elementAt(i);
+				if (!priorityClass.waiters_.isEmpty()
+				    && ((nextClass == null) || (priorityClass.pass_ < nextClass.pass_))) {
+					nextClass = priorityClass;
+				}
+			}
+			if (nextClass == null) {
+				break;
+			}
+			Lease lease = (Lease) nextClass.waiters_.remove(0);
+			Session session = (Session) idleSessions_.remove(idleSessions_.size() - 1);
+			virtualTime_ = nextClass.pass_;
+			activeLeases_.put(session, lease);
+			synchronized (lease) {
+				lease.grantTime_ = System.nanoTime();
+				lease.session_ = session;
+				lease.notify();
+			}
+		}
+	}
+
+	/**
+	 * Closes all sessions of this scheduler. Threads still waiting for a
+	 * session get an exception. Sessions currently in use are closed as well;
+	 * thus, the application should only call this method when no operations
+	 * are in progress.
+	 *
+	 * @exception TokenException If closing a session fails.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public void close()
+	    throws TokenException
+	{
+		synchronized (this) {
+			if (closed_) {
+				return;
+			}
+			closed_ = true;
+			for (int i = 0; i < priorityClasses_.size(); i++) {
+				PriorityClass priorityClass = (PriorityClass) priorityClasses_.elementAt(i);
+				while (!priorityClass.waiters_.isEmpty()) {
+					Lease lease = (Lease) priorityClass.waiters_.remove(0);
+					synchronized (lease) {
+						lease.cancelled_ = true;
+						lease.notify();
+					}
+				}
+			}
+			idleSessions_.removeAllElements();
+			if (pin_ != null) {
+				Arrays.fill(pin_, '\0');
+				pin_ = null;
+			}
+		}
+		TokenException exception = null;
+		for (int i = 0; i < sessions_.length; i++) {
+			try {
+				sessions_[i].closeSession();
+			} catch (TokenException ex) {
+				exception = ex;
+			}
+		}
+		if (exception != null) {
+			throw exception;
+		}
+	}
+
+	/**
+	 * Returns the string representation of this object.
+	 *
+	 * @return the string representation of this object
+	 */
+	public synchronized String toString() {
+		StringBuffer buffer = new StringBuffer();
+
+		buffer.append("Sessions: ");
+		buffer.append(sessions_.length);
+		buffer.append(Constants.NEWLINE);
+		buffer.append("Idle Sessions: ");
+		buffer.append(idleSessions_.size());
+		for (int i = 0; i < priorityClasses_.size(); i++) {
+			buffer.append(Constants.NEWLINE);
+			buffer.append(priorityClasses_.elementAt(i).toString());
+		}
+
+		return buffer.toString();
+	}
+
+}
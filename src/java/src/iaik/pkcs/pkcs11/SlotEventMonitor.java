@@ -0,0 +1,614 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+package iaik.pkcs.pkcs11;
+
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+
+import java.util.Hashtable;
+import java.util.Vector;
+import java.util.concurrent.Executor;
+
+/**
+ * A slot event monitor watches the slots of a module in a background thread
+ * and informs its listeners when a token gets inserted or removed. Thus, the
+ * components of an application do not need to poll getSlotList and
+ * getTokenInfo or block their own threads in waitForSlotEvent.
+ * <pre><code>
+ *   SlotEventMonitor monitor = new SlotEventMonitor(pkcs11Module, executor);
+ *   monitor.addListener(scheduler);
+ *   monitor.start();
+ *   ...
+ *   monitor.stop();
+ *   pkcs11Module.finalize(null);
+ * </code></pre>
+ * The thread calls C_WaitForSlotEvent in blocking mode. If the module does
+ * not support this, it polls with C_WaitForSlotEvent in non-blocking mode;
+ * if the module does not support this either, it polls the list of slots
+ * with a token. The polling interval starts at the minimum interval after
+ * each event and doubles up to the maximum interval while nothing happens.
+ * For each event, the module drops its cached mechanism table and token and
+ * session infos of the slot before the listeners get informed.
+ * The listeners are called through the executor given to the constructor,
+ * or directly in the thread of the monitor, if there is none. Each listener
+ * gets its events one after the other in the order they occurred, even if the
+ * executor has several threads; different listeners may run concurrently.
+ * <p>
+ * A thread blocked in C_WaitForSlotEvent cannot be interrupted. It returns
+ * when the module gets finalized; therefore, the application should stop the
+ * monitor and then finalize the module.
+ *
+ * @see iaik.pkcs.pkcs11.Module#waitForSlotEvent(boolean, Object)
+ * @version 1.0
+ * @invariants (module_ <> null)
+ *             and (listeners_ <> null)
+ */
+public class SlotEventMonitor implements Runnable {
+
+	/**
+	 * A listener for slot events; e.g. a session pool that must reopen its
+	 * sessions after the token was replaced.
+	 *
+	 * @version 1.0
+	 * @invariants
+	 */
+	public interface SlotEventListener {
+
+		/**
+		 * A token was inserted into the given slot.
+		 *
+		 * @param slot The slot of the token.
+		 * @preconditions (slot <> null)
+		 * @postconditions
+		 */
+		public void tokenInserted(Slot slot);
+
+		/**
+		 * The token was removed from the given slot. If a token got replaced
+		 * by another one, the listener gets tokenRemoved followed by
+		 * tokenInserted.
+		 *
+		 * @param slot The slot of the token.
+		 * @preconditions (slot <> null)
+		 * @postconditions
+		 */
+		public void tokenRemoved(Slot slot);
+
+	}
+
+	/**
+	 * The pending events of one listener. At most one task of a queue runs in
+	 * the executor at any time; it delivers the events one after the other.
+	 *
+	 * @version 1.0
+	 * @invariants (listener_ <> null)
+	 *             and (events_ <> null)
+	 */
+	protected class ListenerQueue implements Runnable {
+
+		/**
+		 * The listener of this queue.
+		 */
+		protected SlotEventListener listener_;
+
+		/**
+		 * The pending events; alternating the Slot and Boolean.TRUE for an
+		 * inserted or Boolean.FALSE for a removed token.
+		 */
+		protected Vector events_;
+
+		/**
+		 * True, if a task of this queue has been handed to the executor and has
+		 * not finished yet.
+		 */
+		protected boolean scheduled_;
+
+		/**
+		 * Create a new queue for the given listener.
+		 *
+		 * @param listener The listener.
+		 * @preconditions (listener <> null)
+		 * @postconditions
+		 */
+		protected ListenerQueue(SlotEventListener listener) {
+			listener_ = listener;
+			events_ = new Vector();
+		}
+
+		/**
+		 * Add an event and hand a task to the executor, if none is running for
+		 * this queue; without executor, deliver the event at once.
+		 *
+		 * @param slot The slot of the event.
+		 * @param tokenInserted True, if a token was inserted; false, if it was
+		 *                      removed.
+		 * @preconditions (slot <> null)
+		 * @postconditions
+		 */
+		protected void add(Slot slot, boolean tokenInserted) {
+			synchronized (this) {
+				events_.addElement(slot);
+				events_.addElement(tokenInserted ? Boolean.TRUE : Boolean.FALSE);
+				if (scheduled_) {
+					return;
+				}
+				scheduled_ = true;
+			}
+			if (executor_ == null) {
+				run();
+				return;
+			}
+			try {
+				executor_.execute(this);
+			} catch (Throwable ex) {
+				// a rejecting executor must not stop the monitor; drop the events
+				synchronized (this) {
+					events_.removeAllElements();
+					scheduled_ = false;
+				}
+			}
+		}
+
+		/**
+		 * Deliver the pending events until the queue is empty. Do not call this
+		 * method directly.
+		 *
+		 * @preconditions
+		 * @postconditions
+		 */
+		public void run() {
+			while (true) {
+				Slot slot;
+				boolean tokenInserted;
+				synchronized (this) {
+					if (events_.isEmpty()) {
+						scheduled_ = false;
+						return;
+					}
+					slot = (Slot) events_.remove(0);
+					tokenInserted = ((Boolean) events_.remove(0)).booleanValue();
+				}
+				try {
+					if (tokenInserted) {
+						listener_.tokenInserted(slot);
+					} else {
+						listener_.tokenRemoved(slot);
+					}
+				} catch (Throwable ex) {
+					// a failing listener must not stop the delivery of the next events
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * The default minimum polling interval in milliseconds.
+	 */
+	public static final long DEFAULT_MIN_POLLING_INTERVAL = 100L;
+
+	/**
+	 * The default maximum polling interval in milliseconds.
+	 */
+	public static final long DEFAULT_MAX_POLLING_INTERVAL = 5000L;
+
+	/**
+	 * The monitor waits for events with blocking C_WaitForSlotEvent calls.
+	 */
+	public static final int MODE_BLOCKING = 0;
+
+	/**
+	 * The monitor polls with non-blocking C_WaitForSlotEvent calls.
+	 */
+	public static final int MODE_POLLING_EVENTS = 1;
+
+	/**
+	 * The monitor polls the list of slots with a token.
+	 */
+	public static final int MODE_POLLING_SLOTS = 2;
+
+	/**
+	 * The module to monitor.
+	 */
+	protected Module module_;
+
+	/**
+	 * The executor for calling the listeners, or null to call them in the
+	 * monitor thread.
+	 */
+	protected Executor executor_;
+
+	/**
+	 * The queues of the registered listeners (ListenerQueue).
+	 */
+	protected Vector listeners_;
+
+	/**
+	 * The minimum polling interval in milliseconds.
+	 */
+	protected long minPollingInterval_;
+
+	/**
+	 * The maximum polling interval in milliseconds.
+	 */
+	protected long maxPollingInterval_;
+
+	/**
+	 * The current way of waiting for events; one of the MODE_ constants.
+	 */
+	protected volatile int mode_;
+
+	/**
+	 * The thread of this monitor, or null if it is not running.
+	 */
+	protected volatile Thread thread_;
+
+	/**
+	 * The slots with a token present as known to this monitor. The key is the
+	 * slot ID as Long, the value is the Slot. Only the monitor thread accesses
+	 * this table after start.
+	 */
+	protected Hashtable tokenSlots_;
+
+	/**
+	 * Create a new monitor for the given module with the default polling
+	 * intervals.
+	 *
+	 * @param module The initialized module to monitor.
+	 * @param executor The executor for calling the listeners, or null to call
+	 *                 them in the monitor thread.
+	 * @preconditions (module <> null)
+	 * @postconditions
+	 */
+	public SlotEventMonitor(Module module, Executor executor) {
+		this(module, executor, DEFAULT_MIN_POLLING_INTERVAL, DEFAULT_MAX_POLLING_INTERVAL);
+	}
+
+	/**
+	 * Create a new monitor for the given module.
+	 *
+	 * @param module The initialized module to monitor.
+	 * @param executor The executor for calling the listeners, or null to call
+	 *                 them in the monitor thread.
+	 * @param minPollingInterval The polling interval in milliseconds after an
+	 *                           event, if the module does not support blocking.
+	 * @param maxPollingInterval The longest polling interval in milliseconds.
+	 * @preconditions (module <> null)
+	 *                and (minPollingInterval > 0)
+	 *                and (maxPollingInterval >= minPollingInterval)
+	 * @postconditions
+	 */
+	public SlotEventMonitor(Module module, Executor executor, long minPollingInterval,
+	                        long maxPollingInterval)
+	{
+		if (module == null) {
+			throw new NullPointerException("Argument \"module\" must not be null.");
+		}
+		if ((minPollingInterval <= 0) || (maxPollingInterval < minPollingInterval)) {
+			throw new IllegalArgumentException("Invalid polling intervals: " + minPollingInterval
+			    + ", " + maxPollingInterval);
+		}
+		module_ = module;
+		executor_ = executor;
+		minPollingInterval_ = minPollingInterval;
+		maxPollingInterval_ = maxPollingInterval;
+		listeners_ = new Vector();
+		tokenSlots_ = new Hashtable();
+		mode_ = MODE_BLOCKING;
+	}
+
+	/**
+	 * Add a listener. It gets all events after this call.
+	 *
+	 * @param listener The listener to add.
+	 * @preconditions (listener <> null)
+	 * @postconditions
+	 */
+	public void addListener(SlotEventListener listener) {
+		if (listener == null) {
+			throw new NullPointerException("Argument \"listener\" must not be null.");
+		}
+		listeners_.addElement(new ListenerQueue(listener));
+	}
+
+	/**
+	 * Remove a listener.
+	 *
+	 * @param listener The listener to remove.
+	 * @return True, if the listener was registered.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public boolean removeListener(SlotEventListener listener) {
+		synchronized (listeners_) {
+			for (int i = 0; i < listeners_.size(); i++) {
+				if (((ListenerQueue) listeners_.elementAt(i)).listener_.equals(listener)) {
+					listeners_.removeElementAt(i);
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Start the monitor thread. It reads the slots with a token first; thus,
+	 * the listeners get no events for the tokens present at the start.
+	 *
+	 * @exception TokenException If reading the slot list fails.
+	 * @preconditions (!isRunning())
+	 * @postconditions (isRunning())
+	 */
+	public synchronized void start()
+	    throws TokenException
+	{
+		if (thread_ != null) {
+			throw new IllegalStateException("The monitor is running already.");
+		}
+		tokenSlots_.clear();
+		Slot[] slots = module_.getSlotList(Module.SlotRequirement.TOKEN_PRESENT);
+		for (int i = 0; i < slots.length; i++) {
+			tokenSlots_.put(new Long(slots[i].getSlotID()), slots[i]);
+		}
+		Thread thread = new Thread(this, "PKCS#11 Slot Event Monitor");
+		thread.setDaemon(true);
+		thread_ = thread;
+		thread.start();
+	}
+
+	/**
+	 * Stop the monitor thread. A polling thread stops at once; a thread blocked
+	 * in C_WaitForSlotEvent stops after the next event or when the module gets
+	 * finalized. The listeners get no events after this call.
+	 *
+	 * @preconditions
+	 * @postconditions (!isRunning())
+	 */
+	public synchronized void stop() {
+		Thread thread = thread_;
+		if (thread != null) {
+			thread_ = null;
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * Check, if the monitor thread is running.
+	 *
+	 * @return True, if it was started and not stopped yet.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public boolean isRunning() {
+		return thread_ != null;
+	}
+
+	/**
+	 * Get the current way of waiting for events. It changes from blocking to
+	 * polling, if the module does not support blocking.
+	 *
+	 * @return One of the MODE_ constants.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public int getMode() {
+		return mode_;
+	}
+
+	/**
+	 * The loop of the monitor thread. Do not call this method directly; use
+	 * start instead.
+	 *
+	 * @preconditions
+	 * @postconditions
+	 */
+	public void run() {
+		Thread currentThread = Thread.currentThread();
+		long pollingInterval = minPollingInterval_;
+
+		while (thread_ == currentThread) {
+			try {
+				boolean event;
+				if (mode_ == MODE_BLOCKING) {
+					event = waitForEvent(false);
+				} else if (mode_ == MODE_POLLING_EVENTS) {
+					event = waitForEvent(true);
+				} else {
+					event = pollSlots();
+				}
+				if ((mode_ != MODE_BLOCKING) && (thread_ == currentThread)) {
+					pollingInterval = event ? minPollingInterval_ : Math.min(2 * pollingInterval,
+					    maxPollingInterval_);
+					Thread.sleep(pollingInterval);
+				}
+			} catch (InterruptedException ex) {
+				// stop was called
+			} catch (PKCS11Exception ex) {
+				long errorCode = ex.getErrorCode();
+				if ((errorCode == PKCS11Constants.CKR_FUNCTION_NOT_SUPPORTED)
+				    && (mode_ != MODE_POLLING_SLOTS)) {
+					mode_++;
+				} else if (errorCode == PKCS11Constants.CKR_CRYPTOKI_NOT_INITIALIZED) {
+					// the module has been finalized
+					break;
+				} else if (!sleep(maxPollingInterval_)) {
+					break;
+				}
+			} catch (TokenException ex) {
+				if (!sleep(maxPollingInterval_)) {
+					break;
+				}
+			}
+		}
+
+		synchronized (this) {
+			if (thread_ == currentThread) {
+				thread_ = null;
+			}
+		}
+	}
+
+	/**
+	 * Wait for the next event with C_WaitForSlotEvent and dispatch it.
+	 *
+	 * @param dontBlock True, to return at once if there is no event.
+	 * @return True, if there was an event.
+	 * @exception TokenException If waiting fails; CKR_NO_EVENT is no failure.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected boolean waitForEvent(boolean dontBlock)
+	    throws TokenException
+	{
+		Slot slot;
+		try {
+			slot = module_.waitForSlotEvent(dontBlock, null);
+		} catch (PKCS11Exception ex) {
+			if (ex.getErrorCode() == PKCS11Constants.CKR_NO_EVENT) {
+				return false;
+			}
+			throw ex;
+		}
+		if (thread_ != Thread.currentThread()) {
+			// stop was called while this thread was blocked in the module
+			return false;
+		}
+		boolean tokenPresent;
+		try {
+			tokenPresent = slot.getSlotInfo().isTokenPresent();
+		} catch (PKCS11Exception ex) {
+			if (ex.getErrorCode() != PKCS11Constants.CKR_SLOT_ID_INVALID) {
+				throw ex;
+			}
+			// the slot itself has gone; e.g. a removed reader
+			tokenPresent = false;
+		}
+		Long slotID = new Long(slot.getSlotID());
+		if (tokenSlots_.remove(slotID) != null) {
+			dispatch(slot, false);
+		}
+		if (tokenPresent) {
+			tokenSlots_.put(slotID, slot);
+			dispatch(slot, true);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Compare the current list of slots with a token to the known one and
+	 * dispatch the differences.
+	 *
+	 * @return True, if there was a difference.
+	 * @exception TokenException If reading the slot list fails.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected boolean pollSlots()
+	    throws TokenException
+	{
+		Slot[] slots = module_.getSlotList(Module.SlotRequirement.TOKEN_PRESENT);
+		Hashtable currentTokenSlots = new Hashtable(slots.length * 2 + 1);
+		for (int i = 0; i < slots.length; i++) {
+			currentTokenSlots.put(new Long(slots[i].getSlotID()), slots[i]);
+		}
+		boolean event = false;
+		Object[] knownSlots = tokenSlots_.values().toArray();
+		for (int i = 0; i < knownSlots.length; i++) {
+			Slot slot = (Slot) knownSlots[i];
+			if (!currentTokenSlots.containsKey(new Long(slot.getSlotID()))) {
+				module_.slotChanged(slot.getSlotID());
+				dispatch(slot, false);
+				event = true;
+			}
+		}
+		for (int i = 0; i < slots.length; i++) {
+			if (!tokenSlots_.containsKey(new Long(slots[i].getSlotID()))) {
+				module_.slotChanged(slots[i].getSlotID());
+				dispatch(slots[i], true);
+				event = true;
+			}
+		}
+		tokenSlots_ = currentTokenSlots;
+
+		return event;
+	}
+
+	/**
+	 * Inform all listeners about an event, through the executor if there is
+	 * one. The event is queued behind the earlier events of each listener. An
+	 * exception of a listener does not stop the monitor. If the monitor was
+	 * stopped, the remaining listeners are not informed.
+	 *
+	 * @param slot The slot of the event.
+	 * @param tokenInserted True, if a token was inserted; false, if it was
+	 *                      removed.
+	 * @preconditions (slot <> null)
+	 * @postconditions
+	 */
+	protected void dispatch(Slot slot, boolean tokenInserted) {
+		Object[] listeners = listeners_.toArray();
+		Thread currentThread = Thread.currentThread();
+		for (int i = 0; (i < listeners.length) && (thread_ == currentThread); i++) {
+			((ListenerQueue) listeners[i]).add(slot, tokenInserted);
+		}
+	}
+
+	/**
+	 * Sleep for the given time.
+	 *
+	 * @param millis The time in milliseconds.
+	 * @return False, if the sleep was interrupted; i.e. the monitor gets stopped.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected boolean sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+			return true;
+		} catch (InterruptedException ex) {
+			return false;
+		}
+	}
+
+}
@@ -44,7 +44,6 @@ package iaik.pkcs.pkcs11;
 
 import iaik.pkcs.pkcs11.wrapper.CK_MECHANISM_INFO;
 import iaik.pkcs.pkcs11.wrapper.CK_NOTIFY;
-import iaik.pkcs.pkcs11.wrapper.CK_TOKEN_INFO;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
 
@@ -77,6 +76,8 @@ import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
  *     }
  *   }
  * </code></pre>
+ * The module reads the mechanisms and their information once per slot; see
+ * getMechanismInfoTable for a check without creating objects.
  * Being sure that the token supports the required mechanism, the application
  * can open a session. For example, it may call
  * <pre><code>
@@ -86,6 +87,7 @@ import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
  *
  * @see iaik.pkcs.pkcs11.Mechanism
  * @see iaik.pkcs.pkcs11.MechanismInfo
+ * @see iaik.pkcs.pkcs11.MechanismInfoTable
  * @see iaik.pkcs.pkcs11.Session
  * @see iaik.pkcs.pkcs11.TokenInfo
  * @author <a href="mailto:Karl.Scheibelhofer@iaik.at"> Karl Scheibelhofer </a>
@@ -211,7 +213,8 @@ public class Token {
 	}
 
 	/**
-	 * Get information about this token.
+	 * Get information about this token. If the module caches token infos, this
+	 * method may return a cached snapshot; see Module.setTokenInfoTimeToLive.
 	 *
 	 * @return An object containing information about this token.
 	 * @exception TokenException If reading the information fails.
@@ -221,10 +224,41 @@ public class Token {
 	public TokenInfo getTokenInfo()
 	    throws TokenException
 	{
-		CK_TOKEN_INFO ckTokenInfo = slot_.getModule().getPKCS11Module()
-		    .C_GetTokenInfo(slot_.getSlotID());
+		return slot_.getModule().getTokenInfo(slot_.getSlotID());
+	}
+
+	/**
+	 * Read the information about this token from the module, even if the module
+	 * has a cached snapshot that did not expire yet.
+	 *
+	 * @return An object containing the current information about this token.
+	 * @exception TokenException If reading the information fails.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	public TokenInfo refreshTokenInfo()
+	    throws TokenException
+	{
+		return slot_.getModule().refreshTokenInfo(slot_.getSlotID());
+	}
 
-		return new TokenInfo(ckTokenInfo);
+	/**
+	 * Read only the flags and counters of this token, like the session counts
+	 * and the free memory, and combine them with the other information of the
+	 * cached snapshot. This avoids converting the strings, versions and time of
+	 * the token info. Without a cached snapshot, this method reads the complete
+	 * information like refreshTokenInfo.
+	 *
+	 * @return An object containing information about this token with current
+	 *         flags and counters.
+	 * @exception TokenException If reading the information fails.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	public TokenInfo refreshTokenInfoCounters()
+	    throws TokenException
+	{
+		return slot_.getModule().refreshTokenInfoCounters(slot_.getSlotID());
 	}
 
 	/**
@@ -241,11 +275,10 @@ public class Token {
 	public Mechanism[] getMechanismList()
 	    throws TokenException
 	{
-		long[] mechanismIdList = slot_.getModule().getPKCS11Module()
-		    .C_GetMechanismList(slot_.getSlotID());
-		Mechanism[] mechanisms = new Mechanism[mechanismIdList.length];
+		MechanismInfoTable mechanismInfoTable = getMechanismInfoTable();
+		Mechanism[] mechanisms = new Mechanism[mechanismInfoTable.size()];
 		for (int i = 0; i < mechanisms.length; i++) {
-			mechanisms[i] = new Mechanism(mechanismIdList[i]);
+			mechanisms[i] = new Mechanism(mechanismInfoTable.getMechanismCode(i));
 		}
 
 		return mechanisms;
@@ -254,23 +287,64 @@ public class Token {
 	/**
 	 * Get mor information about one supported mechanism. The application can
 	 * find out, e.g. if an algorithm supports the certain key length.
+	 * The information comes from the mechanism info table. If the table does
+	 * not list the mechanism, this method asks the module with
+	 * C_GetMechanismInfo, because some modules support mechanisms that they do
+	 * not report in C_GetMechanismList.
 	 *
 	 * @param mechanism A mechanism that is supported by this token.
 	 * @return An information object about the concerned mechanism.
 	 * @exception TokenException If reading the information fails, or if the
 	 *                           mechansim is not supported by this token.
 	 * @preconditions (mechanism <> null)
-	 *                and (getMechanismList() contains mechanism)
 	 * @postconditions (result <> null)
 	 */
 	public MechanismInfo getMechanismInfo(Mechanism mechanism)
 	    throws TokenException
 	{
 		long mechanismCode = mechanism.getMechanismCode();
-		CK_MECHANISM_INFO ckMechanismInfo = slot_.getModule().getPKCS11Module()
-		    .C_GetMechanismInfo(slot_.getSlotID(), mechanismCode);
+		MechanismInfo mechanismInfo = getMechanismInfoTable().getMechanismInfo(mechanismCode);
+		if (mechanismInfo == null) {
+			CK_MECHANISM_INFO ckMechanismInfo = slot_.getModule().getPKCS11Module()
+			    .C_GetMechanismInfo(slot_.getSlotID(), mechanismCode);
+			mechanismInfo = new MechanismInfo(ckMechanismInfo);
+		}
 
-		return new MechanismInfo(ckMechanismInfo);
+		return mechanismInfo;
+	}
+
+	/**
+	 * Get the table of the mechanisms that this token supports with their key
+	 * sizes and flags. The module reads the table once per slot and all Token
+	 * objects of the slot share it; thus, getMechanismList and
+	 * getMechanismInfo do not call the module again. Call
+	 * refreshMechanismInfoTable, if the token may have changed; e.g. after it
+	 * was replaced in the slot.
+	 *
+	 * @return The table of the supported mechanisms.
+	 * @exception TokenException If reading the table fails.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	public MechanismInfoTable getMechanismInfoTable()
+	    throws TokenException
+	{
+		return slot_.getModule().getMechanismInfoTable(slot_.getSlotID());
+	}
+
+	/**
+	 * Read the table of the supported mechanisms again from the module and
+	 * replace the shared table of this slot.
+	 *
+	 * @return The new table of the supported mechanisms.
+	 * @exception TokenException If reading the table fails.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	public MechanismInfoTable refreshMechanismInfoTable()
+	    throws TokenException
+	{
+		return slot_.getModule().refreshMechanismInfoTable(slot_.getSlotID());
 	}
 
 	/**
@@ -353,6 +427,8 @@ public class Token {
 		long sessionHandle = slot_.getModule().getPKCS11Module()
 		    .C_OpenSession(slot_.getSlotID(), flags, application, ckNotify);
 		newSession.sessionHandle_ = sessionHandle; //now we have the session handle available
+		// the session counts of the token have changed
+		slot_.getModule().invalidateInfos(slot_.getSlotID());
 
 		return newSession;
 	}
@@ -368,7 +444,11 @@ public class Token {
 	public void closeAllSessions()
 	    throws TokenException
 	{
-		slot_.getModule().getPKCS11Module().C_CloseAllSessions(slot_.getSlotID());
+		try {
+			slot_.getModule().getPKCS11Module().C_CloseAllSessions(slot_.getSlotID());
+		} finally {
+			slot_.getModule().invalidateInfos(slot_.getSlotID());
+		}
 	}
 
 	/**
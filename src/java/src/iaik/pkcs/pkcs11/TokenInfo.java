@@ -44,14 +44,18 @@ package iaik.pkcs.pkcs11;
 
 import iaik.pkcs.pkcs11.wrapper.CK_TOKEN_INFO;
 import iaik.pkcs.pkcs11.wrapper.Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Implementation;
 
 import java.util.Date;
 
 /**
  * Objects of this class provide information about a token. Serial number,
  * manufacturer, free memory,... . Notice that this is just a snapshot of the
- * token's status at the time this object was created.
+ * token's status at the time this object was created. The counters and flags
+ * of a snapshot can be updated in a copy; see Token.refreshTokenInfoCounters.
  *
  * @author <a href="mailto:Karl.Scheibelhofer@iaik.at"> Karl Scheibelhofer </a>
  * @version 1.0
@@ -295,24 +299,95 @@ public class TokenInfo implements Cloneable {
 		hardwareVersion_ = new Version(ckTokenInfo.hardwareVersion);
 		firmwareVersion_ = new Version(ckTokenInfo.firmwareVersion);
 		time_ = Util.parseTime(ckTokenInfo.utcTime);
-		rng_ = (ckTokenInfo.flags & PKCS11Constants.CKF_RNG) != 0L;
-		writeProtected_ = (ckTokenInfo.flags & PKCS11Constants.CKF_WRITE_PROTECTED) != 0L;
-		loginRequired_ = (ckTokenInfo.flags & PKCS11Constants.CKF_LOGIN_REQUIRED) != 0L;
-		userPinInitialized_ = (ckTokenInfo.flags & PKCS11Constants.CKF_USER_PIN_INITIALIZED) != 0L;
-		restoreKeyNotNeeded_ = (ckTokenInfo.flags & PKCS11Constants.CKF_RESTORE_KEY_NOT_NEEDED) != 0L;
-		clockOnToken_ = (ckTokenInfo.flags & PKCS11Constants.CKF_CLOCK_ON_TOKEN) != 0L;
-		protectedAuthenticationPath_ = (ckTokenInfo.flags & PKCS11Constants.CKF_PROTECTED_AUTHENTICATION_PATH) != 0L;
-		dualCryptoOperations_ = (ckTokenInfo.flags & PKCS11Constants.CKF_DUAL_CRYPTO_OPERATIONS) != 0L;
-		tokenInitialized_ = (ckTokenInfo.flags & PKCS11Constants.CKF_TOKEN_INITIALIZED) != 0L;
-		secondaryAuthentication_ = (ckTokenInfo.flags & PKCS11Constants.CKF_SECONDARY_AUTHENTICATION) != 0L;
-		userPinCountLow_ = (ckTokenInfo.flags & PKCS11Constants.CKF_USER_PIN_COUNT_LOW) != 0L;
-		userPinFinalTry_ = (ckTokenInfo.flags & PKCS11Constants.CKF_USER_PIN_FINAL_TRY) != 0L;
-		userPinLocked_ = (ckTokenInfo.flags & PKCS11Constants.CKF_USER_PIN_LOCKED) != 0L;
-		userPinToBeChanged_ = (ckTokenInfo.flags & PKCS11Constants.CKF_USER_PIN_TO_BE_CHANGED) != 0L;
-		soPinCountLow_ = (ckTokenInfo.flags & PKCS11Constants.CKF_SO_PIN_COUNT_LOW) != 0L;
-		soPinFinalTry_ = (ckTokenInfo.flags & PKCS11Constants.CKF_SO_PIN_FINAL_TRY) != 0L;
-		soPinLocked_ = (ckTokenInfo.flags & PKCS11Constants.CKF_SO_PIN_LOCKED) != 0L;
-		soPinToBeChanged_ = (ckTokenInfo.flags & PKCS11Constants.CKF_SO_PIN_TO_BE_CHANGED) != 0L;
+		setFlags(ckTokenInfo.flags);
+	}
+
+	/**
+	 * Set the boolean properties of this object from the given flags.
+	 *
+	 * @param flags The flags as in CK_TOKEN_INFO.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected void setFlags(long flags) {
+		rng_ = (flags & PKCS11Constants.CKF_RNG) != 0L;
+		writeProtected_ = (flags & PKCS11Constants.CKF_WRITE_PROTECTED) != 0L;
+		loginRequired_ = (flags & PKCS11Constants.CKF_LOGIN_REQUIRED) != 0L;
+		userPinInitialized_ = (flags & PKCS11Constants.CKF_USER_PIN_INITIALIZED) != 0L;
+		restoreKeyNotNeeded_ = (flags & PKCS11Constants.CKF_RESTORE_KEY_NOT_NEEDED) != 0L;
+		clockOnToken_ = (flags & PKCS11Constants.CKF_CLOCK_ON_TOKEN) != 0L;
+		protectedAuthenticationPath_ = (flags & PKCS11Constants.CKF_PROTECTED_AUTHENTICATION_PATH) != 0L;
+		dualCryptoOperations_ = (flags & PKCS11Constants.CKF_DUAL_CRYPTO_OPERATIONS) != 0L;
+		tokenInitialized_ = (flags & PKCS11Constants.CKF_TOKEN_INITIALIZED) != 0L;
+		secondaryAuthentication_ = (flags & PKCS11Constants.CKF_SECONDARY_AUTHENTICATION) != 0L;
+		userPinCountLow_ = (flags & PKCS11Constants.CKF_USER_PIN_COUNT_LOW) != 0L;
+		userPinFinalTry_ = (flags & PKCS11Constants.CKF_USER_PIN_FINAL_TRY) != 0L;
+		userPinLocked_ = (flags & PKCS11Constants.CKF_USER_PIN_LOCKED) != 0L;
+		userPinToBeChanged_ = (flags & PKCS11Constants.CKF_USER_PIN_TO_BE_CHANGED) != 0L;
+		soPinCountLow_ = (flags & PKCS11Constants.CKF_SO_PIN_COUNT_LOW) != 0L;
+		soPinFinalTry_ = (flags & PKCS11Constants.CKF_SO_PIN_FINAL_TRY) != 0L;
+		soPinLocked_ = (flags & PKCS11Constants.CKF_SO_PIN_LOCKED) != 0L;
+		soPinToBeChanged_ = (flags & PKCS11Constants.CKF_SO_PIN_TO_BE_CHANGED) != 0L;
+	}
+
+	/**
+	 * Read the flags and counters of the token in the given slot; i.e. the parts
+	 * of the token info that change while the token is in use. The native
+	 * wrapper returns them without creating a CK_TOKEN_INFO object.
+	 *
+	 * @param pkcs11Module The PKCS#11 module to read from.
+	 * @param slotID The ID of the token's slot.
+	 * @return The flags, ulMaxSessionCount, ulSessionCount, ulMaxRwSessionCount,
+	 *         ulRwSessionCount, ulMaxPinLen, ulMinPinLen, ulTotalPublicMemory,
+	 *         ulFreePublicMemory, ulTotalPrivateMemory and ulFreePrivateMemory.
+	 * @exception PKCS11Exception If reading the token info fails.
+	 * @preconditions (pkcs11Module <> null)
+	 * @postconditions (result <> null)
+	 *                 and (result.length == 11)
+	 */
+	protected static long[] readCounters(PKCS11 pkcs11Module, long slotID)
+	    throws PKCS11Exception
+	{
+		if (pkcs11Module instanceof PKCS11Implementation) {
+			return ((PKCS11Implementation) pkcs11Module).getTokenInfoCounters(slotID);
+		}
+
+		CK_TOKEN_INFO ckTokenInfo = pkcs11Module.C_GetTokenInfo(slotID);
+
+		return new long[] { ckTokenInfo.flags, ckTokenInfo.ulMaxSessionCount,
+		    ckTokenInfo.ulSessionCount, ckTokenInfo.ulMaxRwSessionCount,
+		    ckTokenInfo.ulRwSessionCount, ckTokenInfo.ulMaxPinLen, ckTokenInfo.ulMinPinLen,
+		    ckTokenInfo.ulTotalPublicMemory, ckTokenInfo.ulFreePublicMemory,
+		    ckTokenInfo.ulTotalPrivateMemory, ckTokenInfo.ulFreePrivateMemory };
+	}
+
+	/**
+	 * Create a copy of this object with the flags and counters replaced by the
+	 * given ones. The other properties, like the label or the versions, stay
+	 * the same.
+	 *
+	 * @param counters The flags and counters as returned by readCounters.
+	 * @return The updated copy.
+	 * @preconditions (counters <> null)
+	 *                and (counters.length == 11)
+	 * @postconditions (result <> null)
+	 */
+	protected TokenInfo copyWithCounters(long[] counters) {
+		TokenInfo copy = (TokenInfo) clone();
+
+		copy.setFlags(counters[0]);
+		copy.maxSessionCount_ = counters[1];
+		copy.sessionCount_ = counters[2];
+		copy.maxRwSessionCount_ = counters[3];
+		copy.rwSessionCount_ = counters[4];
+		copy.maxPinLen_ = counters[5];
+		copy.minPinLen_ = counters[6];
+		copy.totalPublicMemory_ = counters[7];
+		copy.freePublicMemory_ = counters[8];
+		copy.totalPrivateMemory_ = counters[9];
+		copy.freePrivateMemory_ = counters[10];
+
+		return copy;
 	}
 
 	/**
@@ -332,7 +407,9 @@ public class TokenInfo implements Cloneable {
 
 			clone.hardwareVersion_ = (Version) this.hardwareVersion_.clone();
 			clone.firmwareVersion_ = (Version) this.firmwareVersion_.clone();
-			clone.time_ = new Date(this.time_.getTime()); // clone() unsupported in JDK 1.1
+			if (this.time_ != null) { // the token may have no clock
+				clone.time_ = new Date(this.time_.getTime()); // clone() unsupported in JDK 1.1
+			}
 		} catch (CloneNotSupportedException ex) {
 			// this must not happen, because this class is cloneable
 			throw new TokenRuntimeException("An unexpected clone exception occurred.", ex);
@@ -0,0 +1,684 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+package iaik.pkcs.pkcs11;
+
+import iaik.pkcs.pkcs11.wrapper.Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A token inventory is an immutable snapshot of the slots of a module, the
+ * tokens in these slots and the mechanisms they support. Reading this
+ * information slot by slot needs several round-trips per slot, which adds up
+ * to a long startup time with a network HSM that provides many partitions.
+ * The discover methods read the slot info, the token info and the mechanism
+ * table of all slots concurrently with the given number of threads; optionally
+ * they also open a session with every token and log in the user.
+ * <pre><code>
+ *   TokenInventory inventory = TokenInventory.discover(pkcs11Module,
+ *       Module.SlotRequirement.TOKEN_PRESENT, 16, Token.SessionReadWriteBehavior.RO_SESSION, pin);
+ *   for (int i = 0; i < inventory.size(); i++) {
+ *     TokenInventory.Entry entry = inventory.getEntry(i);
+ *     if (entry.getException() == null) {
+ *       ... entry.getToken(), entry.getTokenInfo(), entry.getSession() ...
+ *     }
+ *   }
+ * </code></pre>
+ * The discovery does not stop at a failing slot; the entry of this slot holds
+ * the exception instead. The module must be initialized in a way that allows
+ * calls from several threads; e.g. with the default initialize arguments.
+ * The tokens and sessions in the entries are shared objects; in particular,
+ * the application is responsible for closing the sessions, see closeSessions.
+ *
+ * @see iaik.pkcs.pkcs11.Module
+ * @see iaik.pkcs.pkcs11.MechanismInfoTable
+ * @version 1.0
+ * @invariants (entries_ <> null)
+ */
+public class TokenInventory {
+
+	/**
+	 * The discovered information about one slot. Fields which could not be read
+	 * because of an exception, or because there is no token in the slot, are
+	 * null.
+	 *
+	 * @version 1.0
+	 * @invariants (slot_ <> null)
+	 */
+	public static class Entry {
+
+		/**
+		 * The slot of this entry.
+		 */
+		protected Slot slot_;
+
+		/**
+		 * The information about the slot.
+		 */
+		protected SlotInfo slotInfo_;
+
+		/**
+		 * The token in the slot, or null if there is no token present.
+		 */
+		protected Token token_;
+
+		/**
+		 * The information about the token.
+		 */
+		protected TokenInfo tokenInfo_;
+
+		/**
+		 * The mechanisms that the token supports.
+		 */
+		protected MechanismInfoTable mechanismInfoTable_;
+
+		/**
+		 * The session opened with the token, if requested.
+		 */
+		protected Session session_;
+
+		/**
+		 * The exception that stopped the discovery of this slot, or null.
+		 */
+		protected TokenException exception_;
+
+		/**
+		 * Create a new entry for the given slot.
+		 *
+		 * @param slot The slot of this entry.
+		 * @preconditions (slot <> null)
+		 * @postconditions
+		 */
+		protected Entry(Slot slot) {
+			slot_ = slot;
+		}
+
+		/**
+		 * Get the slot of this entry.
+		 *
+		 * @return The slot.
+		 * @preconditions
+		 * @postconditions (result <> null)
+		 */
+		public Slot getSlot() {
+			return slot_;
+		}
+
+		/**
+		 * Get the information about the slot.
+		 *
+		 * @return The slot info, or null if reading it failed.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public SlotInfo getSlotInfo() {
+			return slotInfo_;
+		}
+
+		/**
+		 * Get the token in the slot.
+		 *
+		 * @return The token, or null if there is no token present or reading the
+		 *         slot info failed.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public Token getToken() {
+			return token_;
+		}
+
+		/**
+		 * Get the information about the token.
+		 *
+		 * @return The token info, or null if there is no token or reading it
+		 *         failed.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public TokenInfo getTokenInfo() {
+			return tokenInfo_;
+		}
+
+		/**
+		 * Get the mechanisms that the token supports.
+		 *
+		 * @return The mechanism table, or null if there is no token or reading it
+		 *         failed.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public MechanismInfoTable getMechanismInfoTable() {
+			return mechanismInfoTable_;
+		}
+
+		/**
+		 * Get the session opened with the token.
+		 *
+		 * @return The session, or null if no sessions were requested, there is no
+		 *         token or opening the session failed.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public Session getSession() {
+			return session_;
+		}
+
+		/**
+		 * Get the exception that stopped the discovery of this slot.
+		 *
+		 * @return The exception, or null if the discovery of this slot succeeded.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public TokenException getException() {
+			return exception_;
+		}
+
+		/**
+		 * Returns the string representation of this object.
+		 *
+		 * @return The string representation of object
+		 */
+		public String toString() {
+			StringBuffer buffer = new StringBuffer();
+
+			buffer.append("Slot ID: ");
+			buffer.append(slot_.getSlotID());
+			if (slotInfo_ != null) {
+				buffer.append(Constants.NEWLINE);
+				buffer.append("Slot Description: ");
+				buffer.append(slotInfo_.getSlotDescription().trim());
+			}
+			if (tokenInfo_ != null) {
+				buffer.append(Constants.NEWLINE);
+				buffer.append("Token Label: ");
+				buffer.append(tokenInfo_.getLabel().trim());
+			}
+			if (mechanismInfoTable_ != null) {
+				buffer.append(Constants.NEWLINE);
+				buffer.append("Mechanisms: ");
+				buffer.append(mechanismInfoTable_.size());
+			}
+			if (session_ != null) {
+				buffer.append(Constants.NEWLINE);
+				buffer.append("Session Handle: ");
+				buffer.append(session_.getSessionHandle());
+			}
+			if (exception_ != null) {
+				buffer.append(Constants.NEWLINE);
+				buffer.append("Exception: ");
+				buffer.append(exception_);
+			}
+
+			return buffer.toString();
+		}
+
+	}
+
+	/**
+	 * A worker thread of a discovery. All workers take the next slot from a
+	 * shared counter until there is no slot left.
+	 *
+	 * @version 1.0
+	 * @invariants
+	 */
+	protected static class DiscoveryWorker extends Thread {
+
+		/**
+		 * The entries to fill; one per slot.
+		 */
+		protected Entry[] entries_;
+
+		/**
+		 * The index of the next entry to fill, shared by all workers.
+		 */
+		protected AtomicInteger nextIndex_;
+
+		/**
+		 * True, to open a session with every token.
+		 */
+		protected boolean openSessions_;
+
+		/**
+		 * True, to open read-write sessions.
+		 */
+		protected boolean rwSession_;
+
+		/**
+		 * The user PIN for login, or null to skip the login.
+		 */
+		protected char[] userPIN_;
+
+		/**
+		 * Create a new worker.
+		 *
+		 * @param name The name of the thread.
+		 * @param entries The entries to fill.
+		 * @param nextIndex The shared index of the next entry.
+		 * @param openSessions True, to open a session with every token.
+		 * @param rwSession True, to open read-write sessions.
+		 * @param userPIN The user PIN for login, or null.
+		 * @preconditions (entries <> null)
+		 *                and (nextIndex <> null)
+		 * @postconditions
+		 */
+		protected DiscoveryWorker(String name, Entry[] entries, AtomicInteger nextIndex,
+		                          boolean openSessions, boolean rwSession, char[] userPIN)
+		{
+			super(name);
+			setDaemon(true);
+			entries_ = entries;
+			nextIndex_ = nextIndex;
+			openSessions_ = openSessions;
+			rwSession_ = rwSession;
+			userPIN_ = userPIN;
+		}
+
+		/**
+		 * Fill entries until all are taken.
+		 *
+		 * @preconditions
+		 * @postconditions
+		 */
+		public void run() {
+			int index;
+			while ((index = nextIndex_.getAndIncrement()) < entries_.length) {
+				discoverSlot(entries_[index], openSessions_, rwSession_, userPIN_);
+			}
+		}
+
+	}
+
+	/**
+	 * The entries of this inventory in the order of the slot list.
+	 */
+	protected Entry[] entries_;
+
+	/**
+	 * Maps the slot ID (Long) to the entry (Entry).
+	 */
+	protected Hashtable entriesBySlotID_;
+
+	/**
+	 * The time in milliseconds when the discovery started.
+	 */
+	protected long creationTime_;
+
+	/**
+	 * The duration of the discovery in milliseconds.
+	 */
+	protected long discoveryTime_;
+
+	/**
+	 * Create a new inventory with the given entries.
+	 *
+	 * @param entries The entries in the order of the slot list.
+	 * @param creationTime The time in milliseconds when the discovery started.
+	 * @param discoveryTime The duration of the discovery in milliseconds.
+	 * @preconditions (entries <> null)
+	 * @postconditions
+	 */
+	protected TokenInventory(Entry[] entries, long creationTime, long discoveryTime) {
+		entries_ = entries;
+		entriesBySlotID_ = new Hashtable(entries.length * 2 + 1);
+		for (int i = 0; i < entries.length; i++) {
+			entriesBySlotID_.put(new Long(entries[i].getSlot().getSlotID()), entries[i]);
+		}
+		creationTime_ = creationTime;
+		discoveryTime_ = discoveryTime;
+	}
+
+	/**
+	 * Discover the slots of the given module with the given number of threads.
+	 * It reads the slot info, the token info and the mechanism table of every
+	 * slot, but does not open sessions.
+	 *
+	 * @param module The initialized module.
+	 * @param tokenPresent Can be Module.SlotRequirement.ALL_SLOTS or
+	 *                     Module.SlotRequirement.TOKEN_PRESENT.
+	 * @param parallelism The maximum number of threads. One or less uses the
+	 *                    calling thread only.
+	 * @return The inventory.
+	 * @exception TokenException If getting the slot list fails.
+	 * @preconditions (module <> null)
+	 * @postconditions (result <> null)
+	 */
+	public static TokenInventory discover(Module module, boolean tokenPresent, int parallelism)
+	    throws TokenException
+	{
+		return discover(module, tokenPresent, parallelism, false, false, null);
+	}
+
+	/**
+	 * Discover the slots of the given module with the given number of threads
+	 * and open a session with every token. If a user PIN is given, the user
+	 * gets logged in to every token; a token to which the user is already
+	 * logged in is fine.
+	 *
+	 * @param module The initialized module.
+	 * @param tokenPresent Can be Module.SlotRequirement.ALL_SLOTS or
+	 *                     Module.SlotRequirement.TOKEN_PRESENT.
+	 * @param parallelism The maximum number of threads. One or less uses the
+	 *                    calling thread only.
+	 * @param rwSession Token.SessionReadWriteBehavior.RO_SESSION for read-only
+	 *                  sessions or Token.SessionReadWriteBehavior.RW_SESSION for
+	 *                  read-write sessions.
+	 * @param userPIN The user PIN for all tokens, or null to skip the login.
+	 * @return The inventory.
+	 * @exception TokenException If getting the slot list fails.
+	 * @preconditions (module <> null)
+	 * @postconditions (result <> null)
+	 */
+	public static TokenInventory discover(Module module, boolean tokenPresent, int parallelism,
+	                                      boolean rwSession, char[] userPIN)
+	    throws TokenException
+	{
+		return discover(module, tokenPresent, parallelism, true, rwSession, userPIN);
+	}
+
+	/**
+	 * Discover the slots of the given module.
+	 *
+	 * @param module The initialized module.
+	 * @param tokenPresent Can be Module.SlotRequirement.ALL_SLOTS or
+	 *                     Module.SlotRequirement.TOKEN_PRESENT.
+	 * @param parallelism The maximum number of threads.
+	 * @param openSessions True, to open a session with every token.
+	 * @param rwSession True, to open read-write sessions.
+	 * @param userPIN The user PIN for login, or null.
+	 * @return The inventory.
+	 * @exception TokenException If getting the slot list fails.
+	 * @preconditions (module <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected static TokenInventory discover(Module module, boolean tokenPresent,
+	                                         int parallelism, boolean openSessions,
+	                                         boolean rwSession, char[] userPIN)
+	    throws TokenException
+	{
+		if (module == null) {
+			throw new NullPointerException("Argument \"module\" must not be null.");
+		}
+
+		long creationTime = System.currentTimeMillis();
+		Slot[] slots = module.getSlotList(tokenPresent);
+		Entry[] entries = new Entry[slots.length];
+		for (int i = 0; i < slots.length; i++) {
+			entries[i] = new Entry(slots[i]);
+		}
+
+		int threads = Math.min(parallelism, entries.length);
+		if (threads <= 1) {
+			for (int i = 0; i < entries.length; i++) {
+				discoverSlot(entries[i], openSessions, rwSession, userPIN);
+			}
+		} else {
+			AtomicInteger nextIndex = new AtomicInteger(0);
+			DiscoveryWorker[] workers = new DiscoveryWorker[threads];
+			for (int i = 0; i < threads; i++) {
+				workers[i] = new DiscoveryWorker("PKCS#11 Discovery " + i, entries, nextIndex,
+				    openSessions, rwSession, userPIN);
+				workers[i].start();
+			}
+			// the workers hold native calls and maybe sessions, do not leave them behind
+			boolean interrupted = false;
+			for (int i = 0; i < threads; i++) {
+				while (workers[i].isAlive()) {
+					try {
+						workers[i].join();
+					} catch (InterruptedException ex) {
+						interrupted = true;
+					}
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		return new TokenInventory(entries, creationTime, System.currentTimeMillis()
+		    - creationTime);
+	}
+
+	/**
+	 * Read the information of the slot of the given entry and fill the entry.
+	 * Any exception is stored in the entry.
+	 *
+	 * @param entry The entry to fill.
+	 * @param openSessions True, to open a session with the token.
+	 * @param rwSession True, to open a read-write session.
+	 * @param userPIN The user PIN for login, or null.
+	 * @preconditions (entry <> null)
+	 * @postconditions
+	 */
+	protected static void discoverSlot(Entry entry, boolean openSessions, boolean rwSession,
+	                                   char[] userPIN)
+	{
+		try {
+			entry.slotInfo_ = entry.slot_.getSlotInfo();
+			if (!entry.slotInfo_.isTokenPresent()) {
+				return;
+			}
+			// do not use Slot.getToken, it would read the slot info again
+			Token token = new Token(entry.slot_);
+			entry.token_ = token;
+			entry.tokenInfo_ = token.getTokenInfo();
+			entry.mechanismInfoTable_ = token.getMechanismInfoTable();
+			if (openSessions) {
+				Session session = token.openSession(Token.SessionType.SERIAL_SESSION, rwSession,
+				    null, null);
+				entry.session_ = session;
+				if (userPIN != null) {
+					try {
+						session.login(Session.UserType.USER, userPIN);
+					} catch (PKCS11Exception ex) {
+						if (ex.getErrorCode() != PKCS11Constants.CKR_USER_ALREADY_LOGGED_IN) {
+							throw ex;
+						}
+					}
+				}
+			}
+		} catch (TokenException ex) {
+			entry.exception_ = ex;
+		} catch (RuntimeException ex) {
+			entry.exception_ = new TokenException(ex);
+		}
+	}
+
+	/**
+	 * Get the number of entries; i.e. slots.
+	 *
+	 * @return The number of entries.
+	 * @preconditions
+	 * @postconditions (result >= 0)
+	 */
+	public int size() {
+		return entries_.length;
+	}
+
+	/**
+	 * Get the entry at the given index. The entries are in the order of the slot
+	 * list.
+	 *
+	 * @param index The index of the entry.
+	 * @return The entry.
+	 * @preconditions (index >= 0)
+	 *                and (index < size())
+	 * @postconditions (result <> null)
+	 */
+	public Entry getEntry(int index) {
+		return entries_[index];
+	}
+
+	/**
+	 * Get the entry of the slot with the given ID.
+	 *
+	 * @param slotID The ID of the slot.
+	 * @return The entry, or null if this inventory has no such slot.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public Entry getEntryBySlotID(long slotID) {
+		return (Entry) entriesBySlotID_.get(new Long(slotID));
+	}
+
+	/**
+	 * Get all entries in the order of the slot list.
+	 *
+	 * @return A copy of the array of entries.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	public Entry[] getEntries() {
+		return (Entry[]) entries_.clone();
+	}
+
+	/**
+	 * Get the tokens of all entries which have one and no exception.
+	 *
+	 * @return The tokens in the order of the slot list.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	public Token[] getTokens() {
+		int count = 0;
+		for (int i = 0; i < entries_.length; i++) {
+			if ((entries_[i].token_ != null) && (entries_[i].exception_ == null)) {
+				count++;
+			}
+		}
+		Token[] tokens = new Token[count];
+		count = 0;
+		for (int i = 0; i < entries_.length; i++) {
+			if ((entries_[i].token_ != null) && (entries_[i].exception_ == null)) {
+				tokens[count++] = entries_[i].token_;
+			}
+		}
+
+		return tokens;
+	}
+
+	/**
+	 * Check, if the discovery of all slots succeeded.
+	 *
+	 * @return True, if no entry has an exception.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public boolean isComplete() {
+		for (int i = 0; i < entries_.length; i++) {
+			if (entries_[i].exception_ != null) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Get the time when the discovery started.
+	 *
+	 * @return The time in milliseconds since 1970.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public long getCreationTime() {
+		return creationTime_;
+	}
+
+	/**
+	 * Get the duration of the discovery.
+	 *
+	 * @return The duration in milliseconds.
+	 * @preconditions
+	 * @postconditions (result >= 0)
+	 */
+	public long getDiscoveryTime() {
+		return discoveryTime_;
+	}
+
+	/**
+	 * Close all sessions that the discovery opened. Exceptions are ignored to
+	 * close as many sessions as possible; the sessions stay in the entries.
+	 *
+	 * @preconditions
+	 * @postconditions
+	 */
+	public void closeSessions() {
+		for (int i = 0; i < entries_.length; i++) {
+			Session session = entries_[i].session_;
+			if (session != null) {
+				try {
+					session.closeSession();
+				} catch (TokenException ex) {
+					// ignore, the session or token may be gone already
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the string representation of this object.
+	 *
+	 * @return The string representation of object
+	 */
+	public String toString() {
+		StringBuffer buffer = new StringBuffer();
+
+		buffer.append("Slots: ");
+		buffer.append(entries_.length);
+		buffer.append(Constants.NEWLINE);
+		buffer.append("Discovery Time (ms): ");
+		buffer.append(discoveryTime_);
+		for (int i = 0; i < entries_.length; i++) {
+			buffer.append(Constants.NEWLINE);
+			buffer.append(Constants.NEWLINE);
+			buffer.append(entries_[i]);
+		}
+
+		return buffer.toString();
+	}
+
+}
@@ -53,6 +53,7 @@ import iaik.pkcs.pkcs11.wrapper.Constants;
 import iaik.pkcs.pkcs11.wrapper.PKCS11;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Implementation;
 
 import java.util.Enumeration;
 import java.util.Hashtable;
@@ -758,31 +759,44 @@ public class Object implements Cloneable {
 		long sessionHandle = session.getSessionHandle();
 		long attributeCode = attribute.getCkAttribute().type;
 
-		try {
-			CK_ATTRIBUTE[] attributeTemplateList = new CK_ATTRIBUTE[1];
-			attributeTemplateList[0] = new CK_ATTRIBUTE();
-			attributeTemplateList[0].type = attributeCode;
-			pkcs11Module
-			    .C_GetAttributeValue(sessionHandle, objectHandle, attributeTemplateList, session.isSetUtf8Encoding());
+		CK_ATTRIBUTE[] attributeTemplateList = new CK_ATTRIBUTE[1];
+		attributeTemplateList[0] = new CK_ATTRIBUTE();
+		attributeTemplateList[0].type = attributeCode;
+		PKCS11Exception exception = null;
+		long errorCode;
+		if (pkcs11Module instanceof PKCS11Implementation) {
+			// a missing or sensitive attribute is expected here, get it without exception
+			errorCode = ((PKCS11Implementation) pkcs11Module).getAttributeValue(sessionHandle,
+			    objectHandle, attributeTemplateList, session.isSetUtf8Encoding());
+		} else {
+			try {
+				pkcs11Module.C_GetAttributeValue(sessionHandle, objectHandle,
+				    attributeTemplateList, session.isSetUtf8Encoding());
+				errorCode = PKCS11Constants.CKR_OK;
+			} catch (PKCS11Exception ex) {
+				exception = ex;
+				errorCode = ex.getErrorCode();
+			}
+		}
+
+		if (errorCode == PKCS11Constants.CKR_OK) {
 			attribute.setCkAttribute(attributeTemplateList[0]);
 			attribute.setPresent(true);
 			attribute.setSensitive(false);
-		} catch (PKCS11Exception ex) {
-			if (ex.getErrorCode() == PKCS11Constants.CKR_ATTRIBUTE_TYPE_INVALID) {
-				// this means, that some requested attributes are missing, but we can
-				// igonre this and proceed; e.g. a v2.01 module won't have the object
-				// ID attribute
-				attribute.setPresent(false);
-			} else if (ex.getErrorCode() == PKCS11Constants.CKR_ATTRIBUTE_SENSITIVE) {
-				// this means, that some requested attributes are missing, but we can
-				// igonre this and proceed; e.g. a v2.01 module won't have the object
-				// ID attribute
-				attribute.setPresent(true);
-				attribute.setSensitive(true);
-			} else {
-				// there was a different error that we should propagate
-				throw ex;
-			}
+		} else if (errorCode == PKCS11Constants.CKR_ATTRIBUTE_TYPE_INVALID) {
+			// this means, that some requested attributes are missing, but we can
+			// igonre this and proceed; e.g. a v2.01 module won't have the object
+			// ID attribute
+			attribute.setPresent(false);
+		} else if (errorCode == PKCS11Constants.CKR_ATTRIBUTE_SENSITIVE) {
+			// this means, that some requested attributes are missing, but we can
+			// igonre this and proceed; e.g. a v2.01 module won't have the object
+			// ID attribute
+			attribute.setPresent(true);
+			attribute.setSensitive(true);
+		} else {
+			// there was a different error that we should propagate
+			throw (exception != null) ? exception : PKCS11Exception.getInstance(errorCode);
 		}
 	}
 
@@ -817,21 +831,33 @@ public class Object implements Cloneable {
 		PKCS11 pkcs11Module = session.getModule().getPKCS11Module();
 		long sessionHandle = session.getSessionHandle();
 
-		try {
-			CK_ATTRIBUTE[] attributeTemplateList = new CK_ATTRIBUTE[attributes.length];
-			for (int i = 0; i < attributes.length; i++) {
-				CK_ATTRIBUTE attribute = new CK_ATTRIBUTE();
-				attribute.type = attributes[i].getCkAttribute().type;
-				attributeTemplateList[i] = attribute;
+		CK_ATTRIBUTE[] attributeTemplateList = new CK_ATTRIBUTE[attributes.length];
+		for (int i = 0; i < attributes.length; i++) {
+			CK_ATTRIBUTE attribute = new CK_ATTRIBUTE();
+			attribute.type = attributes[i].getCkAttribute().type;
+			attributeTemplateList[i] = attribute;
+		}
+		long errorCode;
+		if (pkcs11Module instanceof PKCS11Implementation) {
+			errorCode = ((PKCS11Implementation) pkcs11Module).getAttributeValue(sessionHandle,
+			    objectHandle, attributeTemplateList, session.isSetUtf8Encoding());
+		} else {
+			try {
+				pkcs11Module.C_GetAttributeValue(sessionHandle, objectHandle,
+				    attributeTemplateList, session.isSetUtf8Encoding());
+				errorCode = PKCS11Constants.CKR_OK;
+			} catch (PKCS11Exception ex) {
+				errorCode = ex.getErrorCode();
 			}
-			pkcs11Module
-			    .C_GetAttributeValue(sessionHandle, objectHandle, attributeTemplateList, session.isSetUtf8Encoding());
+		}
+
+		if (errorCode == PKCS11Constants.CKR_OK) {
 			for (int i = 0; i < attributes.length; i++) {
 				attributes[i].setCkAttribute(attributeTemplateList[i]);
 				attributes[i].setPresent(true);
 				attributes[i].setSensitive(false);
 			}
-		} catch (PKCS11Exception ex) {
+		} else {
 			// try to read values separately
 			for (int i = 0; i < attributes.length; i++) {
 				getAttributeValue(session, objectHandle, attributes[i]);
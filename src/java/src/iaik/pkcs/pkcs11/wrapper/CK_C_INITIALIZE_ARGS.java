@@ -110,4 +110,12 @@ public class CK_C_INITIALIZE_ARGS {
 	 */
 	public Object pReserved;
 
+	/**
+	 * Not part of PKCS#11. If true, the wrapper passes mutex functions based on
+	 * the locking primitives of the platform (pthreads or critical sections) to
+	 * the module and ignores the mutex callbacks above. This avoids a call into
+	 * the Java VM for each lock and unlock of the module.
+	 */
+	public boolean useNativeMutexes;
+
 }
@@ -738,6 +738,23 @@ public class Functions {
 	 * @return The string representation of the mechanism.
 	 */
 	public static String mechanismCodeToString(long mechansimCode) {
+		String mechanismName = MechanismRegistry.getMechanismName(mechansimCode);
+
+		return (mechanismName != null) ? mechanismName
+		    : "Unknwon mechanism with code: 0x" + toFullHexString(mechansimCode);
+	}
+
+	/**
+	 * Get the table of the names of the known mechanisms.
+	 * The method builds the table on the first call. MechanismRegistry reads it
+	 * once to build its lookup tables.
+	 *
+	 * @return The table that maps the Long code of each known mechanism to its
+	 *         name; e.g. "CKM_RSA_PKCS".
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected static synchronized Hashtable getMechanismNames() {
 		if (mechansimNames_ == null) {
 			Hashtable mechansimNames = new Hashtable(200);
 			mechansimNames.put(new Long(PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN),
@@ -1205,13 +1222,7 @@ public class Functions {
 			mechansimNames_ = mechansimNames;
 		}
 
-		Long mechansimCodeObject = new Long(mechansimCode);
-		Object entry = mechansimNames_.get(mechansimCodeObject);
-
-		String mechanismName = (entry != null) ? entry.toString()
-		    : "Unknwon mechanism with code: 0x" + toFullHexString(mechansimCode);
-
-		return mechanismName;
+		return mechansimNames_;
 	}
 
 	/**
@@ -1493,6 +1504,20 @@ public class Functions {
 	 * @postconditions
 	 */
 	public static boolean isFullEncryptDecryptMechanism(long mechanismCode) {
+		return MechanismRegistry.isFullEncryptDecryptMechanism(mechanismCode);
+	}
+
+	/**
+	 * Get the table of the full encrypt/decrypt mechanisms.
+	 * The method builds the table on the first call. MechanismRegistry reads it
+	 * once to build its lookup tables.
+	 *
+	 * @return The table of the mechanisms that support C_EncryptUpdate and
+	 *         C_DecryptUpdate; maps their Long codes to their names.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected static synchronized Hashtable getFullEncryptDecryptMechanisms() {
 		// build the hashtable on demand (=first use)
 		if (fullEncryptDecryptMechanisms_ == null) {
 			Hashtable fullEncryptDecryptMechanisms = new Hashtable();
@@ -1614,7 +1639,7 @@ public class Functions {
 			fullEncryptDecryptMechanisms_ = fullEncryptDecryptMechanisms;
 		}
 
-		return fullEncryptDecryptMechanisms_.containsKey(new Long(mechanismCode));
+		return fullEncryptDecryptMechanisms_;
 	}
 
 	/**
@@ -1633,6 +1658,20 @@ public class Functions {
 	 * @postconditions
 	 */
 	public static boolean isSingleOperationEncryptDecryptMechanism(long mechanismCode) {
+		return MechanismRegistry.isSingleOperationEncryptDecryptMechanism(mechanismCode);
+	}
+
+	/**
+	 * Get the table of the single-operation encrypt/decrypt mechanisms.
+	 * The method builds the table on the first call. MechanismRegistry reads it
+	 * once to build its lookup tables.
+	 *
+	 * @return The table of the mechanisms that support only single-part
+	 *         C_Encrypt and C_Decrypt; maps their Long codes to their names.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected static synchronized Hashtable getSingleOperationEncryptDecryptMechanisms() {
 		// build the hashtable on demand (=first use)
 		if (singleOperationEncryptDecryptMechanisms_ == null) {
 			Hashtable singleOperationEncryptDecryptMechanisms = new Hashtable();
@@ -1645,7 +1684,7 @@ public class Functions {
 			singleOperationEncryptDecryptMechanisms_ = singleOperationEncryptDecryptMechanisms;
 		}
 
-		return singleOperationEncryptDecryptMechanisms_.containsKey(new Long(mechanismCode));
+		return singleOperationEncryptDecryptMechanisms_;
 	}
 
 	/**
@@ -1664,6 +1703,20 @@ public class Functions {
 	 * @postconditions
 	 */
 	public static boolean isFullSignVerifyMechanism(long mechanismCode) {
+		return MechanismRegistry.isFullSignVerifyMechanism(mechanismCode);
+	}
+
+	/**
+	 * Get the table of the full sign/verify mechanisms.
+	 * The method builds the table on the first call. MechanismRegistry reads it
+	 * once to build its lookup tables.
+	 *
+	 * @return The table of the mechanisms that support C_SignUpdate and
+	 *         C_VerifyUpdate; maps their Long codes to their names.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected static synchronized Hashtable getFullSignVerifyMechanisms() {
 		// build the hashtable on demand (=first use)
 		if (fullSignVerifyMechanisms_ == null) {
 			Hashtable fullSignVerifyMechanisms = new Hashtable();
@@ -1787,7 +1840,7 @@ public class Functions {
 			fullSignVerifyMechanisms_ = fullSignVerifyMechanisms;
 		}
 
-		return fullSignVerifyMechanisms_.containsKey(new Long(mechanismCode));
+		return fullSignVerifyMechanisms_;
 	}
 
 	/**
@@ -1806,6 +1859,20 @@ public class Functions {
 	 * @postconditions
 	 */
 	public static boolean isSingleOperationSignVerifyMechanism(long mechanismCode) {
+		return MechanismRegistry.isSingleOperationSignVerifyMechanism(mechanismCode);
+	}
+
+	/**
+	 * Get the table of the single-operation sign/verify mechanisms.
+	 * The method builds the table on the first call. MechanismRegistry reads it
+	 * once to build its lookup tables.
+	 *
+	 * @return The table of the mechanisms that support only single-part
+	 *         C_Sign and C_Verify; maps their Long codes to their names.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected static synchronized Hashtable getSingleOperationSignVerifyMechanisms() {
 		// build the hashtable on demand (=first use)
 		if (singleOperationSignVerifyMechanisms_ == null) {
 			Hashtable singleOperationSignVerifyMechanisms = new Hashtable();
@@ -1829,7 +1896,7 @@ public class Functions {
 			singleOperationSignVerifyMechanisms_ = singleOperationSignVerifyMechanisms;
 		}
 
-		return singleOperationSignVerifyMechanisms_.containsKey(new Long(mechanismCode));
+		return singleOperationSignVerifyMechanisms_;
 	}
 
 	/**
@@ -1847,6 +1914,20 @@ public class Functions {
 	 * @postconditions
 	 */
 	public static boolean isSignVerifyRecoverMechanism(long mechanismCode) {
+		return MechanismRegistry.isSignVerifyRecoverMechanism(mechanismCode);
+	}
+
+	/**
+	 * Get the table of the sign/verify with message recovery mechanisms.
+	 * The method builds the table on the first call. MechanismRegistry reads it
+	 * once to build its lookup tables.
+	 *
+	 * @return The table of the mechanisms that support C_SignRecover and
+	 *         C_VerifyRecover; maps their Long codes to their names.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected static synchronized Hashtable getSignVerifyRecoverMechanisms() {
 		// build the hashtable on demand (=first use)
 		if (signVerifyRecoverMechanisms_ == null) {
 			Hashtable signVerifyRecoverMechanisms = new Hashtable();
@@ -1859,7 +1940,7 @@ public class Functions {
 			signVerifyRecoverMechanisms_ = signVerifyRecoverMechanisms;
 		}
 
-		return signVerifyRecoverMechanisms_.containsKey(new Long(mechanismCode));
+		return signVerifyRecoverMechanisms_;
 	}
 
 	/**
@@ -1877,6 +1958,20 @@ public class Functions {
 	 * @postconditions
 	 */
 	public static boolean isDigestMechanism(long mechanismCode) {
+		return MechanismRegistry.isDigestMechanism(mechanismCode);
+	}
+
+	/**
+	 * Get the table of the digest mechanisms.
+	 * The method builds the table on the first call. MechanismRegistry reads it
+	 * once to build its lookup tables.
+	 *
+	 * @return The table of the mechanisms that support C_Digest; maps their
+	 *         Long codes to their names.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected static synchronized Hashtable getDigestMechanisms() {
 		// build the hashtable on demand (=first use)
 		if (digestMechanisms_ == null) {
 			Hashtable digestMechanisms = new Hashtable();
@@ -1901,7 +1996,7 @@ public class Functions {
 			digestMechanisms_ = digestMechanisms;
 		}
 
-		return digestMechanisms_.containsKey(new Long(mechanismCode));
+		return digestMechanisms_;
 	}
 
 	/**
@@ -1919,6 +2014,20 @@ public class Functions {
 	 * @postconditions
 	 */
 	public static boolean isKeyGenerationMechanism(long mechanismCode) {
+		return MechanismRegistry.isKeyGenerationMechanism(mechanismCode);
+	}
+
+	/**
+	 * Get the table of the key generation mechanisms.
+	 * The method builds the table on the first call. MechanismRegistry reads it
+	 * once to build its lookup tables.
+	 *
+	 * @return The table of the mechanisms that support C_GenerateKey; maps
+	 *         their Long codes to their names.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected static synchronized Hashtable getKeyGenerationMechanisms() {
 		// build the hashtable on demand (=first use)
 		if (keyGenerationMechanisms_ == null) {
 			Hashtable keyGenerationMechanisms = new Hashtable();
@@ -2012,7 +2121,7 @@ public class Functions {
 			keyGenerationMechanisms_ = keyGenerationMechanisms;
 		}
 
-		return keyGenerationMechanisms_.containsKey(new Long(mechanismCode));
+		return keyGenerationMechanisms_;
 	}
 
 	/**
@@ -2030,6 +2139,20 @@ public class Functions {
 	 * @postconditions
 	 */
 	public static boolean isKeyPairGenerationMechanism(long mechanismCode) {
+		return MechanismRegistry.isKeyPairGenerationMechanism(mechanismCode);
+	}
+
+	/**
+	 * Get the table of the key-pair generation mechanisms.
+	 * The method builds the table on the first call. MechanismRegistry reads it
+	 * once to build its lookup tables.
+	 *
+	 * @return The table of the mechanisms that support C_GenerateKeyPair; maps
+	 *         their Long codes to their names.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected static synchronized Hashtable getKeyPairGenerationMechanisms() {
 		// build the hashtable on demand (=first use)
 		if (keyPairGenerationMechanisms_ == null) {
 			Hashtable keyPairGenerationMechanisms = new Hashtable();
@@ -2057,7 +2180,7 @@ public class Functions {
 			keyPairGenerationMechanisms_ = keyPairGenerationMechanisms;
 		}
 
-		return keyPairGenerationMechanisms_.containsKey(new Long(mechanismCode));
+		return keyPairGenerationMechanisms_;
 	}
 
 	/**
@@ -2076,6 +2199,20 @@ public class Functions {
 	 * @postconditions
 	 */
 	public static boolean isWrapUnwrapMechanism(long mechanismCode) {
+		return MechanismRegistry.isWrapUnwrapMechanism(mechanismCode);
+	}
+
+	/**
+	 * Get the table of the wrap/unwrap mechanisms.
+	 * The method builds the table on the first call. MechanismRegistry reads it
+	 * once to build its lookup tables.
+	 *
+	 * @return The table of the mechanisms that support C_WrapKey and
+	 *         C_UnwrapKey; maps their Long codes to their names.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected static synchronized Hashtable getWrapUnwrapMechanisms() {
 		// build the hashtable on demand (=first use)
 		if (wrapUnwrapMechanisms_ == null) {
 			Hashtable wrapUnwrapMechanisms = new Hashtable();
@@ -2172,7 +2309,7 @@ public class Functions {
 			wrapUnwrapMechanisms_ = wrapUnwrapMechanisms;
 		}
 
-		return wrapUnwrapMechanisms_.containsKey(new Long(mechanismCode));
+		return wrapUnwrapMechanisms_;
 	}
 
 	/**
@@ -2190,6 +2327,20 @@ public class Functions {
 	 * @postconditions
 	 */
 	public static boolean isKeyDerivationMechanism(long mechanismCode) {
+		return MechanismRegistry.isKeyDerivationMechanism(mechanismCode);
+	}
+
+	/**
+	 * Get the table of the key derivation mechanisms.
+	 * The method builds the table on the first call. MechanismRegistry reads it
+	 * once to build its lookup tables.
+	 *
+	 * @return The table of the mechanisms that support C_DeriveKey; maps their
+	 *         Long codes to their names.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected static synchronized Hashtable getKeyDerivationMechanisms() {
 		// build the hashtable on demand (=first use)
 		if (keyDerivationMechanisms_ == null) {
 			Hashtable keyDerivationMechanisms = new Hashtable();
@@ -2271,7 +2422,7 @@ public class Functions {
 			keyDerivationMechanisms_ = keyDerivationMechanisms;
 		}
 
-		return keyDerivationMechanisms_.containsKey(new Long(mechanismCode));
+		return keyDerivationMechanisms_;
 	}
 
 }
@@ -0,0 +1,2502 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+package iaik.pkcs.pkcs11.wrapper;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class decorates a PKCS11 implementation and records statistics for
+ * each call; i.e. the number of calls, the latency in a histogram, the bytes
+ * of data passed in and out, and the number of each error code. It records
+ * separately for each C_* function and each slot. For functions that take a
+ * session handle, it determines the slot from the C_OpenSession call that
+ * returned this handle. Functions without slot, and sessions opened before
+ * the decorator was installed, count for NO_SLOT.
+ * Recording is lock-free, so the instrumentation does not serialize
+ * concurrent calls. The application can get a snapshot of the statistics at
+ * any time; e.g. to export it to a monitoring system.
+ * <pre><code>
+ *   InstrumentingPKCS11 pkcs11 = PKCS11Connector.connectToInstrumentedPKCS11Module("libsofthsm.so");
+ *   Module module = Module.getInstance(pkcs11);
+ *   ...
+ *   InstrumentingPKCS11.CallStatistics[] statistics = pkcs11.getStatistics();
+ *   for (int i = 0; i < statistics.length; i++) {
+ *     System.out.println(statistics[i]);
+ *   }
+ * </code></pre>
+ * The latencies are measured at the Java side of this interface. Thus, they
+ * include the JNI layer and the conversion of the parameters, but not the
+ * time spent in the classes of the iaik.pkcs.pkcs11 package.
+ * <p>
+ * In addition, the application can set a CallListener, which gets a CallEvent
+ * for each call that took longer than the configured threshold or failed. An
+ * event carries the function, the session, the mechanism, the data sizes, the
+ * return value and the duration of the call. On a VM with Java Flight Recorder,
+ * the listener can commit these as flight recorder events to correlate
+ * latency spikes of the module with garbage collection and thread states. As
+ * long as no listener is set, the events cost a single volatile read per call.
+ *
+ * @see iaik.pkcs.pkcs11.wrapper.PKCS11Connector
+ * @see LatencyHistogram
+ * @version 1.0
+ * @invariants (pkcs11Module_ <> null)
+ */
+public class InstrumentingPKCS11 implements PKCS11 {
+
+	/**
+	 * The slot ID of calls that do not refer to a known slot.
+	 */
+	public static final long NO_SLOT = -1L;
+
+	/**
+	 * The session handle of calls that do not refer to a session.
+	 */
+	public static final long NO_SESSION = PKCS11Constants.CK_INVALID_HANDLE;
+
+	/**
+	 * The mechanism of calls that do not refer to a known mechanism.
+	 */
+	public static final long NO_MECHANISM = -1L;
+
+	/**
+	 * A listener that gets an event for each call which took longer than the
+	 * threshold or failed.
+	 *
+	 * @version 1.0
+	 * @invariants
+	 */
+	public interface CallListener {
+
+		/**
+		 * Called in the calling thread after the call to the module returned.
+		 * Implementations should return quickly and must not throw exceptions,
+		 * because they delay and would break the call of the application.
+		 *
+		 * @param event The event describing the call.
+		 * @preconditions (event <> null)
+		 * @postconditions
+		 */
+		public void callCompleted(CallEvent event);
+
+	}
+
+	/**
+	 * Describes one call to the module.
+	 *
+	 * @version 1.0
+	 * @invariants (functionName_ <> null)
+	 */
+	public static class CallEvent {
+
+		/**
+		 * The name of the function; e.g. "C_Sign".
+		 */
+		protected String functionName_;
+
+		/**
+		 * The session handle or NO_SESSION.
+		 */
+		protected long sessionHandle_;
+
+		/**
+		 * The ID of the slot or NO_SLOT.
+		 */
+		protected long slotID_;
+
+		/**
+		 * The mechanism code or NO_MECHANISM.
+		 */
+		protected long mechanism_;
+
+		/**
+		 * The value of System.nanoTime() before the call.
+		 */
+		protected long startTime_;
+
+		/**
+		 * The duration of the call in nanoseconds.
+		 */
+		protected long duration_;
+
+		/**
+		 * The number of data bytes passed to the module.
+		 */
+		protected long bytesIn_;
+
+		/**
+		 * The number of data bytes returned by the module.
+		 */
+		protected long bytesOut_;
+
+		/**
+		 * The return value of the call.
+		 */
+		protected long errorCode_;
+
+		/**
+		 * Create a new event.
+		 *
+		 * @param functionName The name of the function.
+		 * @param sessionHandle The session handle or NO_SESSION.
+		 * @param slotID The ID of the slot or NO_SLOT.
+		 * @param mechanism The mechanism code or NO_MECHANISM.
+		 * @param startTime The value of System.nanoTime() before the call.
+		 * @param duration The duration of the call in nanoseconds.
+		 * @param bytesIn The number of data bytes passed to the module.
+		 * @param bytesOut The number of data bytes returned by the module.
+		 * @param errorCode The return value of the call.
+		 * @preconditions (functionName <> null)
+		 * @postconditions
+		 */
+		protected CallEvent(String functionName, long sessionHandle, long slotID, long mechanism,
+		                    long startTime, long duration, long bytesIn, long bytesOut,
+		                    long errorCode)
+		{
+			functionName_ = functionName;
+			sessionHandle_ = sessionHandle;
+			slotID_ = slotID;
+			mechanism_ = mechanism;
+			startTime_ = startTime;
+			duration_ = duration;
+			bytesIn_ = bytesIn;
+			bytesOut_ = bytesOut;
+			errorCode_ = errorCode;
+		}
+
+		/**
+		 * Get the name of the function; e.g. "C_Sign".
+		 *
+		 * @return The name of the function.
+		 * @preconditions
+		 * @postconditions (result <> null)
+		 */
+		public String getFunctionName() {
+			return functionName_;
+		}
+
+		/**
+		 * Get the handle of the session used for the call.
+		 *
+		 * @return The session handle or NO_SESSION.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public long getSessionHandle() {
+			return sessionHandle_;
+		}
+
+		/**
+		 * Get the ID of the slot of the call.
+		 *
+		 * @return The ID of the slot or NO_SLOT.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public long getSlotID() {
+			return slotID_;
+		}
+
+		/**
+		 * Get the mechanism of the call. For calls like C_Sign, this is the
+		 * mechanism of the preceding C_SignInit in the same session.
+		 *
+		 * @return The mechanism code or NO_MECHANISM.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public long getMechanism() {
+			return mechanism_;
+		}
+
+		/**
+		 * Get the value of System.nanoTime() before the call.
+		 *
+		 * @return The start time in nanoseconds.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public long getStartTime() {
+			return startTime_;
+		}
+
+		/**
+		 * Get the duration of the call.
+		 *
+		 * @return The duration in nanoseconds.
+		 * @preconditions
+		 * @postconditions (result >= 0)
+		 */
+		public long getDuration() {
+			return duration_;
+		}
+
+		/**
+		 * Get the number of data bytes passed to the module.
+		 *
+		 * @return The number of bytes.
+		 * @preconditions
+		 * @postconditions (result >= 0)
+		 */
+		public long getBytesIn() {
+			return bytesIn_;
+		}
+
+		/**
+		 * Get the number of data bytes returned by the module.
+		 *
+		 * @return The number of bytes.
+		 * @preconditions
+		 * @postconditions (result >= 0)
+		 */
+		public long getBytesOut() {
+			return bytesOut_;
+		}
+
+		/**
+		 * Get the return value of the call.
+		 *
+		 * @return The return value; CKR_OK if the call succeeded.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public long getErrorCode() {
+			return errorCode_;
+		}
+
+		/**
+		 * Returns the string representation of this object.
+		 *
+		 * @return the string representation of this object
+		 */
+		public String toString() {
+			StringBuffer buffer = new StringBuffer();
+
+			buffer.append(functionName_);
+			buffer.append(": session ");
+			buffer.append(sessionHandle_);
+			buffer.append(", slot ");
+			buffer.append(slotID_);
+			if (mechanism_ != NO_MECHANISM) {
+				buffer.append(", mechanism ");
+				buffer.append(Functions.mechanismCodeToString(mechanism_));
+			}
+			buffer.append(", bytes in ");
+			buffer.append(bytesIn_);
+			buffer.append(", bytes out ");
+			buffer.append(bytesOut_);
+			buffer.append(", result 0x");
+			buffer.append(Functions.toFullHexString((int) errorCode_));
+			buffer.append(", duration [us] ");
+			buffer.append(duration_ / 1000L);
+
+			return buffer.toString();
+		}
+
+	}
+
+	/**
+	 * The statistics of one C_* function for one slot. The counters and the
+	 * histogram are updated concurrently by the calling threads. The objects
+	 * returned by <code>InstrumentingPKCS11.getStatistics</code> are copies,
+	 * which do not change any longer.
+	 *
+	 * @version 1.0
+	 * @invariants (functionName_ <> null)
+	 */
+	public static class CallStatistics {
+
+		/**
+		 * The name of the function; e.g. "C_Sign".
+		 */
+		protected String functionName_;
+
+		/**
+		 * The ID of the slot or NO_SLOT.
+		 */
+		protected long slotID_;
+
+		/**
+		 * The number of calls.
+		 */
+		protected AtomicLong callCount_;
+
+		/**
+		 * The number of calls that returned an error.
+		 */
+		protected AtomicLong errorCount_;
+
+		/**
+		 * The number of data bytes passed to the module.
+		 */
+		protected AtomicLong bytesIn_;
+
+		/**
+		 * The number of data bytes returned by the module.
+		 */
+		protected AtomicLong bytesOut_;
+
+		/**
+		 * The latencies of the calls in nanoseconds.
+		 */
+		protected LatencyHistogram latencyHistogram_;
+
+		/**
+		 * The number of calls for each error code; Long to AtomicLong.
+		 */
+		protected ConcurrentHashMap errorCounts_;
+
+		/**
+		 * Create new and empty statistics.
+		 *
+		 * @param functionName The name of the function.
+		 * @param slotID The ID of the slot or NO_SLOT.
+		 * @preconditions (functionName <> null)
+		 * @postconditions
+		 */
+		protected CallStatistics(String functionName, long slotID) {
+			functionName_ = functionName;
+			slotID_ = slotID;
+			callCount_ = new AtomicLong();
+			errorCount_ = new AtomicLong();
+			bytesIn_ = new AtomicLong();
+			bytesOut_ = new AtomicLong();
+			latencyHistogram_ = new LatencyHistogram();
+			errorCounts_ = new ConcurrentHashMap();
+		}
+
+		/**
+		 * Record one call.
+		 *
+		 * @param latency The latency of the call in nanoseconds.
+		 * @param bytesIn The number of data bytes passed to the module.
+		 * @param bytesOut The number of data bytes returned by the module.
+		 * @param errorCode The return value of the call; CKR_OK if it succeeded.
+		 * @preconditions
+		 * @postconditions
+		 */
+		protected void record(long latency, long bytesIn, long bytesOut, long errorCode) {
+			callCount_.incrementAndGet();
+			latencyHistogram_.recordValue(latency);
+			if (bytesIn > 0) {
+				bytesIn_.addAndGet(bytesIn);
+			}
+			if (bytesOut > 0) {
+				bytesOut_.addAndGet(bytesOut);
+			}
+			if (errorCode != PKCS11Constants.CKR_OK) {
+				errorCount_.incrementAndGet();
+				Long key = new Long(errorCode);
+				AtomicLong count = (AtomicLong) errorCounts_.get(key);
+				if (count == null) {
+					AtomicLong newCount = new AtomicLong();
+					count = (AtomicLong) errorCounts_.putIfAbsent(key, newCount);
+					if (count == null) {
+						count = newCount;
+					}
+				}
+				count.incrementAndGet();
+			}
+		}
+
+		/**
+		 * Create a copy of these statistics. Each counter of the copy is
+		 * consistent by itself, but calls recorded during copying may be
+		 * contained in some counters and not yet in others.
+		 *
+		 * @return The copy.
+		 * @preconditions
+		 * @postconditions (result <> null)
+		 */
+		protected CallStatistics copy() {
+			CallStatistics copy = new CallStatistics(functionName_, slotID_);
+			copy.callCount_.set(callCount_.get());
+			copy.errorCount_.set(errorCount_.get());
+			copy.bytesIn_.set(bytesIn_.get());
+			copy.bytesOut_.set(bytesOut_.get());
+			copy.latencyHistogram_ = latencyHistogram_.copy();
+			Iterator entries = errorCounts_.entrySet().iterator();
+			while (entries.hasNext()) {
+				Map.Entry entry = (Map.Entry) entries.next();
+				copy.errorCounts_.put(entry.getKey(), new AtomicLong(((AtomicLong) entry
+				    .getValue()).get()));
+			}
+
+			return copy;
+		}
+
+		/**
+		 * Reset all counters and the histogram.
+		 *
+		 * @preconditions
+		 * @postconditions
+		 */
+		protected void reset() {
+			callCount_.set(0L);
+			errorCount_.set(0L);
+			bytesIn_.set(0L);
+			bytesOut_.set(0L);
+			latencyHistogram_.reset();
+			errorCounts_.clear();
+		}
+
+		/**
+		 * Get the name of the function; e.g. "C_Sign".
+		 *
+		 * @return The name of the function.
+		 * @preconditions
+		 * @postconditions (result <> null)
+		 */
+		public String getFunctionName() {
+			return functionName_;
+		}
+
+		/**
+		 * Get the ID of the slot of these statistics.
+		 *
+		 * @return The ID of the slot or NO_SLOT.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public long getSlotID() {
+			return slotID_;
+		}
+
+		/**
+		 * Get the number of calls.
+		 *
+		 * @return The number of calls.
+		 * @preconditions
+		 * @postconditions (result >= 0)
+		 */
+		public long getCallCount() {
+			return callCount_.get();
+		}
+
+		/**
+		 * Get the number of calls that returned an error code.
+		 *
+		 * @return The number of failed calls.
+		 * @preconditions
+		 * @postconditions (result >= 0)
+		 */
+		public long getErrorCount() {
+			return errorCount_.get();
+		}
+
+		/**
+		 * Get the number of calls that returned the given error code.
+		 *
+		 * @param errorCode The error code; e.g. CKR_DEVICE_ERROR.
+		 * @return The number of calls that returned this error code.
+		 * @preconditions
+		 * @postconditions (result >= 0)
+		 */
+		public long getErrorCount(long errorCode) {
+			AtomicLong count = (AtomicLong) errorCounts_.get(new Long(errorCode));
+
+			return (count != null) ? count.get() : 0L;
+		}
+
+		/**
+		 * Get the error codes returned by the calls.
+		 *
+		 * @return The error codes. An empty array, if no call failed.
+		 * @preconditions
+		 * @postconditions (result <> null)
+		 */
+		public long[] getErrorCodes() {
+			Vector errorCodes = new Vector(errorCounts_.keySet());
+			long[] result = new long[errorCodes.size()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = ((Long) errorCodes.elementAt(i)).longValue();
+			}
+
+			return result;
+		}
+
+		/**
+		 * Get the number of data bytes passed to the module; e.g. the data to
+		 * sign or encrypt.
+		 *
+		 * @return The number of bytes.
+		 * @preconditions
+		 * @postconditions (result >= 0)
+		 */
+		public long getBytesIn() {
+			return bytesIn_.get();
+		}
+
+		/**
+		 * Get the number of data bytes returned by the module; e.g. signatures
+		 * or ciphertext.
+		 *
+		 * @return The number of bytes.
+		 * @preconditions
+		 * @postconditions (result >= 0)
+		 */
+		public long getBytesOut() {
+			return bytesOut_.get();
+		}
+
+		/**
+		 * Get the histogram of the latencies in nanoseconds.
+		 *
+		 * @return The latency histogram.
+		 * @preconditions
+		 * @postconditions (result <> null)
+		 */
+		public LatencyHistogram getLatencyHistogram() {
+			return latencyHistogram_;
+		}
+
+		/**
+		 * Returns the string representation of this object; one line with the
+		 * counters, the most common percentiles in microseconds and the error
+		 * codes.
+		 *
+		 * @return the string representation of this object
+		 */
+		public String toString() {
+			StringBuffer buffer = new StringBuffer();
+
+			buffer.append(functionName_);
+			if (slotID_ != NO_SLOT) {
+				buffer.append(" (slot ");
+				buffer.append(slotID_);
+				buffer.append(")");
+			}
+			buffer.append(": calls ");
+			buffer.append(getCallCount());
+			buffer.append(", errors ");
+			buffer.append(getErrorCount());
+			buffer.append(", bytes in ");
+			buffer.append(getBytesIn());
+			buffer.append(", bytes out ");
+			buffer.append(getBytesOut());
+			buffer.append(", p50 [us] ");
+			buffer.append(latencyHistogram_.getValueAtPercentile(50.0) / 1000L);
+			buffer.append(", p99 [us] ");
+			buffer.append(latencyHistogram_.getValueAtPercentile(99.0) / 1000L);
+			buffer.append(", max [us] ");
+			buffer.append(latencyHistogram_.getMaxValue() / 1000L);
+			long[] errorCodes = getErrorCodes();
+			for (int i = 0; i < errorCodes.length; i++) {
+				buffer.append((i == 0) ? ", " : " ");
+				buffer.append("0x");
+				buffer.append(Functions.toFullHexString((int) errorCodes[i]));
+				buffer.append("=");
+				buffer.append(getErrorCount(errorCodes[i]));
+			}
+
+			return buffer.toString();
+		}
+
+	}
+
+	/**
+	 * The names of the instrumented functions. The index of a name is the
+	 * value of the corresponding constant below.
+	 */
+	protected static final String[] FUNCTION_NAMES = {
+	    "C_Initialize",
+	    "C_Finalize",
+	    "C_GetInfo",
+	    "C_GetSlotList",
+	    "C_GetSlotInfo",
+	    "C_GetTokenInfo",
+	    "C_GetMechanismList",
+	    "C_GetMechanismInfo",
+	    "C_InitToken",
+	    "C_InitPIN",
+	    "C_SetPIN",
+	    "C_OpenSession",
+	    "C_CloseSession",
+	    "C_CloseAllSessions",
+	    "C_GetSessionInfo",
+	    "C_GetOperationState",
+	    "C_SetOperationState",
+	    "C_Login",
+	    "C_Logout",
+	    "C_CreateObject",
+	    "C_CopyObject",
+	    "C_DestroyObject",
+	    "C_GetObjectSize",
+	    "C_GetAttributeValue",
+	    "C_SetAttributeValue",
+	    "C_FindObjectsInit",
+	    "C_FindObjects",
+	    "C_FindObjectsFinal",
+	    "C_EncryptInit",
+	    "C_Encrypt",
+	    "C_EncryptUpdate",
+	    "C_EncryptFinal",
+	    "C_DecryptInit",
+	    "C_Decrypt",
+	    "C_DecryptUpdate",
+	    "C_DecryptFinal",
+	    "C_DigestInit",
+	    "C_Digest",
+	    "C_DigestUpdate",
+	    "C_DigestKey",
+	    "C_DigestFinal",
+	    "C_SignInit",
+	    "C_Sign",
+	    "C_SignUpdate",
+	    "C_SignFinal",
+	    "C_SignRecoverInit",
+	    "C_SignRecover",
+	    "C_VerifyInit",
+	    "C_Verify",
+	    "C_VerifyUpdate",
+	    "C_VerifyFinal",
+	    "C_VerifyRecoverInit",
+	    "C_VerifyRecover",
+	    "C_DigestEncryptUpdate",
+	    "C_DecryptDigestUpdate",
+	    "C_SignEncryptUpdate",
+	    "C_DecryptVerifyUpdate",
+	    "C_GenerateKey",
+	    "C_GenerateKeyPair",
+	    "C_WrapKey",
+	    "C_UnwrapKey",
+	    "C_DeriveKey",
+	    "C_SeedRandom",
+	    "C_GenerateRandom",
+	    "C_GetFunctionStatus",
+	    "C_CancelFunction",
+	    "C_WaitForSlotEvent" };
+
+	/*
+	 * The indexes of the instrumented functions in FUNCTION_NAMES.
+	 */
+	protected static final int C_INITIALIZE = 0;
+	protected static final int C_FINALIZE = 1;
+	protected static final int C_GET_INFO = 2;
+	protected static final int C_GET_SLOT_LIST = 3;
+	protected static final int C_GET_SLOT_INFO = 4;
+	protected static final int C_GET_TOKEN_INFO = 5;
+	protected static final int C_GET_MECHANISM_LIST = 6;
+	protected static final int C_GET_MECHANISM_INFO = 7;
+	protected static final int C_INIT_TOKEN = 8;
+	protected static final int C_INIT_PIN = 9;
+	protected static final int C_SET_PIN = 10;
+	protected static final int C_OPEN_SESSION = 11;
+	protected static final int C_CLOSE_SESSION = 12;
+	protected static final int C_CLOSE_ALL_SESSIONS = 13;
+	protected static final int C_GET_SESSION_INFO = 14;
+	protected static final int C_GET_OPERATION_STATE = 15;
+	protected static final int C_SET_OPERATION_STATE = 16;
+	protected static final int C_LOGIN = 17;
+	protected static final int C_LOGOUT = 18;
+	protected static final int C_CREATE_OBJECT = 19;
+	protected static final int C_COPY_OBJECT = 20;
+	protected static final int C_DESTROY_OBJECT = 21;
+	protected static final int C_GET_OBJECT_SIZE = 22;
+	protected static final int C_GET_ATTRIBUTE_VALUE = 23;
+	protected static final int C_SET_ATTRIBUTE_VALUE = 24;
+	protected static final int C_FIND_OBJECTS_INIT = 25;
+	protected static final int C_FIND_OBJECTS = 26;
+	protected static final int C_FIND_OBJECTS_FINAL = 27;
+	protected static final int C_ENCRYPT_INIT = 28;
+	protected static final int C_ENCRYPT = 29;
+	protected static final int C_ENCRYPT_UPDATE = 30;
+	protected static final int C_ENCRYPT_FINAL = 31;
+	protected static final int C_DECRYPT_INIT = 32;
+	protected static final int C_DECRYPT = 33;
+	protected static final int C_DECRYPT_UPDATE = 34;
+	protected static final int C_DECRYPT_FINAL = 35;
+	protected static final int C_DIGEST_INIT = 36;
+	protected static final int C_DIGEST = 37;
+	protected static final int C_DIGEST_UPDATE = 38;
+	protected static final int C_DIGEST_KEY = 39;
+	protected static final int C_DIGEST_FINAL = 40;
+	protected static final int C_SIGN_INIT = 41;
+	protected static final int C_SIGN = 42;
+	protected static final int C_SIGN_UPDATE = 43;
+	protected static final int C_SIGN_FINAL = 44;
+	protected static final int C_SIGN_RECOVER_INIT = 45;
+	protected static final int C_SIGN_RECOVER = 46;
+	protected static final int C_VERIFY_INIT = 47;
+	protected static final int C_VERIFY = 48;
+	protected static final int C_VERIFY_UPDATE = 49;
+	protected static final int C_VERIFY_FINAL = 50;
+	protected static final int C_VERIFY_RECOVER_INIT = 51;
+	protected static final int C_VERIFY_RECOVER = 52;
+	protected static final int C_DIGEST_ENCRYPT_UPDATE = 53;
+	protected static final int C_DECRYPT_DIGEST_UPDATE = 54;
+	protected static final int C_SIGN_ENCRYPT_UPDATE = 55;
+	protected static final int C_DECRYPT_VERIFY_UPDATE = 56;
+	protected static final int C_GENERATE_KEY = 57;
+	protected static final int C_GENERATE_KEY_PAIR = 58;
+	protected static final int C_WRAP_KEY = 59;
+	protected static final int C_UNWRAP_KEY = 60;
+	protected static final int C_DERIVE_KEY = 61;
+	protected static final int C_SEED_RANDOM = 62;
+	protected static final int C_GENERATE_RANDOM = 63;
+	protected static final int C_GET_FUNCTION_STATUS = 64;
+	protected static final int C_CANCEL_FUNCTION = 65;
+	protected static final int C_WAIT_FOR_SLOT_EVENT = 66;
+
+	/**
+	 * The decorated module.
+	 */
+	protected PKCS11 pkcs11Module_;
+
+	/**
+	 * The statistics of each function; the index is the function constant.
+	 * Each element maps the slot ID (Long) to the CallStatistics.
+	 */
+	protected ConcurrentHashMap[] statistics_;
+
+	/**
+	 * Maps the handles of the open sessions (Long) to the IDs of their slots
+	 * (Long).
+	 */
+	protected ConcurrentHashMap sessionSlots_;
+
+	/**
+	 * The listener for call events; null, if events are disabled.
+	 */
+	protected volatile CallListener callListener_;
+
+	/**
+	 * The minimum duration in nanoseconds of a call to get an event; the index
+	 * is the function constant.
+	 */
+	protected long[] eventThresholds_;
+
+	/**
+	 * Maps the handles of the sessions (Long) to the mechanism (Long) of the
+	 * last initialized operation. Only maintained while a listener is set.
+	 */
+	protected ConcurrentHashMap sessionMechanisms_;
+
+	/**
+	 * Create a new decorator that records the calls to the given module.
+	 *
+	 * @param pkcs11Module The module to instrument.
+	 * @preconditions (pkcs11Module <> null)
+	 * @postconditions
+	 */
+	public InstrumentingPKCS11(PKCS11 pkcs11Module) {
+		if (pkcs11Module == null) {
+			throw new NullPointerException("Argument \"pkcs11Module\" must not be null.");
+		}
+		pkcs11Module_ = pkcs11Module;
+		statistics_ = new ConcurrentHashMap[FUNCTION_NAMES.length];
+		for (int i = 0; i < statistics_.length; i++) {
+			statistics_[i] = new ConcurrentHashMap();
+		}
+		sessionSlots_ = new ConcurrentHashMap();
+		eventThresholds_ = new long[FUNCTION_NAMES.length];
+		sessionMechanisms_ = new ConcurrentHashMap();
+	}
+
+	/**
+	 * Get the decorated module.
+	 *
+	 * @return The decorated module.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	public PKCS11 getPKCS11Module() {
+		return pkcs11Module_;
+	}
+
+	/**
+	 * Get a snapshot of the statistics of all functions and slots, which have
+	 * been called at least once since the creation or the last reset. The
+	 * statistics are ordered by function and by slot.
+	 *
+	 * @return A copy of the current statistics.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	public CallStatistics[] getStatistics() {
+		Vector snapshot = new Vector();
+		for (int i = 0; i < statistics_.length; i++) {
+			Vector functionStatistics = new Vector(statistics_[i].values());
+			int offset = snapshot.size();
+			for (int j = 0; j < functionStatistics.size(); j++) {
+				CallStatistics statistics = ((CallStatistics) functionStatistics.elementAt(j)).copy();
+				int index = offset;
+				while ((index < snapshot.size())
+				    && (((CallStatistics) snapshot.elementAt(index)).slotID_ < statistics.slotID_)) {
+					index++;
+				}
+				snapshot.insertElementAt(statistics, index);
+			}
+		}
+		CallStatistics[] result = new CallStatistics[snapshot.size()];
+		snapshot.copyInto(result);
+
+		return result;
+	}
+
+	/**
+	 * Get a snapshot of the statistics of the given function and slot.
+	 *
+	 * @param functionName The name of the function; e.g. "C_Sign".
+	 * @param slotID The ID of the slot or NO_SLOT.
+	 * @return A copy of the current statistics, or null if this function has
+	 *         not been called for this slot.
+	 * @preconditions (functionName <> null)
+	 * @postconditions
+	 */
+	public CallStatistics getStatistics(String functionName, long slotID) {
+		for (int i = 0; i < FUNCTION_NAMES.length; i++) {
+			if (FUNCTION_NAMES[i].equals(functionName)) {
+				CallStatistics statistics = (CallStatistics) statistics_[i].get(new Long(slotID));
+				return (statistics != null) ? statistics.copy() : null;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Reset all statistics. Calls that are recorded concurrently may get lost
+	 * partially.
+	 *
+	 * @preconditions
+	 * @postconditions
+	 */
+	public void reset() {
+		for (int i = 0; i < statistics_.length; i++) {
+			Iterator statistics = statistics_[i].values().iterator();
+			while (statistics.hasNext()) {
+				((CallStatistics) statistics.next()).reset();
+			}
+		}
+	}
+
+	/**
+	 * Set the listener that gets an event for each call which took at least as
+	 * long as the threshold of its function or failed.
+	 *
+	 * @param listener The listener, or null to disable the events.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public void setCallListener(CallListener listener) {
+		if (listener == null) {
+			sessionMechanisms_.clear();
+		}
+		callListener_ = listener;
+	}
+
+	/**
+	 * Get the listener for call events.
+	 *
+	 * @return The listener or null, if events are disabled.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public CallListener getCallListener() {
+		return callListener_;
+	}
+
+	/**
+	 * Set the threshold for the events of all functions. The default is 0;
+	 * i.e. each call gets an event.
+	 *
+	 * @param threshold The minimum duration of a call in nanoseconds.
+	 * @preconditions (threshold >= 0)
+	 * @postconditions
+	 */
+	public void setEventThreshold(long threshold) {
+		for (int i = 0; i < eventThresholds_.length; i++) {
+			eventThresholds_[i] = threshold;
+		}
+	}
+
+	/**
+	 * Set the threshold for the events of the given function.
+	 *
+	 * @param functionName The name of the function; e.g. "C_Sign".
+	 * @param threshold The minimum duration of a call in nanoseconds.
+	 * @exception IllegalArgumentException If there is no such function.
+	 * @preconditions (functionName <> null) and (threshold >= 0)
+	 * @postconditions
+	 */
+	public void setEventThreshold(String functionName, long threshold) {
+		for (int i = 0; i < FUNCTION_NAMES.length; i++) {
+			if (FUNCTION_NAMES[i].equals(functionName)) {
+				eventThresholds_[i] = threshold;
+				return;
+			}
+		}
+		throw new IllegalArgumentException("Unknown function: " + functionName);
+	}
+
+	/**
+	 * Record one call.
+	 *
+	 * @param function The index of the function; e.g. C_SIGN.
+	 * @param hSession The session handle or NO_SESSION.
+	 * @param slotID The ID of the slot or NO_SLOT.
+	 * @param mechanism The mechanism code passed to the function or
+	 *                  NO_MECHANISM.
+	 * @param startTime The value of System.nanoTime() before the call.
+	 * @param bytesIn The number of data bytes passed to the module.
+	 * @param bytesOut The number of data bytes returned by the module.
+	 * @param errorCode The return value of the call; CKR_OK if it succeeded.
+	 * @preconditions (function >= 0) and (function < FUNCTION_NAMES.length)
+	 * @postconditions
+	 */
+	protected void recordCall(int function, long hSession, long slotID, long mechanism,
+	                          long startTime, long bytesIn, long bytesOut, long errorCode)
+	{
+		long latency = System.nanoTime() - startTime;
+		ConcurrentHashMap functionStatistics = statistics_[function];
+		Long key = new Long(slotID);
+		CallStatistics statistics = (CallStatistics) functionStatistics.get(key);
+		if (statistics == null) {
+			CallStatistics newStatistics = new CallStatistics(FUNCTION_NAMES[function], slotID);
+			statistics = (CallStatistics) functionStatistics.putIfAbsent(key, newStatistics);
+			if (statistics == null) {
+				statistics = newStatistics;
+			}
+		}
+		statistics.record(latency, bytesIn, bytesOut, errorCode);
+
+		CallListener listener = callListener_;
+		if (listener != null) {
+			if (hSession != NO_SESSION) {
+				Long sessionKey = new Long(hSession);
+				if (mechanism != NO_MECHANISM) {
+					if (FUNCTION_NAMES[function].endsWith("Init")) {
+						// remember for the following calls of this operation
+						sessionMechanisms_.put(sessionKey, new Long(mechanism));
+					}
+				} else {
+					Long sessionMechanism = (Long) sessionMechanisms_.get(sessionKey);
+					if (sessionMechanism != null) {
+						mechanism = sessionMechanism.longValue();
+					}
+				}
+			}
+			if ((latency >= eventThresholds_[function]) || (errorCode != PKCS11Constants.CKR_OK)) {
+				listener.callCompleted(new CallEvent(FUNCTION_NAMES[function], hSession, slotID,
+				    mechanism, startTime, latency, bytesIn, bytesOut, errorCode));
+			}
+		}
+	}
+
+	/**
+	 * Get the slot of the given session.
+	 *
+	 * @param hSession The session handle.
+	 * @return The ID of the slot, or NO_SLOT if the session was not opened
+	 *         through this object.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected long getSlotID(long hSession) {
+		Long slotID = (Long) sessionSlots_.get(new Long(hSession));
+
+		return (slotID != null) ? slotID.longValue() : NO_SLOT;
+	}
+
+	/**
+	 * Forget all sessions of the given slot; e.g. after C_CloseAllSessions.
+	 *
+	 * @param slotID The ID of the slot.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected void removeSessions(long slotID) {
+		Iterator sessions = sessionSlots_.entrySet().iterator();
+		while (sessions.hasNext()) {
+			Map.Entry session = (Map.Entry) sessions.next();
+			if (((Long) session.getValue()).longValue() == slotID) {
+				sessionMechanisms_.remove(session.getKey());
+				sessions.remove();
+			}
+		}
+	}
+
+	/**
+	 * Get the code of the given mechanism.
+	 *
+	 * @param mechanism The mechanism or null.
+	 * @return The mechanism code, or NO_MECHANISM if it is null.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected static long mechanismOf(CK_MECHANISM mechanism) {
+		return (mechanism != null) ? mechanism.mechanism : NO_MECHANISM;
+	}
+
+	/**
+	 * Get the length of the given data.
+	 *
+	 * @param data The data or null.
+	 * @return The length of the data, or 0 if it is null.
+	 * @preconditions
+	 * @postconditions (result >= 0)
+	 */
+	protected static long length(byte[] data) {
+		return (data != null) ? data.length : 0;
+	}
+
+	/**
+	 * Calls C_Initialize of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_Initialize(Object, boolean)
+	 */
+	public void C_Initialize(Object pInitArgs, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_Initialize(pInitArgs, useUtf8);
+			recordCall(C_INITIALIZE, NO_SESSION, NO_SLOT, NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_INITIALIZE, NO_SESSION, NO_SLOT, NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_Finalize of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_Finalize(Object)
+	 */
+	public void C_Finalize(Object pReserved)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_Finalize(pReserved);
+			sessionSlots_.clear();
+			sessionMechanisms_.clear();
+			recordCall(C_FINALIZE, NO_SESSION, NO_SLOT, NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_FINALIZE, NO_SESSION, NO_SLOT, NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_GetInfo of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GetInfo()
+	 */
+	public CK_INFO C_GetInfo()
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			CK_INFO result = pkcs11Module_.C_GetInfo();
+			recordCall(C_GET_INFO, NO_SESSION, NO_SLOT, NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_GET_INFO, NO_SESSION, NO_SLOT, NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_GetSlotList of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GetSlotList(boolean)
+	 */
+	public long[] C_GetSlotList(boolean tokenPresent)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			long[] result = pkcs11Module_.C_GetSlotList(tokenPresent);
+			recordCall(C_GET_SLOT_LIST, NO_SESSION, NO_SLOT, NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_GET_SLOT_LIST, NO_SESSION, NO_SLOT, NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_GetSlotInfo of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GetSlotInfo(long)
+	 */
+	public CK_SLOT_INFO C_GetSlotInfo(long slotID)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			CK_SLOT_INFO result = pkcs11Module_.C_GetSlotInfo(slotID);
+			recordCall(C_GET_SLOT_INFO, NO_SESSION, slotID, NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_GET_SLOT_INFO, NO_SESSION, slotID, NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_GetTokenInfo of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GetTokenInfo(long)
+	 */
+	public CK_TOKEN_INFO C_GetTokenInfo(long slotID)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			CK_TOKEN_INFO result = pkcs11Module_.C_GetTokenInfo(slotID);
+			recordCall(C_GET_TOKEN_INFO, NO_SESSION, slotID, NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_GET_TOKEN_INFO, NO_SESSION, slotID, NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_GetMechanismList of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GetMechanismList(long)
+	 */
+	public long[] C_GetMechanismList(long slotID)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			long[] result = pkcs11Module_.C_GetMechanismList(slotID);
+			recordCall(C_GET_MECHANISM_LIST, NO_SESSION, slotID, NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_GET_MECHANISM_LIST, NO_SESSION, slotID, NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_GetMechanismInfo of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GetMechanismInfo(long, long)
+	 */
+	public CK_MECHANISM_INFO C_GetMechanismInfo(long slotID, long type)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			CK_MECHANISM_INFO result = pkcs11Module_.C_GetMechanismInfo(slotID, type);
+			recordCall(C_GET_MECHANISM_INFO, NO_SESSION, slotID, NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_GET_MECHANISM_INFO, NO_SESSION, slotID, NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_InitToken of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_InitToken(long, char[], char[], boolean)
+	 */
+	public void C_InitToken(long slotID, char[] pPin, char[] pLabel, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_InitToken(slotID, pPin, pLabel, useUtf8);
+			recordCall(C_INIT_TOKEN, NO_SESSION, slotID, NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_INIT_TOKEN, NO_SESSION, slotID, NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_InitPIN of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_InitPIN(long, char[], boolean)
+	 */
+	public void C_InitPIN(long hSession, char[] pPin, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_InitPIN(hSession, pPin, useUtf8);
+			recordCall(C_INIT_PIN, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_INIT_PIN, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_SetPIN of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_SetPIN(long, char[], char[], boolean)
+	 */
+	public void C_SetPIN(long hSession, char[] pOldPin, char[] pNewPin, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_SetPIN(hSession, pOldPin, pNewPin, useUtf8);
+			recordCall(C_SET_PIN, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_SET_PIN, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_OpenSession of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_OpenSession(long, long, Object, CK_NOTIFY)
+	 */
+	public long C_OpenSession(long slotID, long flags, Object pApplication, CK_NOTIFY Notify)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			long result = pkcs11Module_.C_OpenSession(slotID, flags, pApplication, Notify);
+			sessionSlots_.put(new Long(result), new Long(slotID));
+			recordCall(C_OPEN_SESSION, result, slotID, NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_OPEN_SESSION, NO_SESSION, slotID, NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_CloseSession of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_CloseSession(long)
+	 */
+	public void C_CloseSession(long hSession)
+	    throws PKCS11Exception
+	{
+		long slotID = getSlotID(hSession);
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_CloseSession(hSession);
+			sessionSlots_.remove(new Long(hSession));
+			sessionMechanisms_.remove(new Long(hSession));
+			recordCall(C_CLOSE_SESSION, hSession, slotID, NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_CLOSE_SESSION, hSession, slotID, NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_CloseAllSessions of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_CloseAllSessions(long)
+	 */
+	public void C_CloseAllSessions(long slotID)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_CloseAllSessions(slotID);
+			removeSessions(slotID);
+			recordCall(C_CLOSE_ALL_SESSIONS, NO_SESSION, slotID, NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_CLOSE_ALL_SESSIONS, NO_SESSION, slotID, NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_GetSessionInfo of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GetSessionInfo(long)
+	 */
+	public CK_SESSION_INFO C_GetSessionInfo(long hSession)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			CK_SESSION_INFO result = pkcs11Module_.C_GetSessionInfo(hSession);
+			recordCall(C_GET_SESSION_INFO, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_GET_SESSION_INFO, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_GetOperationState of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GetOperationState(long)
+	 */
+	public byte[] C_GetOperationState(long hSession)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_GetOperationState(hSession);
+			recordCall(C_GET_OPERATION_STATE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, length(result), PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_GET_OPERATION_STATE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_SetOperationState of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_SetOperationState(long, byte[], long, long)
+	 */
+	public void C_SetOperationState(long hSession, byte[] pOperationState, long hEncryptionKey, long hAuthenticationKey)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_SetOperationState(hSession, pOperationState, hEncryptionKey, hAuthenticationKey);
+			recordCall(C_SET_OPERATION_STATE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pOperationState), 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_SET_OPERATION_STATE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pOperationState), 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_Login of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_Login(long, long, char[], boolean)
+	 */
+	public void C_Login(long hSession, long userType, char[] pPin, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_Login(hSession, userType, pPin, useUtf8);
+			recordCall(C_LOGIN, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_LOGIN, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_Logout of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_Logout(long)
+	 */
+	public void C_Logout(long hSession)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_Logout(hSession);
+			recordCall(C_LOGOUT, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_LOGOUT, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_CreateObject of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_CreateObject(long, CK_ATTRIBUTE[], boolean)
+	 */
+	public long C_CreateObject(long hSession, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			long result = pkcs11Module_.C_CreateObject(hSession, pTemplate, useUtf8);
+			recordCall(C_CREATE_OBJECT, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_CREATE_OBJECT, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_CopyObject of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_CopyObject(long, long, CK_ATTRIBUTE[], boolean)
+	 */
+	public long C_CopyObject(long hSession, long hObject, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			long result = pkcs11Module_.C_CopyObject(hSession, hObject, pTemplate, useUtf8);
+			recordCall(C_COPY_OBJECT, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_COPY_OBJECT, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_DestroyObject of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DestroyObject(long, long)
+	 */
+	public void C_DestroyObject(long hSession, long hObject)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_DestroyObject(hSession, hObject);
+			recordCall(C_DESTROY_OBJECT, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_DESTROY_OBJECT, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_GetObjectSize of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GetObjectSize(long, long)
+	 */
+	public long C_GetObjectSize(long hSession, long hObject)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			long result = pkcs11Module_.C_GetObjectSize(hSession, hObject);
+			recordCall(C_GET_OBJECT_SIZE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_GET_OBJECT_SIZE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_GetAttributeValue of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GetAttributeValue(long, long, CK_ATTRIBUTE[], boolean)
+	 */
+	public void C_GetAttributeValue(long hSession, long hObject, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_GetAttributeValue(hSession, hObject, pTemplate, useUtf8);
+			recordCall(C_GET_ATTRIBUTE_VALUE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_GET_ATTRIBUTE_VALUE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_SetAttributeValue of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_SetAttributeValue(long, long, CK_ATTRIBUTE[], boolean)
+	 */
+	public void C_SetAttributeValue(long hSession, long hObject, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_SetAttributeValue(hSession, hObject, pTemplate, useUtf8);
+			recordCall(C_SET_ATTRIBUTE_VALUE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_SET_ATTRIBUTE_VALUE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_FindObjectsInit of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_FindObjectsInit(long, CK_ATTRIBUTE[], boolean)
+	 */
+	public void C_FindObjectsInit(long hSession, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_FindObjectsInit(hSession, pTemplate, useUtf8);
+			recordCall(C_FIND_OBJECTS_INIT, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_FIND_OBJECTS_INIT, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_FindObjects of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_FindObjects(long, long)
+	 */
+	public long[] C_FindObjects(long hSession, long ulMaxObjectCount)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			long[] result = pkcs11Module_.C_FindObjects(hSession, ulMaxObjectCount);
+			recordCall(C_FIND_OBJECTS, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_FIND_OBJECTS, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_FindObjectsFinal of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_FindObjectsFinal(long)
+	 */
+	public void C_FindObjectsFinal(long hSession)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_FindObjectsFinal(hSession);
+			recordCall(C_FIND_OBJECTS_FINAL, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_FIND_OBJECTS_FINAL, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_EncryptInit of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_EncryptInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_EncryptInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_EncryptInit(hSession, pMechanism, hKey, useUtf8);
+			recordCall(C_ENCRYPT_INIT, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_ENCRYPT_INIT, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_Encrypt of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_Encrypt(long, byte[])
+	 */
+	public byte[] C_Encrypt(long hSession, byte[] pData)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_Encrypt(hSession, pData);
+			recordCall(C_ENCRYPT, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pData), length(result), PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_ENCRYPT, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pData), 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_EncryptUpdate of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_EncryptUpdate(long, byte[])
+	 */
+	public byte[] C_EncryptUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_EncryptUpdate(hSession, pPart);
+			recordCall(C_ENCRYPT_UPDATE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pPart), length(result), PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_ENCRYPT_UPDATE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pPart), 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_EncryptFinal of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_EncryptFinal(long)
+	 */
+	public byte[] C_EncryptFinal(long hSession)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_EncryptFinal(hSession);
+			recordCall(C_ENCRYPT_FINAL, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, length(result), PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_ENCRYPT_FINAL, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_DecryptInit of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DecryptInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_DecryptInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_DecryptInit(hSession, pMechanism, hKey, useUtf8);
+			recordCall(C_DECRYPT_INIT, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_DECRYPT_INIT, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_Decrypt of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_Decrypt(long, byte[])
+	 */
+	public byte[] C_Decrypt(long hSession, byte[] pEncryptedData)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_Decrypt(hSession, pEncryptedData);
+			recordCall(C_DECRYPT, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pEncryptedData), length(result), PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_DECRYPT, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pEncryptedData), 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_DecryptUpdate of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DecryptUpdate(long, byte[])
+	 */
+	public byte[] C_DecryptUpdate(long hSession, byte[] pEncryptedPart)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_DecryptUpdate(hSession, pEncryptedPart);
+			recordCall(C_DECRYPT_UPDATE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pEncryptedPart), length(result), PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_DECRYPT_UPDATE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pEncryptedPart), 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_DecryptFinal of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DecryptFinal(long)
+	 */
+	public byte[] C_DecryptFinal(long hSession)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_DecryptFinal(hSession);
+			recordCall(C_DECRYPT_FINAL, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, length(result), PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_DECRYPT_FINAL, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_DigestInit of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DigestInit(long, CK_MECHANISM, boolean)
+	 */
+	public void C_DigestInit(long hSession, CK_MECHANISM pMechanism, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_DigestInit(hSession, pMechanism, useUtf8);
+			recordCall(C_DIGEST_INIT, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_DIGEST_INIT, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_Digest of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_Digest(long, byte[])
+	 */
+	public byte[] C_Digest(long hSession, byte[] data)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_Digest(hSession, data);
+			recordCall(C_DIGEST, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(data), length(result), PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_DIGEST, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(data), 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_DigestUpdate of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DigestUpdate(long, byte[])
+	 */
+	public void C_DigestUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_DigestUpdate(hSession, pPart);
+			recordCall(C_DIGEST_UPDATE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pPart), 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_DIGEST_UPDATE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pPart), 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_DigestKey of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DigestKey(long, long)
+	 */
+	public void C_DigestKey(long hSession, long hKey)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_DigestKey(hSession, hKey);
+			recordCall(C_DIGEST_KEY, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_DIGEST_KEY, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_DigestFinal of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DigestFinal(long)
+	 */
+	public byte[] C_DigestFinal(long hSession)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_DigestFinal(hSession);
+			recordCall(C_DIGEST_FINAL, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, length(result), PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_DIGEST_FINAL, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_SignInit of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_SignInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_SignInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_SignInit(hSession, pMechanism, hKey, useUtf8);
+			recordCall(C_SIGN_INIT, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_SIGN_INIT, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_Sign of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_Sign(long, byte[])
+	 */
+	public byte[] C_Sign(long hSession, byte[] pData)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_Sign(hSession, pData);
+			recordCall(C_SIGN, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pData), length(result), PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_SIGN, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pData), 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_SignUpdate of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_SignUpdate(long, byte[])
+	 */
+	public void C_SignUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_SignUpdate(hSession, pPart);
+			recordCall(C_SIGN_UPDATE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pPart), 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_SIGN_UPDATE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pPart), 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_SignFinal of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_SignFinal(long)
+	 */
+	public byte[] C_SignFinal(long hSession)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_SignFinal(hSession);
+			recordCall(C_SIGN_FINAL, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, length(result), PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_SIGN_FINAL, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_SignRecoverInit of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_SignRecoverInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_SignRecoverInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_SignRecoverInit(hSession, pMechanism, hKey, useUtf8);
+			recordCall(C_SIGN_RECOVER_INIT, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_SIGN_RECOVER_INIT, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_SignRecover of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_SignRecover(long, byte[])
+	 */
+	public byte[] C_SignRecover(long hSession, byte[] pData)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_SignRecover(hSession, pData);
+			recordCall(C_SIGN_RECOVER, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pData), length(result), PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_SIGN_RECOVER, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pData), 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_VerifyInit of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_VerifyInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_VerifyInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_VerifyInit(hSession, pMechanism, hKey, useUtf8);
+			recordCall(C_VERIFY_INIT, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_VERIFY_INIT, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_Verify of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_Verify(long, byte[], byte[])
+	 */
+	public void C_Verify(long hSession, byte[] pData, byte[] pSignature)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_Verify(hSession, pData, pSignature);
+			recordCall(C_VERIFY, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pData) + length(pSignature), 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_VERIFY, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pData) + length(pSignature), 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_VerifyUpdate of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_VerifyUpdate(long, byte[])
+	 */
+	public void C_VerifyUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_VerifyUpdate(hSession, pPart);
+			recordCall(C_VERIFY_UPDATE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pPart), 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_VERIFY_UPDATE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pPart), 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_VerifyFinal of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_VerifyFinal(long, byte[])
+	 */
+	public void C_VerifyFinal(long hSession, byte[] pSignature)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_VerifyFinal(hSession, pSignature);
+			recordCall(C_VERIFY_FINAL, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pSignature), 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_VERIFY_FINAL, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pSignature), 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_VerifyRecoverInit of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_VerifyRecoverInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_VerifyRecoverInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_VerifyRecoverInit(hSession, pMechanism, hKey, useUtf8);
+			recordCall(C_VERIFY_RECOVER_INIT, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_VERIFY_RECOVER_INIT, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_VerifyRecover of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_VerifyRecover(long, byte[])
+	 */
+	public byte[] C_VerifyRecover(long hSession, byte[] pSignature)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_VerifyRecover(hSession, pSignature);
+			recordCall(C_VERIFY_RECOVER, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pSignature), length(result), PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_VERIFY_RECOVER, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pSignature), 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_DigestEncryptUpdate of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DigestEncryptUpdate(long, byte[])
+	 */
+	public byte[] C_DigestEncryptUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_DigestEncryptUpdate(hSession, pPart);
+			recordCall(C_DIGEST_ENCRYPT_UPDATE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pPart), length(result), PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_DIGEST_ENCRYPT_UPDATE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pPart), 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_DecryptDigestUpdate of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DecryptDigestUpdate(long, byte[])
+	 */
+	public byte[] C_DecryptDigestUpdate(long hSession, byte[] pEncryptedPart)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_DecryptDigestUpdate(hSession, pEncryptedPart);
+			recordCall(C_DECRYPT_DIGEST_UPDATE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pEncryptedPart), length(result), PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_DECRYPT_DIGEST_UPDATE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pEncryptedPart), 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_SignEncryptUpdate of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_SignEncryptUpdate(long, byte[])
+	 */
+	public byte[] C_SignEncryptUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_SignEncryptUpdate(hSession, pPart);
+			recordCall(C_SIGN_ENCRYPT_UPDATE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pPart), length(result), PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_SIGN_ENCRYPT_UPDATE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pPart), 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_DecryptVerifyUpdate of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DecryptVerifyUpdate(long, byte[])
+	 */
+	public byte[] C_DecryptVerifyUpdate(long hSession, byte[] pEncryptedPart)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_DecryptVerifyUpdate(hSession, pEncryptedPart);
+			recordCall(C_DECRYPT_VERIFY_UPDATE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pEncryptedPart), length(result), PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_DECRYPT_VERIFY_UPDATE, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pEncryptedPart), 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_GenerateKey of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GenerateKey(long, CK_MECHANISM, CK_ATTRIBUTE[], boolean)
+	 */
+	public long C_GenerateKey(long hSession, CK_MECHANISM pMechanism, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			long result = pkcs11Module_.C_GenerateKey(hSession, pMechanism, pTemplate, useUtf8);
+			recordCall(C_GENERATE_KEY, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_GENERATE_KEY, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_GenerateKeyPair of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GenerateKeyPair(long, CK_MECHANISM, CK_ATTRIBUTE[], CK_ATTRIBUTE[], boolean)
+	 */
+	public long[] C_GenerateKeyPair(long hSession, CK_MECHANISM pMechanism, CK_ATTRIBUTE[] pPublicKeyTemplate, CK_ATTRIBUTE[] pPrivateKeyTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			long[] result = pkcs11Module_.C_GenerateKeyPair(hSession, pMechanism, pPublicKeyTemplate, pPrivateKeyTemplate, useUtf8);
+			recordCall(C_GENERATE_KEY_PAIR, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_GENERATE_KEY_PAIR, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_WrapKey of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_WrapKey(long, CK_MECHANISM, long, long, boolean)
+	 */
+	public byte[] C_WrapKey(long hSession, CK_MECHANISM pMechanism, long hWrappingKey, long hKey, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_WrapKey(hSession, pMechanism, hWrappingKey, hKey, useUtf8);
+			recordCall(C_WRAP_KEY, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    0, length(result), PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_WRAP_KEY, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_UnwrapKey of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_UnwrapKey(long, CK_MECHANISM, long, byte[], CK_ATTRIBUTE[], boolean)
+	 */
+	public long C_UnwrapKey(long hSession, CK_MECHANISM pMechanism, long hUnwrappingKey, byte[] pWrappedKey, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			long result = pkcs11Module_.C_UnwrapKey(hSession, pMechanism, hUnwrappingKey, pWrappedKey, pTemplate, useUtf8);
+			recordCall(C_UNWRAP_KEY, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    length(pWrappedKey), 0, PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_UNWRAP_KEY, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    length(pWrappedKey), 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_DeriveKey of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DeriveKey(long, CK_MECHANISM, long, CK_ATTRIBUTE[], boolean)
+	 */
+	public long C_DeriveKey(long hSession, CK_MECHANISM pMechanism, long hBaseKey, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			long result = pkcs11Module_.C_DeriveKey(hSession, pMechanism, hBaseKey, pTemplate, useUtf8);
+			recordCall(C_DERIVE_KEY, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_DERIVE_KEY, hSession, getSlotID(hSession), mechanismOf(pMechanism), startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_SeedRandom of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_SeedRandom(long, byte[])
+	 */
+	public void C_SeedRandom(long hSession, byte[] pSeed)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_SeedRandom(hSession, pSeed);
+			recordCall(C_SEED_RANDOM, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pSeed), 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_SEED_RANDOM, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    length(pSeed), 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_GenerateRandom of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GenerateRandom(long, byte[])
+	 */
+	public void C_GenerateRandom(long hSession, byte[] randomData)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_GenerateRandom(hSession, randomData);
+			recordCall(C_GENERATE_RANDOM, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, length(randomData), PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_GENERATE_RANDOM, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_GetFunctionStatus of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GetFunctionStatus(long)
+	 */
+	public void C_GetFunctionStatus(long hSession)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_GetFunctionStatus(hSession);
+			recordCall(C_GET_FUNCTION_STATUS, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_GET_FUNCTION_STATUS, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_CancelFunction of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_CancelFunction(long)
+	 */
+	public void C_CancelFunction(long hSession)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_CancelFunction(hSession);
+			recordCall(C_CANCEL_FUNCTION, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+		} catch (PKCS11Exception ex) {
+			recordCall(C_CANCEL_FUNCTION, hSession, getSlotID(hSession), NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Calls C_WaitForSlotEvent of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_WaitForSlotEvent(long, Object)
+	 */
+	public long C_WaitForSlotEvent(long flags, Object pReserved)
+	    throws PKCS11Exception
+	{
+		long startTime = System.nanoTime();
+		try {
+			long result = pkcs11Module_.C_WaitForSlotEvent(flags, pReserved);
+			recordCall(C_WAIT_FOR_SLOT_EVENT, NO_SESSION, NO_SLOT, NO_MECHANISM, startTime,
+			    0, 0, PKCS11Constants.CKR_OK);
+			return result;
+		} catch (PKCS11Exception ex) {
+			recordCall(C_WAIT_FOR_SLOT_EVENT, NO_SESSION, NO_SLOT, NO_MECHANISM, startTime,
+			    0, 0, ex.getErrorCode());
+			throw ex;
+		}
+	}
+
+	/**
+	 * Returns the string representation of this object; the decorated module
+	 * and the current statistics, one line per function and slot.
+	 *
+	 * @return the string representation of this object
+	 */
+	public String toString() {
+		StringBuffer buffer = new StringBuffer();
+
+		buffer.append("Instrumented ");
+		buffer.append(pkcs11Module_);
+		CallStatistics[] statistics = getStatistics();
+		for (int i = 0; i < statistics.length; i++) {
+			buffer.append(Constants.NEWLINE);
+			buffer.append(Constants.INDENT);
+			buffer.append(statistics[i]);
+		}
+
+		return buffer.toString();
+	}
+
+	/**
+	 * Finalizes the decorated module. Once this method is called, this object
+	 * cannot be used any longer.
+	 *
+	 * @exception Throwable If finalization fails.
+	 */
+	public void finalize()
+	    throws Throwable
+	{
+		pkcs11Module_.finalize();
+		super.finalize();
+	}
+
+}
@@ -0,0 +1,382 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.wrapper;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram for recording latencies in nanoseconds. The buckets follow a
+ * log-linear layout similar to HdrHistogram: values below 64 get their own
+ * bucket, larger values are grouped into 32 sub-buckets per power of two. This
+ * gives a relative error of less than about 3 percent over the whole range of
+ * positive long values with a fixed amount of memory.
+ * Recording is lock-free and can be done concurrently by any number of
+ * threads. Reading percentiles while other threads record gives a consistent
+ * enough view for monitoring purposes, but not an atomic snapshot. Use
+ * <code>copy()</code> to get a stable view.
+ * <pre><code>
+ *   LatencyHistogram histogram = new LatencyHistogram();
+ *   long start = System.nanoTime();
+ *   // ... do the work
+ *   histogram.recordValue(System.nanoTime() - start);
+ *   long p99 = histogram.getValueAtPercentile(99.0);
+ * </code></pre>
+ *
+ * @version 1.0
+ * @invariants (counts_ <> null)
+ */
+public class LatencyHistogram {
+
+	/**
+	 * The number of bits used for the sub-bucket index within one power of two.
+	 */
+	protected static final int SUB_BUCKET_BITS = 5;
+
+	/**
+	 * The number of sub-buckets per power of two.
+	 */
+	protected static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * The total number of buckets required to cover all positive long values.
+	 */
+	protected static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+	/**
+	 * The counts of the buckets.
+	 */
+	protected AtomicLongArray counts_;
+
+	/**
+	 * The total number of recorded values.
+	 */
+	protected AtomicLong totalCount_;
+
+	/**
+	 * The sum of all recorded values.
+	 */
+	protected AtomicLong totalSum_;
+
+	/**
+	 * The smallest recorded value; Long.MAX_VALUE if nothing was recorded.
+	 */
+	protected AtomicLong minValue_;
+
+	/**
+	 * The largest recorded value; 0 if nothing was recorded.
+	 */
+	protected AtomicLong maxValue_;
+
+	/**
+	 * Creates a new, empty histogram.
+	 *
+	 * @preconditions
+	 * @postconditions (getTotalCount() == 0)
+	 */
+	public LatencyHistogram() {
+		counts_ = new AtomicLongArray(BUCKET_COUNT);
+		totalCount_ = new AtomicLong();
+		totalSum_ = new AtomicLong();
+		minValue_ = new AtomicLong(Long.MAX_VALUE);
+		maxValue_ = new AtomicLong();
+	}
+
+	/**
+	 * Get the index of the bucket that holds the given value.
+	 *
+	 * @param value The value. Negative values are treated as 0.
+	 * @return The bucket index.
+	 * @preconditions
+	 * @postconditions (result >= 0) and (result < BUCKET_COUNT)
+	 */
+	protected static int bucketIndex(long value) {
+		if (value < (SUB_BUCKET_COUNT << 1)) {
+			return (value < 0L) ? 0 : (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+
+		return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+	}
+
+	/**
+	 * Get the lowest value that falls into the bucket with the given index.
+	 *
+	 * @param index The bucket index.
+	 * @return The lowest value of this bucket.
+	 * @preconditions (index >= 0) and (index < BUCKET_COUNT)
+	 * @postconditions
+	 */
+	protected static long bucketLowValue(int index) {
+		if (index < (SUB_BUCKET_COUNT << 1)) {
+			return index;
+		}
+		int shift = (index / SUB_BUCKET_COUNT) - 1;
+		long subBucket = (index % SUB_BUCKET_COUNT) + SUB_BUCKET_COUNT;
+
+		return subBucket << shift;
+	}
+
+	/**
+	 * Get the highest value that falls into the bucket with the given index.
+	 *
+	 * @param index The bucket index.
+	 * @return The highest value of this bucket.
+	 * @preconditions (index >= 0) and (index < BUCKET_COUNT)
+	 * @postconditions
+	 */
+	protected static long bucketHighValue(int index) {
+		if (index < (SUB_BUCKET_COUNT << 1)) {
+			return index;
+		}
+		int shift = (index / SUB_BUCKET_COUNT) - 1;
+
+		return bucketLowValue(index) + (1L << shift) - 1L;
+	}
+
+	/**
+	 * Record a single value; e.g. the duration of a call in nanoseconds.
+	 *
+	 * @param value The value to record. Negative values are recorded as 0.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public void recordValue(long value) {
+		if (value < 0L) {
+			value = 0L;
+		}
+		counts_.incrementAndGet(bucketIndex(value));
+		totalCount_.incrementAndGet();
+		totalSum_.addAndGet(value);
+
+		long current;
+		while (value < (current = minValue_.get())) {
+			if (minValue_.compareAndSet(current, value)) {
+				break;
+			}
+		}
+		while (value > (current = maxValue_.get())) {
+			if (maxValue_.compareAndSet(current, value)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Get the total number of values recorded in this histogram.
+	 *
+	 * @return The number of recorded values.
+	 * @preconditions
+	 * @postconditions (result >= 0)
+	 */
+	public long getTotalCount() {
+		return totalCount_.get();
+	}
+
+	/**
+	 * Get the smallest recorded value.
+	 *
+	 * @return The smallest value, or 0 if nothing was recorded yet.
+	 * @preconditions
+	 * @postconditions (result >= 0)
+	 */
+	public long getMinValue() {
+		long min = minValue_.get();
+
+		return (min == Long.MAX_VALUE) ? 0L : min;
+	}
+
+	/**
+	 * Get the largest recorded value.
+	 *
+	 * @return The largest value, or 0 if nothing was recorded yet.
+	 * @preconditions
+	 * @postconditions (result >= 0)
+	 */
+	public long getMaxValue() {
+		return maxValue_.get();
+	}
+
+	/**
+	 * Get the arithmetic mean of all recorded values.
+	 *
+	 * @return The mean value, or 0 if nothing was recorded yet.
+	 * @preconditions
+	 * @postconditions (result >= 0)
+	 */
+	public double getMean() {
+		long count = totalCount_.get();
+
+		return (count == 0L) ? 0.0 : ((double) totalSum_.get()) / count;
+	}
+
+	/**
+	 * Get the value at the given percentile; e.g. 99.0 for the 99th percentile.
+	 * The result is the highest value of the bucket where the percentile falls
+	 * into, but never larger than the largest recorded value.
+	 *
+	 * @param percentile The percentile in the range from 0.0 to 100.0.
+	 * @return The value at this percentile, or 0 if nothing was recorded yet.
+	 * @preconditions (percentile >= 0.0) and (percentile <= 100.0)
+	 * @postconditions (result >= 0)
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = totalCount_.get();
+		if (count == 0L) {
+			return 0L;
+		}
+		double boundedPercentile = Math.min(Math.max(percentile, 0.0), 100.0);
+		long countAtPercentile = (long) Math.ceil((boundedPercentile / 100.0) * count);
+		if (countAtPercentile < 1L) {
+			countAtPercentile = 1L;
+		}
+
+		long runningCount = 0L;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			runningCount += counts_.get(i);
+			if (runningCount >= countAtPercentile) {
+				return Math.min(bucketHighValue(i), getMaxValue());
+			}
+		}
+
+		return getMaxValue();
+	}
+
+	/**
+	 * Add all values recorded in the other histogram to this histogram.
+	 *
+	 * @param other The histogram to add.
+	 * @preconditions (other <> null)
+	 * @postconditions
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			long bucketCount = other.counts_.get(i);
+			if (bucketCount != 0L) {
+				counts_.addAndGet(i, bucketCount);
+			}
+		}
+		totalCount_.addAndGet(other.totalCount_.get());
+		totalSum_.addAndGet(other.totalSum_.get());
+
+		long otherMin = other.minValue_.get();
+		long current;
+		while (otherMin < (current = minValue_.get())) {
+			if (minValue_.compareAndSet(current, otherMin)) {
+				break;
+			}
+		}
+		long otherMax = other.maxValue_.get();
+		while (otherMax > (current = maxValue_.get())) {
+			if (maxValue_.compareAndSet(current, otherMax)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Create a copy of this histogram. The copy is independent of this
+	 * histogram; i.e. values recorded later in this histogram do not show up
+	 * in the copy.
+	 *
+	 * @return The copy.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	public LatencyHistogram copy() {
+		LatencyHistogram copy = new LatencyHistogram();
+		copy.add(this);
+
+		return copy;
+	}
+
+	/**
+	 * Removes all recorded values. Values recorded concurrently may get lost.
+	 *
+	 * @preconditions
+	 * @postconditions
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts_.set(i, 0L);
+		}
+		totalCount_.set(0L);
+		totalSum_.set(0L);
+		minValue_.set(Long.MAX_VALUE);
+		maxValue_.set(0L);
+	}
+
+	/**
+	 * Returns the string representation of this object. It contains the count,
+	 * the mean and the most common percentiles in microseconds.
+	 *
+	 * @return the string representation of this object
+	 */
+	public String toString() {
+		StringBuffer buffer = new StringBuffer();
+
+		buffer.append("Count: ");
+		buffer.append(getTotalCount());
+		buffer.append(Constants.NEWLINE);
+		buffer.append("Mean [us]: ");
+		buffer.append(getMean() / 1000.0);
+		buffer.append(Constants.NEWLINE);
+		buffer.append("p50 [us]: ");
+		buffer.append(getValueAtPercentile(50.0) / 1000L);
+		buffer.append(Constants.NEWLINE);
+		buffer.append("p90 [us]: ");
+		buffer.append(getValueAtPercentile(90.0) / 1000L);
+		buffer.append(Constants.NEWLINE);
+		buffer.append("p99 [us]: ");
+		buffer.append(getValueAtPercentile(99.0) / 1000L);
+		buffer.append(Constants.NEWLINE);
+		buffer.append("p99.9 [us]: ");
+		buffer.append(getValueAtPercentile(99.9) / 1000L);
+		buffer.append(Constants.NEWLINE);
+		buffer.append("Max [us]: ");
+		buffer.append(getMaxValue() / 1000L);
+
+		return buffer.toString();
+	}
+
+}
@@ -0,0 +1,417 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.wrapper;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+/**
+ * This class classifies the known mechanisms and maps their codes to their
+ * names. It answers the isXxxMechanism methods of Functions and
+ * Functions.mechanismCodeToString. The tables are built once when the class
+ * is loaded from the Hashtables of Functions, and they are never changed
+ * afterwards. They keep the mechanism codes, the classes and the names in
+ * arrays and find a code with a small open-addressing hash table; thus, a
+ * lookup takes constant time and needs no lock and no Long object. This
+ * matters for applications that check a mechanism for each request; e.g.
+ * <pre><code>
+ *   if (!MechanismRegistry.hasClasses(mechanismCode, MechanismRegistry.FULL_SIGN_VERIFY)) {
+ *     throw new IllegalArgumentException("Not a sign mechanism: " + Functions.mechanismCodeToString(mechanismCode));
+ *   }
+ * </code></pre>
+ *
+ * @see iaik.pkcs.pkcs11.wrapper.Functions
+ * @version 1.0
+ * @invariants
+ */
+public class MechanismRegistry {
+
+	/**
+	 * The class of full encrypt/decrypt mechanisms.
+	 */
+	public static final int FULL_ENCRYPT_DECRYPT = 0x0001;
+
+	/**
+	 * The class of single-operation encrypt/decrypt mechanisms.
+	 */
+	public static final int SINGLE_OPERATION_ENCRYPT_DECRYPT = 0x0002;
+
+	/**
+	 * The class of full sign/verify mechanisms.
+	 */
+	public static final int FULL_SIGN_VERIFY = 0x0004;
+
+	/**
+	 * The class of single-operation sign/verify mechanisms.
+	 */
+	public static final int SINGLE_OPERATION_SIGN_VERIFY = 0x0008;
+
+	/**
+	 * The class of sign/verify mechanisms with message recovery.
+	 */
+	public static final int SIGN_VERIFY_RECOVER = 0x0010;
+
+	/**
+	 * The class of digest mechanisms.
+	 */
+	public static final int DIGEST = 0x0020;
+
+	/**
+	 * The class of key generation mechanisms.
+	 */
+	public static final int KEY_GENERATION = 0x0040;
+
+	/**
+	 * The class of key-pair generation mechanisms.
+	 */
+	public static final int KEY_PAIR_GENERATION = 0x0080;
+
+	/**
+	 * The class of wrap/unwrap mechanisms.
+	 */
+	public static final int WRAP_UNWRAP = 0x0100;
+
+	/**
+	 * The class of key derivation mechanisms.
+	 */
+	public static final int KEY_DERIVATION = 0x0200;
+
+	/**
+	 * The codes of the known mechanisms.
+	 */
+	protected static final long[] mechanismCodes_;
+
+	/**
+	 * The classes of the mechanisms as bit mask; the index is the index of the
+	 * mechanism code.
+	 */
+	protected static final int[] mechanismClasses_;
+
+	/**
+	 * The names of the mechanisms; the index is the index of the mechanism code.
+	 */
+	protected static final String[] mechanismNames_;
+
+	/**
+	 * The hash table; an element holds the index of a mechanism plus one, or
+	 * 0 if it is empty. Its length is a power of two.
+	 */
+	protected static final int[] hashTable_;
+
+	static {
+		Hashtable classes = new Hashtable(256);
+		Hashtable names = Functions.getMechanismNames();
+		for (Enumeration codes = names.keys(); codes.hasMoreElements();) {
+			classes.put(codes.nextElement(), new Integer(0));
+		}
+		addClass(classes, Functions.getFullEncryptDecryptMechanisms(), FULL_ENCRYPT_DECRYPT);
+		addClass(classes, Functions.getSingleOperationEncryptDecryptMechanisms(),
+		    SINGLE_OPERATION_ENCRYPT_DECRYPT);
+		addClass(classes, Functions.getFullSignVerifyMechanisms(), FULL_SIGN_VERIFY);
+		addClass(classes, Functions.getSingleOperationSignVerifyMechanisms(),
+		    SINGLE_OPERATION_SIGN_VERIFY);
+		addClass(classes, Functions.getSignVerifyRecoverMechanisms(), SIGN_VERIFY_RECOVER);
+		addClass(classes, Functions.getDigestMechanisms(), DIGEST);
+		addClass(classes, Functions.getKeyGenerationMechanisms(), KEY_GENERATION);
+		addClass(classes, Functions.getKeyPairGenerationMechanisms(), KEY_PAIR_GENERATION);
+		addClass(classes, Functions.getWrapUnwrapMechanisms(), WRAP_UNWRAP);
+		addClass(classes, Functions.getKeyDerivationMechanisms(), KEY_DERIVATION);
+
+		int size = classes.size();
+		mechanismCodes_ = new long[size];
+		mechanismClasses_ = new int[size];
+		mechanismNames_ = new String[size];
+		int capacity = 4;
+		while (capacity < 2 * size) {
+			capacity <<= 1;
+		}
+		hashTable_ = new int[capacity];
+
+		int index = 0;
+		for (Enumeration codes = classes.keys(); codes.hasMoreElements(); index++) {
+			Long code = (Long) codes.nextElement();
+			mechanismCodes_[index] = code.longValue();
+			mechanismClasses_[index] = ((Integer) classes.get(code)).intValue();
+			Object name = names.get(code);
+			mechanismNames_[index] = (name != null) ? name.toString() : null;
+
+			int position = hash(code.longValue()) & (capacity - 1);
+			while (hashTable_[position] != 0) {
+				position = (position + 1) & (capacity - 1);
+			}
+			hashTable_[position] = index + 1;
+		}
+	}
+
+	/**
+	 * Add the given class to all mechanisms in the given table.
+	 *
+	 * @param classes The classes of the mechanisms so far. Maps the Long codes
+	 *                to Integer bit masks.
+	 * @param mechanisms The mechanisms of the class with their Long codes as
+	 *                   keys.
+	 * @param mechanismClass The class to add.
+	 * @preconditions (classes <> null) and (mechanisms <> null)
+	 * @postconditions
+	 */
+	private static void addClass(Hashtable classes, Hashtable mechanisms, int mechanismClass) {
+		for (Enumeration codes = mechanisms.keys(); codes.hasMoreElements();) {
+			Object code = codes.nextElement();
+			Integer oldClasses = (Integer) classes.get(code);
+			int newClasses = ((oldClasses != null) ? oldClasses.intValue() : 0) | mechanismClass;
+			classes.put(code, new Integer(newClasses));
+		}
+	}
+
+	/**
+	 * Spread the bits of a mechanism code for the hash table.
+	 *
+	 * @param mechanismCode The mechanism code.
+	 * @return The hash of the code.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected static int hash(long mechanismCode) {
+		int hash = (int) (mechanismCode ^ (mechanismCode >>> 32));
+
+		return (hash * 0x9E3779B9) ^ (hash >>> 16);
+	}
+
+	/**
+	 * Get the index of the given mechanism in the tables.
+	 *
+	 * @param mechanismCode The code of the mechanism.
+	 * @return The index, or -1 if the mechanism is not known.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected static int indexOf(long mechanismCode) {
+		int mask = hashTable_.length - 1;
+		int position = hash(mechanismCode) & mask;
+		int entry;
+		while ((entry = hashTable_[position]) != 0) {
+			if (mechanismCodes_[entry - 1] == mechanismCode) {
+				return entry - 1;
+			}
+			position = (position + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Get the classes of the given mechanism as bit mask; e.g.
+	 * (FULL_SIGN_VERIFY | SIGN_VERIFY_RECOVER).
+	 *
+	 * @param mechanismCode The code of the mechanism.
+	 * @return The classes of the mechanism, or 0 if it is not known.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public static int getClasses(long mechanismCode) {
+		int index = indexOf(mechanismCode);
+
+		return (index >= 0) ? mechanismClasses_[index] : 0;
+	}
+
+	/**
+	 * Check, if the given mechanism belongs to all the given classes.
+	 *
+	 * @param mechanismCode The code of the mechanism.
+	 * @param requiredClasses The required classes as bit mask; e.g. DIGEST.
+	 * @return True, if the mechanism belongs to all the required classes.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public static boolean hasClasses(long mechanismCode, int requiredClasses) {
+		return (getClasses(mechanismCode) & requiredClasses) == requiredClasses;
+	}
+
+	/**
+	 * Get the name of the given mechanism; e.g. "CKM_RSA_PKCS".
+	 *
+	 * @param mechanismCode The code of the mechanism.
+	 * @return The name of the mechanism, or null if it is not known.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public static String getMechanismName(long mechanismCode) {
+		int index = indexOf(mechanismCode);
+
+		return (index >= 0) ? mechanismNames_[index] : null;
+	}
+
+	/**
+	 * Check, if the mechanism is a full encrypt/decrypt mechanism.
+	 *
+	 * @param mechanismCode The code of the mechanism to check.
+	 * @return True, if the mechanism is a full encrypt/decrypt mechanism.
+	 * @see Functions#isFullEncryptDecryptMechanism(long)
+	 * @preconditions
+	 * @postconditions
+	 */
+	public static boolean isFullEncryptDecryptMechanism(long mechanismCode) {
+		return (getClasses(mechanismCode) & FULL_ENCRYPT_DECRYPT) != 0;
+	}
+
+	/**
+	 * Check, if the mechanism is a single-operation encrypt/decrypt mechanism.
+	 *
+	 * @param mechanismCode The code of the mechanism to check.
+	 * @return True, if the mechanism is a single-operation encrypt/decrypt
+	 *         mechanism.
+	 * @see Functions#isSingleOperationEncryptDecryptMechanism(long)
+	 * @preconditions
+	 * @postconditions
+	 */
+	public static boolean isSingleOperationEncryptDecryptMechanism(long mechanismCode) {
+		return (getClasses(mechanismCode) & SINGLE_OPERATION_ENCRYPT_DECRYPT) != 0;
+	}
+
+	/**
+	 * Check, if the mechanism is a full sign/verify mechanism.
+	 *
+	 * @param mechanismCode The code of the mechanism to check.
+	 * @return True, if the mechanism is a full sign/verify mechanism.
+	 * @see Functions#isFullSignVerifyMechanism(long)
+	 * @preconditions
+	 * @postconditions
+	 */
+	public static boolean isFullSignVerifyMechanism(long mechanismCode) {
+		return (getClasses(mechanismCode) & FULL_SIGN_VERIFY) != 0;
+	}
+
+	/**
+	 * Check, if the mechanism is a single-operation sign/verify mechanism.
+	 *
+	 * @param mechanismCode The code of the mechanism to check.
+	 * @return True, if the mechanism is a single-operation sign/verify
+	 *         mechanism.
+	 * @see Functions#isSingleOperationSignVerifyMechanism(long)
+	 * @preconditions
+	 * @postconditions
+	 */
+	public static boolean isSingleOperationSignVerifyMechanism(long mechanismCode) {
+		return (getClasses(mechanismCode) & SINGLE_OPERATION_SIGN_VERIFY) != 0;
+	}
+
+	/**
+	 * Check, if the mechanism is a sign/verify mechanism with message recovery.
+	 *
+	 * @param mechanismCode The code of the mechanism to check.
+	 * @return True, if the mechanism is a sign/verify mechanism with message
+	 *         recovery.
+	 * @see Functions#isSignVerifyRecoverMechanism(long)
+	 * @preconditions
+	 * @postconditions
+	 */
+	public static boolean isSignVerifyRecoverMechanism(long mechanismCode) {
+		return (getClasses(mechanismCode) & SIGN_VERIFY_RECOVER) != 0;
+	}
+
+	/**
+	 * Check, if the mechanism is a digest mechanism.
+	 *
+	 * @param mechanismCode The code of the mechanism to check.
+	 * @return True, if the mechanism is a digest mechanism.
+	 * @see Functions#isDigestMechanism(long)
+	 * @preconditions
+	 * @postconditions
+	 */
+	public static boolean isDigestMechanism(long mechanismCode) {
+		return (getClasses(mechanismCode) & DIGEST) != 0;
+	}
+
+	/**
+	 * Check, if the mechanism is a key generation mechanism.
+	 *
+	 * @param mechanismCode The code of the mechanism to check.
+	 * @return True, if the mechanism is a key generation mechanism.
+	 * @see Functions#isKeyGenerationMechanism(long)
+	 * @preconditions
+	 * @postconditions
+	 */
+	public static boolean isKeyGenerationMechanism(long mechanismCode) {
+		return (getClasses(mechanismCode) & KEY_GENERATION) != 0;
+	}
+
+	/**
+	 * Check, if the mechanism is a key-pair generation mechanism.
+	 *
+	 * @param mechanismCode The code of the mechanism to check.
+	 * @return True, if the mechanism is a key-pair generation mechanism.
+	 * @see Functions#isKeyPairGenerationMechanism(long)
+	 * @preconditions
+	 * @postconditions
+	 */
+	public static boolean isKeyPairGenerationMechanism(long mechanismCode) {
+		return (getClasses(mechanismCode) & KEY_PAIR_GENERATION) != 0;
+	}
+
+	/**
+	 * Check, if the mechanism is a wrap/unwrap mechanism.
+	 *
+	 * @param mechanismCode The code of the mechanism to check.
+	 * @return True, if the mechanism is a wrap/unwrap mechanism.
+	 * @see Functions#isWrapUnwrapMechanism(long)
+	 * @preconditions
+	 * @postconditions
+	 */
+	public static boolean isWrapUnwrapMechanism(long mechanismCode) {
+		return (getClasses(mechanismCode) & WRAP_UNWRAP) != 0;
+	}
+
+	/**
+	 * Check, if the mechanism is a key derivation mechanism.
+	 *
+	 * @param mechanismCode The code of the mechanism to check.
+	 * @return True, if the mechanism is a key derivation mechanism.
+	 * @see Functions#isKeyDerivationMechanism(long)
+	 * @preconditions
+	 * @postconditions
+	 */
+	public static boolean isKeyDerivationMechanism(long mechanismCode) {
+		return (getClasses(mechanismCode) & KEY_DERIVATION) != 0;
+	}
+
+}
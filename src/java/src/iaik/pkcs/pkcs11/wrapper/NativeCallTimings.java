@@ -0,0 +1,289 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+package iaik.pkcs.pkcs11.wrapper;
+
+import java.util.Vector;
+
+/**
+ * This class gives access to the timing of the calls to the module, which the
+ * native part of the wrapper takes. For each PKCS#11 function, it counts the
+ * calls and accumulates the total time of the native method and the time
+ * spent inside the module's function. The difference is the time the wrapper
+ * needs to convert the arguments and results between Java and Cryptoki types;
+ * e.g. the attribute templates of C_GetAttributeValue. Thus, this shows if a
+ * slow function is slow because of the wrapper or because of the module; e.g.
+ * <pre><code>
+ *   NativeCallTimings.setEnabled(true);
+ *   ... // work with the module
+ *   NativeCallTimings.Timing[] timings = NativeCallTimings.getTimings();
+ *   for (int i = 0; i < timings.length; i++) {
+ *     System.out.println(timings[i]);
+ *   }
+ * </code></pre>
+ * The counters are global for all modules and only count calls that return
+ * without an exception. They are updated without locking.
+ * The native library must be loaded before using this class; i.e. an application
+ * must have connected a module before or called
+ * {@link PKCS11Implementation#ensureLinkedAndInitialized()}.
+ *
+ * @version 1.0
+ * @invariants
+ */
+public class NativeCallTimings {
+
+	/**
+	 * The accumulated timing of one PKCS#11 function.
+	 *
+	 * @version 1.0
+	 * @invariants (functionName_ <> null)
+	 */
+	public static class Timing {
+
+		/**
+		 * The name of the PKCS#11 function; e.g. "C_GetAttributeValue".
+		 */
+		protected String functionName_;
+
+		/**
+		 * The number of calls.
+		 */
+		protected long callCount_;
+
+		/**
+		 * The total time of the native methods in nanoseconds.
+		 */
+		protected long totalTime_;
+
+		/**
+		 * The time spent in the module in nanoseconds.
+		 */
+		protected long moduleTime_;
+
+		/**
+		 * Create a new timing.
+		 *
+		 * @param functionName The name of the PKCS#11 function.
+		 * @param callCount The number of calls.
+		 * @param totalTime The total time in nanoseconds.
+		 * @param moduleTime The time spent in the module in nanoseconds.
+		 * @preconditions (functionName <> null)
+		 * @postconditions
+		 */
+		protected Timing(String functionName, long callCount, long totalTime, long moduleTime) {
+			functionName_ = functionName;
+			callCount_ = callCount;
+			totalTime_ = totalTime;
+			moduleTime_ = moduleTime;
+		}
+
+		/**
+		 * Get the name of the PKCS#11 function.
+		 *
+		 * @return The function name; e.g. "C_GetAttributeValue".
+		 * @preconditions
+		 * @postconditions (result <> null)
+		 */
+		public String getFunctionName() {
+			return functionName_;
+		}
+
+		/**
+		 * Get the number of calls.
+		 *
+		 * @return The number of calls.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public long getCallCount() {
+			return callCount_;
+		}
+
+		/**
+		 * Get the total time of the native methods of all calls.
+		 *
+		 * @return The total time in nanoseconds.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public long getTotalTime() {
+			return totalTime_;
+		}
+
+		/**
+		 * Get the time spent in the module's function for all calls.
+		 *
+		 * @return The time spent in the module in nanoseconds.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public long getModuleTime() {
+			return moduleTime_;
+		}
+
+		/**
+		 * Get the time the wrapper spent to convert arguments and results for
+		 * all calls; i.e. the total time minus the time spent in the module.
+		 *
+		 * @return The conversion time in nanoseconds.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public long getMarshallingTime() {
+			return totalTime_ - moduleTime_;
+		}
+
+		/**
+		 * Returns the string representation of this timing with average times
+		 * per call in microseconds.
+		 *
+		 * @return The string representation of this timing.
+		 * @preconditions
+		 * @postconditions (result <> null)
+		 */
+		public String toString() {
+			StringBuffer buffer = new StringBuffer(128);
+
+			buffer.append(functionName_);
+			buffer.append(": calls=");
+			buffer.append(callCount_);
+			if (callCount_ > 0) {
+				buffer.append(", module=");
+				buffer.append(moduleTime_ / callCount_ / 1000.0);
+				buffer.append("us, marshalling=");
+				buffer.append(getMarshallingTime() / callCount_ / 1000.0);
+				buffer.append("us");
+			}
+
+			return buffer.toString();
+		}
+
+	}
+
+	/**
+	 * Enable or disable the timing of the calls to the module. Disabling does
+	 * not reset the timing accumulated so far.
+	 *
+	 * @param enabled True to enable the timing.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public static void setEnabled(boolean enabled) {
+		PKCS11Implementation.setCallTimingEnabled(enabled);
+	}
+
+	/**
+	 * Check, if the timing of the calls to the module is enabled.
+	 *
+	 * @return True, if the timing is enabled.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public static boolean isEnabled() {
+		return PKCS11Implementation.isCallTimingEnabled();
+	}
+
+	/**
+	 * Get the accumulated timing of all functions which were called at least
+	 * once, in the order of the PKCS#11 specification.
+	 *
+	 * @return The timings. An empty array, if there were no calls.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	public static Timing[] getTimings() {
+		String[] functionNames = InstrumentingPKCS11.FUNCTION_NAMES;
+		long[] callCounts = new long[functionNames.length];
+		long[] totalTimes = new long[functionNames.length];
+		long[] moduleTimes = new long[functionNames.length];
+		Vector timings = new Vector();
+
+		PKCS11Implementation.getCallTimings(callCounts, totalTimes, moduleTimes);
+		for (int i = 0; i < functionNames.length; i++) {
+			if (callCounts[i] > 0) {
+				timings.addElement(new Timing(functionNames[i], callCounts[i], totalTimes[i],
+				    moduleTimes[i]));
+			}
+		}
+
+		Timing[] result = new Timing[timings.size()];
+		timings.copyInto(result);
+
+		return result;
+	}
+
+	/**
+	 * Get the accumulated timing of the given function.
+	 *
+	 * @param functionName The name of the PKCS#11 function; e.g. "C_GetAttributeValue".
+	 * @return The timing of this function.
+	 * @exception IllegalArgumentException If there is no PKCS#11 function with
+	 *                                     this name.
+	 * @preconditions (functionName <> null)
+	 * @postconditions (result <> null)
+	 */
+	public static Timing getTiming(String functionName) {
+		String[] functionNames = InstrumentingPKCS11.FUNCTION_NAMES;
+		long[] callCounts = new long[functionNames.length];
+		long[] totalTimes = new long[functionNames.length];
+		long[] moduleTimes = new long[functionNames.length];
+
+		for (int i = 0; i < functionNames.length; i++) {
+			if (functionNames[i].equals(functionName)) {
+				PKCS11Implementation.getCallTimings(callCounts, totalTimes, moduleTimes);
+				return new Timing(functionNames[i], callCounts[i], totalTimes[i], moduleTimes[i]);
+			}
+		}
+
+		throw new IllegalArgumentException("Unknown function: " + functionName);
+	}
+
+	/**
+	 * Set the accumulated timing of all functions back to zero.
+	 *
+	 * @preconditions
+	 * @postconditions
+	 */
+	public static void reset() {
+		PKCS11Implementation.resetCallTimings();
+	}
+
+}
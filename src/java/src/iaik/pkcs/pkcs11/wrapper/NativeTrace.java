@@ -0,0 +1,283 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+package iaik.pkcs.pkcs11.wrapper;
+
+import java.util.Vector;
+
+/**
+ * This class controls the trace of the native part of the wrapper. If enabled,
+ * each thread writes the trace records of the native functions into its own
+ * ring buffer in native memory, which is cheap compared to printing them.
+ * An application drains these buffers from time to time and decodes the records;
+ * e.g.
+ * <pre><code>
+ *   NativeTrace.setEnabled(true);
+ *   ... // work with the module
+ *   NativeTrace.Record[] records = NativeTrace.drain();
+ *   for (int i = 0; i < records.length; i++) {
+ *     System.out.println(records[i]);
+ *   }
+ * </code></pre>
+ * A ring buffer holds the last 512 records of its thread. Older records, which
+ * were not drained in time, are lost and counted.
+ * The native library must be loaded before using this class; i.e. an application
+ * must have connected a module before or called
+ * {@link PKCS11Implementation#ensureLinkedAndInitialized()}.
+ * If the native library was compiled with NO_TRACE or TRACE_STDOUT, there are
+ * never any records.
+ *
+ * @version 1.0
+ * @invariants
+ */
+public class NativeTrace {
+
+	/**
+	 * A decoded record of the native trace.
+	 *
+	 * @version 1.0
+	 * @invariants (tag_ <> null)
+	 *             and (method_ <> null)
+	 *             and (message_ <> null)
+	 */
+	public static class Record {
+
+		/**
+		 * The time of the record in nanoseconds.
+		 */
+		protected long timeStamp_;
+
+		/**
+		 * The native ID of the thread that wrote the record.
+		 */
+		protected long threadId_;
+
+		/**
+		 * The tag of the record; e.g. "CALL" or "ERROR".
+		 */
+		protected String tag_;
+
+		/**
+		 * The name of the native function that wrote the record.
+		 */
+		protected String method_;
+
+		/**
+		 * The message of the record.
+		 */
+		protected String message_;
+
+		/**
+		 * Create a new record.
+		 *
+		 * @param timeStamp The time of the record in nanoseconds.
+		 * @param threadId The native ID of the thread.
+		 * @param tag The tag.
+		 * @param method The name of the native function.
+		 * @param message The message.
+		 * @preconditions
+		 * @postconditions
+		 */
+		protected Record(long timeStamp, long threadId, String tag, String method, String message) {
+			timeStamp_ = timeStamp;
+			threadId_ = threadId;
+			tag_ = (tag != null) ? tag : "";
+			method_ = (method != null) ? method : "";
+			message_ = (message != null) ? message : "";
+		}
+
+		/**
+		 * Get the time of the record in nanoseconds. On most platforms, this is
+		 * comparable to <code>System.nanoTime()</code>.
+		 *
+		 * @return The time stamp in nanoseconds.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public long getTimeStamp() {
+			return timeStamp_;
+		}
+
+		/**
+		 * Get the native ID of the thread that wrote the record. This is not the
+		 * ID of the Java thread.
+		 *
+		 * @return The native thread ID.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public long getThreadId() {
+			return threadId_;
+		}
+
+		/**
+		 * Get the tag of the record; e.g. "CALL", "DEBUG", "INFO" or "ERROR".
+		 *
+		 * @return The tag.
+		 * @preconditions
+		 * @postconditions (result <> null)
+		 */
+		public String getTag() {
+			return tag_;
+		}
+
+		/**
+		 * Get the name of the native function that wrote the record.
+		 *
+		 * @return The function name.
+		 * @preconditions
+		 * @postconditions (result <> null)
+		 */
+		public String getMethod() {
+			return method_;
+		}
+
+		/**
+		 * Get the message of the record.
+		 *
+		 * @return The message.
+		 * @preconditions
+		 * @postconditions (result <> null)
+		 */
+		public String getMessage() {
+			return message_;
+		}
+
+		/**
+		 * Returns the string representation of this record in the same format as
+		 * the printed trace of the native library.
+		 *
+		 * @return The string representation of this record.
+		 * @preconditions
+		 * @postconditions (result <> null)
+		 */
+		public String toString() {
+			StringBuffer buffer = new StringBuffer(64 + message_.length());
+
+			buffer.append(timeStamp_);
+			buffer.append(" [");
+			buffer.append(Long.toHexString(threadId_));
+			buffer.append("] ");
+			buffer.append(tag_);
+			buffer.append(": ");
+			buffer.append(message_);
+			buffer.append(" (in ");
+			buffer.append(method_);
+			buffer.append(")");
+
+			return buffer.toString();
+		}
+
+	}
+
+	/**
+	 * The number of records to fetch with one native call.
+	 */
+	protected static final int DRAIN_BATCH_SIZE = 256;
+
+	/**
+	 * Enable or disable the native trace for all threads. Disabling does not
+	 * discard the records not yet drained.
+	 *
+	 * @param enabled True to enable the trace.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public static void setEnabled(boolean enabled) {
+		PKCS11Implementation.setTraceEnabled(enabled);
+	}
+
+	/**
+	 * Check, if the native trace is enabled.
+	 *
+	 * @return True, if the native trace is enabled.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public static boolean isEnabled() {
+		return PKCS11Implementation.isTraceEnabled();
+	}
+
+	/**
+	 * Take all records out of the native trace buffers. The records of each
+	 * thread are in order, the records of different threads are grouped by
+	 * thread. Sort them by time stamp to get a merged view.
+	 *
+	 * @return The records drained. An empty array, if there are none.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	public static Record[] drain() {
+		long[] timeStamps = new long[DRAIN_BATCH_SIZE];
+		long[] threadIds = new long[DRAIN_BATCH_SIZE];
+		String[] tags = new String[DRAIN_BATCH_SIZE];
+		String[] methods = new String[DRAIN_BATCH_SIZE];
+		String[] messages = new String[DRAIN_BATCH_SIZE];
+		Vector records = new Vector();
+		int count;
+
+		do {
+			count = PKCS11Implementation.drainTrace(timeStamps, threadIds, tags, methods, messages);
+			for (int i = 0; i < count; i++) {
+				records.addElement(new Record(timeStamps[i], threadIds[i], tags[i], methods[i],
+				    messages[i]));
+			}
+		} while (count == DRAIN_BATCH_SIZE);
+
+		Record[] result = new Record[records.size()];
+		records.copyInto(result);
+
+		return result;
+	}
+
+	/**
+	 * Get the number of records, which were overwritten in the ring buffers
+	 * before they were drained.
+	 *
+	 * @return The number of lost records since the library was loaded.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public static long getLostRecordCount() {
+		return PKCS11Implementation.getLostTraceRecordCount();
+	}
+
+}
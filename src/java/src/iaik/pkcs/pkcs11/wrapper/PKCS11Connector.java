@@ -43,10 +43,14 @@
 package iaik.pkcs.pkcs11.wrapper;
 
 import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 
 /**
  * This class is a sort of factory to get a implementation of the PKCS11
- * interface. By now, this method simply instanciates PKCS11Implementation.
+ * interface. By default, it instanciates PKCS11Implementation. On Java 22 and
+ * later, an application can ask for ForeignPKCS11 explicitly with
+ * connectToForeignPKCS11Module; see the ffm directory of the distribution.
  * For future version, it can be extended to support different implementations
  * for different versions of PKCS#11.
  *
@@ -55,6 +59,18 @@ import java.io.IOException;
  */
 public class PKCS11Connector {
 
+	/**
+	 * The name of the class, which implements the PKCS11 interface with the
+	 * foreign function and memory API of Java 22.
+	 */
+	protected static final String FOREIGN_PKCS11_CLASS = "iaik.pkcs.pkcs11.wrapper.ForeignPKCS11";
+
+	/**
+	 * The Java specification version, which introduced the final foreign
+	 * function and memory API.
+	 */
+	protected static final int FOREIGN_API_VERSION = 22;
+
 	/**
 	 * Empty constructor for internal use only.
 	 *
@@ -77,6 +93,81 @@ public class PKCS11Connector {
 		return new PKCS11Implementation(pkcs11ModulePath);
 	}
 
+	/**
+	 * Connect to a PKCS#11 module with ForeignPKCS11, which calls the module
+	 * through the foreign function and memory API instead of the native
+	 * wrapper library. This class is not part of the wrapper library, because
+	 * it needs Java 22; thus, this method loads it by reflection.
+	 * Note that ForeignPKCS11 supports fewer mechanism parameters than
+	 * PKCS11Implementation and has no native trace and call timings. The fast
+	 * paths of the object-oriented layer, which need a PKCS11Implementation,
+	 * fall back to the plain calls of the PKCS11 interface.
+	 *
+	 * @param pkcs11ModulePath The path to the PKCS#11 library.
+	 * @return The interface object to access the PKCS#11 module.
+	 * @exception IOException If the Java version is older than 22,
+	 *                        ForeignPKCS11 is not in the class path, or
+	 *                        finding the module or connecting to it fails.
+	 */
+	public static PKCS11 connectToForeignPKCS11Module(String pkcs11ModulePath)
+	    throws IOException
+	{
+		if (getJavaVersion() < FOREIGN_API_VERSION) {
+			throw new IOException(FOREIGN_PKCS11_CLASS + " needs Java " + FOREIGN_API_VERSION
+			    + " or later, but this is Java " + getJavaVersion());
+		}
+
+		Class foreignPKCS11Class;
+		try {
+			foreignPKCS11Class = Class.forName(FOREIGN_PKCS11_CLASS);
+		} catch (ClassNotFoundException ex) {
+			throw new IOException(FOREIGN_PKCS11_CLASS + " is not in the class path");
+		} catch (LinkageError ex) {
+			throw new IOException("Loading " + FOREIGN_PKCS11_CLASS + " failed: " + ex.toString());
+		}
+
+		try {
+			Constructor constructor = foreignPKCS11Class.getConstructor(new Class[] { String.class });
+			return (PKCS11) constructor.newInstance(new Object[] { pkcs11ModulePath });
+		} catch (InvocationTargetException ex) {
+			Throwable cause = ex.getTargetException();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause.toString());
+		} catch (Exception ex) {
+			throw new IOException("Instanciating " + FOREIGN_PKCS11_CLASS + " failed: "
+			    + ex.toString());
+		}
+	}
+
+	/**
+	 * Returns the major version of the Java specification of this virtual
+	 * machine; e.g. 8 for "1.8" and 22 for "22".
+	 *
+	 * @return The major version or 0, if it is unknown.
+	 */
+	protected static int getJavaVersion() {
+		String version = System.getProperty("java.specification.version", "0");
+		if (version.startsWith("1.")) {
+			version = version.substring(2);
+		}
+		int end = version.indexOf('.');
+		if (end >= 0) {
+			version = version.substring(0, end);
+		}
+
+		try {
+			return Integer.parseInt(version);
+		} catch (NumberFormatException ex) {
+			return 0;
+		}
+	}
+
 	/**
 	 * Connect to a PKCS#11 module with the specified PKCS#11-wrapper native library and get an interface to it.
 	 *
@@ -92,4 +183,37 @@ public class PKCS11Connector {
 		return new PKCS11Implementation(pkcs11ModulePath, pkcs11WrapperPath);
 	}
 
+	/**
+	 * Connect to a PKCS#11 module and get an interface to it, which records
+	 * statistics of all calls.
+	 *
+	 * @param pkcs11ModulePath The path to the PKCS#11 library.
+	 * @return The instrumented interface object to access the PKCS#11 module.
+	 * @exception IOException If finding the module or connecting to it fails.
+	 * @see InstrumentingPKCS11
+	 */
+	public static InstrumentingPKCS11 connectToInstrumentedPKCS11Module(String pkcs11ModulePath)
+	    throws IOException
+	{
+		return new InstrumentingPKCS11(connectToPKCS11Module(pkcs11ModulePath));
+	}
+
+	/**
+	 * Connect to a PKCS#11 module with the specified PKCS#11-wrapper native
+	 * library and get an interface to it, which records statistics of all calls.
+	 *
+	 * @param pkcs11ModulePath The path to the PKCS#11 library.
+	 * @param pkcs11WrapperPath The absolute path to the PKCS#11-wrapper native library including the filename
+	 * @return The instrumented interface object to access the PKCS#11 module.
+	 * @exception IOException If finding the module or connecting to it fails.
+	 * @see InstrumentingPKCS11
+	 */
+	public static InstrumentingPKCS11 connectToInstrumentedPKCS11Module(String pkcs11ModulePath,
+	                                                                    String pkcs11WrapperPath)
+	    throws IOException
+	{
+		return new InstrumentingPKCS11(connectToPKCS11Module(pkcs11ModulePath,
+		    pkcs11WrapperPath));
+	}
+
 }
@@ -44,6 +44,8 @@ package iaik.pkcs.pkcs11.wrapper;
 
 import iaik.pkcs.pkcs11.TokenException;
 
+import java.io.InputStream;
+import java.util.Enumeration;
 import java.util.Properties;
 
 /**
@@ -54,6 +56,24 @@ import java.util.Properties;
  * CKR_OK is the only reason for such an exception to be thrown.
  * PKCS#11 defines the meaning of an error-code, which may depend on the
  * context in which the error occurs.
+ * <p>
+ * Some error codes are expected in normal operation; e.g.
+ * CKR_ATTRIBUTE_TYPE_INVALID when reading an optional attribute, or
+ * CKR_USER_ALREADY_LOGGED_IN. For these codes, getInstance returns a shared
+ * exception without stack trace, which costs neither an allocation nor a
+ * stack walk. The native part throws these shared instances too. For all
+ * other codes, getInstance creates a new exception with stack trace.
+ * The shared instances have no stack trace and no cause; initCause throws an
+ * IllegalStateException. Throwable.addSuppressed is final and the constructor
+ * that disables suppression needs Java 7 or Android API level 19, so a
+ * suppressed exception added to a shared instance, e.g. by a
+ * try-with-resources statement, stays there; do not add any.
+ * <p>
+ * The hot path that meets these codes in normal operation is reading
+ * attributes, which PKCS11Implementation.getAttributeValue covers without any
+ * exception. C_FindObjects, C_Sign and C_Encrypt have no such variant: the
+ * native part sizes the output buffers itself, so CKR_BUFFER_TOO_SMALL does
+ * not reach Java, and their other error codes end the operation anyway.
  *
  * @author <a href="mailto:Karl.Scheibelhofer@iaik.at"> Karl Scheibelhofer </a>
  * @version 1.0
@@ -68,15 +88,125 @@ public class PKCS11Exception extends TokenException {
 	protected static final String ERROR_CODE_PROPERTIES = "iaik/pkcs/pkcs11/wrapper/ExceptionMessages.properties";
 
 	/**
-	 * The properties object that holds the mapping from error-code to the name
-	 * of the PKCS#11 error.
+	 * Error codes below this value have their names in errorCodeNames_. It
+	 * covers all error codes of PKCS#11 v2.20 except CKR_VENDOR_DEFINED.
 	 */
-	protected static Properties errorCodeNames_;
+	protected static final int ERROR_CODE_NAMES_TABLE_SIZE = 0x0400;
 
 	/**
-	 * True, if the mapping of error codes to PKCS#11 error names is available.
+	 * The error codes that are expected in normal operation and for which
+	 * getInstance returns a shared exception without stack trace.
 	 */
-	protected static boolean errorCodeNamesAvailable_;
+	protected static final long[] CONTROL_FLOW_ERROR_CODES = {
+	    PKCS11Constants.CKR_ATTRIBUTE_SENSITIVE, PKCS11Constants.CKR_ATTRIBUTE_TYPE_INVALID,
+	    PKCS11Constants.CKR_BUFFER_TOO_SMALL, PKCS11Constants.CKR_USER_ALREADY_LOGGED_IN,
+	    PKCS11Constants.CKR_NO_EVENT, PKCS11Constants.CKR_CRYPTOKI_ALREADY_INITIALIZED, };
+
+	/**
+	 * The names of the error codes below ERROR_CODE_NAMES_TABLE_SIZE; the index
+	 * is the error code. The table is built when the class is loaded and never
+	 * changed afterwards; thus, getMessage reads it without a lock.
+	 */
+	protected static final String[] errorCodeNames_ = new String[ERROR_CODE_NAMES_TABLE_SIZE];
+
+	/**
+	 * The name of CKR_VENDOR_DEFINED, or null if the names are not available.
+	 */
+	protected static final String vendorDefinedErrorCodeName_;
+
+	/**
+	 * The shared exceptions for the CONTROL_FLOW_ERROR_CODES in the same order.
+	 */
+	protected static final PKCS11Exception[] sharedExceptions_;
+
+	static {
+		String vendorDefinedErrorCodeName = null;
+		try {
+			Properties errorCodeNames = new Properties();
+			InputStream propertiesStream = PKCS11Exception.class.getClassLoader()
+			    .getResourceAsStream(ERROR_CODE_PROPERTIES);
+			errorCodeNames.load(propertiesStream);
+			propertiesStream.close();
+			for (Enumeration keys = errorCodeNames.keys(); keys.hasMoreElements();) {
+				String errorCodeHexString = (String) keys.nextElement();
+				long errorCode = Long.parseLong(errorCodeHexString.substring(2), 16);
+				String errorCodeName = errorCodeNames.getProperty(errorCodeHexString);
+				if ((errorCode >= 0L) && (errorCode < ERROR_CODE_NAMES_TABLE_SIZE)) {
+					errorCodeNames_[(int) errorCode] = errorCodeName;
+				} else if (errorCode == PKCS11Constants.CKR_VENDOR_DEFINED) {
+					vendorDefinedErrorCodeName = errorCodeName;
+				}
+			}
+		} catch (Exception exception) {
+			System.err.println("Could not read properties for error code names: "
+			    + exception.getMessage());
+		}
+		vendorDefinedErrorCodeName_ = vendorDefinedErrorCodeName;
+
+		sharedExceptions_ = new PKCS11Exception[CONTROL_FLOW_ERROR_CODES.length];
+		for (int i = 0; i < CONTROL_FLOW_ERROR_CODES.length; i++) {
+			sharedExceptions_[i] = new SharedPKCS11Exception(CONTROL_FLOW_ERROR_CODES[i]);
+		}
+	}
+
+	/**
+	 * A shared exception for an error code that is expected in normal
+	 * operation. It has no stack trace, because it is thrown from many places.
+	 *
+	 * @version 1.0
+	 * @invariants
+	 */
+	protected static class SharedPKCS11Exception extends PKCS11Exception {
+
+		/**
+		 * Constructor taking the error code.
+		 *
+		 * @param errorCode The PKCS#11 error code (return value).
+		 * @preconditions
+		 * @postconditions
+		 */
+		protected SharedPKCS11Exception(long errorCode) {
+			super(errorCode);
+		}
+
+		/**
+		 * Does not fill in the stack trace. This saves the stack walk and the
+		 * stack trace of a shared instance would be misleading anyway.
+		 *
+		 * @return This object.
+		 * @preconditions
+		 * @postconditions (result == this)
+		 */
+		public Throwable fillInStackTrace() {
+			return this;
+		}
+
+		/**
+		 * Ignores the call, because this instance is shared.
+		 *
+		 * @param stackTrace Ignored.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public void setStackTrace(StackTraceElement[] stackTrace) {
+			// a shared instance has no stack trace
+		}
+
+		/**
+		 * Throws an exception, because this instance is shared and a cause
+		 * would show up in all places that throw it.
+		 *
+		 * @param cause Ignored.
+		 * @return Never returns.
+		 * @exception IllegalStateException Always.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public Throwable initCause(Throwable cause) {
+			throw new IllegalStateException("Cannot set the cause of the shared exception " + getMessage());
+		}
+
+	}
 
 	/**
 	 * The code of the error which was the reason for this exception.
@@ -93,6 +223,47 @@ public class PKCS11Exception extends TokenException {
 		errorCode_ = errorCode;
 	}
 
+	/**
+	 * Get an exception for the given error code. For the error codes that are
+	 * expected in normal operation; e.g. CKR_ATTRIBUTE_TYPE_INVALID, it
+	 * returns a shared exception without stack trace. For all other codes, it
+	 * returns a new exception. The native part of the wrapper uses this method
+	 * to create the exceptions it throws.
+	 *
+	 * @param errorCode The PKCS#11 error code (return value).
+	 * @return The exception for the error code.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 *                 and (result.getErrorCode() == errorCode)
+	 */
+	public static PKCS11Exception getInstance(long errorCode) {
+		for (int i = 0; i < CONTROL_FLOW_ERROR_CODES.length; i++) {
+			if (CONTROL_FLOW_ERROR_CODES[i] == errorCode) {
+				return sharedExceptions_[i];
+			}
+		}
+
+		return new PKCS11Exception(errorCode);
+	}
+
+	/**
+	 * Get the name of the given error code; e.g. "CKR_DEVICE_ERROR".
+	 *
+	 * @param errorCode The PKCS#11 error code.
+	 * @return The name of the error code, or null if it is not known or the
+	 *         names are not available.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public static String getErrorCodeName(long errorCode) {
+		if ((errorCode >= 0L) && (errorCode < ERROR_CODE_NAMES_TABLE_SIZE)) {
+			return errorCodeNames_[(int) errorCode];
+		}
+
+		return (errorCode == PKCS11Constants.CKR_VENDOR_DEFINED) ? vendorDefinedErrorCodeName_
+		    : null;
+	}
+
 	/**
 	 * This method gets the corresponding text error message from
 	 * a property file. If this file is not available, it returns the error
@@ -103,28 +274,12 @@ public class PKCS11Exception extends TokenException {
 	 * @preconditions
 	 * @postconditions (result <> null)
 	 */
-	public synchronized String getMessage() {
-		// if the names of the defined error codes are not yet loaded, load them
-		if (errorCodeNames_ == null) { // ensure that another thread has not loaded the codes meanwhile
-			Properties errorCodeNames = new Properties();
-			try {
-				errorCodeNames.load(getClass().getClassLoader().getResourceAsStream(
-				    ERROR_CODE_PROPERTIES));
-				errorCodeNames_ = errorCodeNames;
-				errorCodeNamesAvailable_ = true;
-			} catch (Exception exception) {
-				System.err.println("Could not read properties for error code names: "
-				    + exception.getMessage());
-			}
-		}
-
+	public String getMessage() {
 		// if we can get the name of the error code, take the name, otherwise return the code
-		String errorCodeHexString = "0x" + Functions.toFullHexString((int) errorCode_);
-		String errorCodeName = errorCodeNamesAvailable_ ? errorCodeNames_
-		    .getProperty(errorCodeHexString) : null;
-		String message = (errorCodeName != null) ? errorCodeName : errorCodeHexString;
+		String errorCodeName = getErrorCodeName(errorCode_);
 
-		return message;
+		return (errorCodeName != null) ? errorCodeName : "0x"
+		    + Functions.toFullHexString((int) errorCode_);
 	}
 
 	/**
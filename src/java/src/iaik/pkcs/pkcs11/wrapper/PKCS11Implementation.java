@@ -96,6 +96,96 @@ public class PKCS11Implementation implements PKCS11 {
 	 */
 	protected static synchronized native void finalizeLibrary();
 
+	/**
+	 * Enables or disables the native trace for all threads.
+	 * See {@link NativeTrace}.
+	 *
+	 * @param enabled True to enable the trace.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected static native void setTraceEnabled(boolean enabled);
+
+	/**
+	 * Checks, if the native trace is enabled.
+	 *
+	 * @return True, if the native trace is enabled.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected static native boolean isTraceEnabled();
+
+	/**
+	 * Moves the oldest native trace records into the given arrays, at most as
+	 * many as the arrays can hold. The records of one thread are in order.
+	 *
+	 * @param timeStamps Receives the time stamps in nanoseconds.
+	 * @param threadIds Receives the native IDs of the threads.
+	 * @param tags Receives the tags; e.g. "CALL".
+	 * @param methods Receives the names of the native methods.
+	 * @param messages Receives the messages.
+	 * @return The number of records moved into the arrays.
+	 * @preconditions (timeStamps <> null)
+	 *                and (threadIds <> null) and (tags <> null)
+	 *                and (methods <> null) and (messages <> null)
+	 *                and (all arrays have the same length)
+	 * @postconditions
+	 */
+	protected static synchronized native int drainTrace(long[] timeStamps, long[] threadIds,
+	                                                    String[] tags, String[] methods, String[] messages);
+
+	/**
+	 * Gets the number of native trace records, which were overwritten before
+	 * they were drained.
+	 *
+	 * @return The number of lost trace records.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected static native long getLostTraceRecordCount();
+
+	/**
+	 * Enables or disables the timing of the calls to the module.
+	 * See {@link NativeCallTimings}.
+	 *
+	 * @param enabled True to enable the timing.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected static native void setCallTimingEnabled(boolean enabled);
+
+	/**
+	 * Checks, if the timing of the calls to the module is enabled.
+	 *
+	 * @return True, if the timing is enabled.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected static native boolean isCallTimingEnabled();
+
+	/**
+	 * Copies the accumulated timing of the calls to the module into the given
+	 * arrays. The arrays are indexed like InstrumentingPKCS11.FUNCTION_NAMES.
+	 *
+	 * @param callCounts Receives the number of calls.
+	 * @param totalTimes Receives the total times of the native methods in nanoseconds.
+	 * @param moduleTimes Receives the times spent in the module in nanoseconds.
+	 * @preconditions (callCounts <> null)
+	 *                and (totalTimes <> null) and (moduleTimes <> null)
+	 *                and (all arrays have the same length)
+	 * @postconditions
+	 */
+	protected static native void getCallTimings(long[] callCounts, long[] totalTimes,
+	                                            long[] moduleTimes);
+
+	/**
+	 * Sets the accumulated timing of all functions back to zero.
+	 *
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected static native void resetCallTimings();
+
 	/**
 	 * This method ensures that the library is linked to this class and that it
 	 * is initialized.
@@ -344,6 +434,59 @@ public class PKCS11Implementation implements PKCS11 {
 	public native CK_MECHANISM_INFO C_GetMechanismInfo(long slotID, long type)
 	    throws PKCS11Exception;
 
+	/**
+	 * Gets the list of mechanisms of the token and the information of each
+	 * mechanism in one call of the native part; i.e. calls C_GetMechanismList
+	 * and C_GetMechanismInfo for each mechanism without converting each
+	 * CK_MECHANISM_INFO to a Java object. This method is not part of PKCS#11.
+	 *
+	 * @param slotID ID of the token's slot
+	 *         (PKCS#11 param: CK_SLOT_ID slotID)
+	 * @return five elements per mechanism: the mechanism type, ulMinKeySize,
+	 *         ulMaxKeySize, flags and the return value of C_GetMechanismInfo;
+	 *         if this is not CKR_OK, the other values are 0
+	 * @exception PKCS11Exception If C_GetMechanismList returns other value
+	 *                            than CKR_OK.
+	 * @preconditions
+	 * @postconditions (result <> null) and (result.length % 5 == 0)
+	 * @see iaik.pkcs.pkcs11.MechanismInfoTable
+	 */
+	public native long[] getMechanismInfoTable(long slotID)
+	    throws PKCS11Exception;
+
+	/**
+	 * Gets the flags and counters of the token info; i.e. calls C_GetTokenInfo
+	 * without converting the strings, versions and time of the CK_TOKEN_INFO to
+	 * Java objects. This method is not part of PKCS#11.
+	 *
+	 * @param slotID ID of the token's slot
+	 *         (PKCS#11 param: CK_SLOT_ID slotID)
+	 * @return the flags, ulMaxSessionCount, ulSessionCount, ulMaxRwSessionCount,
+	 *         ulRwSessionCount, ulMaxPinLen, ulMinPinLen, ulTotalPublicMemory,
+	 *         ulFreePublicMemory, ulTotalPrivateMemory and ulFreePrivateMemory
+	 * @exception PKCS11Exception If C_GetTokenInfo returns other value than
+	 *                            CKR_OK.
+	 * @preconditions
+	 * @postconditions (result <> null) and (result.length == 11)
+	 * @see iaik.pkcs.pkcs11.Token#refreshTokenInfoCounters()
+	 */
+	public native long[] getTokenInfoCounters(long slotID)
+	    throws PKCS11Exception;
+
+	/**
+	 * Gets the address of the function list that C_GetFunctionList returned
+	 * when connecting. Connections to the same loaded library get the same
+	 * function list, no matter if they loaded it by its file name or by its
+	 * path; thus, the address identifies the library. This method is not part
+	 * of PKCS#11.
+	 *
+	 * @return the address of the CK_FUNCTION_LIST of the module
+	 * @preconditions
+	 * @postconditions (result <> 0)
+	 * @see iaik.pkcs.pkcs11.Module#getShared(String, String, InitializeArgs)
+	 */
+	public native long getFunctionListAddress();
+
 	/**
 	 * C_InitToken initializes a token.
 	 * (Slot and token management)
@@ -635,6 +778,34 @@ public class PKCS11Implementation implements PKCS11 {
 	                                       boolean useUtf8)
 	    throws PKCS11Exception;
 
+	/**
+	 * Like C_GetAttributeValue, but returns the return value of the module
+	 * instead of throwing a PKCS11Exception if it is not CKR_OK. The template
+	 * attributes only receive the values if the result is CKR_OK. Callers that
+	 * expect CKR_ATTRIBUTE_TYPE_INVALID or CKR_ATTRIBUTE_SENSITIVE; e.g. when
+	 * reading optional attributes, avoid the exception this way. This method
+	 * is not part of PKCS#11.
+	 *
+	 * @param hSession the session's handle
+	 *         (PKCS#11 param: CK_SESSION_HANDLE hSession)
+	 * @param hObject the object's handle
+	 *         (PKCS#11 param: CK_OBJECT_HANDLE hObject)
+	 * @param pTemplate specifies the attributes and number of attributes to get
+	 *                  The template attributes also receive the values.
+	 *         (PKCS#11 param: CK_ATTRIBUTE_PTR pTemplate, CK_ULONG ulCount)
+	 * @param useUtf8 true, if UTF8 is used as character encoding for
+	 *                character array attributes
+	 * @return the return value of the module; e.g. CKR_OK or
+	 *         CKR_ATTRIBUTE_TYPE_INVALID
+	 * @preconditions (pTemplate <> null)
+	 * @postconditions
+	 * @see #C_GetAttributeValue(long, long, CK_ATTRIBUTE[], boolean)
+	 */
+	public native long getAttributeValue(long hSession,
+	                                     long hObject,
+	                                     CK_ATTRIBUTE[] pTemplate,
+	                                     boolean useUtf8);
+
 	/**
 	 * C_SetAttributeValue modifies the value of one or more object
 	 * attributes
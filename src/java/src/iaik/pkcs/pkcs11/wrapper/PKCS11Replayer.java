@@ -0,0 +1,924 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+package iaik.pkcs.pkcs11.wrapper;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class replays a trace written by RecordingPKCS11 against a PKCS11
+ * implementation. Each recorded thread gets its own replay thread, which
+ * issues the calls of the recorded thread in their order. By default, each
+ * call starts at the same offset from the start of the replay as it did in
+ * the recording; i.e. the replay reproduces the original inter-arrival times
+ * and concurrency. With a speed of 0, the threads issue their calls as fast
+ * as possible. In both cases, the replay keeps the order between the threads;
+ * i.e. a call does not start before all calls have completed, which had
+ * completed in the recording before the call started. Thus, a session is never
+ * closed by one thread while another thread still uses it.
+ * <pre><code>
+ *   PKCS11 pkcs11 = PKCS11Connector.connectToPKCS11Module("libsofthsm.so");
+ *   PKCS11Replayer replayer = new PKCS11Replayer(pkcs11);
+ *   replayer.setPins("1234".toCharArray(), null);
+ *   replayer.replay(new FileInputStream("pkcs11.trace"));
+ *   System.out.println(replayer.getLatencyHistogram());
+ * </code></pre>
+ * The replayer maps the handles in the trace to the handles that the module
+ * returns during the replay; slots by their position in the result of
+ * C_GetSlotList, sessions by C_OpenSession, and objects by the functions that
+ * create or find objects. Handles that are not mapped are used unchanged;
+ * e.g. the handles of objects found before the recording started.
+ * <p>
+ * The PINs are not part of a trace and must be set before the replay.
+ * C_InitToken, C_InitPIN, C_SetPIN and C_WaitForSlotEvent are skipped. Data
+ * that was not recorded is replayed as zeros of the recorded length; thus,
+ * calls like C_Verify or C_Decrypt usually return an error in the replay,
+ * which counts as mismatch. To get statistics per function, pass an
+ * InstrumentingPKCS11 as the module.
+ * If the trace does not start with C_Initialize, the application must
+ * initialize the module before the replay.
+ *
+ * @see iaik.pkcs.pkcs11.wrapper.RecordingPKCS11
+ * @see iaik.pkcs.pkcs11.wrapper.PKCS11Trace
+ * @see iaik.pkcs.pkcs11.wrapper.InstrumentingPKCS11
+ * @version 1.0
+ * @invariants (pkcs11Module_ <> null)
+ */
+public class PKCS11Replayer {
+
+	/**
+	 * The number of the most recent records, whose end times are kept to find
+	 * the calls a call depends on.
+	 */
+	protected static final int DEPENDENCY_WINDOW = 1 << 18;
+
+	/**
+	 * The call that tells a replay thread to stop.
+	 */
+	protected static final ScheduledCall END_OF_TRACE = new ScheduledCall(null, -1L, -1L);
+
+	/**
+	 * A record with its position in the trace and the calls it depends on.
+	 *
+	 * @version 1.0
+	 * @invariants
+	 */
+	protected static class ScheduledCall {
+
+		/**
+		 * The record of the call.
+		 */
+		protected PKCS11Trace.Record record_;
+
+		/**
+		 * The index of the record in the trace.
+		 */
+		protected long index_;
+
+		/**
+		 * The number of records at the start of the trace, which must have
+		 * been replayed before this call can start.
+		 */
+		protected long dependency_;
+
+		/**
+		 * Create a new scheduled call.
+		 *
+		 * @param record The record of the call.
+		 * @param index The index of the record in the trace.
+		 * @param dependency The number of records that must have been
+		 *                   replayed before.
+		 * @preconditions
+		 * @postconditions
+		 */
+		protected ScheduledCall(PKCS11Trace.Record record, long index, long dependency) {
+			record_ = record;
+			index_ = index;
+			dependency_ = dependency;
+		}
+
+	}
+
+	/**
+	 * A thread that replays the calls of one recorded thread.
+	 *
+	 * @version 1.0
+	 * @invariants (queue_ <> null)
+	 */
+	protected class ReplayThread extends Thread {
+
+		/**
+		 * The calls that this thread has to replay.
+		 */
+		protected BlockingQueue queue_;
+
+		/**
+		 * Create a new replay thread.
+		 *
+		 * @param recordedThreadId The ID of the recorded thread.
+		 * @preconditions
+		 * @postconditions
+		 */
+		protected ReplayThread(long recordedThreadId) {
+			super("PKCS11Replayer-" + recordedThreadId);
+			queue_ = new LinkedBlockingQueue(queueCapacity_);
+			setDaemon(true);
+		}
+
+		/**
+		 * Replay the records from the queue until the end of the trace.
+		 *
+		 * @preconditions
+		 * @postconditions
+		 */
+		public void run() {
+			try {
+				ScheduledCall call;
+				while ((call = (ScheduledCall) queue_.take()) != END_OF_TRACE) {
+					try {
+						replayRecord(call);
+					} finally {
+						setCompleted(call.index_);
+					}
+				}
+			} catch (InterruptedException ex) {
+				// stop replaying
+			}
+		}
+
+	}
+
+	/**
+	 * The module to replay the calls against.
+	 */
+	protected PKCS11 pkcs11Module_;
+
+	/**
+	 * The PIN of the normal user or null.
+	 */
+	protected char[] userPin_;
+
+	/**
+	 * The PIN of the security officer or null.
+	 */
+	protected char[] soPin_;
+
+	/**
+	 * The speed relative to the recording; 0 for as fast as possible.
+	 */
+	protected double speed_ = 1.0;
+
+	/**
+	 * The maximum number of records in the queue of a replay thread.
+	 */
+	protected int queueCapacity_ = 4096;
+
+	/**
+	 * Maps the recorded slot IDs (Long) to the slot IDs of the module (Long).
+	 */
+	protected ConcurrentHashMap slotIDs_ = new ConcurrentHashMap();
+
+	/**
+	 * Maps the recorded session handles (Long) to the session handles of the
+	 * module (Long).
+	 */
+	protected ConcurrentHashMap sessionHandles_ = new ConcurrentHashMap();
+
+	/**
+	 * Maps the recorded object handles (Long) to the object handles of the
+	 * module (Long).
+	 */
+	protected ConcurrentHashMap objectHandles_ = new ConcurrentHashMap();
+
+	/**
+	 * The prefix maximum of the end times of the most recent records; i.e.
+	 * the element of a record is the latest end time of all records up to
+	 * this one. The index is the index of the record modulo the length.
+	 */
+	protected long[] endTimes_ = new long[DEPENDENCY_WINDOW];
+
+	/**
+	 * The number of records at the start of the trace which have been
+	 * replayed completely. Guarded by completedIndexes_.
+	 */
+	protected long completedCount_;
+
+	/**
+	 * The indexes (Long) of the replayed records which completed before an
+	 * earlier record. Also the lock for completedCount_.
+	 */
+	protected HashSet completedIndexes_ = new HashSet();
+
+	/**
+	 * The latencies of the replayed calls in nanoseconds.
+	 */
+	protected LatencyHistogram latencyHistogram_ = new LatencyHistogram();
+
+	/**
+	 * The delays in nanoseconds between the scheduled start and the actual
+	 * start of the replayed calls.
+	 */
+	protected LatencyHistogram scheduleLagHistogram_ = new LatencyHistogram();
+
+	/**
+	 * The number of replayed calls.
+	 */
+	protected AtomicLong callCount_ = new AtomicLong();
+
+	/**
+	 * The number of replayed calls whose return value differed from the
+	 * recording.
+	 */
+	protected AtomicLong mismatchCount_ = new AtomicLong();
+
+	/**
+	 * The number of skipped calls.
+	 */
+	protected AtomicLong skippedCount_ = new AtomicLong();
+
+	/**
+	 * The value of System.nanoTime() at the start of the replay.
+	 */
+	protected volatile long replayStart_;
+
+	/**
+	 * The start time of the first record of the trace.
+	 */
+	protected volatile long traceStart_;
+
+	/**
+	 * The duration of the last replay in nanoseconds.
+	 */
+	protected long elapsedTime_;
+
+	/**
+	 * Create a new replayer for the given module.
+	 *
+	 * @param pkcs11Module The module to replay the calls against.
+	 * @preconditions (pkcs11Module <> null)
+	 * @postconditions
+	 */
+	public PKCS11Replayer(PKCS11 pkcs11Module) {
+		if (pkcs11Module == null) {
+			throw new NullPointerException("Argument \"pkcs11Module\" must not be null.");
+		}
+		pkcs11Module_ = pkcs11Module;
+	}
+
+	/**
+	 * Set the PINs to use for C_Login.
+	 *
+	 * @param userPin The PIN of the normal user or null.
+	 * @param soPin The PIN of the security officer or null.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public void setPins(char[] userPin, char[] soPin) {
+		userPin_ = userPin;
+		soPin_ = soPin;
+	}
+
+	/**
+	 * Set the speed of the replay relative to the recording; e.g. 2.0 to
+	 * replay the calls with half of the recorded inter-arrival times. The
+	 * default is 1.0.
+	 *
+	 * @param speed The speed, or 0 to replay as fast as possible.
+	 * @preconditions (speed >= 0)
+	 * @postconditions
+	 */
+	public void setSpeed(double speed) {
+		if (speed < 0) {
+			throw new IllegalArgumentException("The speed must not be negative: " + speed);
+		}
+		speed_ = speed;
+	}
+
+	/**
+	 * Replay the given trace. This method returns after all calls of the
+	 * trace have been replayed. The stream is not closed. The results and
+	 * statistics of this object refer to the last replay.
+	 *
+	 * @param traceStream The stream to read the trace from.
+	 * @exception IOException If reading the trace fails.
+	 * @exception InterruptedException If the current thread was interrupted.
+	 * @preconditions (traceStream <> null)
+	 * @postconditions
+	 */
+	public void replay(InputStream traceStream)
+	    throws IOException, InterruptedException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(traceStream, 65536));
+		PKCS11Trace.readHeader(in);
+		reset();
+
+		Hashtable replayThreads = new Hashtable();
+		try {
+			PKCS11Trace.Record record;
+			long index = 0;
+			while ((record = PKCS11Trace.readRecord(in)) != null) {
+				if (index == 0) {
+					traceStart_ = record.startTime_;
+					replayStart_ = System.nanoTime();
+				}
+				ScheduledCall call = new ScheduledCall(record, index,
+				    findDependency(record.startTime_, index));
+				long endTime = record.startTime_ + record.duration_;
+				endTimes_[(int) (index % DEPENDENCY_WINDOW)] = (index > 0)
+				    ? Math.max(endTimes_[(int) ((index - 1) % DEPENDENCY_WINDOW)], endTime) : endTime;
+				index++;
+				Long threadId = new Long(record.threadId_);
+				ReplayThread replayThread = (ReplayThread) replayThreads.get(threadId);
+				if (replayThread == null) {
+					replayThread = new ReplayThread(record.threadId_);
+					replayThreads.put(threadId, replayThread);
+					replayThread.start();
+				}
+				replayThread.queue_.put(call);
+			}
+		} finally {
+			Enumeration threads = replayThreads.elements();
+			while (threads.hasMoreElements()) {
+				ReplayThread replayThread = (ReplayThread) threads.nextElement();
+				replayThread.queue_.put(END_OF_TRACE);
+			}
+			threads = replayThreads.elements();
+			while (threads.hasMoreElements()) {
+				((ReplayThread) threads.nextElement()).join();
+			}
+			elapsedTime_ = System.nanoTime() - replayStart_;
+		}
+	}
+
+	/**
+	 * Reset the handle mappings and the statistics for a new replay.
+	 *
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected void reset() {
+		slotIDs_.clear();
+		sessionHandles_.clear();
+		objectHandles_.clear();
+		synchronized (completedIndexes_) {
+			completedCount_ = 0;
+			completedIndexes_.clear();
+		}
+		latencyHistogram_.reset();
+		scheduleLagHistogram_.reset();
+		callCount_.set(0L);
+		mismatchCount_.set(0L);
+		skippedCount_.set(0L);
+		replayStart_ = System.nanoTime();
+	}
+
+	/**
+	 * Get the number of replayed calls.
+	 *
+	 * @return The number of calls.
+	 * @preconditions
+	 * @postconditions (result >= 0)
+	 */
+	public long getCallCount() {
+		return callCount_.get();
+	}
+
+	/**
+	 * Get the number of replayed calls whose return value differed from the
+	 * recorded return value.
+	 *
+	 * @return The number of mismatches.
+	 * @preconditions
+	 * @postconditions (result >= 0)
+	 */
+	public long getMismatchCount() {
+		return mismatchCount_.get();
+	}
+
+	/**
+	 * Get the number of recorded calls that were not replayed; e.g. C_SetPIN.
+	 *
+	 * @return The number of skipped calls.
+	 * @preconditions
+	 * @postconditions (result >= 0)
+	 */
+	public long getSkippedCount() {
+		return skippedCount_.get();
+	}
+
+	/**
+	 * Get the duration of the last replay.
+	 *
+	 * @return The duration in nanoseconds.
+	 * @preconditions
+	 * @postconditions (result >= 0)
+	 */
+	public long getElapsedTime() {
+		return elapsedTime_;
+	}
+
+	/**
+	 * Get the histogram of the latencies of the replayed calls in
+	 * nanoseconds.
+	 *
+	 * @return The latency histogram.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	public LatencyHistogram getLatencyHistogram() {
+		return latencyHistogram_;
+	}
+
+	/**
+	 * Get the histogram of the delays between the scheduled start and the
+	 * actual start of the replayed calls in nanoseconds. High delays mean that
+	 * the module could not keep up with the recorded load. Empty if replaying
+	 * as fast as possible.
+	 *
+	 * @return The histogram of the delays.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	public LatencyHistogram getScheduleLagHistogram() {
+		return scheduleLagHistogram_;
+	}
+
+	/**
+	 * Find the number of records at the start of the trace, which ended
+	 * before the given start time in the recording. Since the records are
+	 * written in the order in which the calls ended, these are the calls the
+	 * given call may depend on. If the call started before all records in the
+	 * window, it depends on all records before the window.
+	 *
+	 * @param startTime The start time of the call.
+	 * @param index The index of the record of the call.
+	 * @return The number of records that must be replayed before the call.
+	 * @preconditions (index >= 0)
+	 * @postconditions (result >= 0) and (result <= index)
+	 */
+	protected long findDependency(long startTime, long index) {
+		long low = Math.max(0L, index - DEPENDENCY_WINDOW);
+		long high = index;
+		while (low < high) {
+			long middle = (low + high) >>> 1;
+			if (endTimes_[(int) (middle % DEPENDENCY_WINDOW)] < startTime) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+
+	/**
+	 * Mark the record with the given index as replayed and wake up the
+	 * threads waiting for it.
+	 *
+	 * @param index The index of the record in the trace.
+	 * @preconditions (index >= 0)
+	 * @postconditions
+	 */
+	protected void setCompleted(long index) {
+		synchronized (completedIndexes_) {
+			if (index != completedCount_) {
+				completedIndexes_.add(new Long(index));
+				return;
+			}
+			completedCount_++;
+			while (completedIndexes_.remove(new Long(completedCount_))) {
+				completedCount_++;
+			}
+			completedIndexes_.notifyAll();
+		}
+	}
+
+	/**
+	 * Wait until the given number of records at the start of the trace have
+	 * been replayed.
+	 *
+	 * @param count The number of records.
+	 * @exception InterruptedException If the current thread was interrupted.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected void waitForCompletion(long count)
+	    throws InterruptedException
+	{
+		synchronized (completedIndexes_) {
+			while (completedCount_ < count) {
+				completedIndexes_.wait();
+			}
+		}
+	}
+
+	/**
+	 * Wait for the scheduled start of the given call and the calls it depends
+	 * on, replay it and record the results.
+	 *
+	 * @param call The call to replay.
+	 * @exception InterruptedException If the current thread was interrupted.
+	 * @preconditions (call <> null)
+	 * @postconditions
+	 */
+	protected void replayRecord(ScheduledCall call)
+	    throws InterruptedException
+	{
+		PKCS11Trace.Record record = call.record_;
+		if (isSkipped(record.function_)) {
+			skippedCount_.incrementAndGet();
+			return;
+		}
+		if (speed_ > 0) {
+			long scheduledStart = replayStart_
+			    + (long) ((record.startTime_ - traceStart_) / speed_);
+			long delay;
+			while ((delay = scheduledStart - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(delay);
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+			waitForCompletion(call.dependency_);
+			scheduleLagHistogram_.recordValue(System.nanoTime() - scheduledStart);
+		} else {
+			waitForCompletion(call.dependency_);
+		}
+
+		long returnValue;
+		long startTime = System.nanoTime();
+		try {
+			replayCall(record);
+			returnValue = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			returnValue = ex.getErrorCode();
+		} catch (RuntimeException ex) {
+			returnValue = PKCS11Constants.CKR_GENERAL_ERROR;
+		}
+		latencyHistogram_.recordValue(System.nanoTime() - startTime);
+		callCount_.incrementAndGet();
+		if (returnValue != record.returnValue_) {
+			mismatchCount_.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Check, if calls of the given function are skipped.
+	 *
+	 * @param function The index of the function; e.g. C_SIGN.
+	 * @return True, if the calls are not replayed.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected boolean isSkipped(int function) {
+		switch (function) {
+		case InstrumentingPKCS11.C_INIT_TOKEN:
+		case InstrumentingPKCS11.C_INIT_PIN:
+		case InstrumentingPKCS11.C_SET_PIN:
+		case InstrumentingPKCS11.C_WAIT_FOR_SLOT_EVENT:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Issue the call of the given record with the mapped handles and map the
+	 * returned handles.
+	 *
+	 * @param record The record to replay.
+	 * @exception PKCS11Exception If the call fails.
+	 * @preconditions (record <> null)
+	 * @postconditions
+	 */
+	protected void replayCall(PKCS11Trace.Record record)
+	    throws PKCS11Exception
+	{
+		long hSession = mapHandle(sessionHandles_, record.sessionHandle_);
+		long[] arguments = record.arguments_;
+		CK_MECHANISM mechanism = record.mechanism_;
+		boolean useUtf8 = record.useUtf8_;
+		byte[][] data = record.data_;
+		long[] results = record.results_;
+
+		switch (record.function_) {
+		case InstrumentingPKCS11.C_INITIALIZE:
+			CK_C_INITIALIZE_ARGS initArgs = null;
+			if (arguments[0] != 0L) {
+				initArgs = new CK_C_INITIALIZE_ARGS();
+				initArgs.flags = arguments[1];
+				if (arguments[2] != 0L) {
+					// the recorded application passed mutex functions
+					initArgs.flags |= PKCS11Constants.CKF_OS_LOCKING_OK;
+				}
+			}
+			pkcs11Module_.C_Initialize(initArgs, useUtf8);
+			break;
+		case InstrumentingPKCS11.C_FINALIZE:
+			pkcs11Module_.C_Finalize(null);
+			break;
+		case InstrumentingPKCS11.C_GET_INFO:
+			pkcs11Module_.C_GetInfo();
+			break;
+		case InstrumentingPKCS11.C_GET_SLOT_LIST:
+			mapHandles(slotIDs_, results, pkcs11Module_.C_GetSlotList(arguments[0] != 0L));
+			break;
+		case InstrumentingPKCS11.C_GET_SLOT_INFO:
+			pkcs11Module_.C_GetSlotInfo(mapHandle(slotIDs_, record.slotID_));
+			break;
+		case InstrumentingPKCS11.C_GET_TOKEN_INFO:
+			pkcs11Module_.C_GetTokenInfo(mapHandle(slotIDs_, record.slotID_));
+			break;
+		case InstrumentingPKCS11.C_GET_MECHANISM_LIST:
+			pkcs11Module_.C_GetMechanismList(mapHandle(slotIDs_, record.slotID_));
+			break;
+		case InstrumentingPKCS11.C_GET_MECHANISM_INFO:
+			pkcs11Module_.C_GetMechanismInfo(mapHandle(slotIDs_, record.slotID_), arguments[0]);
+			break;
+		case InstrumentingPKCS11.C_OPEN_SESSION:
+			long newSession = pkcs11Module_.C_OpenSession(mapHandle(slotIDs_, record.slotID_), arguments[0],
+			    null, null);
+			mapHandles(sessionHandles_, results, new long[] { newSession });
+			break;
+		case InstrumentingPKCS11.C_CLOSE_SESSION:
+			pkcs11Module_.C_CloseSession(hSession);
+			sessionHandles_.remove(new Long(record.sessionHandle_));
+			break;
+		case InstrumentingPKCS11.C_CLOSE_ALL_SESSIONS:
+			pkcs11Module_.C_CloseAllSessions(mapHandle(slotIDs_, record.slotID_));
+			break;
+		case InstrumentingPKCS11.C_GET_SESSION_INFO:
+			pkcs11Module_.C_GetSessionInfo(hSession);
+			break;
+		case InstrumentingPKCS11.C_GET_OPERATION_STATE:
+			pkcs11Module_.C_GetOperationState(hSession);
+			break;
+		case InstrumentingPKCS11.C_SET_OPERATION_STATE:
+			pkcs11Module_.C_SetOperationState(hSession, data[0],
+			    mapHandle(objectHandles_, arguments[0]), mapHandle(objectHandles_, arguments[1]));
+			break;
+		case InstrumentingPKCS11.C_LOGIN:
+			char[] pin = null;
+			if (arguments[1] != 0L) {
+				pin = (arguments[0] == PKCS11Constants.CKU_SO) ? soPin_ : userPin_;
+			}
+			pkcs11Module_.C_Login(hSession, arguments[0], pin, useUtf8);
+			break;
+		case InstrumentingPKCS11.C_LOGOUT:
+			pkcs11Module_.C_Logout(hSession);
+			break;
+		case InstrumentingPKCS11.C_CREATE_OBJECT:
+			long newObject = pkcs11Module_.C_CreateObject(hSession, record.templates_[0], useUtf8);
+			mapHandles(objectHandles_, results, new long[] { newObject });
+			break;
+		case InstrumentingPKCS11.C_COPY_OBJECT:
+			long copiedObject = pkcs11Module_.C_CopyObject(hSession,
+			    mapHandle(objectHandles_, arguments[0]), record.templates_[0], useUtf8);
+			mapHandles(objectHandles_, results, new long[] { copiedObject });
+			break;
+		case InstrumentingPKCS11.C_DESTROY_OBJECT:
+			pkcs11Module_.C_DestroyObject(hSession, mapHandle(objectHandles_, arguments[0]));
+			objectHandles_.remove(new Long(arguments[0]));
+			break;
+		case InstrumentingPKCS11.C_GET_OBJECT_SIZE:
+			pkcs11Module_.C_GetObjectSize(hSession, mapHandle(objectHandles_, arguments[0]));
+			break;
+		case InstrumentingPKCS11.C_GET_ATTRIBUTE_VALUE:
+			pkcs11Module_.C_GetAttributeValue(hSession, mapHandle(objectHandles_, arguments[0]),
+			    record.templates_[0], useUtf8);
+			break;
+		case InstrumentingPKCS11.C_SET_ATTRIBUTE_VALUE:
+			pkcs11Module_.C_SetAttributeValue(hSession, mapHandle(objectHandles_, arguments[0]),
+			    record.templates_[0], useUtf8);
+			break;
+		case InstrumentingPKCS11.C_FIND_OBJECTS_INIT:
+			pkcs11Module_.C_FindObjectsInit(hSession, record.templates_[0], useUtf8);
+			break;
+		case InstrumentingPKCS11.C_FIND_OBJECTS:
+			mapHandles(objectHandles_, results, pkcs11Module_.C_FindObjects(hSession, arguments[0]));
+			break;
+		case InstrumentingPKCS11.C_FIND_OBJECTS_FINAL:
+			pkcs11Module_.C_FindObjectsFinal(hSession);
+			break;
+		case InstrumentingPKCS11.C_ENCRYPT_INIT:
+			pkcs11Module_.C_EncryptInit(hSession, mechanism,
+			    mapHandle(objectHandles_, arguments[0]), useUtf8);
+			break;
+		case InstrumentingPKCS11.C_ENCRYPT:
+			pkcs11Module_.C_Encrypt(hSession, data[0]);
+			break;
+		case InstrumentingPKCS11.C_ENCRYPT_UPDATE:
+			pkcs11Module_.C_EncryptUpdate(hSession, data[0]);
+			break;
+		case InstrumentingPKCS11.C_ENCRYPT_FINAL:
+			pkcs11Module_.C_EncryptFinal(hSession);
+			break;
+		case InstrumentingPKCS11.C_DECRYPT_INIT:
+			pkcs11Module_.C_DecryptInit(hSession, mechanism,
+			    mapHandle(objectHandles_, arguments[0]), useUtf8);
+			break;
+		case InstrumentingPKCS11.C_DECRYPT:
+			pkcs11Module_.C_Decrypt(hSession, data[0]);
+			break;
+		case InstrumentingPKCS11.C_DECRYPT_UPDATE:
+			pkcs11Module_.C_DecryptUpdate(hSession, data[0]);
+			break;
+		case InstrumentingPKCS11.C_DECRYPT_FINAL:
+			pkcs11Module_.C_DecryptFinal(hSession);
+			break;
+		case InstrumentingPKCS11.C_DIGEST_INIT:
+			pkcs11Module_.C_DigestInit(hSession, mechanism, useUtf8);
+			break;
+		case InstrumentingPKCS11.C_DIGEST:
+			pkcs11Module_.C_Digest(hSession, data[0]);
+			break;
+		case InstrumentingPKCS11.C_DIGEST_UPDATE:
+			pkcs11Module_.C_DigestUpdate(hSession, data[0]);
+			break;
+		case InstrumentingPKCS11.C_DIGEST_KEY:
+			pkcs11Module_.C_DigestKey(hSession, mapHandle(objectHandles_, arguments[0]));
+			break;
+		case InstrumentingPKCS11.C_DIGEST_FINAL:
+			pkcs11Module_.C_DigestFinal(hSession);
+			break;
+		case InstrumentingPKCS11.C_SIGN_INIT:
+			pkcs11Module_.C_SignInit(hSession, mechanism,
+			    mapHandle(objectHandles_, arguments[0]), useUtf8);
+			break;
+		case InstrumentingPKCS11.C_SIGN:
+			pkcs11Module_.C_Sign(hSession, data[0]);
+			break;
+		case InstrumentingPKCS11.C_SIGN_UPDATE:
+			pkcs11Module_.C_SignUpdate(hSession, data[0]);
+			break;
+		case InstrumentingPKCS11.C_SIGN_FINAL:
+			pkcs11Module_.C_SignFinal(hSession);
+			break;
+		case InstrumentingPKCS11.C_SIGN_RECOVER_INIT:
+			pkcs11Module_.C_SignRecoverInit(hSession, mechanism,
+			    mapHandle(objectHandles_, arguments[0]), useUtf8);
+			break;
+		case InstrumentingPKCS11.C_SIGN_RECOVER:
+			pkcs11Module_.C_SignRecover(hSession, data[0]);
+			break;
+		case InstrumentingPKCS11.C_VERIFY_INIT:
+			pkcs11Module_.C_VerifyInit(hSession, mechanism,
+			    mapHandle(objectHandles_, arguments[0]), useUtf8);
+			break;
+		case InstrumentingPKCS11.C_VERIFY:
+			pkcs11Module_.C_Verify(hSession, data[0], data[1]);
+			break;
+		case InstrumentingPKCS11.C_VERIFY_UPDATE:
+			pkcs11Module_.C_VerifyUpdate(hSession, data[0]);
+			break;
+		case InstrumentingPKCS11.C_VERIFY_FINAL:
+			pkcs11Module_.C_VerifyFinal(hSession, data[0]);
+			break;
+		case InstrumentingPKCS11.C_VERIFY_RECOVER_INIT:
+			pkcs11Module_.C_VerifyRecoverInit(hSession, mechanism,
+			    mapHandle(objectHandles_, arguments[0]), useUtf8);
+			break;
+		case InstrumentingPKCS11.C_VERIFY_RECOVER:
+			pkcs11Module_.C_VerifyRecover(hSession, data[0]);
+			break;
+		case InstrumentingPKCS11.C_DIGEST_ENCRYPT_UPDATE:
+			pkcs11Module_.C_DigestEncryptUpdate(hSession, data[0]);
+			break;
+		case InstrumentingPKCS11.C_DECRYPT_DIGEST_UPDATE:
+			pkcs11Module_.C_DecryptDigestUpdate(hSession, data[0]);
+			break;
+		case InstrumentingPKCS11.C_SIGN_ENCRYPT_UPDATE:
+			pkcs11Module_.C_SignEncryptUpdate(hSession, data[0]);
+			break;
+		case InstrumentingPKCS11.C_DECRYPT_VERIFY_UPDATE:
+			pkcs11Module_.C_DecryptVerifyUpdate(hSession, data[0]);
+			break;
+		case InstrumentingPKCS11.C_GENERATE_KEY:
+			long newKey = pkcs11Module_.C_GenerateKey(hSession, mechanism, record.templates_[0],
+			    useUtf8);
+			mapHandles(objectHandles_, results, new long[] { newKey });
+			break;
+		case InstrumentingPKCS11.C_GENERATE_KEY_PAIR:
+			mapHandles(objectHandles_, results, pkcs11Module_.C_GenerateKeyPair(hSession,
+			    mechanism, record.templates_[0], record.templates_[1], useUtf8));
+			break;
+		case InstrumentingPKCS11.C_WRAP_KEY:
+			pkcs11Module_.C_WrapKey(hSession, mechanism, mapHandle(objectHandles_, arguments[0]),
+			    mapHandle(objectHandles_, arguments[1]), useUtf8);
+			break;
+		case InstrumentingPKCS11.C_UNWRAP_KEY:
+			long unwrappedKey = pkcs11Module_.C_UnwrapKey(hSession, mechanism,
+			    mapHandle(objectHandles_, arguments[0]), data[0], record.templates_[0], useUtf8);
+			mapHandles(objectHandles_, results, new long[] { unwrappedKey });
+			break;
+		case InstrumentingPKCS11.C_DERIVE_KEY:
+			long derivedKey = pkcs11Module_.C_DeriveKey(hSession, mechanism,
+			    mapHandle(objectHandles_, arguments[0]), record.templates_[0], useUtf8);
+			mapHandles(objectHandles_, results, new long[] { derivedKey });
+			break;
+		case InstrumentingPKCS11.C_SEED_RANDOM:
+			pkcs11Module_.C_SeedRandom(hSession, data[0]);
+			break;
+		case InstrumentingPKCS11.C_GENERATE_RANDOM:
+			pkcs11Module_.C_GenerateRandom(hSession, data[0]);
+			break;
+		case InstrumentingPKCS11.C_GET_FUNCTION_STATUS:
+			pkcs11Module_.C_GetFunctionStatus(hSession);
+			break;
+		case InstrumentingPKCS11.C_CANCEL_FUNCTION:
+			pkcs11Module_.C_CancelFunction(hSession);
+			break;
+		default:
+			throw new IllegalArgumentException("Cannot replay " + record.getFunctionName());
+		}
+	}
+
+	/**
+	 * Map the given handle of the trace to the handle of the module.
+	 *
+	 * @param handles The map of the handles; i.e. slotIDs_, sessionHandles_
+	 *                or objectHandles_.
+	 * @param handle The recorded handle.
+	 * @return The handle of the module, or the recorded handle if it is not
+	 *         mapped.
+	 * @preconditions (handles <> null)
+	 * @postconditions
+	 */
+	protected long mapHandle(Map handles, long handle) {
+		Long mappedHandle = (Long) handles.get(new Long(handle));
+
+		return (mappedHandle != null) ? mappedHandle.longValue() : handle;
+	}
+
+	/**
+	 * Map the recorded handles to the handles returned in the replay by
+	 * position.
+	 *
+	 * @param handles The map of the handles.
+	 * @param recordedHandles The handles in the trace or null, if the
+	 *                        recorded call failed.
+	 * @param replayedHandles The handles returned in the replay.
+	 * @preconditions (handles <> null)
+	 * @postconditions
+	 */
+	protected void mapHandles(Map handles, long[] recordedHandles, long[] replayedHandles) {
+		if ((recordedHandles == null) || (replayedHandles == null)) {
+			return;
+		}
+		int count = Math.min(recordedHandles.length, replayedHandles.length);
+		for (int i = 0; i < count; i++) {
+			handles.put(new Long(recordedHandles[i]), new Long(replayedHandles[i]));
+		}
+	}
+
+}
@@ -0,0 +1,1029 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+package iaik.pkcs.pkcs11.wrapper;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * This class defines the binary format of the call traces, which
+ * RecordingPKCS11 writes and PKCS11Replayer reads. A trace starts with a
+ * header of the magic number, the version and the wall-clock time of the
+ * start of the recording in milliseconds. The header is followed by one
+ * record for each call. A record holds the function, the calling thread,
+ * the start time relative to the start of the recording, the duration and
+ * the return value of the call; and the arguments, the mechanism, the
+ * templates, the data buffers and the returned handles, as far as the
+ * function has them. All numbers except the header are written as
+ * variable-length integers; thus a record of a C_Sign call takes less than
+ * 20 bytes, if the data is not recorded.
+ * <p>
+ * PINs are never part of a trace. Of data buffers, the trace holds only the
+ * length, unless the recorder was told to record the data. Of sensitive
+ * attributes like CKA_VALUE or CKA_PRIVATE_EXPONENT, the trace always holds
+ * only the length. When reading the trace, such values become arrays of
+ * zeros of the recorded length.
+ *
+ * @see iaik.pkcs.pkcs11.wrapper.RecordingPKCS11
+ * @see iaik.pkcs.pkcs11.wrapper.PKCS11Replayer
+ * @version 1.0
+ * @invariants
+ */
+public class PKCS11Trace {
+
+	/**
+	 * The magic number at the start of each trace; "P11T".
+	 */
+	public static final int MAGIC = 0x50313154;
+
+	/**
+	 * The version of the format.
+	 */
+	public static final int VERSION = 1;
+
+	/*
+	 * The kinds of the values of attributes and mechanism parameters.
+	 */
+	protected static final int VALUE_NULL = 0;
+	protected static final int VALUE_BOOLEAN = 1;
+	protected static final int VALUE_LONG = 2;
+	protected static final int VALUE_BYTES = 3;
+	protected static final int VALUE_CHARS = 4;
+	protected static final int VALUE_DATE = 5;
+	protected static final int VALUE_LONGS = 6;
+	protected static final int VALUE_REDACTED = 7;
+	protected static final int VALUE_UNSUPPORTED = 8;
+	protected static final int VALUE_PSS_PARAMS = 9;
+	protected static final int VALUE_OAEP_PARAMS = 10;
+	protected static final int VALUE_ECDH1_DERIVE_PARAMS = 11;
+
+	/**
+	 * The types of the attributes whose values are never written to a trace.
+	 */
+	protected static final long[] SENSITIVE_ATTRIBUTES = {
+	    PKCS11Constants.CKA_VALUE,
+	    PKCS11Constants.CKA_PRIVATE_EXPONENT,
+	    PKCS11Constants.CKA_PRIME_1,
+	    PKCS11Constants.CKA_PRIME_2,
+	    PKCS11Constants.CKA_EXPONENT_1,
+	    PKCS11Constants.CKA_EXPONENT_2,
+	    PKCS11Constants.CKA_COEFFICIENT };
+
+	protected static final long[] NO_LONGS = new long[0];
+
+	protected static final byte[][] NO_DATA = new byte[0][];
+
+	protected static final int[] NO_LENGTHS = new int[0];
+
+	protected static final CK_ATTRIBUTE[][] NO_TEMPLATES = new CK_ATTRIBUTE[0][];
+
+	/**
+	 * One call in a trace.
+	 *
+	 * @version 1.0
+	 * @invariants (arguments_ <> null)
+	 *             and (templates_ <> null)
+	 *             and (data_ <> null)
+	 *             and (dataLengths_ <> null)
+	 *             and (data_.length == dataLengths_.length)
+	 */
+	public static class Record {
+
+		/**
+		 * The index of the function; the same as in InstrumentingPKCS11.
+		 */
+		protected int function_;
+
+		/**
+		 * The ID of the calling thread.
+		 */
+		protected long threadId_;
+
+		/**
+		 * The start time of the call in nanoseconds since the start of the
+		 * recording.
+		 */
+		protected long startTime_;
+
+		/**
+		 * The duration of the call in nanoseconds.
+		 */
+		protected long duration_;
+
+		/**
+		 * The return value of the call.
+		 */
+		protected long returnValue_ = PKCS11Constants.CKR_GENERAL_ERROR;
+
+		/**
+		 * The session handle or CK_INVALID_HANDLE.
+		 */
+		protected long sessionHandle_ = PKCS11Constants.CK_INVALID_HANDLE;
+
+		/**
+		 * The ID of the slot passed to the function or -1.
+		 */
+		protected long slotID_ = -1L;
+
+		/**
+		 * The other numeric arguments of the function in the order of its
+		 * parameters; e.g. the key handle of C_SignInit or the flags of
+		 * C_OpenSession.
+		 */
+		protected long[] arguments_ = NO_LONGS;
+
+		/**
+		 * The value of the useUtf8 argument of the function.
+		 */
+		protected boolean useUtf8_ = true;
+
+		/**
+		 * The mechanism or null.
+		 */
+		protected CK_MECHANISM mechanism_;
+
+		/**
+		 * The templates in the order of the parameters; the elements may be
+		 * null.
+		 */
+		protected CK_ATTRIBUTE[][] templates_ = NO_TEMPLATES;
+
+		/**
+		 * True, if only the types of the attributes are of interest; e.g. for
+		 * C_GetAttributeValue.
+		 */
+		protected boolean typesOnly_;
+
+		/**
+		 * The data buffers passed to the function. An element is null, if the
+		 * content is not part of the trace.
+		 */
+		protected byte[][] data_ = NO_DATA;
+
+		/**
+		 * The lengths of the data buffers; -1 for a null buffer.
+		 */
+		protected int[] dataLengths_ = NO_LENGTHS;
+
+		/**
+		 * The handles or slot IDs returned by the function, or null if the
+		 * function did not return any.
+		 */
+		protected long[] results_;
+
+		/**
+		 * The length of the returned data or -1.
+		 */
+		protected long outputLength_ = -1L;
+
+		/**
+		 * Create a new record.
+		 *
+		 * @param function The index of the function.
+		 * @preconditions (function >= 0) and (function < InstrumentingPKCS11.FUNCTION_NAMES.length)
+		 * @postconditions
+		 */
+		protected Record(int function) {
+			function_ = function;
+		}
+
+		/**
+		 * Get the name of the function; e.g. "C_Sign".
+		 *
+		 * @return The name of the function.
+		 * @preconditions
+		 * @postconditions (result <> null)
+		 */
+		public String getFunctionName() {
+			return InstrumentingPKCS11.FUNCTION_NAMES[function_];
+		}
+
+		/**
+		 * Get the ID of the thread that made the call.
+		 *
+		 * @return The thread ID.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public long getThreadId() {
+			return threadId_;
+		}
+
+		/**
+		 * Get the start time of the call.
+		 *
+		 * @return The start time in nanoseconds since the start of the recording.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public long getStartTime() {
+			return startTime_;
+		}
+
+		/**
+		 * Get the duration of the call.
+		 *
+		 * @return The duration in nanoseconds.
+		 * @preconditions
+		 * @postconditions (result >= 0)
+		 */
+		public long getDuration() {
+			return duration_;
+		}
+
+		/**
+		 * Get the return value of the call.
+		 *
+		 * @return The return value; CKR_OK if the call succeeded.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public long getReturnValue() {
+			return returnValue_;
+		}
+
+		/**
+		 * Get the handle of the session of the call.
+		 *
+		 * @return The session handle or CK_INVALID_HANDLE.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public long getSessionHandle() {
+			return sessionHandle_;
+		}
+
+		/**
+		 * Get the slot passed to the function.
+		 *
+		 * @return The slot ID or -1.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public long getSlotID() {
+			return slotID_;
+		}
+
+		/**
+		 * Get the mechanism passed to the function. Parameters of types that
+		 * the trace does not support are null.
+		 *
+		 * @return The mechanism or null.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public CK_MECHANISM getMechanism() {
+			return mechanism_;
+		}
+
+		/**
+		 * Get the handles or slot IDs returned by the function; e.g. the new
+		 * session of C_OpenSession or the found objects of C_FindObjects.
+		 *
+		 * @return The returned handles or null.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public long[] getResults() {
+			return results_;
+		}
+
+		/**
+		 * Get the length of the data returned by the function; e.g. the length
+		 * of the signature.
+		 *
+		 * @return The length of the returned data or -1.
+		 * @preconditions
+		 * @postconditions
+		 */
+		public long getOutputLength() {
+			return outputLength_;
+		}
+
+		/**
+		 * Returns the string representation of this object.
+		 *
+		 * @return the string representation of this object
+		 */
+		public String toString() {
+			StringBuffer buffer = new StringBuffer();
+
+			buffer.append(startTime_ / 1000L);
+			buffer.append(" [us] thread ");
+			buffer.append(threadId_);
+			buffer.append(": ");
+			buffer.append(getFunctionName());
+			if (sessionHandle_ != PKCS11Constants.CK_INVALID_HANDLE) {
+				buffer.append(", session ");
+				buffer.append(sessionHandle_);
+			}
+			if (slotID_ != -1L) {
+				buffer.append(", slot ");
+				buffer.append(slotID_);
+			}
+			if (mechanism_ != null) {
+				buffer.append(", mechanism ");
+				buffer.append(Functions.mechanismCodeToString(mechanism_.mechanism));
+			}
+			for (int i = 0; i < dataLengths_.length; i++) {
+				buffer.append((i == 0) ? ", data " : " ");
+				buffer.append(dataLengths_[i]);
+			}
+			if (outputLength_ >= 0) {
+				buffer.append(", output ");
+				buffer.append(outputLength_);
+			}
+			buffer.append(", result 0x");
+			buffer.append(Functions.toFullHexString((int) returnValue_));
+			buffer.append(", duration [us] ");
+			buffer.append(duration_ / 1000L);
+
+			return buffer.toString();
+		}
+
+	}
+
+	/**
+	 * Empty constructor for internal use only.
+	 *
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected PKCS11Trace() { /* left empty intentionally */
+	}
+
+	/**
+	 * Write the header of a trace.
+	 *
+	 * @param out The stream to write to.
+	 * @param startTime The wall-clock time of the start of the recording in
+	 *                  milliseconds.
+	 * @exception IOException If writing fails.
+	 * @preconditions (out <> null)
+	 * @postconditions
+	 */
+	public static void writeHeader(DataOutputStream out, long startTime)
+	    throws IOException
+	{
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(startTime);
+	}
+
+	/**
+	 * Read the header of a trace.
+	 *
+	 * @param in The stream to read from.
+	 * @return The wall-clock time of the start of the recording in
+	 *         milliseconds.
+	 * @exception IOException If reading fails or the stream does not contain
+	 *                        a trace of a supported version.
+	 * @preconditions (in <> null)
+	 * @postconditions
+	 */
+	public static long readHeader(DataInputStream in)
+	    throws IOException
+	{
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a PKCS#11 call trace.");
+		}
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported version of the PKCS#11 call trace: " + version);
+		}
+
+		return in.readLong();
+	}
+
+	/**
+	 * Write one record.
+	 *
+	 * @param out The stream to write to.
+	 * @param record The record to write.
+	 * @exception IOException If writing fails.
+	 * @preconditions (out <> null) and (record <> null)
+	 * @postconditions
+	 */
+	public static void writeRecord(DataOutputStream out, Record record)
+	    throws IOException
+	{
+		writeNumber(out, record.function_);
+		writeNumber(out, record.threadId_);
+		writeNumber(out, record.startTime_);
+		writeNumber(out, record.duration_);
+		writeNumber(out, record.returnValue_);
+		writeNumber(out, record.sessionHandle_);
+		writeNumber(out, record.slotID_);
+		writeNumbers(out, record.arguments_);
+		out.writeBoolean(record.useUtf8_);
+		if (record.mechanism_ != null) {
+			out.writeBoolean(true);
+			writeNumber(out, record.mechanism_.mechanism);
+			writeParameter(out, record.mechanism_.pParameter);
+		} else {
+			out.writeBoolean(false);
+		}
+		writeNumber(out, record.templates_.length);
+		for (int i = 0; i < record.templates_.length; i++) {
+			writeTemplate(out, record.templates_[i], record.typesOnly_);
+		}
+		writeNumber(out, record.dataLengths_.length);
+		for (int i = 0; i < record.dataLengths_.length; i++) {
+			writeNumber(out, record.dataLengths_[i]);
+			if (record.data_[i] != null) {
+				out.writeBoolean(true);
+				out.write(record.data_[i]);
+			} else {
+				out.writeBoolean(false);
+			}
+		}
+		if (record.results_ != null) {
+			out.writeBoolean(true);
+			writeNumbers(out, record.results_);
+		} else {
+			out.writeBoolean(false);
+		}
+		writeNumber(out, record.outputLength_);
+	}
+
+	/**
+	 * Read the next record.
+	 *
+	 * @param in The stream to read from.
+	 * @return The record, or null at the end of the trace.
+	 * @exception IOException If reading fails or the trace is corrupt.
+	 * @preconditions (in <> null)
+	 * @postconditions
+	 */
+	public static Record readRecord(DataInputStream in)
+	    throws IOException
+	{
+		int first = in.read();
+		if (first < 0) {
+			return null;
+		}
+		int function = (int) readNumber(in, first);
+		if ((function < 0) || (function >= InstrumentingPKCS11.FUNCTION_NAMES.length)) {
+			throw new IOException("Corrupt PKCS#11 call trace; unknown function " + function);
+		}
+		Record record = new Record(function);
+		record.threadId_ = readNumber(in);
+		record.startTime_ = readNumber(in);
+		record.duration_ = readNumber(in);
+		record.returnValue_ = readNumber(in);
+		record.sessionHandle_ = readNumber(in);
+		record.slotID_ = readNumber(in);
+		record.arguments_ = readNumbers(in);
+		record.useUtf8_ = in.readBoolean();
+		if (in.readBoolean()) {
+			record.mechanism_ = new CK_MECHANISM();
+			record.mechanism_.mechanism = readNumber(in);
+			record.mechanism_.pParameter = readParameter(in);
+		}
+		int templateCount = readCount(in);
+		record.templates_ = new CK_ATTRIBUTE[templateCount][];
+		for (int i = 0; i < templateCount; i++) {
+			record.templates_[i] = readTemplate(in);
+		}
+		int dataCount = readCount(in);
+		record.data_ = new byte[dataCount][];
+		record.dataLengths_ = new int[dataCount];
+		for (int i = 0; i < dataCount; i++) {
+			int length = (int) readNumber(in);
+			boolean content = in.readBoolean();
+			record.dataLengths_[i] = length;
+			if (length >= 0) {
+				record.data_[i] = new byte[length];
+				if (content) {
+					in.readFully(record.data_[i]);
+				}
+			}
+		}
+		if (in.readBoolean()) {
+			record.results_ = readNumbers(in);
+		}
+		record.outputLength_ = readNumber(in);
+
+		return record;
+	}
+
+	/**
+	 * Check, if the value of the given attribute must not be written to a
+	 * trace.
+	 *
+	 * @param type The type of the attribute.
+	 * @return True, if the attribute is sensitive.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected static boolean isSensitive(long type) {
+		for (int i = 0; i < SENSITIVE_ATTRIBUTES.length; i++) {
+			if (SENSITIVE_ATTRIBUTES[i] == type) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Write a template. If typesOnly is true, the values are written as null.
+	 *
+	 * @param out The stream to write to.
+	 * @param template The template or null.
+	 * @param typesOnly True to omit the values.
+	 * @exception IOException If writing fails.
+	 * @preconditions (out <> null)
+	 * @postconditions
+	 */
+	protected static void writeTemplate(DataOutputStream out, CK_ATTRIBUTE[] template,
+	                                    boolean typesOnly)
+	    throws IOException
+	{
+		if (template == null) {
+			writeNumber(out, -1L);
+			return;
+		}
+		writeNumber(out, template.length);
+		for (int i = 0; i < template.length; i++) {
+			CK_ATTRIBUTE attribute = template[i];
+			if (attribute == null) {
+				writeNumber(out, -1L);
+				continue;
+			}
+			writeNumber(out, attribute.type);
+			if (typesOnly) {
+				out.writeByte(VALUE_NULL);
+			} else if ((attribute.pValue != null) && isSensitive(attribute.type)) {
+				out.writeByte(VALUE_REDACTED);
+				writeNumber(out, (attribute.pValue instanceof byte[])
+				    ? ((byte[]) attribute.pValue).length : 0);
+			} else {
+				writeValue(out, attribute.pValue);
+			}
+		}
+	}
+
+	/**
+	 * Read a template.
+	 *
+	 * @param in The stream to read from.
+	 * @return The template or null.
+	 * @exception IOException If reading fails.
+	 * @preconditions (in <> null)
+	 * @postconditions
+	 */
+	protected static CK_ATTRIBUTE[] readTemplate(DataInputStream in)
+	    throws IOException
+	{
+		int length = (int) readNumber(in);
+		if (length < 0) {
+			return null;
+		}
+		CK_ATTRIBUTE[] template = new CK_ATTRIBUTE[length];
+		for (int i = 0; i < length; i++) {
+			long type = readNumber(in);
+			if (type == -1L) {
+				continue;
+			}
+			template[i] = new CK_ATTRIBUTE();
+			template[i].type = type;
+			template[i].pValue = readValue(in);
+		}
+
+		return template;
+	}
+
+	/**
+	 * Write the value of an attribute.
+	 *
+	 * @param out The stream to write to.
+	 * @param value The value or null.
+	 * @exception IOException If writing fails.
+	 * @preconditions (out <> null)
+	 * @postconditions
+	 */
+	protected static void writeValue(DataOutputStream out, Object value)
+	    throws IOException
+	{
+		if (value == null) {
+			out.writeByte(VALUE_NULL);
+		} else if (value instanceof Boolean) {
+			out.writeByte(VALUE_BOOLEAN);
+			out.writeBoolean(((Boolean) value).booleanValue());
+		} else if (value instanceof Long) {
+			out.writeByte(VALUE_LONG);
+			writeNumber(out, ((Long) value).longValue());
+		} else if (value instanceof byte[]) {
+			out.writeByte(VALUE_BYTES);
+			writeBytes(out, (byte[]) value);
+		} else if (value instanceof char[]) {
+			out.writeByte(VALUE_CHARS);
+			writeChars(out, (char[]) value);
+		} else if (value instanceof CK_DATE) {
+			CK_DATE date = (CK_DATE) value;
+			out.writeByte(VALUE_DATE);
+			writeChars(out, date.year);
+			writeChars(out, date.month);
+			writeChars(out, date.day);
+		} else if (value instanceof long[]) {
+			out.writeByte(VALUE_LONGS);
+			writeNumbers(out, (long[]) value);
+		} else {
+			out.writeByte(VALUE_UNSUPPORTED);
+		}
+	}
+
+	/**
+	 * Read the value of an attribute.
+	 *
+	 * @param in The stream to read from.
+	 * @return The value or null.
+	 * @exception IOException If reading fails.
+	 * @preconditions (in <> null)
+	 * @postconditions
+	 */
+	protected static Object readValue(DataInputStream in)
+	    throws IOException
+	{
+		return readValue(in, in.readByte());
+	}
+
+	/**
+	 * Read the value of an attribute, whose kind has already been read.
+	 *
+	 * @param in The stream to read from.
+	 * @param kind The kind of the value; e.g. VALUE_LONG.
+	 * @return The value or null.
+	 * @exception IOException If reading fails.
+	 * @preconditions (in <> null)
+	 * @postconditions
+	 */
+	protected static Object readValue(DataInputStream in, int kind)
+	    throws IOException
+	{
+		switch (kind) {
+		case VALUE_NULL:
+		case VALUE_UNSUPPORTED:
+			return null;
+		case VALUE_BOOLEAN:
+			return in.readBoolean() ? Boolean.TRUE : Boolean.FALSE;
+		case VALUE_LONG:
+			return new Long(readNumber(in));
+		case VALUE_BYTES:
+			return readBytes(in);
+		case VALUE_CHARS:
+			return readChars(in);
+		case VALUE_DATE:
+			CK_DATE date = new CK_DATE();
+			date.year = readChars(in);
+			date.month = readChars(in);
+			date.day = readChars(in);
+			return date;
+		case VALUE_LONGS:
+			return readNumbers(in);
+		case VALUE_REDACTED:
+			return new byte[readCount(in)];
+		default:
+			throw new IOException("Corrupt PKCS#11 call trace; unknown value kind " + kind);
+		}
+	}
+
+	/**
+	 * Write the parameter of a mechanism. Besides byte arrays and numbers,
+	 * the parameters of RSA PSS, RSA OAEP and ECDH1 derivation are supported.
+	 * Other parameters are written as unsupported and read as null.
+	 *
+	 * @param out The stream to write to.
+	 * @param parameter The parameter or null.
+	 * @exception IOException If writing fails.
+	 * @preconditions (out <> null)
+	 * @postconditions
+	 */
+	protected static void writeParameter(DataOutputStream out, Object parameter)
+	    throws IOException
+	{
+		if (parameter instanceof CK_RSA_PKCS_PSS_PARAMS) {
+			CK_RSA_PKCS_PSS_PARAMS params = (CK_RSA_PKCS_PSS_PARAMS) parameter;
+			out.writeByte(VALUE_PSS_PARAMS);
+			writeNumber(out, params.hashAlg);
+			writeNumber(out, params.mgf);
+			writeNumber(out, params.sLen);
+		} else if (parameter instanceof CK_RSA_PKCS_OAEP_PARAMS) {
+			CK_RSA_PKCS_OAEP_PARAMS params = (CK_RSA_PKCS_OAEP_PARAMS) parameter;
+			out.writeByte(VALUE_OAEP_PARAMS);
+			writeNumber(out, params.hashAlg);
+			writeNumber(out, params.mgf);
+			writeNumber(out, params.source);
+			writeBytes(out, params.pSourceData);
+		} else if (parameter instanceof CK_ECDH1_DERIVE_PARAMS) {
+			CK_ECDH1_DERIVE_PARAMS params = (CK_ECDH1_DERIVE_PARAMS) parameter;
+			out.writeByte(VALUE_ECDH1_DERIVE_PARAMS);
+			writeNumber(out, params.kdf);
+			writeBytes(out, params.pSharedData);
+			writeBytes(out, params.pPublicData);
+		} else if ((parameter == null) || (parameter instanceof byte[])
+		    || (parameter instanceof Long)) {
+			writeValue(out, parameter);
+		} else {
+			out.writeByte(VALUE_UNSUPPORTED);
+		}
+	}
+
+	/**
+	 * Read the parameter of a mechanism.
+	 *
+	 * @param in The stream to read from.
+	 * @return The parameter or null.
+	 * @exception IOException If reading fails.
+	 * @preconditions (in <> null)
+	 * @postconditions
+	 */
+	protected static Object readParameter(DataInputStream in)
+	    throws IOException
+	{
+		int kind = in.readByte();
+		switch (kind) {
+		case VALUE_PSS_PARAMS:
+			CK_RSA_PKCS_PSS_PARAMS pssParams = new CK_RSA_PKCS_PSS_PARAMS();
+			pssParams.hashAlg = readNumber(in);
+			pssParams.mgf = readNumber(in);
+			pssParams.sLen = readNumber(in);
+			return pssParams;
+		case VALUE_OAEP_PARAMS:
+			CK_RSA_PKCS_OAEP_PARAMS oaepParams = new CK_RSA_PKCS_OAEP_PARAMS();
+			oaepParams.hashAlg = readNumber(in);
+			oaepParams.mgf = readNumber(in);
+			oaepParams.source = readNumber(in);
+			oaepParams.pSourceData = readBytes(in);
+			return oaepParams;
+		case VALUE_ECDH1_DERIVE_PARAMS:
+			CK_ECDH1_DERIVE_PARAMS ecdhParams = new CK_ECDH1_DERIVE_PARAMS();
+			ecdhParams.kdf = readNumber(in);
+			ecdhParams.pSharedData = readBytes(in);
+			ecdhParams.pPublicData = readBytes(in);
+			return ecdhParams;
+		default:
+			return readValue(in, kind);
+		}
+	}
+
+	/**
+	 * Write a byte array with its length; -1 for null.
+	 *
+	 * @param out The stream to write to.
+	 * @param bytes The bytes or null.
+	 * @exception IOException If writing fails.
+	 * @preconditions (out <> null)
+	 * @postconditions
+	 */
+	protected static void writeBytes(DataOutputStream out, byte[] bytes)
+	    throws IOException
+	{
+		if (bytes == null) {
+			writeNumber(out, -1L);
+		} else {
+			writeNumber(out, bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Read a byte array written by writeBytes.
+	 *
+	 * @param in The stream to read from.
+	 * @return The bytes or null.
+	 * @exception IOException If reading fails.
+	 * @preconditions (in <> null)
+	 * @postconditions
+	 */
+	protected static byte[] readBytes(DataInputStream in)
+	    throws IOException
+	{
+		int length = (int) readNumber(in);
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+
+		return bytes;
+	}
+
+	/**
+	 * Write a char array with its length; -1 for null.
+	 *
+	 * @param out The stream to write to.
+	 * @param chars The chars or null.
+	 * @exception IOException If writing fails.
+	 * @preconditions (out <> null)
+	 * @postconditions
+	 */
+	protected static void writeChars(DataOutputStream out, char[] chars)
+	    throws IOException
+	{
+		if (chars == null) {
+			writeNumber(out, -1L);
+		} else {
+			writeNumber(out, chars.length);
+			for (int i = 0; i < chars.length; i++) {
+				writeNumber(out, chars[i]);
+			}
+		}
+	}
+
+	/**
+	 * Read a char array written by writeChars.
+	 *
+	 * @param in The stream to read from.
+	 * @return The chars or null.
+	 * @exception IOException If reading fails.
+	 * @preconditions (in <> null)
+	 * @postconditions
+	 */
+	protected static char[] readChars(DataInputStream in)
+	    throws IOException
+	{
+		int length = (int) readNumber(in);
+		if (length < 0) {
+			return null;
+		}
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = (char) readNumber(in);
+		}
+
+		return chars;
+	}
+
+	/**
+	 * Write an array of numbers with its length.
+	 *
+	 * @param out The stream to write to.
+	 * @param numbers The numbers.
+	 * @exception IOException If writing fails.
+	 * @preconditions (out <> null) and (numbers <> null)
+	 * @postconditions
+	 */
+	protected static void writeNumbers(DataOutputStream out, long[] numbers)
+	    throws IOException
+	{
+		writeNumber(out, numbers.length);
+		for (int i = 0; i < numbers.length; i++) {
+			writeNumber(out, numbers[i]);
+		}
+	}
+
+	/**
+	 * Read an array of numbers written by writeNumbers.
+	 *
+	 * @param in The stream to read from.
+	 * @return The numbers.
+	 * @exception IOException If reading fails.
+	 * @preconditions (in <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected static long[] readNumbers(DataInputStream in)
+	    throws IOException
+	{
+		int length = readCount(in);
+		long[] numbers = new long[length];
+		for (int i = 0; i < length; i++) {
+			numbers[i] = readNumber(in);
+		}
+
+		return numbers;
+	}
+
+	/**
+	 * Read a count; i.e. a number that must be in the range of an int and
+	 * not negative.
+	 *
+	 * @param in The stream to read from.
+	 * @return The count.
+	 * @exception IOException If reading fails or the count is invalid.
+	 * @preconditions (in <> null)
+	 * @postconditions (result >= 0)
+	 */
+	protected static int readCount(DataInputStream in)
+	    throws IOException
+	{
+		long count = readNumber(in);
+		if ((count < 0) || (count > Integer.MAX_VALUE)) {
+			throw new IOException("Corrupt PKCS#11 call trace; invalid count " + count);
+		}
+
+		return (int) count;
+	}
+
+	/**
+	 * Write a number as variable-length integer. The sign is moved to the
+	 * lowest bit; thus small negative numbers like -1 take a single byte,
+	 * too.
+	 *
+	 * @param out The stream to write to.
+	 * @param number The number.
+	 * @exception IOException If writing fails.
+	 * @preconditions (out <> null)
+	 * @postconditions
+	 */
+	protected static void writeNumber(DataOutputStream out, long number)
+	    throws IOException
+	{
+		long value = (number << 1) ^ (number >> 63);
+		while ((value & ~0x7FL) != 0L) {
+			out.writeByte((int) ((value & 0x7FL) | 0x80L));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	/**
+	 * Read a number written by writeNumber.
+	 *
+	 * @param in The stream to read from.
+	 * @return The number.
+	 * @exception IOException If reading fails.
+	 * @preconditions (in <> null)
+	 * @postconditions
+	 */
+	protected static long readNumber(DataInputStream in)
+	    throws IOException
+	{
+		return readNumber(in, in.readUnsignedByte());
+	}
+
+	/**
+	 * Read a number written by writeNumber, whose first byte has already been
+	 * read.
+	 *
+	 * @param in The stream to read from.
+	 * @param first The first byte of the number.
+	 * @return The number.
+	 * @exception IOException If reading fails.
+	 * @preconditions (in <> null)
+	 * @postconditions
+	 */
+	protected static long readNumber(DataInputStream in, int first)
+	    throws IOException
+	{
+		long value = first & 0x7FL;
+		int shift = 7;
+		int next = first;
+		while ((next & 0x80) != 0) {
+			if (shift > 63) {
+				throw new IOException("Corrupt PKCS#11 call trace; number too long");
+			}
+			next = in.read();
+			if (next < 0) {
+				throw new EOFException();
+			}
+			value |= (next & 0x7FL) << shift;
+			shift += 7;
+		}
+
+		return (value >>> 1) ^ -(value & 1L);
+	}
+
+}
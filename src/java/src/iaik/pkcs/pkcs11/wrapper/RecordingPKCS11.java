@@ -0,0 +1,1939 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+package iaik.pkcs.pkcs11.wrapper;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This class decorates a PKCS11 implementation and writes a trace of all
+ * calls to a stream; see PKCS11Trace for the format. Such a trace of a
+ * production workload can be replayed later with PKCS11Replayer against
+ * another module, another version of the wrapper or another machine; e.g.
+ * for a performance regression test with a realistic mix of calls, data
+ * sizes and inter-arrival times.
+ * <pre><code>
+ *   OutputStream traceStream = new FileOutputStream("pkcs11.trace");
+ *   RecordingPKCS11 pkcs11 = new RecordingPKCS11(
+ *       PKCS11Connector.connectToPKCS11Module("libsofthsm.so"), traceStream);
+ *   Module module = Module.getInstance(pkcs11);
+ *   ...
+ *   module.finalize(null);
+ *   pkcs11.close();
+ * </code></pre>
+ * PINs are never recorded. Data buffers are recorded by their length only,
+ * unless the application requests to record the data; the values of
+ * sensitive attributes, wrapped keys, random seeds and operation states are
+ * always recorded by their length only.
+ * <p>
+ * The calling threads encode their records into thread-local buffers and
+ * only hold the lock of the stream to append the encoded record. If writing
+ * to the stream fails, the recording stops and the calls continue to work;
+ * the application can get the exception with getIOException().
+ *
+ * @see iaik.pkcs.pkcs11.wrapper.PKCS11Trace
+ * @see iaik.pkcs.pkcs11.wrapper.PKCS11Replayer
+ * @version 1.0
+ * @invariants (pkcs11Module_ <> null)
+ *             and (out_ <> null)
+ */
+public class RecordingPKCS11 implements PKCS11 {
+
+	/**
+	 * The buffer of a thread, in which it encodes its records.
+	 *
+	 * @version 1.0
+	 * @invariants (bytes_ <> null)
+	 *             and (out_ <> null)
+	 */
+	protected static class RecordBuffer {
+
+		/**
+		 * The encoded record.
+		 */
+		protected ByteArrayOutputStream bytes_ = new ByteArrayOutputStream(256);
+
+		/**
+		 * The stream to encode the record.
+		 */
+		protected DataOutputStream out_ = new DataOutputStream(bytes_);
+
+	}
+
+	/**
+	 * The decorated module.
+	 */
+	protected PKCS11 pkcs11Module_;
+
+	/**
+	 * The stream for the trace.
+	 */
+	protected DataOutputStream out_;
+
+	/**
+	 * True, if the content of data buffers is recorded.
+	 */
+	protected boolean recordData_;
+
+	/**
+	 * The value of System.nanoTime() at the start of the recording.
+	 */
+	protected long recordingStart_;
+
+	/**
+	 * The RecordBuffer of each thread.
+	 */
+	protected ThreadLocal recordBuffers_ = new ThreadLocal() {
+		protected Object initialValue() {
+			return new RecordBuffer();
+		}
+	};
+
+	/**
+	 * True, if the recording has stopped; because it was closed or writing
+	 * failed.
+	 */
+	protected volatile boolean stopped_;
+
+	/**
+	 * The exception that stopped the recording or null.
+	 */
+	protected volatile IOException ioException_;
+
+	/**
+	 * Create a new decorator that records the calls to the given module
+	 * without the content of data buffers.
+	 *
+	 * @param pkcs11Module The module to record.
+	 * @param traceStream The stream to write the trace to.
+	 * @exception IOException If writing the header of the trace fails.
+	 * @preconditions (pkcs11Module <> null) and (traceStream <> null)
+	 * @postconditions
+	 */
+	public RecordingPKCS11(PKCS11 pkcs11Module, OutputStream traceStream)
+	    throws IOException
+	{
+		this(pkcs11Module, traceStream, false);
+	}
+
+	/**
+	 * Create a new decorator that records the calls to the given module.
+	 *
+	 * @param pkcs11Module The module to record.
+	 * @param traceStream The stream to write the trace to.
+	 * @param recordData True to record the content of data buffers; e.g. the
+	 *                   data to sign. Only use this for test data.
+	 * @exception IOException If writing the header of the trace fails.
+	 * @preconditions (pkcs11Module <> null) and (traceStream <> null)
+	 * @postconditions
+	 */
+	public RecordingPKCS11(PKCS11 pkcs11Module, OutputStream traceStream, boolean recordData)
+	    throws IOException
+	{
+		if (pkcs11Module == null) {
+			throw new NullPointerException("Argument \"pkcs11Module\" must not be null.");
+		}
+		if (traceStream == null) {
+			throw new NullPointerException("Argument \"traceStream\" must not be null.");
+		}
+		pkcs11Module_ = pkcs11Module;
+		out_ = new DataOutputStream(new BufferedOutputStream(traceStream, 65536));
+		recordData_ = recordData;
+		PKCS11Trace.writeHeader(out_, System.currentTimeMillis());
+		recordingStart_ = System.nanoTime();
+	}
+
+	/**
+	 * Get the decorated module.
+	 *
+	 * @return The decorated module.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	public PKCS11 getPKCS11Module() {
+		return pkcs11Module_;
+	}
+
+	/**
+	 * Write the buffered records to the stream.
+	 *
+	 * @exception IOException If writing fails.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public void flush()
+	    throws IOException
+	{
+		synchronized (out_) {
+			out_.flush();
+		}
+	}
+
+	/**
+	 * Stop the recording and close the stream. The calls to the module
+	 * continue to work without being recorded.
+	 *
+	 * @exception IOException If writing or closing the stream fails.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public void close()
+	    throws IOException
+	{
+		synchronized (out_) {
+			if (!stopped_) {
+				stopped_ = true;
+				out_.close();
+			}
+		}
+	}
+
+	/**
+	 * Get the exception that stopped the recording.
+	 *
+	 * @return The exception, or null if writing did not fail.
+	 * @preconditions
+	 * @postconditions
+	 */
+	public IOException getIOException() {
+		return ioException_;
+	}
+
+	/**
+	 * Create a record for a call of the current thread.
+	 *
+	 * @param function The index of the function; e.g. C_SIGN.
+	 * @param hSession The session handle or CK_INVALID_HANDLE.
+	 * @return The new record.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected PKCS11Trace.Record newRecord(int function, long hSession) {
+		PKCS11Trace.Record record = new PKCS11Trace.Record(function);
+		record.threadId_ = Thread.currentThread().getId();
+		record.sessionHandle_ = hSession;
+
+		return record;
+	}
+
+	/**
+	 * Set the single data buffer of a record.
+	 *
+	 * @param record The record.
+	 * @param data The data buffer or null.
+	 * @param content True to record the content of the buffer; false to
+	 *                record its length only.
+	 * @preconditions (record <> null)
+	 * @postconditions
+	 */
+	protected void setData(PKCS11Trace.Record record, byte[] data, boolean content) {
+		record.data_ = new byte[][] { content ? data : null };
+		record.dataLengths_ = new int[] { (data != null) ? data.length : -1 };
+	}
+
+	/**
+	 * Set the data and the signature of a C_Verify record.
+	 *
+	 * @param record The record.
+	 * @param data The data or null.
+	 * @param signature The signature or null.
+	 * @preconditions (record <> null)
+	 * @postconditions
+	 */
+	protected void setData(PKCS11Trace.Record record, byte[] data, byte[] signature) {
+		record.data_ = recordData_ ? new byte[][] { data, signature } : new byte[2][];
+		record.dataLengths_ = new int[] { (data != null) ? data.length : -1,
+		                                  (signature != null) ? signature.length : -1 };
+	}
+
+	/**
+	 * Set the arguments of a C_Initialize record; i.e. if there are
+	 * arguments, their flags, and if the application passed mutex functions.
+	 *
+	 * @param record The record.
+	 * @param pInitArgs The arguments of C_Initialize or null.
+	 * @preconditions (record <> null)
+	 * @postconditions
+	 */
+	protected void setInitArgs(PKCS11Trace.Record record, Object pInitArgs) {
+		if (pInitArgs instanceof CK_C_INITIALIZE_ARGS) {
+			CK_C_INITIALIZE_ARGS initArgs = (CK_C_INITIALIZE_ARGS) pInitArgs;
+			boolean mutexes = initArgs.useNativeMutexes || (initArgs.CreateMutex != null);
+			record.arguments_ = new long[] { 1L, initArgs.flags, mutexes ? 1L : 0L };
+		} else {
+			record.arguments_ = new long[] { 0L, 0L, 0L };
+		}
+	}
+
+	/**
+	 * Complete the given record and append it to the trace.
+	 *
+	 * @param record The record of the call.
+	 * @param startTime The value of System.nanoTime() before the call.
+	 * @preconditions (record <> null)
+	 * @postconditions
+	 */
+	protected void writeRecord(PKCS11Trace.Record record, long startTime) {
+		record.duration_ = System.nanoTime() - startTime;
+		record.startTime_ = startTime - recordingStart_;
+		if (stopped_) {
+			return;
+		}
+		RecordBuffer buffer = (RecordBuffer) recordBuffers_.get();
+		try {
+			buffer.bytes_.reset();
+			PKCS11Trace.writeRecord(buffer.out_, record);
+			synchronized (out_) {
+				if (!stopped_) {
+					buffer.bytes_.writeTo(out_);
+				}
+			}
+		} catch (IOException ex) {
+			ioException_ = ex;
+			stopped_ = true;
+		}
+	}
+
+	/**
+	 * Get the length of the given data.
+	 *
+	 * @param data The data or null.
+	 * @return The length of the data, or -1 if it is null.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected static long length(byte[] data) {
+		return (data != null) ? data.length : -1L;
+	}
+
+	/**
+	 * Calls C_Initialize of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_Initialize(Object, boolean)
+	 */
+	public void C_Initialize(Object pInitArgs, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_INITIALIZE, PKCS11Constants.CK_INVALID_HANDLE);
+		setInitArgs(record, pInitArgs);
+		record.useUtf8_ = useUtf8;
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_Initialize(pInitArgs, useUtf8);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_Finalize of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_Finalize(Object)
+	 */
+	public void C_Finalize(Object pReserved)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_FINALIZE, PKCS11Constants.CK_INVALID_HANDLE);
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_Finalize(pReserved);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_GetInfo of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GetInfo()
+	 */
+	public CK_INFO C_GetInfo()
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_GET_INFO, PKCS11Constants.CK_INVALID_HANDLE);
+		long startTime = System.nanoTime();
+		try {
+			CK_INFO result = pkcs11Module_.C_GetInfo();
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_GetSlotList of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GetSlotList(boolean)
+	 */
+	public long[] C_GetSlotList(boolean tokenPresent)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_GET_SLOT_LIST, PKCS11Constants.CK_INVALID_HANDLE);
+		record.arguments_ = new long[] { tokenPresent ? 1L : 0L };
+		long startTime = System.nanoTime();
+		try {
+			long[] result = pkcs11Module_.C_GetSlotList(tokenPresent);
+			record.results_ = result;
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_GetSlotInfo of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GetSlotInfo(long)
+	 */
+	public CK_SLOT_INFO C_GetSlotInfo(long slotID)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_GET_SLOT_INFO, PKCS11Constants.CK_INVALID_HANDLE);
+		record.slotID_ = slotID;
+		long startTime = System.nanoTime();
+		try {
+			CK_SLOT_INFO result = pkcs11Module_.C_GetSlotInfo(slotID);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_GetTokenInfo of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GetTokenInfo(long)
+	 */
+	public CK_TOKEN_INFO C_GetTokenInfo(long slotID)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_GET_TOKEN_INFO, PKCS11Constants.CK_INVALID_HANDLE);
+		record.slotID_ = slotID;
+		long startTime = System.nanoTime();
+		try {
+			CK_TOKEN_INFO result = pkcs11Module_.C_GetTokenInfo(slotID);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_GetMechanismList of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GetMechanismList(long)
+	 */
+	public long[] C_GetMechanismList(long slotID)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_GET_MECHANISM_LIST, PKCS11Constants.CK_INVALID_HANDLE);
+		record.slotID_ = slotID;
+		long startTime = System.nanoTime();
+		try {
+			long[] result = pkcs11Module_.C_GetMechanismList(slotID);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_GetMechanismInfo of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GetMechanismInfo(long, long)
+	 */
+	public CK_MECHANISM_INFO C_GetMechanismInfo(long slotID, long type)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_GET_MECHANISM_INFO, PKCS11Constants.CK_INVALID_HANDLE);
+		record.slotID_ = slotID;
+		record.arguments_ = new long[] { type };
+		long startTime = System.nanoTime();
+		try {
+			CK_MECHANISM_INFO result = pkcs11Module_.C_GetMechanismInfo(slotID, type);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_InitToken of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_InitToken(long, char[], char[], boolean)
+	 */
+	public void C_InitToken(long slotID, char[] pPin, char[] pLabel, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_INIT_TOKEN, PKCS11Constants.CK_INVALID_HANDLE);
+		record.slotID_ = slotID;
+		record.useUtf8_ = useUtf8;
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_InitToken(slotID, pPin, pLabel, useUtf8);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_InitPIN of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_InitPIN(long, char[], boolean)
+	 */
+	public void C_InitPIN(long hSession, char[] pPin, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_INIT_PIN, hSession);
+		record.useUtf8_ = useUtf8;
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_InitPIN(hSession, pPin, useUtf8);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_SetPIN of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_SetPIN(long, char[], char[], boolean)
+	 */
+	public void C_SetPIN(long hSession, char[] pOldPin, char[] pNewPin, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_SET_PIN, hSession);
+		record.useUtf8_ = useUtf8;
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_SetPIN(hSession, pOldPin, pNewPin, useUtf8);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_OpenSession of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_OpenSession(long, long, Object, CK_NOTIFY)
+	 */
+	public long C_OpenSession(long slotID, long flags, Object pApplication, CK_NOTIFY Notify)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_OPEN_SESSION, PKCS11Constants.CK_INVALID_HANDLE);
+		record.slotID_ = slotID;
+		record.arguments_ = new long[] { flags };
+		long startTime = System.nanoTime();
+		try {
+			long result = pkcs11Module_.C_OpenSession(slotID, flags, pApplication, Notify);
+			record.results_ = new long[] { result };
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_CloseSession of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_CloseSession(long)
+	 */
+	public void C_CloseSession(long hSession)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_CLOSE_SESSION, hSession);
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_CloseSession(hSession);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_CloseAllSessions of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_CloseAllSessions(long)
+	 */
+	public void C_CloseAllSessions(long slotID)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_CLOSE_ALL_SESSIONS, PKCS11Constants.CK_INVALID_HANDLE);
+		record.slotID_ = slotID;
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_CloseAllSessions(slotID);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_GetSessionInfo of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GetSessionInfo(long)
+	 */
+	public CK_SESSION_INFO C_GetSessionInfo(long hSession)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_GET_SESSION_INFO, hSession);
+		long startTime = System.nanoTime();
+		try {
+			CK_SESSION_INFO result = pkcs11Module_.C_GetSessionInfo(hSession);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_GetOperationState of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GetOperationState(long)
+	 */
+	public byte[] C_GetOperationState(long hSession)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_GET_OPERATION_STATE, hSession);
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_GetOperationState(hSession);
+			record.outputLength_ = length(result);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_SetOperationState of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_SetOperationState(long, byte[], long, long)
+	 */
+	public void C_SetOperationState(long hSession, byte[] pOperationState, long hEncryptionKey, long hAuthenticationKey)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_SET_OPERATION_STATE, hSession);
+		record.arguments_ = new long[] { hEncryptionKey, hAuthenticationKey };
+		setData(record, pOperationState, false);
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_SetOperationState(hSession, pOperationState, hEncryptionKey, hAuthenticationKey);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_Login of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_Login(long, long, char[], boolean)
+	 */
+	public void C_Login(long hSession, long userType, char[] pPin, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_LOGIN, hSession);
+		record.arguments_ = new long[] { userType, (pPin != null) ? 1L : 0L };
+		record.useUtf8_ = useUtf8;
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_Login(hSession, userType, pPin, useUtf8);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_Logout of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_Logout(long)
+	 */
+	public void C_Logout(long hSession)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_LOGOUT, hSession);
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_Logout(hSession);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_CreateObject of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_CreateObject(long, CK_ATTRIBUTE[], boolean)
+	 */
+	public long C_CreateObject(long hSession, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_CREATE_OBJECT, hSession);
+		record.templates_ = new CK_ATTRIBUTE[][] { pTemplate };
+		record.useUtf8_ = useUtf8;
+		long startTime = System.nanoTime();
+		try {
+			long result = pkcs11Module_.C_CreateObject(hSession, pTemplate, useUtf8);
+			record.results_ = new long[] { result };
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_CopyObject of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_CopyObject(long, long, CK_ATTRIBUTE[], boolean)
+	 */
+	public long C_CopyObject(long hSession, long hObject, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_COPY_OBJECT, hSession);
+		record.arguments_ = new long[] { hObject };
+		record.templates_ = new CK_ATTRIBUTE[][] { pTemplate };
+		record.useUtf8_ = useUtf8;
+		long startTime = System.nanoTime();
+		try {
+			long result = pkcs11Module_.C_CopyObject(hSession, hObject, pTemplate, useUtf8);
+			record.results_ = new long[] { result };
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_DestroyObject of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DestroyObject(long, long)
+	 */
+	public void C_DestroyObject(long hSession, long hObject)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_DESTROY_OBJECT, hSession);
+		record.arguments_ = new long[] { hObject };
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_DestroyObject(hSession, hObject);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_GetObjectSize of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GetObjectSize(long, long)
+	 */
+	public long C_GetObjectSize(long hSession, long hObject)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_GET_OBJECT_SIZE, hSession);
+		record.arguments_ = new long[] { hObject };
+		long startTime = System.nanoTime();
+		try {
+			long result = pkcs11Module_.C_GetObjectSize(hSession, hObject);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_GetAttributeValue of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GetAttributeValue(long, long, CK_ATTRIBUTE[], boolean)
+	 */
+	public void C_GetAttributeValue(long hSession, long hObject, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_GET_ATTRIBUTE_VALUE, hSession);
+		record.arguments_ = new long[] { hObject };
+		record.templates_ = new CK_ATTRIBUTE[][] { pTemplate };
+		record.typesOnly_ = true;
+		record.useUtf8_ = useUtf8;
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_GetAttributeValue(hSession, hObject, pTemplate, useUtf8);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_SetAttributeValue of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_SetAttributeValue(long, long, CK_ATTRIBUTE[], boolean)
+	 */
+	public void C_SetAttributeValue(long hSession, long hObject, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_SET_ATTRIBUTE_VALUE, hSession);
+		record.arguments_ = new long[] { hObject };
+		record.templates_ = new CK_ATTRIBUTE[][] { pTemplate };
+		record.useUtf8_ = useUtf8;
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_SetAttributeValue(hSession, hObject, pTemplate, useUtf8);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_FindObjectsInit of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_FindObjectsInit(long, CK_ATTRIBUTE[], boolean)
+	 */
+	public void C_FindObjectsInit(long hSession, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_FIND_OBJECTS_INIT, hSession);
+		record.templates_ = new CK_ATTRIBUTE[][] { pTemplate };
+		record.useUtf8_ = useUtf8;
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_FindObjectsInit(hSession, pTemplate, useUtf8);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_FindObjects of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_FindObjects(long, long)
+	 */
+	public long[] C_FindObjects(long hSession, long ulMaxObjectCount)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_FIND_OBJECTS, hSession);
+		record.arguments_ = new long[] { ulMaxObjectCount };
+		long startTime = System.nanoTime();
+		try {
+			long[] result = pkcs11Module_.C_FindObjects(hSession, ulMaxObjectCount);
+			record.results_ = result;
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_FindObjectsFinal of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_FindObjectsFinal(long)
+	 */
+	public void C_FindObjectsFinal(long hSession)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_FIND_OBJECTS_FINAL, hSession);
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_FindObjectsFinal(hSession);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_EncryptInit of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_EncryptInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_EncryptInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_ENCRYPT_INIT, hSession);
+		record.mechanism_ = pMechanism;
+		record.arguments_ = new long[] { hKey };
+		record.useUtf8_ = useUtf8;
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_EncryptInit(hSession, pMechanism, hKey, useUtf8);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_Encrypt of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_Encrypt(long, byte[])
+	 */
+	public byte[] C_Encrypt(long hSession, byte[] pData)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_ENCRYPT, hSession);
+		setData(record, pData, recordData_);
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_Encrypt(hSession, pData);
+			record.outputLength_ = length(result);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_EncryptUpdate of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_EncryptUpdate(long, byte[])
+	 */
+	public byte[] C_EncryptUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_ENCRYPT_UPDATE, hSession);
+		setData(record, pPart, recordData_);
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_EncryptUpdate(hSession, pPart);
+			record.outputLength_ = length(result);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_EncryptFinal of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_EncryptFinal(long)
+	 */
+	public byte[] C_EncryptFinal(long hSession)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_ENCRYPT_FINAL, hSession);
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_EncryptFinal(hSession);
+			record.outputLength_ = length(result);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_DecryptInit of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DecryptInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_DecryptInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_DECRYPT_INIT, hSession);
+		record.mechanism_ = pMechanism;
+		record.arguments_ = new long[] { hKey };
+		record.useUtf8_ = useUtf8;
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_DecryptInit(hSession, pMechanism, hKey, useUtf8);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_Decrypt of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_Decrypt(long, byte[])
+	 */
+	public byte[] C_Decrypt(long hSession, byte[] pEncryptedData)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_DECRYPT, hSession);
+		setData(record, pEncryptedData, recordData_);
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_Decrypt(hSession, pEncryptedData);
+			record.outputLength_ = length(result);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_DecryptUpdate of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DecryptUpdate(long, byte[])
+	 */
+	public byte[] C_DecryptUpdate(long hSession, byte[] pEncryptedPart)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_DECRYPT_UPDATE, hSession);
+		setData(record, pEncryptedPart, recordData_);
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_DecryptUpdate(hSession, pEncryptedPart);
+			record.outputLength_ = length(result);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_DecryptFinal of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DecryptFinal(long)
+	 */
+	public byte[] C_DecryptFinal(long hSession)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_DECRYPT_FINAL, hSession);
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_DecryptFinal(hSession);
+			record.outputLength_ = length(result);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_DigestInit of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DigestInit(long, CK_MECHANISM, boolean)
+	 */
+	public void C_DigestInit(long hSession, CK_MECHANISM pMechanism, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_DIGEST_INIT, hSession);
+		record.mechanism_ = pMechanism;
+		record.useUtf8_ = useUtf8;
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_DigestInit(hSession, pMechanism, useUtf8);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_Digest of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_Digest(long, byte[])
+	 */
+	public byte[] C_Digest(long hSession, byte[] data)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_DIGEST, hSession);
+		setData(record, data, recordData_);
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_Digest(hSession, data);
+			record.outputLength_ = length(result);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_DigestUpdate of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DigestUpdate(long, byte[])
+	 */
+	public void C_DigestUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_DIGEST_UPDATE, hSession);
+		setData(record, pPart, recordData_);
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_DigestUpdate(hSession, pPart);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_DigestKey of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DigestKey(long, long)
+	 */
+	public void C_DigestKey(long hSession, long hKey)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_DIGEST_KEY, hSession);
+		record.arguments_ = new long[] { hKey };
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_DigestKey(hSession, hKey);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_DigestFinal of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DigestFinal(long)
+	 */
+	public byte[] C_DigestFinal(long hSession)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_DIGEST_FINAL, hSession);
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_DigestFinal(hSession);
+			record.outputLength_ = length(result);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_SignInit of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_SignInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_SignInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_SIGN_INIT, hSession);
+		record.mechanism_ = pMechanism;
+		record.arguments_ = new long[] { hKey };
+		record.useUtf8_ = useUtf8;
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_SignInit(hSession, pMechanism, hKey, useUtf8);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_Sign of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_Sign(long, byte[])
+	 */
+	public byte[] C_Sign(long hSession, byte[] pData)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_SIGN, hSession);
+		setData(record, pData, recordData_);
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_Sign(hSession, pData);
+			record.outputLength_ = length(result);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_SignUpdate of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_SignUpdate(long, byte[])
+	 */
+	public void C_SignUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_SIGN_UPDATE, hSession);
+		setData(record, pPart, recordData_);
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_SignUpdate(hSession, pPart);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_SignFinal of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_SignFinal(long)
+	 */
+	public byte[] C_SignFinal(long hSession)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_SIGN_FINAL, hSession);
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_SignFinal(hSession);
+			record.outputLength_ = length(result);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_SignRecoverInit of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_SignRecoverInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_SignRecoverInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_SIGN_RECOVER_INIT, hSession);
+		record.mechanism_ = pMechanism;
+		record.arguments_ = new long[] { hKey };
+		record.useUtf8_ = useUtf8;
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_SignRecoverInit(hSession, pMechanism, hKey, useUtf8);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_SignRecover of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_SignRecover(long, byte[])
+	 */
+	public byte[] C_SignRecover(long hSession, byte[] pData)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_SIGN_RECOVER, hSession);
+		setData(record, pData, recordData_);
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_SignRecover(hSession, pData);
+			record.outputLength_ = length(result);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_VerifyInit of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_VerifyInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_VerifyInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_VERIFY_INIT, hSession);
+		record.mechanism_ = pMechanism;
+		record.arguments_ = new long[] { hKey };
+		record.useUtf8_ = useUtf8;
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_VerifyInit(hSession, pMechanism, hKey, useUtf8);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_Verify of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_Verify(long, byte[], byte[])
+	 */
+	public void C_Verify(long hSession, byte[] pData, byte[] pSignature)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_VERIFY, hSession);
+		setData(record, pData, pSignature);
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_Verify(hSession, pData, pSignature);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_VerifyUpdate of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_VerifyUpdate(long, byte[])
+	 */
+	public void C_VerifyUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_VERIFY_UPDATE, hSession);
+		setData(record, pPart, recordData_);
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_VerifyUpdate(hSession, pPart);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_VerifyFinal of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_VerifyFinal(long, byte[])
+	 */
+	public void C_VerifyFinal(long hSession, byte[] pSignature)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_VERIFY_FINAL, hSession);
+		setData(record, pSignature, recordData_);
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_VerifyFinal(hSession, pSignature);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_VerifyRecoverInit of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_VerifyRecoverInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_VerifyRecoverInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_VERIFY_RECOVER_INIT, hSession);
+		record.mechanism_ = pMechanism;
+		record.arguments_ = new long[] { hKey };
+		record.useUtf8_ = useUtf8;
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_VerifyRecoverInit(hSession, pMechanism, hKey, useUtf8);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_VerifyRecover of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_VerifyRecover(long, byte[])
+	 */
+	public byte[] C_VerifyRecover(long hSession, byte[] pSignature)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_VERIFY_RECOVER, hSession);
+		setData(record, pSignature, recordData_);
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_VerifyRecover(hSession, pSignature);
+			record.outputLength_ = length(result);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_DigestEncryptUpdate of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DigestEncryptUpdate(long, byte[])
+	 */
+	public byte[] C_DigestEncryptUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_DIGEST_ENCRYPT_UPDATE, hSession);
+		setData(record, pPart, recordData_);
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_DigestEncryptUpdate(hSession, pPart);
+			record.outputLength_ = length(result);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_DecryptDigestUpdate of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DecryptDigestUpdate(long, byte[])
+	 */
+	public byte[] C_DecryptDigestUpdate(long hSession, byte[] pEncryptedPart)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_DECRYPT_DIGEST_UPDATE, hSession);
+		setData(record, pEncryptedPart, recordData_);
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_DecryptDigestUpdate(hSession, pEncryptedPart);
+			record.outputLength_ = length(result);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_SignEncryptUpdate of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_SignEncryptUpdate(long, byte[])
+	 */
+	public byte[] C_SignEncryptUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_SIGN_ENCRYPT_UPDATE, hSession);
+		setData(record, pPart, recordData_);
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_SignEncryptUpdate(hSession, pPart);
+			record.outputLength_ = length(result);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_DecryptVerifyUpdate of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DecryptVerifyUpdate(long, byte[])
+	 */
+	public byte[] C_DecryptVerifyUpdate(long hSession, byte[] pEncryptedPart)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_DECRYPT_VERIFY_UPDATE, hSession);
+		setData(record, pEncryptedPart, recordData_);
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_DecryptVerifyUpdate(hSession, pEncryptedPart);
+			record.outputLength_ = length(result);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_GenerateKey of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GenerateKey(long, CK_MECHANISM, CK_ATTRIBUTE[], boolean)
+	 */
+	public long C_GenerateKey(long hSession, CK_MECHANISM pMechanism, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_GENERATE_KEY, hSession);
+		record.mechanism_ = pMechanism;
+		record.templates_ = new CK_ATTRIBUTE[][] { pTemplate };
+		record.useUtf8_ = useUtf8;
+		long startTime = System.nanoTime();
+		try {
+			long result = pkcs11Module_.C_GenerateKey(hSession, pMechanism, pTemplate, useUtf8);
+			record.results_ = new long[] { result };
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_GenerateKeyPair of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GenerateKeyPair(long, CK_MECHANISM, CK_ATTRIBUTE[], CK_ATTRIBUTE[], boolean)
+	 */
+	public long[] C_GenerateKeyPair(long hSession, CK_MECHANISM pMechanism, CK_ATTRIBUTE[] pPublicKeyTemplate, CK_ATTRIBUTE[] pPrivateKeyTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_GENERATE_KEY_PAIR, hSession);
+		record.mechanism_ = pMechanism;
+		record.templates_ = new CK_ATTRIBUTE[][] { pPublicKeyTemplate, pPrivateKeyTemplate };
+		record.useUtf8_ = useUtf8;
+		long startTime = System.nanoTime();
+		try {
+			long[] result = pkcs11Module_.C_GenerateKeyPair(hSession, pMechanism, pPublicKeyTemplate, pPrivateKeyTemplate, useUtf8);
+			record.results_ = result;
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_WrapKey of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_WrapKey(long, CK_MECHANISM, long, long, boolean)
+	 */
+	public byte[] C_WrapKey(long hSession, CK_MECHANISM pMechanism, long hWrappingKey, long hKey, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_WRAP_KEY, hSession);
+		record.mechanism_ = pMechanism;
+		record.arguments_ = new long[] { hWrappingKey, hKey };
+		record.useUtf8_ = useUtf8;
+		long startTime = System.nanoTime();
+		try {
+			byte[] result = pkcs11Module_.C_WrapKey(hSession, pMechanism, hWrappingKey, hKey, useUtf8);
+			record.outputLength_ = length(result);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_UnwrapKey of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_UnwrapKey(long, CK_MECHANISM, long, byte[], CK_ATTRIBUTE[], boolean)
+	 */
+	public long C_UnwrapKey(long hSession, CK_MECHANISM pMechanism, long hUnwrappingKey, byte[] pWrappedKey, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_UNWRAP_KEY, hSession);
+		record.mechanism_ = pMechanism;
+		record.arguments_ = new long[] { hUnwrappingKey };
+		setData(record, pWrappedKey, false);
+		record.templates_ = new CK_ATTRIBUTE[][] { pTemplate };
+		record.useUtf8_ = useUtf8;
+		long startTime = System.nanoTime();
+		try {
+			long result = pkcs11Module_.C_UnwrapKey(hSession, pMechanism, hUnwrappingKey, pWrappedKey, pTemplate, useUtf8);
+			record.results_ = new long[] { result };
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_DeriveKey of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_DeriveKey(long, CK_MECHANISM, long, CK_ATTRIBUTE[], boolean)
+	 */
+	public long C_DeriveKey(long hSession, CK_MECHANISM pMechanism, long hBaseKey, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_DERIVE_KEY, hSession);
+		record.mechanism_ = pMechanism;
+		record.arguments_ = new long[] { hBaseKey };
+		record.templates_ = new CK_ATTRIBUTE[][] { pTemplate };
+		record.useUtf8_ = useUtf8;
+		long startTime = System.nanoTime();
+		try {
+			long result = pkcs11Module_.C_DeriveKey(hSession, pMechanism, hBaseKey, pTemplate, useUtf8);
+			record.results_ = new long[] { result };
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_SeedRandom of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_SeedRandom(long, byte[])
+	 */
+	public void C_SeedRandom(long hSession, byte[] pSeed)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_SEED_RANDOM, hSession);
+		setData(record, pSeed, false);
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_SeedRandom(hSession, pSeed);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_GenerateRandom of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GenerateRandom(long, byte[])
+	 */
+	public void C_GenerateRandom(long hSession, byte[] randomData)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_GENERATE_RANDOM, hSession);
+		setData(record, randomData, false);
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_GenerateRandom(hSession, randomData);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_GetFunctionStatus of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_GetFunctionStatus(long)
+	 */
+	public void C_GetFunctionStatus(long hSession)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_GET_FUNCTION_STATUS, hSession);
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_GetFunctionStatus(hSession);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_CancelFunction of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_CancelFunction(long)
+	 */
+	public void C_CancelFunction(long hSession)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_CANCEL_FUNCTION, hSession);
+		long startTime = System.nanoTime();
+		try {
+			pkcs11Module_.C_CancelFunction(hSession);
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Calls C_WaitForSlotEvent of the underlying module and records the call.
+	 *
+	 * @see PKCS11#C_WaitForSlotEvent(long, Object)
+	 */
+	public long C_WaitForSlotEvent(long flags, Object pReserved)
+	    throws PKCS11Exception
+	{
+		PKCS11Trace.Record record = newRecord(InstrumentingPKCS11.C_WAIT_FOR_SLOT_EVENT, PKCS11Constants.CK_INVALID_HANDLE);
+		record.arguments_ = new long[] { flags };
+		long startTime = System.nanoTime();
+		try {
+			long result = pkcs11Module_.C_WaitForSlotEvent(flags, pReserved);
+			record.results_ = new long[] { result };
+			record.returnValue_ = PKCS11Constants.CKR_OK;
+			return result;
+		} catch (PKCS11Exception ex) {
+			record.returnValue_ = ex.getErrorCode();
+			throw ex;
+		} finally {
+			writeRecord(record, startTime);
+		}
+	}
+
+	/**
+	 * Returns the string representation of this object.
+	 *
+	 * @return the string representation of this object
+	 */
+	public String toString() {
+		return "Recorded " + pkcs11Module_;
+	}
+
+	/**
+	 * Finalizes the decorated module. Once this method is called, this object
+	 * cannot be used any longer. The trace is not closed; the application
+	 * must call close() before.
+	 *
+	 * @exception Throwable If finalization fails.
+	 */
+	public void finalize()
+	    throws Throwable
+	{
+		pkcs11Module_.finalize();
+		super.finalize();
+	}
+
+}
@@ -0,0 +1,2872 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+// 
+// Redistribution and use in source and binary forms, with or without modification,
+// are permitted provided that the following conditions are met:
+// 
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+// 
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+// 
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+// 
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from this
+//    software without prior written permission.
+// 
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+// 
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+package iaik.pkcs.pkcs11.wrapper;
+
+import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPrivateKeySpec;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.security.spec.RSAPrivateCrtKeySpec;
+import java.security.spec.RSAPrivateKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This class implements the PKCS11 interface in pure Java. It keeps the
+ * objects in memory and implements the mechanisms with the software
+ * cryptography of the Java Cryptography Architecture. There is no native
+ * code involved; thus, an application can measure the cost of the Session,
+ * Object and Attribute layers without the JNI layer and the module, and
+ * tests can run many concurrent sessions in-process at full speed.
+ * <pre><code>
+ *   Module module = Module.getInstance(new SoftwarePKCS11(2));
+ *   module.initialize(null);
+ * </code></pre>
+ * The tokens are initialized with the PIN {@link #DEFAULT_PIN} for the user
+ * and the security officer. The token objects live as long as this object;
+ * they survive C_Finalize, but not the garbage collection of this object.
+ * The supported mechanisms are CKM_AES_KEY_GEN, CKM_GENERIC_SECRET_KEY_GEN,
+ * CKM_RSA_PKCS_KEY_PAIR_GEN, CKM_EC_KEY_PAIR_GEN (P-256, P-384 and P-521),
+ * CKM_AES_ECB, CKM_AES_CBC, CKM_AES_CBC_PAD, CKM_RSA_PKCS, CKM_RSA_X_509,
+ * CKM_SHAx_RSA_PKCS, CKM_ECDSA, CKM_ECDSA_SHA1, CKM_xxx_HMAC, CKM_MD5,
+ * CKM_SHA_1 and CKM_SHAx.
+ * <p>
+ * This implementation is for tests and benchmarks only. It does not protect
+ * the keys and enforces no access rules apart from the CKA_SENSITIVE and
+ * CKA_EXTRACTABLE attributes and the usage flags like CKA_SIGN, if they are
+ * set to false explicitly.
+ *
+ * @see iaik.pkcs.pkcs11.Module#getInstance(PKCS11)
+ * @version 1.0
+ * @invariants (tokens_ <> null)
+ *             and (objects_ <> null)
+ *             and (sessions_ <> null)
+ */
+public class SoftwarePKCS11 implements PKCS11 {
+
+	/**
+	 * The PIN of the user and the security officer of a new token.
+	 */
+	public static final String DEFAULT_PIN = "1234";
+
+	/**
+	 * The value of the user type, if nobody is logged in.
+	 */
+	protected static final long NO_USER = -1L;
+
+	/**
+	 * The mechanisms in the order of C_GetMechanismList.
+	 */
+	protected static final long[] MECHANISMS = {
+	    PKCS11Constants.CKM_AES_KEY_GEN, PKCS11Constants.CKM_GENERIC_SECRET_KEY_GEN,
+	    PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN, PKCS11Constants.CKM_EC_KEY_PAIR_GEN,
+	    PKCS11Constants.CKM_AES_ECB, PKCS11Constants.CKM_AES_CBC, PKCS11Constants.CKM_AES_CBC_PAD,
+	    PKCS11Constants.CKM_RSA_PKCS, PKCS11Constants.CKM_RSA_X_509,
+	    PKCS11Constants.CKM_SHA1_RSA_PKCS, PKCS11Constants.CKM_SHA256_RSA_PKCS,
+	    PKCS11Constants.CKM_SHA384_RSA_PKCS, PKCS11Constants.CKM_SHA512_RSA_PKCS,
+	    PKCS11Constants.CKM_ECDSA, PKCS11Constants.CKM_ECDSA_SHA1,
+	    PKCS11Constants.CKM_MD5_HMAC, PKCS11Constants.CKM_SHA_1_HMAC, PKCS11Constants.CKM_SHA256_HMAC,
+	    PKCS11Constants.CKM_SHA384_HMAC, PKCS11Constants.CKM_SHA512_HMAC,
+	    PKCS11Constants.CKM_MD5, PKCS11Constants.CKM_SHA_1, PKCS11Constants.CKM_SHA256,
+	    PKCS11Constants.CKM_SHA384, PKCS11Constants.CKM_SHA512 };
+
+	/**
+	 * Maps the mechanisms (Long) to their CK_MECHANISM_INFO.
+	 */
+	protected static Hashtable mechanismInfos_;
+
+	/**
+	 * Maps the encryption mechanisms (Long) to the JCA cipher (String).
+	 */
+	protected static Hashtable cipherAlgorithms_;
+
+	/**
+	 * Maps the signature mechanisms (Long) to the JCA signature (String).
+	 */
+	protected static Hashtable signatureAlgorithms_;
+
+	/**
+	 * Maps the MAC mechanisms (Long) to the JCA MAC (String).
+	 */
+	protected static Hashtable macAlgorithms_;
+
+	/**
+	 * Maps the digest mechanisms (Long) to the JCA message digest (String).
+	 */
+	protected static Hashtable digestAlgorithms_;
+
+	/**
+	 * The DER encoded object identifiers of the supported named curves; the
+	 * values of CKA_EC_PARAMS.
+	 */
+	protected static final byte[][] CURVE_OIDS = {
+	    { 0x06, 0x08, 0x2A, (byte) 0x86, 0x48, (byte) 0xCE, 0x3D, 0x03, 0x01, 0x07 },
+	    { 0x06, 0x05, 0x2B, (byte) 0x81, 0x04, 0x00, 0x22 },
+	    { 0x06, 0x05, 0x2B, (byte) 0x81, 0x04, 0x00, 0x23 } };
+
+	/**
+	 * The JCA names of the curves in CURVE_OIDS.
+	 */
+	protected static final String[] CURVE_NAMES = { "secp256r1", "secp384r1", "secp521r1" };
+
+	/**
+	 * The attributes of private and secret keys, which CKA_SENSITIVE and
+	 * CKA_EXTRACTABLE protect.
+	 */
+	protected static final long[] SENSITIVE_ATTRIBUTES = {
+	    PKCS11Constants.CKA_VALUE, PKCS11Constants.CKA_PRIVATE_EXPONENT,
+	    PKCS11Constants.CKA_PRIME_1, PKCS11Constants.CKA_PRIME_2, PKCS11Constants.CKA_EXPONENT_1,
+	    PKCS11Constants.CKA_EXPONENT_2, PKCS11Constants.CKA_COEFFICIENT };
+
+	static {
+		mechanismInfos_ = new Hashtable();
+		addMechanismInfo(PKCS11Constants.CKM_AES_KEY_GEN, 16, 32, PKCS11Constants.CKF_GENERATE);
+		addMechanismInfo(PKCS11Constants.CKM_GENERIC_SECRET_KEY_GEN, 1, 512, PKCS11Constants.CKF_GENERATE);
+		addMechanismInfo(PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN, 512, 8192,
+		    PKCS11Constants.CKF_GENERATE_KEY_PAIR);
+		addMechanismInfo(PKCS11Constants.CKM_EC_KEY_PAIR_GEN, 256, 521, PKCS11Constants.CKF_GENERATE_KEY_PAIR
+		    | PKCS11Constants.CKF_EC_F_P | PKCS11Constants.CKF_EC_NAMEDCURVE | PKCS11Constants.CKF_EC_UNCOMPRESS);
+
+		cipherAlgorithms_ = new Hashtable();
+		addCipher(PKCS11Constants.CKM_AES_ECB, "AES/ECB/NoPadding", 16, 32);
+		addCipher(PKCS11Constants.CKM_AES_CBC, "AES/CBC/NoPadding", 16, 32);
+		addCipher(PKCS11Constants.CKM_AES_CBC_PAD, "AES/CBC/PKCS5Padding", 16, 32);
+		addCipher(PKCS11Constants.CKM_RSA_X_509, "RSA/ECB/NoPadding", 512, 8192);
+
+		signatureAlgorithms_ = new Hashtable();
+		addSignature(PKCS11Constants.CKM_RSA_PKCS, "NONEwithRSA", 512, 8192);
+		addSignature(PKCS11Constants.CKM_SHA1_RSA_PKCS, "SHA1withRSA", 512, 8192);
+		addSignature(PKCS11Constants.CKM_SHA256_RSA_PKCS, "SHA256withRSA", 512, 8192);
+		addSignature(PKCS11Constants.CKM_SHA384_RSA_PKCS, "SHA384withRSA", 512, 8192);
+		addSignature(PKCS11Constants.CKM_SHA512_RSA_PKCS, "SHA512withRSA", 512, 8192);
+		addSignature(PKCS11Constants.CKM_ECDSA, "NONEwithECDSA", 256, 521);
+		addSignature(PKCS11Constants.CKM_ECDSA_SHA1, "SHA1withECDSA", 256, 521);
+		// CKM_RSA_PKCS can also encrypt
+		cipherAlgorithms_.put(new Long(PKCS11Constants.CKM_RSA_PKCS), "RSA/ECB/PKCS1Padding");
+		((CK_MECHANISM_INFO) mechanismInfos_.get(new Long(PKCS11Constants.CKM_RSA_PKCS))).flags |=
+		    PKCS11Constants.CKF_ENCRYPT | PKCS11Constants.CKF_DECRYPT;
+
+		macAlgorithms_ = new Hashtable();
+		addMac(PKCS11Constants.CKM_MD5_HMAC, "HmacMD5");
+		addMac(PKCS11Constants.CKM_SHA_1_HMAC, "HmacSHA1");
+		addMac(PKCS11Constants.CKM_SHA256_HMAC, "HmacSHA256");
+		addMac(PKCS11Constants.CKM_SHA384_HMAC, "HmacSHA384");
+		addMac(PKCS11Constants.CKM_SHA512_HMAC, "HmacSHA512");
+
+		digestAlgorithms_ = new Hashtable();
+		addDigest(PKCS11Constants.CKM_MD5, "MD5");
+		addDigest(PKCS11Constants.CKM_SHA_1, "SHA-1");
+		addDigest(PKCS11Constants.CKM_SHA256, "SHA-256");
+		addDigest(PKCS11Constants.CKM_SHA384, "SHA-384");
+		addDigest(PKCS11Constants.CKM_SHA512, "SHA-512");
+	}
+
+	/**
+	 * The state of a token.
+	 *
+	 * @version 1.0
+	 * @invariants (label_ <> null)
+	 *             and (userPin_ <> null)
+	 *             and (soPin_ <> null)
+	 */
+	protected static class SoftwareToken {
+
+		/**
+		 * The label of the token.
+		 */
+		protected char[] label_;
+
+		/**
+		 * The PIN of the user.
+		 */
+		protected char[] userPin_;
+
+		/**
+		 * The PIN of the security officer.
+		 */
+		protected char[] soPin_;
+
+		/**
+		 * The user who is logged in; NO_USER if nobody is.
+		 */
+		protected long userType_ = NO_USER;
+
+		/**
+		 * The number of open sessions.
+		 */
+		protected long sessionCount_;
+
+		/**
+		 * The number of open read-write sessions.
+		 */
+		protected long rwSessionCount_;
+
+	}
+
+	/**
+	 * An object with a copy of its attributes. It caches the JCA key of key
+	 * objects.
+	 *
+	 * @version 1.0
+	 * @invariants (attributes_ <> null)
+	 */
+	protected static class SoftwareObject {
+
+		/**
+		 * The slot of the token that holds this object.
+		 */
+		protected long slotID_;
+
+		/**
+		 * The session that created a session object; CK_INVALID_HANDLE for token
+		 * objects.
+		 */
+		protected long sessionHandle_;
+
+		/**
+		 * Maps the attribute types (Long) to CK_ATTRIBUTE objects.
+		 */
+		protected Hashtable attributes_ = new Hashtable();
+
+		/**
+		 * The JCA key for this key object; null if not created yet.
+		 */
+		protected java.security.Key key_;
+
+		/**
+		 * Get a copy of an attribute.
+		 *
+		 * @param type The attribute type.
+		 * @return A copy of the attribute or null, if this object does not have
+		 *         this attribute.
+		 * @preconditions
+		 * @postconditions
+		 */
+		protected CK_ATTRIBUTE getAttribute(long type) {
+			CK_ATTRIBUTE attribute = (CK_ATTRIBUTE) attributes_.get(new Long(type));
+
+			return (attribute != null) ? (CK_ATTRIBUTE) attribute.clone() : null;
+		}
+
+		/**
+		 * Get the value of an attribute without copying it. The caller must not
+		 * modify the value.
+		 *
+		 * @param type The attribute type.
+		 * @return The value or null, if this object does not have this attribute.
+		 * @preconditions
+		 * @postconditions
+		 */
+		protected Object getValue(long type) {
+			CK_ATTRIBUTE attribute = (CK_ATTRIBUTE) attributes_.get(new Long(type));
+
+			return (attribute != null) ? attribute.pValue : null;
+		}
+
+		/**
+		 * Set a copy of the given attribute.
+		 *
+		 * @param attribute The attribute.
+		 * @preconditions (attribute <> null)
+		 * @postconditions
+		 */
+		protected synchronized void setAttribute(CK_ATTRIBUTE attribute) {
+			attributes_.put(new Long(attribute.type), attribute.clone());
+			key_ = null;
+		}
+
+		/**
+		 * Set an attribute to the given value without copying it.
+		 *
+		 * @param type The attribute type.
+		 * @param value The new value.
+		 * @preconditions
+		 * @postconditions
+		 */
+		protected synchronized void setValue(long type, Object value) {
+			CK_ATTRIBUTE attribute = new CK_ATTRIBUTE();
+			attribute.type = type;
+			attribute.pValue = value;
+			attributes_.put(new Long(type), attribute);
+			key_ = null;
+		}
+
+		/**
+		 * Get the value of a CK_ULONG attribute.
+		 *
+		 * @param type The attribute type.
+		 * @param defaultValue The value to return if the attribute is not set.
+		 * @return The value of the attribute or the default value.
+		 * @preconditions
+		 * @postconditions
+		 */
+		protected long getLongValue(long type, long defaultValue) {
+			Object value = getValue(type);
+
+			return (value instanceof Long) ? ((Long) value).longValue() : defaultValue;
+		}
+
+		/**
+		 * Get the value of a CK_BBOOL attribute.
+		 *
+		 * @param type The attribute type.
+		 * @param defaultValue The value to return if the attribute is not set.
+		 * @return The value of the attribute or the default value.
+		 * @preconditions
+		 * @postconditions
+		 */
+		protected boolean getBooleanValue(long type, boolean defaultValue) {
+			Object value = getValue(type);
+
+			return (value instanceof Boolean) ? ((Boolean) value).booleanValue() : defaultValue;
+		}
+
+		/**
+		 * Check, if this object has all the attributes of the template with
+		 * equal values.
+		 *
+		 * @param template The attributes to compare.
+		 * @return True, if all attributes match.
+		 * @preconditions
+		 * @postconditions
+		 */
+		protected boolean matches(CK_ATTRIBUTE[] template) {
+			if (template == null) {
+				return true;
+			}
+			for (int i = 0; i < template.length; i++) {
+				if (!valueEquals(getValue(template[i].type), template[i].pValue)) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+	}
+
+	/**
+	 * The state of a session; i.e. its operations.
+	 *
+	 * @version 1.0
+	 * @invariants (objectHandles_ <> null)
+	 */
+	protected static class SoftwareSession {
+
+		/**
+		 * The slot of this session.
+		 */
+		protected long slotID_;
+
+		/**
+		 * The flags of C_OpenSession.
+		 */
+		protected long flags_;
+
+		/**
+		 * The handles (Long) of the session objects of this session.
+		 */
+		protected Vector objectHandles_ = new Vector();
+
+		/**
+		 * The cipher of the active encryption; null if none is active.
+		 */
+		protected Cipher encryptCipher_;
+
+		/**
+		 * The cipher of the active decryption; null if none is active.
+		 */
+		protected Cipher decryptCipher_;
+
+		/**
+		 * The active digest operation; null if none is active.
+		 */
+		protected MessageDigest digest_;
+
+		/**
+		 * The active sign operation; null if none is active.
+		 */
+		protected SignatureOperation signOperation_;
+
+		/**
+		 * The active verify operation; null if none is active.
+		 */
+		protected SignatureOperation verifyOperation_;
+
+		/**
+		 * The handles of the objects the active search found; null if no search
+		 * is active.
+		 */
+		protected long[] foundObjects_;
+
+		/**
+		 * The number of found objects that C_FindObjects returned so far.
+		 */
+		protected int foundPosition_;
+
+	}
+
+	/**
+	 * A signature or MAC operation. It converts ECDSA signatures between the
+	 * PKCS#11 format, which is the concatenation of r and s, and the DER
+	 * format of JCA.
+	 *
+	 * @version 1.0
+	 * @invariants (signature_ <> null) or (mac_ <> null)
+	 */
+	protected static class SignatureOperation {
+
+		/**
+		 * The signature; null for MAC operations.
+		 */
+		protected Signature signature_;
+
+		/**
+		 * The MAC; null for signature operations.
+		 */
+		protected Mac mac_;
+
+		/**
+		 * The length of r and s of ECDSA signatures in bytes; 0 for other
+		 * mechanisms.
+		 */
+		protected int ecdsaLength_;
+
+		/**
+		 * Process data.
+		 *
+		 * @param data The data.
+		 * @exception SignatureException If processing fails.
+		 * @preconditions (data <> null)
+		 * @postconditions
+		 */
+		protected void update(byte[] data)
+		    throws SignatureException
+		{
+			if (mac_ != null) {
+				mac_.update(data);
+			} else {
+				signature_.update(data);
+			}
+		}
+
+		/**
+		 * Compute the signature or MAC of the processed data.
+		 *
+		 * @return The signature or MAC in PKCS#11 format.
+		 * @exception SignatureException If signing fails.
+		 * @preconditions
+		 * @postconditions (result <> null)
+		 */
+		protected byte[] sign()
+		    throws SignatureException
+		{
+			if (mac_ != null) {
+				return mac_.doFinal();
+			}
+			byte[] signature = signature_.sign();
+
+			return (ecdsaLength_ > 0) ? toRawSignature(signature, ecdsaLength_) : signature;
+		}
+
+		/**
+		 * Verify the signature or MAC of the processed data.
+		 *
+		 * @param signature The signature or MAC in PKCS#11 format.
+		 * @exception PKCS11Exception CKR_SIGNATURE_INVALID or
+		 *                            CKR_SIGNATURE_LEN_RANGE, if verification
+		 *                            fails.
+		 * @preconditions (signature <> null)
+		 * @postconditions
+		 */
+		protected void verify(byte[] signature)
+		    throws PKCS11Exception
+		{
+			boolean valid;
+
+			if (mac_ != null) {
+				if (signature.length != mac_.getMacLength()) {
+					throw new PKCS11Exception(PKCS11Constants.CKR_SIGNATURE_LEN_RANGE);
+				}
+				valid = MessageDigest.isEqual(mac_.doFinal(), signature);
+			} else {
+				if (ecdsaLength_ > 0) {
+					if (signature.length != 2 * ecdsaLength_) {
+						throw new PKCS11Exception(PKCS11Constants.CKR_SIGNATURE_LEN_RANGE);
+					}
+					signature = toDerSignature(signature);
+				}
+				try {
+					valid = signature_.verify(signature);
+				} catch (SignatureException ex) {
+					valid = false;
+				}
+			}
+			if (!valid) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_SIGNATURE_INVALID);
+			}
+		}
+
+	}
+
+	/**
+	 * The tokens; one for each slot. The index is the slot ID.
+	 */
+	protected SoftwareToken[] tokens_;
+
+	/**
+	 * Maps the object handles (Long) to the SoftwareObject objects.
+	 */
+	protected ConcurrentHashMap objects_;
+
+	/**
+	 * Maps the session handles (Long) to the SoftwareSession objects.
+	 */
+	protected ConcurrentHashMap sessions_;
+
+	/**
+	 * The last handle assigned to an object or a session.
+	 */
+	protected AtomicLong lastHandle_;
+
+	/**
+	 * The random generator for the keys and C_GenerateRandom.
+	 */
+	protected SecureRandom random_;
+
+	/**
+	 * True, between C_Initialize and C_Finalize.
+	 */
+	protected volatile boolean initialized_;
+
+	/**
+	 * Create a new instance with one slot.
+	 *
+	 * @preconditions
+	 * @postconditions
+	 */
+	public SoftwarePKCS11() {
+		this(1);
+	}
+
+	/**
+	 * Create a new instance with the given number of slots. Each slot holds a
+	 * token.
+	 *
+	 * @param numberOfSlots The number of slots.
+	 * @preconditions (numberOfSlots > 0)
+	 * @postconditions
+	 */
+	public SoftwarePKCS11(int numberOfSlots) {
+		if (numberOfSlots <= 0) {
+			throw new IllegalArgumentException("Argument \"numberOfSlots\" must be positive.");
+		}
+		tokens_ = new SoftwareToken[numberOfSlots];
+		for (int i = 0; i < numberOfSlots; i++) {
+			tokens_[i] = new SoftwareToken();
+			tokens_[i].label_ = ("Software Token " + i).toCharArray();
+			tokens_[i].userPin_ = DEFAULT_PIN.toCharArray();
+			tokens_[i].soPin_ = DEFAULT_PIN.toCharArray();
+		}
+		objects_ = new ConcurrentHashMap();
+		sessions_ = new ConcurrentHashMap();
+		lastHandle_ = new AtomicLong();
+		random_ = new SecureRandom();
+	}
+
+	/* *****************************************************************************
+	 * General-purpose
+	 ******************************************************************************/
+
+	/**
+	 * Initializes this implementation. It ignores the mutex functions, because
+	 * it uses Java synchronization.
+	 *
+	 * @see PKCS11#C_Initialize(Object, boolean)
+	 */
+	public synchronized void C_Initialize(Object pInitArgs, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		if (initialized_) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_CRYPTOKI_ALREADY_INITIALIZED);
+		}
+		initialized_ = true;
+	}
+
+	/**
+	 * Closes all sessions and destroys all session objects. The token objects
+	 * remain for the next C_Initialize.
+	 *
+	 * @see PKCS11#C_Finalize(Object)
+	 */
+	public synchronized void C_Finalize(Object pReserved)
+	    throws PKCS11Exception
+	{
+		checkInitialized();
+		if (pReserved != null) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_ARGUMENTS_BAD);
+		}
+		initialized_ = false;
+		for (int i = 0; i < tokens_.length; i++) {
+			closeAllSessions(i);
+		}
+		// wake up threads in C_WaitForSlotEvent
+		notifyAll();
+	}
+
+	/**
+	 * @see PKCS11#C_GetInfo()
+	 */
+	public CK_INFO C_GetInfo()
+	    throws PKCS11Exception
+	{
+		checkInitialized();
+		CK_INFO info = new CK_INFO();
+		info.cryptokiVersion = newVersion(2, 20);
+		info.manufacturerID = pad("IAIK", 32);
+		info.libraryDescription = pad("Software PKCS#11 Module", 32);
+		info.libraryVersion = newVersion(1, 0);
+
+		return info;
+	}
+
+	/* *****************************************************************************
+	 * Slot and token management
+	 ******************************************************************************/
+
+	/**
+	 * @see PKCS11#C_GetSlotList(boolean)
+	 */
+	public long[] C_GetSlotList(boolean tokenPresent)
+	    throws PKCS11Exception
+	{
+		checkInitialized();
+		long[] slotList = new long[tokens_.length];
+		for (int i = 0; i < slotList.length; i++) {
+			slotList[i] = i;
+		}
+
+		return slotList;
+	}
+
+	/**
+	 * @see PKCS11#C_GetSlotInfo(long)
+	 */
+	public CK_SLOT_INFO C_GetSlotInfo(long slotID)
+	    throws PKCS11Exception
+	{
+		getToken(slotID);
+		CK_SLOT_INFO slotInfo = new CK_SLOT_INFO();
+		slotInfo.slotDescription = pad("Software Slot " + slotID, 64);
+		slotInfo.manufacturerID = pad("IAIK", 32);
+		slotInfo.flags = PKCS11Constants.CKF_TOKEN_PRESENT;
+		slotInfo.hardwareVersion = newVersion(1, 0);
+		slotInfo.firmwareVersion = newVersion(1, 0);
+
+		return slotInfo;
+	}
+
+	/**
+	 * @see PKCS11#C_GetTokenInfo(long)
+	 */
+	public CK_TOKEN_INFO C_GetTokenInfo(long slotID)
+	    throws PKCS11Exception
+	{
+		SoftwareToken token = getToken(slotID);
+		CK_TOKEN_INFO tokenInfo = new CK_TOKEN_INFO();
+		synchronized (token) {
+			tokenInfo.label = pad(new String(token.label_), 32);
+			tokenInfo.ulSessionCount = token.sessionCount_;
+			tokenInfo.ulRwSessionCount = token.rwSessionCount_;
+		}
+		tokenInfo.manufacturerID = pad("IAIK", 32);
+		tokenInfo.model = pad("Software", 16);
+		tokenInfo.serialNumber = pad(Long.toString(slotID), 16);
+		tokenInfo.flags = PKCS11Constants.CKF_RNG | PKCS11Constants.CKF_LOGIN_REQUIRED
+		    | PKCS11Constants.CKF_USER_PIN_INITIALIZED | PKCS11Constants.CKF_TOKEN_INITIALIZED;
+		tokenInfo.ulMaxSessionCount = PKCS11Constants.CK_EFFECTIVELY_INFINITE;
+		tokenInfo.ulMaxRwSessionCount = PKCS11Constants.CK_EFFECTIVELY_INFINITE;
+		tokenInfo.ulMaxPinLen = 64;
+		tokenInfo.ulMinPinLen = 1;
+		tokenInfo.ulTotalPublicMemory = PKCS11Constants.CK_UNAVAILABLE_INFORMATION;
+		tokenInfo.ulFreePublicMemory = PKCS11Constants.CK_UNAVAILABLE_INFORMATION;
+		tokenInfo.ulTotalPrivateMemory = PKCS11Constants.CK_UNAVAILABLE_INFORMATION;
+		tokenInfo.ulFreePrivateMemory = PKCS11Constants.CK_UNAVAILABLE_INFORMATION;
+		tokenInfo.hardwareVersion = newVersion(1, 0);
+		tokenInfo.firmwareVersion = newVersion(1, 0);
+		tokenInfo.utcTime = pad("", 16);
+
+		return tokenInfo;
+	}
+
+	/**
+	 * @see PKCS11#C_GetMechanismList(long)
+	 */
+	public long[] C_GetMechanismList(long slotID)
+	    throws PKCS11Exception
+	{
+		getToken(slotID);
+
+		return (long[]) MECHANISMS.clone();
+	}
+
+	/**
+	 * @see PKCS11#C_GetMechanismInfo(long, long)
+	 */
+	public CK_MECHANISM_INFO C_GetMechanismInfo(long slotID, long type)
+	    throws PKCS11Exception
+	{
+		getToken(slotID);
+		CK_MECHANISM_INFO info = (CK_MECHANISM_INFO) mechanismInfos_.get(new Long(type));
+		if (info == null) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_MECHANISM_INVALID);
+		}
+		CK_MECHANISM_INFO copy = new CK_MECHANISM_INFO();
+		copy.ulMinKeySize = info.ulMinKeySize;
+		copy.ulMaxKeySize = info.ulMaxKeySize;
+		copy.flags = info.flags;
+
+		return copy;
+	}
+
+	/**
+	 * Destroys all token objects and sets the label.
+	 *
+	 * @see PKCS11#C_InitToken(long, char[], char[], boolean)
+	 */
+	public void C_InitToken(long slotID, char[] pPin, char[] pLabel, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		SoftwareToken token = getToken(slotID);
+		synchronized (token) {
+			if (token.sessionCount_ > 0) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_SESSION_EXISTS);
+			}
+			if (!Arrays.equals(token.soPin_, pPin)) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_PIN_INCORRECT);
+			}
+			Iterator objectIterator = objects_.values().iterator();
+			while (objectIterator.hasNext()) {
+				SoftwareObject object = (SoftwareObject) objectIterator.next();
+				if (object.slotID_ == slotID) {
+					objectIterator.remove();
+				}
+			}
+			token.label_ = (pLabel != null) ? new String(pLabel).trim().toCharArray() : new char[0];
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_InitPIN(long, char[], boolean)
+	 */
+	public void C_InitPIN(long hSession, char[] pPin, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		SoftwareToken token = getToken(getSession(hSession).slotID_);
+		checkPin(pPin);
+		synchronized (token) {
+			if (token.userType_ != PKCS11Constants.CKU_SO) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_USER_NOT_LOGGED_IN);
+			}
+			token.userPin_ = (char[]) pPin.clone();
+		}
+	}
+
+	/**
+	 * Changes the PIN of the security officer, if the security officer is
+	 * logged in, and the PIN of the user otherwise.
+	 *
+	 * @see PKCS11#C_SetPIN(long, char[], char[], boolean)
+	 */
+	public void C_SetPIN(long hSession, char[] pOldPin, char[] pNewPin, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		SoftwareToken token = getToken(getSession(hSession).slotID_);
+		checkPin(pNewPin);
+		synchronized (token) {
+			if (token.userType_ == PKCS11Constants.CKU_SO) {
+				if (!Arrays.equals(token.soPin_, pOldPin)) {
+					throw new PKCS11Exception(PKCS11Constants.CKR_PIN_INCORRECT);
+				}
+				token.soPin_ = (char[]) pNewPin.clone();
+			} else {
+				if (!Arrays.equals(token.userPin_, pOldPin)) {
+					throw new PKCS11Exception(PKCS11Constants.CKR_PIN_INCORRECT);
+				}
+				token.userPin_ = (char[]) pNewPin.clone();
+			}
+		}
+	}
+
+	/* *****************************************************************************
+	 * Session management
+	 ******************************************************************************/
+
+	/**
+	 * Opens a session. This implementation never calls the notify callback.
+	 *
+	 * @see PKCS11#C_OpenSession(long, long, Object, CK_NOTIFY)
+	 */
+	public long C_OpenSession(long slotID, long flags, Object pApplication, CK_NOTIFY Notify)
+	    throws PKCS11Exception
+	{
+		SoftwareToken token = getToken(slotID);
+		if ((flags & PKCS11Constants.CKF_SERIAL_SESSION) == 0L) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_SESSION_PARALLEL_NOT_SUPPORTED);
+		}
+		boolean rwSession = (flags & PKCS11Constants.CKF_RW_SESSION) != 0L;
+		SoftwareSession session = new SoftwareSession();
+		session.slotID_ = slotID;
+		session.flags_ = flags;
+		long sessionHandle = lastHandle_.incrementAndGet();
+		synchronized (token) {
+			if (!rwSession && token.userType_ == PKCS11Constants.CKU_SO) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_SESSION_READ_WRITE_SO_EXISTS);
+			}
+			token.sessionCount_++;
+			if (rwSession) {
+				token.rwSessionCount_++;
+			}
+			sessions_.put(new Long(sessionHandle), session);
+		}
+
+		return sessionHandle;
+	}
+
+	/**
+	 * @see PKCS11#C_CloseSession(long)
+	 */
+	public void C_CloseSession(long hSession)
+	    throws PKCS11Exception
+	{
+		checkInitialized();
+		if (!closeSession(hSession)) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_SESSION_HANDLE_INVALID);
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_CloseAllSessions(long)
+	 */
+	public void C_CloseAllSessions(long slotID)
+	    throws PKCS11Exception
+	{
+		getToken(slotID);
+		closeAllSessions(slotID);
+	}
+
+	/**
+	 * @see PKCS11#C_GetSessionInfo(long)
+	 */
+	public CK_SESSION_INFO C_GetSessionInfo(long hSession)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		SoftwareToken token = tokens_[(int) session.slotID_];
+		boolean rwSession = (session.flags_ & PKCS11Constants.CKF_RW_SESSION) != 0L;
+		long userType;
+		synchronized (token) {
+			userType = token.userType_;
+		}
+		CK_SESSION_INFO sessionInfo = new CK_SESSION_INFO();
+		sessionInfo.slotID = session.slotID_;
+		sessionInfo.flags = session.flags_;
+		if (userType == PKCS11Constants.CKU_SO) {
+			sessionInfo.state = PKCS11Constants.CKS_RW_SO_FUNCTIONS;
+		} else if (userType == PKCS11Constants.CKU_USER) {
+			sessionInfo.state = rwSession ? PKCS11Constants.CKS_RW_USER_FUNCTIONS
+			    : PKCS11Constants.CKS_RO_USER_FUNCTIONS;
+		} else {
+			sessionInfo.state = rwSession ? PKCS11Constants.CKS_RW_PUBLIC_SESSION
+			    : PKCS11Constants.CKS_RO_PUBLIC_SESSION;
+		}
+
+		return sessionInfo;
+	}
+
+	/**
+	 * Not supported.
+	 *
+	 * @see PKCS11#C_GetOperationState(long)
+	 */
+	public byte[] C_GetOperationState(long hSession)
+	    throws PKCS11Exception
+	{
+		getSession(hSession);
+		throw new PKCS11Exception(PKCS11Constants.CKR_FUNCTION_NOT_SUPPORTED);
+	}
+
+	/**
+	 * Not supported.
+	 *
+	 * @see PKCS11#C_SetOperationState(long, byte[], long, long)
+	 */
+	public void C_SetOperationState(long hSession,
+	                                byte[] pOperationState,
+	                                long hEncryptionKey,
+	                                long hAuthenticationKey)
+	    throws PKCS11Exception
+	{
+		getSession(hSession);
+		throw new PKCS11Exception(PKCS11Constants.CKR_FUNCTION_NOT_SUPPORTED);
+	}
+
+	/**
+	 * @see PKCS11#C_Login(long, long, char[], boolean)
+	 */
+	public void C_Login(long hSession, long userType, char[] pPin, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		SoftwareToken token = getToken(getSession(hSession).slotID_);
+		synchronized (token) {
+			if (userType == PKCS11Constants.CKU_CONTEXT_SPECIFIC) {
+				if (token.userType_ == NO_USER) {
+					throw new PKCS11Exception(PKCS11Constants.CKR_USER_NOT_LOGGED_IN);
+				}
+				if (!Arrays.equals(token.userPin_, pPin)) {
+					throw new PKCS11Exception(PKCS11Constants.CKR_PIN_INCORRECT);
+				}
+				return;
+			}
+			if (userType != PKCS11Constants.CKU_USER && userType != PKCS11Constants.CKU_SO) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_USER_TYPE_INVALID);
+			}
+			if (token.userType_ == userType) {
+				throw PKCS11Exception.getInstance(PKCS11Constants.CKR_USER_ALREADY_LOGGED_IN);
+			}
+			if (token.userType_ != NO_USER) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_USER_ANOTHER_ALREADY_LOGGED_IN);
+			}
+			if (userType == PKCS11Constants.CKU_SO && token.sessionCount_ > token.rwSessionCount_) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_SESSION_READ_ONLY_EXISTS);
+			}
+			char[] expectedPin = (userType == PKCS11Constants.CKU_SO) ? token.soPin_ : token.userPin_;
+			if (!Arrays.equals(expectedPin, pPin)) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_PIN_INCORRECT);
+			}
+			token.userType_ = userType;
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_Logout(long)
+	 */
+	public void C_Logout(long hSession)
+	    throws PKCS11Exception
+	{
+		SoftwareToken token = getToken(getSession(hSession).slotID_);
+		synchronized (token) {
+			if (token.userType_ == NO_USER) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_USER_NOT_LOGGED_IN);
+			}
+			token.userType_ = NO_USER;
+		}
+	}
+
+	/* *****************************************************************************
+	 * Object management
+	 ******************************************************************************/
+
+	/**
+	 * Creates an object with a copy of the template. It does not check the
+	 * consistency of the template, except that it has a class.
+	 *
+	 * @see PKCS11#C_CreateObject(long, CK_ATTRIBUTE[], boolean)
+	 */
+	public long C_CreateObject(long hSession, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		SoftwareObject object = newObject(session, pTemplate);
+		if (object.getValue(PKCS11Constants.CKA_CLASS) == null) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_TEMPLATE_INCOMPLETE);
+		}
+
+		return addObject(session, object);
+	}
+
+	/**
+	 * @see PKCS11#C_CopyObject(long, long, CK_ATTRIBUTE[], boolean)
+	 */
+	public long C_CopyObject(long hSession, long hObject, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		SoftwareObject object = getObject(hObject, PKCS11Constants.CKR_OBJECT_HANDLE_INVALID);
+		SoftwareObject copy;
+		synchronized (object) {
+			copy = newObject(session, (CK_ATTRIBUTE[]) object.attributes_.values().toArray(new CK_ATTRIBUTE[0]));
+		}
+		if (pTemplate != null) {
+			for (int i = 0; i < pTemplate.length; i++) {
+				copy.setAttribute(pTemplate[i]);
+			}
+		}
+		copy.sessionHandle_ = copy.getBooleanValue(PKCS11Constants.CKA_TOKEN, false)
+		    ? PKCS11Constants.CK_INVALID_HANDLE : hSession;
+
+		return addObject(session, copy);
+	}
+
+	/**
+	 * @see PKCS11#C_DestroyObject(long, long)
+	 */
+	public void C_DestroyObject(long hSession, long hObject)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		SoftwareObject object = (SoftwareObject) objects_.remove(new Long(hObject));
+		if (object == null) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_OBJECT_HANDLE_INVALID);
+		}
+		session.objectHandles_.remove(new Long(hObject));
+	}
+
+	/**
+	 * Returns the sum of the lengths of the attribute values as an estimate.
+	 *
+	 * @see PKCS11#C_GetObjectSize(long, long)
+	 */
+	public long C_GetObjectSize(long hSession, long hObject)
+	    throws PKCS11Exception
+	{
+		getSession(hSession);
+		SoftwareObject object = getObject(hObject, PKCS11Constants.CKR_OBJECT_HANDLE_INVALID);
+		long size = 0;
+		synchronized (object) {
+			Enumeration attributeEnumeration = object.attributes_.elements();
+			while (attributeEnumeration.hasMoreElements()) {
+				Object value = ((CK_ATTRIBUTE) attributeEnumeration.nextElement()).pValue;
+				if (value instanceof byte[]) {
+					size += ((byte[]) value).length;
+				} else if (value instanceof char[]) {
+					size += ((char[]) value).length;
+				} else {
+					size += 8;
+				}
+			}
+		}
+
+		return size;
+	}
+
+	/**
+	 * Gets copies of the attribute values. Like a module, it sets the value of
+	 * missing and sensitive attributes to null and throws
+	 * CKR_ATTRIBUTE_TYPE_INVALID or CKR_ATTRIBUTE_SENSITIVE after processing
+	 * all attributes.
+	 *
+	 * @see PKCS11#C_GetAttributeValue(long, long, CK_ATTRIBUTE[], boolean)
+	 */
+	public void C_GetAttributeValue(long hSession, long hObject, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		getSession(hSession);
+		SoftwareObject object = getObject(hObject, PKCS11Constants.CKR_OBJECT_HANDLE_INVALID);
+		if (pTemplate == null) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_ARGUMENTS_BAD);
+		}
+		long errorCode = PKCS11Constants.CKR_OK;
+		synchronized (object) {
+			boolean protectedKey = object.getBooleanValue(PKCS11Constants.CKA_SENSITIVE, false)
+			    || !object.getBooleanValue(PKCS11Constants.CKA_EXTRACTABLE, true);
+			for (int i = 0; i < pTemplate.length; i++) {
+				CK_ATTRIBUTE attribute = object.getAttribute(pTemplate[i].type);
+				if (attribute == null) {
+					pTemplate[i].pValue = null;
+					errorCode = PKCS11Constants.CKR_ATTRIBUTE_TYPE_INVALID;
+				} else if (protectedKey && isSensitiveAttribute(pTemplate[i].type)) {
+					pTemplate[i].pValue = null;
+					if (errorCode == PKCS11Constants.CKR_OK) {
+						errorCode = PKCS11Constants.CKR_ATTRIBUTE_SENSITIVE;
+					}
+				} else {
+					pTemplate[i].pValue = attribute.pValue;
+				}
+			}
+		}
+		if (errorCode != PKCS11Constants.CKR_OK) {
+			throw PKCS11Exception.getInstance(errorCode);
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_SetAttributeValue(long, long, CK_ATTRIBUTE[], boolean)
+	 */
+	public void C_SetAttributeValue(long hSession, long hObject, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		getSession(hSession);
+		SoftwareObject object = getObject(hObject, PKCS11Constants.CKR_OBJECT_HANDLE_INVALID);
+		if (pTemplate == null) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_ARGUMENTS_BAD);
+		}
+		synchronized (object) {
+			if (!object.getBooleanValue(PKCS11Constants.CKA_MODIFIABLE, true)) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_ATTRIBUTE_READ_ONLY);
+			}
+			for (int i = 0; i < pTemplate.length; i++) {
+				object.setAttribute(pTemplate[i]);
+			}
+		}
+	}
+
+	/**
+	 * Searches all objects of the token and keeps the handles of the matching
+	 * objects for C_FindObjects.
+	 *
+	 * @see PKCS11#C_FindObjectsInit(long, CK_ATTRIBUTE[], boolean)
+	 */
+	public void C_FindObjectsInit(long hSession, CK_ATTRIBUTE[] pTemplate, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		synchronized (session) {
+			if (session.foundObjects_ != null) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_OPERATION_ACTIVE);
+			}
+			Vector foundObjects = new Vector();
+			Iterator entryIterator = objects_.entrySet().iterator();
+			while (entryIterator.hasNext()) {
+				java.util.Map.Entry entry = (java.util.Map.Entry) entryIterator.next();
+				SoftwareObject object = (SoftwareObject) entry.getValue();
+				if (object.slotID_ == session.slotID_ && object.matches(pTemplate)) {
+					foundObjects.addElement(entry.getKey());
+				}
+			}
+			long[] foundObjectHandles = new long[foundObjects.size()];
+			for (int i = 0; i < foundObjectHandles.length; i++) {
+				foundObjectHandles[i] = ((Long) foundObjects.elementAt(i)).longValue();
+			}
+			session.foundObjects_ = foundObjectHandles;
+			session.foundPosition_ = 0;
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_FindObjects(long, long)
+	 */
+	public long[] C_FindObjects(long hSession, long ulMaxObjectCount)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		synchronized (session) {
+			if (session.foundObjects_ == null) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_OPERATION_NOT_INITIALIZED);
+			}
+			int count = (int) Math.min(ulMaxObjectCount, session.foundObjects_.length - session.foundPosition_);
+			long[] objectHandles = new long[count];
+			System.arraycopy(session.foundObjects_, session.foundPosition_, objectHandles, 0, count);
+			session.foundPosition_ += count;
+
+			return objectHandles;
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_FindObjectsFinal(long)
+	 */
+	public void C_FindObjectsFinal(long hSession)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		synchronized (session) {
+			if (session.foundObjects_ == null) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_OPERATION_NOT_INITIALIZED);
+			}
+			session.foundObjects_ = null;
+		}
+	}
+
+	/* *****************************************************************************
+	 * Encryption and decryption
+	 ******************************************************************************/
+
+	/**
+	 * @see PKCS11#C_EncryptInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_EncryptInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		synchronized (session) {
+			if (session.encryptCipher_ != null) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_OPERATION_ACTIVE);
+			}
+			session.encryptCipher_ = newCipher(pMechanism, hKey, Cipher.ENCRYPT_MODE);
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_Encrypt(long, byte[])
+	 */
+	public byte[] C_Encrypt(long hSession, byte[] pData)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		synchronized (session) {
+			Cipher cipher = (Cipher) getActiveOperation(session.encryptCipher_);
+			session.encryptCipher_ = null;
+
+			return finishCipher(cipher, pData, PKCS11Constants.CKR_DATA_LEN_RANGE);
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_EncryptUpdate(long, byte[])
+	 */
+	public byte[] C_EncryptUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		synchronized (session) {
+			Cipher cipher = (Cipher) getActiveOperation(session.encryptCipher_);
+			byte[] encryptedPart = cipher.update(checkData(pPart));
+
+			return (encryptedPart != null) ? encryptedPart : new byte[0];
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_EncryptFinal(long)
+	 */
+	public byte[] C_EncryptFinal(long hSession)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		synchronized (session) {
+			Cipher cipher = (Cipher) getActiveOperation(session.encryptCipher_);
+			session.encryptCipher_ = null;
+
+			return finishCipher(cipher, new byte[0], PKCS11Constants.CKR_DATA_LEN_RANGE);
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_DecryptInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_DecryptInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		synchronized (session) {
+			if (session.decryptCipher_ != null) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_OPERATION_ACTIVE);
+			}
+			session.decryptCipher_ = newCipher(pMechanism, hKey, Cipher.DECRYPT_MODE);
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_Decrypt(long, byte[])
+	 */
+	public byte[] C_Decrypt(long hSession, byte[] pEncryptedData)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		synchronized (session) {
+			Cipher cipher = (Cipher) getActiveOperation(session.decryptCipher_);
+			session.decryptCipher_ = null;
+
+			return finishCipher(cipher, pEncryptedData, PKCS11Constants.CKR_ENCRYPTED_DATA_LEN_RANGE);
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_DecryptUpdate(long, byte[])
+	 */
+	public byte[] C_DecryptUpdate(long hSession, byte[] pEncryptedPart)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		synchronized (session) {
+			Cipher cipher = (Cipher) getActiveOperation(session.decryptCipher_);
+			byte[] part = cipher.update(checkData(pEncryptedPart));
+
+			return (part != null) ? part : new byte[0];
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_DecryptFinal(long)
+	 */
+	public byte[] C_DecryptFinal(long hSession)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		synchronized (session) {
+			Cipher cipher = (Cipher) getActiveOperation(session.decryptCipher_);
+			session.decryptCipher_ = null;
+
+			return finishCipher(cipher, new byte[0], PKCS11Constants.CKR_ENCRYPTED_DATA_LEN_RANGE);
+		}
+	}
+
+	/* *****************************************************************************
+	 * Message digesting
+	 ******************************************************************************/
+
+	/**
+	 * @see PKCS11#C_DigestInit(long, CK_MECHANISM, boolean)
+	 */
+	public void C_DigestInit(long hSession, CK_MECHANISM pMechanism, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		if (pMechanism == null) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_ARGUMENTS_BAD);
+		}
+		String algorithm = (String) digestAlgorithms_.get(new Long(pMechanism.mechanism));
+		if (algorithm == null) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_MECHANISM_INVALID);
+		}
+		synchronized (session) {
+			if (session.digest_ != null) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_OPERATION_ACTIVE);
+			}
+			try {
+				session.digest_ = MessageDigest.getInstance(algorithm);
+			} catch (GeneralSecurityException ex) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_MECHANISM_INVALID);
+			}
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_Digest(long, byte[])
+	 */
+	public byte[] C_Digest(long hSession, byte[] data)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		synchronized (session) {
+			MessageDigest digest = (MessageDigest) getActiveOperation(session.digest_);
+			session.digest_ = null;
+
+			return digest.digest(checkData(data));
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_DigestUpdate(long, byte[])
+	 */
+	public void C_DigestUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		synchronized (session) {
+			((MessageDigest) getActiveOperation(session.digest_)).update(checkData(pPart));
+		}
+	}
+
+	/**
+	 * Digests the value of a secret key.
+	 *
+	 * @see PKCS11#C_DigestKey(long, long)
+	 */
+	public void C_DigestKey(long hSession, long hKey)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		SoftwareObject key = getObject(hKey, PKCS11Constants.CKR_KEY_HANDLE_INVALID);
+		Object value = key.getValue(PKCS11Constants.CKA_VALUE);
+		if (key.getLongValue(PKCS11Constants.CKA_CLASS, -1L) != PKCS11Constants.CKO_SECRET_KEY
+		    || !(value instanceof byte[])) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_KEY_INDIGESTIBLE);
+		}
+		synchronized (session) {
+			((MessageDigest) getActiveOperation(session.digest_)).update((byte[]) value);
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_DigestFinal(long)
+	 */
+	public byte[] C_DigestFinal(long hSession)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		synchronized (session) {
+			MessageDigest digest = (MessageDigest) getActiveOperation(session.digest_);
+			session.digest_ = null;
+
+			return digest.digest();
+		}
+	}
+
+	/* *****************************************************************************
+	 * Signing and MACing
+	 ******************************************************************************/
+
+	/**
+	 * @see PKCS11#C_SignInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_SignInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		synchronized (session) {
+			if (session.signOperation_ != null) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_OPERATION_ACTIVE);
+			}
+			session.signOperation_ = newSignatureOperation(pMechanism, hKey, true);
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_Sign(long, byte[])
+	 */
+	public byte[] C_Sign(long hSession, byte[] pData)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		synchronized (session) {
+			SignatureOperation operation = (SignatureOperation) getActiveOperation(session.signOperation_);
+			session.signOperation_ = null;
+			try {
+				operation.update(checkData(pData));
+				return operation.sign();
+			} catch (SignatureException ex) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_DATA_LEN_RANGE);
+			}
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_SignUpdate(long, byte[])
+	 */
+	public void C_SignUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		synchronized (session) {
+			SignatureOperation operation = (SignatureOperation) getActiveOperation(session.signOperation_);
+			try {
+				operation.update(checkData(pPart));
+			} catch (SignatureException ex) {
+				session.signOperation_ = null;
+				throw new PKCS11Exception(PKCS11Constants.CKR_FUNCTION_FAILED);
+			}
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_SignFinal(long)
+	 */
+	public byte[] C_SignFinal(long hSession)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		synchronized (session) {
+			SignatureOperation operation = (SignatureOperation) getActiveOperation(session.signOperation_);
+			session.signOperation_ = null;
+			try {
+				return operation.sign();
+			} catch (SignatureException ex) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_DATA_LEN_RANGE);
+			}
+		}
+	}
+
+	/**
+	 * Not supported.
+	 *
+	 * @see PKCS11#C_SignRecoverInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_SignRecoverInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		getSession(hSession);
+		throw new PKCS11Exception(PKCS11Constants.CKR_MECHANISM_INVALID);
+	}
+
+	/**
+	 * Not supported.
+	 *
+	 * @see PKCS11#C_SignRecover(long, byte[])
+	 */
+	public byte[] C_SignRecover(long hSession, byte[] pData)
+	    throws PKCS11Exception
+	{
+		getSession(hSession);
+		throw new PKCS11Exception(PKCS11Constants.CKR_OPERATION_NOT_INITIALIZED);
+	}
+
+	/* *****************************************************************************
+	 * Verifying signatures and MACs
+	 ******************************************************************************/
+
+	/**
+	 * @see PKCS11#C_VerifyInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_VerifyInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		synchronized (session) {
+			if (session.verifyOperation_ != null) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_OPERATION_ACTIVE);
+			}
+			session.verifyOperation_ = newSignatureOperation(pMechanism, hKey, false);
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_Verify(long, byte[], byte[])
+	 */
+	public void C_Verify(long hSession, byte[] pData, byte[] pSignature)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		synchronized (session) {
+			SignatureOperation operation = (SignatureOperation) getActiveOperation(session.verifyOperation_);
+			session.verifyOperation_ = null;
+			try {
+				operation.update(checkData(pData));
+			} catch (SignatureException ex) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_DATA_LEN_RANGE);
+			}
+			operation.verify(checkData(pSignature));
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_VerifyUpdate(long, byte[])
+	 */
+	public void C_VerifyUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		synchronized (session) {
+			SignatureOperation operation = (SignatureOperation) getActiveOperation(session.verifyOperation_);
+			try {
+				operation.update(checkData(pPart));
+			} catch (SignatureException ex) {
+				session.verifyOperation_ = null;
+				throw new PKCS11Exception(PKCS11Constants.CKR_FUNCTION_FAILED);
+			}
+		}
+	}
+
+	/**
+	 * @see PKCS11#C_VerifyFinal(long, byte[])
+	 */
+	public void C_VerifyFinal(long hSession, byte[] pSignature)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		synchronized (session) {
+			SignatureOperation operation = (SignatureOperation) getActiveOperation(session.verifyOperation_);
+			session.verifyOperation_ = null;
+			operation.verify(checkData(pSignature));
+		}
+	}
+
+	/**
+	 * Not supported.
+	 *
+	 * @see PKCS11#C_VerifyRecoverInit(long, CK_MECHANISM, long, boolean)
+	 */
+	public void C_VerifyRecoverInit(long hSession, CK_MECHANISM pMechanism, long hKey, boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		getSession(hSession);
+		throw new PKCS11Exception(PKCS11Constants.CKR_MECHANISM_INVALID);
+	}
+
+	/**
+	 * Not supported.
+	 *
+	 * @see PKCS11#C_VerifyRecover(long, byte[])
+	 */
+	public byte[] C_VerifyRecover(long hSession, byte[] pSignature)
+	    throws PKCS11Exception
+	{
+		getSession(hSession);
+		throw new PKCS11Exception(PKCS11Constants.CKR_OPERATION_NOT_INITIALIZED);
+	}
+
+	/* *****************************************************************************
+	 * Dual-function cryptographic operations
+	 ******************************************************************************/
+
+	/**
+	 * Not supported.
+	 *
+	 * @see PKCS11#C_DigestEncryptUpdate(long, byte[])
+	 */
+	public byte[] C_DigestEncryptUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		getSession(hSession);
+		throw new PKCS11Exception(PKCS11Constants.CKR_FUNCTION_NOT_SUPPORTED);
+	}
+
+	/**
+	 * Not supported.
+	 *
+	 * @see PKCS11#C_DecryptDigestUpdate(long, byte[])
+	 */
+	public byte[] C_DecryptDigestUpdate(long hSession, byte[] pEncryptedPart)
+	    throws PKCS11Exception
+	{
+		getSession(hSession);
+		throw new PKCS11Exception(PKCS11Constants.CKR_FUNCTION_NOT_SUPPORTED);
+	}
+
+	/**
+	 * Not supported.
+	 *
+	 * @see PKCS11#C_SignEncryptUpdate(long, byte[])
+	 */
+	public byte[] C_SignEncryptUpdate(long hSession, byte[] pPart)
+	    throws PKCS11Exception
+	{
+		getSession(hSession);
+		throw new PKCS11Exception(PKCS11Constants.CKR_FUNCTION_NOT_SUPPORTED);
+	}
+
+	/**
+	 * Not supported.
+	 *
+	 * @see PKCS11#C_DecryptVerifyUpdate(long, byte[])
+	 */
+	public byte[] C_DecryptVerifyUpdate(long hSession, byte[] pEncryptedPart)
+	    throws PKCS11Exception
+	{
+		getSession(hSession);
+		throw new PKCS11Exception(PKCS11Constants.CKR_FUNCTION_NOT_SUPPORTED);
+	}
+
+	/* *****************************************************************************
+	 * Key management
+	 ******************************************************************************/
+
+	/**
+	 * Generates an AES key or a generic secret. The template must contain
+	 * CKA_VALUE_LEN.
+	 *
+	 * @see PKCS11#C_GenerateKey(long, CK_MECHANISM, CK_ATTRIBUTE[], boolean)
+	 */
+	public long C_GenerateKey(long hSession,
+	                          CK_MECHANISM pMechanism,
+	                          CK_ATTRIBUTE[] pTemplate,
+	                          boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		if (pMechanism == null) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_ARGUMENTS_BAD);
+		}
+		long keyType;
+		if (pMechanism.mechanism == PKCS11Constants.CKM_AES_KEY_GEN) {
+			keyType = PKCS11Constants.CKK_AES;
+		} else if (pMechanism.mechanism == PKCS11Constants.CKM_GENERIC_SECRET_KEY_GEN) {
+			keyType = PKCS11Constants.CKK_GENERIC_SECRET;
+		} else {
+			throw new PKCS11Exception(PKCS11Constants.CKR_MECHANISM_INVALID);
+		}
+		SoftwareObject key = newObject(session, pTemplate);
+		long valueLength = key.getLongValue(PKCS11Constants.CKA_VALUE_LEN, -1L);
+		if (valueLength < 0) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_TEMPLATE_INCOMPLETE);
+		}
+		CK_MECHANISM_INFO info = (CK_MECHANISM_INFO) mechanismInfos_.get(new Long(pMechanism.mechanism));
+		if (valueLength < info.ulMinKeySize || valueLength > info.ulMaxKeySize
+		    || (keyType == PKCS11Constants.CKK_AES && valueLength % 8 != 0)) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_KEY_SIZE_RANGE);
+		}
+		byte[] value = new byte[(int) valueLength];
+		random_.nextBytes(value);
+		setKeyAttributes(key, PKCS11Constants.CKO_SECRET_KEY, keyType, pMechanism.mechanism);
+		key.setValue(PKCS11Constants.CKA_VALUE, value);
+
+		return addObject(session, key);
+	}
+
+	/**
+	 * Generates an RSA or EC key pair. The public key template must contain
+	 * CKA_MODULUS_BITS or CKA_EC_PARAMS respectively.
+	 *
+	 * @see PKCS11#C_GenerateKeyPair(long, CK_MECHANISM, CK_ATTRIBUTE[], CK_ATTRIBUTE[], boolean)
+	 */
+	public long[] C_GenerateKeyPair(long hSession,
+	                                CK_MECHANISM pMechanism,
+	                                CK_ATTRIBUTE[] pPublicKeyTemplate,
+	                                CK_ATTRIBUTE[] pPrivateKeyTemplate,
+	                                boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		SoftwareSession session = getSession(hSession);
+		if (pMechanism == null) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_ARGUMENTS_BAD);
+		}
+		SoftwareObject publicKey = newObject(session, pPublicKeyTemplate);
+		SoftwareObject privateKey = newObject(session, pPrivateKeyTemplate);
+		java.security.KeyPair keyPair;
+		try {
+			if (pMechanism.mechanism == PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN) {
+				keyPair = generateRSAKeyPair(publicKey, privateKey);
+			} else if (pMechanism.mechanism == PKCS11Constants.CKM_EC_KEY_PAIR_GEN) {
+				keyPair = generateECKeyPair(publicKey, privateKey);
+			} else {
+				throw new PKCS11Exception(PKCS11Constants.CKR_MECHANISM_INVALID);
+			}
+		} catch (InvalidAlgorithmParameterException ex) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_TEMPLATE_INCONSISTENT);
+		} catch (GeneralSecurityException ex) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_FUNCTION_FAILED);
+		}
+		// set the cached keys after the attributes, because setting an attribute clears them
+		publicKey.key_ = keyPair.getPublic();
+		privateKey.key_ = keyPair.getPrivate();
+		long[] keyHandles = new long[2];
+		keyHandles[0] = addObject(session, publicKey);
+		keyHandles[1] = addObject(session, privateKey);
+
+		return keyHandles;
+	}
+
+	/**
+	 * Not supported.
+	 *
+	 * @see PKCS11#C_WrapKey(long, CK_MECHANISM, long, long, boolean)
+	 */
+	public byte[] C_WrapKey(long hSession,
+	                        CK_MECHANISM pMechanism,
+	                        long hWrappingKey,
+	                        long hKey,
+	                        boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		getSession(hSession);
+		throw new PKCS11Exception(PKCS11Constants.CKR_MECHANISM_INVALID);
+	}
+
+	/**
+	 * Not supported.
+	 *
+	 * @see PKCS11#C_UnwrapKey(long, CK_MECHANISM, long, byte[], CK_ATTRIBUTE[], boolean)
+	 */
+	public long C_UnwrapKey(long hSession,
+	                        CK_MECHANISM pMechanism,
+	                        long hUnwrappingKey,
+	                        byte[] pWrappedKey,
+	                        CK_ATTRIBUTE[] pTemplate,
+	                        boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		getSession(hSession);
+		throw new PKCS11Exception(PKCS11Constants.CKR_MECHANISM_INVALID);
+	}
+
+	/**
+	 * Not supported.
+	 *
+	 * @see PKCS11#C_DeriveKey(long, CK_MECHANISM, long, CK_ATTRIBUTE[], boolean)
+	 */
+	public long C_DeriveKey(long hSession,
+	                        CK_MECHANISM pMechanism,
+	                        long hBaseKey,
+	                        CK_ATTRIBUTE[] pTemplate,
+	                        boolean useUtf8)
+	    throws PKCS11Exception
+	{
+		getSession(hSession);
+		throw new PKCS11Exception(PKCS11Constants.CKR_MECHANISM_INVALID);
+	}
+
+	/* *****************************************************************************
+	 * Random number generation
+	 ******************************************************************************/
+
+	/**
+	 * @see PKCS11#C_SeedRandom(long, byte[])
+	 */
+	public void C_SeedRandom(long hSession, byte[] pSeed)
+	    throws PKCS11Exception
+	{
+		getSession(hSession);
+		random_.setSeed(checkData(pSeed));
+	}
+
+	/**
+	 * @see PKCS11#C_GenerateRandom(long, byte[])
+	 */
+	public void C_GenerateRandom(long hSession, byte[] randomData)
+	    throws PKCS11Exception
+	{
+		getSession(hSession);
+		random_.nextBytes(checkData(randomData));
+	}
+
+	/* *****************************************************************************
+	 * Parallel function management
+	 ******************************************************************************/
+
+	/**
+	 * @see PKCS11#C_GetFunctionStatus(long)
+	 */
+	public void C_GetFunctionStatus(long hSession)
+	    throws PKCS11Exception
+	{
+		getSession(hSession);
+		throw new PKCS11Exception(PKCS11Constants.CKR_FUNCTION_NOT_PARALLEL);
+	}
+
+	/**
+	 * @see PKCS11#C_CancelFunction(long)
+	 */
+	public void C_CancelFunction(long hSession)
+	    throws PKCS11Exception
+	{
+		getSession(hSession);
+		throw new PKCS11Exception(PKCS11Constants.CKR_FUNCTION_NOT_PARALLEL);
+	}
+
+	/* *****************************************************************************
+	 * Functions added in for Cryptoki Version 2.01 or later
+	 ******************************************************************************/
+
+	/**
+	 * The tokens are never removed; thus, there are no slot events. A blocking
+	 * call returns with CKR_CRYPTOKI_NOT_INITIALIZED when the application calls
+	 * C_Finalize.
+	 *
+	 * @see PKCS11#C_WaitForSlotEvent(long, Object)
+	 */
+	public long C_WaitForSlotEvent(long flags, Object pReserved)
+	    throws PKCS11Exception
+	{
+		checkInitialized();
+		if ((flags & PKCS11Constants.CKF_DONT_BLOCK) != 0L) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_NO_EVENT);
+		}
+		synchronized (this) {
+			while (initialized_) {
+				try {
+					wait();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new PKCS11Exception(PKCS11Constants.CKR_FUNCTION_CANCELED);
+				}
+			}
+		}
+		throw new PKCS11Exception(PKCS11Constants.CKR_CRYPTOKI_NOT_INITIALIZED);
+	}
+
+	/**
+	 * There are no resources to free.
+	 *
+	 * @exception Throwable If finalization fails.
+	 */
+	public void finalize()
+	    throws Throwable
+	{
+		super.finalize();
+	}
+
+	/* *****************************************************************************
+	 * Helper methods
+	 ******************************************************************************/
+
+	/**
+	 * Check, if C_Initialize has been called.
+	 *
+	 * @exception PKCS11Exception CKR_CRYPTOKI_NOT_INITIALIZED, if not.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected void checkInitialized()
+	    throws PKCS11Exception
+	{
+		if (!initialized_) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_CRYPTOKI_NOT_INITIALIZED);
+		}
+	}
+
+	/**
+	 * Get the token of a slot.
+	 *
+	 * @param slotID The ID of the slot.
+	 * @return The token.
+	 * @exception PKCS11Exception CKR_SLOT_ID_INVALID, if there is no such slot.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected SoftwareToken getToken(long slotID)
+	    throws PKCS11Exception
+	{
+		checkInitialized();
+		if (slotID < 0 || slotID >= tokens_.length) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_SLOT_ID_INVALID);
+		}
+
+		return tokens_[(int) slotID];
+	}
+
+	/**
+	 * Get an open session.
+	 *
+	 * @param hSession The handle of the session.
+	 * @return The session.
+	 * @exception PKCS11Exception CKR_SESSION_HANDLE_INVALID, if there is no such
+	 *                            session.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected SoftwareSession getSession(long hSession)
+	    throws PKCS11Exception
+	{
+		checkInitialized();
+		SoftwareSession session = (SoftwareSession) sessions_.get(new Long(hSession));
+		if (session == null) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_SESSION_HANDLE_INVALID);
+		}
+
+		return session;
+	}
+
+	/**
+	 * Get an object.
+	 *
+	 * @param hObject The handle of the object.
+	 * @param errorCode The error code, if there is no such object; e.g.
+	 *                  CKR_KEY_HANDLE_INVALID.
+	 * @return The object.
+	 * @exception PKCS11Exception With the given error code, if there is no such
+	 *                            object.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected SoftwareObject getObject(long hObject, long errorCode)
+	    throws PKCS11Exception
+	{
+		SoftwareObject object = (SoftwareObject) objects_.get(new Long(hObject));
+		if (object == null) {
+			throw new PKCS11Exception(errorCode);
+		}
+
+		return object;
+	}
+
+	/**
+	 * Get the operation state, if the operation is active.
+	 *
+	 * @param operation The operation state from the session.
+	 * @return The operation state.
+	 * @exception PKCS11Exception CKR_OPERATION_NOT_INITIALIZED, if the operation
+	 *                            is null.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected static Object getActiveOperation(Object operation)
+	    throws PKCS11Exception
+	{
+		if (operation == null) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_OPERATION_NOT_INITIALIZED);
+		}
+
+		return operation;
+	}
+
+	/**
+	 * Check, if the data is not null.
+	 *
+	 * @param data The data.
+	 * @return The data.
+	 * @exception PKCS11Exception CKR_ARGUMENTS_BAD, if data is null.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected static byte[] checkData(byte[] data)
+	    throws PKCS11Exception
+	{
+		if (data == null) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_ARGUMENTS_BAD);
+		}
+
+		return data;
+	}
+
+	/**
+	 * Check the length of a PIN.
+	 *
+	 * @param pin The PIN.
+	 * @exception PKCS11Exception CKR_PIN_LEN_RANGE, if the PIN is null, empty or
+	 *                            too long.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected static void checkPin(char[] pin)
+	    throws PKCS11Exception
+	{
+		if (pin == null || pin.length == 0 || pin.length > 64) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_PIN_LEN_RANGE);
+		}
+	}
+
+	/**
+	 * Create a new object with copies of the template attributes. It is a token
+	 * object, if the template sets CKA_TOKEN to true.
+	 *
+	 * @param session The session that creates the object.
+	 * @param template The attributes of the new object.
+	 * @return The new object.
+	 * @exception PKCS11Exception CKR_ARGUMENTS_BAD, if the template contains null.
+	 * @preconditions (session <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected SoftwareObject newObject(SoftwareSession session, CK_ATTRIBUTE[] template)
+	    throws PKCS11Exception
+	{
+		SoftwareObject object = new SoftwareObject();
+		object.slotID_ = session.slotID_;
+		if (template != null) {
+			for (int i = 0; i < template.length; i++) {
+				if (template[i] == null) {
+					throw new PKCS11Exception(PKCS11Constants.CKR_ARGUMENTS_BAD);
+				}
+				object.setAttribute(template[i]);
+			}
+		}
+
+		return object;
+	}
+
+	/**
+	 * Add a new object and assign its handle. Session objects belong to the
+	 * given session.
+	 *
+	 * @param session The session that created the object.
+	 * @param object The new object.
+	 * @return The handle of the object.
+	 * @preconditions (session <> null)
+	 *                and (object <> null)
+	 * @postconditions
+	 */
+	protected long addObject(SoftwareSession session, SoftwareObject object) {
+		long objectHandle = lastHandle_.incrementAndGet();
+		Long objectHandleObject = new Long(objectHandle);
+		if (object.getBooleanValue(PKCS11Constants.CKA_TOKEN, false)) {
+			object.sessionHandle_ = PKCS11Constants.CK_INVALID_HANDLE;
+		} else {
+			object.sessionHandle_ = objectHandle;
+			session.objectHandles_.addElement(objectHandleObject);
+		}
+		objects_.put(objectHandleObject, object);
+
+		return objectHandle;
+	}
+
+	/**
+	 * Close a session and destroy its session objects.
+	 *
+	 * @param hSession The handle of the session.
+	 * @return False, if there is no such session.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected boolean closeSession(long hSession) {
+		SoftwareSession session = (SoftwareSession) sessions_.remove(new Long(hSession));
+		if (session == null) {
+			return false;
+		}
+		synchronized (session.objectHandles_) {
+			for (int i = 0; i < session.objectHandles_.size(); i++) {
+				objects_.remove(session.objectHandles_.elementAt(i));
+			}
+		}
+		SoftwareToken token = tokens_[(int) session.slotID_];
+		synchronized (token) {
+			token.sessionCount_--;
+			if ((session.flags_ & PKCS11Constants.CKF_RW_SESSION) != 0L) {
+				token.rwSessionCount_--;
+			}
+			if (token.sessionCount_ == 0) {
+				token.userType_ = NO_USER;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Close all sessions of a slot.
+	 *
+	 * @param slotID The ID of the slot.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected void closeAllSessions(long slotID) {
+		Iterator entryIterator = sessions_.entrySet().iterator();
+		while (entryIterator.hasNext()) {
+			java.util.Map.Entry entry = (java.util.Map.Entry) entryIterator.next();
+			if (((SoftwareSession) entry.getValue()).slotID_ == slotID) {
+				closeSession(((Long) entry.getKey()).longValue());
+			}
+		}
+	}
+
+	/**
+	 * Set the class, the key type and the attributes of generated keys.
+	 *
+	 * @param key The generated key.
+	 * @param objectClass The object class.
+	 * @param keyType The key type.
+	 * @param mechanism The mechanism that generated the key.
+	 * @preconditions (key <> null)
+	 * @postconditions
+	 */
+	protected static void setKeyAttributes(SoftwareObject key, long objectClass, long keyType, long mechanism) {
+		key.setValue(PKCS11Constants.CKA_CLASS, new Long(objectClass));
+		key.setValue(PKCS11Constants.CKA_KEY_TYPE, new Long(keyType));
+		key.setValue(PKCS11Constants.CKA_LOCAL, Boolean.TRUE);
+		key.setValue(PKCS11Constants.CKA_KEY_GEN_MECHANISM, new Long(mechanism));
+	}
+
+	/**
+	 * Generate an RSA key pair and set the key attributes.
+	 *
+	 * @param publicKey The public key object with the template attributes.
+	 * @param privateKey The private key object with the template attributes.
+	 * @return The JCA key pair.
+	 * @exception PKCS11Exception If the template is incomplete.
+	 * @exception GeneralSecurityException If generating the keys fails.
+	 * @preconditions (publicKey <> null)
+	 *                and (privateKey <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected java.security.KeyPair generateRSAKeyPair(SoftwareObject publicKey, SoftwareObject privateKey)
+	    throws PKCS11Exception, GeneralSecurityException
+	{
+		long modulusBits = publicKey.getLongValue(PKCS11Constants.CKA_MODULUS_BITS, -1L);
+		if (modulusBits < 0) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_TEMPLATE_INCOMPLETE);
+		}
+		if (modulusBits < 512 || modulusBits > 8192) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_KEY_SIZE_RANGE);
+		}
+		Object publicExponent = publicKey.getValue(PKCS11Constants.CKA_PUBLIC_EXPONENT);
+		BigInteger exponent = (publicExponent instanceof byte[]) ? new BigInteger(1, (byte[]) publicExponent)
+		    : RSAKeyGenParameterSpec.F4;
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(new RSAKeyGenParameterSpec((int) modulusBits, exponent), random_);
+		java.security.KeyPair keyPair = generator.generateKeyPair();
+
+		RSAPublicKey rsaPublicKey = (RSAPublicKey) keyPair.getPublic();
+		RSAPrivateCrtKey rsaPrivateKey = (RSAPrivateCrtKey) keyPair.getPrivate();
+		setKeyAttributes(publicKey, PKCS11Constants.CKO_PUBLIC_KEY, PKCS11Constants.CKK_RSA,
+		    PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN);
+		publicKey.setValue(PKCS11Constants.CKA_MODULUS, toUnsignedBytes(rsaPublicKey.getModulus()));
+		publicKey.setValue(PKCS11Constants.CKA_PUBLIC_EXPONENT,
+		    toUnsignedBytes(rsaPublicKey.getPublicExponent()));
+		setKeyAttributes(privateKey, PKCS11Constants.CKO_PRIVATE_KEY, PKCS11Constants.CKK_RSA,
+		    PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN);
+		privateKey.setValue(PKCS11Constants.CKA_MODULUS, toUnsignedBytes(rsaPrivateKey.getModulus()));
+		privateKey.setValue(PKCS11Constants.CKA_PUBLIC_EXPONENT,
+		    toUnsignedBytes(rsaPrivateKey.getPublicExponent()));
+		privateKey.setValue(PKCS11Constants.CKA_PRIVATE_EXPONENT,
+		    toUnsignedBytes(rsaPrivateKey.getPrivateExponent()));
+		privateKey.setValue(PKCS11Constants.CKA_PRIME_1, toUnsignedBytes(rsaPrivateKey.getPrimeP()));
+		privateKey.setValue(PKCS11Constants.CKA_PRIME_2, toUnsignedBytes(rsaPrivateKey.getPrimeQ()));
+		privateKey.setValue(PKCS11Constants.CKA_EXPONENT_1, toUnsignedBytes(rsaPrivateKey.getPrimeExponentP()));
+		privateKey.setValue(PKCS11Constants.CKA_EXPONENT_2, toUnsignedBytes(rsaPrivateKey.getPrimeExponentQ()));
+		privateKey.setValue(PKCS11Constants.CKA_COEFFICIENT, toUnsignedBytes(rsaPrivateKey.getCrtCoefficient()));
+
+		return keyPair;
+	}
+
+	/**
+	 * Generate an EC key pair and set the key attributes.
+	 *
+	 * @param publicKey The public key object with the template attributes.
+	 * @param privateKey The private key object with the template attributes.
+	 * @return The JCA key pair.
+	 * @exception PKCS11Exception If the template is incomplete or the curve is
+	 *                            not supported.
+	 * @exception GeneralSecurityException If generating the keys fails.
+	 * @preconditions (publicKey <> null)
+	 *                and (privateKey <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected java.security.KeyPair generateECKeyPair(SoftwareObject publicKey, SoftwareObject privateKey)
+	    throws PKCS11Exception, GeneralSecurityException
+	{
+		Object ecParams = publicKey.getValue(PKCS11Constants.CKA_EC_PARAMS);
+		if (!(ecParams instanceof byte[])) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_TEMPLATE_INCOMPLETE);
+		}
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+		generator.initialize(new ECGenParameterSpec(getCurveName((byte[]) ecParams)), random_);
+		java.security.KeyPair keyPair = generator.generateKeyPair();
+
+		ECPublicKey ecPublicKey = (ECPublicKey) keyPair.getPublic();
+		ECPrivateKey ecPrivateKey = (ECPrivateKey) keyPair.getPrivate();
+		setKeyAttributes(publicKey, PKCS11Constants.CKO_PUBLIC_KEY, PKCS11Constants.CKK_EC,
+		    PKCS11Constants.CKM_EC_KEY_PAIR_GEN);
+		publicKey.setValue(PKCS11Constants.CKA_EC_POINT, encodePoint(ecPublicKey.getW(), ecPublicKey.getParams()));
+		setKeyAttributes(privateKey, PKCS11Constants.CKO_PRIVATE_KEY, PKCS11Constants.CKK_EC,
+		    PKCS11Constants.CKM_EC_KEY_PAIR_GEN);
+		privateKey.setValue(PKCS11Constants.CKA_EC_PARAMS, ((byte[]) ecParams).clone());
+		privateKey.setValue(PKCS11Constants.CKA_VALUE, toUnsignedBytes(ecPrivateKey.getS()));
+
+		return keyPair;
+	}
+
+	/**
+	 * Get the JCA key of a key object. It creates the JCA key from the
+	 * attributes on first use.
+	 *
+	 * @param hKey The handle of the key object.
+	 * @param usage The attribute that must not be false; e.g. CKA_SIGN.
+	 * @return The JCA key.
+	 * @exception PKCS11Exception If the object is no key, the key must not be
+	 *                            used this way or its attributes are
+	 *                            incomplete.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected java.security.Key getJcaKey(long hKey, long usage)
+	    throws PKCS11Exception
+	{
+		SoftwareObject key = getObject(hKey, PKCS11Constants.CKR_KEY_HANDLE_INVALID);
+		synchronized (key) {
+			if (!key.getBooleanValue(usage, true)) {
+				throw new PKCS11Exception(PKCS11Constants.CKR_KEY_FUNCTION_NOT_PERMITTED);
+			}
+			if (key.key_ == null) {
+				try {
+					key.key_ = createJcaKey(key);
+				} catch (GeneralSecurityException ex) {
+					throw new PKCS11Exception(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+				}
+			}
+
+			return key.key_;
+		}
+	}
+
+	/**
+	 * Create the JCA key from the attributes of a key object.
+	 *
+	 * @param key The key object.
+	 * @return The JCA key.
+	 * @exception PKCS11Exception If the object is no supported key or its
+	 *                            attributes are incomplete.
+	 * @exception GeneralSecurityException If creating the key fails.
+	 * @preconditions (key <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected static java.security.Key createJcaKey(SoftwareObject key)
+	    throws PKCS11Exception, GeneralSecurityException
+	{
+		long objectClass = key.getLongValue(PKCS11Constants.CKA_CLASS, -1L);
+		long keyType = key.getLongValue(PKCS11Constants.CKA_KEY_TYPE, -1L);
+		if (objectClass == PKCS11Constants.CKO_SECRET_KEY) {
+			return new SecretKeySpec(getBytes(key, PKCS11Constants.CKA_VALUE),
+			    (keyType == PKCS11Constants.CKK_AES) ? "AES" : "GenericSecret");
+		} else if (keyType == PKCS11Constants.CKK_RSA) {
+			KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+			BigInteger modulus = getBigInteger(key, PKCS11Constants.CKA_MODULUS);
+			if (objectClass == PKCS11Constants.CKO_PUBLIC_KEY) {
+				return keyFactory.generatePublic(new RSAPublicKeySpec(modulus,
+				    getBigInteger(key, PKCS11Constants.CKA_PUBLIC_EXPONENT)));
+			} else if (objectClass == PKCS11Constants.CKO_PRIVATE_KEY) {
+				BigInteger privateExponent = getBigInteger(key, PKCS11Constants.CKA_PRIVATE_EXPONENT);
+				if (key.getValue(PKCS11Constants.CKA_COEFFICIENT) != null) {
+					return keyFactory.generatePrivate(new RSAPrivateCrtKeySpec(modulus,
+					    getBigInteger(key, PKCS11Constants.CKA_PUBLIC_EXPONENT), privateExponent,
+					    getBigInteger(key, PKCS11Constants.CKA_PRIME_1),
+					    getBigInteger(key, PKCS11Constants.CKA_PRIME_2),
+					    getBigInteger(key, PKCS11Constants.CKA_EXPONENT_1),
+					    getBigInteger(key, PKCS11Constants.CKA_EXPONENT_2),
+					    getBigInteger(key, PKCS11Constants.CKA_COEFFICIENT)));
+				}
+				return keyFactory.generatePrivate(new RSAPrivateKeySpec(modulus, privateExponent));
+			}
+		} else if (keyType == PKCS11Constants.CKK_EC) {
+			KeyFactory keyFactory = KeyFactory.getInstance("EC");
+			AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+			parameters.init(new ECGenParameterSpec(getCurveName(getBytes(key, PKCS11Constants.CKA_EC_PARAMS))));
+			ECParameterSpec parameterSpec = (ECParameterSpec) parameters.getParameterSpec(ECParameterSpec.class);
+			if (objectClass == PKCS11Constants.CKO_PUBLIC_KEY) {
+				return keyFactory.generatePublic(new ECPublicKeySpec(decodePoint(getBytes(key,
+				    PKCS11Constants.CKA_EC_POINT), parameterSpec), parameterSpec));
+			} else if (objectClass == PKCS11Constants.CKO_PRIVATE_KEY) {
+				return keyFactory.generatePrivate(new ECPrivateKeySpec(getBigInteger(key,
+				    PKCS11Constants.CKA_VALUE), parameterSpec));
+			}
+		}
+		throw new PKCS11Exception(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+	}
+
+	/**
+	 * Create and initialize the cipher of an encryption or decryption.
+	 *
+	 * @param mechanism The mechanism.
+	 * @param hKey The handle of the key.
+	 * @param mode Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE.
+	 * @return The initialized cipher.
+	 * @exception PKCS11Exception If the mechanism, its parameter or the key is
+	 *                            invalid.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected Cipher newCipher(CK_MECHANISM mechanism, long hKey, int mode)
+	    throws PKCS11Exception
+	{
+		if (mechanism == null) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_ARGUMENTS_BAD);
+		}
+		String algorithm = (String) cipherAlgorithms_.get(new Long(mechanism.mechanism));
+		if (algorithm == null) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_MECHANISM_INVALID);
+		}
+		java.security.Key key = getJcaKey(hKey, (mode == Cipher.ENCRYPT_MODE) ? PKCS11Constants.CKA_ENCRYPT
+		    : PKCS11Constants.CKA_DECRYPT);
+		try {
+			Cipher cipher = Cipher.getInstance(algorithm);
+			if (algorithm.indexOf("/CBC/") >= 0) {
+				if (!(mechanism.pParameter instanceof byte[])) {
+					throw new PKCS11Exception(PKCS11Constants.CKR_MECHANISM_PARAM_INVALID);
+				}
+				cipher.init(mode, key, new IvParameterSpec((byte[]) mechanism.pParameter), random_);
+			} else {
+				cipher.init(mode, key, random_);
+			}
+			return cipher;
+		} catch (InvalidKeyException ex) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+		} catch (InvalidAlgorithmParameterException ex) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_MECHANISM_PARAM_INVALID);
+		} catch (GeneralSecurityException ex) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_MECHANISM_INVALID);
+		}
+	}
+
+	/**
+	 * Finish an encryption or decryption.
+	 *
+	 * @param cipher The cipher of the operation.
+	 * @param data The last part of the data.
+	 * @param lengthErrorCode The error code, if the length of the data is
+	 *                        invalid.
+	 * @return The output.
+	 * @exception PKCS11Exception If the length of the data or the padding is
+	 *                            invalid.
+	 * @preconditions (cipher <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected static byte[] finishCipher(Cipher cipher, byte[] data, long lengthErrorCode)
+	    throws PKCS11Exception
+	{
+		try {
+			return cipher.doFinal(checkData(data));
+		} catch (IllegalBlockSizeException ex) {
+			throw new PKCS11Exception(lengthErrorCode);
+		} catch (BadPaddingException ex) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_ENCRYPTED_DATA_INVALID);
+		}
+	}
+
+	/**
+	 * Create and initialize a signature or MAC operation.
+	 *
+	 * @param mechanism The mechanism.
+	 * @param hKey The handle of the key.
+	 * @param sign True for signing, false for verifying.
+	 * @return The initialized operation.
+	 * @exception PKCS11Exception If the mechanism or the key is invalid.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected SignatureOperation newSignatureOperation(CK_MECHANISM mechanism, long hKey, boolean sign)
+	    throws PKCS11Exception
+	{
+		if (mechanism == null) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_ARGUMENTS_BAD);
+		}
+		Long mechanismObject = new Long(mechanism.mechanism);
+		String signatureAlgorithm = (String) signatureAlgorithms_.get(mechanismObject);
+		String macAlgorithm = (String) macAlgorithms_.get(mechanismObject);
+		if (signatureAlgorithm == null && macAlgorithm == null) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_MECHANISM_INVALID);
+		}
+		java.security.Key key = getJcaKey(hKey, sign ? PKCS11Constants.CKA_SIGN : PKCS11Constants.CKA_VERIFY);
+		SignatureOperation operation = new SignatureOperation();
+		try {
+			if (macAlgorithm != null) {
+				if (!(key instanceof SecretKeySpec)) {
+					throw new PKCS11Exception(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+				}
+				operation.mac_ = Mac.getInstance(macAlgorithm);
+				operation.mac_.init(key);
+			} else {
+				operation.signature_ = Signature.getInstance(signatureAlgorithm);
+				if (sign) {
+					operation.signature_.initSign((java.security.PrivateKey) key, random_);
+				} else {
+					operation.signature_.initVerify((java.security.PublicKey) key);
+				}
+				if (key instanceof java.security.interfaces.ECKey) {
+					ECParameterSpec parameters = ((java.security.interfaces.ECKey) key).getParams();
+					operation.ecdsaLength_ = (parameters.getOrder().bitLength() + 7) / 8;
+				}
+			}
+		} catch (ClassCastException ex) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+		} catch (InvalidKeyException ex) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+		} catch (GeneralSecurityException ex) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_MECHANISM_INVALID);
+		}
+
+		return operation;
+	}
+
+	/**
+	 * Get the value of a byte array attribute.
+	 *
+	 * @param object The object.
+	 * @param type The attribute type.
+	 * @return The value.
+	 * @exception PKCS11Exception CKR_KEY_TYPE_INCONSISTENT, if the object does
+	 *                            not have the attribute.
+	 * @preconditions (object <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected static byte[] getBytes(SoftwareObject object, long type)
+	    throws PKCS11Exception
+	{
+		Object value = object.getValue(type);
+		if (!(value instanceof byte[])) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+		}
+
+		return (byte[]) value;
+	}
+
+	/**
+	 * Get the value of a big integer attribute.
+	 *
+	 * @param object The object.
+	 * @param type The attribute type.
+	 * @return The value.
+	 * @exception PKCS11Exception CKR_KEY_TYPE_INCONSISTENT, if the object does
+	 *                            not have the attribute.
+	 * @preconditions (object <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected static BigInteger getBigInteger(SoftwareObject object, long type)
+	    throws PKCS11Exception
+	{
+		return new BigInteger(1, getBytes(object, type));
+	}
+
+	/**
+	 * Get the JCA name of a named curve.
+	 *
+	 * @param ecParams The DER encoded object identifier of the curve; the value
+	 *                 of CKA_EC_PARAMS.
+	 * @return The JCA name of the curve.
+	 * @exception PKCS11Exception CKR_DOMAIN_PARAMS_INVALID, if the curve is not
+	 *                            supported.
+	 * @preconditions (ecParams <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected static String getCurveName(byte[] ecParams)
+	    throws PKCS11Exception
+	{
+		for (int i = 0; i < CURVE_OIDS.length; i++) {
+			if (Arrays.equals(CURVE_OIDS[i], ecParams)) {
+				return CURVE_NAMES[i];
+			}
+		}
+		throw new PKCS11Exception(PKCS11Constants.CKR_DOMAIN_PARAMS_INVALID);
+	}
+
+	/**
+	 * Encode an EC point as DER octet string with the uncompressed point; the
+	 * value of CKA_EC_POINT.
+	 *
+	 * @param point The point.
+	 * @param parameters The parameters of the curve.
+	 * @return The encoded point.
+	 * @preconditions (point <> null)
+	 *                and (parameters <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected static byte[] encodePoint(ECPoint point, ECParameterSpec parameters) {
+		int fieldLength = (parameters.getCurve().getField().getFieldSize() + 7) / 8;
+		int pointLength = 1 + 2 * fieldLength;
+		int headerLength = (pointLength < 128) ? 2 : 3;
+		byte[] encodedPoint = new byte[headerLength + pointLength];
+		encodedPoint[0] = 0x04;
+		if (pointLength < 128) {
+			encodedPoint[1] = (byte) pointLength;
+		} else {
+			encodedPoint[1] = (byte) 0x81;
+			encodedPoint[2] = (byte) pointLength;
+		}
+		encodedPoint[headerLength] = 0x04;
+		copyUnsigned(point.getAffineX(), encodedPoint, headerLength + 1, fieldLength);
+		copyUnsigned(point.getAffineY(), encodedPoint, headerLength + 1 + fieldLength, fieldLength);
+
+		return encodedPoint;
+	}
+
+	/**
+	 * Decode an uncompressed EC point, which may be wrapped in a DER octet
+	 * string.
+	 *
+	 * @param encodedPoint The encoded point.
+	 * @param parameters The parameters of the curve.
+	 * @return The point.
+	 * @exception PKCS11Exception CKR_KEY_TYPE_INCONSISTENT, if the encoding is
+	 *                            not supported.
+	 * @preconditions (encodedPoint <> null)
+	 *                and (parameters <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected static ECPoint decodePoint(byte[] encodedPoint, ECParameterSpec parameters)
+	    throws PKCS11Exception
+	{
+		int fieldLength = (parameters.getCurve().getField().getFieldSize() + 7) / 8;
+		int pointLength = 1 + 2 * fieldLength;
+		int offset = encodedPoint.length - pointLength;
+		if (offset < 0 || encodedPoint[offset] != 0x04) {
+			throw new PKCS11Exception(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+		}
+		byte[] x = new byte[fieldLength];
+		byte[] y = new byte[fieldLength];
+		System.arraycopy(encodedPoint, offset + 1, x, 0, fieldLength);
+		System.arraycopy(encodedPoint, offset + 1 + fieldLength, y, 0, fieldLength);
+
+		return new ECPoint(new BigInteger(1, x), new BigInteger(1, y));
+	}
+
+	/**
+	 * Convert a DER encoded ECDSA signature to the concatenation of r and s.
+	 *
+	 * @param derSignature The DER encoded signature.
+	 * @param length The length of r and s in bytes.
+	 * @return The signature in PKCS#11 format.
+	 * @exception SignatureException If the encoding is invalid.
+	 * @preconditions (derSignature <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected static byte[] toRawSignature(byte[] derSignature, int length)
+	    throws SignatureException
+	{
+		byte[] rawSignature = new byte[2 * length];
+		try {
+			int offset = ((derSignature[1] & 0x80) != 0) ? 3 : 2;
+			int rLength = derSignature[offset + 1];
+			BigInteger r = new BigInteger(1, copyOfRange(derSignature, offset + 2, offset + 2 + rLength));
+			offset += 2 + rLength;
+			int sLength = derSignature[offset + 1];
+			BigInteger s = new BigInteger(1, copyOfRange(derSignature, offset + 2, offset + 2 + sLength));
+			copyUnsigned(r, rawSignature, 0, length);
+			copyUnsigned(s, rawSignature, length, length);
+		} catch (ArrayIndexOutOfBoundsException ex) {
+			throw new SignatureException("Invalid ECDSA signature encoding.");
+		}
+
+		return rawSignature;
+	}
+
+	/**
+	 * Convert an ECDSA signature in PKCS#11 format to DER encoding.
+	 *
+	 * @param rawSignature The concatenation of r and s.
+	 * @return The DER encoded signature.
+	 * @preconditions (rawSignature <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected static byte[] toDerSignature(byte[] rawSignature) {
+		int length = rawSignature.length / 2;
+		byte[] r = new BigInteger(1, copyOfRange(rawSignature, 0, length)).toByteArray();
+		byte[] s = new BigInteger(1, copyOfRange(rawSignature, length, 2 * length)).toByteArray();
+		int contentLength = 4 + r.length + s.length;
+		int headerLength = (contentLength < 128) ? 2 : 3;
+		byte[] derSignature = new byte[headerLength + contentLength];
+		derSignature[0] = 0x30;
+		if (contentLength < 128) {
+			derSignature[1] = (byte) contentLength;
+		} else {
+			derSignature[1] = (byte) 0x81;
+			derSignature[2] = (byte) contentLength;
+		}
+		int offset = headerLength;
+		derSignature[offset++] = 0x02;
+		derSignature[offset++] = (byte) r.length;
+		System.arraycopy(r, 0, derSignature, offset, r.length);
+		offset += r.length;
+		derSignature[offset++] = 0x02;
+		derSignature[offset++] = (byte) s.length;
+		System.arraycopy(s, 0, derSignature, offset, s.length);
+
+		return derSignature;
+	}
+
+	/**
+	 * Get the unsigned big-endian encoding of a positive integer without
+	 * leading zero bytes.
+	 *
+	 * @param value The integer.
+	 * @return The encoding.
+	 * @preconditions (value <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected static byte[] toUnsignedBytes(BigInteger value) {
+		byte[] bytes = value.toByteArray();
+
+		return (bytes.length > 1 && bytes[0] == 0) ? copyOfRange(bytes, 1, bytes.length) : bytes;
+	}
+
+	/**
+	 * Copy a range of a byte array into a new array. This is a replacement for
+	 * Arrays.copyOfRange, which is not available on older Android platforms.
+	 *
+	 * @param array The source array.
+	 * @param from The index of the first byte to copy, inclusive.
+	 * @param to The index of the last byte to copy, exclusive.
+	 * @return The copied range.
+	 * @preconditions (array <> null) and (0 <= from) and (from <= to)
+	 * @postconditions (result <> null) and (result.length == to - from)
+	 */
+	protected static byte[] copyOfRange(byte[] array, int from, int to) {
+		byte[] copy = new byte[to - from];
+		System.arraycopy(array, from, copy, 0, to - from);
+
+		return copy;
+	}
+
+	/**
+	 * Copy the unsigned big-endian encoding of a positive integer right aligned
+	 * into a field of the given length.
+	 *
+	 * @param value The integer.
+	 * @param destination The destination array.
+	 * @param offset The offset of the field.
+	 * @param length The length of the field.
+	 * @preconditions (value <> null)
+	 *                and (destination <> null)
+	 * @postconditions
+	 */
+	protected static void copyUnsigned(BigInteger value, byte[] destination, int offset, int length) {
+		byte[] bytes = toUnsignedBytes(value);
+		int copyLength = Math.min(bytes.length, length);
+		System.arraycopy(bytes, bytes.length - copyLength, destination, offset + length - copyLength, copyLength);
+	}
+
+	/**
+	 * Check, if an attribute of private and secret keys is protected by
+	 * CKA_SENSITIVE and CKA_EXTRACTABLE.
+	 *
+	 * @param type The attribute type.
+	 * @return True, if the attribute is sensitive.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected static boolean isSensitiveAttribute(long type) {
+		for (int i = 0; i < SENSITIVE_ATTRIBUTES.length; i++) {
+			if (SENSITIVE_ATTRIBUTES[i] == type) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Compare two attribute values.
+	 *
+	 * @param value The value of the object.
+	 * @param templateValue The value of the template.
+	 * @return True, if the values are equal.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected static boolean valueEquals(Object value, Object templateValue) {
+		if (value == null || templateValue == null) {
+			return value == templateValue;
+		} else if (value instanceof byte[] && templateValue instanceof byte[]) {
+			return Arrays.equals((byte[]) value, (byte[]) templateValue);
+		} else if (value instanceof char[] && templateValue instanceof char[]) {
+			return Arrays.equals((char[]) value, (char[]) templateValue);
+		} else if (value instanceof long[] && templateValue instanceof long[]) {
+			return Arrays.equals((long[]) value, (long[]) templateValue);
+		} else if (value instanceof CK_DATE && templateValue instanceof CK_DATE) {
+			CK_DATE date = (CK_DATE) value;
+			CK_DATE templateDate = (CK_DATE) templateValue;
+			return Arrays.equals(date.year, templateDate.year) && Arrays.equals(date.month, templateDate.month)
+			    && Arrays.equals(date.day, templateDate.day);
+		}
+
+		return value.equals(templateValue);
+	}
+
+	/**
+	 * Create a blank padded character array.
+	 *
+	 * @param string The string.
+	 * @param length The length of the array.
+	 * @return The padded array, which is truncated if the string is longer.
+	 * @preconditions (string <> null)
+	 * @postconditions (result <> null)
+	 */
+	protected static char[] pad(String string, int length) {
+		char[] padded = new char[length];
+		Arrays.fill(padded, ' ');
+		string.getChars(0, Math.min(string.length(), length), padded, 0);
+
+		return padded;
+	}
+
+	/**
+	 * Create a version object.
+	 *
+	 * @param major The major version.
+	 * @param minor The minor version.
+	 * @return The version.
+	 * @preconditions
+	 * @postconditions (result <> null)
+	 */
+	protected static CK_VERSION newVersion(int major, int minor) {
+		CK_VERSION version = new CK_VERSION();
+		version.major = (byte) major;
+		version.minor = (byte) minor;
+
+		return version;
+	}
+
+	/**
+	 * Add the information of a mechanism.
+	 *
+	 * @param mechanism The mechanism.
+	 * @param minKeySize The minimum key size.
+	 * @param maxKeySize The maximum key size.
+	 * @param flags The flags.
+	 * @preconditions
+	 * @postconditions
+	 */
+	protected static void addMechanismInfo(long mechanism, long minKeySize, long maxKeySize, long flags) {
+		CK_MECHANISM_INFO info = new CK_MECHANISM_INFO();
+		info.ulMinKeySize = minKeySize;
+		info.ulMaxKeySize = maxKeySize;
+		info.flags = flags;
+		mechanismInfos_.put(new Long(mechanism), info);
+	}
+
+	/**
+	 * Add an encryption mechanism.
+	 *
+	 * @see #addMechanismInfo(long, long, long, long)
+	 */
+	protected static void addCipher(long mechanism, String algorithm, long minKeySize, long maxKeySize) {
+		cipherAlgorithms_.put(new Long(mechanism), algorithm);
+		addMechanismInfo(mechanism, minKeySize, maxKeySize, PKCS11Constants.CKF_ENCRYPT | PKCS11Constants.CKF_DECRYPT);
+	}
+
+	/**
+	 * Add a signature mechanism.
+	 *
+	 * @see #addMechanismInfo(long, long, long, long)
+	 */
+	protected static void addSignature(long mechanism, String algorithm, long minKeySize, long maxKeySize) {
+		signatureAlgorithms_.put(new Long(mechanism), algorithm);
+		addMechanismInfo(mechanism, minKeySize, maxKeySize, PKCS11Constants.CKF_SIGN | PKCS11Constants.CKF_VERIFY);
+	}
+
+	/**
+	 * Add a MAC mechanism.
+	 *
+	 * @see #addMechanismInfo(long, long, long, long)
+	 */
+	protected static void addMac(long mechanism, String algorithm) {
+		macAlgorithms_.put(new Long(mechanism), algorithm);
+		addMechanismInfo(mechanism, 1, 512, PKCS11Constants.CKF_SIGN | PKCS11Constants.CKF_VERIFY);
+	}
+
+	/**
+	 * Add a digest mechanism.
+	 *
+	 * @see #addMechanismInfo(long, long, long, long)
+	 */
+	protected static void addDigest(long mechanism, String algorithm) {
+		digestAlgorithms_.put(new Long(mechanism), algorithm);
+		addMechanismInfo(mechanism, 0, 0, PKCS11Constants.CKF_DIGEST);
+	}
+
+}
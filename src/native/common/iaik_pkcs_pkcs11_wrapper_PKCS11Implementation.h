@@ -24,6 +24,70 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_initia
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_finalizeLibrary
   (JNIEnv *, jclass);
 
+/*
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    setTraceEnabled
+ * Signature: (Z)V
+ */
+JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_setTraceEnabled
+  (JNIEnv *, jclass, jboolean);
+
+/*
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    isTraceEnabled
+ * Signature: ()Z
+ */
+JNIEXPORT jboolean JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_isTraceEnabled
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    drainTrace
+ * Signature: ([J[J[Ljava/lang/String;[Ljava/lang/String;[Ljava/lang/String;)I
+ */
+JNIEXPORT jint JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_drainTrace
+  (JNIEnv *, jclass, jlongArray, jlongArray, jobjectArray, jobjectArray, jobjectArray);
+
+/*
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    getLostTraceRecordCount
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_getLostTraceRecordCount
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    setCallTimingEnabled
+ * Signature: (Z)V
+ */
+JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_setCallTimingEnabled
+  (JNIEnv *, jclass, jboolean);
+
+/*
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    isCallTimingEnabled
+ * Signature: ()Z
+ */
+JNIEXPORT jboolean JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_isCallTimingEnabled
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    getCallTimings
+ * Signature: ([J[J[J)V
+ */
+JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_getCallTimings
+  (JNIEnv *, jclass, jlongArray, jlongArray, jlongArray);
+
+/*
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    resetCallTimings
+ * Signature: ()V
+ */
+JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_resetCallTimings
+  (JNIEnv *, jclass);
+
 /*
  * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
  * Method:    connect
@@ -104,6 +168,30 @@ JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 JNIEXPORT jobject JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1GetMechanismInfo
   (JNIEnv *, jobject, jlong, jlong);
 
+/*
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    getMechanismInfoTable
+ * Signature: (J)[J
+ */
+JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_getMechanismInfoTable
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    getTokenInfoCounters
+ * Signature: (J)[J
+ */
+JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_getTokenInfoCounters
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    getFunctionListAddress
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_getFunctionListAddress
+  (JNIEnv *, jobject);
+
 /*
  * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
  * Method:    C_InitToken
@@ -232,6 +320,14 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ge
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1GetAttributeValue
   (JNIEnv *, jobject, jlong, jlong, jobjectArray, jboolean);
 
+/*
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    getAttributeValue
+ * Signature: (JJ[Liaik/pkcs/pkcs11/wrapper/CK_ATTRIBUTE;Z)J
+ */
+JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_getAttributeValue
+  (JNIEnv *, jobject, jlong, jlong, jobjectArray, jboolean);
+
 /*
  * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
  * Method:    C_SetAttributeValue
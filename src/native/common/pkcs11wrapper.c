@@ -67,12 +67,52 @@
 /* Variables global to the wrapper                                            */
 /* ************************************************************************** */
 
-/* The initArgs that enable the application to do custom mutex-handling */
 #ifndef NO_CALLBACKS
-jobject jInitArgsObject = NULL_PTR;
-CK_C_INITIALIZE_ARGS_PTR ckpGlobalInitArgs = NULL_PTR;
+/* The Java mutex handler objects of the initArgs of the modules that use them.
+ * An entry is free, if its moduleData is NULL_PTR. Access to the entries is
+ * synchronized with the moduleListLock; the callbacks read them without lock,
+ * because an entry does not change while its module is initialized.
+ */
+JMutexCallbacks jMutexCallbacks[MAX_J_MUTEX_MODULES];
+
+/* The CreateMutex functions of the entries of jMutexCallbacks. */
+#define CALL_J_CREATE_MUTEX(index) \
+CK_RV callJCreateMutex##index(CK_VOID_PTR_PTR ppMutex) { return callJCreateMutex(&jMutexCallbacks[index], ppMutex) ; }
+
+CALL_J_CREATE_MUTEX(0)
+CALL_J_CREATE_MUTEX(1)
+CALL_J_CREATE_MUTEX(2)
+CALL_J_CREATE_MUTEX(3)
+CALL_J_CREATE_MUTEX(4)
+CALL_J_CREATE_MUTEX(5)
+CALL_J_CREATE_MUTEX(6)
+CALL_J_CREATE_MUTEX(7)
+
+CK_CREATEMUTEX jCreateMutexFunctions[MAX_J_MUTEX_MODULES] = {
+  &callJCreateMutex0, &callJCreateMutex1, &callJCreateMutex2, &callJCreateMutex3,
+  &callJCreateMutex4, &callJCreateMutex5, &callJCreateMutex6, &callJCreateMutex7
+};
+
+/* The classes and method IDs needed by the callbacks. They are looked up when
+ * the VM loads this library, because a thread of the module that calls back
+ * cannot find the classes of the wrapper with its own class loader.
+ */
+jclass jCallbackExceptionClass = NULL_PTR;
+jmethodID jGetErrorCodeMethod = NULL_PTR;
+jmethodID jCreateMutexMethod = NULL_PTR;
+jmethodID jDestroyMutexMethod = NULL_PTR;
+jmethodID jLockMutexMethod = NULL_PTR;
+jmethodID jUnlockMutexMethod = NULL_PTR;
+jmethodID jNotifyMethod = NULL_PTR;
 #endif /* NO_CALLBACKS */
 
+/* The PKCS11Exception class and its static getInstance method. They are looked
+ * up when the VM loads this library, because each failing call of the module
+ * needs them.
+ */
+jclass jPKCS11ExceptionClass = NULL_PTR;
+jmethodID jGetInstanceMethod = NULL_PTR;
+
 
 /* The list of currently connected modules. Will normally contain one element, 
  * but seldom more than a few.
@@ -81,19 +121,37 @@ ModuleListNode *moduleListHead = NULL_PTR;
 jobject moduleListLock = NULL_PTR;
 
 
-/* The list of notify callback handles that are currently active and waiting
- * for callbacks from their sessions.
+/* The hash table of notify callback handles that are currently active and
+ * waiting for callbacks from their sessions. The key is the module and the
+ * session handle. Each lock object guards every NOTIFY_LOCK_STRIPES-th bucket;
+ * thus, opening and closing sessions in different threads rarely contend.
  */
 #ifndef NO_CALLBACKS
-NotifyListNode *notifyListHead = NULL_PTR;
-jobject notifyListLock = NULL_PTR;
+NotifyListNode *notifyTable[NOTIFY_TABLE_SIZE];
+jobject notifyTableLocks[NOTIFY_LOCK_STRIPES];
 #endif /* NO_CALLBACKS */
 
 
-#ifdef ANDROID
-/* Pointer to JavaVM needed in Android */
-JavaVM *g_jvm;
-#endif
+/* The Java VM that loaded this library. The callbacks need it to get the
+ * JNIEnv of the calling thread.
+ */
+JavaVM *g_jvm = NULL_PTR;
+
+
+/* The trace buffers of all threads that ever wrote a trace record, the switch
+ * to enable tracing at runtime and the number of records that were overwritten
+ * before they were drained.
+ */
+TraceBuffer * volatile traceBufferHead = NULL_PTR;
+volatile int traceEnabled = 0;
+jlong traceRecordsLost = 0;
+
+
+/* The timing of the calls to the module per PKCS#11 function and the switch to
+ * enable it at runtime.
+ */
+CallTiming callTimings[TIMED_FUNCTIONS];
+volatile int callTimingEnabled = 0;
 
 
 
@@ -102,41 +160,44 @@ JavaVM *g_jvm;
 /* ************************************************************************** */
 
 
-#ifdef ANDROID
-JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *vm, void *reserved) 
+JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *vm, void *reserved)
 {
+  JNIEnv *env;
+
   g_jvm = vm;
-  return JNI_VERSION_1_2 ;
+  initTraceBuffers();
+
+  if ((*vm)->GetEnv(vm, (void **) &env, JNI_VERSION_1_2) != JNI_OK) { return JNI_ERR ; }
+  if (cacheExceptionIDs(env) != 0) { return JNI_ERR ; }
+#ifndef NO_CALLBACKS
+  if (cacheCallbackIDs(env) != 0) { return JNI_ERR ; }
+  initThreadAttachment();
+#endif /* NO_CALLBACKS */
+
+  return JNI_VERSION_1_4 ;
 }
-#endif
 
-/*
 JNIEXPORT void JNICALL JNI_OnUnload(JavaVM *vm, void *reserved)
 {
+  JNIEnv *env;
 
+#ifndef NO_CALLBACKS
+  releaseThreadAttachment();
+#endif /* NO_CALLBACKS */
+  if ((*vm)->GetEnv(vm, (void **) &env, JNI_VERSION_1_2) == JNI_OK) {
+#ifndef NO_CALLBACKS
+    releaseCallbackIDs(env);
+#endif /* NO_CALLBACKS */
+    releaseExceptionIDs(env);
+  }
+
+  g_jvm = NULL_PTR;
 }
-*/
 
 /* ************************************************************************** */
 /* Helper functions                                                           */
 /* ************************************************************************** */
 
-#ifdef ANDROID
-jint JNI_GetCreatedJavaVMs(JavaVM **vmBuf,
-                           jsize bufLen,
-                           jsize *nVMs)
-{
-  if (bufLen < 1) {
-    *nVMs = 0;
-    return 0;
-  }
-
-  *nVMs = 1;
-  vmBuf[0] = g_jvm;
-  return 0;
-}
-#endif
-
 /*
  * This method retrieves the function pointers from the module struct. Returns NULL_PTR
  * if either the module is NULL_PTR or the function pointer list is NULL_PTR. Returns the
@@ -193,8 +254,11 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_initia
     moduleListLock = createLockObject(env);
   }
 #ifndef NO_CALLBACKS
-  if (notifyListLock == NULL_PTR) {
-    notifyListLock = createLockObject(env);
+  if (notifyTableLocks[0] == NULL_PTR) {
+    int i;
+    for (i = 0; i < NOTIFY_LOCK_STRIPES; i++) {
+      notifyTableLocks[i] = createLockObject(env);
+    }
   }
 #endif
   TRACE0(tag_call, __FUNCTION__, "exiting ");
@@ -223,21 +287,16 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_finali
 		}
 #ifndef NO_CALLBACKS
     /* remove all left notify callback entries */
-    while (removeFirstNotifyEntry(env));
-    /* remove also the notifyListLock, it is no longer used */
-    if (notifyListLock != NULL_PTR) {
-      destroyLockObject(env, notifyListLock);
-      notifyListLock = NULL_PTR;
-    }
-    if (jInitArgsObject != NULL_PTR) {
-      (*env)->DeleteGlobalRef(env, jInitArgsObject);
-    }
-    if (ckpGlobalInitArgs != NULL_PTR) {
-      if (ckpGlobalInitArgs->pReserved != NULL_PTR) {
-        free(ckpGlobalInitArgs->pReserved);
+    if (notifyTableLocks[0] != NULL_PTR) {
+      int i;
+      while (removeFirstNotifyEntry(env));
+      /* remove also the notifyTableLocks, they are no longer used */
+      for (i = 0; i < NOTIFY_LOCK_STRIPES; i++) {
+        destroyLockObject(env, notifyTableLocks[i]);
+        notifyTableLocks[i] = NULL_PTR;
       }
-      free(ckpGlobalInitArgs);
     }
+    releaseAllJMutexCallbacks(env);
 #endif /* NO_CALLBACKS */
   }
   TRACE0(tag_call, __FUNCTION__, "exiting ");
@@ -270,6 +329,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_finali
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Initialize
 	(JNIEnv *env, jobject obj, jobject jInitArgs, jboolean jUseUtf8)
 {
+  CallTimer timer;
   /*
    * Initalize Cryptoki
    */
@@ -277,21 +337,36 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ini
 	CK_RV rv;
   ModuleData *moduleData;
   CK_FUNCTION_LIST_PTR ckpFunctions;
+#ifndef NO_CALLBACKS
+  JMutexCallbacks *jMutexCallbacksOfCall;
+#endif /* NO_CALLBACKS */
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_INITIALIZE);
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
   ckpFunctions = getFunctionList(env, moduleData);
   if (ckpFunctions == NULL_PTR) { return; }
 
   if (jInitArgs != NULL_PTR) {
-    ckpInitArgs = makeCKInitArgsAdapter(env, jInitArgs, jUseUtf8);
+    ckpInitArgs = makeCKInitArgsAdapter(env, moduleData, jInitArgs, jUseUtf8);
     if (ckpInitArgs == NULL_PTR) { return; }
   } else { 
     ckpInitArgs = NULL_PTR;
   }
 
-	rv = (*ckpFunctions->C_Initialize)(ckpInitArgs);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_Initialize)(ckpInitArgs));
+#ifndef NO_CALLBACKS
+  if (ckpInitArgs != NULL_PTR) {
+    /* keep the Java mutex handlers of this call only, if the module uses them */
+    jMutexCallbacksOfCall = getJMutexCallbacks(ckpInitArgs->CreateMutex);
+    if (rv == CKR_OK) {
+      releaseModuleJMutexCallbacks(env, moduleData, jMutexCallbacksOfCall);
+    } else if (jMutexCallbacksOfCall != NULL_PTR) {
+      releaseJMutexCallbacks(env, jMutexCallbacksOfCall);
+    }
+  }
+#endif /* NO_CALLBACKS */
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
   if (ckpInitArgs != NULL_PTR) {
@@ -301,6 +376,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ini
     free(ckpInitArgs);
   }
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -314,6 +390,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ini
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Finalize
 	(JNIEnv *env, jobject obj, jobject jReserved)
 {
+  CallTimer timer;
   /*
    * Finalize Cryptoki
    */
@@ -323,6 +400,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Fin
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_FINALIZE);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -331,9 +409,16 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Fin
 
 	ckpReserved = jObjectToCKVoidPtr(jReserved);
 
-  rv = (*ckpFunctions->C_Finalize)(ckpReserved);
+  TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_Finalize)(ckpReserved));
+#ifndef NO_CALLBACKS
+  if (rv == CKR_OK) {
+    /* the module has destroyed its mutexes */
+    releaseModuleJMutexCallbacks(env, moduleData, NULL_PTR);
+  }
+#endif /* NO_CALLBACKS */
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -347,6 +432,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Fin
 JNIEXPORT jobject JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1GetInfo
 	(JNIEnv *env, jobject obj)
 {
+  CallTimer timer;
 	CK_INFO ckLibInfo;
 	jobject jInfoObject;
   CK_RV rv;
@@ -354,17 +440,19 @@ JNIEXPORT jobject JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_GET_INFO);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
   ckpFunctions = getFunctionList(env, moduleData);
   if (ckpFunctions == NULL_PTR) { return NULL_PTR; }
 
-	rv = (*ckpFunctions->C_GetInfo)(&ckLibInfo);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_GetInfo)(&ckLibInfo));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
 
 	jInfoObject = ckInfoPtrToJInfo(env, &ckLibInfo);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jInfoObject ;
 }
@@ -381,6 +469,7 @@ JNIEXPORT jobject JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1
 JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1GetSlotList
 	(JNIEnv *env, jobject obj, jboolean jTokenPresent)
 {
+  CallTimer timer;
 	CK_ULONG ckTokenNumber;
 	CK_SLOT_ID_PTR ckpSlotList;
 	CK_BBOOL ckTokenPresent;
@@ -390,6 +479,7 @@ JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_GET_SLOT_LIST);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -398,14 +488,14 @@ JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 
 	ckTokenPresent = jBooleanToCKBBool(jTokenPresent);
 
-	rv = (*ckpFunctions->C_GetSlotList)(ckTokenPresent, NULL_PTR, &ckTokenNumber);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_GetSlotList)(ckTokenPresent, NULL_PTR, &ckTokenNumber));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
 
   if (ckTokenNumber != 0) { /* only make the second call, if the number is not zero */
 	  ckpSlotList = (CK_SLOT_ID_PTR) malloc(ckTokenNumber * sizeof(CK_SLOT_ID));
     if (ckpSlotList == NULL_PTR && ckTokenNumber!=0) { throwOutOfMemoryError(env); return NULL_PTR; }
 
-	  rv = (*ckpFunctions->C_GetSlotList)(ckTokenPresent, ckpSlotList, &ckTokenNumber);
+	  TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_GetSlotList)(ckTokenPresent, ckpSlotList, &ckTokenNumber));
 
 	  if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
 	    jSlotList = ckULongArrayToJLongArray(env, ckpSlotList, ckTokenNumber);
@@ -417,6 +507,7 @@ JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
     jSlotList = ckULongArrayToJLongArray(env, NULL_PTR, ckTokenNumber);
   }
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jSlotList ;
 }
@@ -432,6 +523,7 @@ JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 JNIEXPORT jobject JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1GetSlotInfo
 	(JNIEnv *env, jobject obj, jlong jSlotID)
 {
+  CallTimer timer;
 	CK_SLOT_ID ckSlotID;
 	CK_SLOT_INFO ckSlotInfo;
 	jobject jSlotInfoObject;
@@ -440,6 +532,7 @@ JNIEXPORT jobject JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_GET_SLOT_INFO);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -448,11 +541,12 @@ JNIEXPORT jobject JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1
 
 	ckSlotID = jLongToCKULong(jSlotID);
 
-	rv = (*ckpFunctions->C_GetSlotInfo)(ckSlotID, &ckSlotInfo);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_GetSlotInfo)(ckSlotID, &ckSlotInfo));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
 
 	jSlotInfoObject = ckSlotInfoPtrToJSlotInfo(env, &ckSlotInfo);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jSlotInfoObject ;
 }
@@ -468,6 +562,7 @@ JNIEXPORT jobject JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1
 JNIEXPORT jobject JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1GetTokenInfo
   (JNIEnv *env, jobject obj, jlong jSlotID)
 {
+  CallTimer timer;
 	CK_SLOT_ID ckSlotID;
 	CK_TOKEN_INFO ckTokenInfo;
 	jobject jInfoTokenObject;
@@ -476,6 +571,7 @@ JNIEXPORT jobject JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_GET_TOKEN_INFO);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -484,11 +580,12 @@ JNIEXPORT jobject JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1
 
 	ckSlotID = jLongToCKULong(jSlotID);
 
-	rv = (*ckpFunctions->C_GetTokenInfo)(ckSlotID, &ckTokenInfo);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_GetTokenInfo)(ckSlotID, &ckTokenInfo));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
 
 	jInfoTokenObject = ckTokenInfoPtrToJTokenInfo(env, &ckTokenInfo);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jInfoTokenObject ;
 }
@@ -505,6 +602,7 @@ JNIEXPORT jobject JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1
 JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1GetMechanismList
   (JNIEnv *env, jobject obj, jlong jSlotID)
 {
+  CallTimer timer;
 	CK_SLOT_ID ckSlotID;
 	CK_ULONG ckMechanismNumber;
 	CK_MECHANISM_TYPE_PTR ckpMechanismList;
@@ -514,6 +612,7 @@ JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_GET_MECHANISM_LIST);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -522,13 +621,13 @@ JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 
 	ckSlotID = jLongToCKULong(jSlotID);
 
-	rv = (*ckpFunctions->C_GetMechanismList)(ckSlotID, NULL_PTR, &ckMechanismNumber);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_GetMechanismList)(ckSlotID, NULL_PTR, &ckMechanismNumber));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
 
 	ckpMechanismList = (CK_MECHANISM_TYPE_PTR) malloc(ckMechanismNumber * sizeof(CK_MECHANISM_TYPE));
   if (ckpMechanismList == NULL_PTR && ckMechanismNumber!=0) { throwOutOfMemoryError(env); return NULL_PTR; }
 
-	rv = (*ckpFunctions->C_GetMechanismList)(ckSlotID, ckpMechanismList, &ckMechanismNumber);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_GetMechanismList)(ckSlotID, ckpMechanismList, &ckMechanismNumber));
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
     jMechanismList = ckULongArrayToJLongArray(env, ckpMechanismList, ckMechanismNumber);
   else
@@ -536,6 +635,7 @@ JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 
 	free(ckpMechanismList);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jMechanismList ;
 }
@@ -552,6 +652,7 @@ JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 JNIEXPORT jobject JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1GetMechanismInfo
   (JNIEnv *env, jobject obj, jlong jSlotID, jlong jType)
 {
+  CallTimer timer;
 	CK_SLOT_ID ckSlotID;
 	CK_MECHANISM_TYPE ckMechanismType;
 	CK_MECHANISM_INFO ckMechanismInfo;
@@ -561,6 +662,7 @@ JNIEXPORT jobject JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_GET_MECHANISM_INFO);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -570,15 +672,181 @@ JNIEXPORT jobject JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1
 	ckSlotID = jLongToCKULong(jSlotID);
 	ckMechanismType = jLongToCKULong(jType);
 
-	rv = (*ckpFunctions->C_GetMechanismInfo)(ckSlotID, ckMechanismType, &ckMechanismInfo);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_GetMechanismInfo)(ckSlotID, ckMechanismType, &ckMechanismInfo));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
 
 	jMechanismInfo = ckMechanismInfoPtrToJMechanismInfo(env, &ckMechanismInfo);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jMechanismInfo ;
 }
 
+/*
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    getMechanismInfoTable
+ * Signature: (J)[J
+ * Gets the list of mechanisms of the token and the information of each
+ * mechanism in one call of the native library; i.e. calls C_GetMechanismList
+ * and C_GetMechanismInfo for each mechanism. The time is counted for
+ * C_GetMechanismList and for each call of C_GetMechanismInfo separately, as if
+ * the functions were called one after the other; failed calls of
+ * C_GetMechanismInfo and the conversion of the table are not counted. If
+ * C_GetMechanismInfo fails for a mechanism, the table
+ * still lists it with the return value of the call and zero for the other
+ * values; only a failure of C_GetMechanismList fails the whole call.
+ * @param   jlong jSlotID               CK_SLOT_ID slotID
+ * @return  jlongArray jTable           five elements per mechanism: the type,
+ *                                      ulMinKeySize, ulMaxKeySize, flags and
+ *                                      the return value of C_GetMechanismInfo
+ */
+JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_getMechanismInfoTable
+  (JNIEnv *env, jobject obj, jlong jSlotID)
+{
+  CallTimer timer;
+  CallTimer infoTimer;
+	CK_SLOT_ID ckSlotID;
+	CK_ULONG ckMechanismNumber;
+	CK_MECHANISM_TYPE_PTR ckpMechanismList;
+	CK_MECHANISM_INFO ckMechanismInfo;
+	CK_ULONG_PTR ckpTable;
+	CK_ULONG i;
+	jlongArray jTable;
+	CK_RV rv;
+	CK_RV infoRv;
+  ModuleData *moduleData;
+  CK_FUNCTION_LIST_PTR ckpFunctions;
+
+  TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_GET_MECHANISM_LIST);
+
+  moduleData = getModuleEntry(env, obj);
+  if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
+  ckpFunctions = getFunctionList(env, moduleData);
+  if (ckpFunctions == NULL_PTR) { return NULL_PTR; }
+
+	ckSlotID = jLongToCKULong(jSlotID);
+
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_GetMechanismList)(ckSlotID, NULL_PTR, &ckMechanismNumber));
+	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
+
+	ckpMechanismList = (CK_MECHANISM_TYPE_PTR) malloc(ckMechanismNumber * sizeof(CK_MECHANISM_TYPE));
+	ckpTable = (CK_ULONG_PTR) malloc(5 * ckMechanismNumber * sizeof(CK_ULONG));
+  if ((ckpMechanismList == NULL_PTR || ckpTable == NULL_PTR) && ckMechanismNumber!=0) {
+    free(ckpMechanismList);
+    free(ckpTable);
+    throwOutOfMemoryError(env);
+    return NULL_PTR;
+  }
+
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_GetMechanismList)(ckSlotID, ckpMechanismList, &ckMechanismNumber));
+	if (rv == CKR_OK) { STOP_CALL_TIMER(timer); }
+	for (i = 0; (rv == CKR_OK) && (i < ckMechanismNumber); i++) {
+		START_CALL_TIMER(infoTimer, TIMER_C_GET_MECHANISM_INFO);
+		TIME_MODULE_CALL(infoTimer, infoRv = (*ckpFunctions->C_GetMechanismInfo)(ckSlotID, ckpMechanismList[i], &ckMechanismInfo));
+		if (infoRv == CKR_OK) { STOP_CALL_TIMER(infoTimer); }
+		ckpTable[5 * i] = ckpMechanismList[i];
+		if (infoRv == CKR_OK) {
+			ckpTable[5 * i + 1] = ckMechanismInfo.ulMinKeySize;
+			ckpTable[5 * i + 2] = ckMechanismInfo.ulMaxKeySize;
+			ckpTable[5 * i + 3] = ckMechanismInfo.flags;
+		} else {
+			ckpTable[5 * i + 1] = 0;
+			ckpTable[5 * i + 2] = 0;
+			ckpTable[5 * i + 3] = 0;
+		}
+		ckpTable[5 * i + 4] = infoRv;
+	}
+  if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
+    jTable = ckULongArrayToJLongArray(env, ckpTable, 5 * ckMechanismNumber);
+  else
+    jTable = NULL_PTR;
+
+	free(ckpMechanismList);
+	free(ckpTable);
+
+  TRACE0(tag_call, __FUNCTION__, "exiting ");
+	return jTable ;
+}
+
+/*
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    getTokenInfoCounters
+ * Signature: (J)[J
+ * Gets the flags and counters of the token info without converting the
+ * strings, versions and time of the CK_TOKEN_INFO. The time is counted for
+ * C_GetTokenInfo.
+ * @param   jlong jSlotID               CK_SLOT_ID slotID
+ * @return  jlongArray jCounters        the flags, ulMaxSessionCount,
+ *                                      ulSessionCount, ulMaxRwSessionCount,
+ *                                      ulRwSessionCount, ulMaxPinLen,
+ *                                      ulMinPinLen, ulTotalPublicMemory,
+ *                                      ulFreePublicMemory, ulTotalPrivateMemory
+ *                                      and ulFreePrivateMemory
+ */
+JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_getTokenInfoCounters
+  (JNIEnv *env, jobject obj, jlong jSlotID)
+{
+  CallTimer timer;
+	CK_SLOT_ID ckSlotID;
+	CK_TOKEN_INFO ckTokenInfo;
+	CK_ULONG ckCounters[11];
+	jlongArray jCounters;
+	CK_RV rv;
+  ModuleData *moduleData;
+  CK_FUNCTION_LIST_PTR ckpFunctions;
+
+  TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_GET_TOKEN_INFO);
+
+  moduleData = getModuleEntry(env, obj);
+  if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
+  ckpFunctions = getFunctionList(env, moduleData);
+  if (ckpFunctions == NULL_PTR) { return NULL_PTR; }
+
+	ckSlotID = jLongToCKULong(jSlotID);
+
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_GetTokenInfo)(ckSlotID, &ckTokenInfo));
+	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
+
+	ckCounters[0] = ckTokenInfo.flags;
+	ckCounters[1] = ckTokenInfo.ulMaxSessionCount;
+	ckCounters[2] = ckTokenInfo.ulSessionCount;
+	ckCounters[3] = ckTokenInfo.ulMaxRwSessionCount;
+	ckCounters[4] = ckTokenInfo.ulRwSessionCount;
+	ckCounters[5] = ckTokenInfo.ulMaxPinLen;
+	ckCounters[6] = ckTokenInfo.ulMinPinLen;
+	ckCounters[7] = ckTokenInfo.ulTotalPublicMemory;
+	ckCounters[8] = ckTokenInfo.ulFreePublicMemory;
+	ckCounters[9] = ckTokenInfo.ulTotalPrivateMemory;
+	ckCounters[10] = ckTokenInfo.ulFreePrivateMemory;
+	jCounters = ckULongArrayToJLongArray(env, ckCounters, 11);
+
+  STOP_CALL_TIMER(timer);
+  TRACE0(tag_call, __FUNCTION__, "exiting ");
+	return jCounters ;
+}
+
+/*
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    getFunctionListAddress
+ * Signature: ()J
+ * Gets the address of the function list that C_GetFunctionList returned when
+ * connecting. Connections to the same loaded library get the same function
+ * list, no matter by which name they loaded it.
+ * @return  jlong                       the address of the CK_FUNCTION_LIST
+ */
+JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_getFunctionListAddress
+  (JNIEnv *env, jobject obj)
+{
+  ModuleData *moduleData;
+
+  moduleData = getModuleEntry(env, obj);
+  if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return 0L; }
+
+  return (jlong) (size_t) moduleData->ckFunctionListPtr ;
+}
+
 /*
  * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
  * Method:    C_InitToken
@@ -593,6 +861,7 @@ JNIEXPORT jobject JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1InitToken
   (JNIEnv *env, jobject obj, jlong jSlotID, jcharArray jPin, jcharArray jLabel, jboolean jUseUtf8)
 {
+  CallTimer timer;
 	CK_SLOT_ID ckSlotID;
 	CK_CHAR_PTR ckpPin = NULL_PTR;
 	CK_UTF8CHAR_PTR ckpLabel = NULL_PTR;
@@ -604,6 +873,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ini
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_INIT_TOKEN);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -620,13 +890,14 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ini
 		if(jCharArrayToCKCharArray(env, jLabel, &ckpLabel, &ckLabelLength)) { return; }
 	}
 
-	rv = (*ckpFunctions->C_InitToken)(ckSlotID, ckpPin, ckPinLength, ckpLabel);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_InitToken)(ckSlotID, ckpPin, ckPinLength, ckpLabel));
 
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
 	  TRACE1(tag_info, __FUNCTION__,"InitToken return code: %ld", rv);
 
 	free(ckpPin);
 	free(ckpLabel);
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -643,6 +914,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ini
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1InitPIN
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jcharArray jPin, jboolean jUseUtf8)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_CHAR_PTR ckpPin = NULL_PTR;
 	CK_ULONG ckPinLength;
@@ -652,6 +924,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ini
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_INIT_PIN);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -666,11 +939,12 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ini
 		if(jCharArrayToCKCharArray(env, jPin, &ckpPin, &ckPinLength)) { return; }
 	}
 
-	rv = (*ckpFunctions->C_InitPIN)(ckSessionHandle, ckpPin, ckPinLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_InitPIN)(ckSessionHandle, ckpPin, ckPinLength));
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
 	free(ckpPin);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -689,6 +963,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ini
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1SetPIN
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jcharArray jOldPin, jcharArray jNewPin, jboolean jUseUtf8)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_CHAR_PTR ckpOldPin = NULL_PTR;
 	CK_CHAR_PTR ckpNewPin = NULL_PTR;
@@ -700,6 +975,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Set
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_SET_PIN);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -717,12 +993,13 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Set
 		if (jCharArrayToCKCharArray(env, jNewPin, &ckpNewPin, &ckNewPinLength)) { return; }
 	}
 
-	rv = (*ckpFunctions->C_SetPIN)(ckSessionHandle, ckpOldPin, ckOldPinLength, ckpNewPin, ckNewPinLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_SetPIN)(ckSessionHandle, ckpOldPin, ckOldPinLength, ckpNewPin, ckNewPinLength));
 	ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
 	free(ckpOldPin);
 	free(ckpNewPin);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -740,6 +1017,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Set
 JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1OpenSession
   (JNIEnv *env, jobject obj, jlong jSlotID, jlong jFlags, jobject jApplication, jobject jNotify)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_SLOT_ID ckSlotID;
 	CK_FLAGS ckFlags;
@@ -754,6 +1032,7 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Op
 #endif /* NO_CALLBACKS */
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_OPEN_SESSION);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return 0L; }
@@ -784,7 +1063,7 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Op
 
 	TRACE2(tag_debug, __FUNCTION__,"  slotID=%lu, flags=%lx", ckSlotID,ckFlags);
 
-	rv = (*ckpFunctions->C_OpenSession)(ckSlotID, ckFlags, ckpApplication, ckNotify, &ckSessionHandle);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_OpenSession)(ckSlotID, ckFlags, ckpApplication, ckNotify, &ckSessionHandle));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return 0L ; }
 
 	TRACE1(tag_info, __FUNCTION__,"got session, SessionHandle=%lu", ckSessionHandle);
@@ -794,10 +1073,11 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Op
 #ifndef NO_CALLBACKS
   if (notifyEncapsulation != NULL_PTR) {
     /* store the notifyEncapsulation to enable later cleanup */
-    putNotifyEntry(env, ckSessionHandle, notifyEncapsulation);
+    putNotifyEntry(env, moduleData, ckSlotID, ckSessionHandle, notifyEncapsulation);
   }
 #endif /* NO_CALLBACKS */
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 
 	return jSessionHandle ;
@@ -813,6 +1093,7 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Op
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1CloseSession
   (JNIEnv *env, jobject obj, jlong jSessionHandle)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_RV rv;
   ModuleData *moduleData;
@@ -822,6 +1103,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Clo
   jobject jApplicationData;
 #endif /* NO_CALLBACKS */
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_CLOSE_SESSION);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -832,11 +1114,11 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Clo
 
   TRACE1(tag_info, __FUNCTION__, "going to close session with handle %lld", jSessionHandle);
 
-	rv = (*ckpFunctions->C_CloseSession)(ckSessionHandle);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_CloseSession)(ckSessionHandle));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return; }
 
 #ifndef NO_CALLBACKS
-  notifyEncapsulation = removeNotifyEntry(env, ckSessionHandle);
+  notifyEncapsulation = removeNotifyEntry(env, moduleData, ckSessionHandle);
 
   if (notifyEncapsulation != NULL_PTR) {
     /* there was a notify object used with this session, now dump the
@@ -850,6 +1132,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Clo
     free(notifyEncapsulation);
   }
 #endif /* NO_CALLBACKS */
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 
 }
@@ -864,15 +1147,18 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Clo
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1CloseAllSessions
   (JNIEnv *env, jobject obj, jlong jSlotID)
 {
+  CallTimer timer;
 	CK_SLOT_ID ckSlotID;
 	CK_RV rv;
   ModuleData *moduleData;
   CK_FUNCTION_LIST_PTR ckpFunctions;
 #ifndef NO_CALLBACKS
+  NotifyListNode *removedNodes, *currentNode;
   NotifyEncapsulation *notifyEncapsulation;
   jobject jApplicationData;
 #endif /* NO_CALLBACKS */
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_CLOSE_ALL_SESSIONS);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -881,23 +1167,29 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Clo
 
 	ckSlotID = jLongToCKULong(jSlotID);
 
-	rv = (*ckpFunctions->C_CloseAllSessions)(ckSlotID);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_CloseAllSessions)(ckSlotID));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return; }
 
 #ifndef NO_CALLBACKS
-  /* Remove all notify callback helper objects. */
-  while ((notifyEncapsulation = removeFirstNotifyEntry(env)) != NULL_PTR) {
+  /* Remove the notify callback helper objects of the sessions of this slot. */
+  removedNodes = removeSlotNotifyEntries(env, moduleData, ckSlotID);
+  while (removedNodes != NULL_PTR) {
     /* there was a notify object used with this session, now dump the
      * encapsulation object
      */
+    notifyEncapsulation = removedNodes->notifyEncapsulation;
     (*env)->DeleteGlobalRef(env, notifyEncapsulation->jNotifyObject);
     jApplicationData = notifyEncapsulation->jApplicationData;
     if (jApplicationData != NULL_PTR) {
       (*env)->DeleteGlobalRef(env, jApplicationData);
     }
     free(notifyEncapsulation);
+    currentNode = removedNodes;
+    removedNodes = removedNodes->next;
+    free(currentNode);
   }
 #endif /* NO_CALLBACKS */
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -912,6 +1204,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Clo
 JNIEXPORT jobject JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1GetSessionInfo
   (JNIEnv *env, jobject obj, jlong jSessionHandle)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_SESSION_INFO ckSessionInfo;
 	jobject jSessionInfo;
@@ -919,6 +1212,7 @@ JNIEXPORT jobject JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1
   ModuleData *moduleData;
   CK_FUNCTION_LIST_PTR ckpFunctions;
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_GET_SESSION_INFO);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -927,11 +1221,12 @@ JNIEXPORT jobject JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1
 
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 
-	rv = (*ckpFunctions->C_GetSessionInfo)(ckSessionHandle, &ckSessionInfo);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_GetSessionInfo)(ckSessionHandle, &ckSessionInfo));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
 
 	jSessionInfo = ckSessionInfoPtrToJSessionInfo(env, &ckSessionInfo);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jSessionInfo ;
 }
@@ -948,6 +1243,7 @@ JNIEXPORT jobject JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1
 JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1GetOperationState
   (JNIEnv *env, jobject obj, jlong jSessionHandle)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpState;
 	CK_ULONG ckStateLength;
@@ -957,6 +1253,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_GET_OPERATION_STATE);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -965,13 +1262,13 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 
-	rv = (*ckpFunctions->C_GetOperationState)(ckSessionHandle, NULL_PTR, &ckStateLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_GetOperationState)(ckSessionHandle, NULL_PTR, &ckStateLength));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
 
 	ckpState = (CK_BYTE_PTR) malloc(ckStateLength);
   if (ckpState == NULL_PTR && ckStateLength!=0) { throwOutOfMemoryError(env); return NULL_PTR; }
 
-	rv = (*ckpFunctions->C_GetOperationState)(ckSessionHandle, ckpState, &ckStateLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_GetOperationState)(ckSessionHandle, ckpState, &ckStateLength));
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
     jState = ckByteArrayToJByteArray(env, ckpState, ckStateLength);
   else
@@ -979,6 +1276,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 
 	free(ckpState);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jState ;
 }
@@ -997,6 +1295,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1SetOperationState
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jbyteArray jOperationState, jlong jEncryptionKeyHandle, jlong jAuthenticationKeyHandle)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpState = NULL_PTR;
 	CK_ULONG ckStateLength;
@@ -1007,6 +1306,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Set
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_SET_OPERATION_STATE);
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
   ckpFunctions = getFunctionList(env, moduleData);
@@ -1017,11 +1317,12 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Set
 	ckEncryptionKeyHandle = jLongToCKULong(jEncryptionKeyHandle);
 	ckAuthenticationKeyHandle = jLongToCKULong(jAuthenticationKeyHandle);
 
-	rv = (*ckpFunctions->C_SetOperationState)(ckSessionHandle, ckpState, ckStateLength, ckEncryptionKeyHandle, ckAuthenticationKeyHandle);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_SetOperationState)(ckSessionHandle, ckpState, ckStateLength, ckEncryptionKeyHandle, ckAuthenticationKeyHandle));
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
 	free(ckpState);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -1039,6 +1340,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Set
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Login
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jlong jUserType, jcharArray jPin, jboolean jUseUtf8)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_USER_TYPE ckUserType;
 	CK_CHAR_PTR ckpPinArray = NULL_PTR;
@@ -1049,6 +1351,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Log
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_LOGIN);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -1066,12 +1369,13 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Log
 		if (jCharArrayToCKCharArray(env, jPin, &ckpPinArray, &ckPinLength)) { return; }
 	}
 
-	rv = (*ckpFunctions->C_Login)(ckSessionHandle, ckUserType, ckpPinArray, ckPinLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_Login)(ckSessionHandle, ckUserType, ckpPinArray, ckPinLength));
 
 	ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
 	free(ckpPinArray);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -1085,12 +1389,14 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Log
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Logout
   (JNIEnv *env, jobject obj, jlong jSessionHandle)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_RV rv;
   ModuleData *moduleData;
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_LOGOUT);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -1099,9 +1405,10 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Log
 
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 
-	rv = (*ckpFunctions->C_Logout)(ckSessionHandle);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_Logout)(ckSessionHandle));
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -1118,6 +1425,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Log
 JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1CreateObject
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jobjectArray jTemplate, jboolean jUseUtf8)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_OBJECT_HANDLE ckObjectHandle;
 	CK_ATTRIBUTE_PTR ckpAttributes = NULL_PTR, ckAttributeArray;
@@ -1129,6 +1437,7 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Cr
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_CREATE_OBJECT);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return 0L; }
@@ -1138,7 +1447,7 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Cr
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 	if (jAttributeArrayToCKAttributeArray(env, jTemplate, &ckpAttributes, &ckAttributesLength, jUseUtf8)) { return 0L; }
 
-	rv = (*ckpFunctions->C_CreateObject)(ckSessionHandle, ckpAttributes, ckAttributesLength, &ckObjectHandle);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_CreateObject)(ckSessionHandle, ckpAttributes, ckAttributesLength, &ckObjectHandle));
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
     jObjectHandle = ckULongToJLong(ckObjectHandle);
   else
@@ -1157,6 +1466,7 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Cr
 		}
 	free(ckpAttributes);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jObjectHandle ;
 }
@@ -1175,6 +1485,7 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Cr
 JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1CopyObject
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jlong jObjectHandle, jobjectArray jTemplate, jboolean jUseUtf8)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_OBJECT_HANDLE ckObjectHandle;
 	CK_OBJECT_HANDLE ckNewObjectHandle;
@@ -1187,6 +1498,7 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Co
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_COPY_OBJECT);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return 0L; }
@@ -1197,7 +1509,7 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Co
 	ckObjectHandle = jLongToCKULong(jObjectHandle);
 	if (jAttributeArrayToCKAttributeArray(env, jTemplate, &ckpAttributes, &ckAttributesLength, jUseUtf8)) { return 0L; }
 
-	rv = (*ckpFunctions->C_CopyObject)(ckSessionHandle, ckObjectHandle, ckpAttributes, ckAttributesLength, &ckNewObjectHandle);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_CopyObject)(ckSessionHandle, ckObjectHandle, ckpAttributes, ckAttributesLength, &ckNewObjectHandle));
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
     jNewObjectHandle = ckULongToJLong(ckNewObjectHandle);
   else
@@ -1216,6 +1528,7 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Co
 		}
 	free(ckpAttributes);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 
 	return jNewObjectHandle ;
@@ -1232,6 +1545,7 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Co
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1DestroyObject
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jlong jObjectHandle)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_OBJECT_HANDLE ckObjectHandle;
 	CK_RV rv;
@@ -1239,6 +1553,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Des
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_DESTROY_OBJECT);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -1248,9 +1563,10 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Des
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 	ckObjectHandle = jLongToCKULong(jObjectHandle);
 
-	rv = (*ckpFunctions->C_DestroyObject)(ckSessionHandle, ckObjectHandle);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_DestroyObject)(ckSessionHandle, ckObjectHandle));
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -1266,6 +1582,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Des
 JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1GetObjectSize
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jlong jObjectHandle)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_OBJECT_HANDLE ckObjectHandle;
 	CK_ULONG ckObjectSize;
@@ -1275,6 +1592,7 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ge
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_GET_OBJECT_SIZE);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return 0L; }
@@ -1284,28 +1602,27 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ge
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 	ckObjectHandle = jLongToCKULong(jObjectHandle);
 
-	rv = (*ckpFunctions->C_GetObjectSize)(ckSessionHandle, ckObjectHandle, &ckObjectSize);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_GetObjectSize)(ckSessionHandle, ckObjectHandle, &ckObjectSize));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return 0L ; }
 
 	jObjectSize = ckULongToJLong(ckObjectSize);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jObjectSize ;
 }
 
 /*
- * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
- * Method:    C_GetAttributeValue
- * Signature: (JJ[Liaik/pkcs/pkcs11/wrapper/CK_ATTRIBUTE;Z)V
- * Parametermapping:                    *PKCS11*
- * @param   jlong jSessionHandle        CK_SESSION_HANDLE hSession
- * @param   jlong jObjectHandle         CK_OBJECT_HANDLE hObject
- * @param   jobjectArray jTemplate      CK_ATTRIBUTE_PTR pTemplate
- *                                      CK_ULONG ulCount
+ * Gets the values of the attributes for C_GetAttributeValue and
+ * getAttributeValue. If jThrowException is false, a return value other than
+ * CKR_OK does not raise an exception but is only returned; then, the values are
+ * only copied back to the Java attributes if the module returned CKR_OK.
+ *
+ * @return The return value of the module; e.g. CKR_ATTRIBUTE_TYPE_INVALID.
  */
-JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1GetAttributeValue
-  (JNIEnv *env, jobject obj, jlong jSessionHandle, jlong jObjectHandle, jobjectArray jTemplate, jboolean jUseUtf8)
+static jlong getAttributeValue(JNIEnv *env, jobject obj, jlong jSessionHandle, jlong jObjectHandle, jobjectArray jTemplate, jboolean jUseUtf8, jboolean jThrowException)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_OBJECT_HANDLE ckObjectHandle;
 	CK_ATTRIBUTE_PTR ckpAttributes = NULL_PTR, ckAttributeArray;
@@ -1321,18 +1638,19 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Get
   signed long signedLength;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_GET_ATTRIBUTE_VALUE);
 
   moduleData = getModuleEntry(env, obj);
-  if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
+  if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return ckULongToJLong(CKR_GENERAL_ERROR); }
   ckpFunctions = getFunctionList(env, moduleData);
-  if (ckpFunctions == NULL_PTR) { return; }
+  if (ckpFunctions == NULL_PTR) { return ckULongToJLong(CKR_GENERAL_ERROR); }
 
   TRACE3(tag_debug, __FUNCTION__, "hSession=%llu, hObject=%llu, pTemplate=%p", jSessionHandle, jObjectHandle, jTemplate);
 
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 	ckObjectHandle = jLongToCKULong(jObjectHandle);
 	TRACE1(tag_debug, __FUNCTION__,"jAttributeArrayToCKAttributeArray now with jTemplate = %p", jTemplate);
-	if (jAttributeArrayToCKAttributeArray(env, jTemplate, &ckpAttributes, &ckAttributesLength, jUseUtf8)) { return; }
+	if (jAttributeArrayToCKAttributeArray(env, jTemplate, &ckpAttributes, &ckAttributesLength, jUseUtf8)) { return ckULongToJLong(CKR_GENERAL_ERROR); }
 	TRACE2(tag_debug, __FUNCTION__,"jAttributeArrayToCKAttributeArray finished with ckpAttribute = %p, Length = %ld\n", ckpAttributes, ckAttributesLength);
 
 	/* first set all pValue to NULL_PTR, to get the needed buffer length */
@@ -1345,16 +1663,17 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Get
 		ckpAttributes[i].pValue = NULL_PTR;
 	}
 	TRACE0(tag_debug, __FUNCTION__, "- going to get buffer sizes");
-	rv = (*ckpFunctions->C_GetAttributeValue)(ckSessionHandle, ckObjectHandle, ckpAttributes, ckAttributesLength);
-	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) {
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_GetAttributeValue)(ckSessionHandle, ckObjectHandle, ckpAttributes, ckAttributesLength));
+	if(ckCheckReturnValue(env, rv, jThrowException, __FUNCTION__) != CK_ASSERT_OK) {
 		for (i = 0; i < ckAttributesLength; i++) {
 		  if(ckpAttributes[i].pValue != NULL_PTR) {
 			free(ckpAttributes[i].pValue);
 		  }
 		}
 		free(ckpAttributes);
+		STOP_CALL_TIMER(timer);
 		TRACE0(tag_call, __FUNCTION__, "exiting ");
-		return ;
+		return ckULongToJLong(rv);
 	}
 
 	for (i = 0; i < ckAttributesLength; i++) {
@@ -1378,13 +1697,15 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Get
 				free(ckpAttributes);
 				if (signedLength == -1){
 					rv = 0x12;
-					ckAssertReturnValueOK(env, rv, __FUNCTION__);
+					ckCheckReturnValue(env, rv, jThrowException, __FUNCTION__);
+				  STOP_CALL_TIMER(timer);
 				  TRACE0(tag_call, __FUNCTION__, "exiting ");
-					return ;
+					return ckULongToJLong(rv);
 				}
 				throwOutOfMemoryError(env); 
+			  STOP_CALL_TIMER(timer);
 			  TRACE0(tag_call, __FUNCTION__, "exiting ");
-				return ;
+				return ckULongToJLong(CKR_HOST_MEMORY);
 			}
 
 			// initialize array to hold NULL_PTRs
@@ -1398,16 +1719,17 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Get
 
 	// get ulValueLen of the attributes of a CKF_ARRAY_ATTRIBUTE if present
 	TRACE0(tag_debug, __FUNCTION__, "- going to get buffer sizes of nested CKF_ARRAY_ATTRIBUTE if present");
-	rv = (*ckpFunctions->C_GetAttributeValue)(ckSessionHandle, ckObjectHandle, ckpAttributes, ckAttributesLength);
-	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) {
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_GetAttributeValue)(ckSessionHandle, ckObjectHandle, ckpAttributes, ckAttributesLength));
+	if(ckCheckReturnValue(env, rv, jThrowException, __FUNCTION__) != CK_ASSERT_OK) {
 		for (i = 0; i < ckAttributesLength; i++) {
 			if(ckpAttributes[i].pValue != NULL_PTR) {
 				free(ckpAttributes[i].pValue);
 			}
 		}
 		free(ckpAttributes);
+	  STOP_CALL_TIMER(timer);
 	  TRACE0(tag_call, __FUNCTION__, "exiting ");
-		return ;
+		return ckULongToJLong(rv);
 	}
 
 	/* now, the ulValueLength field of each attribute should hold the exact buffer length needed
@@ -1481,21 +1803,23 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Get
 			free(ckpAttributes);
 			if (error == 2){
 				rv = 0x12;
-				ckAssertReturnValueOK(env, rv, __FUNCTION__);
+				ckCheckReturnValue(env, rv, jThrowException, __FUNCTION__);
+			  STOP_CALL_TIMER(timer);
 			  TRACE0(tag_call, __FUNCTION__, "exiting ");
-				return ;
+				return ckULongToJLong(rv);
 			}
 			throwOutOfMemoryError(env); 
+		  STOP_CALL_TIMER(timer);
 		  TRACE0(tag_call, __FUNCTION__, "exiting ");
-			return ;
+			return ckULongToJLong(CKR_HOST_MEMORY);
 		}
 	}
 
 	/* now get the attributes with all values */
 	TRACE0(tag_debug, __FUNCTION__, "- going to get all values");
-	rv = (*ckpFunctions->C_GetAttributeValue)(ckSessionHandle, ckObjectHandle, ckpAttributes, ckAttributesLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_GetAttributeValue)(ckSessionHandle, ckObjectHandle, ckpAttributes, ckAttributesLength));
     TRACE0(tag_info, __FUNCTION__,"done");
-  if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
+  if(ckCheckReturnValue(env, rv, jThrowException, __FUNCTION__) == CK_ASSERT_OK)
   {
     /* copy back the values to the Java attributes */
     for (i = 0; i < ckAttributesLength; i++) {
@@ -1519,7 +1843,43 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Get
 		}
 	}
 	free(ckpAttributes);
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
+	return ckULongToJLong(rv);
+}
+
+/*
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    C_GetAttributeValue
+ * Signature: (JJ[Liaik/pkcs/pkcs11/wrapper/CK_ATTRIBUTE;Z)V
+ * Parametermapping:                    *PKCS11*
+ * @param   jlong jSessionHandle        CK_SESSION_HANDLE hSession
+ * @param   jlong jObjectHandle         CK_OBJECT_HANDLE hObject
+ * @param   jobjectArray jTemplate      CK_ATTRIBUTE_PTR pTemplate
+ *                                      CK_ULONG ulCount
+ */
+JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1GetAttributeValue
+  (JNIEnv *env, jobject obj, jlong jSessionHandle, jlong jObjectHandle, jobjectArray jTemplate, jboolean jUseUtf8)
+{
+	getAttributeValue(env, obj, jSessionHandle, jObjectHandle, jTemplate, jUseUtf8, JNI_TRUE);
+}
+
+/*
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    getAttributeValue
+ * Signature: (JJ[Liaik/pkcs/pkcs11/wrapper/CK_ATTRIBUTE;Z)J
+ * Like C_GetAttributeValue, but returns the return value of the module instead
+ * of throwing a PKCS11Exception.
+ * @param   jlong jSessionHandle        CK_SESSION_HANDLE hSession
+ * @param   jlong jObjectHandle         CK_OBJECT_HANDLE hObject
+ * @param   jobjectArray jTemplate      CK_ATTRIBUTE_PTR pTemplate
+ *                                      CK_ULONG ulCount
+ * @return  jlong                       CK_RV
+ */
+JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_getAttributeValue
+  (JNIEnv *env, jobject obj, jlong jSessionHandle, jlong jObjectHandle, jobjectArray jTemplate, jboolean jUseUtf8)
+{
+	return getAttributeValue(env, obj, jSessionHandle, jObjectHandle, jTemplate, jUseUtf8, JNI_FALSE);
 }
 
 /*
@@ -1535,6 +1895,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Get
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1SetAttributeValue
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jlong jObjectHandle, jobjectArray jTemplate, jboolean jUseUtf8)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_OBJECT_HANDLE ckObjectHandle;
 	CK_ATTRIBUTE_PTR ckpAttributes = NULL_PTR, ckAttributeArray;
@@ -1545,6 +1906,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Set
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_SET_ATTRIBUTE_VALUE);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -1555,7 +1917,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Set
 	ckObjectHandle = jLongToCKULong(jObjectHandle);
 	jAttributeArrayToCKAttributeArray(env, jTemplate, &ckpAttributes, &ckAttributesLength, jUseUtf8);
 
-	rv = (*ckpFunctions->C_SetAttributeValue)(ckSessionHandle, ckObjectHandle, ckpAttributes, ckAttributesLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_SetAttributeValue)(ckSessionHandle, ckObjectHandle, ckpAttributes, ckAttributesLength));
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
 	for(i=0; i<ckAttributesLength; i++) {
@@ -1572,6 +1934,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Set
 	}
 	free(ckpAttributes);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -1587,6 +1950,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Set
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1FindObjectsInit
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jobjectArray jTemplate, jboolean jUseUtf8)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_ATTRIBUTE_PTR ckpAttributes = NULL_PTR, ckAttributeArray;
 	CK_ULONG ckAttributesLength;
@@ -1596,6 +1960,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Fin
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_FIND_OBJECTS_INIT);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -1607,7 +1972,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Fin
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 	if (jAttributeArrayToCKAttributeArray(env, jTemplate, &ckpAttributes, &ckAttributesLength, jUseUtf8)) { return; }
 
-	rv = (*ckpFunctions->C_FindObjectsInit)(ckSessionHandle, ckpAttributes, ckAttributesLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_FindObjectsInit)(ckSessionHandle, ckpAttributes, ckAttributesLength));
 	ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
 	for(i=0; i<ckAttributesLength; i++) {
@@ -1624,6 +1989,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Fin
 	}
 	free(ckpAttributes);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -1640,6 +2006,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Fin
 JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1FindObjects
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jlong jMaxObjectCount)
 {
+  CallTimer timer;
 	CK_RV rv;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_ULONG ckMaxObjectLength;
@@ -1650,6 +2017,7 @@ JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_FIND_OBJECTS);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -1661,7 +2029,7 @@ JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	ckpObjectHandleArray = (CK_OBJECT_HANDLE_PTR) malloc(sizeof(CK_OBJECT_HANDLE) * ckMaxObjectLength);
   if (ckpObjectHandleArray == NULL_PTR && ckMaxObjectLength!=0) { throwOutOfMemoryError(env); return NULL_PTR; }
 
-	rv = (*ckpFunctions->C_FindObjects)(ckSessionHandle, ckpObjectHandleArray, ckMaxObjectLength, &ckActualObjectCount);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_FindObjects)(ckSessionHandle, ckpObjectHandleArray, ckMaxObjectLength, &ckActualObjectCount));
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK) {
     TRACE3(tag_debug, __FUNCTION__, "got ArrayHandle %p limited to %lu entries having %lu entries", ckpObjectHandleArray, ckMaxObjectLength, ckActualObjectCount);
     jObjectHandleArray = ckULongArrayToJLongArray(env, ckpObjectHandleArray, ckActualObjectCount);
@@ -1671,6 +2039,7 @@ JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 
   free(ckpObjectHandleArray);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jObjectHandleArray ;
 }
@@ -1685,12 +2054,14 @@ JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1FindObjectsFinal
   (JNIEnv *env, jobject obj, jlong jSessionHandle)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_RV rv;
   ModuleData *moduleData;
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_FIND_OBJECTS_FINAL);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -1698,9 +2069,10 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Fin
   if (ckpFunctions == NULL_PTR) { return; }
 
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
-	rv = (*ckpFunctions->C_FindObjectsFinal)(ckSessionHandle);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_FindObjectsFinal)(ckSessionHandle));
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -1716,6 +2088,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Fin
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1EncryptInit
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jobject jMechanism, jlong jKeyHandle, jboolean jUseUtf8)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_MECHANISM ckMechanism;
 	CK_OBJECT_HANDLE ckKeyHandle;
@@ -1724,6 +2097,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Enc
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_ENCRYPT_INIT);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -1734,13 +2108,14 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Enc
 	ckKeyHandle = jLongToCKULong(jKeyHandle);
 	ckMechanism = jMechanismToCKMechanism(env, jMechanism, jUseUtf8);
 
-	rv = (*ckpFunctions->C_EncryptInit)(ckSessionHandle, &ckMechanism, ckKeyHandle);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_EncryptInit)(ckSessionHandle, &ckMechanism, ckKeyHandle));
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
 	if(ckMechanism.pParameter != NULL_PTR) {
 		freeCKMechanismParameter(&ckMechanism);
 	}
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -1758,6 +2133,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Enc
 JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Encrypt
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jbyteArray jData)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpData = NULL_PTR, ckpEncryptedData;
 	CK_ULONG ckDataLength, ckEncryptedDataLength = 0;
@@ -1767,6 +2143,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_ENCRYPT);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -1778,7 +2155,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	if (jByteArrayToCKByteArray(env, jData, &ckpData, &ckDataLength)) { return NULL_PTR; }
  
 	/* call C_Encrypt to determine DataLength */
-	rv = (*ckpFunctions->C_Encrypt)(ckSessionHandle, ckpData, ckDataLength, NULL_PTR, &ckEncryptedDataLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_Encrypt)(ckSessionHandle, ckpData, ckDataLength, NULL_PTR, &ckEncryptedDataLength));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
 
 	/* allocate memory for Data */
@@ -1786,7 +2163,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   if (ckpEncryptedData == NULL_PTR && ckEncryptedDataLength!=0) { free(ckpEncryptedData); throwOutOfMemoryError(env); return NULL_PTR; }
 
 	/* call C_Encrypt */
-	rv = (*ckpFunctions->C_Encrypt)(ckSessionHandle, ckpData, ckDataLength, ckpEncryptedData, &ckEncryptedDataLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_Encrypt)(ckSessionHandle, ckpData, ckDataLength, ckpEncryptedData, &ckEncryptedDataLength));
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
     /* convert ckTypes to jTypes */
     jEncryptedData = ckByteArrayToJByteArray(env, ckpEncryptedData, ckEncryptedDataLength);
@@ -1796,6 +2173,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	free(ckpData);
 	free(ckpEncryptedData);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 
 	return jEncryptedData ;
@@ -1815,6 +2193,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1EncryptUpdate
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jbyteArray jPart)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpPart = NULL_PTR, ckpEncryptedPart;
 	CK_ULONG ckPartLength, ckEncryptedPartLength = 0;
@@ -1824,6 +2203,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_ENCRYPT_UPDATE);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -1833,13 +2213,13 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 	if (jByteArrayToCKByteArray(env, jPart, &ckpPart, &ckPartLength)) { return NULL_PTR; }
 
-	rv = (*ckpFunctions->C_EncryptUpdate)(ckSessionHandle, ckpPart, ckPartLength, NULL_PTR, &ckEncryptedPartLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_EncryptUpdate)(ckSessionHandle, ckpPart, ckPartLength, NULL_PTR, &ckEncryptedPartLength));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
 
 	ckpEncryptedPart = (CK_BYTE_PTR) malloc(ckEncryptedPartLength * sizeof(CK_BYTE));
   if (ckpEncryptedPart == NULL_PTR && ckEncryptedPartLength!=0) { free(ckpEncryptedPart); throwOutOfMemoryError(env); return NULL_PTR; }
 
-	rv = (*ckpFunctions->C_EncryptUpdate)(ckSessionHandle, ckpPart, ckPartLength, ckpEncryptedPart, &ckEncryptedPartLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_EncryptUpdate)(ckSessionHandle, ckpPart, ckPartLength, ckpEncryptedPart, &ckEncryptedPartLength));
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
     jEncryptedPart = ckByteArrayToJByteArray(env, ckpEncryptedPart, ckEncryptedPartLength);
   else
@@ -1848,6 +2228,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	free(ckpPart);
 	free(ckpEncryptedPart);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jEncryptedPart ;
 }
@@ -1864,6 +2245,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1EncryptFinal
   (JNIEnv *env, jobject obj, jlong jSessionHandle)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpLastEncryptedPart;
 	CK_ULONG ckLastEncryptedPartLength = 0;
@@ -1873,6 +2255,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_ENCRYPT_FINAL);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -1881,13 +2264,13 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 
-	rv = (*ckpFunctions->C_EncryptFinal)(ckSessionHandle, NULL_PTR, &ckLastEncryptedPartLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_EncryptFinal)(ckSessionHandle, NULL_PTR, &ckLastEncryptedPartLength));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
 
 	ckpLastEncryptedPart = (CK_BYTE_PTR) malloc(ckLastEncryptedPartLength * sizeof(CK_BYTE));
   if (ckpLastEncryptedPart == NULL_PTR && ckLastEncryptedPartLength!=0) { throwOutOfMemoryError(env); return NULL_PTR; }
 
-	rv = (*ckpFunctions->C_EncryptFinal)(ckSessionHandle, ckpLastEncryptedPart, &ckLastEncryptedPartLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_EncryptFinal)(ckSessionHandle, ckpLastEncryptedPart, &ckLastEncryptedPartLength));
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
     jLastEncryptedPart = ckByteArrayToJByteArray(env, ckpLastEncryptedPart, ckLastEncryptedPartLength);
   else
@@ -1895,6 +2278,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 
 	free(ckpLastEncryptedPart);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 
 	return jLastEncryptedPart ;
@@ -1912,6 +2296,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1DecryptInit
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jobject jMechanism, jlong jKeyHandle, jboolean jUseUtf8)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_MECHANISM ckMechanism;
 	CK_OBJECT_HANDLE ckKeyHandle;
@@ -1920,6 +2305,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Dec
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_DECRYPT_INIT);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -1930,13 +2316,14 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Dec
 	ckKeyHandle = jLongToCKULong(jKeyHandle);
 	ckMechanism = jMechanismToCKMechanism(env, jMechanism, jUseUtf8);
 
-	rv = (*ckpFunctions->C_DecryptInit)(ckSessionHandle, &ckMechanism, ckKeyHandle);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_DecryptInit)(ckSessionHandle, &ckMechanism, ckKeyHandle));
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
 	if(ckMechanism.pParameter != NULL_PTR) {
 		freeCKMechanismParameter(&ckMechanism);
 	}
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -1954,6 +2341,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Dec
 JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Decrypt
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jbyteArray jEncryptedData)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpData, ckpEncryptedData = NULL_PTR;
 	CK_ULONG ckDataLength = 0, ckEncryptedDataLength;
@@ -1963,6 +2351,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_DECRYPT);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -1974,7 +2363,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	if (jByteArrayToCKByteArray(env, jEncryptedData, &ckpEncryptedData, &ckEncryptedDataLength)) { return NULL_PTR; }
 
 	/* call C_Decrypt to determine DataLength */
-	rv = (*ckpFunctions->C_Decrypt)(ckSessionHandle, ckpEncryptedData, ckEncryptedDataLength, NULL_PTR, &ckDataLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_Decrypt)(ckSessionHandle, ckpEncryptedData, ckEncryptedDataLength, NULL_PTR, &ckDataLength));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR; }
 
 	/* allocate memory for Data */
@@ -1982,7 +2371,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   if (ckpData == NULL_PTR && ckDataLength!=0) { free(ckpEncryptedData); throwOutOfMemoryError(env); return NULL_PTR; }
 
 	/* call C_Decrypt */
-	rv = (*ckpFunctions->C_Decrypt)(ckSessionHandle, ckpEncryptedData, ckEncryptedDataLength, ckpData, &ckDataLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_Decrypt)(ckSessionHandle, ckpEncryptedData, ckEncryptedDataLength, ckpData, &ckDataLength));
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
     /* convert ckTypes to jTypes */
     jData = ckByteArrayToJByteArray(env, ckpData, ckDataLength);
@@ -1992,6 +2381,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	free(ckpData);
 	free(ckpEncryptedData);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jData ;
 }
@@ -2010,6 +2400,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1DecryptUpdate
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jbyteArray jEncryptedPart)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpPart, ckpEncryptedPart = NULL_PTR;
 	CK_ULONG ckPartLength = 0, ckEncryptedPartLength;
@@ -2019,6 +2410,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_DECRYPT_UPDATE);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -2028,13 +2420,13 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 	if (jByteArrayToCKByteArray(env, jEncryptedPart, &ckpEncryptedPart, &ckEncryptedPartLength)) { return NULL_PTR; }
 
-	rv = (*ckpFunctions->C_DecryptUpdate)(ckSessionHandle, ckpEncryptedPart, ckEncryptedPartLength, NULL_PTR, &ckPartLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_DecryptUpdate)(ckSessionHandle, ckpEncryptedPart, ckEncryptedPartLength, NULL_PTR, &ckPartLength));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
 
 	ckpPart = (CK_BYTE_PTR) malloc(ckPartLength * sizeof(CK_BYTE));
   if (ckpPart == NULL_PTR && ckPartLength!=0) { free(ckpEncryptedPart); throwOutOfMemoryError(env); return NULL_PTR; }
 
-	rv = (*ckpFunctions->C_DecryptUpdate)(ckSessionHandle, ckpEncryptedPart, ckEncryptedPartLength, ckpPart, &ckPartLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_DecryptUpdate)(ckSessionHandle, ckpEncryptedPart, ckEncryptedPartLength, ckpPart, &ckPartLength));
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
     jPart = ckByteArrayToJByteArray(env, ckpPart, ckPartLength);
   else
@@ -2043,6 +2435,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	free(ckpPart);
 	free(ckpEncryptedPart);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jPart ; 
 }
@@ -2059,6 +2452,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1DecryptFinal
   (JNIEnv *env, jobject obj, jlong jSessionHandle)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpLastPart;
 	CK_ULONG ckLastPartLength = 0;
@@ -2068,6 +2462,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_DECRYPT_FINAL);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -2076,13 +2471,13 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 
-	rv = (*ckpFunctions->C_DecryptFinal)(ckSessionHandle, NULL_PTR, &ckLastPartLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_DecryptFinal)(ckSessionHandle, NULL_PTR, &ckLastPartLength));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
 
 	ckpLastPart = (CK_BYTE_PTR) malloc(ckLastPartLength * sizeof(CK_BYTE));
   if (ckpLastPart == NULL_PTR && ckLastPartLength !=0) { throwOutOfMemoryError(env); return NULL_PTR; }
 
-	rv = (*ckpFunctions->C_DecryptFinal)(ckSessionHandle, ckpLastPart, &ckLastPartLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_DecryptFinal)(ckSessionHandle, ckpLastPart, &ckLastPartLength));
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
     jLastPart = ckByteArrayToJByteArray(env, ckpLastPart, ckLastPartLength);
   else
@@ -2090,6 +2485,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 
 	free(ckpLastPart);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jLastPart ;
 }
@@ -2105,6 +2501,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1DigestInit
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jobject jMechanism, jboolean jUseUtf8)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_MECHANISM ckMechanism;
 	CK_SSL3_KEY_MAT_PARAMS_PTR ckpParam;
@@ -2113,6 +2510,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Dig
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_DIGEST_INIT);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -2123,13 +2521,14 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Dig
 	ckMechanism = jMechanismToCKMechanism(env, jMechanism, jUseUtf8);
 	ckpParam = ckMechanism.pParameter;
 
-	rv = (*ckpFunctions->C_DigestInit)(ckSessionHandle, &ckMechanism);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_DigestInit)(ckSessionHandle, &ckMechanism));
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
 	if(ckMechanism.pParameter != NULL_PTR) {
 		freeCKMechanismParameter(&ckMechanism);
 	}
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -2147,6 +2546,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Dig
 JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Digest
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jbyteArray jData)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpData = NULL_PTR, ckpDigest;
 	CK_ULONG ckDataLength, ckDigestLength = 0;
@@ -2156,6 +2556,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_DIGEST);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -2167,7 +2568,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	if (jByteArrayToCKByteArray(env, jData, &ckpData, &ckDataLength)) { return NULL_PTR; }
 
 	/* call C_Encrypt to determine DataLength */
-	rv = (*ckpFunctions->C_Digest)(ckSessionHandle, ckpData, ckDataLength, NULL_PTR, &ckDigestLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_Digest)(ckSessionHandle, ckpData, ckDataLength, NULL_PTR, &ckDigestLength));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
 
 	/* allocate memory for Data */
@@ -2175,7 +2576,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   if (ckpDigest == NULL_PTR && ckDigestLength!=0) { free(ckpDigest); throwOutOfMemoryError(env); return NULL_PTR; }
 
 	/* call C_Encrypt */
-	rv = (*ckpFunctions->C_Digest)(ckSessionHandle, ckpData, ckDataLength, ckpDigest, &ckDigestLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_Digest)(ckSessionHandle, ckpData, ckDataLength, ckpDigest, &ckDigestLength));
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
     /* convert ckTypes to jTypes */
     jDigest = ckByteArrayToJByteArray(env, ckpDigest, ckDigestLength);
@@ -2185,6 +2586,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	free(ckpData);
 	free(ckpDigest);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jDigest ;
 }
@@ -2201,6 +2603,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1DigestUpdate
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jbyteArray jPart)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpPart = NULL_PTR;
 	CK_ULONG ckPartLength;
@@ -2209,6 +2612,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Dig
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_DIGEST_UPDATE);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -2219,11 +2623,12 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Dig
 
   jByteArrayToCKByteArray(env, jPart, &ckpPart, &ckPartLength);
 
-	rv = (*ckpFunctions->C_DigestUpdate)(ckSessionHandle, ckpPart, ckPartLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_DigestUpdate)(ckSessionHandle, ckpPart, ckPartLength));
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
 	free(ckpPart);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -2238,6 +2643,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Dig
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1DigestKey
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jlong jKeyHandle)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_ULONG ckKeyHandle;
 	CK_RV rv;
@@ -2245,6 +2651,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Dig
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_DIGEST_KEY);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -2254,9 +2661,10 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Dig
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 	ckKeyHandle = jLongToCKULong(jKeyHandle);
 
-	rv = (*ckpFunctions->C_DigestKey)(ckSessionHandle, ckKeyHandle);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_DigestKey)(ckSessionHandle, ckKeyHandle));
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -2272,6 +2680,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Dig
 JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1DigestFinal
   (JNIEnv *env, jobject obj, jlong jSessionHandle)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpDigest;
 	CK_ULONG ckDigestLength = 0;
@@ -2281,6 +2690,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_DIGEST_FINAL);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -2289,19 +2699,20 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 
-	rv = (*ckpFunctions->C_DigestFinal)(ckSessionHandle, NULL_PTR, &ckDigestLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_DigestFinal)(ckSessionHandle, NULL_PTR, &ckDigestLength));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
 
 	ckpDigest = (CK_BYTE_PTR) malloc(ckDigestLength * sizeof(CK_BYTE));
   if (ckpDigest == NULL_PTR && ckDigestLength!=0) { throwOutOfMemoryError(env); return NULL_PTR; }
   
-	rv = (*ckpFunctions->C_DigestFinal)(ckSessionHandle, ckpDigest, &ckDigestLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_DigestFinal)(ckSessionHandle, ckpDigest, &ckDigestLength));
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
     jDigest = ckByteArrayToJByteArray(env, ckpDigest, ckDigestLength);
   else
     jDigest = NULL_PTR;
 
 	free(ckpDigest);
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 
 	return jDigest ;
@@ -2319,6 +2730,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1SignInit
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jobject jMechanism, jlong jKeyHandle, jboolean jUseUtf8)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_MECHANISM ckMechanism;
 	CK_OBJECT_HANDLE ckKeyHandle;
@@ -2327,6 +2739,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Sig
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_SIGN_INIT);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -2337,13 +2750,14 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Sig
 	ckMechanism = jMechanismToCKMechanism(env, jMechanism, jUseUtf8);
 	ckKeyHandle = jLongToCKULong(jKeyHandle);
 
-	rv = (*ckpFunctions->C_SignInit)(ckSessionHandle, &ckMechanism, ckKeyHandle);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_SignInit)(ckSessionHandle, &ckMechanism, ckKeyHandle));
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
 	if(ckMechanism.pParameter != NULL_PTR) {
 		freeCKMechanismParameter(&ckMechanism);
 	}
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -2361,6 +2775,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Sig
 JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Sign
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jbyteArray jData)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpData = NULL_PTR;
 	CK_BYTE_PTR ckpSignature;
@@ -2372,6 +2787,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_SIGN);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -2385,14 +2801,14 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   /* START standard code * /
 
 	/* first determine the length of the signature * /
-	rv = (*ckpFunctions->C_Sign)(ckSessionHandle, ckpData, ckDataLength, NULL_PTR, &ckSignatureLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_Sign)(ckSessionHandle, ckpData, ckDataLength, NULL_PTR, &ckSignatureLength));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
 
 	ckpSignature = (CK_BYTE_PTR) malloc(ckSignatureLength * sizeof(CK_BYTE));
   if (ckpSignature == NULL_PTR  && ckSignatureLength!=0) { free(ckpData); throwOutOfMemoryError(env); return NULL_PTR; }
 
   /* now get the signature * /
-	rv = (*ckpFunctions->C_Sign)(ckSessionHandle, ckpData, ckDataLength, ckpSignature, &ckSignatureLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_Sign)(ckSessionHandle, ckpData, ckDataLength, ckpSignature, &ckSignatureLength));
  /* END standard code * /
  */
 
@@ -2401,13 +2817,13 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   ckSignatureLength = 512;
 	ckpSignature = (CK_BYTE_PTR) malloc(ckSignatureLength * sizeof(CK_BYTE));
   if (ckpSignature == NULL_PTR && ckSignatureLength!=0) { free(ckpData); throwOutOfMemoryError(env); return NULL_PTR; }
-	rv = (*ckpFunctions->C_Sign)(ckSessionHandle, ckpData, ckDataLength, ckpSignature, &ckSignatureLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_Sign)(ckSessionHandle, ckpData, ckDataLength, ckpSignature, &ckSignatureLength));
   
   if (rv == CKR_BUFFER_TOO_SMALL) {
     free(ckpSignature);
 	  ckpSignature = (CK_BYTE_PTR) malloc(ckSignatureLength * sizeof(CK_BYTE));
     if (ckpSignature == NULL_PTR && ckSignatureLength!=0) { free(ckpData); throwOutOfMemoryError(env); return NULL_PTR; }
-	  rv = (*ckpFunctions->C_Sign)(ckSessionHandle, ckpData, ckDataLength, ckpSignature, &ckSignatureLength);
+	  TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_Sign)(ckSessionHandle, ckpData, ckDataLength, ckpSignature, &ckSignatureLength));
   }
   /* END workaround code */
 
@@ -2419,6 +2835,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	free(ckpData);
 	free(ckpSignature);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jSignature ;
 }
@@ -2435,6 +2852,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1SignUpdate
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jbyteArray jPart)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpPart = NULL_PTR;
 	CK_ULONG ckPartLength;
@@ -2443,6 +2861,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Sig
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_SIGN_UPDATE);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -2452,11 +2871,12 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Sig
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 	if (jByteArrayToCKByteArray(env, jPart, &ckpPart, &ckPartLength)) { return; }
 
-	rv = (*ckpFunctions->C_SignUpdate)(ckSessionHandle, ckpPart, ckPartLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_SignUpdate)(ckSessionHandle, ckpPart, ckPartLength));
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
 	free(ckpPart);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -2472,6 +2892,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Sig
 JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1SignFinal
   (JNIEnv *env, jobject obj, jlong jSessionHandle)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpSignature;
 	CK_ULONG ckSignatureLength = 0;
@@ -2481,6 +2902,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_SIGN_FINAL);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -2490,14 +2912,14 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 
 	/* first determine the length of the signature */
-	rv = (*ckpFunctions->C_SignFinal)(ckSessionHandle, NULL_PTR, &ckSignatureLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_SignFinal)(ckSessionHandle, NULL_PTR, &ckSignatureLength));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
 
 	ckpSignature = (CK_BYTE_PTR) malloc(ckSignatureLength * sizeof(CK_BYTE));
   if (ckpSignature == NULL_PTR && ckSignatureLength!=0) { throwOutOfMemoryError(env); return NULL_PTR; }
 
 	/* now get the signature */
-	rv = (*ckpFunctions->C_SignFinal)(ckSessionHandle, ckpSignature, &ckSignatureLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_SignFinal)(ckSessionHandle, ckpSignature, &ckSignatureLength));
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
     jSignature = ckByteArrayToJByteArray(env, ckpSignature, ckSignatureLength);
   else
@@ -2505,6 +2927,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 
 	free(ckpSignature);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jSignature ;
 }
@@ -2521,6 +2944,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1SignRecoverInit
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jobject jMechanism, jlong jKeyHandle, jboolean jUseUtf8)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_MECHANISM ckMechanism;
 	CK_OBJECT_HANDLE ckKeyHandle;
@@ -2529,6 +2953,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Sig
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_SIGN_RECOVER_INIT);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -2539,13 +2964,14 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Sig
 	ckMechanism = jMechanismToCKMechanism(env, jMechanism, jUseUtf8);
 	ckKeyHandle = jLongToCKULong(jKeyHandle);
 
-	rv = (*ckpFunctions->C_SignRecoverInit)(ckSessionHandle, &ckMechanism, ckKeyHandle);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_SignRecoverInit)(ckSessionHandle, &ckMechanism, ckKeyHandle));
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
 	if(ckMechanism.pParameter != NULL_PTR) {
 		freeCKMechanismParameter(&ckMechanism);
 	}
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -2563,6 +2989,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Sig
 JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1SignRecover
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jbyteArray jData)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpData = NULL_PTR;
 	CK_BYTE_PTR ckpSignature;
@@ -2574,6 +3001,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_SIGN_RECOVER);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -2584,14 +3012,14 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	if (jByteArrayToCKByteArray(env, jData, &ckpData, &ckDataLength)) { return NULL_PTR; }
 
 	/* first determine the length of the signature */
-	rv = (*ckpFunctions->C_SignRecover)(ckSessionHandle, ckpData, ckDataLength, NULL_PTR, &ckSignatureLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_SignRecover)(ckSessionHandle, ckpData, ckDataLength, NULL_PTR, &ckSignatureLength));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
 
 	ckpSignature = (CK_BYTE_PTR) malloc(ckSignatureLength * sizeof(CK_BYTE));
   if (ckpSignature == NULL_PTR && ckSignatureLength!=0) { free(ckpData); throwOutOfMemoryError(env); return NULL_PTR; }
 
 	/* now get the signature */
-	rv = (*ckpFunctions->C_SignRecover)(ckSessionHandle, ckpData, ckDataLength, ckpSignature, &ckSignatureLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_SignRecover)(ckSessionHandle, ckpData, ckDataLength, ckpSignature, &ckSignatureLength));
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
     jSignature = ckByteArrayToJByteArray(env, ckpSignature, ckSignatureLength);
   else
@@ -2600,6 +3028,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	free(ckpData);
 	free(ckpSignature);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jSignature ;
 }
@@ -2616,6 +3045,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1VerifyInit
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jobject jMechanism, jlong jKeyHandle, jboolean jUseUtf8)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_MECHANISM ckMechanism;
 	CK_OBJECT_HANDLE ckKeyHandle;
@@ -2625,6 +3055,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ver
 
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_VERIFY_INIT);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -2635,13 +3066,14 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ver
 	ckMechanism = jMechanismToCKMechanism(env, jMechanism, jUseUtf8);
 	ckKeyHandle = jLongToCKULong(jKeyHandle);
 
-	rv = (*ckpFunctions->C_VerifyInit)(ckSessionHandle, &ckMechanism, ckKeyHandle);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_VerifyInit)(ckSessionHandle, &ckMechanism, ckKeyHandle));
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
 	if(ckMechanism.pParameter != NULL_PTR) {
 		freeCKMechanismParameter(&ckMechanism);
 	}
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -2659,6 +3091,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ver
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Verify
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jbyteArray jData, jbyteArray jSignature)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpData = NULL_PTR;
 	CK_BYTE_PTR ckpSignature = NULL_PTR;
@@ -2669,6 +3102,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ver
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_VERIFY);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -2680,12 +3114,13 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ver
 	if (jByteArrayToCKByteArray(env, jSignature, &ckpSignature, &ckSignatureLength)) { return; }
 
 	/* verify the signature */
-	rv = (*ckpFunctions->C_Verify)(ckSessionHandle, ckpData, ckDataLength, ckpSignature, ckSignatureLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_Verify)(ckSessionHandle, ckpData, ckDataLength, ckpSignature, ckSignatureLength));
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
 	free(ckpData);
 	free(ckpSignature);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -2701,6 +3136,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ver
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1VerifyUpdate
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jbyteArray jPart)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpPart = NULL_PTR;
 	CK_ULONG ckPartLength;
@@ -2709,6 +3145,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ver
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_VERIFY_UPDATE);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -2718,11 +3155,12 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ver
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 	if (jByteArrayToCKByteArray(env, jPart, &ckpPart, &ckPartLength)) { return; }
 
-	rv = (*ckpFunctions->C_VerifyUpdate)(ckSessionHandle, ckpPart, ckPartLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_VerifyUpdate)(ckSessionHandle, ckpPart, ckPartLength));
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
 	free(ckpPart);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -2738,6 +3176,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ver
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1VerifyFinal
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jbyteArray jSignature)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpSignature = NULL_PTR;
 	CK_ULONG ckSignatureLength;
@@ -2746,6 +3185,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ver
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_VERIFY_FINAL);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -2756,11 +3196,12 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ver
 	if (jByteArrayToCKByteArray(env, jSignature, &ckpSignature, &ckSignatureLength)) { return; }
 
 	/* verify the signature */
-	rv = (*ckpFunctions->C_VerifyFinal)(ckSessionHandle, ckpSignature, ckSignatureLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_VerifyFinal)(ckSessionHandle, ckpSignature, ckSignatureLength));
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
 	free(ckpSignature);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -2776,6 +3217,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ver
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1VerifyRecoverInit
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jobject jMechanism, jlong jKeyHandle, jboolean jUseUtf8)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_MECHANISM ckMechanism;
 	CK_OBJECT_HANDLE ckKeyHandle;
@@ -2784,6 +3226,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ver
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_VERIFY_RECOVER_INIT);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -2794,13 +3237,14 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ver
 	ckMechanism = jMechanismToCKMechanism(env, jMechanism, jUseUtf8);
 	ckKeyHandle = jLongToCKULong(jKeyHandle);
 
-	rv = (*ckpFunctions->C_VerifyRecoverInit)(ckSessionHandle, &ckMechanism, ckKeyHandle);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_VerifyRecoverInit)(ckSessionHandle, &ckMechanism, ckKeyHandle));
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
 	if(ckMechanism.pParameter != NULL_PTR) {
 		freeCKMechanismParameter(&ckMechanism);
 	}
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -2818,6 +3262,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ver
 JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1VerifyRecover
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jbyteArray jSignature)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpData;
 	CK_BYTE_PTR ckpSignature = NULL_PTR;
@@ -2829,6 +3274,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_VERIFY_RECOVER);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -2839,14 +3285,14 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	if (jByteArrayToCKByteArray(env, jSignature, &ckpSignature, &ckSignatureLength)) { return NULL_PTR; }
 
 	/* first determine the length of the signature */
-	rv = (*ckpFunctions->C_VerifyRecover)(ckSessionHandle, ckpSignature, ckSignatureLength, NULL_PTR, &ckDataLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_VerifyRecover)(ckSessionHandle, ckpSignature, ckSignatureLength, NULL_PTR, &ckDataLength));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
 
 	ckpData = (CK_BYTE_PTR) malloc(ckDataLength * sizeof(CK_BYTE));
   if (ckpData == NULL_PTR && ckDataLength!=0) { free(ckpSignature); throwOutOfMemoryError(env); return NULL_PTR; }
 
 	/* now get the signature */
-	rv = (*ckpFunctions->C_VerifyRecover)(ckSessionHandle, ckpSignature, ckSignatureLength, ckpData, &ckDataLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_VerifyRecover)(ckSessionHandle, ckpSignature, ckSignatureLength, ckpData, &ckDataLength));
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
     jData = ckByteArrayToJByteArray(env, ckpData, ckDataLength);
   else
@@ -2855,6 +3301,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	free(ckpData);
 	free(ckpSignature);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jData ;
 }
@@ -2873,6 +3320,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1DigestEncryptUpdate
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jbyteArray jPart)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpPart = NULL_PTR, ckpEncryptedPart;
 	CK_ULONG ckPartLength, ckEncryptedPartLength = 0;
@@ -2882,6 +3330,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_DIGEST_ENCRYPT_UPDATE);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -2891,13 +3340,13 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 	if (jByteArrayToCKByteArray(env, jPart, &ckpPart, &ckPartLength)) { return NULL_PTR; }
 
-	rv = (*ckpFunctions->C_DigestEncryptUpdate)(ckSessionHandle, ckpPart, ckPartLength, NULL_PTR, &ckEncryptedPartLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_DigestEncryptUpdate)(ckSessionHandle, ckpPart, ckPartLength, NULL_PTR, &ckEncryptedPartLength));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
 
 	ckpEncryptedPart = (CK_BYTE_PTR) malloc(ckEncryptedPartLength * sizeof(CK_BYTE));
   if (ckpEncryptedPart == NULL_PTR && ckEncryptedPartLength!=0) { free(ckpPart); throwOutOfMemoryError(env); return NULL_PTR; }
 
-	rv = (*ckpFunctions->C_DigestEncryptUpdate)(ckSessionHandle, ckpPart, ckPartLength, ckpEncryptedPart, &ckEncryptedPartLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_DigestEncryptUpdate)(ckSessionHandle, ckpPart, ckPartLength, ckpEncryptedPart, &ckEncryptedPartLength));
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
     jEncryptedPart = ckByteArrayToJByteArray(env, ckpEncryptedPart, ckEncryptedPartLength);
   else
@@ -2906,6 +3355,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	free(ckpPart);
 	free(ckpEncryptedPart);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jEncryptedPart ;
 }
@@ -2924,6 +3374,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1DecryptDigestUpdate
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jbyteArray jEncryptedPart)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpPart, ckpEncryptedPart = NULL_PTR;
 	CK_ULONG ckPartLength = 0, ckEncryptedPartLength;
@@ -2933,6 +3384,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_DECRYPT_DIGEST_UPDATE);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -2942,13 +3394,13 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 	if (jByteArrayToCKByteArray(env, jEncryptedPart, &ckpEncryptedPart, &ckEncryptedPartLength)) { return NULL_PTR; }
 
-	rv = (*ckpFunctions->C_DecryptDigestUpdate)(ckSessionHandle, ckpEncryptedPart, ckEncryptedPartLength, NULL_PTR, &ckPartLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_DecryptDigestUpdate)(ckSessionHandle, ckpEncryptedPart, ckEncryptedPartLength, NULL_PTR, &ckPartLength));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR; }
 
 	ckpPart = (CK_BYTE_PTR) malloc(ckPartLength * sizeof(CK_BYTE));
   if (ckpPart == NULL_PTR && ckPartLength!=0) { free(ckpEncryptedPart); throwOutOfMemoryError(env); return NULL_PTR; }
 
-	rv = (*ckpFunctions->C_DecryptDigestUpdate)(ckSessionHandle, ckpEncryptedPart, ckEncryptedPartLength, ckpPart, &ckPartLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_DecryptDigestUpdate)(ckSessionHandle, ckpEncryptedPart, ckEncryptedPartLength, ckpPart, &ckPartLength));
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
     jPart = ckByteArrayToJByteArray(env, ckpPart, ckPartLength);
   else
@@ -2957,6 +3409,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	free(ckpPart);
 	free(ckpEncryptedPart);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jPart ;
 }
@@ -2975,6 +3428,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1SignEncryptUpdate
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jbyteArray jPart)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpPart = NULL_PTR, ckpEncryptedPart;
 	CK_ULONG ckPartLength, ckEncryptedPartLength = 0;
@@ -2984,6 +3438,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_SIGN_ENCRYPT_UPDATE);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -2993,13 +3448,13 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 	if (jByteArrayToCKByteArray(env, jPart, &ckpPart, &ckPartLength)) { return NULL_PTR; }
 
-	rv = (*ckpFunctions->C_SignEncryptUpdate)(ckSessionHandle, ckpPart, ckPartLength, NULL_PTR, &ckEncryptedPartLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_SignEncryptUpdate)(ckSessionHandle, ckpPart, ckPartLength, NULL_PTR, &ckEncryptedPartLength));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
 
 	ckpEncryptedPart = (CK_BYTE_PTR) malloc(ckEncryptedPartLength * sizeof(CK_BYTE));
   if (ckpEncryptedPart == NULL_PTR && ckEncryptedPartLength!=0) { free(ckpPart); throwOutOfMemoryError(env); return NULL_PTR; }
 
-	rv = (*ckpFunctions->C_SignEncryptUpdate)(ckSessionHandle, ckpPart, ckPartLength, ckpEncryptedPart, &ckEncryptedPartLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_SignEncryptUpdate)(ckSessionHandle, ckpPart, ckPartLength, ckpEncryptedPart, &ckEncryptedPartLength));
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
     jEncryptedPart = ckByteArrayToJByteArray(env, ckpEncryptedPart, ckEncryptedPartLength);
   else
@@ -3008,6 +3463,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	free(ckpPart);
 	free(ckpEncryptedPart);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jEncryptedPart ;
 }
@@ -3026,6 +3482,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1DecryptVerifyUpdate
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jbyteArray jEncryptedPart)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpPart, ckpEncryptedPart = NULL_PTR;
 	CK_ULONG ckPartLength = 0, ckEncryptedPartLength;
@@ -3035,6 +3492,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_DECRYPT_VERIFY_UPDATE);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -3044,13 +3502,13 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 	if (jByteArrayToCKByteArray(env, jEncryptedPart, &ckpEncryptedPart, &ckEncryptedPartLength)) { return NULL_PTR; }
 
-	rv = (*ckpFunctions->C_DecryptVerifyUpdate)(ckSessionHandle, ckpEncryptedPart, ckEncryptedPartLength, NULL_PTR, &ckPartLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_DecryptVerifyUpdate)(ckSessionHandle, ckpEncryptedPart, ckEncryptedPartLength, NULL_PTR, &ckPartLength));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR ; }
 
 	ckpPart = (CK_BYTE_PTR) malloc(ckPartLength * sizeof(CK_BYTE));
   if (ckpPart == NULL_PTR && ckPartLength!=0) { free(ckpEncryptedPart); throwOutOfMemoryError(env); return NULL_PTR; }
 
-	rv = (*ckpFunctions->C_DecryptVerifyUpdate)(ckSessionHandle, ckpEncryptedPart, ckEncryptedPartLength, ckpPart, &ckPartLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_DecryptVerifyUpdate)(ckSessionHandle, ckpEncryptedPart, ckEncryptedPartLength, ckpPart, &ckPartLength));
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
     jPart = ckByteArrayToJByteArray(env, ckpPart, ckPartLength);
   else
@@ -3059,6 +3517,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	free(ckpPart);
 	free(ckpEncryptedPart);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jPart ;
 }
@@ -3077,6 +3536,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1GenerateKey
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jobject jMechanism, jobjectArray jTemplate, jboolean jUseUtf8)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_MECHANISM ckMechanism;
 	CK_ATTRIBUTE_PTR ckpAttributes = NULL_PTR, ckAttributeArray;
@@ -3089,6 +3549,7 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ge
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_GENERATE_KEY);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return 0L; }
@@ -3100,7 +3561,7 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ge
   if ((*env)->ExceptionOccurred(env)) { return 0L ; }
 	if (jAttributeArrayToCKAttributeArray(env, jTemplate, &ckpAttributes, &ckAttributesLength, jUseUtf8)) { return 0L; }
 
-	rv = (*ckpFunctions->C_GenerateKey)(ckSessionHandle, &ckMechanism, ckpAttributes, ckAttributesLength, &ckKeyHandle);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_GenerateKey)(ckSessionHandle, &ckMechanism, ckpAttributes, ckAttributesLength, &ckKeyHandle));
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
     jKeyHandle = ckULongToJLong(ckKeyHandle);
   else
@@ -3139,6 +3600,7 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Ge
 		freeCKMechanismParameter(&ckMechanism);
 	}
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jKeyHandle ;
 }
@@ -3161,6 +3623,7 @@ JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jobject jMechanism,
    jobjectArray jPublicKeyTemplate, jobjectArray jPrivateKeyTemplate, jboolean jUseUtf8)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_MECHANISM ckMechanism;
 	CK_ATTRIBUTE_PTR ckpPublicKeyAttributes = NULL_PTR;
@@ -3178,6 +3641,7 @@ JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_GENERATE_KEY_PAIR);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -3193,10 +3657,10 @@ JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	ckpPublicKeyHandle = ckpKeyHandles;		/* first element of array is Public Key */
 	ckpPrivateKeyHandle = (ckpKeyHandles + 1);	/* second element of array is Private Key */
 
-	rv = (*ckpFunctions->C_GenerateKeyPair)(ckSessionHandle, &ckMechanism,
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_GenerateKeyPair)(ckSessionHandle, &ckMechanism,
 									   ckpPublicKeyAttributes, ckPublicKeyAttributesLength,
 									   ckpPrivateKeyAttributes, ckPrivateKeyAttributesLength,
-									   ckpPublicKeyHandle, ckpPrivateKeyHandle);
+									   ckpPublicKeyHandle, ckpPrivateKeyHandle));
 
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
     jKeyHandles = ckULongArrayToJLongArray(env, ckpKeyHandles, 2);
@@ -3237,6 +3701,7 @@ JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 
 	free(ckpKeyHandles);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jKeyHandles ;
 }
@@ -3256,6 +3721,7 @@ JNIEXPORT jlongArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1WrapKey
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jobject jMechanism, jlong jWrappingKeyHandle, jlong jKeyHandle, jboolean jUseUtf8)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_MECHANISM ckMechanism;
 	CK_OBJECT_HANDLE ckWrappingKeyHandle;
@@ -3268,6 +3734,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_WRAP_KEY);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return NULL_PTR; }
@@ -3279,7 +3746,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 	ckWrappingKeyHandle = jLongToCKULong(jWrappingKeyHandle);
 	ckKeyHandle = jLongToCKULong(jKeyHandle);
 
-	rv = (*ckpFunctions->C_WrapKey)(ckSessionHandle, &ckMechanism, ckWrappingKeyHandle, ckKeyHandle, NULL_PTR, &ckWrappedKeyLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_WrapKey)(ckSessionHandle, &ckMechanism, ckWrappingKeyHandle, ckKeyHandle, NULL_PTR, &ckWrappedKeyLength));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return NULL_PTR; }
 
 	ckpWrappedKey = (CK_BYTE_PTR) malloc(ckWrappedKeyLength * sizeof(CK_BYTE));
@@ -3291,7 +3758,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
     return NULL_PTR;
   }
 
-	rv = (*ckpFunctions->C_WrapKey)(ckSessionHandle, &ckMechanism, ckWrappingKeyHandle, ckKeyHandle, ckpWrappedKey, &ckWrappedKeyLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_WrapKey)(ckSessionHandle, &ckMechanism, ckWrappingKeyHandle, ckKeyHandle, ckpWrappedKey, &ckWrappedKeyLength));
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
     jWrappedKey = ckByteArrayToJByteArray(env, ckpWrappedKey, ckWrappedKeyLength);
   else
@@ -3302,6 +3769,7 @@ JNIEXPORT jbyteArray JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_
 		freeCKMechanismParameter(&ckMechanism);
   }
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jWrappedKey ;
 }
@@ -3324,6 +3792,7 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Un
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jobject jMechanism, jlong jUnwrappingKeyHandle,
    jbyteArray jWrappedKey, jobjectArray jTemplate, jboolean jUseUtf8)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_MECHANISM ckMechanism;
 	CK_OBJECT_HANDLE ckUnwrappingKeyHandle;
@@ -3339,6 +3808,7 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Un
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_UNWRAP_KEY);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return 0L; }
@@ -3351,9 +3821,9 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Un
 	if (jByteArrayToCKByteArray(env, jWrappedKey, &ckpWrappedKey, &ckWrappedKeyLength)) { return 0L; }
 	if (jAttributeArrayToCKAttributeArray(env, jTemplate, &ckpAttributes, &ckAttributesLength, jUseUtf8)) { return 0L; }
 
-	rv = (*ckpFunctions->C_UnwrapKey)(ckSessionHandle, &ckMechanism, ckUnwrappingKeyHandle,
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_UnwrapKey)(ckSessionHandle, &ckMechanism, ckUnwrappingKeyHandle,
 								 ckpWrappedKey, ckWrappedKeyLength,
-								 ckpAttributes, ckAttributesLength, &ckKeyHandle);
+								 ckpAttributes, ckAttributesLength, &ckKeyHandle));
 
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK)
     jKeyHandle = ckLongToJLong(ckKeyHandle);
@@ -3385,6 +3855,7 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Un
 		freeCKMechanismParameter(&ckMechanism);
   }
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jKeyHandle ;
 }
@@ -3404,6 +3875,7 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Un
 JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1DeriveKey
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jobject jMechanism, jlong jBaseKeyHandle, jobjectArray jTemplate, jboolean jUseUtf8)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_MECHANISM ckMechanism;
 	CK_OBJECT_HANDLE ckBaseKeyHandle;
@@ -3417,6 +3889,7 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1De
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_DERIVE_KEY);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return 0L; }
@@ -3428,8 +3901,8 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1De
 	ckBaseKeyHandle = jLongToCKULong(jBaseKeyHandle);
 	if (jAttributeArrayToCKAttributeArray(env, jTemplate, &ckpAttributes, &ckAttributesLength, jUseUtf8)) { return 0L; }
 
-	rv = (*ckpFunctions->C_DeriveKey)(ckSessionHandle, &ckMechanism, ckBaseKeyHandle,
-								 ckpAttributes, ckAttributesLength, &ckKeyHandle);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_DeriveKey)(ckSessionHandle, &ckMechanism, ckBaseKeyHandle,
+								 ckpAttributes, ckAttributesLength, &ckKeyHandle));
 
   if(ckAssertReturnValueOK(env, rv, __FUNCTION__) == CK_ASSERT_OK) {
     jKeyHandle = ckLongToJLong(ckKeyHandle);
@@ -3463,6 +3936,7 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1De
 		freeCKMechanismParameter(&ckMechanism);
 	}
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jKeyHandle ;
 }
@@ -3479,6 +3953,7 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1De
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1SeedRandom
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jbyteArray jSeed)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_BYTE_PTR ckpSeed = NULL_PTR;
 	CK_ULONG ckSeedLength;
@@ -3487,6 +3962,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1See
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_SEED_RANDOM);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -3496,11 +3972,12 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1See
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 	if (jByteArrayToCKByteArray(env, jSeed, &ckpSeed, &ckSeedLength)) { return; }
 
-	rv = (*ckpFunctions->C_SeedRandom)(ckSessionHandle, ckpSeed, ckSeedLength);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_SeedRandom)(ckSessionHandle, ckpSeed, ckSeedLength));
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
 	free(ckpSeed);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -3516,6 +3993,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1See
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1GenerateRandom
   (JNIEnv *env, jobject obj, jlong jSessionHandle, jbyteArray jRandomData)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
   jbyte *jRandomBuffer;
   jlong jRandomBufferLength;
@@ -3524,6 +4002,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Gen
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_GENERATE_RANDOM);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -3535,14 +4014,15 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Gen
 	jRandomBufferLength = (*env)->GetArrayLength(env, jRandomData);
 	jRandomBuffer = (*env)->GetByteArrayElements(env, jRandomData, NULL_PTR);
 
-	rv = (*ckpFunctions->C_GenerateRandom)(ckSessionHandle, 
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_GenerateRandom)(ckSessionHandle, 
                                          (CK_BYTE_PTR) jRandomBuffer, 
-                                         jLongToCKULong(jRandomBufferLength));
+                                         jLongToCKULong(jRandomBufferLength)));
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
   /* copy back generated bytes */
 	(*env)->ReleaseByteArrayElements(env, jRandomData, jRandomBuffer, 0);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -3556,12 +4036,14 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Gen
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1GetFunctionStatus
   (JNIEnv *env, jobject obj, jlong jSessionHandle)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_RV rv;
   ModuleData *moduleData;
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_GET_FUNCTION_STATUS);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -3571,9 +4053,10 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Get
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 
 	/* C_GetFunctionStatus should always return CKR_FUNCTION_NOT_PARALLEL */
-	rv = (*ckpFunctions->C_GetFunctionStatus)(ckSessionHandle);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_GetFunctionStatus)(ckSessionHandle));
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -3587,12 +4070,14 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Get
 JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1CancelFunction
   (JNIEnv *env, jobject obj, jlong jSessionHandle)
 {
+  CallTimer timer;
 	CK_SESSION_HANDLE ckSessionHandle;
 	CK_RV rv;
   ModuleData *moduleData;
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_CANCEL_FUNCTION);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return; }
@@ -3602,9 +4087,10 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Can
 	ckSessionHandle = jLongToCKULong(jSessionHandle);
 
 	/* C_GetFunctionStatus should always return CKR_FUNCTION_NOT_PARALLEL */
-	rv = (*ckpFunctions->C_CancelFunction)(ckSessionHandle);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_CancelFunction)(ckSessionHandle));
   ckAssertReturnValueOK(env, rv, __FUNCTION__);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
 
@@ -3620,6 +4106,7 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Can
 JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1WaitForSlotEvent
   (JNIEnv *env, jobject obj, jlong jFlags, jobject jReserved)
 {
+  CallTimer timer;
 	CK_FLAGS ckFlags;
 	CK_SLOT_ID ckSlotID;
 	jlong jSlotID;
@@ -3628,6 +4115,7 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Wa
   CK_FUNCTION_LIST_PTR ckpFunctions;
 
   TRACE0(tag_call, __FUNCTION__, "entering");
+  START_CALL_TIMER(timer, TIMER_C_WAIT_FOR_SLOT_EVENT);
 
   moduleData = getModuleEntry(env, obj);
   if (moduleData == NULL_PTR) { throwDisconnectedRuntimeException(env); return 0L; }
@@ -3636,15 +4124,219 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Wa
 
 	ckFlags = jLongToCKULong(jFlags);
 
-	rv = (*ckpFunctions->C_WaitForSlotEvent)(ckFlags, &ckSlotID, NULL_PTR);
+	TIME_MODULE_CALL(timer, rv = (*ckpFunctions->C_WaitForSlotEvent)(ckFlags, &ckSlotID, NULL_PTR));
 	if(ckAssertReturnValueOK(env, rv, __FUNCTION__) != CK_ASSERT_OK) { return 0L; }
 
 	jSlotID = ckULongToJLong(ckSlotID);
 
+  STOP_CALL_TIMER(timer);
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 	return jSlotID ;
 }
 
+/* ************************************************************************** */
+/* The native methods to control and drain the trace buffers                  */
+/* ************************************************************************** */
+
+/*
+ * Enables or disables tracing for all threads.
+ *
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    setTraceEnabled
+ * Signature: (Z)V
+ */
+JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_setTraceEnabled
+  (JNIEnv *env, jclass thisClass, jboolean jEnabled)
+{
+  traceEnabled = (jEnabled == JNI_TRUE) ? 1 : 0;
+  MEMORY_BARRIER();
+}
+
+/*
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    isTraceEnabled
+ * Signature: ()Z
+ */
+JNIEXPORT jboolean JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_isTraceEnabled
+  (JNIEnv *env, jclass thisClass)
+{
+  return traceEnabled ? JNI_TRUE : JNI_FALSE ;
+}
+
+/*
+ * Moves the oldest trace records of all threads into the given arrays, at most
+ * as many as the arrays can hold. The records of one thread are in order, the
+ * records of different threads are not. The writing threads are never blocked;
+ * a record that gets overwritten while it is drained is counted as lost.
+ * The Java method is synchronized, because only one thread may drain.
+ *
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    drainTrace
+ * Signature: ([J[J[Ljava/lang/String;[Ljava/lang/String;[Ljava/lang/String;)I
+ * Parametermapping:                    *PKCS11*
+ * @param   jlongArray jTimeStamps      receives the time stamps in nanoseconds
+ * @param   jlongArray jThreadIds       receives the IDs of the writing threads
+ * @param   jobjectArray jTags          receives the tags
+ * @param   jobjectArray jMethods       receives the names of the native methods
+ * @param   jobjectArray jMessages      receives the messages
+ * @return  jint                        the number of records drained
+ */
+JNIEXPORT jint JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_drainTrace
+  (JNIEnv *env, jclass thisClass, jlongArray jTimeStamps, jlongArray jThreadIds,
+   jobjectArray jTags, jobjectArray jMethods, jobjectArray jMessages)
+{
+  TraceBuffer *buffer;
+  TraceRecord record;
+  unsigned long head, index;
+  jsize capacity;
+  jint count = 0;
+  jlong *timeStamps, *threadIds;
+  char *character;
+
+  capacity = (*env)->GetArrayLength(env, jTimeStamps);
+  if (capacity <= 0) { return 0 ; }
+  timeStamps = (jlong *) malloc(capacity * sizeof(jlong));
+  threadIds = (jlong *) malloc(capacity * sizeof(jlong));
+  if (timeStamps == NULL_PTR || threadIds == NULL_PTR) {
+    free(timeStamps);
+    free(threadIds);
+    throwOutOfMemoryError(env);
+    return 0 ;
+  }
+
+  for (buffer = traceBufferHead; buffer != NULL_PTR && count < capacity; buffer = buffer->next) {
+    head = buffer->head;
+    MEMORY_BARRIER();
+    if (head - buffer->tail > TRACE_BUFFER_SIZE) {
+      /* the thread wrote faster than we drained */
+      traceRecordsLost += head - buffer->tail - TRACE_BUFFER_SIZE;
+      buffer->tail = head - TRACE_BUFFER_SIZE;
+    }
+    for (index = buffer->tail; index != head && count < capacity; index++) {
+      memcpy(&record, &buffer->records[index % TRACE_BUFFER_SIZE], sizeof(TraceRecord));
+      MEMORY_BARRIER();
+      if (buffer->head - index > TRACE_BUFFER_SIZE - 1) {
+        /* the thread overwrote the record while we copied it */
+        traceRecordsLost++;
+        continue;
+      }
+      if (record.message == NULL_PTR) {
+        /* the formatted text may contain arbitrary bytes, but must be valid UTF-8 */
+        record.text[TRACE_TEXT_LENGTH - 1] = '\0';
+        for (character = record.text; *character != '\0'; character++) {
+          if ((*character & 0x80) != 0) { *character = '?'; }
+        }
+        record.message = record.text;
+      }
+      timeStamps[count] = record.timeStamp;
+      threadIds[count] = record.threadId;
+      setTraceString(env, jTags, count, record.tag);
+      setTraceString(env, jMethods, count, record.method);
+      setTraceString(env, jMessages, count, record.message);
+      count++;
+    }
+    buffer->tail = index;
+  }
+
+  (*env)->SetLongArrayRegion(env, jTimeStamps, 0, count, timeStamps);
+  (*env)->SetLongArrayRegion(env, jThreadIds, 0, count, threadIds);
+  free(timeStamps);
+  free(threadIds);
+
+  return count ;
+}
+
+/*
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    getLostTraceRecordCount
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_getLostTraceRecordCount
+  (JNIEnv *env, jclass thisClass)
+{
+  return traceRecordsLost ;
+}
+
+/* ************************************************************************** */
+/* The native methods to read the timing of the calls to the module           */
+/* ************************************************************************** */
+
+/*
+ * Enables or disables the timing of the calls to the module.
+ *
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    setCallTimingEnabled
+ * Signature: (Z)V
+ */
+JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_setCallTimingEnabled
+  (JNIEnv *env, jclass thisClass, jboolean jEnabled)
+{
+  callTimingEnabled = (jEnabled == JNI_TRUE) ? 1 : 0;
+  MEMORY_BARRIER();
+}
+
+/*
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    isCallTimingEnabled
+ * Signature: ()Z
+ */
+JNIEXPORT jboolean JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_isCallTimingEnabled
+  (JNIEnv *env, jclass thisClass)
+{
+  return callTimingEnabled ? JNI_TRUE : JNI_FALSE ;
+}
+
+/*
+ * Copies the timing of the calls to the module into the given arrays, which
+ * are indexed like the functions in InstrumentingPKCS11.FUNCTION_NAMES. The
+ * counters of one function are read one after the other without locking; thus,
+ * they may be off by the calls completing in the meantime.
+ *
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    getCallTimings
+ * Signature: ([J[J[J)V
+ * Parametermapping:                    *PKCS11*
+ * @param   jlongArray jCallCounts      receives the number of calls
+ * @param   jlongArray jTotalTimes      receives the total times in nanoseconds
+ * @param   jlongArray jModuleTimes     receives the times in the module in nanoseconds
+ */
+JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_getCallTimings
+  (JNIEnv *env, jclass thisClass, jlongArray jCallCounts, jlongArray jTotalTimes, jlongArray jModuleTimes)
+{
+  jlong callCounts[TIMED_FUNCTIONS];
+  jlong totalTimes[TIMED_FUNCTIONS];
+  jlong moduleTimes[TIMED_FUNCTIONS];
+  jsize length;
+  int i;
+
+  length = (*env)->GetArrayLength(env, jCallCounts);
+  if (length > TIMED_FUNCTIONS) { length = TIMED_FUNCTIONS; }
+
+  for (i = 0; i < length; i++) {
+    callCounts[i] = callTimings[i].callCount;
+    totalTimes[i] = callTimings[i].totalTime;
+    moduleTimes[i] = callTimings[i].moduleTime;
+  }
+
+  (*env)->SetLongArrayRegion(env, jCallCounts, 0, length, callCounts);
+  (*env)->SetLongArrayRegion(env, jTotalTimes, 0, length, totalTimes);
+  (*env)->SetLongArrayRegion(env, jModuleTimes, 0, length, moduleTimes);
+}
+
+/*
+ * Sets the timing of all functions back to zero.
+ *
+ * Class:     iaik_pkcs_pkcs11_wrapper_PKCS11Implementation
+ * Method:    resetCallTimings
+ * Signature: ()V
+ */
+JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_resetCallTimings
+  (JNIEnv *env, jclass thisClass)
+{
+  memset((void *) callTimings, 0, sizeof(callTimings));
+  MEMORY_BARRIER();
+}
+
 /* ************************************************************************** */
 /* Now come the functions for mutex handling and notification callbacks       */
 /* ************************************************************************** */
@@ -3654,11 +4346,12 @@ JNIEXPORT jlong JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_C_1Wa
  * that will call the right Java mutex functions
  *
  * @param env - used to call JNI funktions to get the Java classes, objects, methods and fields
+ * @param moduleData - the module to initialize; the Java mutex functions are kept for this module
  * @param pInitArgs - the InitArgs object with the Java mutex functions to call
  * @return - the pointer to the CK_C_INITIALIZE_ARGS structure with the functions that will call
  *           the corresponding Java functions
  */
-CK_C_INITIALIZE_ARGS_PTR makeCKInitArgsAdapter(JNIEnv *env, jobject jInitArgs, jboolean jUseUtf8)
+CK_C_INITIALIZE_ARGS_PTR makeCKInitArgsAdapter(JNIEnv *env, ModuleData *moduleData, jobject jInitArgs, jboolean jUseUtf8)
 {
 	CK_C_INITIALIZE_ARGS_PTR ckpInitArgs;
 	jclass jInitArgsClass = (*env)->FindClass(env, CLASS_C_INITIALIZE_ARGS);
@@ -3668,6 +4361,7 @@ CK_C_INITIALIZE_ARGS_PTR makeCKInitArgsAdapter(JNIEnv *env, jobject jInitArgs, j
   CK_ULONG ckReservedLength;
 #ifndef NO_CALLBACKS
 	jobject jMutexHandler;
+	JMutexCallbacks *callbacks;
 #endif /* NO_CALLBACKS */
 
 	if(jInitArgs == NULL_PTR) {
@@ -3678,6 +4372,17 @@ CK_C_INITIALIZE_ARGS_PTR makeCKInitArgsAdapter(JNIEnv *env, jobject jInitArgs, j
 	ckpInitArgs = (CK_C_INITIALIZE_ARGS_PTR) malloc(sizeof(CK_C_INITIALIZE_ARGS));
   if (ckpInitArgs == NULL_PTR) { throwOutOfMemoryError(env); return NULL_PTR; }
 
+	/* If the application wants the locking primitives of the platform, we pass
+   * the native mutex functions and need no callbacks into the Java VM.
+   */
+	fieldID = (*env)->GetFieldID(env, jInitArgsClass, "useNativeMutexes", "Z");
+	assert(fieldID != 0);
+	if ((*env)->GetBooleanField(env, jInitArgs, fieldID) == JNI_TRUE) {
+    ckpInitArgs->CreateMutex = &createNativeMutex;
+    ckpInitArgs->DestroyMutex = &destroyNativeMutex;
+    ckpInitArgs->LockMutex = &lockNativeMutex;
+    ckpInitArgs->UnlockMutex = &unlockNativeMutex;
+  } else {
 	/* Set the mutex functions that will call the Java mutex functions, but
    * only set it, if the field is not NULL_PTR.
    */
@@ -3690,7 +4395,13 @@ CK_C_INITIALIZE_ARGS_PTR makeCKInitArgsAdapter(JNIEnv *env, jobject jInitArgs, j
 	fieldID = (*env)->GetFieldID(env, jInitArgsClass, "CreateMutex", CLASS_NAME(CLASS_CREATEMUTEX));
 	assert(fieldID != 0);
 	jMutexHandler = (*env)->GetObjectField(env, jInitArgs, fieldID);
-  ckpInitArgs->CreateMutex = (jMutexHandler != NULL_PTR) ? &callJCreateMutex : NULL_PTR;
+  ckpInitArgs->CreateMutex = NULL_PTR;
+  if (jMutexHandler != NULL_PTR) {
+    /* CK_CREATEMUTEX tells the modules not apart; thus, each module gets its own function */
+    callbacks = cacheJMutexCallbacks(env, moduleData, jInitArgs);
+    if (callbacks == NULL_PTR) { free(ckpInitArgs); return NULL_PTR; }
+    ckpInitArgs->CreateMutex = jCreateMutexFunctions[callbacks - jMutexCallbacks];
+  }
 
 	fieldID = (*env)->GetFieldID(env, jInitArgsClass, "DestroyMutex", CLASS_NAME(CLASS_DESTROYMUTEX));
 	assert(fieldID != 0);
@@ -3706,19 +4417,8 @@ CK_C_INITIALIZE_ARGS_PTR makeCKInitArgsAdapter(JNIEnv *env, jobject jInitArgs, j
 	assert(fieldID != 0);
 	jMutexHandler = (*env)->GetObjectField(env, jInitArgs, fieldID);
   ckpInitArgs->UnlockMutex = (jMutexHandler != NULL_PTR) ? &callJUnlockMutex : NULL_PTR;
-
-  if ((ckpInitArgs->CreateMutex != NULL_PTR)
-      || (ckpInitArgs->DestroyMutex != NULL_PTR)
-      || (ckpInitArgs->LockMutex != NULL_PTR)
-      || (ckpInitArgs->UnlockMutex != NULL_PTR)) {
-    /* we only need to keep a global copy, if we need callbacks */
-    /* set the global object jInitArgs so that the right Java mutex functions will be called */
-  	jInitArgsObject = (*env)->NewGlobalRef(env, jInitArgs);
-    ckpGlobalInitArgs = (CK_C_INITIALIZE_ARGS_PTR) malloc(sizeof(CK_C_INITIALIZE_ARGS));
-    if (ckpGlobalInitArgs == NULL_PTR) { free(ckpInitArgs); throwOutOfMemoryError(env); return NULL_PTR; }
-    memcpy(ckpGlobalInitArgs, ckpInitArgs, sizeof(CK_C_INITIALIZE_ARGS));
-  }
 #endif /* NO_CALLBACKS */
+  }
 
 	/* convert and set the flags field */
 	fieldID = (*env)->GetFieldID(env, jInitArgsClass, "flags", "J");
@@ -3726,105 +4426,340 @@ CK_C_INITIALIZE_ARGS_PTR makeCKInitArgsAdapter(JNIEnv *env, jobject jInitArgs, j
 	jFlags = (*env)->GetLongField(env, jInitArgs, fieldID);
 	ckpInitArgs->flags = jLongToCKULong(jFlags);
 
-	/* pReserved should be NULL_PTR in this version */
-	fieldID = (*env)->GetFieldID(env, jInitArgsClass, "pReserved", "Ljava/lang/Object;");
-	assert(fieldID != 0);
-	jReserved = (*env)->GetObjectField(env, jInitArgs, fieldID);
+	/* pReserved should be NULL_PTR in this version */
+	fieldID = (*env)->GetFieldID(env, jInitArgsClass, "pReserved", "Ljava/lang/Object;");
+	assert(fieldID != 0);
+	jReserved = (*env)->GetObjectField(env, jInitArgs, fieldID);
+
+  /* we try to convert the reserved parameter also */
+  jObjectToPrimitiveCKObjectPtrPtr(env, jReserved, &(ckpInitArgs->pReserved), &ckReservedLength, jUseUtf8);
+
+	return ckpInitArgs ;
+}
+
+#ifndef NO_CALLBACKS
+
+/*
+ * looks up the Java mutex handler objects of the given InitArgs object and keeps
+ * global references to them in a free entry of jMutexCallbacks. This way, the
+ * mutex callbacks need not get the fields of the InitArgs object on each call.
+ * The entries of other modules stay untouched; thus, several modules can use
+ * different mutex handlers at the same time.
+ *
+ * @param env - used to call JNI funktions to get the Java classes, objects, methods and fields
+ * @param moduleData - the module that will use the mutex handlers
+ * @param jInitArgs - the InitArgs object with the Java mutex functions to call
+ * @return - the entry with the mutex handlers, NULL_PTR if all entries are in use;
+ *           then a PKCS11RuntimeException is pending
+ */
+JMutexCallbacks * cacheJMutexCallbacks(JNIEnv *env, ModuleData *moduleData, jobject jInitArgs)
+{
+	jclass jInitArgsClass = (*env)->FindClass(env, CLASS_C_INITIALIZE_ARGS);
+	jfieldID fieldID;
+	JMutexCallbacks *callbacks = NULL_PTR;
+	int i;
+
+  (*env)->MonitorEnter(env, moduleListLock); /* synchronize access to the entries */
+	for (i = 0; i < MAX_J_MUTEX_MODULES; i++) {
+		if (jMutexCallbacks[i].moduleData == NULL_PTR) {
+			callbacks = &jMutexCallbacks[i];
+			callbacks->moduleData = moduleData;
+			break;
+		}
+	}
+  (*env)->MonitorExit(env, moduleListLock);
+
+	if (callbacks == NULL_PTR) {
+		throwPKCS11RuntimeException(env, (*env)->NewStringUTF(env, "Too many modules use Java mutex handlers at the same time"));
+		return NULL_PTR ;
+	}
+
+	fieldID = (*env)->GetFieldID(env, jInitArgsClass, "CreateMutex", CLASS_NAME(CLASS_CREATEMUTEX));
+	assert(fieldID != 0);
+	callbacks->jCreateMutexObject = newGlobalRefOrNull(env, (*env)->GetObjectField(env, jInitArgs, fieldID));
+
+	fieldID = (*env)->GetFieldID(env, jInitArgsClass, "DestroyMutex", CLASS_NAME(CLASS_DESTROYMUTEX));
+	assert(fieldID != 0);
+	callbacks->jDestroyMutexObject = newGlobalRefOrNull(env, (*env)->GetObjectField(env, jInitArgs, fieldID));
+
+	fieldID = (*env)->GetFieldID(env, jInitArgsClass, "LockMutex", CLASS_NAME(CLASS_LOCKMUTEX));
+	assert(fieldID != 0);
+	callbacks->jLockMutexObject = newGlobalRefOrNull(env, (*env)->GetObjectField(env, jInitArgs, fieldID));
+
+	fieldID = (*env)->GetFieldID(env, jInitArgsClass, "UnlockMutex", CLASS_NAME(CLASS_UNLOCKMUTEX));
+	assert(fieldID != 0);
+	callbacks->jUnlockMutexObject = newGlobalRefOrNull(env, (*env)->GetObjectField(env, jInitArgs, fieldID));
+
+	return callbacks ;
+}
+
+/*
+ * creates a global reference to the given object.
+ *
+ * @param env - used to call JNI funktions to create the global reference
+ * @param jObject - the object, may be NULL_PTR
+ * @return - the global reference, NULL_PTR if the object is NULL_PTR
+ */
+jobject newGlobalRefOrNull(JNIEnv *env, jobject jObject)
+{
+	return (jObject != NULL_PTR) ? (*env)->NewGlobalRef(env, jObject) : NULL_PTR ;
+}
+
+/*
+ * finds the entry of jMutexCallbacks for the given CreateMutex function.
+ *
+ * @param createMutex - the CreateMutex function passed to the module
+ * @return - the entry, NULL_PTR if the function does not call a Java mutex handler
+ */
+JMutexCallbacks * getJMutexCallbacks(CK_CREATEMUTEX createMutex)
+{
+	int i;
+
+	for (i = 0; i < MAX_J_MUTEX_MODULES; i++) {
+		if (jCreateMutexFunctions[i] == createMutex) {
+			return &jMutexCallbacks[i] ;
+		}
+	}
+
+	return NULL_PTR ;
+}
+
+/*
+ * deletes the global references held for the Java mutex callbacks of the given
+ * entry and frees the entry. The module must not use the mutex callbacks any
+ * longer.
+ *
+ * @param env - used to call JNI funktions to delete the global references
+ * @param callbacks - the entry to free
+ */
+void releaseJMutexCallbacks(JNIEnv *env, JMutexCallbacks *callbacks)
+{
+	if (callbacks->jCreateMutexObject != NULL_PTR) {
+		(*env)->DeleteGlobalRef(env, callbacks->jCreateMutexObject);
+		callbacks->jCreateMutexObject = NULL_PTR;
+	}
+	if (callbacks->jDestroyMutexObject != NULL_PTR) {
+		(*env)->DeleteGlobalRef(env, callbacks->jDestroyMutexObject);
+		callbacks->jDestroyMutexObject = NULL_PTR;
+	}
+	if (callbacks->jLockMutexObject != NULL_PTR) {
+		(*env)->DeleteGlobalRef(env, callbacks->jLockMutexObject);
+		callbacks->jLockMutexObject = NULL_PTR;
+	}
+	if (callbacks->jUnlockMutexObject != NULL_PTR) {
+		(*env)->DeleteGlobalRef(env, callbacks->jUnlockMutexObject);
+		callbacks->jUnlockMutexObject = NULL_PTR;
+	}
+  if (moduleListLock != NULL_PTR) {
+    (*env)->MonitorEnter(env, moduleListLock); /* synchronize access to the entries */
+	  callbacks->moduleData = NULL_PTR;
+    (*env)->MonitorExit(env, moduleListLock);
+  } else {
+	  callbacks->moduleData = NULL_PTR;
+  }
+}
+
+/*
+ * frees all entries of jMutexCallbacks of the given module except one; e.g.
+ * after the module was finalized or initialized again.
+ *
+ * @param env - used to call JNI funktions to delete the global references
+ * @param moduleData - the module
+ * @param keep - the entry to keep, NULL_PTR to free all entries of the module
+ */
+void releaseModuleJMutexCallbacks(JNIEnv *env, ModuleData *moduleData, JMutexCallbacks *keep)
+{
+	int i;
+
+	for (i = 0; i < MAX_J_MUTEX_MODULES; i++) {
+		if ((jMutexCallbacks[i].moduleData == moduleData) && (&jMutexCallbacks[i] != keep)) {
+			releaseJMutexCallbacks(env, &jMutexCallbacks[i]);
+		}
+	}
+}
+
+/*
+ * frees all entries of jMutexCallbacks. It is used for clean-up, when there is
+ * no module any longer.
+ *
+ * @param env - used to call JNI funktions to delete the global references
+ */
+void releaseAllJMutexCallbacks(JNIEnv *env)
+{
+	int i;
+
+	for (i = 0; i < MAX_J_MUTEX_MODULES; i++) {
+		if (jMutexCallbacks[i].moduleData != NULL_PTR) {
+			releaseJMutexCallbacks(env, &jMutexCallbacks[i]);
+		}
+	}
+}
+
+/*
+ * looks up the classes and methods the callbacks need. It is called when the VM
+ * loads this library.
+ *
+ * @param env - used to call JNI funktions to get the Java classes and methods
+ * @return 0 is successful
+ */
+int cacheCallbackIDs(JNIEnv *env)
+{
+	jclass jClass;
+
+	jClass = (*env)->FindClass(env, CLASS_PKCS11EXCEPTION);
+	if (jClass == NULL_PTR) { return 1 ; }
+	jCallbackExceptionClass = (jclass) (*env)->NewGlobalRef(env, jClass);
+	jGetErrorCodeMethod = (*env)->GetMethodID(env, jClass, "getErrorCode", "()J");
+	if (jGetErrorCodeMethod == NULL_PTR) { return 1 ; }
+
+	jClass = (*env)->FindClass(env, CLASS_CREATEMUTEX);
+	if (jClass == NULL_PTR) { return 1 ; }
+	jCreateMutexMethod = (*env)->GetMethodID(env, jClass, "CK_CREATEMUTEX", "()Ljava/lang/Object;");
+	if (jCreateMutexMethod == NULL_PTR) { return 1 ; }
+
+	jClass = (*env)->FindClass(env, CLASS_DESTROYMUTEX);
+	if (jClass == NULL_PTR) { return 1 ; }
+	jDestroyMutexMethod = (*env)->GetMethodID(env, jClass, "CK_DESTROYMUTEX", "(Ljava/lang/Object;)V");
+	if (jDestroyMutexMethod == NULL_PTR) { return 1 ; }
+
+	jClass = (*env)->FindClass(env, CLASS_LOCKMUTEX);
+	if (jClass == NULL_PTR) { return 1 ; }
+	jLockMutexMethod = (*env)->GetMethodID(env, jClass, "CK_LOCKMUTEX", "(Ljava/lang/Object;)V");
+	if (jLockMutexMethod == NULL_PTR) { return 1 ; }
+
+	jClass = (*env)->FindClass(env, CLASS_UNLOCKMUTEX);
+	if (jClass == NULL_PTR) { return 1 ; }
+	jUnlockMutexMethod = (*env)->GetMethodID(env, jClass, "CK_UNLOCKMUTEX", "(Ljava/lang/Object;)V");
+	if (jUnlockMutexMethod == NULL_PTR) { return 1 ; }
+
+	jClass = (*env)->FindClass(env, CLASS_NOTIFY);
+	if (jClass == NULL_PTR) { return 1 ; }
+	jNotifyMethod = (*env)->GetMethodID(env, jClass, "CK_NOTIFY", "(JJLjava/lang/Object;)V");
+	if (jNotifyMethod == NULL_PTR) { return 1 ; }
+
+	return 0 ;
+}
+
+/*
+ * deletes the global references held for the callbacks. It is called when the
+ * VM unloads this library.
+ *
+ * @param env - used to call JNI funktions to delete the global references
+ */
+void releaseCallbackIDs(JNIEnv *env)
+{
+	if (jCallbackExceptionClass != NULL_PTR) {
+		(*env)->DeleteGlobalRef(env, jCallbackExceptionClass);
+		jCallbackExceptionClass = NULL_PTR;
+	}
+}
+
+/*
+ * gets the JNIEnv of the current thread for a callback into Java. Threads of the
+ * Java VM are attached anyway. A thread of the module gets attached as daemon on
+ * its first callback and stays attached until it terminates; see
+ * keepThreadAttached in platform.c. Attaching and detaching the thread on each
+ * callback is very expensive for modules that call back frequently.
+ *
+ * @param pDetachAfterCall - is set to 1, if the caller has to detach the
+ *                           thread after the callback, because the platform
+ *                           cannot detach it on thread exit
+ * @return - the JNIEnv of the current thread, NULL_PTR if there is no VM
+ */
+JNIEnv *getCallbackEnv(int *pDetachAfterCall)
+{
+  JNIEnv *env;
+  jint returnValue;
+
+  *pDetachAfterCall = 0;
+  if (g_jvm == NULL_PTR) { return NULL_PTR ; } /* there is no VM running */
 
-  /* we try to convert the reserved parameter also */
-  jObjectToPrimitiveCKObjectPtrPtr(env, jReserved, &(ckpInitArgs->pReserved), &ckReservedLength, jUseUtf8);
+  /* Determine, if current thread is already attached */
+  returnValue = (*g_jvm)->GetEnv(g_jvm, (void **) &env, JNI_VERSION_1_2);
+  if (returnValue == JNI_OK) { return env ; }
+  if (returnValue != JNI_EDETACHED) { return NULL_PTR ; }
 
-	return ckpInitArgs ;
-}
+  /* a thread of the module, attach it as daemon to not block the shutdown of the VM */
+  returnValue = (*g_jvm)->AttachCurrentThreadAsDaemon(g_jvm, (void **) &env, NULL_PTR);
+  if (returnValue != JNI_OK) { return NULL_PTR ; }
 
-#ifndef NO_CALLBACKS
+  *pDetachAfterCall = (keepThreadAttached(g_jvm) != 0);
+
+  return env ;
+}
 
 /*
- * is the function that gets called by PKCS#11 to create a mutex and calls the Java
- * CreateMutex function
+ * checks, if the Java callback threw an exception and clears it. The exception
+ * is passed to the module as return value; i.e. the error code of a
+ * PKCS11Exception or CKR_FUNCTION_FAILED for any other exception. The exception
+ * must not stay pending, because a thread of the module stays attached and
+ * would see it on its next callback.
  *
- * @param env - used to call JNI funktions to get the Java classes, objects, methods and fields
- * @param ppMutex - the new created mutex
- * @return - should return CKR_OK if the mutex creation was ok
+ * @param env - used to call JNI funktions to get and clear the exception
+ * @return - the return value for the module
  */
-CK_RV callJCreateMutex(CK_VOID_PTR_PTR ppMutex)
+CK_RV getCallbackResult(JNIEnv *env)
 {
-  JavaVM *jvm;
-  JNIEnv *env;
-  jsize actualNumberVMs;
-  jint returnValue;
-  jthrowable pkcs11Exception;
-  jclass pkcs11ExceptionClass;
+  jthrowable jException;
   jlong errorCode;
-  CK_RV rv = CKR_OK;
-  int wasAttached = 1;
-	jclass jCreateMutexClass;
-	jclass jInitArgsClass;
-	jmethodID methodID;
-	jfieldID fieldID;
-	jobject jCreateMutex;
-	jobject jMutex;
-
+  CK_RV rv;
 
-  /* Get the currently running Java VM */
-  returnValue = JNI_GetCreatedJavaVMs(&jvm, (jsize) 1, &actualNumberVMs);
-  if ((returnValue != 0) || (actualNumberVMs <= 0)) { return rv ;} /* there is no VM running */
+  jException = (*env)->ExceptionOccurred(env);
+  if (jException == NULL_PTR) { return CKR_OK ; }
 
-  /* Determine, if current thread is already attached */
-  returnValue = (*jvm)->GetEnv(jvm, (void **) &env, JNI_VERSION_1_2);
-  if (returnValue == JNI_EDETACHED) {
-    /* thread detached, so attach it */
-    wasAttached = 0;
-    returnValue = (*jvm)->AttachCurrentThread(jvm, (void **) &env, NULL_PTR);
-  } else if (returnValue == JNI_EVERSION) {
-    /* this version of JNI is not supported, so just try to attach */
-    /* we assume it was attached to ensure that this thread is not detached
-     * afterwards even though it should not
-     */
-    wasAttached = 1;
-    returnValue = (*jvm)->AttachCurrentThread(jvm, (void **) &env, NULL_PTR);
+  (*env)->ExceptionClear(env);
+  if ((*env)->IsInstanceOf(env, jException, jCallbackExceptionClass)) {
+    /* The was an exception thrown, now we get the error-code from it */
+    errorCode = (*env)->CallLongMethod(env, jException, jGetErrorCodeMethod);
+    rv = jLongToCKULong(errorCode);
   } else {
-    /* attached */
-    wasAttached = 1;
+    rv = CKR_FUNCTION_FAILED;
   }
+  (*env)->DeleteLocalRef(env, jException);
 
+  return rv ;
+}
 
-  jCreateMutexClass = (*env)->FindClass(env, CLASS_CREATEMUTEX);
-	jInitArgsClass = (*env)->FindClass(env, CLASS_C_INITIALIZE_ARGS);
+/*
+ * is called by the CreateMutex function of a module to create a mutex and calls
+ * the Java CreateMutex function of this module
+ *
+ * @param callbacks - the Java mutex handlers of the module
+ * @param ppMutex - the new created mutex
+ * @return - should return CKR_OK if the mutex creation was ok
+ */
+CK_RV callJCreateMutex(JMutexCallbacks *callbacks, CK_VOID_PTR_PTR ppMutex)
+{
+  JNIEnv *env;
+  CK_RV rv;
+  int detachAfterCall;
+	jobject jMutex;
+	JMutex *mutex;
 
-  /* get the CreateMutex object out of the jInitArgs object */
-	fieldID = (*env)->GetFieldID(env, jInitArgsClass, "CreateMutex", CLASS_NAME(CLASS_CREATEMUTEX));
-	assert(fieldID != 0);
-	jCreateMutex = (*env)->GetObjectField(env, jInitArgsObject, fieldID);
-	assert(jCreateMutex != 0);
+  env = getCallbackEnv(&detachAfterCall);
+  if (env == NULL_PTR) { return CKR_GENERAL_ERROR ; }
 
 	/* call the CK_CREATEMUTEX function of the CreateMutex object */
 	/* and get the new Java mutex object */
-	methodID = (*env)->GetMethodID(env, jCreateMutexClass, "CK_CREATEMUTEX", "()Ljava/lang/Object;");
-	assert(methodID != 0);
-	jMutex = (*env)->CallObjectMethod(env, jCreateMutex, methodID);
-
-	/* set a global reference on the Java mutex */
-	jMutex = (*env)->NewGlobalRef(env, jMutex);
-	/* convert the Java mutex to a CK mutex */
-	*ppMutex = jObjectToCKVoidPtr(jMutex);
-
-
-  /* check, if callback threw an exception */
-  pkcs11Exception = (*env)->ExceptionOccurred(env);
-
-  if (pkcs11Exception != NULL_PTR) {
-    /* The was an exception thrown, now we get the error-code from it */
-    pkcs11ExceptionClass = (*env)->FindClass(env, CLASS_PKCS11EXCEPTION);
-	  methodID = (*env)->GetMethodID(env, pkcs11ExceptionClass, "getErrorCode", "()J");
-	  assert(methodID != 0);
-    errorCode = (*env)->CallLongMethod(env, pkcs11Exception, methodID);
-    rv = jLongToCKULong(errorCode);
+	jMutex = (*env)->CallObjectMethod(env, callbacks->jCreateMutexObject, jCreateMutexMethod);
+  rv = getCallbackResult(env);
+
+  if (rv == CKR_OK) {
+	  /* set a global reference on the Java mutex and keep the handlers of the module with it */
+	  mutex = (JMutex *) malloc(sizeof(JMutex));
+	  if (mutex == NULL_PTR) {
+	    rv = CKR_HOST_MEMORY;
+	  } else {
+	    mutex->jMutex = (*env)->NewGlobalRef(env, jMutex);
+	    mutex->callbacks = callbacks;
+	    *ppMutex = mutex;
+	  }
   }
+  (*env)->DeleteLocalRef(env, jMutex);
 
   /* if we attached this thread to the VM just for callback, we detach it now */
-  if (wasAttached) {
-    returnValue = (*jvm)->DetachCurrentThread(jvm);
+  if (detachAfterCall) {
+    (*g_jvm)->DetachCurrentThread(g_jvm);
   }
 
 	return rv ;
@@ -3840,82 +4775,28 @@ CK_RV callJCreateMutex(CK_VOID_PTR_PTR ppMutex)
  */
 CK_RV callJDestroyMutex(CK_VOID_PTR pMutex)
 {
-  JavaVM *jvm;
   JNIEnv *env;
-  jsize actualNumberVMs;
-  jint returnValue;
-  jthrowable pkcs11Exception;
-  jclass pkcs11ExceptionClass;
-  jlong errorCode;
-  CK_RV rv = CKR_OK;
-  int wasAttached = 1;
-	jclass jDestroyMutexClass;
-	jclass jInitArgsClass;
-	jmethodID methodID;
-	jfieldID fieldID;
-	jobject jDestroyMutex;
-	jobject jMutex;
-
-
-  /* Get the currently running Java VM */
-  returnValue = JNI_GetCreatedJavaVMs(&jvm, (jsize) 1, &actualNumberVMs);
-  if ((returnValue != 0) || (actualNumberVMs <= 0)) { return rv ; } /* there is no VM running */
-
-  /* Determine, if current thread is already attached */
-  returnValue = (*jvm)->GetEnv(jvm, (void **) &env, JNI_VERSION_1_2);
-  if (returnValue == JNI_EDETACHED) {
-    /* thread detached, so attach it */
-    wasAttached = 0;
-    returnValue = (*jvm)->AttachCurrentThread(jvm, (void **) &env, NULL_PTR);
-  } else if (returnValue == JNI_EVERSION) {
-    /* this version of JNI is not supported, so just try to attach */
-    /* we assume it was attached to ensure that this thread is not detached
-     * afterwards even though it should not
-     */
-    wasAttached = 1;
-    returnValue = (*jvm)->AttachCurrentThread(jvm, (void **) &env, NULL_PTR);
-  } else {
-    /* attached */
-    wasAttached = 1;
-  }
-
-
-  jDestroyMutexClass = (*env)->FindClass(env, CLASS_DESTROYMUTEX);
-	jInitArgsClass = (*env)->FindClass(env, CLASS_C_INITIALIZE_ARGS);
-
-  /* convert the CK mutex to a Java mutex */
-	jMutex = ckVoidPtrToJObject(pMutex);
-
-	/* get the DestroyMutex object out of the jInitArgs object */
-	fieldID = (*env)->GetFieldID(env, jInitArgsClass, "DestroyMutex", CLASS_NAME(CLASS_DESTROYMUTEX));
-	assert(fieldID != 0);
-	jDestroyMutex = (*env)->GetObjectField(env, jInitArgsObject, fieldID);
-	assert(jDestroyMutex != 0);
-
-	/* call the CK_DESTROYMUTEX method of the DestroyMutex object */
-	methodID = (*env)->GetMethodID(env, jDestroyMutexClass, "CK_DESTROYMUTEX", "(Ljava/lang/Object;)V");
-	assert(methodID != 0);
-	(*env)->CallVoidMethod(env, jDestroyMutex, methodID, jMutex);
-
-	/* delete the global reference on the Java mutex */
-	(*env)->DeleteGlobalRef(env, jMutex);
+  CK_RV rv;
+  int detachAfterCall;
+	JMutex *mutex = (JMutex *) pMutex;
 
+  if (mutex == NULL_PTR) { return CKR_MUTEX_BAD ; }
+  env = getCallbackEnv(&detachAfterCall);
+  if (env == NULL_PTR) { return CKR_GENERAL_ERROR ; }
 
-  /* check, if callback threw an exception */
-  pkcs11Exception = (*env)->ExceptionOccurred(env);
+	/* call the CK_DESTROYMUTEX method of the DestroyMutex object of the module */
+	(*env)->CallVoidMethod(env, mutex->callbacks->jDestroyMutexObject, jDestroyMutexMethod, mutex->jMutex);
+  rv = getCallbackResult(env);
 
-  if (pkcs11Exception != NULL_PTR) {
-    /* The was an exception thrown, now we get the error-code from it */
-    pkcs11ExceptionClass = (*env)->FindClass(env, CLASS_PKCS11EXCEPTION);
-	  methodID = (*env)->GetMethodID(env, pkcs11ExceptionClass, "getErrorCode", "()J");
-	  assert(methodID != 0);
-    errorCode = (*env)->CallLongMethod(env, pkcs11Exception, methodID);
-    rv = jLongToCKULong(errorCode);
+  if (rv == CKR_OK) {
+	  /* delete the global reference on the Java mutex */
+	  (*env)->DeleteGlobalRef(env, mutex->jMutex);
+	  free(mutex);
   }
 
   /* if we attached this thread to the VM just for callback, we detach it now */
-  if (wasAttached) {
-    returnValue = (*jvm)->DetachCurrentThread(jvm);
+  if (detachAfterCall) {
+    (*g_jvm)->DetachCurrentThread(g_jvm);
   }
 
 	return rv ;
@@ -3931,79 +4812,22 @@ CK_RV callJDestroyMutex(CK_VOID_PTR pMutex)
  */
 CK_RV callJLockMutex(CK_VOID_PTR pMutex)
 {
-  JavaVM *jvm;
   JNIEnv *env;
-  jsize actualNumberVMs;
-  jint returnValue;
-  jthrowable pkcs11Exception;
-  jclass pkcs11ExceptionClass;
-  jlong errorCode;
-  CK_RV rv = CKR_OK;
-  int wasAttached = 1;
-	jclass jLockMutexClass;
-	jclass jInitArgsClass;
-	jmethodID methodID;
-	jfieldID fieldID;
-	jobject jLockMutex;
-	jobject jMutex;
-
-
-  /* Get the currently running Java VM */
-  returnValue = JNI_GetCreatedJavaVMs(&jvm, (jsize) 1, &actualNumberVMs);
-  if ((returnValue != 0) || (actualNumberVMs <= 0)) { return rv ; } /* there is no VM running */
-
-  /* Determine, if current thread is already attached */
-  returnValue = (*jvm)->GetEnv(jvm, (void **) &env, JNI_VERSION_1_2);
-  if (returnValue == JNI_EDETACHED) {
-    /* thread detached, so attach it */
-    wasAttached = 0;
-    returnValue = (*jvm)->AttachCurrentThread(jvm, (void **) &env, NULL_PTR);
-  } else if (returnValue == JNI_EVERSION) {
-    /* this version of JNI is not supported, so just try to attach */
-    /* we assume it was attached to ensure that this thread is not detached
-     * afterwards even though it should not
-     */
-    wasAttached = 1;
-    returnValue = (*jvm)->AttachCurrentThread(jvm, (void **) &env, NULL_PTR);
-  } else {
-    /* attached */
-    wasAttached = 1;
-  }
-
-
-  jLockMutexClass = (*env)->FindClass(env, CLASS_LOCKMUTEX);
-	jInitArgsClass = (*env)->FindClass(env, CLASS_C_INITIALIZE_ARGS);
-
-  /* convert the CK mutex to a Java mutex */
-	jMutex = ckVoidPtrToJObject(pMutex);
-
-	/* get the LockMutex object out of the jInitArgs object */
-	fieldID = (*env)->GetFieldID(env, jInitArgsClass, "LockMutex", CLASS_NAME(CLASS_LOCKMUTEX));
-	assert(fieldID != 0);
-	jLockMutex = (*env)->GetObjectField(env, jInitArgsObject, fieldID);
-	assert(jLockMutex != 0);
-
-	/* call the CK_LOCKMUTEX method of the LockMutex object */
-	methodID = (*env)->GetMethodID(env, jLockMutexClass, "CK_LOCKMUTEX", "(Ljava/lang/Object;)V");
-	assert(methodID != 0);
-	(*env)->CallVoidMethod(env, jLockMutex, methodID, jMutex);
-
+  CK_RV rv;
+  int detachAfterCall;
+	JMutex *mutex = (JMutex *) pMutex;
 
-  /* check, if callback threw an exception */
-  pkcs11Exception = (*env)->ExceptionOccurred(env);
+  if (mutex == NULL_PTR) { return CKR_MUTEX_BAD ; }
+  env = getCallbackEnv(&detachAfterCall);
+  if (env == NULL_PTR) { return CKR_GENERAL_ERROR ; }
 
-  if (pkcs11Exception != NULL_PTR) {
-    /* The was an exception thrown, now we get the error-code from it */
-    pkcs11ExceptionClass = (*env)->FindClass(env, CLASS_PKCS11EXCEPTION);
-	  methodID = (*env)->GetMethodID(env, pkcs11ExceptionClass, "getErrorCode", "()J");
-	  assert(methodID != 0);
-    errorCode = (*env)->CallLongMethod(env, pkcs11Exception, methodID);
-    rv = jLongToCKULong(errorCode);
-  }
+	/* call the CK_LOCKMUTEX method of the LockMutex object of the module */
+	(*env)->CallVoidMethod(env, mutex->callbacks->jLockMutexObject, jLockMutexMethod, mutex->jMutex);
+  rv = getCallbackResult(env);
 
   /* if we attached this thread to the VM just for callback, we detach it now */
-  if (wasAttached) {
-    returnValue = (*jvm)->DetachCurrentThread(jvm);
+  if (detachAfterCall) {
+    (*g_jvm)->DetachCurrentThread(g_jvm);
   }
 
 	return rv ;
@@ -4019,85 +4843,27 @@ CK_RV callJLockMutex(CK_VOID_PTR pMutex)
  */
 CK_RV callJUnlockMutex(CK_VOID_PTR pMutex)
 {
-  JavaVM *jvm;
   JNIEnv *env;
-  jsize actualNumberVMs;
-  jint returnValue;
-  jthrowable pkcs11Exception;
-  jclass pkcs11ExceptionClass;
-  jlong errorCode;
-  CK_RV rv = CKR_OK;
-  int wasAttached = 1;
-	jclass jUnlockMutexClass;
-	jclass jInitArgsClass;
-	jmethodID methodID;
-	jfieldID fieldID;
-	jobject jUnlockMutex;
-	jobject jMutex;
-
-
-  /* Get the currently running Java VM */
-  returnValue = JNI_GetCreatedJavaVMs(&jvm, (jsize) 1, &actualNumberVMs);
-  if ((returnValue != 0) || (actualNumberVMs <= 0)) { return rv ; } /* there is no VM running */
-
-  /* Determine, if current thread is already attached */
-  returnValue = (*jvm)->GetEnv(jvm, (void **) &env, JNI_VERSION_1_2);
-  if (returnValue == JNI_EDETACHED) {
-    /* thread detached, so attach it */
-    wasAttached = 0;
-    returnValue = (*jvm)->AttachCurrentThread(jvm, (void **) &env, NULL_PTR);
-  } else if (returnValue == JNI_EVERSION) {
-    /* this version of JNI is not supported, so just try to attach */
-    /* we assume it was attached to ensure that this thread is not detached
-     * afterwards even though it should not
-     */
-    wasAttached = 1;
-    returnValue = (*jvm)->AttachCurrentThread(jvm, (void **) &env, NULL_PTR);
-  } else {
-    /* attached */
-    wasAttached = 1;
-  }
-
-
-  jUnlockMutexClass = (*env)->FindClass(env, CLASS_UNLOCKMUTEX);
-	jInitArgsClass = (*env)->FindClass(env, CLASS_C_INITIALIZE_ARGS);
-
-  /* convert the CK-type mutex to a Java mutex */
-	jMutex = ckVoidPtrToJObject(pMutex);
-
-	/* get the UnlockMutex object out of the jInitArgs object */
-	fieldID = (*env)->GetFieldID(env, jInitArgsClass, "UnlockMutex", CLASS_NAME(CLASS_UNLOCKMUTEX));
-	assert(fieldID != 0);
-	jUnlockMutex = (*env)->GetObjectField(env, jInitArgsObject, fieldID);
-	assert(jUnlockMutex != 0);
-
-	/* call the CK_UNLOCKMUTEX method of the UnLockMutex object */
-	methodID = (*env)->GetMethodID(env, jUnlockMutexClass, "CK_UNLOCKMUTEX", "(Ljava/lang/Object;)V");
-	assert(methodID != 0);
-	(*env)->CallVoidMethod(env, jUnlockMutex, methodID, jMutex);
-
+  CK_RV rv;
+  int detachAfterCall;
+	JMutex *mutex = (JMutex *) pMutex;
 
-  /* check, if callback threw an exception */
-  pkcs11Exception = (*env)->ExceptionOccurred(env);
+  if (mutex == NULL_PTR) { return CKR_MUTEX_BAD ; }
+  env = getCallbackEnv(&detachAfterCall);
+  if (env == NULL_PTR) { return CKR_GENERAL_ERROR ; }
 
-  if (pkcs11Exception != NULL_PTR) {
-    /* The was an exception thrown, now we get the error-code from it */
-    pkcs11ExceptionClass = (*env)->FindClass(env, CLASS_PKCS11EXCEPTION);
-	  methodID = (*env)->GetMethodID(env, pkcs11ExceptionClass, "getErrorCode", "()J");
-	  assert(methodID != 0);
-    errorCode = (*env)->CallLongMethod(env, pkcs11Exception, methodID);
-    rv = jLongToCKULong(errorCode);
-  }
+	/* call the CK_UNLOCKMUTEX method of the UnLockMutex object of the module */
+	(*env)->CallVoidMethod(env, mutex->callbacks->jUnlockMutexObject, jUnlockMutexMethod, mutex->jMutex);
+  rv = getCallbackResult(env);
 
   /* if we attached this thread to the VM just for callback, we detach it now */
-  if (wasAttached) {
-    returnValue = (*jvm)->DetachCurrentThread(jvm);
+  if (detachAfterCall) {
+    (*g_jvm)->DetachCurrentThread(g_jvm);
   }
 
 	return rv ;
 }
 
-
 /*
  * The function handling notify callbacks. It casts the pApplication paramter
  * back to a NotifyEncapsulation structure and retrieves the Notify object and
@@ -4118,71 +4884,29 @@ CK_RV notifyCallback(
 )
 {
 	NotifyEncapsulation *notifyEncapsulation;
-  JavaVM *jvm;
   JNIEnv *env;
-  jsize actualNumberVMs;
-  jint returnValue;
   jlong jSessionHandle;
   jlong jEvent;
-  jclass ckNotifyClass;
-  jmethodID jmethod;
-  jthrowable pkcs11Exception;
-  jclass pkcs11ExceptionClass;
-  jlong errorCode;
-  CK_RV rv = CKR_OK;
-  int wasAttached = 1;
+  CK_RV rv;
+  int detachAfterCall;
 
-  if (pApplication == NULL_PTR) { return rv ; } /* This should not occur in this wrapper. */
+  if (pApplication == NULL_PTR) { return CKR_OK ; } /* This should not occur in this wrapper. */
 
   notifyEncapsulation = (NotifyEncapsulation *) pApplication;
 
-  /* Get the currently running Java VM */
-  returnValue = JNI_GetCreatedJavaVMs(&jvm, (jsize) 1, &actualNumberVMs);
-  if ((returnValue != 0) || (actualNumberVMs <= 0)) { return rv ; } /* there is no VM running */
-
-  /* Determine, if current thread is already attached */
-  returnValue = (*jvm)->GetEnv(jvm, (void **) &env, JNI_VERSION_1_2);
-  if (returnValue == JNI_EDETACHED) {
-    /* thread detached, so attach it */
-    wasAttached = 0;
-    returnValue = (*jvm)->AttachCurrentThread(jvm, (void **) &env, NULL_PTR);
-  } else if (returnValue == JNI_EVERSION) {
-    /* this version of JNI is not supported, so just try to attach */
-    /* we assume it was attached to ensure that this thread is not detached
-     * afterwards even though it should not
-     */
-    wasAttached = 1;
-    returnValue = (*jvm)->AttachCurrentThread(jvm, (void **) &env, NULL_PTR);
-  } else {
-    /* attached */
-    wasAttached = 1;
-  }
+  env = getCallbackEnv(&detachAfterCall);
+  if (env == NULL_PTR) { return CKR_OK ; } /* there is no VM running */
 
   jSessionHandle = ckULongToJLong(hSession);
   jEvent = ckULongToJLong(event);
 
-	ckNotifyClass = (*env)->FindClass(env, CLASS_NOTIFY);
-	assert(ckNotifyClass != 0);
-	jmethod = (*env)->GetMethodID(env, ckNotifyClass, "CK_NOTIFY", "(JJLjava/lang/Object;)V");
-	assert(jmethod != 0);
-  (*env)->CallVoidMethod(env, notifyEncapsulation->jNotifyObject, jmethod,
+  (*env)->CallVoidMethod(env, notifyEncapsulation->jNotifyObject, jNotifyMethod,
                          jSessionHandle, jEvent, notifyEncapsulation->jApplicationData);
-
-  /* check, if callback threw an exception */
-  pkcs11Exception = (*env)->ExceptionOccurred(env);
-
-  if (pkcs11Exception != NULL_PTR) {
-    /* The was an exception thrown, now we get the error-code from it */
-    pkcs11ExceptionClass = (*env)->FindClass(env, CLASS_PKCS11EXCEPTION);
-	  jmethod = (*env)->GetMethodID(env, pkcs11ExceptionClass, "getErrorCode", "()J");
-	  assert(jmethod != 0);
-    errorCode = (*env)->CallLongMethod(env, pkcs11Exception, jmethod);
-    rv = jLongToCKULong(errorCode);
-  }
+  rv = getCallbackResult(env);
 
   /* if we attached this thread to the VM just for callback, we detach it now */
-  if (wasAttached) {
-    returnValue = (*jvm)->DetachCurrentThread(jvm);
+  if (detachAfterCall) {
+    (*g_jvm)->DetachCurrentThread(g_jvm);
   }
 
 	return rv ;
@@ -4200,7 +4924,8 @@ CK_RV notifyCallback(
  * function to convert a PKCS#11 return value into a PKCS#11Exception
  *
  * This function generates a PKCS#11Exception with the returnValue as the errorcode
- * if the returnValue is not CKR_OK. The functin returns 0, if the returnValue is
+ * if the returnValue is not CKR_OK. It gets the exception from
+ * PKCS11Exception.getInstance, which returns shared instances for expected codes. The functin returns 0, if the returnValue is
  * CKR_OK. Otherwise, it returns the returnValue as a jLong.
  *
  * @param env - used to call JNI funktions and to get the Exception class
@@ -4208,26 +4933,84 @@ CK_RV notifyCallback(
  */
 jlong ckAssertReturnValueOK(JNIEnv *env, CK_RV returnValue, const char* callerMethodName)
 {
-	jclass jPKCS11ExceptionClass;
-	jmethodID jConstructor;
 	jthrowable jPKCS11Exception;
 	jlong jErrorCode;
 
 	if (returnValue == CKR_OK) {
 		return 0L ;
 	} else {
-		jPKCS11ExceptionClass = (*env)->FindClass(env, CLASS_PKCS11EXCEPTION);
-		assert(jPKCS11ExceptionClass != 0);
-		jConstructor = (*env)->GetMethodID(env, jPKCS11ExceptionClass, "<init>", "(J)V");
-		assert(jConstructor != 0);
+		assert(jGetInstanceMethod != 0);
 		jErrorCode = ckULongToJLong(returnValue);
-		jPKCS11Exception = (jthrowable) (*env)->NewObject(env, jPKCS11ExceptionClass, jConstructor, jErrorCode);
-		(*env)->Throw(env, jPKCS11Exception);
+		/* getInstance returns a shared exception without stack trace for expected codes */
+		jPKCS11Exception = (jthrowable) (*env)->CallStaticObjectMethod(env, jPKCS11ExceptionClass, jGetInstanceMethod, jErrorCode);
+		/* if getInstance failed, e.g. with an OutOfMemoryError, this error is pending */
+		if ((jPKCS11Exception != NULL_PTR) && !(*env)->ExceptionCheck(env)) {
+			(*env)->Throw(env, jPKCS11Exception);
+			(*env)->DeleteLocalRef(env, jPKCS11Exception);
+		}
 		TRACE1(tag_error, callerMethodName, "got %lu instead of CKR_OK, going to raise an exception", returnValue);
 		return jErrorCode ;
 	}
 }
 
+/*
+ * looks up the PKCS11Exception class and its getInstance method that
+ * ckAssertReturnValueOK needs. It is called when the VM loads this library.
+ *
+ * @param env - used to call JNI funktions to get the Java class and method
+ * @return 0 is successful
+ */
+int cacheExceptionIDs(JNIEnv *env)
+{
+	jclass jClass;
+
+	jClass = (*env)->FindClass(env, CLASS_PKCS11EXCEPTION);
+	if (jClass == NULL_PTR) { return 1 ; }
+	jPKCS11ExceptionClass = (jclass) (*env)->NewGlobalRef(env, jClass);
+	(*env)->DeleteLocalRef(env, jClass);
+	if (jPKCS11ExceptionClass == NULL_PTR) { return 1 ; }
+	jGetInstanceMethod = (*env)->GetStaticMethodID(env, jPKCS11ExceptionClass, "getInstance", "(J)L" CLASS_PKCS11EXCEPTION ";");
+	if (jGetInstanceMethod == NULL_PTR) { return 1 ; }
+
+	return 0 ;
+}
+
+/*
+ * deletes the global reference held for ckAssertReturnValueOK. It is called
+ * when the VM unloads this library.
+ *
+ * @param env - used to call JNI funktions to delete the global reference
+ */
+void releaseExceptionIDs(JNIEnv *env)
+{
+	if (jPKCS11ExceptionClass != NULL_PTR) {
+		(*env)->DeleteGlobalRef(env, jPKCS11ExceptionClass);
+		jPKCS11ExceptionClass = NULL_PTR;
+	}
+	jGetInstanceMethod = NULL_PTR;
+}
+
+/*
+ * function to check a PKCS#11 return value that raises a PKCS#11Exception only
+ * if the caller wants it. Functions that have a variant returning the return
+ * value instead of throwing use it.
+ *
+ * @param env - used to call JNI funktions and to get the Exception class
+ * @param returnValue - of the PKCS#11 function
+ * @param jThrowException - if true, call ckAssertReturnValueOK
+ * @return 0, if the returnValue is CKR_OK; the returnValue as a jLong otherwise
+ */
+jlong ckCheckReturnValue(JNIEnv *env, CK_RV returnValue, jboolean jThrowException, const char* callerMethodName)
+{
+	if (jThrowException) {
+		return ckAssertReturnValueOK(env, returnValue, callerMethodName);
+	}
+	if (returnValue != CKR_OK) {
+		TRACE1(tag_info, callerMethodName, "got %lu instead of CKR_OK, returning it", returnValue);
+	}
+	return ckULongToJLong(returnValue);
+}
+
 /*
  * this function throws an OutOfMemoryError, e.g. in case a malloc did fail to
  * allocate memory.
@@ -8088,6 +8871,10 @@ ModuleData * removeModuleEntry(JNIEnv *env, jobject pkcs11Implementation) {
       moduleDataOfFoundNode = currentNode->moduleData;
       (*env)->DeleteGlobalRef(env, currentNode->pkcs11Implementation);
       free(currentNode);
+#ifndef NO_CALLBACKS
+      /* a module that was not finalized may still have Java mutex handlers */
+      releaseModuleJMutexCallbacks(env, moduleDataOfFoundNode, NULL_PTR);
+#endif /* NO_CALLBACKS */
     } else {
       /* the entry is not in the list */
       moduleDataOfFoundNode = NULL_PTR ;
@@ -8160,12 +8947,28 @@ int equals(JNIEnv *env, jobject thisObject, jobject otherObject) {
 #ifndef NO_CALLBACKS
 
 /*
- * Add the given notify encapsulation object to the list of active notify
+ * Gets the index of the bucket of the given session in the notify table. The
+ * module data address is mixed in, because session handles are unique per
+ * module only.
+ */
+static int getNotifyBucket(ModuleData *moduleData, CK_SESSION_HANDLE hSession) {
+  unsigned long hash;
+
+  hash = (unsigned long) hSession ^ ((unsigned long) moduleData >> 4);
+  hash *= 0x9E3779B1UL; /* spread consecutive handles over the buckets */
+
+  return (int) ((hash >> 8) & (NOTIFY_TABLE_SIZE - 1));
+}
+
+/*
+ * Add the given notify encapsulation object to the hash table of active notify
  * objects.
  * If notifyEncapsulation is NULL_PTR, this function does nothing.
  */
-void putNotifyEntry(JNIEnv *env, CK_SESSION_HANDLE hSession, NotifyEncapsulation *notifyEncapsulation) {
-  NotifyListNode *currentNode, *newNode;
+void putNotifyEntry(JNIEnv *env, ModuleData *moduleData, CK_SLOT_ID slotID, CK_SESSION_HANDLE hSession, NotifyEncapsulation *notifyEncapsulation) {
+  NotifyListNode *newNode;
+  int bucket;
+  jobject lock;
 
   if (notifyEncapsulation == NULL_PTR) {
     return ;
@@ -8173,26 +8976,20 @@ void putNotifyEntry(JNIEnv *env, CK_SESSION_HANDLE hSession, NotifyEncapsulation
 
   newNode = (NotifyListNode *) malloc(sizeof(NotifyListNode));
   if (newNode == NULL_PTR) { throwOutOfMemoryError(env); return; }
+  newNode->moduleData = moduleData;
+  newNode->slotID = slotID;
   newNode->hSession = hSession;
   newNode->notifyEncapsulation = notifyEncapsulation;
-  newNode->next = NULL_PTR;
 
-  (*env)->MonitorEnter(env, notifyListLock); /* synchronize access to list */
+  bucket = getNotifyBucket(moduleData, hSession);
+  lock = notifyTableLocks[bucket % NOTIFY_LOCK_STRIPES];
+  (*env)->MonitorEnter(env, lock); /* synchronize access to the bucket */
 
-  if (notifyListHead == NULL_PTR) {
-    /* this is the first entry */
-    notifyListHead = newNode;
-  } else {
-    /* go to the last entry; i.e. the first node which's 'next' is NULL_PTR.
-     */
-    currentNode = notifyListHead;
-    while (currentNode->next != NULL_PTR) {
-      currentNode = currentNode->next;
-    }
-    currentNode->next = newNode;
-  }
+  /* the order in a bucket does not matter, insert at the head */
+  newNode->next = notifyTable[bucket];
+  notifyTable[bucket] = newNode;
 
-  (*env)->MonitorExit(env, notifyListLock); /* synchronize access to list */
+  (*env)->MonitorExit(env, lock); /* synchronize access to the bucket */
 }
 
 
@@ -8201,73 +8998,235 @@ void putNotifyEntry(JNIEnv *env, CK_SESSION_HANDLE hSession, NotifyEncapsulation
  * returns it. If there is no notifyEncapsulation active for this session, this
  * function returns NULL_PTR.
  */
-NotifyEncapsulation * removeNotifyEntry(JNIEnv *env, CK_SESSION_HANDLE hSession) {
+NotifyEncapsulation * removeNotifyEntry(JNIEnv *env, ModuleData *moduleData, CK_SESSION_HANDLE hSession) {
   NotifyEncapsulation *notifyEncapsulation;
-  NotifyListNode *currentNode, *previousNode;
+  NotifyListNode *currentNode, **link;
+  int bucket;
+  jobject lock;
 
-  (*env)->MonitorEnter(env, notifyListLock); /* synchronize access to list */
-
-  if (notifyListHead == NULL_PTR) {
-    /* this is the first entry */
-    notifyEncapsulation = NULL_PTR;
-  } else {
-    /* Find the node with the wanted session handle. Also stop, when we reach
-     * the last entry; i.e. the first node which's 'next' is NULL_PTR.
-     */
-    currentNode = notifyListHead;
-    previousNode = NULL_PTR;
+  bucket = getNotifyBucket(moduleData, hSession);
+  lock = notifyTableLocks[bucket % NOTIFY_LOCK_STRIPES];
+  notifyEncapsulation = NULL_PTR;
 
-    while ((currentNode->hSession != hSession) && (currentNode->next != NULL_PTR)) {
-      previousNode = currentNode;
-      currentNode = currentNode->next;
-    }
+  (*env)->MonitorEnter(env, lock); /* synchronize access to the bucket */
 
-    if (currentNode->hSession == hSession) {
+  for (link = &notifyTable[bucket]; *link != NULL_PTR; link = &(*link)->next) {
+    currentNode = *link;
+    if ((currentNode->hSession == hSession) && (currentNode->moduleData == moduleData)) {
       /* We found a entry for the wanted session, now remove it. */
-      if (previousNode == NULL_PTR) {
-        /* it's the first node */
-        notifyListHead = currentNode->next;
-      } else {
-        previousNode->next = currentNode->next;
-      }
+      *link = currentNode->next;
       notifyEncapsulation = currentNode->notifyEncapsulation;
       free(currentNode);
-    } else {
-      /* We did not find a entry for this session */
-      notifyEncapsulation = NULL_PTR;
+      break;
     }
   }
 
-  (*env)->MonitorExit(env, notifyListLock); /* synchronize access to list */
+  (*env)->MonitorExit(env, lock); /* synchronize access to the bucket */
 
   return notifyEncapsulation ;
 }
 
 /*
-
- * Removes the first notifyEncapsulation object. If there is no notifyEncapsulation,
+ * Removes the nodes of all sessions of the given module and slot; i.e. for
+ * C_CloseAllSessions. Each lock object is entered once and the nodes of all its
+ * buckets are moved to a local list; the caller frees the nodes and their
+ * notifyEncapsulation objects outside the locks. If there are no such sessions,
  * this function returns NULL_PTR.
+ *
+ * @return - the list of removed nodes linked by their next pointers
+ */
+NotifyListNode * removeSlotNotifyEntries(JNIEnv *env, ModuleData *moduleData, CK_SLOT_ID slotID) {
+  NotifyListNode *removedNodes, *currentNode, **link;
+  int stripe, bucket;
+  jobject lock;
+
+  removedNodes = NULL_PTR;
+  for (stripe = 0; stripe < NOTIFY_LOCK_STRIPES; stripe++) {
+    lock = notifyTableLocks[stripe];
+    (*env)->MonitorEnter(env, lock); /* synchronize access to the buckets of this lock */
+    for (bucket = stripe; bucket < NOTIFY_TABLE_SIZE; bucket += NOTIFY_LOCK_STRIPES) {
+      link = &notifyTable[bucket];
+      while (*link != NULL_PTR) {
+        currentNode = *link;
+        if ((currentNode->slotID == slotID) && (currentNode->moduleData == moduleData)) {
+          *link = currentNode->next;
+          currentNode->next = removedNodes;
+          removedNodes = currentNode;
+        } else {
+          link = &currentNode->next;
+        }
+      }
+    }
+    (*env)->MonitorExit(env, lock); /* synchronize access to the buckets of this lock */
+  }
+
+  return removedNodes ;
+}
+
+/*
+ * Removes the first notifyEncapsulation object of any session. If there is no
+ * notifyEncapsulation, this function returns NULL_PTR.
  */
 NotifyEncapsulation * removeFirstNotifyEntry(JNIEnv *env) {
   NotifyEncapsulation *notifyEncapsulation;
   NotifyListNode *currentNode;
+  int bucket;
+  jobject lock;
+
+  notifyEncapsulation = NULL_PTR;
+  for (bucket = 0; (bucket < NOTIFY_TABLE_SIZE) && (notifyEncapsulation == NULL_PTR); bucket++) {
+    lock = notifyTableLocks[bucket % NOTIFY_LOCK_STRIPES];
+    (*env)->MonitorEnter(env, lock); /* synchronize access to the bucket */
+    currentNode = notifyTable[bucket];
+    if (currentNode != NULL_PTR) {
+      notifyTable[bucket] = currentNode->next;
+      notifyEncapsulation = currentNode->notifyEncapsulation;
+      free(currentNode);
+    }
+    (*env)->MonitorExit(env, lock); /* synchronize access to the bucket */
+  }
+
+  return notifyEncapsulation ;
+}
 
-  (*env)->MonitorEnter(env, notifyListLock); /* synchronize access to list */
+#endif /* NO_CALLBACKS */
 
-  if (notifyListHead == NULL_PTR) {
-    /* this is the first entry */
-    notifyEncapsulation = NULL_PTR;
-  } else {
-    /* Remove the first entry. */
-    currentNode = notifyListHead;
-    notifyListHead = notifyListHead->next;
-    notifyEncapsulation = currentNode->notifyEncapsulation;
-    free(currentNode);
+/* ************************************************************************** */
+/* Functions for writing trace records                                        */
+/* ************************************************************************** */
+
+/*
+ * gets the trace buffer of the current thread. A thread without a buffer takes
+ * over the buffer of a terminated thread or allocates a new one. All of this is
+ * done without locking. If the platform cannot keep a buffer per thread, the
+ * thread gets no buffer and does not trace; otherwise, it would allocate a new
+ * buffer for each record.
+ *
+ * @return - the trace buffer of the current thread, NULL_PTR if out of memory
+ *           or if there are no buffers per thread
+ */
+TraceBuffer *acquireTraceBuffer(void)
+{
+  TraceBuffer *buffer;
+
+  if (!isThreadTraceBufferAvailable()) { return NULL_PTR ; }
+  buffer = getThreadTraceBuffer();
+  if (buffer != NULL_PTR) { return buffer ; }
+
+  for (buffer = traceBufferHead; buffer != NULL_PTR; buffer = buffer->next) {
+    if (!buffer->inUse && compareAndSwapLong(&buffer->inUse, 0, 1)) { break; }
   }
+  if (buffer == NULL_PTR) {
+    buffer = (TraceBuffer *) calloc(1, sizeof(TraceBuffer));
+    if (buffer == NULL_PTR) { return NULL_PTR ; }
+    buffer->inUse = 1;
+    do {
+      buffer->next = traceBufferHead;
+    } while (!compareAndSwapPointer((void * volatile *) &traceBufferHead, buffer->next, buffer));
+  }
+  buffer->threadId = traceThreadId();
+  setThreadTraceBuffer(buffer);
+
+  return buffer ;
+}
+
+/*
+ * gets the next record of the trace buffer of the current thread and fills in
+ * the time stamp, the thread, the tag and the method. The caller must call
+ * commitTraceRecord after setting the message.
+ */
+TraceRecord *nextTraceRecord(TraceBuffer *buffer, const char *tag, const char *method)
+{
+  TraceRecord *record = &buffer->records[buffer->head % TRACE_BUFFER_SIZE];
 
-  (*env)->MonitorExit(env, notifyListLock); /* synchronize access to list */
+  record->timeStamp = traceTimeStamp();
+  record->threadId = buffer->threadId;
+  record->tag = tag;
+  record->method = method;
 
-  return notifyEncapsulation ;
+  return record ;
 }
 
-#endif /* NO_CALLBACKS */
+/*
+ * publishes the record returned by the last call to nextTraceRecord.
+ */
+void commitTraceRecord(TraceBuffer *buffer)
+{
+  MEMORY_BARRIER();
+  buffer->head++;
+}
+
+/*
+ * writes a trace record with a static message. This is what TRACE0 does.
+ *
+ * @param tag - the tag of the record; e.g. tag_call
+ * @param method - the name of the native method
+ * @param message - the message, must be a static string
+ */
+void traceRecord(const char *tag, const char *method, const char *message)
+{
+  TraceBuffer *buffer;
+  TraceRecord *record;
+
+  buffer = acquireTraceBuffer();
+  if (buffer == NULL_PTR) { return; }
+
+  record = nextTraceRecord(buffer, tag, method);
+  record->message = message;
+  commitTraceRecord(buffer);
+}
+
+/*
+ * writes a trace record with a formatted message, which is truncated to the
+ * size of a record. This is what TRACE1, TRACE2 and TRACE3 do.
+ *
+ * @param tag - the tag of the record; e.g. tag_call
+ * @param method - the name of the native method
+ * @param format - the printf format of the message
+ */
+void traceFormattedRecord(const char *tag, const char *method, const char *format, ...)
+{
+  TraceBuffer *buffer;
+  TraceRecord *record;
+  va_list parameters;
+
+  buffer = acquireTraceBuffer();
+  if (buffer == NULL_PTR) { return; }
+
+  record = nextTraceRecord(buffer, tag, method);
+  record->message = NULL_PTR;
+  va_start(parameters, format);
+  vsnprintf(record->text, TRACE_TEXT_LENGTH, format, parameters);
+  va_end(parameters);
+  record->text[TRACE_TEXT_LENGTH - 1] = '\0';
+  commitTraceRecord(buffer);
+}
+
+/*
+ * adds the timing of a completed call to the counters of its function. This is
+ * what STOP_CALL_TIMER does.
+ *
+ * @param timer - the timer of the call
+ */
+void recordCallTime(CallTimer *timer)
+{
+  CallTiming *timing = &callTimings[timer->function];
+
+  atomicAddLong(&timing->callCount, 1);
+  atomicAddLong(&timing->totalTime, traceTimeStamp() - timer->startTime);
+  atomicAddLong(&timing->moduleTime, timer->moduleTime);
+}
+
+/*
+ * sets a string of one of the arrays of drainTrace.
+ */
+void setTraceString(JNIEnv *env, jobjectArray jArray, jint index, const char *string)
+{
+  jstring jString;
+
+  if (string == NULL_PTR) { return; }
+  jString = (*env)->NewStringUTF(env, string);
+  if (jString == NULL_PTR) { return; }
+  (*env)->SetObjectArrayElement(env, jArray, index, jString);
+  (*env)->DeleteLocalRef(env, jString);
+}
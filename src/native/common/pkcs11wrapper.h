@@ -60,6 +60,7 @@
 #include "iaik_pkcs_pkcs11_wrapper_PKCS11Implementation.h"
 
 #include <time.h>
+#include <stdarg.h>
 
 #define ckBBoolToJBoolean(x) (x == TRUE) ? JNI_TRUE : JNI_FALSE;
 #define jBooleanToCKBBool(x) (x == JNI_TRUE) ? TRUE : FALSE;
@@ -116,10 +117,79 @@
 #define tag_error "ERROR"
 
 /*
- * This methods prints log entries with the following format:
+ * The trace of the wrapper. Each thread writes binary records into its own ring
+ * buffer without locking, but only while tracing is enabled at runtime; see
+ * the Java class iaik.pkcs.pkcs11.wrapper.NativeTrace, which drains the
+ * buffers. TRACE0 only stores pointers to the static strings; the other macros
+ * format their parameters into the record. Compiling with NO_TRACE removes all
+ * trace statements, compiling with TRACE_STDOUT prints each entry immediately
+ * with the following format:
  * <timestamp> <tag>: <message> (<method>)
  */
-#ifdef DEBUG
+#define TRACE_BUFFER_SIZE 512
+#define TRACE_TEXT_LENGTH 104
+
+/* A trace record as written by one of the TRACE macros. */
+struct TraceRecord {
+
+  /* The time of the record in nanoseconds, see traceTimeStamp in platform.c. */
+  jlong timeStamp;
+
+  /* The ID of the thread which wrote the record. */
+  jlong threadId;
+
+  const char *tag;
+  const char *method;
+
+  /* The message of TRACE0, NULL_PTR if text holds the formatted message. */
+  const char *message;
+
+  char text[TRACE_TEXT_LENGTH];
+
+};
+typedef struct TraceRecord TraceRecord;
+
+/* The ring buffer of one thread. Only the owning thread writes records and
+ * increments head, only the (synchronized) drain reads records and sets tail.
+ * A buffer of a terminated thread is reused by the next new thread.
+ */
+struct TraceBuffer {
+
+  /* The next buffer in the list of all buffers. */
+  struct TraceBuffer *next;
+
+  /* 1, while a thread owns this buffer. */
+  volatile long inUse;
+
+  /* The ID of the owning thread. */
+  jlong threadId;
+
+  /* The number of records ever written to this buffer. */
+  volatile unsigned long head;
+
+  /* The number of records drained or lost. */
+  unsigned long tail;
+
+  TraceRecord records[TRACE_BUFFER_SIZE];
+
+};
+typedef struct TraceBuffer TraceBuffer;
+
+extern volatile int traceEnabled;
+
+void traceRecord(const char *tag, const char *method, const char *message);
+void traceFormattedRecord(const char *tag, const char *method, const char *format, ...);
+TraceBuffer *acquireTraceBuffer(void);
+TraceRecord *nextTraceRecord(TraceBuffer *buffer, const char *tag, const char *method);
+void commitTraceRecord(TraceBuffer *buffer);
+void setTraceString(JNIEnv *env, jobjectArray jArray, jint index, const char *string);
+
+#if defined(NO_TRACE)
+#define TRACE0(tag, method, message)
+#define TRACE1(tag, method, message, p1)
+#define TRACE2(tag, method, message, p1, p2)
+#define TRACE3(tag, method, message, p1, p2, p3)
+#elif defined(TRACE_STDOUT)
 void timeStamp() {
 	char stamp[20];
 	time_t now;
@@ -130,18 +200,140 @@ void timeStamp() {
 	stamp[19] = '\0';
 	printf("%s ", stamp);
 }
-#define buffer_size = 50;
 #define TRACE0(tag, method, message) { timeStamp(); printf("%6s: ", tag); printf(message); printf(" (in %s)\n", method); fflush(stdout); }
 #define TRACE1(tag, method, message, p1) { timeStamp(); printf("%6s: ", tag); printf(message, p1); printf(" (in %s)\n", method); fflush(stdout); }
 #define TRACE2(tag, method, message, p1, p2) { timeStamp(); printf("%6s: ", tag); printf(message, p1, p2); printf(" (in %s)\n", method); fflush(stdout); }
 #define TRACE3(tag, method, message, p1, p2, p3) { timeStamp(); printf("%6s: ", tag); printf(message, p1, p2, p3); printf(" (in %s)\n", method); fflush(stdout); }
 #else
-#define TRACE0(tag, method, message)
-#define TRACE1(tag, method, message, p1)
-#define TRACE2(tag, method, message, p1, p2)
-#define TRACE3(tag, method, message, p1, p2, p3)
+#define TRACE0(tag, method, message) { if (traceEnabled) { traceRecord(tag, method, message); } }
+#define TRACE1(tag, method, message, p1) { if (traceEnabled) { traceFormattedRecord(tag, method, message, p1); } }
+#define TRACE2(tag, method, message, p1, p2) { if (traceEnabled) { traceFormattedRecord(tag, method, message, p1, p2); } }
+#define TRACE3(tag, method, message, p1, p2, p3) { if (traceEnabled) { traceFormattedRecord(tag, method, message, p1, p2, p3); } }
+#endif
 #define TRACE_INTEND
 #define TRACE_UNINTEND
+
+/*
+ * The timing of the calls to the module. For each PKCS#11 function, the wrapper
+ * counts the calls and accumulates the total time of the native method and the
+ * time spent in the module's function; the difference is the time needed to
+ * convert between Java and Cryptoki types. Only calls that return without an
+ * exception are counted. The timing is enabled at runtime; see the Java class
+ * iaik.pkcs.pkcs11.wrapper.NativeCallTimings. Compiling with NO_CALL_TIMING
+ * removes it completely.
+ */
+
+/* The indexes of the timed functions; the same as in the FUNCTION_NAMES of the
+ * Java class iaik.pkcs.pkcs11.wrapper.InstrumentingPKCS11.
+ */
+#define TIMER_C_INITIALIZE 0
+#define TIMER_C_FINALIZE 1
+#define TIMER_C_GET_INFO 2
+#define TIMER_C_GET_SLOT_LIST 3
+#define TIMER_C_GET_SLOT_INFO 4
+#define TIMER_C_GET_TOKEN_INFO 5
+#define TIMER_C_GET_MECHANISM_LIST 6
+#define TIMER_C_GET_MECHANISM_INFO 7
+#define TIMER_C_INIT_TOKEN 8
+#define TIMER_C_INIT_PIN 9
+#define TIMER_C_SET_PIN 10
+#define TIMER_C_OPEN_SESSION 11
+#define TIMER_C_CLOSE_SESSION 12
+#define TIMER_C_CLOSE_ALL_SESSIONS 13
+#define TIMER_C_GET_SESSION_INFO 14
+#define TIMER_C_GET_OPERATION_STATE 15
+#define TIMER_C_SET_OPERATION_STATE 16
+#define TIMER_C_LOGIN 17
+#define TIMER_C_LOGOUT 18
+#define TIMER_C_CREATE_OBJECT 19
+#define TIMER_C_COPY_OBJECT 20
+#define TIMER_C_DESTROY_OBJECT 21
+#define TIMER_C_GET_OBJECT_SIZE 22
+#define TIMER_C_GET_ATTRIBUTE_VALUE 23
+#define TIMER_C_SET_ATTRIBUTE_VALUE 24
+#define TIMER_C_FIND_OBJECTS_INIT 25
+#define TIMER_C_FIND_OBJECTS 26
+#define TIMER_C_FIND_OBJECTS_FINAL 27
+#define TIMER_C_ENCRYPT_INIT 28
+#define TIMER_C_ENCRYPT 29
+#define TIMER_C_ENCRYPT_UPDATE 30
+#define TIMER_C_ENCRYPT_FINAL 31
+#define TIMER_C_DECRYPT_INIT 32
+#define TIMER_C_DECRYPT 33
+#define TIMER_C_DECRYPT_UPDATE 34
+#define TIMER_C_DECRYPT_FINAL 35
+#define TIMER_C_DIGEST_INIT 36
+#define TIMER_C_DIGEST 37
+#define TIMER_C_DIGEST_UPDATE 38
+#define TIMER_C_DIGEST_KEY 39
+#define TIMER_C_DIGEST_FINAL 40
+#define TIMER_C_SIGN_INIT 41
+#define TIMER_C_SIGN 42
+#define TIMER_C_SIGN_UPDATE 43
+#define TIMER_C_SIGN_FINAL 44
+#define TIMER_C_SIGN_RECOVER_INIT 45
+#define TIMER_C_SIGN_RECOVER 46
+#define TIMER_C_VERIFY_INIT 47
+#define TIMER_C_VERIFY 48
+#define TIMER_C_VERIFY_UPDATE 49
+#define TIMER_C_VERIFY_FINAL 50
+#define TIMER_C_VERIFY_RECOVER_INIT 51
+#define TIMER_C_VERIFY_RECOVER 52
+#define TIMER_C_DIGEST_ENCRYPT_UPDATE 53
+#define TIMER_C_DECRYPT_DIGEST_UPDATE 54
+#define TIMER_C_SIGN_ENCRYPT_UPDATE 55
+#define TIMER_C_DECRYPT_VERIFY_UPDATE 56
+#define TIMER_C_GENERATE_KEY 57
+#define TIMER_C_GENERATE_KEY_PAIR 58
+#define TIMER_C_WRAP_KEY 59
+#define TIMER_C_UNWRAP_KEY 60
+#define TIMER_C_DERIVE_KEY 61
+#define TIMER_C_SEED_RANDOM 62
+#define TIMER_C_GENERATE_RANDOM 63
+#define TIMER_C_GET_FUNCTION_STATUS 64
+#define TIMER_C_CANCEL_FUNCTION 65
+#define TIMER_C_WAIT_FOR_SLOT_EVENT 66
+#define TIMED_FUNCTIONS 67
+
+/* The accumulated timing of one PKCS#11 function. */
+struct CallTiming {
+
+  volatile jlong callCount;
+
+  /* The total time of the native methods in nanoseconds. */
+  volatile jlong totalTime;
+
+  /* The time spent in the module in nanoseconds. */
+  volatile jlong moduleTime;
+
+};
+typedef struct CallTiming CallTiming;
+
+/* The timing of a single call, held on the stack of the native method. */
+struct CallTimer {
+
+  int function;
+
+  /* The start time of the call, 0 if timing is disabled. */
+  jlong startTime;
+
+  jlong moduleTime;
+
+};
+typedef struct CallTimer CallTimer;
+
+extern volatile int callTimingEnabled;
+
+void recordCallTime(CallTimer *timer);
+
+#ifdef NO_CALL_TIMING
+#define START_CALL_TIMER(timer, functionIndex) { (void) timer; }
+#define TIME_MODULE_CALL(timer, call) { call; }
+#define STOP_CALL_TIMER(timer)
+#else
+#define START_CALL_TIMER(timer, functionIndex) { timer.function = functionIndex; timer.moduleTime = 0; timer.startTime = callTimingEnabled ? traceTimeStamp() : 0; }
+#define TIME_MODULE_CALL(timer, call) { jlong moduleStartTime = (timer.startTime != 0) ? traceTimeStamp() : 0; call; if (timer.startTime != 0) { timer.moduleTime += traceTimeStamp() - moduleStartTime; } }
+#define STOP_CALL_TIMER(timer) { if (timer.startTime != 0) { recordCallTime(&timer); } }
 #endif
 
 #define CK_ASSERT_OK 0L
@@ -215,6 +407,9 @@ void timeStamp() {
  */
 
 jlong ckAssertReturnValueOK(JNIEnv *env, CK_RV returnValue, const char* callerMethodName);
+int cacheExceptionIDs(JNIEnv *env);
+void releaseExceptionIDs(JNIEnv *env);
+jlong ckCheckReturnValue(JNIEnv *env, CK_RV returnValue, jboolean jThrowException, const char* callerMethodName);
 void throwOutOfMemoryError(JNIEnv *env);
 void throwPKCS11RuntimeException(JNIEnv *env, jstring jmessage);
 void throwFileNotFoundException(JNIEnv *env, jstring jmessage);
@@ -314,13 +509,86 @@ CK_AES_CBC_ENCRYPT_DATA_PARAMS jAesCbcEncryptDataParamToCKAesCbcEncryptData(JNIE
 
 /* functions to convert the InitArgs object for calling the right Java mutex functions */
 
-CK_C_INITIALIZE_ARGS_PTR makeCKInitArgsAdapter(JNIEnv *env, jobject pInitArgs, jboolean jUseUtf8);
+CK_C_INITIALIZE_ARGS_PTR makeCKInitArgsAdapter(JNIEnv *env, ModuleData *moduleData, jobject pInitArgs, jboolean jUseUtf8);
+
+/* mutex functions using the locking primitives of the platform, see platform.c */
+
+CK_RV createNativeMutex(CK_VOID_PTR_PTR ppMutex);
+CK_RV destroyNativeMutex(CK_VOID_PTR pMutex);
+CK_RV lockNativeMutex(CK_VOID_PTR pMutex);
+CK_RV unlockNativeMutex(CK_VOID_PTR pMutex);
+
+/* functions for the trace buffers, see platform.c */
+
+void initTraceBuffers(void);
+jlong traceTimeStamp(void);
+jlong traceThreadId(void);
+int isThreadTraceBufferAvailable(void);
+TraceBuffer *getThreadTraceBuffer(void);
+void setThreadTraceBuffer(TraceBuffer *buffer);
+int compareAndSwapLong(volatile long *value, long expectedValue, long newValue);
+int compareAndSwapPointer(void * volatile *value, void *expectedValue, void *newValue);
+void atomicAddLong(volatile jlong *value, jlong delta);
 
 #ifndef NO_CALLBACKS /* if the library should not make callbacks; e.g. no javai.lib or jvm.lib available */
-CK_RV callJCreateMutex(CK_VOID_PTR_PTR ppMutex);
+
+/* The number of modules that can use Java mutex handlers at the same time.
+ * CK_CREATEMUTEX has no argument to tell the modules apart; thus, each of them
+ * gets one of this many CreateMutex functions.
+ */
+#define MAX_J_MUTEX_MODULES 8
+
+/* The Java mutex handler objects of the initArgs of one module. They are looked
+ * up once upon initialization, because the mutex callbacks are called very
+ * often by some modules.
+ */
+struct JMutexCallbacks {
+
+  /* The module using these handlers, NULL_PTR if this entry is free. */
+  ModuleData *moduleData;
+
+  jobject jCreateMutexObject;
+  jobject jDestroyMutexObject;
+  jobject jLockMutexObject;
+  jobject jUnlockMutexObject;
+
+};
+typedef struct JMutexCallbacks JMutexCallbacks;
+
+/* A mutex created by a Java CreateMutex handler. It keeps the handlers of its
+ * module for destroying, locking and unlocking it.
+ */
+struct JMutex {
+
+  /* Global reference to the Java mutex object. */
+  jobject jMutex;
+
+  /* The handlers of the module that created the mutex. */
+  JMutexCallbacks *callbacks;
+
+};
+typedef struct JMutex JMutex;
+
+CK_RV callJCreateMutex(JMutexCallbacks *callbacks, CK_VOID_PTR_PTR ppMutex);
 CK_RV callJDestroyMutex(CK_VOID_PTR pMutex);
 CK_RV callJLockMutex(CK_VOID_PTR pMutex);
 CK_RV callJUnlockMutex(CK_VOID_PTR pMutex);
+JMutexCallbacks * cacheJMutexCallbacks(JNIEnv *env, ModuleData *moduleData, jobject jInitArgs);
+jobject newGlobalRefOrNull(JNIEnv *env, jobject jObject);
+JMutexCallbacks * getJMutexCallbacks(CK_CREATEMUTEX createMutex);
+void releaseJMutexCallbacks(JNIEnv *env, JMutexCallbacks *callbacks);
+void releaseModuleJMutexCallbacks(JNIEnv *env, ModuleData *moduleData, JMutexCallbacks *keep);
+void releaseAllJMutexCallbacks(JNIEnv *env);
+int cacheCallbackIDs(JNIEnv *env);
+void releaseCallbackIDs(JNIEnv *env);
+JNIEnv *getCallbackEnv(int *pDetachAfterCall);
+CK_RV getCallbackResult(JNIEnv *env);
+
+/* functions to keep threads of the module attached to the VM, see platform.c */
+
+void initThreadAttachment(void);
+int keepThreadAttached(JavaVM *jvm);
+void releaseThreadAttachment(void);
 #endif /* NO_CALLBACKS */
 
 
@@ -369,23 +637,40 @@ CK_RV notifyCallback(
 );
 
 
-/* A node of the list of notify callbacks. To be able to free the resources after use. */
+/* The number of buckets of the hash table of notify callbacks. It must be a
+ * power of two.
+ */
+#define NOTIFY_TABLE_SIZE 1024
+
+/* The number of lock objects of the hash table of notify callbacks. Bucket i
+ * is guarded by lock i % NOTIFY_LOCK_STRIPES. It must divide NOTIFY_TABLE_SIZE.
+ */
+#define NOTIFY_LOCK_STRIPES 16
+
+/* A node of the hash table of notify callbacks. To be able to free the resources after use. */
 struct NotifyListNode {
 
+  /* The module of the session. Session handles are unique per module only. */
+  ModuleData *moduleData;
+
+  /* The slot of the session, for C_CloseAllSessions. */
+  CK_SLOT_ID slotID;
+
   /* The handle of the session this notify object is attached to*/
   CK_SESSION_HANDLE hSession;
 
   /* Reference to the Notify encapsulation object that was passed to C_OpenSession. */
   NotifyEncapsulation *notifyEncapsulation;
 
-  /* Pointer to the next node in the list. */
+  /* Pointer to the next node in the same bucket. */
   struct NotifyListNode *next;
 
 };
 typedef struct NotifyListNode NotifyListNode;
 
-void putNotifyEntry(JNIEnv *env, CK_SESSION_HANDLE hSession, NotifyEncapsulation *notifyEncapsulation);
-NotifyEncapsulation * removeNotifyEntry(JNIEnv *env, CK_SESSION_HANDLE hSession);
+void putNotifyEntry(JNIEnv *env, ModuleData *moduleData, CK_SLOT_ID slotID, CK_SESSION_HANDLE hSession, NotifyEncapsulation *notifyEncapsulation);
+NotifyEncapsulation * removeNotifyEntry(JNIEnv *env, ModuleData *moduleData, CK_SESSION_HANDLE hSession);
+NotifyListNode * removeSlotNotifyEntries(JNIEnv *env, ModuleData *moduleData, CK_SLOT_ID slotID);
 NotifyEncapsulation * removeFirstNotifyEntry(JNIEnv *env);
 
 jobject createLockObject(JNIEnv *env);
@@ -0,0 +1,2489 @@
+/* Copyright  (c) 2002 Graz University of Technology. All rights reserved.
+ *
+ * Redistribution and use in  source and binary forms, with or without 
+ * modification, are permitted  provided that the following conditions are met:
+ *
+ * 1. Redistributions of  source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in  binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *  
+ * 3. The end-user documentation included with the redistribution, if any, must
+ *    include the following acknowledgment:
+ * 
+ *    "This product includes software developed by IAIK of Graz University of
+ *     Technology."
+ * 
+ *    Alternately, this acknowledgment may appear in the software itself, if 
+ *    and wherever such third-party acknowledgments normally appear.
+ *  
+ * 4. The names "Graz University of Technology" and "IAIK of Graz University of
+ *    Technology" must not be used to endorse or promote products derived from 
+ *    this software without prior written permission.
+ *  
+ * 5. Products derived from this software may not be called 
+ *    "IAIK PKCS Wrapper", nor may "IAIK" appear in their name, without prior 
+ *    written permission of Graz University of Technology.
+ *  
+ *  THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+ *  WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ *  OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ *  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ *  OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ *  OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *  POSSIBILITY  OF SUCH DAMAGE.
+ */
+
+/*
+ * mockpkcs11.c
+ *
+ * This is a mock PKCS#11 module for testing and benchmarking the wrapper
+ * without a token. It keeps all objects in memory and returns fake results of
+ * the correct size for signing, verifying, encrypting, decrypting and
+ * digesting. The results are deterministic: decrypting an encryption yields
+ * the plain data again and verifying a signature of the same data and key pair
+ * succeeds. There is no real cryptography in here; never use it for anything
+ * else than tests. The module does not enforce access rules; e.g. private
+ * objects are visible without login.
+ *
+ * The module reads its settings from the environment or, if the variable
+ * MOCK_PKCS11_CONFIG names a file, from lines NAME=VALUE in that file. The
+ * environment takes precedence. The settings are read in C_Initialize.
+ *
+ *   MOCK_PKCS11_SLOTS       the number of slots, each with a token; default 1
+ *   MOCK_PKCS11_PIN         the PIN of the user and the SO; default 1234
+ *   MOCK_PKCS11_SEED        the seed of the random generator; default 1
+ *   MOCK_PKCS11_LATENCY_US  the minimum latency of each call in microseconds
+ *   MOCK_PKCS11_JITTER_US   the mean of an exponentially distributed latency
+ *                           added to the minimum, in microseconds
+ *   MOCK_PKCS11_ERROR_RATE  the probability of a call to fail, 0.0 to 1.0
+ *   MOCK_PKCS11_ERROR_CODE  the return value of failing calls; default
+ *                           CKR_DEVICE_ERROR
+ *
+ * Each of the last four settings can be set for a single function by appending
+ * the function name; e.g. MOCK_PKCS11_LATENCY_US_C_Sign=5000.
+ *
+ * The supported mechanisms are CKM_RSA_PKCS_KEY_PAIR_GEN, CKM_EC_KEY_PAIR_GEN,
+ * CKM_AES_KEY_GEN, CKM_GENERIC_SECRET_KEY_GEN, CKM_RSA_PKCS and CKM_SHAx_RSA_PKCS,
+ * CKM_ECDSA and CKM_ECDSA_SHA1, CKM_SHA256_HMAC, CKM_AES_ECB, CKM_AES_CBC,
+ * CKM_AES_CBC_PAD, CKM_MD5, CKM_SHA_1 and CKM_SHAx.
+ */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <math.h>
+#include <time.h>
+#include <errno.h>
+#include <pthread.h>
+
+#define CK_PTR *
+#define CK_DEFINE_FUNCTION(returnType, name) returnType name
+#define CK_DECLARE_FUNCTION(returnType, name) returnType name
+#define CK_DECLARE_FUNCTION_POINTER(returnType, name) returnType (* name)
+#define CK_CALLBACK_FUNCTION(returnType, name) returnType (* name)
+#ifndef NULL_PTR
+#define NULL_PTR 0
+#endif
+
+#include "pkcs11.h"
+
+#define MOCK_MAX_SLOTS 64
+#define MOCK_MAX_SETTINGS 256
+#define MOCK_MAX_PIN_LENGTH 64
+#define MOCK_BLOCK_SIZE 16
+#define MOCK_NO_USER ((CK_USER_TYPE) -1)
+
+#define FNV_OFFSET 0xcbf29ce484222325ULL
+#define FNV_PRIME 0x100000001b3ULL
+
+
+/* ************************************************************************** */
+/* Data structures of the module                                              */
+/* ************************************************************************** */
+
+/* An object with a copy of its attributes. */
+struct MockObject {
+
+  struct MockObject *next;
+
+  CK_OBJECT_HANDLE handle;
+
+  CK_SLOT_ID slotID;
+
+  /* The session that created a session object, 0 for token objects. */
+  CK_SESSION_HANDLE hSession;
+
+  /* The fake key material. The public and private key of a pair have the
+   * same tag.
+   */
+  unsigned long long keyTag;
+
+  /* The length of the signatures made with this key. */
+  CK_ULONG signatureLength;
+
+  CK_ULONG attributeCount;
+
+  CK_ATTRIBUTE_PTR attributes;
+
+};
+typedef struct MockObject MockObject;
+
+/* The state of a cryptographic operation of a session. The key is copied into
+ * the operation, that destroying the key does not affect the operation.
+ */
+struct MockOperation {
+
+  int active;
+
+  CK_MECHANISM_TYPE mechanism;
+
+  unsigned long long keyTag;
+
+  /* The fake digest of the data processed so far. */
+  unsigned long long hash;
+
+  CK_ULONG outputLength;
+
+  /* 1, if the operation adds or removes a PKCS#7 padding. */
+  int padding;
+
+  CK_BYTE block[MOCK_BLOCK_SIZE];
+
+  CK_ULONG blockLength;
+
+};
+typedef struct MockOperation MockOperation;
+
+struct MockSession {
+
+  struct MockSession *next;
+
+  CK_SESSION_HANDLE handle;
+
+  CK_SLOT_ID slotID;
+
+  CK_FLAGS flags;
+
+  MockOperation encryptOperation;
+  MockOperation decryptOperation;
+  MockOperation digestOperation;
+  MockOperation signOperation;
+  MockOperation verifyOperation;
+
+  /* The result of the current search. */
+  int findActive;
+  CK_OBJECT_HANDLE_PTR foundObjects;
+  CK_ULONG foundCount;
+  CK_ULONG foundPosition;
+
+};
+typedef struct MockSession MockSession;
+
+struct MockSlot {
+
+  /* The user logged in; MOCK_NO_USER if none. */
+  CK_USER_TYPE user;
+
+  char pin[MOCK_MAX_PIN_LENGTH + 1];
+
+  CK_ULONG sessionCount;
+
+  CK_ULONG rwSessionCount;
+
+};
+typedef struct MockSlot MockSlot;
+
+/* A mechanism and the size of its results. */
+struct MockMechanism {
+
+  CK_MECHANISM_TYPE type;
+
+  CK_MECHANISM_INFO info;
+
+  /* The length of digests or MACs; 0 if it depends on the key. */
+  CK_ULONG outputLength;
+
+};
+typedef struct MockMechanism MockMechanism;
+
+/* The simulated behavior of a function. */
+struct MockBehavior {
+
+  /* The minimum latency in microseconds. */
+  long latency;
+
+  /* The mean of the additional, exponentially distributed latency in
+   * microseconds.
+   */
+  long jitter;
+
+  double errorRate;
+
+  CK_RV errorCode;
+
+};
+typedef struct MockBehavior MockBehavior;
+
+
+/* ************************************************************************** */
+/* Variables of the module                                                    */
+/* ************************************************************************** */
+
+/* The functions in the order of CK_FUNCTION_LIST. */
+static const char *functionNames[] = {
+  "C_Initialize", "C_Finalize", "C_GetInfo", "C_GetFunctionList", "C_GetSlotList",
+  "C_GetSlotInfo", "C_GetTokenInfo", "C_GetMechanismList", "C_GetMechanismInfo",
+  "C_InitToken", "C_InitPIN", "C_SetPIN", "C_OpenSession", "C_CloseSession",
+  "C_CloseAllSessions", "C_GetSessionInfo", "C_GetOperationState", "C_SetOperationState",
+  "C_Login", "C_Logout", "C_CreateObject", "C_CopyObject", "C_DestroyObject",
+  "C_GetObjectSize", "C_GetAttributeValue", "C_SetAttributeValue", "C_FindObjectsInit",
+  "C_FindObjects", "C_FindObjectsFinal", "C_EncryptInit", "C_Encrypt", "C_EncryptUpdate",
+  "C_EncryptFinal", "C_DecryptInit", "C_Decrypt", "C_DecryptUpdate", "C_DecryptFinal",
+  "C_DigestInit", "C_Digest", "C_DigestUpdate", "C_DigestKey", "C_DigestFinal",
+  "C_SignInit", "C_Sign", "C_SignUpdate", "C_SignFinal", "C_SignRecoverInit",
+  "C_SignRecover", "C_VerifyInit", "C_Verify", "C_VerifyUpdate", "C_VerifyFinal",
+  "C_VerifyRecoverInit", "C_VerifyRecover", "C_DigestEncryptUpdate",
+  "C_DecryptDigestUpdate", "C_SignEncryptUpdate", "C_DecryptVerifyUpdate",
+  "C_GenerateKey", "C_GenerateKeyPair", "C_WrapKey", "C_UnwrapKey", "C_DeriveKey",
+  "C_SeedRandom", "C_GenerateRandom", "C_GetFunctionStatus", "C_CancelFunction",
+  "C_WaitForSlotEvent"
+};
+
+/* The indexes of the functions in functionNames. */
+enum {
+  F_C_Initialize, F_C_Finalize, F_C_GetInfo, F_C_GetFunctionList, F_C_GetSlotList,
+  F_C_GetSlotInfo, F_C_GetTokenInfo, F_C_GetMechanismList, F_C_GetMechanismInfo,
+  F_C_InitToken, F_C_InitPIN, F_C_SetPIN, F_C_OpenSession, F_C_CloseSession,
+  F_C_CloseAllSessions, F_C_GetSessionInfo, F_C_GetOperationState, F_C_SetOperationState,
+  F_C_Login, F_C_Logout, F_C_CreateObject, F_C_CopyObject, F_C_DestroyObject,
+  F_C_GetObjectSize, F_C_GetAttributeValue, F_C_SetAttributeValue, F_C_FindObjectsInit,
+  F_C_FindObjects, F_C_FindObjectsFinal, F_C_EncryptInit, F_C_Encrypt, F_C_EncryptUpdate,
+  F_C_EncryptFinal, F_C_DecryptInit, F_C_Decrypt, F_C_DecryptUpdate, F_C_DecryptFinal,
+  F_C_DigestInit, F_C_Digest, F_C_DigestUpdate, F_C_DigestKey, F_C_DigestFinal,
+  F_C_SignInit, F_C_Sign, F_C_SignUpdate, F_C_SignFinal, F_C_SignRecoverInit,
+  F_C_SignRecover, F_C_VerifyInit, F_C_Verify, F_C_VerifyUpdate, F_C_VerifyFinal,
+  F_C_VerifyRecoverInit, F_C_VerifyRecover, F_C_DigestEncryptUpdate,
+  F_C_DecryptDigestUpdate, F_C_SignEncryptUpdate, F_C_DecryptVerifyUpdate,
+  F_C_GenerateKey, F_C_GenerateKeyPair, F_C_WrapKey, F_C_UnwrapKey, F_C_DeriveKey,
+  F_C_SeedRandom, F_C_GenerateRandom, F_C_GetFunctionStatus, F_C_CancelFunction,
+  F_C_WaitForSlotEvent, FUNCTION_COUNT
+};
+
+#define HW_FLAGS CKF_HW
+static MockMechanism mechanisms[] = {
+  { CKM_RSA_PKCS_KEY_PAIR_GEN, { 1024, 4096, HW_FLAGS | CKF_GENERATE_KEY_PAIR }, 0 },
+  { CKM_RSA_PKCS, { 1024, 4096, HW_FLAGS | CKF_SIGN | CKF_VERIFY }, 0 },
+  { CKM_SHA1_RSA_PKCS, { 1024, 4096, HW_FLAGS | CKF_SIGN | CKF_VERIFY }, 0 },
+  { CKM_SHA256_RSA_PKCS, { 1024, 4096, HW_FLAGS | CKF_SIGN | CKF_VERIFY }, 0 },
+  { CKM_SHA384_RSA_PKCS, { 1024, 4096, HW_FLAGS | CKF_SIGN | CKF_VERIFY }, 0 },
+  { CKM_SHA512_RSA_PKCS, { 1024, 4096, HW_FLAGS | CKF_SIGN | CKF_VERIFY }, 0 },
+  { CKM_EC_KEY_PAIR_GEN, { 256, 521, HW_FLAGS | CKF_GENERATE_KEY_PAIR }, 0 },
+  { CKM_ECDSA, { 256, 521, HW_FLAGS | CKF_SIGN | CKF_VERIFY }, 0 },
+  { CKM_ECDSA_SHA1, { 256, 521, HW_FLAGS | CKF_SIGN | CKF_VERIFY }, 0 },
+  { CKM_AES_KEY_GEN, { 16, 32, HW_FLAGS | CKF_GENERATE }, 0 },
+  { CKM_AES_ECB, { 16, 32, HW_FLAGS | CKF_ENCRYPT | CKF_DECRYPT }, 0 },
+  { CKM_AES_CBC, { 16, 32, HW_FLAGS | CKF_ENCRYPT | CKF_DECRYPT }, 0 },
+  { CKM_AES_CBC_PAD, { 16, 32, HW_FLAGS | CKF_ENCRYPT | CKF_DECRYPT }, 0 },
+  { CKM_GENERIC_SECRET_KEY_GEN, { 1, 512, HW_FLAGS | CKF_GENERATE }, 0 },
+  { CKM_SHA256_HMAC, { 1, 512, HW_FLAGS | CKF_SIGN | CKF_VERIFY }, 32 },
+  { CKM_MD5, { 0, 0, HW_FLAGS | CKF_DIGEST }, 16 },
+  { CKM_SHA_1, { 0, 0, HW_FLAGS | CKF_DIGEST }, 20 },
+  { CKM_SHA256, { 0, 0, HW_FLAGS | CKF_DIGEST }, 32 },
+  { CKM_SHA384, { 0, 0, HW_FLAGS | CKF_DIGEST }, 48 },
+  { CKM_SHA512, { 0, 0, HW_FLAGS | CKF_DIGEST }, 64 }
+};
+#define MECHANISM_COUNT (sizeof(mechanisms) / sizeof(MockMechanism))
+
+static int initialized = 0;
+
+/* The lock of the module's objects and sessions. It uses the mutex functions of
+ * the application, if it passed them to C_Initialize.
+ */
+static pthread_mutex_t defaultMutex = PTHREAD_MUTEX_INITIALIZER;
+static CK_VOID_PTR applicationMutex = NULL_PTR;
+static CK_C_INITIALIZE_ARGS applicationMutexFunctions;
+
+/* The random generator and its lock. */
+static pthread_mutex_t randomMutex = PTHREAD_MUTEX_INITIALIZER;
+static unsigned long long randomState = 1;
+
+/* The condition C_WaitForSlotEvent waits for; i.e. C_Finalize. */
+static pthread_mutex_t eventMutex = PTHREAD_MUTEX_INITIALIZER;
+static pthread_cond_t eventCondition = PTHREAD_COND_INITIALIZER;
+
+/* The settings of the configuration file. */
+static char *settingNames[MOCK_MAX_SETTINGS];
+static char *settingValues[MOCK_MAX_SETTINGS];
+static int settingCount = 0;
+
+static MockBehavior behaviors[FUNCTION_COUNT];
+
+static MockSlot slots[MOCK_MAX_SLOTS];
+static CK_ULONG slotCount = 1;
+
+static MockObject *objectList = NULL_PTR;
+static MockSession *sessionList = NULL_PTR;
+static CK_ULONG nextHandle = 1;
+
+static CK_FUNCTION_LIST functionList;
+
+
+/* ************************************************************************** */
+/* Helper functions                                                           */
+/* ************************************************************************** */
+
+static void lockModule(void)
+{
+  if (applicationMutex != NULL_PTR) {
+    (*applicationMutexFunctions.LockMutex)(applicationMutex);
+  } else {
+    pthread_mutex_lock(&defaultMutex);
+  }
+}
+
+static void unlockModule(void)
+{
+  if (applicationMutex != NULL_PTR) {
+    (*applicationMutexFunctions.UnlockMutex)(applicationMutex);
+  } else {
+    pthread_mutex_unlock(&defaultMutex);
+  }
+}
+
+/*
+ * gets the next pseudo random number. The sequence only depends on the seed
+ * and the order of the calls.
+ */
+static unsigned long long nextRandom(void)
+{
+  unsigned long long value;
+
+  pthread_mutex_lock(&randomMutex);
+  randomState += 0x9e3779b97f4a7c15ULL;
+  value = randomState;
+  pthread_mutex_unlock(&randomMutex);
+
+  value = (value ^ (value >> 30)) * 0xbf58476d1ce4e5b9ULL;
+  value = (value ^ (value >> 27)) * 0x94d049bb133111ebULL;
+
+  return value ^ (value >> 31) ;
+}
+
+/*
+ * gets a pseudo random number in the range [0.0, 1.0).
+ */
+static double nextRandomDouble(void)
+{
+  return (nextRandom() >> 11) * (1.0 / 9007199254740992.0) ;
+}
+
+static void randomBytes(CK_BYTE_PTR bytes, CK_ULONG length)
+{
+  CK_ULONG i;
+
+  for (i = 0; i < length; i++) {
+    bytes[i] = (CK_BYTE) nextRandom();
+  }
+}
+
+/*
+ * adds data to a fake digest, which is a FNV-1a hash.
+ */
+static unsigned long long hashBytes(unsigned long long hash, CK_BYTE_PTR data, CK_ULONG length)
+{
+  CK_ULONG i;
+
+  for (i = 0; i < length; i++) {
+    hash = (hash ^ data[i]) * FNV_PRIME;
+  }
+
+  return hash ;
+}
+
+/*
+ * expands a fake digest to the output of the given length.
+ */
+static void expandHash(unsigned long long hash, CK_BYTE_PTR output, CK_ULONG length)
+{
+  unsigned long long value = 0;
+  CK_ULONG i;
+
+  for (i = 0; i < length; i++) {
+    if (i % 8 == 0) {
+      hash += 0x9e3779b97f4a7c15ULL;
+      value = (hash ^ (hash >> 30)) * 0xbf58476d1ce4e5b9ULL;
+      value = (value ^ (value >> 27)) * 0x94d049bb133111ebULL;
+      value ^= value >> 31;
+    }
+    output[i] = (CK_BYTE) (value >> (8 * (i % 8)));
+  }
+}
+
+/*
+ * gets the byte of the fake key stream for the given position in a block.
+ */
+static CK_BYTE keyStreamByte(unsigned long long keyTag, CK_ULONG position)
+{
+  return (CK_BYTE) ((keyTag >> (8 * (position % 8))) ^ (position * 0x3b)) ;
+}
+
+static void sleepMicroseconds(long microseconds)
+{
+  struct timespec duration;
+
+  duration.tv_sec = microseconds / 1000000;
+  duration.tv_nsec = (microseconds % 1000000) * 1000;
+  while (nanosleep(&duration, &duration) != 0 && errno == EINTR);
+}
+
+/*
+ * gets a setting from the environment or the configuration file.
+ *
+ * @return - the value of the setting, NULL_PTR if not set
+ */
+static const char *getSetting(const char *name)
+{
+  const char *value;
+  int i;
+
+  value = getenv(name);
+  if (value != NULL_PTR) { return value ; }
+
+  for (i = 0; i < settingCount; i++) {
+    if (strcmp(settingNames[i], name) == 0) { return settingValues[i] ; }
+  }
+
+  return NULL_PTR ;
+}
+
+/*
+ * gets a setting of a function; e.g. MOCK_PKCS11_LATENCY_US_C_Sign, or the
+ * setting for all functions, if there is none for this function.
+ */
+static const char *getFunctionSetting(const char *name, int function)
+{
+  char functionSettingName[128];
+  const char *value;
+
+  snprintf(functionSettingName, sizeof(functionSettingName), "%s_%s", name, functionNames[function]);
+  value = getSetting(functionSettingName);
+
+  return (value != NULL_PTR) ? value : getSetting(name) ;
+}
+
+static void readConfigFile(const char *fileName)
+{
+  FILE *file;
+  char line[512];
+  char *separator, *end;
+
+  file = fopen(fileName, "r");
+  if (file == NULL_PTR) { return; }
+
+  while (settingCount < MOCK_MAX_SETTINGS && fgets(line, sizeof(line), file) != NULL_PTR) {
+    if (line[0] == '#') { continue; }
+    separator = strchr(line, '=');
+    if (separator == NULL_PTR) { continue; }
+    *separator = '\0';
+    end = separator + 1 + strcspn(separator + 1, "\r\n");
+    *end = '\0';
+    settingNames[settingCount] = strdup(line);
+    settingValues[settingCount] = strdup(separator + 1);
+    settingCount++;
+  }
+
+  fclose(file);
+}
+
+static void freeSettings(void)
+{
+  int i;
+
+  for (i = 0; i < settingCount; i++) {
+    free(settingNames[i]);
+    free(settingValues[i]);
+  }
+  settingCount = 0;
+}
+
+static void readSettings(void)
+{
+  const char *value;
+  CK_ULONG i;
+  int function;
+
+  value = getenv("MOCK_PKCS11_CONFIG");
+  if (value != NULL_PTR) { readConfigFile(value); }
+
+  value = getSetting("MOCK_PKCS11_SLOTS");
+  slotCount = (value != NULL_PTR) ? strtoul(value, NULL_PTR, 0) : 1;
+  if (slotCount > MOCK_MAX_SLOTS) { slotCount = MOCK_MAX_SLOTS; }
+
+  value = getSetting("MOCK_PKCS11_PIN");
+  for (i = 0; i < slotCount; i++) {
+    slots[i].user = MOCK_NO_USER;
+    slots[i].sessionCount = 0;
+    slots[i].rwSessionCount = 0;
+    strncpy(slots[i].pin, (value != NULL_PTR) ? value : "1234", MOCK_MAX_PIN_LENGTH);
+    slots[i].pin[MOCK_MAX_PIN_LENGTH] = '\0';
+  }
+
+  value = getSetting("MOCK_PKCS11_SEED");
+  randomState = (value != NULL_PTR) ? strtoull(value, NULL_PTR, 0) : 1;
+
+  for (function = 0; function < FUNCTION_COUNT; function++) {
+    value = getFunctionSetting("MOCK_PKCS11_LATENCY_US", function);
+    behaviors[function].latency = (value != NULL_PTR) ? strtol(value, NULL_PTR, 0) : 0;
+    value = getFunctionSetting("MOCK_PKCS11_JITTER_US", function);
+    behaviors[function].jitter = (value != NULL_PTR) ? strtol(value, NULL_PTR, 0) : 0;
+    value = getFunctionSetting("MOCK_PKCS11_ERROR_RATE", function);
+    behaviors[function].errorRate = (value != NULL_PTR) ? strtod(value, NULL_PTR) : 0.0;
+    value = getFunctionSetting("MOCK_PKCS11_ERROR_CODE", function);
+    behaviors[function].errorCode = (value != NULL_PTR) ? strtoul(value, NULL_PTR, 0) : CKR_DEVICE_ERROR;
+  }
+}
+
+/*
+ * simulates the latency of a function and decides, if it fails.
+ *
+ * @param function - the index of the function in functionNames
+ * @return - CKR_OK or the error code to return
+ */
+static CK_RV simulateCall(int function)
+{
+  MockBehavior *behavior = &behaviors[function];
+  long latency = behavior->latency;
+
+  if (behavior->jitter > 0) {
+    latency += (long) (-log(1.0 - nextRandomDouble()) * behavior->jitter);
+  }
+  if (latency > 0) { sleepMicroseconds(latency); }
+
+  if (behavior->errorRate > 0.0 && nextRandomDouble() < behavior->errorRate) {
+    return behavior->errorCode ;
+  }
+
+  return CKR_OK ;
+}
+
+/* checks that the module is initialized and simulates the call */
+#define ENTER(function) { \
+  CK_RV simulatedRV; \
+  if (!initialized) { return CKR_CRYPTOKI_NOT_INITIALIZED ; } \
+  simulatedRV = simulateCall(function); \
+  if (simulatedRV != CKR_OK) { return simulatedRV ; } \
+}
+
+static void padString(CK_UTF8CHAR_PTR destination, const char *source, CK_ULONG length)
+{
+  CK_ULONG sourceLength = strlen(source);
+
+  memset(destination, ' ', length);
+  memcpy(destination, source, (sourceLength < length) ? sourceLength : length);
+}
+
+static MockMechanism *getMechanism(CK_MECHANISM_TYPE type)
+{
+  CK_ULONG i;
+
+  for (i = 0; i < MECHANISM_COUNT; i++) {
+    if (mechanisms[i].type == type) { return &mechanisms[i] ; }
+  }
+
+  return NULL_PTR ;
+}
+
+/*
+ * gets a session. The caller must hold the lock.
+ */
+static MockSession *findSession(CK_SESSION_HANDLE hSession)
+{
+  MockSession *session;
+
+  for (session = sessionList; session != NULL_PTR; session = session->next) {
+    if (session->handle == hSession) { return session ; }
+  }
+
+  return NULL_PTR ;
+}
+
+/*
+ * gets a session. Only the thread using a session may access its operations;
+ * thus, they need no lock.
+ */
+static MockSession *getSession(CK_SESSION_HANDLE hSession)
+{
+  MockSession *session;
+
+  lockModule();
+  session = findSession(hSession);
+  unlockModule();
+
+  return session ;
+}
+
+/*
+ * gets an object. The caller must hold the lock.
+ */
+static MockObject *findObject(CK_OBJECT_HANDLE hObject)
+{
+  MockObject *object;
+
+  for (object = objectList; object != NULL_PTR; object = object->next) {
+    if (object->handle == hObject) { return object ; }
+  }
+
+  return NULL_PTR ;
+}
+
+static CK_ATTRIBUTE_PTR findAttribute(MockObject *object, CK_ATTRIBUTE_TYPE type)
+{
+  CK_ULONG i;
+
+  for (i = 0; i < object->attributeCount; i++) {
+    if (object->attributes[i].type == type) { return &object->attributes[i] ; }
+  }
+
+  return NULL_PTR ;
+}
+
+static CK_ATTRIBUTE_PTR findTemplateAttribute(CK_ATTRIBUTE_PTR pTemplate, CK_ULONG ulCount, CK_ATTRIBUTE_TYPE type)
+{
+  CK_ULONG i;
+
+  for (i = 0; i < ulCount; i++) {
+    if (pTemplate[i].type == type) { return &pTemplate[i] ; }
+  }
+
+  return NULL_PTR ;
+}
+
+/*
+ * sets an attribute of an object to a copy of the given value.
+ */
+static CK_RV setAttribute(MockObject *object, CK_ATTRIBUTE_TYPE type, CK_VOID_PTR pValue, CK_ULONG ulValueLen)
+{
+  CK_ATTRIBUTE_PTR attribute;
+  CK_ATTRIBUTE_PTR attributes;
+  CK_VOID_PTR value;
+
+  value = malloc((ulValueLen > 0) ? ulValueLen : 1);
+  if (value == NULL_PTR) { return CKR_HOST_MEMORY ; }
+  if (ulValueLen > 0) { memcpy(value, pValue, ulValueLen); }
+
+  attribute = findAttribute(object, type);
+  if (attribute == NULL_PTR) {
+    attributes = (CK_ATTRIBUTE_PTR) realloc(object->attributes, (object->attributeCount + 1) * sizeof(CK_ATTRIBUTE));
+    if (attributes == NULL_PTR) { free(value); return CKR_HOST_MEMORY ; }
+    object->attributes = attributes;
+    attribute = &attributes[object->attributeCount++];
+    attribute->type = type;
+  } else {
+    free(attribute->pValue);
+  }
+  attribute->pValue = value;
+  attribute->ulValueLen = ulValueLen;
+
+  return CKR_OK ;
+}
+
+static CK_RV setLongAttribute(MockObject *object, CK_ATTRIBUTE_TYPE type, CK_ULONG value)
+{
+  return setAttribute(object, type, &value, sizeof(CK_ULONG)) ;
+}
+
+static CK_RV setBooleanAttribute(MockObject *object, CK_ATTRIBUTE_TYPE type, CK_BBOOL value)
+{
+  return setAttribute(object, type, &value, sizeof(CK_BBOOL)) ;
+}
+
+static CK_ULONG getLongAttribute(MockObject *object, CK_ATTRIBUTE_TYPE type, CK_ULONG defaultValue)
+{
+  CK_ATTRIBUTE_PTR attribute = findAttribute(object, type);
+
+  if (attribute == NULL_PTR || attribute->ulValueLen != sizeof(CK_ULONG)) { return defaultValue ; }
+
+  return *((CK_ULONG *) attribute->pValue) ;
+}
+
+static CK_BBOOL getBooleanAttribute(MockObject *object, CK_ATTRIBUTE_TYPE type, CK_BBOOL defaultValue)
+{
+  CK_ATTRIBUTE_PTR attribute = findAttribute(object, type);
+
+  if (attribute == NULL_PTR || attribute->ulValueLen != sizeof(CK_BBOOL)) { return defaultValue ; }
+
+  return *((CK_BBOOL *) attribute->pValue) ;
+}
+
+static void freeObject(MockObject *object)
+{
+  CK_ULONG i;
+
+  for (i = 0; i < object->attributeCount; i++) {
+    free(object->attributes[i].pValue);
+  }
+  free(object->attributes);
+  free(object);
+}
+
+/*
+ * creates an object with a copy of the template. The caller adds it to the
+ * list of objects.
+ */
+static CK_RV newObject(MockSession *session, CK_ATTRIBUTE_PTR pTemplate, CK_ULONG ulCount, MockObject **ppObject)
+{
+  MockObject *object;
+  CK_ULONG i;
+  CK_RV rv;
+
+  if (pTemplate == NULL_PTR && ulCount > 0) { return CKR_ARGUMENTS_BAD ; }
+
+  object = (MockObject *) calloc(1, sizeof(MockObject));
+  if (object == NULL_PTR) { return CKR_HOST_MEMORY ; }
+
+  for (i = 0; i < ulCount; i++) {
+    rv = setAttribute(object, pTemplate[i].type, pTemplate[i].pValue, pTemplate[i].ulValueLen);
+    if (rv != CKR_OK) { freeObject(object); return rv ; }
+  }
+  object->slotID = session->slotID;
+  object->hSession = getBooleanAttribute(object, CKA_TOKEN, CK_FALSE) ? 0 : session->handle;
+  object->signatureLength = 64;
+
+  *ppObject = object;
+
+  return CKR_OK ;
+}
+
+/*
+ * adds a new object to the list of objects and assigns its handle.
+ */
+static CK_OBJECT_HANDLE addObject(MockObject *object)
+{
+  lockModule();
+  object->handle = nextHandle++;
+  object->next = objectList;
+  objectList = object;
+  unlockModule();
+
+  return object->handle ;
+}
+
+/*
+ * removes and frees all objects of a slot and session. The caller must hold
+ * the lock.
+ *
+ * @param hSession - the session of the session objects to remove, 0 to
+ *                   remove the token objects
+ */
+static void removeObjects(CK_SLOT_ID slotID, CK_SESSION_HANDLE hSession)
+{
+  MockObject **pObject = &objectList;
+  MockObject *object;
+
+  while (*pObject != NULL_PTR) {
+    object = *pObject;
+    if (object->slotID == slotID && object->hSession == hSession) {
+      *pObject = object->next;
+      freeObject(object);
+    } else {
+      pObject = &object->next;
+    }
+  }
+}
+
+/*
+ * removes a session and its session objects. The caller must hold the lock.
+ */
+static void removeSession(MockSession *session)
+{
+  MockSession **pSession = &sessionList;
+  MockSlot *slot = &slots[session->slotID];
+
+  while (*pSession != NULL_PTR && *pSession != session) {
+    pSession = &(*pSession)->next;
+  }
+  if (*pSession != NULL_PTR) { *pSession = session->next; }
+
+  removeObjects(session->slotID, session->handle);
+  slot->sessionCount--;
+  if (session->flags & CKF_RW_SESSION) { slot->rwSessionCount--; }
+  if (slot->sessionCount == 0) { slot->user = MOCK_NO_USER; }
+
+  free(session->foundObjects);
+  free(session);
+}
+
+/*
+ * gets the key for an operation and copies the key material into it.
+ */
+static CK_RV initKeyOperation(MockOperation *operation, CK_MECHANISM_PTR pMechanism, CK_OBJECT_HANDLE hKey, CK_FLAGS requiredFlag)
+{
+  MockMechanism *mechanism;
+  MockObject *key;
+
+  if (pMechanism == NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+  if (operation->active) { return CKR_OPERATION_ACTIVE ; }
+  mechanism = getMechanism(pMechanism->mechanism);
+  if (mechanism == NULL_PTR || !(mechanism->info.flags & requiredFlag)) { return CKR_MECHANISM_INVALID ; }
+
+  lockModule();
+  key = findObject(hKey);
+  if (key != NULL_PTR) {
+    operation->keyTag = key->keyTag;
+    operation->outputLength = (mechanism->outputLength != 0) ? mechanism->outputLength : key->signatureLength;
+  }
+  unlockModule();
+  if (key == NULL_PTR) { return CKR_KEY_HANDLE_INVALID ; }
+
+  operation->mechanism = pMechanism->mechanism;
+  operation->hash = (FNV_OFFSET ^ operation->keyTag) * FNV_PRIME;
+  operation->padding = (pMechanism->mechanism == CKM_AES_CBC_PAD);
+  operation->blockLength = 0;
+  operation->active = 1;
+
+  return CKR_OK ;
+}
+
+/*
+ * checks the output buffer of a function that returns data. A call without
+ * buffer only gets the length, a call with a too small buffer returns
+ * CKR_BUFFER_TOO_SMALL; neither of them ends the operation.
+ *
+ * @return - CKR_OK, if the caller shall produce the output
+ */
+static CK_RV checkOutput(CK_BYTE_PTR pOutput, CK_ULONG_PTR pulOutputLen, CK_ULONG outputLength, int *pDone)
+{
+  CK_ULONG availableLength;
+
+  *pDone = 1;
+  if (pulOutputLen == NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+  availableLength = *pulOutputLen;
+  *pulOutputLen = outputLength;
+  if (pOutput == NULL_PTR) { return CKR_OK ; }
+  if (availableLength < outputLength) { return CKR_BUFFER_TOO_SMALL ; }
+  *pDone = 0;
+
+  return CKR_OK ;
+}
+
+/*
+ * encrypts or decrypts the complete block of the operation.
+ */
+static void transformBlock(MockOperation *operation, CK_BYTE_PTR pOutput)
+{
+  CK_ULONG i;
+
+  for (i = 0; i < MOCK_BLOCK_SIZE; i++) {
+    pOutput[i] = operation->block[i] ^ keyStreamByte(operation->keyTag, i);
+  }
+  operation->blockLength = 0;
+}
+
+/*
+ * encrypts or decrypts data block by block and keeps incomplete blocks in the
+ * operation.
+ *
+ * @param holdBack - 1 to keep the last complete block in the operation for
+ *                   removing the padding in the final call
+ * @return - the length of the output
+ */
+static CK_ULONG transformBlocks(MockOperation *operation, CK_BYTE_PTR pData, CK_ULONG ulDataLen, CK_BYTE_PTR pOutput, int holdBack)
+{
+  CK_ULONG i, outputLength = 0;
+
+  for (i = 0; i < ulDataLen; i++) {
+    if (holdBack && operation->blockLength == MOCK_BLOCK_SIZE) {
+      transformBlock(operation, pOutput + outputLength);
+      outputLength += MOCK_BLOCK_SIZE;
+    }
+    operation->block[operation->blockLength++] = pData[i];
+    if (!holdBack && operation->blockLength == MOCK_BLOCK_SIZE) {
+      transformBlock(operation, pOutput + outputLength);
+      outputLength += MOCK_BLOCK_SIZE;
+    }
+  }
+
+  return outputLength ;
+}
+
+/*
+ * gets the output length of transformBlocks.
+ */
+static CK_ULONG transformedLength(MockOperation *operation, CK_ULONG ulDataLen, int holdBack)
+{
+  CK_ULONG totalLength = operation->blockLength + ulDataLen;
+
+  if (holdBack) {
+    return (totalLength == 0) ? 0 : ((totalLength - 1) / MOCK_BLOCK_SIZE) * MOCK_BLOCK_SIZE ;
+  }
+
+  return (totalLength / MOCK_BLOCK_SIZE) * MOCK_BLOCK_SIZE ;
+}
+
+/*
+ * finishes an encryption; i.e. adds the padding to the last block.
+ */
+static CK_RV finishEncryption(MockOperation *operation, CK_BYTE_PTR pOutput, CK_ULONG_PTR pulOutputLen)
+{
+  CK_ULONG outputLength = operation->padding ? MOCK_BLOCK_SIZE : 0;
+  CK_BYTE padding;
+  int done;
+  CK_RV rv;
+
+  if (!operation->padding && operation->blockLength != 0) {
+    operation->active = 0;
+    return CKR_DATA_LEN_RANGE ;
+  }
+  rv = checkOutput(pOutput, pulOutputLen, outputLength, &done);
+  if (rv != CKR_OK || done) { return rv ; }
+
+  if (operation->padding) {
+    padding = (CK_BYTE) (MOCK_BLOCK_SIZE - operation->blockLength);
+    memset(operation->block + operation->blockLength, padding, padding);
+    transformBlock(operation, pOutput);
+  }
+  operation->active = 0;
+
+  return CKR_OK ;
+}
+
+/*
+ * finishes a decryption; i.e. removes the padding from the last block.
+ */
+static CK_RV finishDecryption(MockOperation *operation, CK_BYTE_PTR pOutput, CK_ULONG_PTR pulOutputLen)
+{
+  CK_BYTE lastBlock[MOCK_BLOCK_SIZE];
+  CK_BYTE padding;
+  int done;
+  CK_RV rv;
+
+  if (!operation->padding) {
+    operation->active = 0;
+    if (operation->blockLength != 0) { return CKR_ENCRYPTED_DATA_LEN_RANGE ; }
+    if (pulOutputLen == NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+    *pulOutputLen = 0;
+    return CKR_OK ;
+  }
+  if (operation->blockLength != MOCK_BLOCK_SIZE) {
+    operation->active = 0;
+    return CKR_ENCRYPTED_DATA_LEN_RANGE ;
+  }
+
+  transformBlock(operation, lastBlock);
+  padding = lastBlock[MOCK_BLOCK_SIZE - 1];
+  if (padding == 0 || padding > MOCK_BLOCK_SIZE) {
+    operation->active = 0;
+    return CKR_ENCRYPTED_DATA_INVALID ;
+  }
+  rv = checkOutput(pOutput, pulOutputLen, MOCK_BLOCK_SIZE - padding, &done);
+  if (rv != CKR_OK || done) {
+    /* keep the block for the next call */
+    operation->blockLength = MOCK_BLOCK_SIZE;
+    return rv ;
+  }
+
+  memcpy(pOutput, lastBlock, MOCK_BLOCK_SIZE - padding);
+  operation->active = 0;
+
+  return CKR_OK ;
+}
+
+/*
+ * computes the fake signature or MAC of the data processed so far.
+ */
+static void computeSignature(MockOperation *operation, CK_BYTE_PTR pSignature)
+{
+  expandHash(operation->hash ^ operation->mechanism, pSignature, operation->outputLength);
+}
+
+
+/* ************************************************************************** */
+/* General-purpose functions                                                  */
+/* ************************************************************************** */
+
+CK_DEFINE_FUNCTION(CK_RV, C_Initialize)(CK_VOID_PTR pInitArgs)
+{
+  CK_C_INITIALIZE_ARGS_PTR pArgs = (CK_C_INITIALIZE_ARGS_PTR) pInitArgs;
+  CK_RV rv;
+
+  if (initialized) { return CKR_CRYPTOKI_ALREADY_INITIALIZED ; }
+
+  if (pArgs != NULL_PTR) {
+    if (pArgs->pReserved != NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+    if (pArgs->CreateMutex != NULL_PTR) {
+      if (pArgs->DestroyMutex == NULL_PTR || pArgs->LockMutex == NULL_PTR || pArgs->UnlockMutex == NULL_PTR) {
+        return CKR_ARGUMENTS_BAD ;
+      }
+      /* use the mutexes of the application, that tests see its callbacks */
+      applicationMutexFunctions = *pArgs;
+      rv = (*pArgs->CreateMutex)(&applicationMutex);
+      if (rv != CKR_OK) { applicationMutex = NULL_PTR; return rv ; }
+    } else if (pArgs->DestroyMutex != NULL_PTR || pArgs->LockMutex != NULL_PTR || pArgs->UnlockMutex != NULL_PTR) {
+      return CKR_ARGUMENTS_BAD ;
+    }
+  }
+
+  readSettings();
+  nextHandle = 1;
+  initialized = 1;
+
+  rv = simulateCall(F_C_Initialize);
+  if (rv != CKR_OK) { C_Finalize(NULL_PTR); }
+
+  return rv ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_Finalize)(CK_VOID_PTR pReserved)
+{
+  MockSession *session;
+  MockObject *object;
+
+  if (!initialized) { return CKR_CRYPTOKI_NOT_INITIALIZED ; }
+  if (pReserved != NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+
+  lockModule();
+  while (sessionList != NULL_PTR) {
+    session = sessionList;
+    sessionList = session->next;
+    free(session->foundObjects);
+    free(session);
+  }
+  while (objectList != NULL_PTR) {
+    object = objectList;
+    objectList = object->next;
+    freeObject(object);
+  }
+  initialized = 0;
+  unlockModule();
+
+  /* wake up threads in C_WaitForSlotEvent */
+  pthread_mutex_lock(&eventMutex);
+  pthread_cond_broadcast(&eventCondition);
+  pthread_mutex_unlock(&eventMutex);
+
+  if (applicationMutex != NULL_PTR) {
+    (*applicationMutexFunctions.DestroyMutex)(applicationMutex);
+    applicationMutex = NULL_PTR;
+  }
+  freeSettings();
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_GetInfo)(CK_INFO_PTR pInfo)
+{
+  ENTER(F_C_GetInfo);
+  if (pInfo == NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+
+  memset(pInfo, 0, sizeof(CK_INFO));
+  pInfo->cryptokiVersion.major = 2;
+  pInfo->cryptokiVersion.minor = 20;
+  padString(pInfo->manufacturerID, "IAIK", sizeof(pInfo->manufacturerID));
+  padString(pInfo->libraryDescription, "Mock PKCS#11 Module", sizeof(pInfo->libraryDescription));
+  pInfo->libraryVersion.major = 1;
+  pInfo->libraryVersion.minor = 0;
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_GetFunctionList)(CK_FUNCTION_LIST_PTR_PTR ppFunctionList)
+{
+  if (ppFunctionList == NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+
+  functionList.version.major = 2;
+  functionList.version.minor = 20;
+  functionList.C_Initialize = C_Initialize;
+  functionList.C_Finalize = C_Finalize;
+  functionList.C_GetInfo = C_GetInfo;
+  functionList.C_GetFunctionList = C_GetFunctionList;
+  functionList.C_GetSlotList = C_GetSlotList;
+  functionList.C_GetSlotInfo = C_GetSlotInfo;
+  functionList.C_GetTokenInfo = C_GetTokenInfo;
+  functionList.C_GetMechanismList = C_GetMechanismList;
+  functionList.C_GetMechanismInfo = C_GetMechanismInfo;
+  functionList.C_InitToken = C_InitToken;
+  functionList.C_InitPIN = C_InitPIN;
+  functionList.C_SetPIN = C_SetPIN;
+  functionList.C_OpenSession = C_OpenSession;
+  functionList.C_CloseSession = C_CloseSession;
+  functionList.C_CloseAllSessions = C_CloseAllSessions;
+  functionList.C_GetSessionInfo = C_GetSessionInfo;
+  functionList.C_GetOperationState = C_GetOperationState;
+  functionList.C_SetOperationState = C_SetOperationState;
+  functionList.C_Login = C_Login;
+  functionList.C_Logout = C_Logout;
+  functionList.C_CreateObject = C_CreateObject;
+  functionList.C_CopyObject = C_CopyObject;
+  functionList.C_DestroyObject = C_DestroyObject;
+  functionList.C_GetObjectSize = C_GetObjectSize;
+  functionList.C_GetAttributeValue = C_GetAttributeValue;
+  functionList.C_SetAttributeValue = C_SetAttributeValue;
+  functionList.C_FindObjectsInit = C_FindObjectsInit;
+  functionList.C_FindObjects = C_FindObjects;
+  functionList.C_FindObjectsFinal = C_FindObjectsFinal;
+  functionList.C_EncryptInit = C_EncryptInit;
+  functionList.C_Encrypt = C_Encrypt;
+  functionList.C_EncryptUpdate = C_EncryptUpdate;
+  functionList.C_EncryptFinal = C_EncryptFinal;
+  functionList.C_DecryptInit = C_DecryptInit;
+  functionList.C_Decrypt = C_Decrypt;
+  functionList.C_DecryptUpdate = C_DecryptUpdate;
+  functionList.C_DecryptFinal = C_DecryptFinal;
+  functionList.C_DigestInit = C_DigestInit;
+  functionList.C_Digest = C_Digest;
+  functionList.C_DigestUpdate = C_DigestUpdate;
+  functionList.C_DigestKey = C_DigestKey;
+  functionList.C_DigestFinal = C_DigestFinal;
+  functionList.C_SignInit = C_SignInit;
+  functionList.C_Sign = C_Sign;
+  functionList.C_SignUpdate = C_SignUpdate;
+  functionList.C_SignFinal = C_SignFinal;
+  functionList.C_SignRecoverInit = C_SignRecoverInit;
+  functionList.C_SignRecover = C_SignRecover;
+  functionList.C_VerifyInit = C_VerifyInit;
+  functionList.C_Verify = C_Verify;
+  functionList.C_VerifyUpdate = C_VerifyUpdate;
+  functionList.C_VerifyFinal = C_VerifyFinal;
+  functionList.C_VerifyRecoverInit = C_VerifyRecoverInit;
+  functionList.C_VerifyRecover = C_VerifyRecover;
+  functionList.C_DigestEncryptUpdate = C_DigestEncryptUpdate;
+  functionList.C_DecryptDigestUpdate = C_DecryptDigestUpdate;
+  functionList.C_SignEncryptUpdate = C_SignEncryptUpdate;
+  functionList.C_DecryptVerifyUpdate = C_DecryptVerifyUpdate;
+  functionList.C_GenerateKey = C_GenerateKey;
+  functionList.C_GenerateKeyPair = C_GenerateKeyPair;
+  functionList.C_WrapKey = C_WrapKey;
+  functionList.C_UnwrapKey = C_UnwrapKey;
+  functionList.C_DeriveKey = C_DeriveKey;
+  functionList.C_SeedRandom = C_SeedRandom;
+  functionList.C_GenerateRandom = C_GenerateRandom;
+  functionList.C_GetFunctionStatus = C_GetFunctionStatus;
+  functionList.C_CancelFunction = C_CancelFunction;
+  functionList.C_WaitForSlotEvent = C_WaitForSlotEvent;
+
+  *ppFunctionList = &functionList;
+
+  return CKR_OK ;
+}
+
+
+/* ************************************************************************** */
+/* Slot and token management functions                                       */
+/* ************************************************************************** */
+
+CK_DEFINE_FUNCTION(CK_RV, C_GetSlotList)(CK_BBOOL tokenPresent, CK_SLOT_ID_PTR pSlotList, CK_ULONG_PTR pulCount)
+{
+  CK_ULONG i;
+
+  ENTER(F_C_GetSlotList);
+  if (pulCount == NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+
+  if (pSlotList != NULL_PTR) {
+    if (*pulCount < slotCount) { *pulCount = slotCount; return CKR_BUFFER_TOO_SMALL ; }
+    for (i = 0; i < slotCount; i++) {
+      pSlotList[i] = i;
+    }
+  }
+  *pulCount = slotCount;
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_GetSlotInfo)(CK_SLOT_ID slotID, CK_SLOT_INFO_PTR pInfo)
+{
+  char description[64];
+
+  ENTER(F_C_GetSlotInfo);
+  if (pInfo == NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+  if (slotID >= slotCount) { return CKR_SLOT_ID_INVALID ; }
+
+  memset(pInfo, 0, sizeof(CK_SLOT_INFO));
+  snprintf(description, sizeof(description), "Mock Slot %lu", (unsigned long) slotID);
+  padString(pInfo->slotDescription, description, sizeof(pInfo->slotDescription));
+  padString(pInfo->manufacturerID, "IAIK", sizeof(pInfo->manufacturerID));
+  pInfo->flags = CKF_TOKEN_PRESENT | CKF_HW_SLOT;
+  pInfo->hardwareVersion.major = 1;
+  pInfo->firmwareVersion.major = 1;
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_GetTokenInfo)(CK_SLOT_ID slotID, CK_TOKEN_INFO_PTR pInfo)
+{
+  char text[64];
+
+  ENTER(F_C_GetTokenInfo);
+  if (pInfo == NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+  if (slotID >= slotCount) { return CKR_SLOT_ID_INVALID ; }
+
+  memset(pInfo, 0, sizeof(CK_TOKEN_INFO));
+  snprintf(text, sizeof(text), "Mock Token %lu", (unsigned long) slotID);
+  padString(pInfo->label, text, sizeof(pInfo->label));
+  padString(pInfo->manufacturerID, "IAIK", sizeof(pInfo->manufacturerID));
+  padString(pInfo->model, "Mock", sizeof(pInfo->model));
+  snprintf(text, sizeof(text), "%016lu", (unsigned long) slotID);
+  padString(pInfo->serialNumber, text, sizeof(pInfo->serialNumber));
+  pInfo->flags = CKF_RNG | CKF_USER_PIN_INITIALIZED | CKF_TOKEN_INITIALIZED;
+  lockModule();
+  pInfo->ulSessionCount = slots[slotID].sessionCount;
+  pInfo->ulRwSessionCount = slots[slotID].rwSessionCount;
+  unlockModule();
+  pInfo->ulMaxSessionCount = CK_EFFECTIVELY_INFINITE;
+  pInfo->ulMaxRwSessionCount = CK_EFFECTIVELY_INFINITE;
+  pInfo->ulMaxPinLen = MOCK_MAX_PIN_LENGTH;
+  pInfo->ulMinPinLen = 1;
+  pInfo->ulTotalPublicMemory = CK_UNAVAILABLE_INFORMATION;
+  pInfo->ulFreePublicMemory = CK_UNAVAILABLE_INFORMATION;
+  pInfo->ulTotalPrivateMemory = CK_UNAVAILABLE_INFORMATION;
+  pInfo->ulFreePrivateMemory = CK_UNAVAILABLE_INFORMATION;
+  pInfo->hardwareVersion.major = 1;
+  pInfo->firmwareVersion.major = 1;
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_GetMechanismList)(CK_SLOT_ID slotID, CK_MECHANISM_TYPE_PTR pMechanismList, CK_ULONG_PTR pulCount)
+{
+  CK_ULONG i;
+
+  ENTER(F_C_GetMechanismList);
+  if (pulCount == NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+  if (slotID >= slotCount) { return CKR_SLOT_ID_INVALID ; }
+
+  if (pMechanismList != NULL_PTR) {
+    if (*pulCount < MECHANISM_COUNT) { *pulCount = MECHANISM_COUNT; return CKR_BUFFER_TOO_SMALL ; }
+    for (i = 0; i < MECHANISM_COUNT; i++) {
+      pMechanismList[i] = mechanisms[i].type;
+    }
+  }
+  *pulCount = MECHANISM_COUNT;
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_GetMechanismInfo)(CK_SLOT_ID slotID, CK_MECHANISM_TYPE type, CK_MECHANISM_INFO_PTR pInfo)
+{
+  MockMechanism *mechanism;
+
+  ENTER(F_C_GetMechanismInfo);
+  if (pInfo == NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+  if (slotID >= slotCount) { return CKR_SLOT_ID_INVALID ; }
+
+  mechanism = getMechanism(type);
+  if (mechanism == NULL_PTR) { return CKR_MECHANISM_INVALID ; }
+  *pInfo = mechanism->info;
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_InitToken)(CK_SLOT_ID slotID, CK_UTF8CHAR_PTR pPin, CK_ULONG ulPinLen, CK_UTF8CHAR_PTR pLabel)
+{
+  CK_RV rv = CKR_OK;
+
+  ENTER(F_C_InitToken);
+  if (slotID >= slotCount) { return CKR_SLOT_ID_INVALID ; }
+  if (pPin == NULL_PTR || ulPinLen > MOCK_MAX_PIN_LENGTH) { return CKR_PIN_LEN_RANGE ; }
+
+  lockModule();
+  if (slots[slotID].sessionCount > 0) {
+    rv = CKR_SESSION_EXISTS;
+  } else {
+    removeObjects(slotID, 0);
+    memcpy(slots[slotID].pin, pPin, ulPinLen);
+    slots[slotID].pin[ulPinLen] = '\0';
+  }
+  unlockModule();
+
+  return rv ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_InitPIN)(CK_SESSION_HANDLE hSession, CK_UTF8CHAR_PTR pPin, CK_ULONG ulPinLen)
+{
+  MockSession *session;
+  CK_RV rv = CKR_OK;
+
+  ENTER(F_C_InitPIN);
+  if (pPin == NULL_PTR || ulPinLen > MOCK_MAX_PIN_LENGTH) { return CKR_PIN_LEN_RANGE ; }
+
+  lockModule();
+  session = findSession(hSession);
+  if (session == NULL_PTR) {
+    rv = CKR_SESSION_HANDLE_INVALID;
+  } else if (slots[session->slotID].user != CKU_SO) {
+    rv = CKR_USER_NOT_LOGGED_IN;
+  } else {
+    memcpy(slots[session->slotID].pin, pPin, ulPinLen);
+    slots[session->slotID].pin[ulPinLen] = '\0';
+  }
+  unlockModule();
+
+  return rv ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_SetPIN)(CK_SESSION_HANDLE hSession, CK_UTF8CHAR_PTR pOldPin, CK_ULONG ulOldLen, CK_UTF8CHAR_PTR pNewPin, CK_ULONG ulNewLen)
+{
+  MockSession *session;
+  MockSlot *slot;
+  CK_RV rv = CKR_OK;
+
+  ENTER(F_C_SetPIN);
+  if (pOldPin == NULL_PTR || pNewPin == NULL_PTR || ulNewLen > MOCK_MAX_PIN_LENGTH) { return CKR_PIN_LEN_RANGE ; }
+
+  lockModule();
+  session = findSession(hSession);
+  if (session == NULL_PTR) {
+    rv = CKR_SESSION_HANDLE_INVALID;
+  } else {
+    slot = &slots[session->slotID];
+    if (strlen(slot->pin) != ulOldLen || memcmp(slot->pin, pOldPin, ulOldLen) != 0) {
+      rv = CKR_PIN_INCORRECT;
+    } else {
+      memcpy(slot->pin, pNewPin, ulNewLen);
+      slot->pin[ulNewLen] = '\0';
+    }
+  }
+  unlockModule();
+
+  return rv ;
+}
+
+
+/* ************************************************************************** */
+/* Session management functions                                               */
+/* ************************************************************************** */
+
+CK_DEFINE_FUNCTION(CK_RV, C_OpenSession)(CK_SLOT_ID slotID, CK_FLAGS flags, CK_VOID_PTR pApplication, CK_NOTIFY Notify, CK_SESSION_HANDLE_PTR phSession)
+{
+  MockSession *session;
+
+  ENTER(F_C_OpenSession);
+  if (phSession == NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+  if (slotID >= slotCount) { return CKR_SLOT_ID_INVALID ; }
+  if (!(flags & CKF_SERIAL_SESSION)) { return CKR_SESSION_PARALLEL_NOT_SUPPORTED ; }
+
+  session = (MockSession *) calloc(1, sizeof(MockSession));
+  if (session == NULL_PTR) { return CKR_HOST_MEMORY ; }
+  session->slotID = slotID;
+  session->flags = flags;
+
+  lockModule();
+  if (!(flags & CKF_RW_SESSION) && slots[slotID].user == CKU_SO) {
+    unlockModule();
+    free(session);
+    return CKR_SESSION_READ_WRITE_SO_EXISTS ;
+  }
+  session->handle = nextHandle++;
+  session->next = sessionList;
+  sessionList = session;
+  slots[slotID].sessionCount++;
+  if (flags & CKF_RW_SESSION) { slots[slotID].rwSessionCount++; }
+  unlockModule();
+
+  *phSession = session->handle;
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_CloseSession)(CK_SESSION_HANDLE hSession)
+{
+  MockSession *session;
+
+  ENTER(F_C_CloseSession);
+
+  lockModule();
+  session = findSession(hSession);
+  if (session != NULL_PTR) { removeSession(session); }
+  unlockModule();
+
+  return (session != NULL_PTR) ? CKR_OK : CKR_SESSION_HANDLE_INVALID ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_CloseAllSessions)(CK_SLOT_ID slotID)
+{
+  MockSession *session, *nextSession;
+
+  ENTER(F_C_CloseAllSessions);
+  if (slotID >= slotCount) { return CKR_SLOT_ID_INVALID ; }
+
+  lockModule();
+  for (session = sessionList; session != NULL_PTR; session = nextSession) {
+    nextSession = session->next;
+    if (session->slotID == slotID) { removeSession(session); }
+  }
+  unlockModule();
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_GetSessionInfo)(CK_SESSION_HANDLE hSession, CK_SESSION_INFO_PTR pInfo)
+{
+  MockSession *session;
+  CK_USER_TYPE user;
+  int rw;
+
+  ENTER(F_C_GetSessionInfo);
+  if (pInfo == NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+
+  lockModule();
+  session = findSession(hSession);
+  if (session != NULL_PTR) {
+    user = slots[session->slotID].user;
+    rw = (session->flags & CKF_RW_SESSION) != 0;
+    pInfo->slotID = session->slotID;
+    pInfo->flags = session->flags;
+    pInfo->ulDeviceError = 0;
+    if (user == CKU_SO) {
+      pInfo->state = CKS_RW_SO_FUNCTIONS;
+    } else if (user == CKU_USER) {
+      pInfo->state = rw ? CKS_RW_USER_FUNCTIONS : CKS_RO_USER_FUNCTIONS;
+    } else {
+      pInfo->state = rw ? CKS_RW_PUBLIC_SESSION : CKS_RO_PUBLIC_SESSION;
+    }
+  }
+  unlockModule();
+
+  return (session != NULL_PTR) ? CKR_OK : CKR_SESSION_HANDLE_INVALID ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_GetOperationState)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pOperationState, CK_ULONG_PTR pulOperationStateLen)
+{
+  ENTER(F_C_GetOperationState);
+  return CKR_FUNCTION_NOT_SUPPORTED ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_SetOperationState)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pOperationState, CK_ULONG ulOperationStateLen, CK_OBJECT_HANDLE hEncryptionKey, CK_OBJECT_HANDLE hAuthenticationKey)
+{
+  ENTER(F_C_SetOperationState);
+  return CKR_FUNCTION_NOT_SUPPORTED ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_Login)(CK_SESSION_HANDLE hSession, CK_USER_TYPE userType, CK_UTF8CHAR_PTR pPin, CK_ULONG ulPinLen)
+{
+  MockSession *session;
+  MockSlot *slot;
+  CK_RV rv = CKR_OK;
+
+  ENTER(F_C_Login);
+  if (userType != CKU_USER && userType != CKU_SO) { return CKR_USER_TYPE_INVALID ; }
+
+  lockModule();
+  session = findSession(hSession);
+  if (session == NULL_PTR) {
+    rv = CKR_SESSION_HANDLE_INVALID;
+  } else {
+    slot = &slots[session->slotID];
+    if (slot->user == userType) {
+      rv = CKR_USER_ALREADY_LOGGED_IN;
+    } else if (slot->user != MOCK_NO_USER) {
+      rv = CKR_USER_ANOTHER_ALREADY_LOGGED_IN;
+    } else if (userType == CKU_SO && slot->sessionCount > slot->rwSessionCount) {
+      rv = CKR_SESSION_READ_ONLY_EXISTS;
+    } else if (pPin == NULL_PTR || strlen(slot->pin) != ulPinLen || memcmp(slot->pin, pPin, ulPinLen) != 0) {
+      rv = CKR_PIN_INCORRECT;
+    } else {
+      slot->user = userType;
+    }
+  }
+  unlockModule();
+
+  return rv ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_Logout)(CK_SESSION_HANDLE hSession)
+{
+  MockSession *session;
+  CK_RV rv = CKR_OK;
+
+  ENTER(F_C_Logout);
+
+  lockModule();
+  session = findSession(hSession);
+  if (session == NULL_PTR) {
+    rv = CKR_SESSION_HANDLE_INVALID;
+  } else if (slots[session->slotID].user == MOCK_NO_USER) {
+    rv = CKR_USER_NOT_LOGGED_IN;
+  } else {
+    slots[session->slotID].user = MOCK_NO_USER;
+  }
+  unlockModule();
+
+  return rv ;
+}
+
+
+/* ************************************************************************** */
+/* Object management functions                                                */
+/* ************************************************************************** */
+
+CK_DEFINE_FUNCTION(CK_RV, C_CreateObject)(CK_SESSION_HANDLE hSession, CK_ATTRIBUTE_PTR pTemplate, CK_ULONG ulCount, CK_OBJECT_HANDLE_PTR phObject)
+{
+  MockSession *session;
+  MockObject *object;
+  CK_ATTRIBUTE_PTR keyMaterial;
+  CK_RV rv;
+
+  ENTER(F_C_CreateObject);
+  if (phObject == NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+  if (findTemplateAttribute(pTemplate, ulCount, CKA_CLASS) == NULL_PTR) { return CKR_TEMPLATE_INCOMPLETE ; }
+
+  rv = newObject(session, pTemplate, ulCount, &object);
+  if (rv != CKR_OK) { return rv ; }
+
+  /* imported keys of a pair share the modulus or the EC point */
+  keyMaterial = findAttribute(object, CKA_MODULUS);
+  if (keyMaterial != NULL_PTR) {
+    object->signatureLength = keyMaterial->ulValueLen;
+  } else {
+    keyMaterial = findAttribute(object, CKA_EC_POINT);
+    if (keyMaterial == NULL_PTR) { keyMaterial = findAttribute(object, CKA_VALUE); }
+  }
+  if (keyMaterial != NULL_PTR) {
+    object->keyTag = hashBytes(FNV_OFFSET, (CK_BYTE_PTR) keyMaterial->pValue, keyMaterial->ulValueLen);
+  }
+
+  *phObject = addObject(object);
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_CopyObject)(CK_SESSION_HANDLE hSession, CK_OBJECT_HANDLE hObject, CK_ATTRIBUTE_PTR pTemplate, CK_ULONG ulCount, CK_OBJECT_HANDLE_PTR phNewObject)
+{
+  MockSession *session;
+  MockObject *object, *copy;
+  CK_ULONG i;
+  CK_RV rv;
+
+  ENTER(F_C_CopyObject);
+  if (phNewObject == NULL_PTR || (pTemplate == NULL_PTR && ulCount > 0)) { return CKR_ARGUMENTS_BAD ; }
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+
+  lockModule();
+  object = findObject(hObject);
+  if (object == NULL_PTR) {
+    rv = CKR_OBJECT_HANDLE_INVALID;
+  } else {
+    rv = newObject(session, object->attributes, object->attributeCount, &copy);
+  }
+  unlockModule();
+  if (rv != CKR_OK) { return rv ; }
+
+  for (i = 0; i < ulCount && rv == CKR_OK; i++) {
+    rv = setAttribute(copy, pTemplate[i].type, pTemplate[i].pValue, pTemplate[i].ulValueLen);
+  }
+  if (rv != CKR_OK) { freeObject(copy); return rv ; }
+  copy->hSession = getBooleanAttribute(copy, CKA_TOKEN, CK_FALSE) ? 0 : session->handle;
+  copy->keyTag = object->keyTag;
+  copy->signatureLength = object->signatureLength;
+
+  *phNewObject = addObject(copy);
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_DestroyObject)(CK_SESSION_HANDLE hSession, CK_OBJECT_HANDLE hObject)
+{
+  MockObject **pObject;
+  MockObject *object = NULL_PTR;
+
+  ENTER(F_C_DestroyObject);
+  if (getSession(hSession) == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+
+  lockModule();
+  for (pObject = &objectList; *pObject != NULL_PTR; pObject = &(*pObject)->next) {
+    if ((*pObject)->handle == hObject) {
+      object = *pObject;
+      *pObject = object->next;
+      break;
+    }
+  }
+  unlockModule();
+  if (object == NULL_PTR) { return CKR_OBJECT_HANDLE_INVALID ; }
+  freeObject(object);
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_GetObjectSize)(CK_SESSION_HANDLE hSession, CK_OBJECT_HANDLE hObject, CK_ULONG_PTR pulSize)
+{
+  MockObject *object;
+  CK_ULONG i, size = 0;
+
+  ENTER(F_C_GetObjectSize);
+  if (pulSize == NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+  if (getSession(hSession) == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+
+  lockModule();
+  object = findObject(hObject);
+  if (object != NULL_PTR) {
+    for (i = 0; i < object->attributeCount; i++) {
+      size += object->attributes[i].ulValueLen;
+    }
+  }
+  unlockModule();
+  if (object == NULL_PTR) { return CKR_OBJECT_HANDLE_INVALID ; }
+  *pulSize = size;
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_GetAttributeValue)(CK_SESSION_HANDLE hSession, CK_OBJECT_HANDLE hObject, CK_ATTRIBUTE_PTR pTemplate, CK_ULONG ulCount)
+{
+  MockObject *object;
+  CK_ATTRIBUTE_PTR attribute;
+  CK_ULONG i;
+  CK_RV rv = CKR_OK;
+
+  ENTER(F_C_GetAttributeValue);
+  if (pTemplate == NULL_PTR && ulCount > 0) { return CKR_ARGUMENTS_BAD ; }
+  if (getSession(hSession) == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+
+  lockModule();
+  object = findObject(hObject);
+  if (object == NULL_PTR) {
+    rv = CKR_OBJECT_HANDLE_INVALID;
+  } else {
+    for (i = 0; i < ulCount; i++) {
+      attribute = findAttribute(object, pTemplate[i].type);
+      if (attribute == NULL_PTR) {
+        pTemplate[i].ulValueLen = CK_UNAVAILABLE_INFORMATION;
+        rv = CKR_ATTRIBUTE_TYPE_INVALID;
+      } else if (pTemplate[i].pValue == NULL_PTR) {
+        pTemplate[i].ulValueLen = attribute->ulValueLen;
+      } else if (pTemplate[i].ulValueLen < attribute->ulValueLen) {
+        pTemplate[i].ulValueLen = CK_UNAVAILABLE_INFORMATION;
+        if (rv == CKR_OK) { rv = CKR_BUFFER_TOO_SMALL; }
+      } else {
+        memcpy(pTemplate[i].pValue, attribute->pValue, attribute->ulValueLen);
+        pTemplate[i].ulValueLen = attribute->ulValueLen;
+      }
+    }
+  }
+  unlockModule();
+
+  return rv ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_SetAttributeValue)(CK_SESSION_HANDLE hSession, CK_OBJECT_HANDLE hObject, CK_ATTRIBUTE_PTR pTemplate, CK_ULONG ulCount)
+{
+  MockObject *object;
+  CK_ULONG i;
+  CK_RV rv = CKR_OK;
+
+  ENTER(F_C_SetAttributeValue);
+  if (pTemplate == NULL_PTR && ulCount > 0) { return CKR_ARGUMENTS_BAD ; }
+  if (getSession(hSession) == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+
+  lockModule();
+  object = findObject(hObject);
+  if (object == NULL_PTR) {
+    rv = CKR_OBJECT_HANDLE_INVALID;
+  } else {
+    for (i = 0; i < ulCount && rv == CKR_OK; i++) {
+      rv = setAttribute(object, pTemplate[i].type, pTemplate[i].pValue, pTemplate[i].ulValueLen);
+    }
+  }
+  unlockModule();
+
+  return rv ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_FindObjectsInit)(CK_SESSION_HANDLE hSession, CK_ATTRIBUTE_PTR pTemplate, CK_ULONG ulCount)
+{
+  MockSession *session;
+  MockObject *object;
+  CK_ATTRIBUTE_PTR attribute;
+  CK_OBJECT_HANDLE_PTR foundObjects;
+  CK_ULONG i, count = 0, capacity = 16;
+
+  ENTER(F_C_FindObjectsInit);
+  if (pTemplate == NULL_PTR && ulCount > 0) { return CKR_ARGUMENTS_BAD ; }
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+  if (session->findActive) { return CKR_OPERATION_ACTIVE ; }
+
+  foundObjects = (CK_OBJECT_HANDLE_PTR) malloc(capacity * sizeof(CK_OBJECT_HANDLE));
+  if (foundObjects == NULL_PTR) { return CKR_HOST_MEMORY ; }
+
+  lockModule();
+  for (object = objectList; object != NULL_PTR; object = object->next) {
+    if (object->slotID != session->slotID) { continue; }
+    for (i = 0; i < ulCount; i++) {
+      attribute = findAttribute(object, pTemplate[i].type);
+      if (attribute == NULL_PTR || attribute->ulValueLen != pTemplate[i].ulValueLen
+          || memcmp(attribute->pValue, pTemplate[i].pValue, attribute->ulValueLen) != 0) {
+        break;
+      }
+    }
+    if (i < ulCount) { continue; }
+    if (count == capacity) {
+      capacity *= 2;
+      foundObjects = (CK_OBJECT_HANDLE_PTR) realloc(foundObjects, capacity * sizeof(CK_OBJECT_HANDLE));
+      if (foundObjects == NULL_PTR) { unlockModule(); return CKR_HOST_MEMORY ; }
+    }
+    foundObjects[count++] = object->handle;
+  }
+  unlockModule();
+
+  session->foundObjects = foundObjects;
+  session->foundCount = count;
+  session->foundPosition = 0;
+  session->findActive = 1;
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_FindObjects)(CK_SESSION_HANDLE hSession, CK_OBJECT_HANDLE_PTR phObject, CK_ULONG ulMaxObjectCount, CK_ULONG_PTR pulObjectCount)
+{
+  MockSession *session;
+  CK_ULONG count;
+
+  ENTER(F_C_FindObjects);
+  if (phObject == NULL_PTR || pulObjectCount == NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+  if (!session->findActive) { return CKR_OPERATION_NOT_INITIALIZED ; }
+
+  count = session->foundCount - session->foundPosition;
+  if (count > ulMaxObjectCount) { count = ulMaxObjectCount; }
+  memcpy(phObject, session->foundObjects + session->foundPosition, count * sizeof(CK_OBJECT_HANDLE));
+  session->foundPosition += count;
+  *pulObjectCount = count;
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_FindObjectsFinal)(CK_SESSION_HANDLE hSession)
+{
+  MockSession *session;
+
+  ENTER(F_C_FindObjectsFinal);
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+  if (!session->findActive) { return CKR_OPERATION_NOT_INITIALIZED ; }
+
+  free(session->foundObjects);
+  session->foundObjects = NULL_PTR;
+  session->findActive = 0;
+
+  return CKR_OK ;
+}
+
+
+/* ************************************************************************** */
+/* Encryption and decryption functions                                        */
+/* ************************************************************************** */
+
+CK_DEFINE_FUNCTION(CK_RV, C_EncryptInit)(CK_SESSION_HANDLE hSession, CK_MECHANISM_PTR pMechanism, CK_OBJECT_HANDLE hKey)
+{
+  MockSession *session;
+
+  ENTER(F_C_EncryptInit);
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+
+  return initKeyOperation(&session->encryptOperation, pMechanism, hKey, CKF_ENCRYPT) ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_Encrypt)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pData, CK_ULONG ulDataLen, CK_BYTE_PTR pEncryptedData, CK_ULONG_PTR pulEncryptedDataLen)
+{
+  MockSession *session;
+  MockOperation *operation;
+  CK_ULONG length, lastLength;
+  int done;
+  CK_RV rv;
+
+  ENTER(F_C_Encrypt);
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+  operation = &session->encryptOperation;
+  if (!operation->active) { return CKR_OPERATION_NOT_INITIALIZED ; }
+  if (pData == NULL_PTR && ulDataLen > 0) { operation->active = 0; return CKR_ARGUMENTS_BAD ; }
+  if (!operation->padding && (ulDataLen % MOCK_BLOCK_SIZE) != 0) { operation->active = 0; return CKR_DATA_LEN_RANGE ; }
+
+  length = operation->padding ? (ulDataLen / MOCK_BLOCK_SIZE + 1) * MOCK_BLOCK_SIZE : ulDataLen;
+  rv = checkOutput(pEncryptedData, pulEncryptedDataLen, length, &done);
+  if (rv != CKR_OK || done) { return rv ; }
+
+  length = transformBlocks(operation, pData, ulDataLen, pEncryptedData, 0);
+  lastLength = *pulEncryptedDataLen - length;
+  rv = finishEncryption(operation, pEncryptedData + length, &lastLength);
+  *pulEncryptedDataLen = length + lastLength;
+
+  return rv ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_EncryptUpdate)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pPart, CK_ULONG ulPartLen, CK_BYTE_PTR pEncryptedPart, CK_ULONG_PTR pulEncryptedPartLen)
+{
+  MockSession *session;
+  MockOperation *operation;
+  int done;
+  CK_RV rv;
+
+  ENTER(F_C_EncryptUpdate);
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+  operation = &session->encryptOperation;
+  if (!operation->active) { return CKR_OPERATION_NOT_INITIALIZED ; }
+  if (pPart == NULL_PTR && ulPartLen > 0) { operation->active = 0; return CKR_ARGUMENTS_BAD ; }
+
+  rv = checkOutput(pEncryptedPart, pulEncryptedPartLen, transformedLength(operation, ulPartLen, 0), &done);
+  if (rv != CKR_OK || done) { return rv ; }
+  transformBlocks(operation, pPart, ulPartLen, pEncryptedPart, 0);
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_EncryptFinal)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pLastEncryptedPart, CK_ULONG_PTR pulLastEncryptedPartLen)
+{
+  MockSession *session;
+
+  ENTER(F_C_EncryptFinal);
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+  if (!session->encryptOperation.active) { return CKR_OPERATION_NOT_INITIALIZED ; }
+
+  return finishEncryption(&session->encryptOperation, pLastEncryptedPart, pulLastEncryptedPartLen) ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_DecryptInit)(CK_SESSION_HANDLE hSession, CK_MECHANISM_PTR pMechanism, CK_OBJECT_HANDLE hKey)
+{
+  MockSession *session;
+
+  ENTER(F_C_DecryptInit);
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+
+  return initKeyOperation(&session->decryptOperation, pMechanism, hKey, CKF_DECRYPT) ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_Decrypt)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pEncryptedData, CK_ULONG ulEncryptedDataLen, CK_BYTE_PTR pData, CK_ULONG_PTR pulDataLen)
+{
+  MockSession *session;
+  MockOperation *operation;
+  CK_BYTE lastBlock[MOCK_BLOCK_SIZE];
+  CK_ULONG length, lastLength;
+  int done;
+  CK_RV rv;
+
+  ENTER(F_C_Decrypt);
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+  operation = &session->decryptOperation;
+  if (!operation->active) { return CKR_OPERATION_NOT_INITIALIZED ; }
+  if (pEncryptedData == NULL_PTR && ulEncryptedDataLen > 0) { operation->active = 0; return CKR_ARGUMENTS_BAD ; }
+  if ((ulEncryptedDataLen % MOCK_BLOCK_SIZE) != 0 || (operation->padding && ulEncryptedDataLen == 0)) {
+    operation->active = 0;
+    return CKR_ENCRYPTED_DATA_LEN_RANGE ;
+  }
+
+  /* the length with padding is an upper bound, which is allowed for the length query */
+  rv = checkOutput(pData, pulDataLen, ulEncryptedDataLen, &done);
+  if (rv != CKR_OK || done) { return rv ; }
+
+  length = transformBlocks(operation, pEncryptedData, ulEncryptedDataLen, pData, operation->padding);
+  lastLength = sizeof(lastBlock);
+  rv = finishDecryption(operation, lastBlock, &lastLength);
+  if (rv != CKR_OK) { return rv ; }
+  memcpy(pData + length, lastBlock, lastLength);
+  *pulDataLen = length + lastLength;
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_DecryptUpdate)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pEncryptedPart, CK_ULONG ulEncryptedPartLen, CK_BYTE_PTR pPart, CK_ULONG_PTR pulPartLen)
+{
+  MockSession *session;
+  MockOperation *operation;
+  int done;
+  CK_RV rv;
+
+  ENTER(F_C_DecryptUpdate);
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+  operation = &session->decryptOperation;
+  if (!operation->active) { return CKR_OPERATION_NOT_INITIALIZED ; }
+  if (pEncryptedPart == NULL_PTR && ulEncryptedPartLen > 0) { operation->active = 0; return CKR_ARGUMENTS_BAD ; }
+
+  rv = checkOutput(pPart, pulPartLen, transformedLength(operation, ulEncryptedPartLen, operation->padding), &done);
+  if (rv != CKR_OK || done) { return rv ; }
+  transformBlocks(operation, pEncryptedPart, ulEncryptedPartLen, pPart, operation->padding);
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_DecryptFinal)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pLastPart, CK_ULONG_PTR pulLastPartLen)
+{
+  MockSession *session;
+  MockOperation *operation;
+
+  ENTER(F_C_DecryptFinal);
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+  operation = &session->decryptOperation;
+  if (!operation->active) { return CKR_OPERATION_NOT_INITIALIZED ; }
+
+  /* the length query must not depend on the padding, which is only known after decryption */
+  if (pLastPart == NULL_PTR && operation->padding && pulLastPartLen != NULL_PTR) {
+    *pulLastPartLen = MOCK_BLOCK_SIZE;
+    return CKR_OK ;
+  }
+
+  return finishDecryption(operation, pLastPart, pulLastPartLen) ;
+}
+
+
+/* ************************************************************************** */
+/* Message digesting functions                                                */
+/* ************************************************************************** */
+
+CK_DEFINE_FUNCTION(CK_RV, C_DigestInit)(CK_SESSION_HANDLE hSession, CK_MECHANISM_PTR pMechanism)
+{
+  MockSession *session;
+  MockOperation *operation;
+  MockMechanism *mechanism;
+
+  ENTER(F_C_DigestInit);
+  if (pMechanism == NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+  operation = &session->digestOperation;
+  if (operation->active) { return CKR_OPERATION_ACTIVE ; }
+  mechanism = getMechanism(pMechanism->mechanism);
+  if (mechanism == NULL_PTR || !(mechanism->info.flags & CKF_DIGEST)) { return CKR_MECHANISM_INVALID ; }
+
+  operation->mechanism = pMechanism->mechanism;
+  operation->keyTag = 0;
+  operation->hash = FNV_OFFSET;
+  operation->outputLength = mechanism->outputLength;
+  operation->active = 1;
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_Digest)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pData, CK_ULONG ulDataLen, CK_BYTE_PTR pDigest, CK_ULONG_PTR pulDigestLen)
+{
+  MockSession *session;
+  MockOperation *operation;
+  int done;
+  CK_RV rv;
+
+  ENTER(F_C_Digest);
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+  operation = &session->digestOperation;
+  if (!operation->active) { return CKR_OPERATION_NOT_INITIALIZED ; }
+  if (pData == NULL_PTR && ulDataLen > 0) { operation->active = 0; return CKR_ARGUMENTS_BAD ; }
+
+  rv = checkOutput(pDigest, pulDigestLen, operation->outputLength, &done);
+  if (rv != CKR_OK || done) { return rv ; }
+  operation->hash = hashBytes(operation->hash, pData, ulDataLen);
+  computeSignature(operation, pDigest);
+  operation->active = 0;
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_DigestUpdate)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pPart, CK_ULONG ulPartLen)
+{
+  MockSession *session;
+  MockOperation *operation;
+
+  ENTER(F_C_DigestUpdate);
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+  operation = &session->digestOperation;
+  if (!operation->active) { return CKR_OPERATION_NOT_INITIALIZED ; }
+  if (pPart == NULL_PTR && ulPartLen > 0) { operation->active = 0; return CKR_ARGUMENTS_BAD ; }
+
+  operation->hash = hashBytes(operation->hash, pPart, ulPartLen);
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_DigestKey)(CK_SESSION_HANDLE hSession, CK_OBJECT_HANDLE hKey)
+{
+  MockSession *session;
+  MockOperation *operation;
+  MockObject *key;
+  unsigned long long keyTag = 0;
+
+  ENTER(F_C_DigestKey);
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+  operation = &session->digestOperation;
+  if (!operation->active) { return CKR_OPERATION_NOT_INITIALIZED ; }
+
+  lockModule();
+  key = findObject(hKey);
+  if (key != NULL_PTR) { keyTag = key->keyTag; }
+  unlockModule();
+  if (key == NULL_PTR) { return CKR_KEY_HANDLE_INVALID ; }
+
+  operation->hash = hashBytes(operation->hash, (CK_BYTE_PTR) &keyTag, sizeof(keyTag));
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_DigestFinal)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pDigest, CK_ULONG_PTR pulDigestLen)
+{
+  MockSession *session;
+  MockOperation *operation;
+  int done;
+  CK_RV rv;
+
+  ENTER(F_C_DigestFinal);
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+  operation = &session->digestOperation;
+  if (!operation->active) { return CKR_OPERATION_NOT_INITIALIZED ; }
+
+  rv = checkOutput(pDigest, pulDigestLen, operation->outputLength, &done);
+  if (rv != CKR_OK || done) { return rv ; }
+  computeSignature(operation, pDigest);
+  operation->active = 0;
+
+  return CKR_OK ;
+}
+
+
+/* ************************************************************************** */
+/* Signing and MACing functions                                               */
+/* ************************************************************************** */
+
+CK_DEFINE_FUNCTION(CK_RV, C_SignInit)(CK_SESSION_HANDLE hSession, CK_MECHANISM_PTR pMechanism, CK_OBJECT_HANDLE hKey)
+{
+  MockSession *session;
+
+  ENTER(F_C_SignInit);
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+
+  return initKeyOperation(&session->signOperation, pMechanism, hKey, CKF_SIGN) ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_Sign)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pData, CK_ULONG ulDataLen, CK_BYTE_PTR pSignature, CK_ULONG_PTR pulSignatureLen)
+{
+  MockSession *session;
+  MockOperation *operation;
+  int done;
+  CK_RV rv;
+
+  ENTER(F_C_Sign);
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+  operation = &session->signOperation;
+  if (!operation->active) { return CKR_OPERATION_NOT_INITIALIZED ; }
+  if (pData == NULL_PTR && ulDataLen > 0) { operation->active = 0; return CKR_ARGUMENTS_BAD ; }
+
+  rv = checkOutput(pSignature, pulSignatureLen, operation->outputLength, &done);
+  if (rv != CKR_OK || done) { return rv ; }
+  operation->hash = hashBytes(operation->hash, pData, ulDataLen);
+  computeSignature(operation, pSignature);
+  operation->active = 0;
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_SignUpdate)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pPart, CK_ULONG ulPartLen)
+{
+  MockSession *session;
+  MockOperation *operation;
+
+  ENTER(F_C_SignUpdate);
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+  operation = &session->signOperation;
+  if (!operation->active) { return CKR_OPERATION_NOT_INITIALIZED ; }
+  if (pPart == NULL_PTR && ulPartLen > 0) { operation->active = 0; return CKR_ARGUMENTS_BAD ; }
+
+  operation->hash = hashBytes(operation->hash, pPart, ulPartLen);
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_SignFinal)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pSignature, CK_ULONG_PTR pulSignatureLen)
+{
+  MockSession *session;
+  MockOperation *operation;
+  int done;
+  CK_RV rv;
+
+  ENTER(F_C_SignFinal);
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+  operation = &session->signOperation;
+  if (!operation->active) { return CKR_OPERATION_NOT_INITIALIZED ; }
+
+  rv = checkOutput(pSignature, pulSignatureLen, operation->outputLength, &done);
+  if (rv != CKR_OK || done) { return rv ; }
+  computeSignature(operation, pSignature);
+  operation->active = 0;
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_SignRecoverInit)(CK_SESSION_HANDLE hSession, CK_MECHANISM_PTR pMechanism, CK_OBJECT_HANDLE hKey)
+{
+  ENTER(F_C_SignRecoverInit);
+  return CKR_FUNCTION_NOT_SUPPORTED ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_SignRecover)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pData, CK_ULONG ulDataLen, CK_BYTE_PTR pSignature, CK_ULONG_PTR pulSignatureLen)
+{
+  ENTER(F_C_SignRecover);
+  return CKR_FUNCTION_NOT_SUPPORTED ;
+}
+
+
+/* ************************************************************************** */
+/* Functions for verifying signatures and MACs                                */
+/* ************************************************************************** */
+
+CK_DEFINE_FUNCTION(CK_RV, C_VerifyInit)(CK_SESSION_HANDLE hSession, CK_MECHANISM_PTR pMechanism, CK_OBJECT_HANDLE hKey)
+{
+  MockSession *session;
+
+  ENTER(F_C_VerifyInit);
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+
+  return initKeyOperation(&session->verifyOperation, pMechanism, hKey, CKF_VERIFY) ;
+}
+
+/*
+ * compares a signature with the fake signature of the data processed so far
+ * and ends the operation.
+ */
+static CK_RV verifySignature(MockOperation *operation, CK_BYTE_PTR pSignature, CK_ULONG ulSignatureLen)
+{
+  CK_BYTE_PTR expectedSignature;
+  CK_RV rv;
+
+  operation->active = 0;
+  if (pSignature == NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+  if (ulSignatureLen != operation->outputLength) { return CKR_SIGNATURE_LEN_RANGE ; }
+
+  expectedSignature = (CK_BYTE_PTR) malloc(operation->outputLength);
+  if (expectedSignature == NULL_PTR) { return CKR_HOST_MEMORY ; }
+  computeSignature(operation, expectedSignature);
+  rv = (memcmp(expectedSignature, pSignature, ulSignatureLen) == 0) ? CKR_OK : CKR_SIGNATURE_INVALID;
+  free(expectedSignature);
+
+  return rv ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_Verify)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pData, CK_ULONG ulDataLen, CK_BYTE_PTR pSignature, CK_ULONG ulSignatureLen)
+{
+  MockSession *session;
+  MockOperation *operation;
+
+  ENTER(F_C_Verify);
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+  operation = &session->verifyOperation;
+  if (!operation->active) { return CKR_OPERATION_NOT_INITIALIZED ; }
+  if (pData == NULL_PTR && ulDataLen > 0) { operation->active = 0; return CKR_ARGUMENTS_BAD ; }
+
+  operation->hash = hashBytes(operation->hash, pData, ulDataLen);
+
+  return verifySignature(operation, pSignature, ulSignatureLen) ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_VerifyUpdate)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pPart, CK_ULONG ulPartLen)
+{
+  MockSession *session;
+  MockOperation *operation;
+
+  ENTER(F_C_VerifyUpdate);
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+  operation = &session->verifyOperation;
+  if (!operation->active) { return CKR_OPERATION_NOT_INITIALIZED ; }
+  if (pPart == NULL_PTR && ulPartLen > 0) { operation->active = 0; return CKR_ARGUMENTS_BAD ; }
+
+  operation->hash = hashBytes(operation->hash, pPart, ulPartLen);
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_VerifyFinal)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pSignature, CK_ULONG ulSignatureLen)
+{
+  MockSession *session;
+  MockOperation *operation;
+
+  ENTER(F_C_VerifyFinal);
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+  operation = &session->verifyOperation;
+  if (!operation->active) { return CKR_OPERATION_NOT_INITIALIZED ; }
+
+  return verifySignature(operation, pSignature, ulSignatureLen) ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_VerifyRecoverInit)(CK_SESSION_HANDLE hSession, CK_MECHANISM_PTR pMechanism, CK_OBJECT_HANDLE hKey)
+{
+  ENTER(F_C_VerifyRecoverInit);
+  return CKR_FUNCTION_NOT_SUPPORTED ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_VerifyRecover)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pSignature, CK_ULONG ulSignatureLen, CK_BYTE_PTR pData, CK_ULONG_PTR pulDataLen)
+{
+  ENTER(F_C_VerifyRecover);
+  return CKR_FUNCTION_NOT_SUPPORTED ;
+}
+
+
+/* ************************************************************************** */
+/* Dual-function cryptographic functions                                      */
+/* ************************************************************************** */
+
+CK_DEFINE_FUNCTION(CK_RV, C_DigestEncryptUpdate)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pPart, CK_ULONG ulPartLen, CK_BYTE_PTR pEncryptedPart, CK_ULONG_PTR pulEncryptedPartLen)
+{
+  ENTER(F_C_DigestEncryptUpdate);
+  return CKR_FUNCTION_NOT_SUPPORTED ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_DecryptDigestUpdate)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pEncryptedPart, CK_ULONG ulEncryptedPartLen, CK_BYTE_PTR pPart, CK_ULONG_PTR pulPartLen)
+{
+  ENTER(F_C_DecryptDigestUpdate);
+  return CKR_FUNCTION_NOT_SUPPORTED ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_SignEncryptUpdate)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pPart, CK_ULONG ulPartLen, CK_BYTE_PTR pEncryptedPart, CK_ULONG_PTR pulEncryptedPartLen)
+{
+  ENTER(F_C_SignEncryptUpdate);
+  return CKR_FUNCTION_NOT_SUPPORTED ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_DecryptVerifyUpdate)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pEncryptedPart, CK_ULONG ulEncryptedPartLen, CK_BYTE_PTR pPart, CK_ULONG_PTR pulPartLen)
+{
+  ENTER(F_C_DecryptVerifyUpdate);
+  return CKR_FUNCTION_NOT_SUPPORTED ;
+}
+
+
+/* ************************************************************************** */
+/* Key management functions                                                   */
+/* ************************************************************************** */
+
+CK_DEFINE_FUNCTION(CK_RV, C_GenerateKey)(CK_SESSION_HANDLE hSession, CK_MECHANISM_PTR pMechanism, CK_ATTRIBUTE_PTR pTemplate, CK_ULONG ulCount, CK_OBJECT_HANDLE_PTR phKey)
+{
+  MockSession *session;
+  MockObject *key;
+  CK_BYTE_PTR value;
+  CK_ULONG valueLength;
+  CK_KEY_TYPE keyType;
+  CK_RV rv;
+
+  ENTER(F_C_GenerateKey);
+  if (pMechanism == NULL_PTR || phKey == NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+  if (pMechanism->mechanism == CKM_AES_KEY_GEN) {
+    keyType = CKK_AES;
+  } else if (pMechanism->mechanism == CKM_GENERIC_SECRET_KEY_GEN) {
+    keyType = CKK_GENERIC_SECRET;
+  } else {
+    return CKR_MECHANISM_INVALID ;
+  }
+
+  rv = newObject(session, pTemplate, ulCount, &key);
+  if (rv != CKR_OK) { return rv ; }
+  valueLength = getLongAttribute(key, CKA_VALUE_LEN, (keyType == CKK_AES) ? 16 : 32);
+  value = (CK_BYTE_PTR) malloc((valueLength > 0) ? valueLength : 1);
+  if (value == NULL_PTR) { freeObject(key); return CKR_HOST_MEMORY ; }
+  randomBytes(value, valueLength);
+
+  rv = setLongAttribute(key, CKA_CLASS, CKO_SECRET_KEY);
+  if (rv == CKR_OK) { rv = setLongAttribute(key, CKA_KEY_TYPE, keyType); }
+  if (rv == CKR_OK) { rv = setLongAttribute(key, CKA_VALUE_LEN, valueLength); }
+  if (rv == CKR_OK) { rv = setAttribute(key, CKA_VALUE, value, valueLength); }
+  if (rv == CKR_OK) { rv = setBooleanAttribute(key, CKA_LOCAL, CK_TRUE); }
+  if (rv != CKR_OK) { free(value); freeObject(key); return rv ; }
+  key->keyTag = hashBytes(FNV_OFFSET, value, valueLength);
+  key->signatureLength = 32;
+  free(value);
+
+  *phKey = addObject(key);
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_GenerateKeyPair)(CK_SESSION_HANDLE hSession, CK_MECHANISM_PTR pMechanism, CK_ATTRIBUTE_PTR pPublicKeyTemplate, CK_ULONG ulPublicKeyAttributeCount, CK_ATTRIBUTE_PTR pPrivateKeyTemplate, CK_ULONG ulPrivateKeyAttributeCount, CK_OBJECT_HANDLE_PTR phPublicKey, CK_OBJECT_HANDLE_PTR phPrivateKey)
+{
+  static CK_BYTE defaultPublicExponent[] = { 0x01, 0x00, 0x01 };
+  MockSession *session;
+  MockObject *publicKey, *privateKey;
+  CK_ATTRIBUTE_PTR attribute;
+  CK_BYTE_PTR keyMaterial;
+  CK_ULONG keyMaterialLength, signatureLength;
+  CK_KEY_TYPE keyType;
+  CK_RV rv;
+
+  ENTER(F_C_GenerateKeyPair);
+  if (pMechanism == NULL_PTR || phPublicKey == NULL_PTR || phPrivateKey == NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+  session = getSession(hSession);
+  if (session == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+  if (pMechanism->mechanism == CKM_RSA_PKCS_KEY_PAIR_GEN) {
+    keyType = CKK_RSA;
+  } else if (pMechanism->mechanism == CKM_EC_KEY_PAIR_GEN) {
+    keyType = CKK_EC;
+  } else {
+    return CKR_MECHANISM_INVALID ;
+  }
+
+  rv = newObject(session, pPublicKeyTemplate, ulPublicKeyAttributeCount, &publicKey);
+  if (rv != CKR_OK) { return rv ; }
+  rv = newObject(session, pPrivateKeyTemplate, ulPrivateKeyAttributeCount, &privateKey);
+  if (rv != CKR_OK) { freeObject(publicKey); return rv ; }
+
+  if (keyType == CKK_RSA) {
+    keyMaterialLength = (getLongAttribute(publicKey, CKA_MODULUS_BITS, 2048) + 7) / 8;
+    signatureLength = keyMaterialLength;
+  } else {
+    /* an uncompressed point of a 256 bit curve as DER octet string */
+    keyMaterialLength = 67;
+    signatureLength = 64;
+  }
+  keyMaterial = (CK_BYTE_PTR) malloc(keyMaterialLength);
+  if (keyMaterial == NULL_PTR) { freeObject(publicKey); freeObject(privateKey); return CKR_HOST_MEMORY ; }
+  randomBytes(keyMaterial, keyMaterialLength);
+
+  rv = setLongAttribute(publicKey, CKA_CLASS, CKO_PUBLIC_KEY);
+  if (rv == CKR_OK) { rv = setLongAttribute(privateKey, CKA_CLASS, CKO_PRIVATE_KEY); }
+  if (rv == CKR_OK) { rv = setLongAttribute(publicKey, CKA_KEY_TYPE, keyType); }
+  if (rv == CKR_OK) { rv = setLongAttribute(privateKey, CKA_KEY_TYPE, keyType); }
+  if (rv == CKR_OK) { rv = setBooleanAttribute(publicKey, CKA_LOCAL, CK_TRUE); }
+  if (rv == CKR_OK) { rv = setBooleanAttribute(privateKey, CKA_LOCAL, CK_TRUE); }
+  if (keyType == CKK_RSA) {
+    keyMaterial[0] |= 0x80;
+    attribute = findAttribute(publicKey, CKA_PUBLIC_EXPONENT);
+    if (attribute == NULL_PTR && rv == CKR_OK) {
+      rv = setAttribute(publicKey, CKA_PUBLIC_EXPONENT, defaultPublicExponent, sizeof(defaultPublicExponent));
+      attribute = findAttribute(publicKey, CKA_PUBLIC_EXPONENT);
+    }
+    if (rv == CKR_OK) { rv = setAttribute(publicKey, CKA_MODULUS, keyMaterial, keyMaterialLength); }
+    if (rv == CKR_OK) { rv = setAttribute(privateKey, CKA_MODULUS, keyMaterial, keyMaterialLength); }
+    if (rv == CKR_OK) { rv = setAttribute(privateKey, CKA_PUBLIC_EXPONENT, attribute->pValue, attribute->ulValueLen); }
+  } else {
+    keyMaterial[0] = 0x04;
+    keyMaterial[1] = 0x41;
+    keyMaterial[2] = 0x04;
+    if (rv == CKR_OK) { rv = setAttribute(publicKey, CKA_EC_POINT, keyMaterial, keyMaterialLength); }
+    attribute = findAttribute(publicKey, CKA_EC_PARAMS);
+    if (attribute != NULL_PTR && rv == CKR_OK) {
+      rv = setAttribute(privateKey, CKA_EC_PARAMS, attribute->pValue, attribute->ulValueLen);
+    }
+  }
+  if (rv != CKR_OK) { free(keyMaterial); freeObject(publicKey); freeObject(privateKey); return rv ; }
+
+  publicKey->keyTag = hashBytes(FNV_OFFSET, keyMaterial, keyMaterialLength);
+  privateKey->keyTag = publicKey->keyTag;
+  publicKey->signatureLength = signatureLength;
+  privateKey->signatureLength = signatureLength;
+  free(keyMaterial);
+
+  *phPublicKey = addObject(publicKey);
+  *phPrivateKey = addObject(privateKey);
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_WrapKey)(CK_SESSION_HANDLE hSession, CK_MECHANISM_PTR pMechanism, CK_OBJECT_HANDLE hWrappingKey, CK_OBJECT_HANDLE hKey, CK_BYTE_PTR pWrappedKey, CK_ULONG_PTR pulWrappedKeyLen)
+{
+  ENTER(F_C_WrapKey);
+  return CKR_FUNCTION_NOT_SUPPORTED ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_UnwrapKey)(CK_SESSION_HANDLE hSession, CK_MECHANISM_PTR pMechanism, CK_OBJECT_HANDLE hUnwrappingKey, CK_BYTE_PTR pWrappedKey, CK_ULONG ulWrappedKeyLen, CK_ATTRIBUTE_PTR pTemplate, CK_ULONG ulAttributeCount, CK_OBJECT_HANDLE_PTR phKey)
+{
+  ENTER(F_C_UnwrapKey);
+  return CKR_FUNCTION_NOT_SUPPORTED ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_DeriveKey)(CK_SESSION_HANDLE hSession, CK_MECHANISM_PTR pMechanism, CK_OBJECT_HANDLE hBaseKey, CK_ATTRIBUTE_PTR pTemplate, CK_ULONG ulAttributeCount, CK_OBJECT_HANDLE_PTR phKey)
+{
+  ENTER(F_C_DeriveKey);
+  return CKR_FUNCTION_NOT_SUPPORTED ;
+}
+
+
+/* ************************************************************************** */
+/* Random number generation functions                                         */
+/* ************************************************************************** */
+
+CK_DEFINE_FUNCTION(CK_RV, C_SeedRandom)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pSeed, CK_ULONG ulSeedLen)
+{
+  ENTER(F_C_SeedRandom);
+  if (pSeed == NULL_PTR && ulSeedLen > 0) { return CKR_ARGUMENTS_BAD ; }
+  if (getSession(hSession) == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+
+  pthread_mutex_lock(&randomMutex);
+  randomState = hashBytes(randomState, pSeed, ulSeedLen);
+  pthread_mutex_unlock(&randomMutex);
+
+  return CKR_OK ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_GenerateRandom)(CK_SESSION_HANDLE hSession, CK_BYTE_PTR pRandomData, CK_ULONG ulRandomLen)
+{
+  ENTER(F_C_GenerateRandom);
+  if (pRandomData == NULL_PTR && ulRandomLen > 0) { return CKR_ARGUMENTS_BAD ; }
+  if (getSession(hSession) == NULL_PTR) { return CKR_SESSION_HANDLE_INVALID ; }
+
+  randomBytes(pRandomData, ulRandomLen);
+
+  return CKR_OK ;
+}
+
+
+/* ************************************************************************** */
+/* Parallel function management functions                                     */
+/* ************************************************************************** */
+
+CK_DEFINE_FUNCTION(CK_RV, C_GetFunctionStatus)(CK_SESSION_HANDLE hSession)
+{
+  ENTER(F_C_GetFunctionStatus);
+  return CKR_FUNCTION_NOT_PARALLEL ;
+}
+
+CK_DEFINE_FUNCTION(CK_RV, C_CancelFunction)(CK_SESSION_HANDLE hSession)
+{
+  ENTER(F_C_CancelFunction);
+  return CKR_FUNCTION_NOT_PARALLEL ;
+}
+
+
+/* ************************************************************************** */
+/* Slot event function                                                        */
+/* ************************************************************************** */
+
+/*
+ * The tokens of the mock module are never removed; thus, there are no slot
+ * events. A blocking call returns when the module gets finalized.
+ */
+CK_DEFINE_FUNCTION(CK_RV, C_WaitForSlotEvent)(CK_FLAGS flags, CK_SLOT_ID_PTR pSlot, CK_VOID_PTR pReserved)
+{
+  ENTER(F_C_WaitForSlotEvent);
+  if (pSlot == NULL_PTR || pReserved != NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+  if (flags & CKF_DONT_BLOCK) { return CKR_NO_EVENT ; }
+
+  pthread_mutex_lock(&eventMutex);
+  while (initialized) {
+    pthread_cond_wait(&eventCondition, &eventMutex);
+  }
+  pthread_mutex_unlock(&eventMutex);
+
+  return CKR_CRYPTOKI_NOT_INITIALIZED ;
+}
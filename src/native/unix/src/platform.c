@@ -56,6 +56,10 @@
 #include <stdlib.h>
 #include <string.h>
 #include <dlfcn.h>
+#include <pthread.h>
+#include <errno.h>
+#include <time.h>
+#include <sys/time.h>
 #include <assert.h>
 #include <jni.h>
 
@@ -149,3 +153,309 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_discon
   free(moduleData);
   TRACE0(tag_call, __FUNCTION__,"exiting");
 }
+
+/* ************************************************************************** */
+/* Native mutex functions that can be passed to the module instead of the     */
+/* callbacks into the Java mutex handler                                      */
+/* ************************************************************************** */
+
+/*
+ * creates a new POSIX mutex. The mutex is error checking to be able to report
+ * an unlock from a thread that does not own the mutex.
+ *
+ * @param ppMutex - receives the new created mutex
+ * @return - CKR_OK if the mutex creation was ok
+ */
+CK_RV createNativeMutex(CK_VOID_PTR_PTR ppMutex)
+{
+  pthread_mutex_t *mutex;
+  pthread_mutexattr_t mutexAttributes;
+  int result;
+
+  if (ppMutex == NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+
+  mutex = (pthread_mutex_t *) malloc(sizeof(pthread_mutex_t));
+  if (mutex == NULL_PTR) { return CKR_HOST_MEMORY ; }
+
+  pthread_mutexattr_init(&mutexAttributes);
+  pthread_mutexattr_settype(&mutexAttributes, PTHREAD_MUTEX_ERRORCHECK);
+  result = pthread_mutex_init(mutex, &mutexAttributes);
+  pthread_mutexattr_destroy(&mutexAttributes);
+
+  if (result != 0) {
+    free(mutex);
+    return (result == ENOMEM) ? CKR_HOST_MEMORY : CKR_GENERAL_ERROR ;
+  }
+
+  *ppMutex = (CK_VOID_PTR) mutex;
+
+  return CKR_OK ;
+}
+
+/*
+ * destroys a mutex created by createNativeMutex.
+ *
+ * @param pMutex - the mutex to destroy
+ * @return - CKR_OK if the mutex was destroyed
+ */
+CK_RV destroyNativeMutex(CK_VOID_PTR pMutex)
+{
+  if (pMutex == NULL_PTR) { return CKR_MUTEX_BAD ; }
+
+  if (pthread_mutex_destroy((pthread_mutex_t *) pMutex) != 0) { return CKR_GENERAL_ERROR ; }
+  free(pMutex);
+
+  return CKR_OK ;
+}
+
+/*
+ * locks a mutex created by createNativeMutex.
+ *
+ * @param pMutex - the mutex to lock
+ * @return - CKR_OK if the mutex was locked
+ */
+CK_RV lockNativeMutex(CK_VOID_PTR pMutex)
+{
+  if (pMutex == NULL_PTR) { return CKR_MUTEX_BAD ; }
+
+  if (pthread_mutex_lock((pthread_mutex_t *) pMutex) != 0) { return CKR_GENERAL_ERROR ; }
+
+  return CKR_OK ;
+}
+
+/*
+ * unlocks a mutex created by createNativeMutex.
+ *
+ * @param pMutex - the mutex to unlock
+ * @return - CKR_OK if the mutex was unlocked, CKR_MUTEX_NOT_LOCKED if the
+ *           calling thread did not hold the mutex
+ */
+CK_RV unlockNativeMutex(CK_VOID_PTR pMutex)
+{
+  int result;
+
+  if (pMutex == NULL_PTR) { return CKR_MUTEX_BAD ; }
+
+  result = pthread_mutex_unlock((pthread_mutex_t *) pMutex);
+  if (result == EPERM) { return CKR_MUTEX_NOT_LOCKED ; }
+  if (result != 0) { return CKR_GENERAL_ERROR ; }
+
+  return CKR_OK ;
+}
+
+/* ************************************************************************** */
+/* Functions to keep threads of the module attached to the Java VM            */
+/* ************************************************************************** */
+
+#ifndef NO_CALLBACKS
+
+/* The key of the thread specific value that marks the threads of the module,
+ * which the wrapper attached to the VM for callbacks.
+ */
+pthread_key_t attachedThreadKey;
+int attachedThreadKeyCreated = 0;
+
+/*
+ * detaches a thread of the module from the VM, when the thread exits. It is
+ * the destructor of the thread specific value set in keepThreadAttached.
+ *
+ * @param value - the Java VM the thread is attached to
+ */
+void detachExitingThread(void *value)
+{
+  JavaVM *jvm = (JavaVM *) value;
+
+  (*jvm)->DetachCurrentThread(jvm);
+}
+
+/*
+ * creates the key of the thread specific value that marks attached threads.
+ * It is called when the VM loads this library.
+ */
+void initThreadAttachment(void)
+{
+  if (!attachedThreadKeyCreated) {
+    attachedThreadKeyCreated = (pthread_key_create(&attachedThreadKey, &detachExitingThread) == 0);
+  }
+}
+
+/*
+ * marks the current thread to get detached from the VM, when it exits.
+ *
+ * @param jvm - the Java VM the current thread was attached to
+ * @return 0 is successful, otherwise the caller has to detach the thread
+ */
+int keepThreadAttached(JavaVM *jvm)
+{
+  if (!attachedThreadKeyCreated) { return 1 ; }
+
+  return (pthread_setspecific(attachedThreadKey, (void *) jvm) == 0) ? 0 : 1 ;
+}
+
+/*
+ * deletes the key of the thread specific value. It is called when the VM
+ * unloads this library.
+ */
+void releaseThreadAttachment(void)
+{
+  if (attachedThreadKeyCreated) {
+    pthread_key_delete(attachedThreadKey);
+    attachedThreadKeyCreated = 0;
+  }
+}
+
+#endif /* NO_CALLBACKS */
+
+/* ************************************************************************** */
+/* Functions for the trace buffers                                            */
+/* ************************************************************************** */
+
+/* The key of the thread specific value that holds the trace buffer of each
+ * thread.
+ */
+pthread_key_t traceBufferKey;
+int traceBufferKeyCreated = 0;
+
+/*
+ * releases the trace buffer of an exiting thread, that the next new thread can
+ * reuse it. The records in the buffer remain until they are drained.
+ *
+ * @param value - the trace buffer of the thread
+ */
+void releaseTraceBuffer(void *value)
+{
+  TraceBuffer *buffer = (TraceBuffer *) value;
+
+  MEMORY_BARRIER();
+  buffer->inUse = 0;
+}
+
+/*
+ * creates the key of the thread specific trace buffer. It is called when the
+ * VM loads this library.
+ */
+void initTraceBuffers(void)
+{
+  if (!traceBufferKeyCreated) {
+    traceBufferKeyCreated = (pthread_key_create(&traceBufferKey, &releaseTraceBuffer) == 0);
+  }
+}
+
+/*
+ * gets the current time for a trace record. It uses a monotonic clock if
+ * available, which is also the clock of System.nanoTime on most VMs.
+ *
+ * @return - the current time in nanoseconds
+ */
+jlong traceTimeStamp(void)
+{
+#ifdef CLOCK_MONOTONIC
+  struct timespec now;
+
+  clock_gettime(CLOCK_MONOTONIC, &now);
+
+  return ((jlong) now.tv_sec) * 1000000000 + now.tv_nsec ;
+#else
+  struct timeval now;
+
+  gettimeofday(&now, NULL);
+
+  return ((jlong) now.tv_sec) * 1000000000 + ((jlong) now.tv_usec) * 1000 ;
+#endif
+}
+
+/*
+ * gets an ID of the current thread for the trace records.
+ *
+ * @return - the ID of the current thread
+ */
+jlong traceThreadId(void)
+{
+  return (jlong) (size_t) pthread_self() ;
+}
+
+/*
+ * checks, if each thread can keep its own trace buffer; i.e. the thread
+ * specific key was created.
+ *
+ * @return - 1 if the trace buffers are available, 0 otherwise
+ */
+int isThreadTraceBufferAvailable(void)
+{
+  return traceBufferKeyCreated ;
+}
+
+/*
+ * gets the trace buffer of the current thread.
+ *
+ * @return - the trace buffer, NULL_PTR if the thread has none yet
+ */
+TraceBuffer *getThreadTraceBuffer(void)
+{
+  if (!traceBufferKeyCreated) { return NULL_PTR ; }
+
+  return (TraceBuffer *) pthread_getspecific(traceBufferKey) ;
+}
+
+/*
+ * sets the trace buffer of the current thread.
+ *
+ * @param buffer - the trace buffer of the current thread
+ */
+void setThreadTraceBuffer(TraceBuffer *buffer)
+{
+  if (traceBufferKeyCreated) {
+    pthread_setspecific(traceBufferKey, (void *) buffer);
+  }
+}
+
+/*
+ * sets a value atomically, if it still has the expected value.
+ *
+ * @return - 1 if the value was set, 0 otherwise
+ */
+int compareAndSwapLong(volatile long *value, long expectedValue, long newValue)
+{
+  return __sync_bool_compare_and_swap(value, expectedValue, newValue) ? 1 : 0 ;
+}
+
+/*
+ * sets a pointer atomically, if it still has the expected value.
+ *
+ * @return - 1 if the pointer was set, 0 otherwise
+ */
+int compareAndSwapPointer(void * volatile *value, void *expectedValue, void *newValue)
+{
+  return __sync_bool_compare_and_swap(value, expectedValue, newValue) ? 1 : 0 ;
+}
+
+#ifdef __GCC_HAVE_SYNC_COMPARE_AND_SWAP_8
+
+/*
+ * adds a delta to a value atomically.
+ */
+void atomicAddLong(volatile jlong *value, jlong delta)
+{
+  __sync_fetch_and_add(value, delta);
+}
+
+#else
+
+/*
+ * The lock for atomicAddLong on platforms without 64 bit atomic instructions;
+ * e.g. armeabi. There, the compiler cannot inline __sync_fetch_and_add on a
+ * jlong and would need libatomic, which the NDK does not link by default.
+ */
+static pthread_mutex_t atomicLongMutex = PTHREAD_MUTEX_INITIALIZER;
+
+/*
+ * adds a delta to a value atomically.
+ */
+void atomicAddLong(volatile jlong *value, jlong delta)
+{
+  pthread_mutex_lock(&atomicLongMutex);
+  *value += delta;
+  pthread_mutex_unlock(&atomicLongMutex);
+}
+
+#endif
@@ -65,6 +65,9 @@
 
 #include "jni.h"
 
+/* A full memory barrier, used by the trace buffers. */
+#define MEMORY_BARRIER() __sync_synchronize()
+
 /* A data structure to hold required information about a PKCS#11 module. */
 struct ModuleData {
 
@@ -168,3 +168,284 @@ JNIEXPORT void JNICALL Java_iaik_pkcs_pkcs11_wrapper_PKCS11Implementation_discon
 
   TRACE0(tag_call, __FUNCTION__, "exiting ");
 }
+
+/* ************************************************************************** */
+/* Native mutex functions that can be passed to the module instead of the     */
+/* callbacks into the Java mutex handler                                      */
+/* ************************************************************************** */
+
+/*
+ * creates a new mutex based on a critical section.
+ *
+ * @param ppMutex - receives the new created mutex
+ * @return - CKR_OK if the mutex creation was ok
+ */
+CK_RV createNativeMutex(CK_VOID_PTR_PTR ppMutex)
+{
+  NativeMutex *mutex;
+
+  if (ppMutex == NULL_PTR) { return CKR_ARGUMENTS_BAD ; }
+
+  mutex = (NativeMutex *) malloc(sizeof(NativeMutex));
+  if (mutex == NULL_PTR) { return CKR_HOST_MEMORY ; }
+
+  InitializeCriticalSection(&(mutex->criticalSection));
+  mutex->ownerThreadId = 0;
+
+  *ppMutex = (CK_VOID_PTR) mutex;
+
+  return CKR_OK ;
+}
+
+/*
+ * destroys a mutex created by createNativeMutex.
+ *
+ * @param pMutex - the mutex to destroy
+ * @return - CKR_OK if the mutex was destroyed
+ */
+CK_RV destroyNativeMutex(CK_VOID_PTR pMutex)
+{
+  NativeMutex *mutex = (NativeMutex *) pMutex;
+
+  if (mutex == NULL_PTR) { return CKR_MUTEX_BAD ; }
+
+  DeleteCriticalSection(&(mutex->criticalSection));
+  free(mutex);
+
+  return CKR_OK ;
+}
+
+/*
+ * locks a mutex created by createNativeMutex.
+ *
+ * @param pMutex - the mutex to lock
+ * @return - CKR_OK if the mutex was locked, CKR_GENERAL_ERROR if the calling
+ *           thread already holds the mutex; like the error checking mutex on
+ *           unix, a critical section would be entered recursively
+ */
+CK_RV lockNativeMutex(CK_VOID_PTR pMutex)
+{
+  NativeMutex *mutex = (NativeMutex *) pMutex;
+
+  if (mutex == NULL_PTR) { return CKR_MUTEX_BAD ; }
+  if (mutex->ownerThreadId == GetCurrentThreadId()) { return CKR_GENERAL_ERROR ; }
+
+  EnterCriticalSection(&(mutex->criticalSection));
+  mutex->ownerThreadId = GetCurrentThreadId();
+
+  return CKR_OK ;
+}
+
+/*
+ * unlocks a mutex created by createNativeMutex.
+ *
+ * @param pMutex - the mutex to unlock
+ * @return - CKR_OK if the mutex was unlocked, CKR_MUTEX_NOT_LOCKED if the
+ *           calling thread did not hold the mutex
+ */
+CK_RV unlockNativeMutex(CK_VOID_PTR pMutex)
+{
+  NativeMutex *mutex = (NativeMutex *) pMutex;
+
+  if (mutex == NULL_PTR) { return CKR_MUTEX_BAD ; }
+  if (mutex->ownerThreadId != GetCurrentThreadId()) { return CKR_MUTEX_NOT_LOCKED ; }
+
+  mutex->ownerThreadId = 0;
+  LeaveCriticalSection(&(mutex->criticalSection));
+
+  return CKR_OK ;
+}
+
+/* ************************************************************************** */
+/* Functions to keep threads of the module attached to the Java VM            */
+/* ************************************************************************** */
+
+#ifndef NO_CALLBACKS
+
+/* The index of the fiber local value that marks the threads of the module,
+ * which the wrapper attached to the VM for callbacks.
+ */
+DWORD attachedThreadIndex = FLS_OUT_OF_INDEXES;
+
+/*
+ * detaches a thread of the module from the VM, when the thread exits. It is
+ * the callback of the fiber local value set in keepThreadAttached.
+ *
+ * @param value - the Java VM the thread is attached to
+ */
+VOID WINAPI detachExitingThread(PVOID value)
+{
+  JavaVM *jvm = (JavaVM *) value;
+
+  if (jvm != NULL_PTR) {
+    (*jvm)->DetachCurrentThread(jvm);
+  }
+}
+
+/*
+ * allocates the index of the fiber local value that marks attached threads.
+ * It is called when the VM loads this library.
+ */
+void initThreadAttachment(void)
+{
+  if (attachedThreadIndex == FLS_OUT_OF_INDEXES) {
+    attachedThreadIndex = FlsAlloc(&detachExitingThread);
+  }
+}
+
+/*
+ * marks the current thread to get detached from the VM, when it exits.
+ *
+ * @param jvm - the Java VM the current thread was attached to
+ * @return 0 is successful, otherwise the caller has to detach the thread
+ */
+int keepThreadAttached(JavaVM *jvm)
+{
+  if (attachedThreadIndex == FLS_OUT_OF_INDEXES) { return 1 ; }
+
+  return FlsSetValue(attachedThreadIndex, (PVOID) jvm) ? 0 : 1 ;
+}
+
+/*
+ * frees the index of the fiber local value. It is called when the VM unloads
+ * this library.
+ */
+void releaseThreadAttachment(void)
+{
+  if (attachedThreadIndex != FLS_OUT_OF_INDEXES) {
+    FlsFree(attachedThreadIndex);
+    attachedThreadIndex = FLS_OUT_OF_INDEXES;
+  }
+}
+
+#endif /* NO_CALLBACKS */
+
+/* ************************************************************************** */
+/* Functions for the trace buffers                                            */
+/* ************************************************************************** */
+
+/* The index of the fiber local value that holds the trace buffer of each
+ * thread.
+ */
+DWORD traceBufferIndex = FLS_OUT_OF_INDEXES;
+
+/* The frequency of the performance counter in counts per second. */
+LARGE_INTEGER performanceFrequency;
+
+/*
+ * releases the trace buffer of an exiting thread, that the next new thread can
+ * reuse it. The records in the buffer remain until they are drained.
+ *
+ * @param value - the trace buffer of the thread
+ */
+VOID WINAPI releaseTraceBuffer(PVOID value)
+{
+  TraceBuffer *buffer = (TraceBuffer *) value;
+
+  if (buffer != NULL_PTR) {
+    MEMORY_BARRIER();
+    buffer->inUse = 0;
+  }
+}
+
+/*
+ * allocates the index of the fiber local trace buffer. It is called when the
+ * VM loads this library.
+ */
+void initTraceBuffers(void)
+{
+  if (traceBufferIndex == FLS_OUT_OF_INDEXES) {
+    traceBufferIndex = FlsAlloc(&releaseTraceBuffer);
+  }
+  QueryPerformanceFrequency(&performanceFrequency);
+}
+
+/*
+ * gets the current time for a trace record from the performance counter.
+ *
+ * @return - the current time in nanoseconds
+ */
+jlong traceTimeStamp(void)
+{
+  LARGE_INTEGER now;
+  jlong frequency = (jlong) performanceFrequency.QuadPart;
+
+  if (frequency == 0) { return 0 ; }
+  QueryPerformanceCounter(&now);
+
+  /* split the conversion to avoid an overflow */
+  return (now.QuadPart / frequency) * 1000000000 + ((now.QuadPart % frequency) * 1000000000) / frequency ;
+}
+
+/*
+ * gets an ID of the current thread for the trace records.
+ *
+ * @return - the ID of the current thread
+ */
+jlong traceThreadId(void)
+{
+  return (jlong) GetCurrentThreadId() ;
+}
+
+/*
+ * checks, if each thread can keep its own trace buffer; i.e. the fiber local
+ * index was allocated.
+ *
+ * @return - 1 if the trace buffers are available, 0 otherwise
+ */
+int isThreadTraceBufferAvailable(void)
+{
+  return (traceBufferIndex != FLS_OUT_OF_INDEXES) ? 1 : 0 ;
+}
+
+/*
+ * gets the trace buffer of the current thread.
+ *
+ * @return - the trace buffer, NULL_PTR if the thread has none yet
+ */
+TraceBuffer *getThreadTraceBuffer(void)
+{
+  if (traceBufferIndex == FLS_OUT_OF_INDEXES) { return NULL_PTR ; }
+
+  return (TraceBuffer *) FlsGetValue(traceBufferIndex) ;
+}
+
+/*
+ * sets the trace buffer of the current thread.
+ *
+ * @param buffer - the trace buffer of the current thread
+ */
+void setThreadTraceBuffer(TraceBuffer *buffer)
+{
+  if (traceBufferIndex != FLS_OUT_OF_INDEXES) {
+    FlsSetValue(traceBufferIndex, (PVOID) buffer);
+  }
+}
+
+/*
+ * sets a value atomically, if it still has the expected value.
+ *
+ * @return - 1 if the value was set, 0 otherwise
+ */
+int compareAndSwapLong(volatile long *value, long expectedValue, long newValue)
+{
+  return (InterlockedCompareExchange((LONG volatile *) value, newValue, expectedValue) == expectedValue) ? 1 : 0 ;
+}
+
+/*
+ * sets a pointer atomically, if it still has the expected value.
+ *
+ * @return - 1 if the pointer was set, 0 otherwise
+ */
+int compareAndSwapPointer(void * volatile *value, void *expectedValue, void *newValue)
+{
+  return (InterlockedCompareExchangePointer((PVOID volatile *) value, newValue, expectedValue) == expectedValue) ? 1 : 0 ;
+}
+
+/*
+ * adds a delta to a value atomically.
+ */
+void atomicAddLong(volatile jlong *value, jlong delta)
+{
+  InterlockedExchangeAdd64((LONGLONG volatile *) value, delta);
+}
@@ -79,6 +79,14 @@
 
 #include "jni.h"
 
+/* A full memory barrier, used by the trace buffers. */
+#define MEMORY_BARRIER() MemoryBarrier()
+
+/* older compilers only know the non-standard name */
+#if defined(_MSC_VER) && (_MSC_VER < 1900)
+#define vsnprintf _vsnprintf
+#endif
+
 /* A data structure to hold required information about a PKCS#11 module. */
 struct ModuleData {
 
@@ -93,4 +101,21 @@ struct ModuleData {
 };
 typedef struct ModuleData ModuleData;
 
+/* A mutex as created by createNativeMutex. The owner is tracked to be able to
+ * report an unlock from a thread that does not hold the mutex and a relock by
+ * the thread holding it, because a critical section is recursive.
+ */
+struct NativeMutex {
+
+  CRITICAL_SECTION criticalSection;
+
+  /* The ID of the thread currently holding the mutex, 0 if not locked. Other
+   * threads may read it without holding the mutex; only the owner can find
+   * its own ID here.
+   */
+  volatile DWORD ownerThreadId;
+
+};
+typedef struct NativeMutex NativeMutex;
+
 